@@ -17,21 +17,18 @@
 package org.opencb.opencga.analysis.old.execution.plugins.ibs;
 
 import org.apache.commons.lang3.StringUtils;
-import org.opencb.biodata.tools.variant.algorithm.IdentityByState;
-import org.opencb.biodata.tools.variant.algorithm.IdentityByStateClustering;
 import org.opencb.commons.datastore.core.ObjectMap;
 import org.opencb.commons.datastore.core.Query;
 import org.opencb.commons.datastore.core.QueryOptions;
 import org.opencb.opencga.analysis.old.execution.plugins.OpenCGAAnalysis;
-import org.opencb.opencga.catalog.db.api.SampleDBAdaptor;
-import org.opencb.opencga.catalog.managers.CatalogManager;
-import org.opencb.opencga.core.models.Sample;
 import org.opencb.opencga.catalog.old.models.tool.Execution;
 import org.opencb.opencga.catalog.old.models.tool.Manifest;
 import org.opencb.opencga.catalog.old.models.tool.Option;
-import org.opencb.opencga.storage.core.variant.adaptors.iterators.VariantDBIterator;
+import org.opencb.opencga.storage.core.manager.variant.VariantStorageManager;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantField;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryParam;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryUtils;
+import org.opencb.opencga.storage.core.variant.adaptors.iterators.VariantDBIterator;
 
 import java.io.FileOutputStream;
 import java.io.OutputStream;
@@ -40,7 +37,6 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 import java.util.zip.GZIPOutputStream;
 
 /**
@@ -52,6 +48,7 @@ public class IbsAnalysis extends OpenCGAAnalysis {
 
     public static final String OUTDIR = "outdir";
     public static final String SAMPLES = "samples";
+    public static final String NUM_THREADS = "numThreads";
     public static final String PLUGIN_ID = "ibs_plugin";
     private final Manifest manifest;
 
@@ -61,7 +58,8 @@ public class IbsAnalysis extends OpenCGAAnalysis {
                         new Execution("default", "default", "", Collections.emptyList(), Collections.emptyList(), OUTDIR,
                                 Arrays.asList(
                                         new Option(OUTDIR, "", true),
-                                        new Option(SAMPLES, "", false)
+                                        new Option(SAMPLES, "", false),
+                                        new Option(NUM_THREADS, "", false)
                                 ), Collections.emptyList(), null, null)
                 ), null, null);
     }
@@ -78,53 +76,49 @@ public class IbsAnalysis extends OpenCGAAnalysis {
 
     @Override
     public int run(Map<String, Path> input, Path outdir, ObjectMap params) throws Exception {
+        Query query = VariantStorageManager.getVariantQuery(params);
+        if (!VariantQueryUtils.isValidParam(query, VariantQueryParam.STUDY)) {
+            query.append(VariantQueryParam.STUDY.key(), getStudyId());
+        }
+        List<String> samples = Collections.emptyList();
+        if (StringUtils.isNotEmpty(params.getString(SAMPLES))) {
+            samples = params.getAsStringList(SAMPLES);
+            query.append(VariantQueryParam.INCLUDE_SAMPLE.key(), samples);
+        }
+        query.append(VariantQueryParam.INCLUDE_FORMAT.key(), "GT");
+        QueryOptions options = new QueryOptions(QueryOptions.EXCLUDE, VariantField.ANNOTATION);
+        int numThreads = params.getInt(NUM_THREADS, Runtime.getRuntime().availableProcessors());
+
+        IdentityByStateCounts counts;
+        long start = System.currentTimeMillis();
+        try (VariantDBIterator iterator = getVariantStorageManager().iterator(query, options, getSessionId());
+             IdentityByStateEngine engine = new IdentityByStateEngine(samples, numThreads, IdentityByStateEngine.DEFAULT_CHUNK_SIZE)) {
+            counts = engine.compute(iterator);
+        }
+        getLogger().info("IBS of {} samples over {} variants computed in {}s", counts.getSamples().size(), counts.getNumVariants(),
+                (System.currentTimeMillis() - start) / 1000.0);
+
+        if ("-".equals(outdir.getFileName().toString())) {
+            counts.writePairs(System.out);
+        } else {
+            Path pairsFile;
+            Path distanceFile;
+            if (outdir.toAbsolutePath().toFile().isDirectory()) {
+                pairsFile = outdir.resolve("ibs.genome.gz");
+                distanceFile = outdir.resolve("ibs.mdist.gz");
+            } else {
+                pairsFile = outdir;
+                distanceFile = outdir.resolveSibling(outdir.getFileName() + ".mdist.gz");
+            }
+            try (OutputStream outputStream = new GZIPOutputStream(new FileOutputStream(pairsFile.toFile()))) {
+                counts.writePairs(outputStream);
+            }
+            try (OutputStream outputStream = new GZIPOutputStream(new FileOutputStream(distanceFile.toFile()))) {
+                counts.writeDistanceMatrix(outputStream);
+            }
+        }
+
         return 0;
-//        CatalogManager catalogManager = getCatalogManager();
-//        String sessionId = getSessionId();
-//        long studyId = getStudyId();
-//
-//        IdentityByStateClustering ibsc = new IdentityByStateClustering();
-//        List<String> samples;
-//        Query query = new Query(VariantQueryParam.STUDY.key(), studyId);
-//        QueryOptions options = new QueryOptions(QueryOptions.EXCLUDE, VariantField.ANNOTATION);
-//
-//        Query samplesQuery = new Query();
-//        if (StringUtils.isNotEmpty(params.getString(SAMPLES))) {
-//            String userId = catalogManager.getUserManager().getUserId(sessionId);
-//            List<Long> sampleIds = catalogManager.getSampleManager().getIds(params.getAsStringList(SAMPLES), String.valueOf(studyId),
-//                    userId)
-//                    .getResourceIds();
-//            samplesQuery.append(SampleDBAdaptor.QueryParams.UID.key(), sampleIds);
-//            query.append(VariantQueryParam.INCLUDE_SAMPLE.key(), sampleIds);
-//        }
-//        samples = catalogManager.getSampleManager().get(studyId, samplesQuery, new QueryOptions(), sessionId)
-//                .getResult()
-//                .stream()
-//                .map(Sample::getId)
-//                .collect(Collectors.toList());
-//
-//
-//        List<IdentityByState> identityByStateList;
-//        try (VariantDBIterator iterator = getVariantStorageManager().iterable(sessionId).iterator(query, options)) {
-//            identityByStateList = ibsc.countIBS(iterator, samples);
-//        }
-//        if ("-".equals(outdir.getFileName().toString())) {
-//            ibsc.write(System.out, identityByStateList, samples);
-//        } else {
-//            Path outfile;
-//            if (outdir.toAbsolutePath().toFile().isDirectory()) {
-//                String alias = catalogManager.getStudyManager().get(String.valueOf((Long) studyId), null, sessionId).first().getId();
-//                outfile = outdir.resolve(alias + ".genome.gz");
-//            } else {
-//                outfile = outdir;
-//            }
-//
-//            try (OutputStream outputStream = new GZIPOutputStream(new FileOutputStream(outfile.toFile()))) {
-//                ibsc.write(outputStream, identityByStateList, samples);
-//            }
-//        }
-//
-//        return 0;
     }
 
 }
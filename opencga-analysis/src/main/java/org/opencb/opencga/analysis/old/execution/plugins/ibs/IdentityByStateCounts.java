@@ -0,0 +1,165 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.analysis.old.execution.plugins.ibs;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * IBS0, IBS1 and IBS2 counts of all the pairs of samples, computed by {@link IdentityByStateEngine}.
+ *
+ * Counts are stored in arrays indexed by pair, for the upper triangle of the samples matrix.
+ */
+public class IdentityByStateCounts {
+
+    private final List<String> samples;
+    private final int[] ibs0;
+    private final int[] ibs1;
+    private final int[] ibs2;
+    private final long numVariants;
+
+    IdentityByStateCounts(List<String> samples, int[] ibs0, int[] ibs1, int[] ibs2, long numVariants) {
+        this.samples = samples;
+        this.ibs0 = ibs0;
+        this.ibs1 = ibs1;
+        this.ibs2 = ibs2;
+        this.numVariants = numVariants;
+    }
+
+    static int pairIndex(int numSamples, int i, int j) {
+        if (i > j) {
+            return pairIndex(numSamples, j, i);
+        } else if (i == j) {
+            throw new IllegalArgumentException("Can not get IBS of a sample with itself");
+        }
+        return (int) ((long) i * numSamples - (long) i * (i + 1) / 2 + (j - i - 1));
+    }
+
+    public List<String> getSamples() {
+        return samples;
+    }
+
+    public long getNumVariants() {
+        return numVariants;
+    }
+
+    public int getIbs0(int i, int j) {
+        return ibs0[pairIndex(samples.size(), i, j)];
+    }
+
+    public int getIbs1(int i, int j) {
+        return ibs1[pairIndex(samples.size(), i, j)];
+    }
+
+    public int getIbs2(int i, int j) {
+        return ibs2[pairIndex(samples.size(), i, j)];
+    }
+
+    /**
+     * Number of variants where none of the two samples has a missing genotype.
+     *
+     * @param i First sample
+     * @param j Second sample
+     * @return Number of compared variants
+     */
+    public int getCount(int i, int j) {
+        int pair = pairIndex(samples.size(), i, j);
+        return ibs0[pair] + ibs1[pair] + ibs2[pair];
+    }
+
+    /**
+     * IBS distance between two samples, {@code 1 - (IBS2 + 0.5 * IBS1) / N}.
+     *
+     * @param i First sample
+     * @param j Second sample
+     * @return IBS distance, or NaN if there are no compared variants
+     */
+    public double getDistance(int i, int j) {
+        if (i == j) {
+            return 0;
+        }
+        int pair = pairIndex(samples.size(), i, j);
+        int count = ibs0[pair] + ibs1[pair] + ibs2[pair];
+        if (count == 0) {
+            return Double.NaN;
+        }
+        return 1 - (ibs2[pair] + 0.5 * ibs1[pair]) / count;
+    }
+
+    /**
+     * Write one line per pair of samples, with the IBS counts and the distance.
+     *
+     * @param outputStream Output stream. Not closed
+     * @throws IOException on write error
+     */
+    public void writePairs(OutputStream outputStream) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+        writer.write("#SAMPLE1\tSAMPLE2\tIBS0\tIBS1\tIBS2\tN\tDST\n");
+        int numSamples = samples.size();
+        for (int i = 0; i < numSamples; i++) {
+            for (int j = i + 1; j < numSamples; j++) {
+                int pair = pairIndex(numSamples, i, j);
+                writer.write(samples.get(i));
+                writer.write('\t');
+                writer.write(samples.get(j));
+                writer.write('\t');
+                writer.write(Integer.toString(ibs0[pair]));
+                writer.write('\t');
+                writer.write(Integer.toString(ibs1[pair]));
+                writer.write('\t');
+                writer.write(Integer.toString(ibs2[pair]));
+                writer.write('\t');
+                writer.write(Integer.toString(ibs0[pair] + ibs1[pair] + ibs2[pair]));
+                writer.write('\t');
+                writer.write(Double.toString(getDistance(i, j)));
+                writer.write('\n');
+            }
+        }
+        writer.flush();
+    }
+
+    /**
+     * Write the square matrix of IBS distances, with a header line with the samples.
+     *
+     * @param outputStream Output stream. Not closed
+     * @throws IOException on write error
+     */
+    public void writeDistanceMatrix(OutputStream outputStream) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+        writer.write("#SAMPLE");
+        for (String sample : samples) {
+            writer.write('\t');
+            writer.write(sample);
+        }
+        writer.write('\n');
+        int numSamples = samples.size();
+        for (int i = 0; i < numSamples; i++) {
+            writer.write(samples.get(i));
+            for (int j = 0; j < numSamples; j++) {
+                writer.write('\t');
+                writer.write(Double.toString(getDistance(i, j)));
+            }
+            writer.write('\n');
+        }
+        writer.flush();
+    }
+}
@@ -0,0 +1,469 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.analysis.old.execution.plugins.ibs;
+
+import org.opencb.biodata.models.feature.Genotype;
+import org.opencb.biodata.models.variant.StudyEntry;
+import org.opencb.biodata.models.variant.Variant;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Counts the Identity By State (IBS0, IBS1 and IBS2) of all the pairs of samples.
+ *
+ * Genotypes are packed as 2-bit codes, 32 variants per long word, one array of words per sample.
+ * Variants are read in chunks. Each chunk is split in tiles of samples, and each pair of tiles is counted
+ * in a thread pool using bitwise operations and {@link Long#bitCount(long)}. The next chunk is packed while the
+ * previous one is being counted.
+ *
+ * The 2-bit codes only tell reference from alternate alleles. Variants read with {@link #add(Variant)} where any sample
+ * carries a second alternate allele are kept apart with the alleles of each sample, and compared allele by allele in
+ * the same tiles, so 1/2 and 1/1 share one allele (IBS1) instead of being both homozygous alternate.
+ *
+ * Counts are kept in memory for all the pairs, using 12 bytes per pair.
+ *
+ * Usage:
+ * <pre>
+ *     try (IdentityByStateEngine engine = new IdentityByStateEngine(samples)) {
+ *         IdentityByStateCounts counts = engine.compute(iterator);
+ *     }
+ * </pre>
+ */
+public class IdentityByStateEngine implements AutoCloseable {
+
+    public static final byte HOM_REF = 0;
+    public static final byte HET = 1;
+    public static final byte HOM_ALT = 2;
+    public static final byte MISSING = 3;
+
+    public static final int DEFAULT_CHUNK_SIZE = 16 * 1024;
+    static final int SAMPLES_TILE = 64;
+    static final int WORDS_TILE = 256;
+
+    private static final int GENOTYPES_PER_WORD = 32;
+    private static final long LOW_BITS = 0x5555555555555555L;
+    private static final int MAX_SAMPLES = 65536;
+    private static final int MAX_MULTI_ALLELIC_CHUNK = 256;
+    private static final int MISSING_ALLELES = -1;
+
+    private final int numThreads;
+    private final int words;
+    private final ExecutorService executor;
+    private final Map<String, Integer> genotypeAlleles = new HashMap<>();
+
+    private List<String> samples;
+    private int numSamples;
+    private int[] ibs0;
+    private int[] ibs1;
+    private int[] ibs2;
+    private long numVariants;
+
+    // Double buffer. One chunk is packed while the other is counted
+    private long[] packing;
+    private long[] counting;
+    private int packedVariants;
+    // Alleles of the multi-allelic variants of each chunk
+    private List<int[]> packingMultiAllelic = new ArrayList<>();
+    private List<int[]> countingMultiAllelic = new ArrayList<>();
+    private final List<Future<?>> pending = new ArrayList<>();
+
+    // Cached positions of the samples in the StudyEntry
+    private Map<String, Integer> samplesPosition;
+    private int[] samplesIdx;
+    private byte[] variantCodes;
+    private int[] variantAlleles;
+
+    /**
+     * Create an IBS engine. Samples are read from the first variant.
+     */
+    public IdentityByStateEngine() {
+        this(null);
+    }
+
+    /**
+     * Create an IBS engine.
+     *
+     * @param samples Samples to compare. If empty, samples are read from the first variant.
+     */
+    public IdentityByStateEngine(List<String> samples) {
+        this(samples, Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Create an IBS engine.
+     *
+     * @param samples    Samples to compare. If empty, samples are read from the first variant.
+     * @param numThreads Number of threads
+     * @param chunkSize  Number of variants packed before counting. Must be a multiple of 32
+     */
+    public IdentityByStateEngine(List<String> samples, int numThreads, int chunkSize) {
+        if (chunkSize <= 0 || chunkSize % GENOTYPES_PER_WORD != 0) {
+            throw new IllegalArgumentException("Chunk size must be a positive multiple of " + GENOTYPES_PER_WORD + ". Got " + chunkSize);
+        }
+        this.numThreads = Math.max(1, numThreads);
+        this.words = chunkSize / GENOTYPES_PER_WORD;
+        this.executor = Executors.newFixedThreadPool(this.numThreads);
+        if (samples != null && !samples.isEmpty()) {
+            init(samples);
+        }
+    }
+
+    private void init(List<String> samples) {
+        if (samples.size() > MAX_SAMPLES) {
+            throw new IllegalArgumentException("Unable to compute IBS for more than " + MAX_SAMPLES + " samples. Got " + samples.size());
+        }
+        this.samples = Collections.unmodifiableList(new ArrayList<>(samples));
+        this.numSamples = samples.size();
+        int numPairs = (int) ((long) numSamples * (numSamples - 1) / 2);
+        ibs0 = new int[numPairs];
+        ibs1 = new int[numPairs];
+        ibs2 = new int[numPairs];
+        packing = new long[numSamples * words];
+        counting = new long[numSamples * words];
+        variantCodes = new byte[numSamples];
+        variantAlleles = new int[numSamples];
+    }
+
+    /**
+     * Read all the variants from the iterator and count the IBS of all the pairs of samples.
+     *
+     * @param iterator Variants iterator, with only one study
+     * @return IBS counts
+     */
+    public IdentityByStateCounts compute(Iterator<Variant> iterator) {
+        while (iterator.hasNext()) {
+            add(iterator.next());
+        }
+        return getCounts();
+    }
+
+    /**
+     * Add the genotypes of a variant. Multi-allelic genotypes are compared by allele.
+     *
+     * @param variant Variant with one study
+     */
+    public void add(Variant variant) {
+        StudyEntry study = variant.getStudies().get(0);
+        if (samples == null) {
+            init(study.getOrderedSamplesName());
+        }
+        if (study.getSamplesPosition() != samplesPosition) {
+            samplesPosition = study.getSamplesPosition();
+            samplesIdx = new int[numSamples];
+            for (int i = 0; i < numSamples; i++) {
+                samplesIdx[i] = samplesPosition.getOrDefault(samples.get(i), -1);
+            }
+        }
+        Integer gtIdx = study.getFormatPositions().get("GT");
+        List<List<String>> samplesData = study.getSamplesData();
+        boolean multiAllelic = false;
+        for (int i = 0; i < numSamples; i++) {
+            int sampleIdx = samplesIdx[i];
+            int alleles = MISSING_ALLELES;
+            if (gtIdx != null && sampleIdx >= 0 && sampleIdx < samplesData.size()) {
+                List<String> sampleData = samplesData.get(sampleIdx);
+                if (gtIdx < sampleData.size()) {
+                    alleles = getCachedGenotypeAlleles(sampleData.get(gtIdx));
+                }
+            }
+            variantAlleles[i] = alleles;
+            multiAllelic |= alleles != MISSING_ALLELES && (alleles & 0xFFFF) > 1;
+        }
+        if (multiAllelic) {
+            packingMultiAllelic.add(variantAlleles.clone());
+            numVariants++;
+            if (packingMultiAllelic.size() == MAX_MULTI_ALLELIC_CHUNK) {
+                flush();
+            }
+        } else {
+            for (int i = 0; i < numSamples; i++) {
+                variantCodes[i] = toGenotypeCode(variantAlleles[i]);
+            }
+            add(variantCodes);
+        }
+    }
+
+    /**
+     * Add the genotypes of a variant, already coded as {@link #HOM_REF}, {@link #HET}, {@link #HOM_ALT} or {@link #MISSING}.
+     *
+     * @param codes Genotype code of each sample, in the same order as the samples
+     */
+    public void add(byte[] codes) {
+        if (samples == null) {
+            throw new IllegalStateException("Missing samples");
+        }
+        int word = packedVariants / GENOTYPES_PER_WORD;
+        int shift = (packedVariants % GENOTYPES_PER_WORD) * 2;
+        for (int i = 0, offset = word; i < numSamples; i++, offset += words) {
+            packing[offset] |= ((long) (codes[i] & 3)) << shift;
+        }
+        packedVariants++;
+        numVariants++;
+        if (packedVariants == words * GENOTYPES_PER_WORD) {
+            flush();
+        }
+    }
+
+    /**
+     * Wait for all the pending variants to be counted, and get the IBS counts.
+     *
+     * @return IBS counts
+     */
+    public IdentityByStateCounts getCounts() {
+        if (samples == null) {
+            return new IdentityByStateCounts(Collections.emptyList(), new int[0], new int[0], new int[0], 0);
+        }
+        flush();
+        waitPending();
+        return new IdentityByStateCounts(samples, ibs0, ibs1, ibs2, numVariants);
+    }
+
+    private void flush() {
+        if (packedVariants == 0 && packingMultiAllelic.isEmpty()) {
+            return;
+        }
+        int usedWords = (packedVariants + GENOTYPES_PER_WORD - 1) / GENOTYPES_PER_WORD;
+        int remainder = packedVariants % GENOTYPES_PER_WORD;
+        if (remainder != 0) {
+            // Unused genotypes of the last word are missing
+            long padding = -1L << (remainder * 2);
+            for (int offset = usedWords - 1; offset < packing.length; offset += words) {
+                packing[offset] |= padding;
+            }
+        }
+        // Previous chunk must be counted before reusing its buffer
+        waitPending();
+        long[] chunk = packing;
+        packing = counting;
+        counting = chunk;
+        Arrays.fill(packing, 0);
+        packedVariants = 0;
+        List<int[]> multiAllelic = packingMultiAllelic;
+        packingMultiAllelic = countingMultiAllelic;
+        countingMultiAllelic = multiAllelic;
+        packingMultiAllelic.clear();
+
+        for (int tileI = 0; tileI < numSamples; tileI += SAMPLES_TILE) {
+            for (int tileJ = tileI; tileJ < numSamples; tileJ += SAMPLES_TILE) {
+                int i = tileI;
+                int j = tileJ;
+                pending.add(executor.submit(() -> countTile(chunk, usedWords, multiAllelic, i, j)));
+            }
+        }
+    }
+
+    private void waitPending() {
+        try {
+            for (Future<?> future : pending) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pending.clear();
+        }
+    }
+
+    /**
+     * Count the IBS of all the pairs between two tiles of samples. Each tile of pairs is counted by only one thread.
+     */
+    private void countTile(long[] chunk, int usedWords, List<int[]> multiAllelic, int tileI, int tileJ) {
+        int endI = Math.min(tileI + SAMPLES_TILE, numSamples);
+        int endJ = Math.min(tileJ + SAMPLES_TILE, numSamples);
+        int[] counts = new int[SAMPLES_TILE * SAMPLES_TILE * 3];
+
+        for (int fromWord = 0; fromWord < usedWords; fromWord += WORDS_TILE) {
+            int toWord = Math.min(fromWord + WORDS_TILE, usedWords);
+            for (int i = tileI; i < endI; i++) {
+                int offsetI = i * words;
+                for (int j = Math.max(tileJ, i + 1); j < endJ; j++) {
+                    int offsetJ = j * words;
+                    int valid = 0;
+                    int identical = 0;
+                    int opposite = 0;
+                    for (int w = fromWord; w < toWord; w++) {
+                        long x = chunk[offsetI + w];
+                        long y = chunk[offsetJ + w];
+                        // Low bit of each lane set if neither of the genotypes is missing
+                        long lanes = ~((x & (x >>> 1)) | (y & (y >>> 1))) & LOW_BITS;
+                        long xor = x ^ y;
+                        valid += Long.bitCount(lanes);
+                        identical += Long.bitCount(~(xor | (xor >>> 1)) & lanes);
+                        // Both homozygous (low bit unset) with different high bit
+                        opposite += Long.bitCount((xor >>> 1) & ~(x | y) & lanes);
+                    }
+                    int idx = ((i - tileI) * SAMPLES_TILE + (j - tileJ)) * 3;
+                    counts[idx] += opposite;
+                    counts[idx + 1] += valid - identical - opposite;
+                    counts[idx + 2] += identical;
+                }
+            }
+        }
+
+        for (int[] alleles : multiAllelic) {
+            for (int i = tileI; i < endI; i++) {
+                int allelesI = alleles[i];
+                if (allelesI == MISSING_ALLELES) {
+                    continue;
+                }
+                for (int j = Math.max(tileJ, i + 1); j < endJ; j++) {
+                    int allelesJ = alleles[j];
+                    if (allelesJ != MISSING_ALLELES) {
+                        counts[((i - tileI) * SAMPLES_TILE + (j - tileJ)) * 3 + sharedAlleles(allelesI, allelesJ)]++;
+                    }
+                }
+            }
+        }
+
+        for (int i = tileI; i < endI; i++) {
+            for (int j = Math.max(tileJ, i + 1); j < endJ; j++) {
+                int idx = ((i - tileI) * SAMPLES_TILE + (j - tileJ)) * 3;
+                int pair = IdentityByStateCounts.pairIndex(numSamples, i, j);
+                ibs0[pair] += counts[idx];
+                ibs1[pair] += counts[idx + 1];
+                ibs2[pair] += counts[idx + 2];
+            }
+        }
+    }
+
+    private int getCachedGenotypeAlleles(String gt) {
+        Integer alleles = genotypeAlleles.get(gt);
+        if (alleles == null) {
+            alleles = getGenotypeAlleles(gt);
+            genotypeAlleles.put(gt, alleles);
+        }
+        return alleles;
+    }
+
+    /**
+     * Get the smallest and the largest allele of a genotype, packed as {@code min << 16 | max}.
+     * Haploid genotypes are compared as homozygous.
+     *
+     * @param gt Genotype
+     * @return Packed alleles, or -1 if missing
+     */
+    static int getGenotypeAlleles(String gt) {
+        if (gt == null || gt.isEmpty()) {
+            return MISSING_ALLELES;
+        }
+        int[] alleles;
+        try {
+            alleles = new Genotype(gt).getAllelesIdx();
+        } catch (RuntimeException e) {
+            return MISSING_ALLELES;
+        }
+        if (alleles.length == 0) {
+            return MISSING_ALLELES;
+        }
+        int min = Integer.MAX_VALUE;
+        int max = 0;
+        for (int allele : alleles) {
+            if (allele < 0 || allele > 0xFFFF) {
+                return MISSING_ALLELES;
+            }
+            min = Math.min(min, allele);
+            max = Math.max(max, allele);
+        }
+        return min << 16 | max;
+    }
+
+    private static byte toGenotypeCode(int alleles) {
+        if (alleles == MISSING_ALLELES) {
+            return MISSING;
+        } else if ((alleles & 0xFFFF) == 0) {
+            return HOM_REF;
+        } else if (alleles >>> 16 == 0) {
+            return HET;
+        } else {
+            return HOM_ALT;
+        }
+    }
+
+    /**
+     * Number of alleles shared by two genotypes, packed with {@link #getGenotypeAlleles(String)}.
+     *
+     * @param a Alleles of the first genotype
+     * @param b Alleles of the second genotype
+     * @return 0, 1 or 2
+     */
+    static int sharedAlleles(int a, int b) {
+        if (a == b) {
+            return 2;
+        }
+        int a1 = a >>> 16;
+        int a2 = a & 0xFFFF;
+        int b1 = b >>> 16;
+        int b2 = b & 0xFFFF;
+        return a1 == b1 || a1 == b2 || a2 == b1 || a2 == b2 ? 1 : 0;
+    }
+
+    /**
+     * Get the 2-bit code of a genotype. Any non reference allele is considered as alternate, so 1/2 is coded as
+     * {@link #HOM_ALT}. Use {@link #add(Variant)} to compare the alleles of multi-allelic variants.
+     *
+     * @param gt Genotype
+     * @return {@link #HOM_REF}, {@link #HET}, {@link #HOM_ALT} or {@link #MISSING}
+     */
+    public static byte getGenotypeCode(String gt) {
+        if (gt == null || gt.isEmpty()) {
+            return MISSING;
+        }
+        int[] alleles;
+        try {
+            alleles = new Genotype(gt).getAllelesIdx();
+        } catch (RuntimeException e) {
+            return MISSING;
+        }
+        int alternates = 0;
+        for (int allele : alleles) {
+            if (allele < 0) {
+                return MISSING;
+            } else if (allele > 0) {
+                alternates++;
+            }
+        }
+        if (alleles.length == 0) {
+            return MISSING;
+        } else if (alternates == 0) {
+            return HOM_REF;
+        } else if (alternates == alleles.length) {
+            return HOM_ALT;
+        } else {
+            return HET;
+        }
+    }
+
+    public List<String> getSamples() {
+        return samples;
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
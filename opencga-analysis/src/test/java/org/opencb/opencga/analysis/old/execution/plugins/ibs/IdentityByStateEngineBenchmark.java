@@ -0,0 +1,76 @@
+package org.opencb.opencga.analysis.old.execution.plugins.ibs;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.opencb.opencga.analysis.old.execution.plugins.ibs.IdentityByStateEngine.*;
+
+/**
+ * Measures variants per second counted by the {@link IdentityByStateEngine}, for all the pairs of samples.
+ * Each invocation packs and counts one chunk of variants.
+ *
+ * Run with:
+ *   mvn test-compile dependency:build-classpath -Dmdep.outputFile=cp.txt
+ *   java -cp target/test-classes:target/classes:$(cat cp.txt) org.openjdk.jmh.Main IdentityByStateEngineBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class IdentityByStateEngineBenchmark {
+
+    private static final int CHUNK_SIZE = 1024;
+
+    @Param({"1000", "5000", "10000"})
+    private int numSamples;
+
+    private byte[][] codes;
+    private IdentityByStateEngine engine;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        codes = new byte[CHUNK_SIZE][numSamples];
+        for (byte[] variant : codes) {
+            for (int i = 0; i < numSamples; i++) {
+                // 5% missing
+                variant[i] = random.nextInt(20) == 0 ? MISSING : (byte) random.nextInt(3);
+            }
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpEngine() {
+        List<String> samples = new ArrayList<>(numSamples);
+        for (int i = 0; i < numSamples; i++) {
+            samples.add("S" + i);
+        }
+        engine = new IdentityByStateEngine(samples, Runtime.getRuntime().availableProcessors(), CHUNK_SIZE);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDownEngine() {
+        engine.close();
+    }
+
+    /**
+     * Pack and count one chunk of variants.
+     *
+     * @param blackhole Blackhole
+     */
+    @Benchmark
+    @OperationsPerInvocation(CHUNK_SIZE)
+    public void count(Blackhole blackhole) {
+        for (byte[] variant : codes) {
+            engine.add(variant);
+        }
+        blackhole.consume(engine.getCounts());
+    }
+}
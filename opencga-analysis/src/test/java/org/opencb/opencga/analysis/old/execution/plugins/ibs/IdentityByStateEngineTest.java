@@ -0,0 +1,163 @@
+package org.opencb.opencga.analysis.old.execution.plugins.ibs;
+
+import org.junit.Test;
+import org.opencb.biodata.models.variant.StudyEntry;
+import org.opencb.biodata.models.variant.Variant;
+
+import java.io.ByteArrayOutputStream;
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.opencb.opencga.analysis.old.execution.plugins.ibs.IdentityByStateEngine.*;
+
+public class IdentityByStateEngineTest {
+
+    @Test
+    public void testGetGenotypeCode() {
+        assertEquals(HOM_REF, getGenotypeCode("0/0"));
+        assertEquals(HOM_REF, getGenotypeCode("0|0"));
+        assertEquals(HOM_REF, getGenotypeCode("0"));
+        assertEquals(HET, getGenotypeCode("0/1"));
+        assertEquals(HET, getGenotypeCode("1|0"));
+        assertEquals(HOM_ALT, getGenotypeCode("1/1"));
+        assertEquals(HOM_ALT, getGenotypeCode("1/2"));
+        assertEquals(HOM_ALT, getGenotypeCode("1"));
+        assertEquals(MISSING, getGenotypeCode("./."));
+        assertEquals(MISSING, getGenotypeCode("."));
+        assertEquals(MISSING, getGenotypeCode(""));
+        assertEquals(MISSING, getGenotypeCode(null));
+    }
+
+    @Test
+    public void testCounts() {
+        // Several tiles of samples, several chunks and a partial word
+        checkCounts(new Random(1), 150, 1000, 64, 4);
+        checkCounts(new Random(2), 3, 31, 32, 1);
+        checkCounts(new Random(3), 70, 10000, IdentityByStateEngine.DEFAULT_CHUNK_SIZE, 2);
+    }
+
+    @Test
+    public void testKnownPair() {
+        List<String> samples = samples(2);
+        try (IdentityByStateEngine engine = new IdentityByStateEngine(samples, 1, 32)) {
+            engine.add(new byte[]{HOM_REF, HOM_ALT});  // IBS0
+            engine.add(new byte[]{HOM_ALT, HOM_REF});  // IBS0
+            engine.add(new byte[]{HOM_REF, HET});      // IBS1
+            engine.add(new byte[]{HET, HET});          // IBS2
+            engine.add(new byte[]{HOM_ALT, HOM_ALT});  // IBS2
+            engine.add(new byte[]{HOM_ALT, MISSING});  // Skip
+            engine.add(new byte[]{MISSING, MISSING});  // Skip
+            IdentityByStateCounts counts = engine.getCounts();
+            assertEquals(7, counts.getNumVariants());
+            assertEquals(2, counts.getIbs0(0, 1));
+            assertEquals(1, counts.getIbs1(1, 0));
+            assertEquals(2, counts.getIbs2(0, 1));
+            assertEquals(5, counts.getCount(0, 1));
+            assertEquals(1 - 2.5 / 5, counts.getDistance(0, 1), 0.0000001);
+            assertEquals(0, counts.getDistance(1, 1), 0.0000001);
+        }
+    }
+
+    @Test
+    public void testMultiAllelic() {
+        assertEquals(2, sharedAlleles(getGenotypeAlleles("1/2"), getGenotypeAlleles("2|1")));
+        assertEquals(1, sharedAlleles(getGenotypeAlleles("1/2"), getGenotypeAlleles("1/1")));
+        assertEquals(1, sharedAlleles(getGenotypeAlleles("0/2"), getGenotypeAlleles("1/2")));
+        assertEquals(0, sharedAlleles(getGenotypeAlleles("1/1"), getGenotypeAlleles("2/2")));
+        assertEquals(2, sharedAlleles(getGenotypeAlleles("1"), getGenotypeAlleles("1/1")));
+
+        List<String> samples = samples(4);
+        try (IdentityByStateEngine engine = new IdentityByStateEngine(samples, 1, 32)) {
+            engine.add(variant("1:100:A:C", samples, "1/1", "1/2", "2/2", "./."));
+            engine.add(variant("1:200:A:C", samples, "0/1", "1/1", "0/0", "0/1"));
+            IdentityByStateCounts counts = engine.getCounts();
+            assertEquals(2, counts.getNumVariants());
+            // 1/1 - 1/2 and 0/1 - 1/1
+            assertEquals(2, counts.getIbs1(0, 1));
+            assertEquals(0, counts.getIbs2(0, 1));
+            // 1/1 - 2/2 and 0/1 - 0/0
+            assertEquals(1, counts.getIbs0(0, 2));
+            assertEquals(1, counts.getIbs1(0, 2));
+            // 1/2 - 2/2 and 1/1 - 0/0
+            assertEquals(1, counts.getIbs1(1, 2));
+            assertEquals(1, counts.getIbs0(1, 2));
+            // Missing in the multi-allelic variant
+            assertEquals(1, counts.getCount(0, 3));
+            assertEquals(1, counts.getIbs2(0, 3));
+        }
+    }
+
+    @Test
+    public void testWrite() throws Exception {
+        Random random = new Random(1);
+        try (IdentityByStateEngine engine = new IdentityByStateEngine(samples(4), 2, 32)) {
+            for (int v = 0; v < 100; v++) {
+                engine.add(randomCodes(random, 4));
+            }
+            IdentityByStateCounts counts = engine.getCounts();
+            ByteArrayOutputStream pairs = new ByteArrayOutputStream();
+            counts.writePairs(pairs);
+            assertEquals(1 + 6, pairs.toString().split("\n").length);
+            ByteArrayOutputStream matrix = new ByteArrayOutputStream();
+            counts.writeDistanceMatrix(matrix);
+            String[] lines = matrix.toString().split("\n");
+            assertEquals(1 + 4, lines.length);
+            assertEquals(1 + 4, lines[1].split("\t").length);
+        }
+    }
+
+    private static void checkCounts(Random random, int numSamples, int numVariants, int chunkSize, int numThreads) {
+        byte[][] codes = new byte[numVariants][];
+        try (IdentityByStateEngine engine = new IdentityByStateEngine(samples(numSamples), numThreads, chunkSize)) {
+            for (int v = 0; v < numVariants; v++) {
+                codes[v] = randomCodes(random, numSamples);
+                engine.add(codes[v]);
+            }
+            IdentityByStateCounts counts = engine.getCounts();
+            assertEquals(numVariants, counts.getNumVariants());
+            for (int i = 0; i < numSamples; i++) {
+                for (int j = i + 1; j < numSamples; j++) {
+                    int[] expected = new int[3];
+                    for (byte[] variant : codes) {
+                        byte a = variant[i];
+                        byte b = variant[j];
+                        if (a != MISSING && b != MISSING) {
+                            expected[2 - Math.abs(a - b)]++;
+                        }
+                    }
+                    String pair = i + "-" + j;
+                    assertEquals(pair, expected[0], counts.getIbs0(i, j));
+                    assertEquals(pair, expected[1], counts.getIbs1(i, j));
+                    assertEquals(pair, expected[2], counts.getIbs2(i, j));
+                }
+            }
+        }
+    }
+
+    private static Variant variant(String variantStr, List<String> samples, String... genotypes) {
+        Variant variant = new Variant(variantStr);
+        StudyEntry study = new StudyEntry("1", Collections.emptyList(), Collections.singletonList("GT"));
+        for (int i = 0; i < genotypes.length; i++) {
+            study.addSampleData(samples.get(i), Collections.singletonList(genotypes[i]));
+        }
+        variant.setStudies(Collections.singletonList(study));
+        return variant;
+    }
+
+    private static byte[] randomCodes(Random random, int numSamples) {
+        byte[] codes = new byte[numSamples];
+        for (int i = 0; i < numSamples; i++) {
+            // 10% missing
+            codes[i] = random.nextInt(10) == 0 ? MISSING : (byte) random.nextInt(3);
+        }
+        return codes;
+    }
+
+    private static List<String> samples(int numSamples) {
+        List<String> samples = new ArrayList<>(numSamples);
+        for (int i = 0; i < numSamples; i++) {
+            samples.add("S" + i);
+        }
+        return samples;
+    }
+}
@@ -32,6 +32,8 @@ public class VariantQueryResult<T> extends QueryResult<T> {
     private String source;
     private Boolean approximateCount;
     private Integer approximateCountSamplingSize;
+    private Long approximateCountLowerBound;
+    private Long approximateCountUpperBound;
 
     public VariantQueryResult() {
         this.samples = null;
@@ -94,6 +96,24 @@ public class VariantQueryResult<T> extends QueryResult<T> {
         return this;
     }
 
+    public Long getApproximateCountLowerBound() {
+        return approximateCountLowerBound;
+    }
+
+    public VariantQueryResult<T> setApproximateCountLowerBound(Long approximateCountLowerBound) {
+        this.approximateCountLowerBound = approximateCountLowerBound;
+        return this;
+    }
+
+    public Long getApproximateCountUpperBound() {
+        return approximateCountUpperBound;
+    }
+
+    public VariantQueryResult<T> setApproximateCountUpperBound(Long approximateCountUpperBound) {
+        this.approximateCountUpperBound = approximateCountUpperBound;
+        return this;
+    }
+
     public String getSource() {
         return source;
     }
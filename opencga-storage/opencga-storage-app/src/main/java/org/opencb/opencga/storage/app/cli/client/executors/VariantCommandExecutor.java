@@ -71,11 +71,13 @@ import java.nio.file.Paths;
 import java.util.*;
 import java.util.function.Function;
 
+import static org.opencb.opencga.storage.app.cli.client.options.StorageVariantCommandOptions.GenericAnnotationCacheWarmCommandOptions.ANNOTATION_CACHE_WARM_COMMAND;
 import static org.opencb.opencga.storage.app.cli.client.options.StorageVariantCommandOptions.GenericAnnotationMetadataCommandOptions.ANNOTATION_METADATA_COMMAND;
 import static org.opencb.opencga.storage.app.cli.client.options.StorageVariantCommandOptions.GenericAnnotationSaveCommandOptions.ANNOTATION_SAVE_COMMAND;
 import static org.opencb.opencga.storage.app.cli.client.options.StorageVariantCommandOptions.GenericAnnotationDeleteCommandOptions.ANNOTATION_DELETE_COMMAND;
 import static org.opencb.opencga.storage.app.cli.client.options.StorageVariantCommandOptions.FillGapsCommandOptions.FILL_GAPS_COMMAND;
 import static org.opencb.opencga.storage.app.cli.client.options.StorageVariantCommandOptions.FillMissingCommandOptions.FILL_MISSING_COMMAND;
+import static org.opencb.opencga.storage.app.cli.client.options.StorageVariantCommandOptions.MigrateGenotypesCommandOptions.MIGRATE_GENOTYPES_COMMAND;
 import static org.opencb.opencga.storage.app.cli.client.options.StorageVariantCommandOptions.GenericAnnotationQueryCommandOptions.ANNOTATION_QUERY_COMMAND;
 import static org.opencb.opencga.storage.app.cli.client.options.StorageVariantCommandOptions.VariantRemoveCommandOptions.VARIANT_REMOVE_COMMAND;
 
@@ -176,6 +178,11 @@ public class VariantCommandExecutor extends CommandExecutor {
                         variantCommandOptions.annotationMetadataCommandOptions.dbName);
                 annotationMetadata();
                 break;
+            case ANNOTATION_CACHE_WARM_COMMAND:
+                configure(variantCommandOptions.annotationCacheWarmCommandOptions.commonOptions,
+                        variantCommandOptions.annotationCacheWarmCommandOptions.dbName);
+                annotationCacheWarm();
+                break;
             case "stats":
                 configure(variantCommandOptions.statsVariantsCommandOptions.commonOptions,
                         variantCommandOptions.statsVariantsCommandOptions.dbName);
@@ -191,6 +198,11 @@ public class VariantCommandExecutor extends CommandExecutor {
                         variantCommandOptions.fillMissingCommandOptions.dbName);
                 fillMissing();
                 break;
+            case MIGRATE_GENOTYPES_COMMAND:
+                configure(variantCommandOptions.migrateGenotypesCommandOptions.commonOptions,
+                        variantCommandOptions.migrateGenotypesCommandOptions.dbName);
+                migrateGenotypes();
+                break;
             case "export":
                 configure(variantCommandOptions.exportVariantsCommandOptions.queryOptions.commonOptions,
                         variantCommandOptions.exportVariantsCommandOptions.queryOptions.commonQueryOptions.dbName);
@@ -535,6 +547,25 @@ public class VariantCommandExecutor extends CommandExecutor {
         }
     }
 
+    private void annotationCacheWarm() throws VariantAnnotatorException, StorageEngineException, IOException, URISyntaxException {
+        StorageVariantCommandOptions.AnnotationCacheWarmCommandOptions cliOptions = variantCommandOptions.annotationCacheWarmCommandOptions;
+
+        ObjectMap options = configuration.getStorageEngine(storageEngine).getVariant().getOptions();
+        if (cliOptions.annotator != null) {
+            options.put(VariantAnnotationManager.ANNOTATOR, cliOptions.annotator);
+        }
+        options.putAll(cliOptions.commonOptions.params);
+
+        Query query = new Query();
+        if (cliOptions.filterRegion != null) {
+            query.put(VariantQueryParam.REGION.key(), cliOptions.filterRegion);
+        }
+        URI annotationFile = cliOptions.input == null ? null : UriUtils.createUri(cliOptions.input);
+
+        long numAnnotations = variantStorageEngine.warmAnnotationCache(query, annotationFile, options);
+        logger.info("Variant annotation cache ready with {} annotations", numAnnotations);
+    }
+
     private void stats() throws IOException, URISyntaxException, StorageEngineException, IllegalAccessException, InstantiationException,
             ClassNotFoundException {
         StorageVariantCommandOptions.VariantStatsCommandOptions statsVariantsCommandOptions = variantCommandOptions.statsVariantsCommandOptions;
@@ -624,6 +655,13 @@ public class VariantCommandExecutor extends CommandExecutor {
         variantStorageEngine.fillMissing(cliOptions.study, options, cliOptions.overwrite);
     }
 
+    private void migrateGenotypes() throws StorageEngineException {
+        StorageVariantCommandOptions.MigrateGenotypesCommandOptions cliOptions = variantCommandOptions.migrateGenotypesCommandOptions;
+
+        long numVariants = variantStorageEngine.migrateGenotypesToBinary(cliOptions.study);
+        logger.info("Migrated {} variants from study {}", numVariants, cliOptions.study);
+    }
+
     private void export() throws URISyntaxException, StorageEngineException, IOException {
         StorageVariantCommandOptions.VariantExportCommandOptions exportVariantsCommandOptions = variantCommandOptions.exportVariantsCommandOptions;
 //
@@ -24,6 +24,7 @@ import org.opencb.opencga.storage.app.cli.GeneralCliOptions;
 import org.opencb.opencga.storage.core.variant.VariantStorageEngine;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryUtils;
 import org.opencb.opencga.storage.core.variant.annotation.VariantAnnotationManager;
+import org.opencb.opencga.storage.core.variant.annotation.annotators.AbstractCellBaseVariantAnnotator;
 import org.opencb.opencga.storage.core.variant.annotation.annotators.VariantAnnotatorFactory;
 
 import java.util.HashMap;
@@ -50,9 +51,11 @@ public class StorageVariantCommandOptions {
     public final AnnotationDeleteCommandOptions annotationDeleteCommandOptions;
     public final AnnotationQueryCommandOptions annotationQueryCommandOptions;
     public final AnnotationMetadataCommandOptions annotationMetadataCommandOptions;
+    public final AnnotationCacheWarmCommandOptions annotationCacheWarmCommandOptions;
     public final VariantStatsCommandOptions statsVariantsCommandOptions;
     public final FillGapsCommandOptions fillGapsCommandOptions;
     public final FillMissingCommandOptions fillMissingCommandOptions;
+    public final MigrateGenotypesCommandOptions migrateGenotypesCommandOptions;
     public final VariantExportCommandOptions exportVariantsCommandOptions;
     public final VariantSearchCommandOptions searchVariantsCommandOptions;
 
@@ -77,9 +80,11 @@ public class StorageVariantCommandOptions {
         this.annotationDeleteCommandOptions = new AnnotationDeleteCommandOptions();
         this.annotationQueryCommandOptions = new AnnotationQueryCommandOptions();
         this.annotationMetadataCommandOptions = new AnnotationMetadataCommandOptions();
+        this.annotationCacheWarmCommandOptions = new AnnotationCacheWarmCommandOptions();
         this.statsVariantsCommandOptions = new VariantStatsCommandOptions();
         this.fillGapsCommandOptions = new FillGapsCommandOptions();
         this.fillMissingCommandOptions = new FillMissingCommandOptions();
+        this.migrateGenotypesCommandOptions = new MigrateGenotypesCommandOptions();
         this.exportVariantsCommandOptions = new VariantExportCommandOptions();
         this.searchVariantsCommandOptions = new VariantSearchCommandOptions();
     }
@@ -650,6 +655,32 @@ public class StorageVariantCommandOptions {
         public String dbName;
     }
 
+    public static class GenericAnnotationCacheWarmCommandOptions {
+        public static final String ANNOTATION_CACHE_WARM_COMMAND = "annotation-cache-warm";
+        public static final String ANNOTATION_CACHE_WARM_COMMAND_DESCRIPTION = "Fill the local variant annotation cache "
+                + "(" + AbstractCellBaseVariantAnnotator.ANNOTATOR_CACHE_DIR + ") without modifying the database";
+
+        @Parameter(names = {"-i", "--input"}, description = "Annotation file (json or avro) to copy into the cache. "
+                + "If missing, annotate the variants from the database", arity = 1)
+        public String input;
+
+        @Parameter(names = {"--annotator"}, description = "Annotation source {cellbase_rest, cellbase_db_adaptor}")
+        public VariantAnnotatorFactory.AnnotationSource annotator;
+
+        @Parameter(names = {"--filter-region"}, description = "Comma separated region filters", splitter = CommaParameterSplitter.class)
+        public String filterRegion;
+    }
+
+    @Parameters(commandNames = {GenericAnnotationCacheWarmCommandOptions.ANNOTATION_CACHE_WARM_COMMAND}, commandDescription = GenericAnnotationCacheWarmCommandOptions.ANNOTATION_CACHE_WARM_COMMAND_DESCRIPTION)
+    public class AnnotationCacheWarmCommandOptions extends GenericAnnotationCacheWarmCommandOptions {
+
+        @ParametersDelegate
+        public GeneralCliOptions.CommonOptions commonOptions = commonCommandOptions;
+
+        @Parameter(names = {"-d", "--database"}, description = "DataBase name", required = true, arity = 1)
+        public String dbName;
+    }
+
     /**
      *  annotate: generic and specific options
      */
@@ -705,6 +736,22 @@ public class StorageVariantCommandOptions {
         public boolean overwrite;
     }
 
+    @Parameters(commandNames = {MigrateGenotypesCommandOptions.MIGRATE_GENOTYPES_COMMAND}, commandDescription = MigrateGenotypesCommandOptions.MIGRATE_GENOTYPES_COMMAND_DESCRIPTION)
+    public class MigrateGenotypesCommandOptions {
+
+        public static final String MIGRATE_GENOTYPES_COMMAND = "migrate-genotypes";
+        public static final String MIGRATE_GENOTYPES_COMMAND_DESCRIPTION = "Store the genotypes of a study in a compact binary format. Can be resumed if interrupted.";
+
+        @ParametersDelegate
+        public GeneralCliOptions.CommonOptions commonOptions = commonCommandOptions;
+
+        @Parameter(names = {"--study"}, description = "Study", required = true, arity = 1)
+        public String study;
+
+        @Parameter(names = {"-d", "--database"}, description = "DataBase name", required = true, arity = 1)
+        public String dbName;
+    }
+
     /**
      *  benchmark: specific options
      */
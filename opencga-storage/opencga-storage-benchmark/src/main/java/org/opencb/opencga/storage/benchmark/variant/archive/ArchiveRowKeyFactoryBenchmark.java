@@ -0,0 +1,100 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.benchmark.variant.archive;
+
+import org.apache.hadoop.conf.Configuration;
+import org.opencb.opencga.storage.hadoop.variant.HadoopVariantStorageEngine;
+import org.opencb.opencga.storage.hadoop.variant.archive.ArchiveRowKeyFactory;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures row keys per second generated and parsed by {@link ArchiveRowKeyFactory}, for each row key layout.
+ *
+ * Run with:
+ *   java -cp opencga-storage-benchmark.jar:libs/* org.openjdk.jmh.Main ArchiveRowKeyFactoryBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ArchiveRowKeyFactoryBenchmark {
+
+    private static final int BATCH_SIZE = 1000;
+    private static final String[] CHROMOSOMES = {"1", "2", "10", "X", "MT"};
+
+    @Param({"STRING", "BINARY"})
+    private String layout;
+
+    private ArchiveRowKeyFactory keyFactory;
+    private int[] fileIds;
+    private String[] chromosomes;
+    private int[] positions;
+    private byte[][] rowKeys;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        Configuration conf = new Configuration(false);
+        conf.set(HadoopVariantStorageEngine.ARCHIVE_ROW_KEY_LAYOUT, layout);
+        keyFactory = new ArchiveRowKeyFactory(conf);
+
+        fileIds = new int[BATCH_SIZE];
+        chromosomes = new String[BATCH_SIZE];
+        positions = new int[BATCH_SIZE];
+        rowKeys = new byte[BATCH_SIZE][];
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            fileIds[i] = 1 + random.nextInt(5000);
+            chromosomes[i] = CHROMOSOMES[random.nextInt(CHROMOSOMES.length)];
+            positions[i] = random.nextInt(250000000);
+            rowKeys[i] = keyFactory.generateBlockIdAsBytes(fileIds[i], chromosomes[i], positions[i]);
+        }
+    }
+
+    /**
+     * Generate a batch of row keys.
+     *
+     * @param blackhole Blackhole
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void generate(Blackhole blackhole) {
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            blackhole.consume(keyFactory.generateBlockIdAsBytes(fileIds[i], chromosomes[i], positions[i]));
+        }
+    }
+
+    /**
+     * Extract the file batch, chromosome and slice of a batch of row keys.
+     *
+     * @param blackhole Blackhole
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void parse(Blackhole blackhole) {
+        for (byte[] rowKey : rowKeys) {
+            blackhole.consume(keyFactory.extractFileBatchFromBlockId(rowKey));
+            blackhole.consume(keyFactory.extractChromosomeFromBlockId(rowKey));
+            blackhole.consume(keyFactory.extractSliceFromBlockId(rowKey));
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.benchmark.variant.gaps;
+
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.protobuf.VcfSliceProtos;
+import org.opencb.biodata.tools.variant.converters.proto.VcfRecordProtoToVariantConverter;
+import org.opencb.opencga.storage.hadoop.variant.gaps.FillGapsTask;
+import org.opencb.opencga.storage.hadoop.variant.gaps.VcfSliceIndex;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time to find the overlapping archive records of the variants to fill in one archive row, as done by
+ * the fill gaps operation, for an increasing number of samples. Each sample comes from a different file, with its
+ * own VcfSlice, and every variant of the row is looked up in every file.
+ *
+ * Compares the linear scan of the VcfSlice records with the {@link VcfSliceIndex}.
+ *
+ * Run with:
+ *   java -cp opencga-storage-benchmark.jar:libs/* org.openjdk.jmh.Main VcfSliceIndexBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class VcfSliceIndexBenchmark {
+
+    private static final int POSITION = 1000000;
+    private static final int SLICE_SIZE = 1000;
+
+    @Param({"10", "100", "1000"})
+    private int numSamples;
+
+    @Param({"50", "500"})
+    private int recordsPerFile;
+
+    @Param({"linear", "index"})
+    private String lookup;
+
+    private List<VcfSliceProtos.VcfSlice> vcfSlices;
+    private List<Variant> variants;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        vcfSlices = new ArrayList<>(numSamples);
+        for (int i = 0; i < numSamples; i++) {
+            vcfSlices.add(buildRandomVcfSlice(random, recordsPerFile));
+        }
+        // Variants to fill in the row. Common variants are shared by many samples, so the number of distinct
+        // variants grows slower than the number of samples.
+        int numVariants = Math.min(SLICE_SIZE, recordsPerFile * (int) Math.ceil(Math.sqrt(numSamples)));
+        variants = new ArrayList<>(numVariants);
+        for (int i = 0; i < numVariants; i++) {
+            variants.add(randomVariant(random, POSITION + random.nextInt(SLICE_SIZE)));
+        }
+    }
+
+    /**
+     * Find the overlapping records of all the variants in all the files of one archive row.
+     *
+     * @param blackhole Blackhole
+     */
+    @Benchmark
+    public void archiveRow(Blackhole blackhole) {
+        for (VcfSliceProtos.VcfSlice vcfSlice : vcfSlices) {
+            if (lookup.equals("index")) {
+                // The index is built once per row and file, so it is part of the measured time
+                VcfSliceIndex index = new VcfSliceIndex(vcfSlice);
+                for (Variant variant : variants) {
+                    blackhole.consume(index.getOverlappingRecords(variant));
+                }
+            } else {
+                for (Variant variant : variants) {
+                    blackhole.consume(getOverlappingRecordsLinear(vcfSlice, variant));
+                }
+            }
+        }
+    }
+
+    private static List<VcfSliceProtos.VcfRecord> getOverlappingRecordsLinear(VcfSliceProtos.VcfSlice vcfSlice, Variant variant) {
+        List<VcfSliceProtos.VcfRecord> records = new ArrayList<>();
+        for (VcfSliceProtos.VcfRecord vcfRecord : vcfSlice.getRecordsList()) {
+            int start = VcfRecordProtoToVariantConverter.getStart(vcfRecord, vcfSlice.getPosition());
+            int end = VcfRecordProtoToVariantConverter.getEnd(vcfRecord, vcfSlice.getPosition());
+            if (FillGapsTask.overlapsWith(variant, vcfSlice.getChromosome(), start, end)) {
+                records.add(vcfRecord);
+            }
+        }
+        return records;
+    }
+
+    private static VcfSliceProtos.VcfSlice buildRandomVcfSlice(Random random, int numRecords) {
+        VcfSliceProtos.VcfSlice.Builder vcfSlice = VcfSliceProtos.VcfSlice.newBuilder()
+                .setChromosome("1")
+                .setPosition(POSITION);
+        int start = POSITION;
+        int step = Math.max(1, SLICE_SIZE / numRecords * 2);
+        for (int i = 0; i < numRecords && start < POSITION + SLICE_SIZE; i++) {
+            // Sorted by start, as in the archive
+            start += random.nextInt(step);
+            Variant variant = randomVariant(random, start);
+            vcfSlice.addRecords(VcfSliceProtos.VcfRecord.newBuilder()
+                    .setRelativeStart(variant.getStart() - POSITION)
+                    .setRelativeEnd(variant.getEnd() - POSITION)
+                    .setReference(variant.getReference())
+                    .setAlternate(variant.getAlternate())
+                    .build());
+        }
+        return vcfSlice.build();
+    }
+
+    private static Variant randomVariant(Random random, int start) {
+        switch (random.nextInt(4)) {
+            case 0:
+                return new Variant("1:" + start + ':' + "TTTTTTTTTT".substring(random.nextInt(10)) + ':');
+            case 1:
+                return new Variant("1:" + start + "::" + "AAAAA".substring(random.nextInt(5)));
+            default:
+                return new Variant("1:" + start + ":A:C");
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.benchmark.variant.query;
+
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.commons.datastore.core.QueryOptions;
+import org.opencb.opencga.storage.core.variant.adaptors.iterators.MultiGetVariantDBIterator;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Measures variant ids per second fetched by the {@link MultiGetVariantDBIterator}, across batch sizes and parallelism.
+ * The backend is in memory, with a simulated cost per request and per variant.
+ *
+ * Run with:
+ *   java -cp opencga-storage-benchmark.jar:libs/* org.openjdk.jmh.Main MultiGetVariantDBIteratorBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class MultiGetVariantDBIteratorBenchmark {
+
+    private static final int NUM_IDS = 20000;
+    private static final long REQUEST_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+    private static final long VARIANT_NANOS = TimeUnit.MICROSECONDS.toNanos(2);
+
+    @Param({"100", "1000", "5000"})
+    private int batchSize;
+
+    @Param({"1", "4", "8"})
+    private int parallelism;
+
+    private List<String> ids;
+    private Map<String, Variant> backend;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        ids = new ArrayList<>(NUM_IDS);
+        backend = new HashMap<>(NUM_IDS * 2);
+        for (int i = 0; i < NUM_IDS; i++) {
+            String id = (1 + random.nextInt(22)) + ":" + (1 + random.nextInt(100000000)) + ":A:C";
+            ids.add(id);
+            // 10% of the ids are not found
+            if (random.nextInt(10) != 0) {
+                backend.put(id, new Variant(id));
+            }
+        }
+    }
+
+    /**
+     * Fetch all the ids.
+     *
+     * @param blackhole Blackhole
+     * @throws Exception on error
+     */
+    @Benchmark
+    @OperationsPerInvocation(NUM_IDS)
+    public void multiGet(Blackhole blackhole) throws Exception {
+        MultiGetVariantDBIterator iterator = new MultiGetVariantDBIterator(ids.iterator(), batchSize, parallelism, new QueryOptions(),
+                this::fetch);
+        while (iterator.hasNext()) {
+            blackhole.consume(iterator.next());
+        }
+        iterator.close();
+    }
+
+    private List<Variant> fetch(List<Variant> variants, QueryOptions options) {
+        LockSupport.parkNanos(REQUEST_NANOS + VARIANT_NANOS * variants.size());
+        List<Variant> result = new ArrayList<>(variants.size());
+        for (Variant variant : variants) {
+            Variant found = backend.get(variant.toString());
+            if (found != null) {
+                result.add(found);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.benchmark.variant.query;
+
+import org.opencb.biodata.models.core.Region;
+import org.opencb.commons.datastore.core.Query;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryUtils;
+import org.opencb.opencga.storage.core.variant.query.VariantQuery;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.opencb.opencga.storage.core.variant.adaptors.VariantQueryParam.*;
+
+/**
+ * Measures queries per second parsed by the storage engines. Compares each backend parsing the filter strings
+ * with {@link VariantQueryUtils}, against parsing them once into a {@link VariantQuery} attached to the query.
+ *
+ * Run with:
+ *   java -cp opencga-storage-benchmark.jar:libs/* org.openjdk.jmh.Main VariantQueryBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class VariantQueryBenchmark {
+
+    private static final int BATCH_SIZE = 1000;
+    private static final String[] CONSEQUENCE_TYPES = {"missense_variant", "stop_gained", "SO:0001583", "!synonymous_variant"};
+    private static final String[] BIOTYPES = {"protein_coding", "miRNA", "lincRNA"};
+    private static final String[] CONSERVATION = {"phylop", "phastCons", "gerp"};
+    private static final String[] FUNCTIONAL = {"cadd_raw", "cadd_scaled"};
+    private static final String[] OPERATORS = {"<", "<=", ">", ">="};
+    private static final String[] POP_OPERATORS = {"<", "<=", ">", ">=", "<<", ">>="};
+    private static final List<String> SCORE_PARAMS = Arrays.asList(ANNOT_SIFT.key(), ANNOT_CONSERVATION.key(),
+            ANNOT_FUNCTIONAL_SCORE.key(), ANNOT_POPULATION_ALTERNATE_FREQUENCY.key(), ANNOT_POPULATION_MINOR_ALLELE_FREQUENCY.key());
+
+    /**
+     * Number of backends reading the filters of each query.
+     */
+    @Param({"1", "3"})
+    private int backends;
+
+    private List<Query> queries;
+    private List<Query> attachedQueries;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        queries = new ArrayList<>(BATCH_SIZE);
+        attachedQueries = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            Query query = randomQuery(random);
+            queries.add(query);
+            Query attached = new Query(query);
+            VariantQuery.attach(attached, null);
+            attachedQueries.add(attached);
+        }
+    }
+
+    /**
+     * Each backend parses the filter strings.
+     *
+     * @param blackhole Blackhole
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void parsePerBackend(Blackhole blackhole) {
+        for (Query query : queries) {
+            for (int i = 0; i < backends; i++) {
+                if (VariantQueryUtils.isValidParam(query, REGION)) {
+                    blackhole.consume(Region.parseRegions(query.getString(REGION.key()), true));
+                }
+                blackhole.consume(VariantQueryUtils.parseXrefs(query));
+                for (String key : SCORE_PARAMS) {
+                    if (query.containsKey(key)) {
+                        for (String value : VariantQueryUtils.splitValue(query.getString(key)).getValue()) {
+                            blackhole.consume(VariantQueryUtils.splitOperator(value));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The engine parses and attaches the model. Each backend gets it back from the query.
+     *
+     * @param blackhole Blackhole
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void parseOnce(Blackhole blackhole) {
+        for (Query query : queries) {
+            Query copy = new Query(query);
+            VariantQuery.attach(copy, null);
+            for (int i = 0; i < backends; i++) {
+                blackhole.consume(VariantQuery.get(copy));
+            }
+        }
+    }
+
+    /**
+     * Get the model from queries already attached. Only checks that the queries were not modified.
+     *
+     * @param blackhole Blackhole
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void getAttached(Blackhole blackhole) {
+        for (Query query : attachedQueries) {
+            for (int i = 0; i < backends; i++) {
+                blackhole.consume(VariantQuery.get(query));
+            }
+        }
+    }
+
+    private static Query randomQuery(Random random) {
+        Query query = new Query();
+        if (random.nextBoolean()) {
+            query.put(REGION.key(), values(random, 3, r -> {
+                int start = 1 + r.nextInt(1000000);
+                return (1 + r.nextInt(22)) + ":" + start + "-" + (start + r.nextInt(10000));
+            }, VariantQueryUtils.OR));
+        }
+        if (random.nextBoolean()) {
+            query.put(GENE.key(), values(random, 3, r -> "GENE" + r.nextInt(100), VariantQueryUtils.OR));
+        }
+        if (random.nextBoolean()) {
+            query.put(ID.key(), values(random, 3, r -> r.nextBoolean()
+                    ? "rs" + r.nextInt(100000)
+                    : (1 + r.nextInt(22)) + ":" + (1 + r.nextInt(1000000)) + ":A:" + (r.nextBoolean() ? "C" : "GT"), VariantQueryUtils.OR));
+        }
+        if (random.nextBoolean()) {
+            query.put(ANNOT_XREF.key(), values(random, 3, r -> pick(r, "COSM", "RCV", "HP:", "OMIM:") + r.nextInt(10000),
+                    VariantQueryUtils.OR));
+        }
+        if (random.nextBoolean()) {
+            query.put(ANNOT_CONSEQUENCE_TYPE.key(), values(random, 3, r -> pick(r, CONSEQUENCE_TYPES), separator(random)));
+        }
+        if (random.nextBoolean()) {
+            query.put(ANNOT_BIOTYPE.key(), values(random, 2, r -> pick(r, BIOTYPES), separator(random)));
+        }
+        if (random.nextBoolean()) {
+            query.put(ANNOT_SIFT.key(), random.nextBoolean() ? "tolerated" : pick(random, OPERATORS) + score(random));
+        }
+        if (random.nextBoolean()) {
+            query.put(ANNOT_CONSERVATION.key(), values(random, 2,
+                    r -> pick(r, CONSERVATION) + pick(r, OPERATORS) + score(r), separator(random)));
+        }
+        if (random.nextBoolean()) {
+            query.put(ANNOT_FUNCTIONAL_SCORE.key(), values(random, 2,
+                    r -> pick(r, FUNCTIONAL) + pick(r, OPERATORS) + score(r), separator(random)));
+        }
+        if (random.nextBoolean()) {
+            query.put(ANNOT_POPULATION_ALTERNATE_FREQUENCY.key(), values(random, 3, VariantQueryBenchmark::populationFrequency,
+                    separator(random)));
+        }
+        if (random.nextBoolean()) {
+            query.put(ANNOT_POPULATION_MINOR_ALLELE_FREQUENCY.key(), values(random, 2, VariantQueryBenchmark::populationFrequency,
+                    separator(random)));
+        }
+        return query;
+    }
+
+    private static String populationFrequency(Random random) {
+        return pick(random, "1kG_phase3", "GNOMAD_GENOMES") + ':' + pick(random, "ALL", "EUR", "AFR") + pick(random, POP_OPERATORS)
+                + score(random);
+    }
+
+    private static String score(Random random) {
+        return String.valueOf(random.nextInt(1000) / 1000.0);
+    }
+
+    private static String separator(Random random) {
+        return random.nextBoolean() ? VariantQueryUtils.AND : VariantQueryUtils.OR;
+    }
+
+    private static String pick(Random random, String... values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    private static String values(Random random, int max, Function<Random, String> generator, String separator) {
+        int n = 1 + random.nextInt(max);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            if (i > 0) {
+                sb.append(separator);
+            }
+            sb.append(generator.apply(random));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.benchmark.variant.stats;
+
+import org.opencb.biodata.models.variant.StudyEntry;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.opencga.storage.core.variant.stats.VariantStatisticsCalculator;
+import org.opencb.opencga.storage.core.variant.stats.VariantStatsWrapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures variants per second calculated by {@link VariantStatisticsCalculator} for a number of cohorts.
+ *
+ * Run with:
+ *   java -cp opencga-storage-benchmark.jar:libs/* org.openjdk.jmh.Main VariantStatisticsCalculatorBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class VariantStatisticsCalculatorBenchmark {
+
+    private static final int BATCH_SIZE = 100;
+    private static final String STUDY = "1";
+    private static final String[] GENOTYPES = {"0/0", "0/0", "0/0", "0/1", "1/1", "./."};
+
+    @Param({"1000", "10000"})
+    private int numSamples;
+
+    @Param({"1", "10", "100"})
+    private int numCohorts;
+
+    private List<Variant> variants;
+    private Map<String, Set<String>> cohorts;
+    private VariantStatisticsCalculator calculator;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        List<String> samples = new ArrayList<>(numSamples);
+        LinkedHashMap<String, Integer> samplesPosition = new LinkedHashMap<>();
+        for (int i = 0; i < numSamples; i++) {
+            String sample = "S" + i;
+            samples.add(sample);
+            samplesPosition.put(sample, i);
+        }
+
+        cohorts = new LinkedHashMap<>();
+        cohorts.put(StudyEntry.DEFAULT_COHORT, new HashSet<>(samples));
+        for (int c = 1; c < numCohorts; c++) {
+            Set<String> cohort = new HashSet<>();
+            for (String sample : samples) {
+                if (random.nextInt(numCohorts) == 0) {
+                    cohort.add(sample);
+                }
+            }
+            cohorts.put("C" + c, cohort);
+        }
+
+        variants = new ArrayList<>(BATCH_SIZE);
+        for (int v = 0; v < BATCH_SIZE; v++) {
+            Variant variant = new Variant("1:" + (1000 + v) + ":A:C");
+            StudyEntry study = new StudyEntry(STUDY, Collections.emptyList(), Collections.singletonList("GT"));
+            study.setSamplesPosition(samplesPosition);
+            List<List<String>> samplesData = new ArrayList<>(numSamples);
+            for (int i = 0; i < numSamples; i++) {
+                samplesData.add(Collections.singletonList(GENOTYPES[random.nextInt(GENOTYPES.length)]));
+            }
+            study.setSamplesData(samplesData);
+            variant.setStudies(Collections.singletonList(study));
+            variants.add(variant);
+        }
+        calculator = new VariantStatisticsCalculator(true);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public List<VariantStatsWrapper> calculateBatch() {
+        return calculator.calculateBatch(variants, STUDY, cohorts);
+    }
+}
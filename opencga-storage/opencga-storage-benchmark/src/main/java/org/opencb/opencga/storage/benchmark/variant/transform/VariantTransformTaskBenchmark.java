@@ -0,0 +1,182 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.benchmark.variant.transform;
+
+import htsjdk.variant.vcf.VCFHeader;
+import htsjdk.variant.vcf.VCFHeaderVersion;
+import org.apache.commons.lang3.tuple.Pair;
+import org.opencb.biodata.models.variant.VariantFileMetadata;
+import org.opencb.biodata.tools.variant.VariantNormalizer;
+import org.opencb.biodata.tools.variant.stats.VariantSetStatsCalculator;
+import org.opencb.opencga.storage.core.variant.VariantStoragePipeline;
+import org.opencb.opencga.storage.core.variant.io.VariantReaderUtils;
+import org.opencb.opencga.storage.core.variant.transform.CachedVariantNormalizer;
+import org.opencb.opencga.storage.core.variant.transform.VariantAvroTransformTask;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures lines per second transformed by {@link VariantAvroTransformTask}, and variants per second normalized,
+ * over a generated VCF with a number of samples and a ratio of indels and multi-allelic variants.
+ *
+ * Indels and multi-allelic variants are taken from a small set of patterns, as found in repeated regions.
+ *
+ * Run with:
+ *   java -cp opencga-storage-benchmark.jar:libs/* org.openjdk.jmh.Main VariantTransformTaskBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class VariantTransformTaskBenchmark {
+
+    private static final int BATCH_SIZE = 100;
+    private static final String STUDY = "1";
+    private static final String[] BASES = {"A", "C", "G", "T"};
+    private static final String[][] INDELS = {
+            {"A", "AT"}, {"AT", "A"}, {"ATT", "A"}, {"C", "CAG"}, {"CAG", "C"}, {"GTTT", "G"}, {"TA", "TAA"},
+    };
+    private static final String[][] MULTI_ALLELIC = {
+            {"ATT", "A", "AT", "ATTT"}, {"CA", "C", "CAA"}, {"GAC", "G", "GACAC"}, {"T", "C", "G"}, {"AC", "A", "GC"},
+    };
+
+    @Param({"10", "1000"})
+    private int numSamples;
+
+    @Param({"0.1", "0.5"})
+    private double indelRatio;
+
+    @Param({"0.05", "0.2"})
+    private double multiAllelicRatio;
+
+    @Param({"default", "cached"})
+    private String normalizerType;
+
+    private List<String> lines;
+    private List<String[]> alleles;
+    private List<Integer> positions;
+    private VariantAvroTransformTask task;
+    private VariantNormalizer normalizer;
+    private Path tmpDir;
+
+    @Setup
+    public void setUp() throws Exception {
+        Random random = new Random(1);
+        tmpDir = Files.createTempDirectory("transform_benchmark");
+        Path vcf = tmpDir.resolve("benchmark.vcf");
+        StringBuilder header = new StringBuilder()
+                .append("##fileformat=VCFv4.2\n")
+                .append("##FORMAT=<ID=GT,Number=1,Type=String,Description=\"Genotype\">\n")
+                .append("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT");
+        for (int i = 0; i < numSamples; i++) {
+            header.append("\tS").append(i);
+        }
+        Files.write(vcf, Collections.singletonList(header.toString()));
+
+        lines = new ArrayList<>(BATCH_SIZE);
+        alleles = new ArrayList<>(BATCH_SIZE);
+        positions = new ArrayList<>(BATCH_SIZE);
+        int position = 1000;
+        for (int v = 0; v < BATCH_SIZE; v++) {
+            position += 1 + random.nextInt(100);
+            String[] variantAlleles;
+            double r = random.nextDouble();
+            if (r < multiAllelicRatio) {
+                variantAlleles = MULTI_ALLELIC[random.nextInt(MULTI_ALLELIC.length)];
+            } else if (r < multiAllelicRatio + indelRatio) {
+                variantAlleles = INDELS[random.nextInt(INDELS.length)];
+            } else {
+                int ref = random.nextInt(BASES.length);
+                variantAlleles = new String[]{BASES[ref], BASES[(ref + 1 + random.nextInt(BASES.length - 1)) % BASES.length]};
+            }
+            StringBuilder line = new StringBuilder()
+                    .append("1\t").append(position).append("\t.\t")
+                    .append(variantAlleles[0]).append('\t')
+                    .append(String.join(",", Arrays.asList(variantAlleles).subList(1, variantAlleles.length)))
+                    .append("\t.\tPASS\t.\tGT");
+            for (int i = 0; i < numSamples; i++) {
+                line.append('\t').append(random.nextInt(variantAlleles.length)).append('/').append(random.nextInt(variantAlleles.length));
+            }
+            lines.add(line.toString());
+            alleles.add(variantAlleles);
+            positions.add(position);
+        }
+
+        Pair<VCFHeader, VCFHeaderVersion> htsHeader = VariantStoragePipeline.readHtsHeader(vcf);
+        VariantFileMetadata metadata = VariantReaderUtils.readVariantFileMetadata(vcf, null);
+        task = new VariantAvroTransformTask(htsHeader.getKey(), htsHeader.getValue(), STUDY, metadata,
+                tmpDir.resolve("benchmark.vcf.file.json"), new VariantSetStatsCalculator(STUDY, metadata), false, false);
+        task.setNormalizer(newNormalizer()).configureNormalizer(metadata.getHeader());
+        task.pre();
+
+        normalizer = newNormalizer();
+        normalizer.configure(metadata.getHeader());
+    }
+
+    private VariantNormalizer newNormalizer() {
+        VariantNormalizer variantNormalizer;
+        if (normalizerType.equals("cached")) {
+            variantNormalizer = new CachedVariantNormalizer(true, true, false, 10000);
+        } else {
+            variantNormalizer = new VariantNormalizer(true, true, false);
+        }
+        variantNormalizer.setGenerateReferenceBlocks(false);
+        return variantNormalizer;
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(tmpDir.resolve("benchmark.vcf"));
+        Files.deleteIfExists(tmpDir);
+    }
+
+    /**
+     * Parse, normalize, compute the stats and encode a batch of lines.
+     *
+     * @return Encoded variants
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public List<ByteBuffer> transform() {
+        return task.apply(lines);
+    }
+
+    /**
+     * Normalize the alleles of a batch of variants. Does not modify the input.
+     *
+     * @param blackhole Blackhole
+     * @throws Exception on normalization error
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void normalize(Blackhole blackhole) throws Exception {
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            String[] variantAlleles = alleles.get(i);
+            blackhole.consume(normalizer.normalize("1", positions.get(i), variantAlleles[0],
+                    Arrays.asList(variantAlleles).subList(1, variantAlleles.length)));
+        }
+    }
+}
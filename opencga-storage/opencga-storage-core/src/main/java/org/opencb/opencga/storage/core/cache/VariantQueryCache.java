@@ -0,0 +1,306 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.cache;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.tuple.Pair;
+import org.opencb.biodata.models.variant.StudyEntry;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.avro.VariantAvro;
+import org.opencb.commons.datastore.core.ObjectMap;
+import org.opencb.commons.datastore.core.Query;
+import org.opencb.commons.datastore.core.QueryOptions;
+import org.opencb.opencga.core.results.VariantQueryResult;
+import org.opencb.opencga.storage.core.exceptions.StorageEngineException;
+import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
+import org.opencb.opencga.storage.core.metadata.StudyConfigurationManager;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryException;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryUtils;
+import org.opencb.opencga.storage.core.variant.query.VariantQuery;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.opencb.opencga.storage.core.variant.adaptors.VariantQueryParam.INCLUDE_STUDY;
+import static org.opencb.opencga.storage.core.variant.adaptors.VariantQueryParam.STUDY;
+
+/**
+ * Local cache of query plans and query results.
+ *
+ * Queries are normalised before building the cache keys, so equivalent queries share the same entries.
+ * Plans expire after a given time, as they depend on the availability of the search engine. They must be cleared when a query
+ * fails in the search engine, see {@link #clearPlans()}.
+ * Results are bound to the data version of the studies involved in the query (see {@link StudyConfiguration#getDataVersion()}),
+ * so loading or removing files, annotating or calculating statistics invalidates them.
+ * Cached results are deep copies of the variants, copied again on each hit, so callers can modify the returned variants.
+ */
+public class VariantQueryCache {
+
+    public static final int MAX_PLANS = 1000;
+
+    private final long planTtl;
+    private final int maxResults;
+    private final int maxResultVariants;
+    private final Map<String, Plan> plans;
+    private final Map<String, VariantQueryResult<Variant>> results;
+    private final AtomicLong resultHits = new AtomicLong();
+    private final AtomicLong resultMisses = new AtomicLong();
+
+    /**
+     * Route chosen to resolve a query.
+     */
+    public enum Route {
+        /** Resolved only with the search engine. */
+        SEARCH,
+        /** Intersect the search engine with the storage engine. */
+        INTERSECT,
+        /** Resolved only with the storage engine. */
+        STORAGE
+    }
+
+    @FunctionalInterface
+    public interface RouteSupplier {
+        Route get() throws StorageEngineException;
+    }
+
+    private static class Plan {
+        private final Route route;
+        private final long expiration;
+
+        Plan(Route route, long expiration) {
+            this.route = route;
+            this.expiration = expiration;
+        }
+    }
+
+    /**
+     * @param planTtl           Time in milliseconds to remember the route of a query. 0 to disable the plan cache
+     * @param maxResults        Max number of cached query results. 0 to disable the result cache
+     * @param maxResultVariants Do not cache results with more than this number of variants
+     */
+    public VariantQueryCache(long planTtl, int maxResults, int maxResultVariants) {
+        this.planTtl = planTtl;
+        this.maxResults = maxResults;
+        this.maxResultVariants = maxResultVariants;
+        plans = lruMap(MAX_PLANS);
+        results = lruMap(Math.max(maxResults, 1));
+    }
+
+    public boolean isPlanCacheActive() {
+        return planTtl > 0;
+    }
+
+    public boolean isResultCacheActive() {
+        return maxResults > 0;
+    }
+
+    /**
+     * Get the route of a query from the cache, or compute it if missing or expired.
+     *
+     * @param query     Normalised query. See {@link #normalizeQuery}
+     * @param options   Query options
+     * @param supplier  Computes the route if missing in the cache
+     * @return          Route of the query
+     * @throws StorageEngineException if the route can not be computed
+     */
+    public Route getRoute(String query, QueryOptions options, RouteSupplier supplier) throws StorageEngineException {
+        if (!isPlanCacheActive()) {
+            return supplier.get();
+        }
+        // Pagination does not modify the route
+        String key = query + '|' + normalizeOptions(options, QueryOptions.LIMIT, QueryOptions.SKIP, QueryOptions.TIMEOUT);
+        long now = System.currentTimeMillis();
+        Plan plan = plans.get(key);
+        if (plan == null || plan.expiration < now) {
+            plan = new Plan(supplier.get(), now + planTtl);
+            plans.put(key, plan);
+        }
+        return plan.route;
+    }
+
+    /**
+     * Build the key of a query result. Includes the data version of all the studies involved in the query.
+     *
+     * @param query     Normalised query. See {@link #normalizeQuery}
+     * @param rawQuery  Query, before normalising
+     * @param options   Query options
+     * @param scm       StudyConfigurationManager
+     * @return          Result key
+     */
+    public String buildResultKey(String query, Query rawQuery, QueryOptions options, StudyConfigurationManager scm) {
+        return query + '|' + normalizeOptions(options, QueryOptions.TIMEOUT) + '|' + dataVersions(rawQuery, options, scm);
+    }
+
+    public VariantQueryResult<Variant> getResult(String key) {
+        VariantQueryResult<Variant> result = results.get(key);
+        if (result == null) {
+            resultMisses.incrementAndGet();
+            return null;
+        } else {
+            resultHits.incrementAndGet();
+            return copy(result);
+        }
+    }
+
+    public void putResult(String key, VariantQueryResult<Variant> result) {
+        if (isResultCacheActive() && result != null && result.getResult() != null && result.getResult().size() <= maxResultVariants) {
+            results.put(key, copy(result));
+        }
+    }
+
+    public long getResultHits() {
+        return resultHits.get();
+    }
+
+    public long getResultMisses() {
+        return resultMisses.get();
+    }
+
+    public void clear() {
+        plans.clear();
+        results.clear();
+    }
+
+    /**
+     * Forget all the routes. The routes using the search engine are no longer valid if it is not alive.
+     */
+    public void clearPlans() {
+        plans.clear();
+    }
+
+    /**
+     * Build a canonical representation of a query. Params are sorted, empty params are discarded,
+     * lists are joined and studies are replaced by their numerical ids.
+     *
+     * @param query Query
+     * @param scm   StudyConfigurationManager to resolve the studies
+     * @return      Normalised query
+     */
+    public static String normalizeQuery(Query query, StudyConfigurationManager scm) {
+        SortedMap<String, String> map = new TreeMap<>();
+        for (Map.Entry<String, Object> entry : query.entrySet()) {
+            if (entry.getKey().equals(VariantQuery.QUERY_KEY)) {
+                // Derived from the other params
+                continue;
+            }
+            String value = valueToString(entry.getValue());
+            if (StringUtils.isEmpty(value)) {
+                continue;
+            }
+            if (entry.getKey().equals(STUDY.key()) || entry.getKey().equals(INCLUDE_STUDY.key())) {
+                value = normalizeStudies(value, scm);
+            }
+            map.put(entry.getKey(), value);
+        }
+        return map.toString();
+    }
+
+    static String normalizeOptions(ObjectMap options, String... skipKeys) {
+        SortedMap<String, String> map = new TreeMap<>();
+        Set<String> skip = new HashSet<>(Arrays.asList(skipKeys));
+        for (Map.Entry<String, Object> entry : options.entrySet()) {
+            String value = valueToString(entry.getValue());
+            if (!skip.contains(entry.getKey()) && StringUtils.isNotEmpty(value)) {
+                map.put(entry.getKey(), value);
+            }
+        }
+        return map.toString();
+    }
+
+    private static String normalizeStudies(String value, StudyConfigurationManager scm) {
+        Pair<VariantQueryUtils.QueryOperation, List<String>> pair = VariantQueryUtils.splitValue(value);
+        Map<String, Integer> availableStudies = scm.getStudies(null);
+        List<String> studies = new ArrayList<>(pair.getValue().size());
+        for (String study : pair.getValue()) {
+            boolean negated = VariantQueryUtils.isNegated(study);
+            try {
+                Integer studyId = scm.getStudyId(study, false, availableStudies);
+                studies.add(studyId == null ? study : (negated ? VariantQueryUtils.NOT : "") + studyId);
+            } catch (VariantQueryException e) {
+                // Not a study. e.g. "all" or "none"
+                studies.add(study);
+            }
+        }
+        String separator = pair.getKey() == null ? VariantQueryUtils.OR : pair.getKey().separator();
+        return String.join(separator, studies);
+    }
+
+    private static String dataVersions(Query query, QueryOptions options, StudyConfigurationManager scm) {
+        Set<Integer> studyIds = new TreeSet<>();
+        boolean allStudies = true;
+        if (VariantQueryUtils.isValidParam(query, STUDY)) {
+            List<String> studies = VariantQueryUtils.splitValue(query.getString(STUDY.key())).getValue();
+            if (studies.stream().noneMatch(VariantQueryUtils::isNegated)) {
+                // Only the variants from these studies can be returned
+                allStudies = false;
+                studyIds.addAll(scm.getStudyIds(studies, new QueryOptions()));
+                studyIds.addAll(VariantQueryUtils.getIncludeStudies(query, options, scm));
+            }
+        }
+        if (allStudies) {
+            studyIds.addAll(scm.getStudyIds(new QueryOptions()));
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Integer studyId : studyIds) {
+            StudyConfiguration studyConfiguration = scm.getStudyConfiguration(studyId, null).first();
+            sb.append(studyId).append(':').append(studyConfiguration == null ? -1 : studyConfiguration.getDataVersion()).append(';');
+        }
+        return sb.toString();
+    }
+
+    private static String valueToString(Object value) {
+        if (value == null) {
+            return null;
+        } else if (value instanceof Collection) {
+            return StringUtils.join((Collection<?>) value, VariantQueryUtils.OR);
+        } else {
+            return value.toString();
+        }
+    }
+
+    private static VariantQueryResult<Variant> copy(VariantQueryResult<Variant> result) {
+        List<Variant> variants = new ArrayList<>(result.getResult().size());
+        for (Variant variant : result.getResult()) {
+            variants.add(copy(variant));
+        }
+        return new VariantQueryResult<>(result.getId(), result.getDbTime(), result.getNumResults(), result.getNumTotalResults(),
+                result.getWarningMsg(), result.getErrorMsg(), variants, result.getSamples(), result.getSource(),
+                result.getApproximateCount(), result.getApproximateCountSamplingSize())
+                .setApproximateCountLowerBound(result.getApproximateCountLowerBound())
+                .setApproximateCountUpperBound(result.getApproximateCountUpperBound());
+    }
+
+    static Variant copy(Variant variant) {
+        // Avro builders make a deep copy of the record
+        Variant copy = new Variant(VariantAvro.newBuilder(variant.getImpl()).build());
+        List<StudyEntry> studies = variant.getStudies();
+        for (int i = 0; i < studies.size(); i++) {
+            // Samples position is not part of the record. Shared by all the variants of a query
+            copy.getStudies().get(i).setSamplesPosition(studies.get(i).getSamplesPosition());
+        }
+        return copy;
+    }
+
+    private static <V> Map<String, V> lruMap(int maxSize) {
+        return Collections.synchronizedMap(new LinkedHashMap<String, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                return size() > maxSize;
+            }
+        });
+    }
+}
@@ -0,0 +1,419 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.io;
+
+import org.opencb.commons.io.DataReader;
+import org.opencb.commons.io.DataWriter;
+import org.opencb.commons.run.Task;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * Tracks the progress of a pipeline executed with a {@link org.opencb.commons.run.ParallelTaskRunner}, at batch granularity.
+ *
+ * Each batch read is given a sequence number, and is acknowledged once the writer (or the task, if the task writes
+ * the batch) returns. Batches may finish out of order, so the checkpoint is the number of records in the longest
+ * prefix of acknowledged batches. Every record before the checkpoint is written, and can be skipped when resuming.
+ * Records after the checkpoint may be partially written, so the writer must be idempotent on resume.
+ *
+ * The checkpoint is notified to the listener at most once per interval, and on {@link #flush()}.
+ *
+ * If the writer buffers the records, set a {@link Sync} to make them durable before each notification. Then, the
+ * notifications are only sent from the writing thread, right after a write, and never from {@link #flush()}.
+ *
+ * <pre>
+ *     PipelineCheckpoint checkpoint = new PipelineCheckpoint(skipRecords, intervalMillis, listener);
+ *     ParallelTaskRunner ptr = new ParallelTaskRunner(checkpoint.wrapReader(reader), checkpoint.wrapTask(task),
+ *             checkpoint.wrapWriter(writer), config);
+ *     try {
+ *         ptr.run();
+ *     } finally {
+ *         checkpoint.flush();
+ *     }
+ * </pre>
+ */
+public class PipelineCheckpoint {
+
+    @FunctionalInterface
+    public interface Listener {
+        /**
+         * Persist a checkpoint.
+         *
+         * @param records    Number of records read and written
+         * @param lastRecord Last record written, as string. Null if no record was written
+         * @throws Exception if the checkpoint can not be persisted
+         */
+        void checkpoint(long records, String lastRecord) throws Exception;
+    }
+
+    @FunctionalInterface
+    public interface Sync {
+        /**
+         * Make durable all the records written so far. Called from the writing thread, before notifying the listener.
+         *
+         * @param records Number of records read and written
+         * @return Number of records that can be skipped when resuming. Up to the given number of records
+         * @throws Exception if the records can not be synced
+         */
+        long sync(long records) throws Exception;
+    }
+
+    private final long skipRecords;
+    private final long intervalMillis;
+    private final Listener listener;
+    private Sync sync;
+
+    // Batches being processed, by identity of the list in the pipeline
+    private final Map<List<?>, Long> sequences = Collections.synchronizedMap(new IdentityHashMap<>());
+    // Batches read, not yet in the checkpoint
+    private final Map<Long, Batch> batches = new HashMap<>();
+
+    private long nextSequence;                  // Only used by the reader
+    private long readRecords;                   // Only used by the reader
+    private long checkpointSequence;
+    private long checkpointRecords;
+    private String checkpointLastRecord;
+    private final ReentrantLock notifyLock = new ReentrantLock();
+    private long lastNotifiedRecords;
+    private long lastNotifiedTime = System.currentTimeMillis();
+
+    private final Logger logger = LoggerFactory.getLogger(PipelineCheckpoint.class);
+
+    /**
+     * Create a new PipelineCheckpoint.
+     *
+     * @param skipRecords    Records written in a previous execution. Skipped by the reader.
+     * @param intervalMillis Min time between notifications to the listener. Negative to notify only on {@link #flush()}
+     * @param listener       Listener to persist the checkpoint. May be null
+     */
+    public PipelineCheckpoint(long skipRecords, long intervalMillis, Listener listener) {
+        this.skipRecords = Math.max(0, skipRecords);
+        this.intervalMillis = intervalMillis;
+        this.listener = listener;
+        this.readRecords = this.skipRecords;
+        this.checkpointRecords = this.skipRecords;
+        this.lastNotifiedRecords = this.skipRecords;
+    }
+
+    private static final class Batch {
+        private final long records;
+        private final String lastRecord;
+        private boolean done;
+
+        private Batch(long records, String lastRecord) {
+            this.records = records;
+            this.lastRecord = lastRecord;
+        }
+    }
+
+    public PipelineCheckpoint setSync(Sync sync) {
+        this.sync = sync;
+        return this;
+    }
+
+    public <T> DataReader<T> wrapReader(DataReader<T> reader) {
+        return wrapReader(reader, Object::toString);
+    }
+
+    /**
+     * Wrap the reader of the pipeline.
+     *
+     * @param reader   Reader to wrap
+     * @param recordId Short description of a record, to be stored with the checkpoint
+     * @param <T>      Record type
+     * @return Wrapped reader
+     */
+    public <T> DataReader<T> wrapReader(DataReader<T> reader, Function<T, String> recordId) {
+        return new CheckpointDataReader<>(reader, recordId);
+    }
+
+    /**
+     * Wrap a task followed by a writer. The batch is acknowledged by the writer.
+     *
+     * @param task Task to wrap
+     * @param <T>  Input type
+     * @param <R>  Output type
+     * @return Wrapped task
+     */
+    public <T, R> Task<T, R> wrapTask(Task<T, R> task) {
+        return new CheckpointTask<>(task, false);
+    }
+
+    /**
+     * Wrap a task that writes the batch itself. The batch is acknowledged when the task returns.
+     *
+     * @param task Task to wrap
+     * @param <T>  Input type
+     * @param <R>  Output type
+     * @return Wrapped task
+     */
+    public <T, R> Task<T, R> wrapWritingTask(Task<T, R> task) {
+        return new CheckpointTask<>(task, true);
+    }
+
+    public <T> DataWriter<T> wrapWriter(DataWriter<T> writer) {
+        if (writer == null) {
+            return null;
+        }
+        return new CheckpointDataWriter<>(writer);
+    }
+
+    /**
+     * Notify the current checkpoint to the listener, if it changed since the last notification.
+     * Ignored if there is a {@link Sync}, as the writer may be already closed.
+     */
+    public void flush() {
+        if (sync == null) {
+            notifyListener(true);
+        }
+    }
+
+    public long getSkippedRecords() {
+        return skipRecords;
+    }
+
+    public synchronized long getRecords() {
+        return checkpointRecords;
+    }
+
+    public synchronized String getLastRecord() {
+        return checkpointLastRecord;
+    }
+
+    private synchronized void register(List<?> batch, long records, String lastRecord) {
+        long sequence = nextSequence++;
+        batches.put(sequence, new Batch(records, lastRecord));
+        sequences.put(batch, sequence);
+    }
+
+    private void acknowledge(long sequence, boolean written) {
+        synchronized (this) {
+            batches.get(sequence).done = true;
+            Batch batch = batches.get(checkpointSequence);
+            while (batch != null && batch.done) {
+                batches.remove(checkpointSequence);
+                checkpointSequence++;
+                checkpointRecords = batch.records;
+                checkpointLastRecord = batch.lastRecord;
+                batch = batches.get(checkpointSequence);
+            }
+        }
+        if (sync == null || written) {
+            notifyListener(false);
+        }
+    }
+
+    private void notifyListener(boolean force) {
+        if (listener == null) {
+            return;
+        }
+        // Serialize notifications. Do not block the pipeline threads if there is another notification in progress
+        if (force) {
+            notifyLock.lock();
+        } else if (!notifyLock.tryLock()) {
+            return;
+        }
+        try {
+            long records;
+            String lastRecord;
+            synchronized (this) {
+                records = checkpointRecords;
+                lastRecord = checkpointLastRecord;
+            }
+            long now = System.currentTimeMillis();
+            if (records == lastNotifiedRecords) {
+                return;
+            }
+            if (!force && (intervalMillis < 0 || now - lastNotifiedTime < intervalMillis)) {
+                return;
+            }
+            try {
+                if (sync != null) {
+                    long syncedRecords = sync.sync(records);
+                    if (syncedRecords != records) {
+                        lastRecord = null;
+                    }
+                    listener.checkpoint(syncedRecords, lastRecord);
+                } else {
+                    listener.checkpoint(records, lastRecord);
+                }
+                lastNotifiedRecords = records;
+                lastNotifiedTime = now;
+            } catch (Exception e) {
+                // Do not fail the pipeline. The next checkpoint may succeed.
+                logger.warn("Unable to save checkpoint at record " + records + " (" + lastRecord + ')', e);
+            }
+        } finally {
+            notifyLock.unlock();
+        }
+    }
+
+    private final class CheckpointDataReader<T> implements DataReader<T> {
+        private final DataReader<T> reader;
+        private final Function<T, String> recordId;
+        private List<T> pending;
+        private boolean skipped;
+
+        private CheckpointDataReader(DataReader<T> reader, Function<T, String> recordId) {
+            this.reader = reader;
+            this.recordId = recordId;
+        }
+
+        @Override
+        public boolean open() {
+            return reader.open();
+        }
+
+        @Override
+        public boolean pre() {
+            return reader.pre();
+        }
+
+        @Override
+        public List<T> read(int batchSize) {
+            if (!skipped) {
+                skip(batchSize);
+                skipped = true;
+            }
+            List<T> batch;
+            if (pending != null) {
+                batch = pending;
+                pending = null;
+            } else {
+                batch = reader.read(batchSize);
+            }
+            if (batch != null && !batch.isEmpty()) {
+                readRecords += batch.size();
+                register(batch, readRecords, recordId.apply(batch.get(batch.size() - 1)));
+            }
+            return batch;
+        }
+
+        private void skip(int batchSize) {
+            if (skipRecords == 0) {
+                return;
+            }
+            logger.info("Skip {} records already written", skipRecords);
+            long remaining = skipRecords;
+            while (remaining > 0) {
+                List<T> batch = reader.read((int) Math.min(batchSize, remaining));
+                if (batch == null || batch.isEmpty()) {
+                    throw new IllegalStateException("Unable to skip " + skipRecords + " records. "
+                            + "Input finished after " + (skipRecords - remaining) + " records");
+                }
+                if (batch.size() > remaining) {
+                    pending = new ArrayList<>(batch.subList((int) remaining, batch.size()));
+                    remaining = 0;
+                } else {
+                    remaining -= batch.size();
+                }
+            }
+        }
+
+        @Override
+        public boolean post() {
+            return reader.post();
+        }
+
+        @Override
+        public boolean close() {
+            return reader.close();
+        }
+    }
+
+    private final class CheckpointTask<T, R> implements Task<T, R> {
+        private final Task<T, R> delegate;
+        private final boolean writes;
+
+        private CheckpointTask(Task<T, R> delegate, boolean writes) {
+            this.delegate = delegate;
+            this.writes = writes;
+        }
+
+        @Override
+        public void pre() throws Exception {
+            delegate.pre();
+        }
+
+        @Override
+        public List<R> apply(List<T> batch) throws Exception {
+            Long sequence = sequences.remove(batch);
+            List<R> result = delegate.apply(batch);
+            if (sequence != null) {
+                if (writes || result == null || result.isEmpty()) {
+                    // Nothing left to write
+                    acknowledge(sequence, writes);
+                } else {
+                    sequences.put(result, sequence);
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public List<R> drain() throws Exception {
+            return delegate.drain();
+        }
+
+        @Override
+        public void post() throws Exception {
+            delegate.post();
+        }
+    }
+
+    private final class CheckpointDataWriter<T> implements DataWriter<T> {
+        private final DataWriter<T> writer;
+
+        private CheckpointDataWriter(DataWriter<T> writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public boolean open() {
+            return writer.open();
+        }
+
+        @Override
+        public boolean pre() {
+            return writer.pre();
+        }
+
+        @Override
+        public boolean write(List<T> batch) {
+            boolean result = writer.write(batch);
+            Long sequence = sequences.remove(batch);
+            if (sequence != null) {
+                acknowledge(sequence, true);
+            }
+            return result;
+        }
+
+        @Override
+        public boolean post() {
+            return writer.post();
+        }
+
+        @Override
+        public boolean close() {
+            return writer.close();
+        }
+    }
+}
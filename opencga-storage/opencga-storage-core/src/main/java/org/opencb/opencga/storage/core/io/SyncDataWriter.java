@@ -0,0 +1,44 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.io;
+
+import org.opencb.commons.io.DataWriter;
+
+import java.io.IOException;
+
+/**
+ * {@link DataWriter} to a file that can be synced to disk, and resumed later by appending to the file.
+ */
+public interface SyncDataWriter<T> extends DataWriter<T> {
+
+    /**
+     * Write to disk all the elements written so far.
+     *
+     * @return Size of the file, in bytes. Truncating the file to this size keeps all the elements written so far.
+     * @throws IOException if the file can not be synced
+     */
+    long sync() throws IOException;
+
+    /**
+     * Append to the end of the file, if exists, instead of overwriting it.
+     *
+     * @param append Append to the file
+     * @return this
+     */
+    SyncDataWriter<T> setAppend(boolean append);
+
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.io.avro;
+
+import org.apache.avro.Schema;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.file.SeekableFileInput;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.opencb.opencga.storage.core.io.SyncDataWriter;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Writes records already encoded with the given schema into an avro file.
+ */
+public class AvroEncodedDataWriter implements SyncDataWriter<ByteBuffer> {
+
+    private final Schema schema;
+    private final String codecName;
+    private final Path path;
+    private boolean append = false;
+    private FileOutputStream fileOutputStream;
+    private DataFileWriter<Object> writer;
+
+    /**
+     * Create a new AvroEncodedDataWriter.
+     *
+     * @param schema    Schema of the records
+     * @param codecName Compression codec. Empty, "gzip", "snappy" or any avro codec name
+     * @param path      Output file
+     */
+    public AvroEncodedDataWriter(Schema schema, String codecName, Path path) {
+        this.schema = schema;
+        this.path = path;
+        if (codecName == null || codecName.isEmpty()) {
+            this.codecName = "null";
+        } else if (codecName.equals("gzip") || codecName.equals("gz")) {
+            this.codecName = "deflate";
+        } else if (codecName.equals("snz")) {
+            this.codecName = "snappy";
+        } else {
+            this.codecName = codecName;
+        }
+    }
+
+    @Override
+    public AvroEncodedDataWriter setAppend(boolean append) {
+        this.append = append;
+        return this;
+    }
+
+    @Override
+    public boolean open() {
+        writer = new DataFileWriter<>(new GenericDatumWriter<>(schema));
+        try {
+            if (append && path.toFile().length() > 0) {
+                // The codec is read from the existing file
+                fileOutputStream = new FileOutputStream(path.toFile(), true);
+                writer.appendTo(new SeekableFileInput(path.toFile()), fileOutputStream);
+            } else {
+                writer.setCodec(CodecFactory.fromString(codecName));
+                fileOutputStream = new FileOutputStream(path.toFile());
+                writer.create(schema, fileOutputStream);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean write(List<ByteBuffer> batch) {
+        try {
+            for (ByteBuffer byteBuffer : batch) {
+                writer.appendEncoded(byteBuffer);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return true;
+    }
+
+    @Override
+    public long sync() throws IOException {
+        // Close the current block, and flush it
+        writer.flush();
+        fileOutputStream.getFD().sync();
+        return fileOutputStream.getChannel().position();
+    }
+
+    @Override
+    public boolean close() {
+        try {
+            writer.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return true;
+    }
+}
@@ -16,7 +16,7 @@
 
 package org.opencb.opencga.storage.core.io.plain;
 
-import org.opencb.commons.io.DataWriter;
+import org.opencb.opencga.storage.core.io.SyncDataWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xerial.snappy.SnappyOutputStream;
@@ -32,11 +32,13 @@ import java.util.zip.GZIPOutputStream;
 /**
  * Created by jacobo on 25/02/15.
  */
-public class StringDataWriter implements DataWriter<String> {
+public class StringDataWriter implements SyncDataWriter<String> {
 
     protected OutputStream os;
+    protected FileOutputStream fileOutputStream;
     protected final Path path;
     protected final boolean endLine;
+    protected boolean append = false;
     protected long writtenLines = 0L;
 
     protected static Logger logger = LoggerFactory.getLogger(StringDataWriter.class);
@@ -62,19 +64,31 @@ public class StringDataWriter implements DataWriter<String> {
         writer.close();
     }
 
+    @Override
+    public StringDataWriter setAppend(boolean append) {
+        this.append = append;
+        return this;
+    }
+
+    public static boolean isSyncSupported(Path path) {
+        String fileName = path.toFile().getName();
+        return !fileName.endsWith(".snappy") && !fileName.endsWith(".snz");
+    }
+
     @Override
     public boolean open() {
         try {
             String fileName = path.toFile().getName();
+            fileOutputStream = new FileOutputStream(path.toAbsolutePath().toString(), append);
             if (fileName.endsWith(".gz")) {
                 logger.debug("Gzip output compress");
-                os = new GZIPOutputStream(new FileOutputStream(path.toAbsolutePath().toString()));
+                os = new GZIPOutputStream(fileOutputStream);
             } else if (fileName.endsWith(".snappy") || fileName.endsWith(".snz")) {
                 logger.debug("Snappy output compress");
-                os = new SnappyOutputStream(new FileOutputStream(path.toAbsolutePath().toString()));
+                os = new SnappyOutputStream(fileOutputStream);
             } else {
                 logger.debug("Plain output");
-                os = new FileOutputStream(path.toAbsolutePath().toString());
+                os = fileOutputStream;
             }
         } catch (IOException e) {
             throw new UncheckedIOException(e);
@@ -83,6 +97,26 @@ public class StringDataWriter implements DataWriter<String> {
         return true;
     }
 
+    @Override
+    public long sync() throws IOException {
+        if (!isSyncSupported(path)) {
+            throw new UnsupportedOperationException("Unable to sync file " + path);
+        }
+        if (os instanceof GZIPOutputStream) {
+            // Finish the current gzip member, and start a new one. Appending to the file also starts a new member
+            ((GZIPOutputStream) os).finish();
+            os.flush();
+            fileOutputStream.getFD().sync();
+            long size = fileOutputStream.getChannel().position();
+            os = new GZIPOutputStream(fileOutputStream);
+            return size;
+        } else {
+            os.flush();
+            fileOutputStream.getFD().sync();
+            return fileOutputStream.getChannel().position();
+        }
+    }
+
     @Override
     public boolean close() {
         try {
@@ -363,7 +363,9 @@ public class VariantStorageManager extends StorageManager {
                 result.getSamples(),
                 result.getSource(),
                 result.getApproximateCount(),
-                result.getApproximateCountSamplingSize());
+                result.getApproximateCountSamplingSize())
+                .setApproximateCountLowerBound(result.getApproximateCountLowerBound())
+                .setApproximateCountUpperBound(result.getApproximateCountUpperBound());
 
     }
 
@@ -48,6 +48,7 @@ public class BatchFileOperation {
     private long timestamp;
     private final TreeMap<Date, Status> status = new TreeMap<>(Date::compareTo);
     private Type type = Type.OTHER;
+    private Checkpoint checkpoint;
 
     public BatchFileOperation() {
     }
@@ -65,6 +66,7 @@ public class BatchFileOperation {
         this.timestamp = batch.timestamp;
         this.status.putAll(batch.status);
         this.type = batch.type;
+        this.checkpoint = batch.checkpoint == null ? null : new Checkpoint(batch.checkpoint);
     }
 
     public boolean sameOperation(Collection<Integer> fileIds, Type type, String jobOperationName) {
@@ -127,6 +129,15 @@ public class BatchFileOperation {
         return this;
     }
 
+    public Checkpoint getCheckpoint() {
+        return checkpoint;
+    }
+
+    public BatchFileOperation setCheckpoint(Checkpoint checkpoint) {
+        this.checkpoint = checkpoint;
+        return this;
+    }
+
     @Override
     public String toString() {
         return "BatchFileOperation{"
@@ -134,6 +145,66 @@ public class BatchFileOperation {
                 + ", fileIds=" + fileIds
                 + ", timestamp=" + timestamp
                 + ", status=" + status
+                + (checkpoint == null ? "" : ", checkpoint=" + checkpoint)
                 + '}';
     }
+
+    /**
+     * Progress of a running operation. All the records read before the checkpoint are already written, and can be
+     * skipped when resuming the operation.
+     */
+    public static class Checkpoint {
+        private long records;
+        private String lastRecord;
+        private Date date;
+
+        public Checkpoint() {
+        }
+
+        public Checkpoint(long records, String lastRecord, Date date) {
+            this.records = records;
+            this.lastRecord = lastRecord;
+            this.date = date;
+        }
+
+        public Checkpoint(Checkpoint checkpoint) {
+            this(checkpoint.records, checkpoint.lastRecord, checkpoint.date);
+        }
+
+        public long getRecords() {
+            return records;
+        }
+
+        public Checkpoint setRecords(long records) {
+            this.records = records;
+            return this;
+        }
+
+        public String getLastRecord() {
+            return lastRecord;
+        }
+
+        public Checkpoint setLastRecord(String lastRecord) {
+            this.lastRecord = lastRecord;
+            return this;
+        }
+
+        public Date getDate() {
+            return date;
+        }
+
+        public Checkpoint setDate(Date date) {
+            this.date = date;
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            return "Checkpoint{"
+                    + "records=" + records
+                    + ", lastRecord='" + lastRecord + '\''
+                    + ", date=" + date
+                    + '}';
+        }
+    }
 }
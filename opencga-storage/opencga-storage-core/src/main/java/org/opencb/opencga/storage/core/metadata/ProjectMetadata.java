@@ -25,6 +25,8 @@ public class ProjectMetadata {
 
     private ObjectMap attributes;
 
+    private long searchIndexLastTimestamp;
+
     public static class VariantAnnotationSets {
         private VariantAnnotationMetadata current;
         private List<VariantAnnotationMetadata> saved;
@@ -230,7 +232,8 @@ public class ProjectMetadata {
     }
 
     public ProjectMetadata copy() {
-        return new ProjectMetadata(species, assembly, release, new ObjectMap(attributes), new HashMap<>(counters), annotation);
+        return new ProjectMetadata(species, assembly, release, new ObjectMap(attributes), new HashMap<>(counters), annotation)
+                .setSearchIndexLastTimestamp(searchIndexLastTimestamp);
     }
 
     public String getSpecies() {
@@ -287,4 +290,19 @@ public class ProjectMetadata {
         return this;
     }
 
+    /**
+     * Start time of the last complete synchronisation of the search index. Variants modified
+     * before this timestamp are already in the search index.
+     *
+     * @return Timestamp in milliseconds, or 0 if the search index was never synchronised
+     */
+    public long getSearchIndexLastTimestamp() {
+        return searchIndexLastTimestamp;
+    }
+
+    public ProjectMetadata setSearchIndexLastTimestamp(long searchIndexLastTimestamp) {
+        this.searchIndexLastTimestamp = searchIndexLastTimestamp;
+        return this;
+    }
+
 }
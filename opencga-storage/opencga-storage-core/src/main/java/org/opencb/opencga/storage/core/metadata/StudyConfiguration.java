@@ -69,6 +69,8 @@ public class StudyConfiguration {
 
     private Long timeStamp;
 
+    private int dataVersion;
+
     private VariantFileHeader variantHeader;
 
     private ObjectMap attributes;
@@ -100,6 +102,7 @@ public class StudyConfiguration {
         }
         this.aggregation = other.aggregation;
         this.timeStamp = other.timeStamp;
+        this.dataVersion = other.dataVersion;
         if (other.variantHeader == null) {
             this.variantHeader = VariantFileHeader.newBuilder().setVersion("").build();
         } else {
@@ -180,6 +183,7 @@ public class StudyConfiguration {
                 .append("batches", batches)
                 .append("aggregation", aggregation)
                 .append("timeStamp", timeStamp)
+                .append("dataVersion", dataVersion)
                 .append("attributes", attributes)
                 .toString();
     }
@@ -312,6 +316,20 @@ public class StudyConfiguration {
         this.timeStamp = timeStamp;
     }
 
+    /**
+     * Version of the variants data of this study. Incremented every time the variants of the study are modified
+     * by loading or removing files, annotating, or calculating statistics.
+     *
+     * @return Data version
+     */
+    public int getDataVersion() {
+        return dataVersion;
+    }
+
+    public void setDataVersion(int dataVersion) {
+        this.dataVersion = dataVersion;
+    }
+
     public VariantFileHeader getVariantHeader() {
         return variantHeader;
     }
@@ -360,13 +378,14 @@ public class StudyConfiguration {
                 && Objects.equals(batches, that.batches)
                 && aggregation == that.aggregation
                 && Objects.equals(timeStamp, that.timeStamp)
+                && dataVersion == that.dataVersion
                 && Objects.equals(attributes, that.attributes);
     }
 
     @Override
     public int hashCode() {
         return Objects.hash(studyId, studyName, fileIds, sampleIds, cohortIds, cohorts, indexedFiles, headers, samplesInFiles,
-                calculatedStats, invalidStats, batches, aggregation, timeStamp, attributes);
+                calculatedStats, invalidStats, batches, aggregation, timeStamp, dataVersion, attributes);
     }
 
     public static <T, R> BiMap<R, T> inverseMap(BiMap<T, R> map) {
@@ -95,6 +95,18 @@ public class StudyConfigurationManager implements AutoCloseable {
         return studyDBAdaptor.lockStudy(studyId, lockDuration, timeout, lockName);
     }
 
+    /**
+     * Extends the lease of a study lock, to keep it for longer than the initial lock duration.
+     *
+     * @param studyId       Study id
+     * @param lockId        Lock token, as returned by {@link #lockStudy}
+     * @param lockDuration  New duration in milliseconds of the lock, from now
+     * @throws IllegalStateException if the lock is not held anymore with the given token
+     */
+    public void renewLockStudy(int studyId, long lockId, long lockDuration) {
+        studyDBAdaptor.renewLockStudy(studyId, lockId, lockDuration, null);
+    }
+
     public void unLockStudy(int studyId, long lockId) {
         studyDBAdaptor.unLockStudy(studyId, lockId, null);
     }
@@ -39,6 +39,10 @@ public interface StudyConfigurationAdaptor extends AutoCloseable {
         return 0;
     }
 
+    default void renewLockStudy(int studyId, long lockId, long lockDuration, String lockName) {
+        LoggerFactory.getLogger(StudyConfigurationAdaptor.class).warn("Ignoring renew lock");
+    }
+
     default void unLockStudy(int studyId, long lockId, String lockName) {
         LoggerFactory.getLogger(StudyConfigurationAdaptor.class).warn("Ignoring unLock");
     }
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Exports the pipeline and each of its stages as MBeans in the platform MBeanServer, with names like:
+ *
+ *   org.opencb.opencga.storage:type=Pipeline,name="load-1"
+ *   org.opencb.opencga.storage:type=Pipeline,name="load-1",stage="task"
+ */
+public class JmxMetricsRegistry implements MetricsRegistry {
+
+    public static final String DOMAIN = "org.opencb.opencga.storage";
+
+    private final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+    private final Logger logger = LoggerFactory.getLogger(JmxMetricsRegistry.class);
+
+    @Override
+    public void register(PipelineMetrics metrics) {
+        try {
+            mBeanServer.registerMBean(metrics, getObjectName(metrics));
+        } catch (JMException e) {
+            // Metrics should never stop the pipeline
+            logger.warn("Unable to register metrics for " + metrics.getName() + " : " + e.getMessage());
+            return;
+        }
+        for (StageMetrics stage : metrics.getStages()) {
+            try {
+                mBeanServer.registerMBean(stage, getObjectName(metrics, stage));
+            } catch (JMException e) {
+                logger.warn("Unable to register metrics for " + metrics.getName() + " : " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void unregister(PipelineMetrics metrics) {
+        try {
+            unregister(getObjectName(metrics));
+            for (StageMetrics stage : metrics.getStages()) {
+                unregister(getObjectName(metrics, stage));
+            }
+        } catch (JMException e) {
+            logger.warn("Unable to unregister metrics for " + metrics.getName() + " : " + e.getMessage());
+        }
+    }
+
+    private void unregister(ObjectName name) throws JMException {
+        if (mBeanServer.isRegistered(name)) {
+            mBeanServer.unregisterMBean(name);
+        }
+    }
+
+    private ObjectName getObjectName(PipelineMetrics metrics) throws JMException {
+        return new ObjectName(DOMAIN + ":type=Pipeline,name=" + ObjectName.quote(metrics.getName()));
+    }
+
+    private ObjectName getObjectName(PipelineMetrics metrics, StageMetrics stage) throws JMException {
+        return new ObjectName(DOMAIN + ":type=Pipeline,name=" + ObjectName.quote(metrics.getName())
+                + ",stage=" + ObjectName.quote(stage.getName()));
+    }
+}
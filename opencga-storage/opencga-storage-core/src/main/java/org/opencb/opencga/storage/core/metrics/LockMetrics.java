@@ -0,0 +1,129 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.metrics;
+
+import org.opencb.commons.datastore.core.ObjectMap;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Contention metrics of a distributed lock.
+ *
+ * Records the number of acquisitions, how many of them had to wait for another holder, the number of attempts
+ * against the database and the time spent waiting for the lock.
+ *
+ * All the methods are thread safe.
+ */
+public class LockMetrics {
+
+    private final String name;
+    private final LongAdder acquisitions = new LongAdder();
+    private final LongAdder contendedAcquisitions = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder attempts = new LongAdder();
+    private final LongAdder renewals = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    public LockMetrics(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Record a lock acquisition.
+     *
+     * @param numAttempts Number of attempts to take the lock from the database
+     * @param contended   If the lock was held by someone else when asked for
+     * @param nanos       Time waiting for the lock, in nanoseconds
+     */
+    public void recordAcquisition(long numAttempts, boolean contended, long nanos) {
+        acquisitions.increment();
+        if (contended) {
+            contendedAcquisitions.increment();
+        }
+        attempts.add(numAttempts);
+        waitNanos.add(nanos);
+        maxWaitNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * Record a lock request that could not get the lock before the timeout.
+     *
+     * @param numAttempts Number of attempts to take the lock from the database
+     * @param nanos       Time waiting for the lock, in nanoseconds
+     */
+    public void recordTimeout(long numAttempts, long nanos) {
+        timeouts.increment();
+        attempts.add(numAttempts);
+        waitNanos.add(nanos);
+        maxWaitNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    public void recordRenewal() {
+        renewals.increment();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getAcquisitions() {
+        return acquisitions.sum();
+    }
+
+    public long getContendedAcquisitions() {
+        return contendedAcquisitions.sum();
+    }
+
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    public long getAttempts() {
+        return attempts.sum();
+    }
+
+    public long getRenewals() {
+        return renewals.sum();
+    }
+
+    public long getWaitTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(waitNanos.sum());
+    }
+
+    public double getMaxWaitTimeMillis() {
+        return maxWaitNanos.get() / 1e6;
+    }
+
+    public ObjectMap toObjectMap() {
+        return new ObjectMap()
+                .append("acquisitions", getAcquisitions())
+                .append("contendedAcquisitions", getContendedAcquisitions())
+                .append("timeouts", getTimeouts())
+                .append("attempts", getAttempts())
+                .append("renewals", getRenewals())
+                .append("waitTimeMillis", getWaitTimeMillis())
+                .append("maxWaitTimeMillis", getMaxWaitTimeMillis());
+    }
+
+    @Override
+    public String toString() {
+        return name + ' ' + toObjectMap();
+    }
+}
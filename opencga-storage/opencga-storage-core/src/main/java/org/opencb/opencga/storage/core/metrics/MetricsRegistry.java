@@ -0,0 +1,41 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.metrics;
+
+/**
+ * Destination of the metrics of the running pipelines.
+ *
+ * Implementations must have a public constructor without arguments, as they are created by class name from the
+ * option {@link org.opencb.opencga.storage.core.variant.VariantStorageEngine.Options#METRICS_REGISTRY}.
+ */
+public interface MetricsRegistry {
+
+    /**
+     * Register the metrics of a pipeline. Called before the pipeline starts.
+     *
+     * @param metrics Pipeline metrics
+     */
+    void register(PipelineMetrics metrics);
+
+    /**
+     * Unregister the metrics of a pipeline. Called once the pipeline is finished.
+     *
+     * @param metrics Pipeline metrics
+     */
+    void unregister(PipelineMetrics metrics);
+
+}
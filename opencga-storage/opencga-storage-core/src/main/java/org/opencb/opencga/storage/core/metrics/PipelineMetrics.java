@@ -0,0 +1,341 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.metrics;
+
+import org.opencb.commons.datastore.core.ObjectMap;
+import org.opencb.commons.io.DataReader;
+import org.opencb.commons.io.DataWriter;
+import org.opencb.commons.run.Task;
+import org.opencb.opencga.storage.core.variant.VariantStorageEngine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Metrics of a pipeline executed with a {@link org.opencb.commons.run.ParallelTaskRunner}.
+ *
+ * The reader, tasks and writer given to the ParallelTaskRunner are wrapped to measure each stage. The time a stage
+ * spends between two batches is accounted as blocked time. For the reader, this is the time waiting for space in the
+ * queue. For the tasks and the writer, this is mostly the time waiting for input. The number of batches in the queues
+ * is derived from the difference of batches processed by consecutive stages.
+ *
+ * <pre>
+ *     PipelineMetrics metrics = PipelineMetrics.create("load", options);
+ *     ParallelTaskRunner ptr = new ParallelTaskRunner(metrics.wrapReader(reader), metrics.wrapTask(task),
+ *             metrics.wrapWriter(writer), config);
+ *     try {
+ *         ptr.run();
+ *     } finally {
+ *         metrics.close();
+ *     }
+ * </pre>
+ */
+public class PipelineMetrics implements PipelineMetricsMBean, AutoCloseable {
+
+    public static final String READ = "read";
+    public static final String TASK = "task";
+    public static final String WRITE = "write";
+
+    private static final AtomicInteger SEQUENCE = new AtomicInteger();
+
+    private final String name;
+    private final MetricsRegistry registry;
+    private final StageMetrics read = new StageMetrics(READ);
+    private final StageMetrics task = new StageMetrics(TASK);
+    private final StageMetrics write = new StageMetrics(WRITE);
+    private final LongAdder taskBatchesStarted = new LongAdder();
+    private final Set<Long> taskThreads = ConcurrentHashMap.newKeySet();
+    private final long startNanos;
+    private volatile long endNanos;
+    private volatile boolean hasWriter;
+
+    private final Logger logger = LoggerFactory.getLogger(PipelineMetrics.class);
+
+    public PipelineMetrics(String name, MetricsRegistry registry) {
+        this.name = name;
+        this.registry = registry;
+        this.startNanos = System.nanoTime();
+        if (registry != null) {
+            registry.register(this);
+        }
+    }
+
+    /**
+     * Create a new PipelineMetrics, registered in the registry defined in the options.
+     *
+     * @param name    Pipeline name. A sequence number is added to make it unique.
+     * @param options Options with {@link VariantStorageEngine.Options#METRICS_REGISTRY}
+     * @return New PipelineMetrics
+     */
+    public static PipelineMetrics create(String name, ObjectMap options) {
+        return new PipelineMetrics(name + '-' + SEQUENCE.incrementAndGet(), buildRegistry(options));
+    }
+
+    private static MetricsRegistry buildRegistry(ObjectMap options) {
+        String registry = options == null
+                ? VariantStorageEngine.Options.METRICS_REGISTRY.defaultValue()
+                : options.getString(VariantStorageEngine.Options.METRICS_REGISTRY.key(),
+                VariantStorageEngine.Options.METRICS_REGISTRY.defaultValue());
+        if (registry == null || registry.isEmpty() || registry.equalsIgnoreCase("none")) {
+            return null;
+        } else if (registry.equalsIgnoreCase("jmx")) {
+            return new JmxMetricsRegistry();
+        } else {
+            try {
+                return (MetricsRegistry) Class.forName(registry).newInstance();
+            } catch (ReflectiveOperationException | ClassCastException e) {
+                throw new IllegalArgumentException("Unable to create MetricsRegistry " + registry, e);
+            }
+        }
+    }
+
+    public <T> DataReader<T> wrapReader(DataReader<T> reader) {
+        return new MeteredDataReader<>(reader);
+    }
+
+    public <T, R> Task<T, R> wrapTask(Task<T, R> task) {
+        return new MeteredTask<>(task);
+    }
+
+    public <T, R> Supplier<Task<T, R>> wrapTaskSupplier(Supplier<? extends Task<T, R>> taskSupplier) {
+        return () -> new MeteredTask<>(taskSupplier.get());
+    }
+
+    public <T> DataWriter<T> wrapWriter(DataWriter<T> writer) {
+        if (writer == null) {
+            return null;
+        }
+        hasWriter = true;
+        return new MeteredDataWriter<>(writer);
+    }
+
+    /**
+     * Stop the clock and unregister the metrics.
+     */
+    @Override
+    public void close() {
+        if (endNanos == 0) {
+            endNanos = System.nanoTime();
+            if (registry != null) {
+                registry.unregister(this);
+            }
+            logger.info("Pipeline {} metrics : {}", name, toObjectMap());
+        }
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    public List<StageMetrics> getStages() {
+        return Arrays.asList(read, task, write);
+    }
+
+    public StageMetrics getRead() {
+        return read;
+    }
+
+    public StageMetrics getTask() {
+        return task;
+    }
+
+    public StageMetrics getWrite() {
+        return write;
+    }
+
+    @Override
+    public long getRunningTimeMillis() {
+        long end = endNanos == 0 ? System.nanoTime() : endNanos;
+        return TimeUnit.NANOSECONDS.toMillis(end - startNanos);
+    }
+
+    @Override
+    public long getReadQueueSize() {
+        return Math.max(0, read.getBatches() - taskBatchesStarted.sum());
+    }
+
+    @Override
+    public long getWriteQueueSize() {
+        return hasWriter ? Math.max(0, task.getBatches() - write.getBatches()) : 0;
+    }
+
+    /**
+     * Stage with the highest utilization, measured as the busy time per thread over the running time.
+     *
+     * @return Name of the stage limiting the pipeline throughput
+     */
+    @Override
+    public String getBottleneck() {
+        double readUtilization = read.getBusyTimeMillis();
+        double taskUtilization = task.getBusyTimeMillis() / (double) Math.max(1, taskThreads.size());
+        double writeUtilization = write.getBusyTimeMillis();
+        if (readUtilization >= taskUtilization && readUtilization >= writeUtilization) {
+            return READ;
+        } else if (taskUtilization >= writeUtilization) {
+            return TASK;
+        } else {
+            return WRITE;
+        }
+    }
+
+    public ObjectMap toObjectMap() {
+        ObjectMap map = new ObjectMap()
+                .append("runningTimeMillis", getRunningTimeMillis())
+                .append("bottleneck", getBottleneck())
+                .append("taskThreads", taskThreads.size())
+                .append("readQueueSize", getReadQueueSize())
+                .append("writeQueueSize", getWriteQueueSize())
+                .append(READ, read.toObjectMap())
+                .append(TASK, task.toObjectMap());
+        if (hasWriter) {
+            map.append(WRITE, write.toObjectMap());
+        }
+        return map;
+    }
+
+    private final class MeteredDataReader<T> implements DataReader<T> {
+        private final DataReader<T> reader;
+        private long lastEnd;
+
+        private MeteredDataReader(DataReader<T> reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public boolean open() {
+            return reader.open();
+        }
+
+        @Override
+        public boolean pre() {
+            return reader.pre();
+        }
+
+        @Override
+        public List<T> read(int batchSize) {
+            long start = System.nanoTime();
+            if (lastEnd != 0) {
+                read.recordBlocked(start - lastEnd);
+            }
+            List<T> batch = reader.read(batchSize);
+            lastEnd = System.nanoTime();
+            read.recordBatch(batch == null ? 0 : batch.size(), start, lastEnd);
+            return batch;
+        }
+
+        @Override
+        public boolean post() {
+            return reader.post();
+        }
+
+        @Override
+        public boolean close() {
+            return reader.close();
+        }
+    }
+
+    private final class MeteredTask<T, R> implements Task<T, R> {
+        private final Task<T, R> delegate;
+        // A single task instance may be shared by all the task threads
+        private final ThreadLocal<long[]> lastEnd = ThreadLocal.withInitial(() -> new long[1]);
+
+        private MeteredTask(Task<T, R> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void pre() throws Exception {
+            delegate.pre();
+        }
+
+        @Override
+        public List<R> apply(List<T> batch) throws Exception {
+            long start = System.nanoTime();
+            long[] last = lastEnd.get();
+            if (last[0] == 0) {
+                taskThreads.add(Thread.currentThread().getId());
+            } else {
+                task.recordBlocked(start - last[0]);
+            }
+            taskBatchesStarted.increment();
+            List<R> result = delegate.apply(batch);
+            last[0] = System.nanoTime();
+            task.recordBatch(batch.size(), start, last[0]);
+            return result;
+        }
+
+        @Override
+        public List<R> drain() throws Exception {
+            return delegate.drain();
+        }
+
+        @Override
+        public void post() throws Exception {
+            delegate.post();
+        }
+    }
+
+    private final class MeteredDataWriter<T> implements DataWriter<T> {
+        private final DataWriter<T> writer;
+        private long lastEnd;
+
+        private MeteredDataWriter(DataWriter<T> writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public boolean open() {
+            return writer.open();
+        }
+
+        @Override
+        public boolean pre() {
+            return writer.pre();
+        }
+
+        @Override
+        public boolean write(List<T> batch) {
+            long start = System.nanoTime();
+            if (lastEnd != 0) {
+                write.recordBlocked(start - lastEnd);
+            }
+            boolean result = writer.write(batch);
+            lastEnd = System.nanoTime();
+            write.recordBatch(batch.size(), start, lastEnd);
+            return result;
+        }
+
+        @Override
+        public boolean post() {
+            return writer.post();
+        }
+
+        @Override
+        public boolean close() {
+            return writer.close();
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.metrics;
+
+import org.opencb.commons.datastore.core.ObjectMap;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of one stage (read, task or write) of a pipeline.
+ *
+ * Records the number of batches and elements processed, the time spent processing batches (busy) and the time spent
+ * between batches (blocked, waiting for input or for space in the output queue). Batch latencies are kept in a
+ * histogram with power of two buckets in microseconds.
+ *
+ * All the methods are thread safe.
+ */
+public class StageMetrics implements StageMetricsMBean {
+
+    private static final int BUCKETS = 40;
+
+    private final String name;
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder elements = new LongAdder();
+    private final LongAdder busyNanos = new LongAdder();
+    private final LongAdder blockedNanos = new LongAdder();
+    private final AtomicLongArray latencyHistogram = new AtomicLongArray(BUCKETS);
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+    private final AtomicLong firstStartNanos = new AtomicLong();
+    private final AtomicLong lastEndNanos = new AtomicLong();
+
+    public StageMetrics(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Record a processed batch.
+     *
+     * @param numElements Number of elements in the batch
+     * @param startNanos  Start time, from {@link System#nanoTime()}
+     * @param endNanos    End time, from {@link System#nanoTime()}
+     */
+    public void recordBatch(int numElements, long startNanos, long endNanos) {
+        long latency = endNanos - startNanos;
+        firstStartNanos.compareAndSet(0, startNanos);
+        lastEndNanos.accumulateAndGet(endNanos, Math::max);
+        maxLatencyNanos.accumulateAndGet(latency, Math::max);
+        batches.increment();
+        elements.add(numElements);
+        busyNanos.add(latency);
+        latencyHistogram.incrementAndGet(bucket(latency));
+    }
+
+    /**
+     * Record time spent by a thread of this stage outside of the batch processing.
+     *
+     * @param nanos Blocked time in nanoseconds
+     */
+    public void recordBlocked(long nanos) {
+        if (nanos > 0) {
+            blockedNanos.add(nanos);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    @Override
+    public long getElements() {
+        return elements.sum();
+    }
+
+    @Override
+    public long getBusyTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(busyNanos.sum());
+    }
+
+    @Override
+    public long getBlockedTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(blockedNanos.sum());
+    }
+
+    @Override
+    public double getElementsPerSecond() {
+        long first = firstStartNanos.get();
+        long wallNanos = lastEndNanos.get() - first;
+        if (first == 0 || wallNanos <= 0) {
+            return 0;
+        }
+        return getElements() / (wallNanos / 1e9);
+    }
+
+    @Override
+    public double getLatencyP50Millis() {
+        return getLatencyPercentileMillis(0.5);
+    }
+
+    @Override
+    public double getLatencyP99Millis() {
+        return getLatencyPercentileMillis(0.99);
+    }
+
+    @Override
+    public double getLatencyMaxMillis() {
+        return maxLatencyNanos.get() / 1e6;
+    }
+
+    /**
+     * Approximate batch latency percentile. Returns the upper bound of the histogram bucket containing the percentile.
+     *
+     * @param percentile Percentile, between 0 and 1
+     * @return Latency in milliseconds
+     */
+    public double getLatencyPercentileMillis(double percentile) {
+        long total = 0;
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = latencyHistogram.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(total * percentile);
+        long accumulated = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            accumulated += counts[i];
+            if (accumulated >= target) {
+                return Math.min((1L << (i + 1)) / 1e3, getLatencyMaxMillis());
+            }
+        }
+        return getLatencyMaxMillis();
+    }
+
+    public ObjectMap toObjectMap() {
+        return new ObjectMap()
+                .append("batches", getBatches())
+                .append("elements", getElements())
+                .append("elementsPerSecond", getElementsPerSecond())
+                .append("busyTimeMillis", getBusyTimeMillis())
+                .append("blockedTimeMillis", getBlockedTimeMillis())
+                .append("latencyP50Millis", getLatencyP50Millis())
+                .append("latencyP99Millis", getLatencyP99Millis())
+                .append("latencyMaxMillis", getLatencyMaxMillis());
+    }
+
+    private static int bucket(long nanos) {
+        long micros = nanos / 1000;
+        int bucket = micros <= 1 ? 0 : 63 - Long.numberOfLeadingZeros(micros);
+        return Math.min(bucket, BUCKETS - 1);
+    }
+
+    @Override
+    public String toString() {
+        return name + ' ' + toObjectMap();
+    }
+}
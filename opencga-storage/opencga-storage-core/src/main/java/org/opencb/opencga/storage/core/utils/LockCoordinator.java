@@ -0,0 +1,213 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.utils;
+
+import org.opencb.opencga.storage.core.metrics.LockMetrics;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Coordinates the threads of this JVM waiting for a distributed lock, like the MongoDB or HBase locks.
+ *
+ * Threads asking for the same lock are queued in arrival order, and only the first thread of the queue tries to take
+ * the lock from the database. While the lock is held by a local thread, the rest of threads wait without polling the
+ * database, and are notified as soon as the lock is released. If the lock is held by another process, the database
+ * is polled with an exponential backoff with jitter, so concurrent processes do not retry at the same time.
+ *
+ * The backend is given as a {@link LockAttempt}, which tries to take the lock once and returns a fencing token.
+ * Fencing tokens must increase with every acquisition of the same lock, so a holder that lost its lease can be
+ * detected by comparing tokens.
+ *
+ * The state of each lock key is kept forever, so keys should be few, like one per study.
+ */
+public class LockCoordinator {
+
+    public static final long DEFAULT_MIN_BACKOFF = 10;
+    public static final long DEFAULT_MAX_BACKOFF = 1000;
+    // Extra time given to an expired local holder to renew its lease before other local threads try to take the lock
+    private static final long EXPIRED_LEASE_GRACE = 100;
+
+    private final Map<String, LocalLock> locks = new ConcurrentHashMap<>();
+    private final LockMetrics metrics;
+    private final long minBackoff;
+    private final long maxBackoff;
+
+    /**
+     * Single attempt to take a lock from the database.
+     */
+    @FunctionalInterface
+    public interface LockAttempt {
+        /**
+         * Try to take the lock, without waiting.
+         *
+         * @return Fencing token of the lock, or null if the lock is held by someone else
+         * @throws IOException if there is an error accessing the database
+         */
+        Long tryLock() throws IOException;
+    }
+
+    public LockCoordinator(String name) {
+        this(name, DEFAULT_MIN_BACKOFF, DEFAULT_MAX_BACKOFF);
+    }
+
+    public LockCoordinator(String name, long minBackoff, long maxBackoff) {
+        this.metrics = new LockMetrics(name);
+        this.minBackoff = Math.max(1, minBackoff);
+        this.maxBackoff = Math.max(this.minBackoff, maxBackoff);
+    }
+
+    /**
+     * Wait for the lock.
+     *
+     * @param key           Lock key. Threads with the same key are queued in this JVM
+     * @param lockDuration  Duration in milliseconds of the lock lease
+     * @param timeout       Max time in milliseconds to wait for the lock
+     * @param attempt       Single attempt to take the lock from the database
+     *
+     * @return              Fencing token
+     *
+     * @throws InterruptedException if any thread has interrupted the current thread.
+     * @throws TimeoutException if the operations takes more than the timeout value.
+     * @throws IOException      if there is an error accessing the database.
+     */
+    public long lock(String key, long lockDuration, long timeout, LockAttempt attempt)
+            throws InterruptedException, TimeoutException, IOException {
+        long startNanos = System.nanoTime();
+        long deadline = System.currentTimeMillis() + timeout;
+        LocalLock localLock = locks.computeIfAbsent(key, k -> new LocalLock());
+        Object ticket = new Object();
+        synchronized (localLock) {
+            localLock.queue.add(ticket);
+        }
+
+        Long token = null;
+        long numAttempts = 0;
+        boolean contended = false;
+        try {
+            long backoff = minBackoff;
+            while (true) {
+                synchronized (localLock) {
+                    // Wait for the turn of this thread, and for any local holder to release the lock
+                    long now = System.currentTimeMillis();
+                    while (localLock.queue.peek() != ticket || localLock.isHeld(now)) {
+                        contended = true;
+                        long wait = deadline - now;
+                        if (localLock.queue.peek() == ticket) {
+                            wait = Math.min(wait, localLock.expiration + EXPIRED_LEASE_GRACE - now);
+                        }
+                        if (deadline - now <= 0) {
+                            throw new TimeoutException("Unable to get the lock");
+                        }
+                        localLock.wait(Math.max(1, wait));
+                        now = System.currentTimeMillis();
+                    }
+                }
+
+                numAttempts++;
+                token = attempt.tryLock();
+                if (token != null) {
+                    break;
+                }
+
+                // Lock held by another process
+                contended = true;
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new TimeoutException("Unable to get the lock");
+                }
+                long sleep = Math.min(remaining, backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1));
+                synchronized (localLock) {
+                    localLock.wait(Math.max(1, sleep));
+                }
+                backoff = Math.min(backoff * 2, maxBackoff);
+            }
+        } catch (TimeoutException e) {
+            metrics.recordTimeout(numAttempts, System.nanoTime() - startNanos);
+            throw e;
+        } finally {
+            synchronized (localLock) {
+                localLock.queue.remove(ticket);
+                if (token != null) {
+                    localLock.token = token;
+                    localLock.expiration = System.currentTimeMillis() + lockDuration;
+                }
+                localLock.notifyAll();
+            }
+        }
+        metrics.recordAcquisition(numAttempts, contended, System.nanoTime() - startNanos);
+        return token;
+    }
+
+    /**
+     * Notify that the lock has been extended.
+     *
+     * @param key           Lock key
+     * @param token         Fencing token of the holder
+     * @param lockDuration  New duration in milliseconds of the lock lease, from now
+     */
+    public void renewed(String key, long token, long lockDuration) {
+        LocalLock localLock = locks.get(key);
+        if (localLock != null) {
+            synchronized (localLock) {
+                if (localLock.token != null && localLock.token == token) {
+                    localLock.expiration = System.currentTimeMillis() + lockDuration;
+                }
+            }
+        }
+        metrics.recordRenewal();
+    }
+
+    /**
+     * Notify that the lock has been released, waking up the local threads waiting for it.
+     *
+     * @param key   Lock key
+     * @param token Fencing token of the holder
+     */
+    public void unlocked(String key, long token) {
+        LocalLock localLock = locks.get(key);
+        if (localLock != null) {
+            synchronized (localLock) {
+                if (localLock.token != null && localLock.token == token) {
+                    localLock.token = null;
+                    localLock.expiration = 0;
+                }
+                localLock.notifyAll();
+            }
+        }
+    }
+
+    public LockMetrics getMetrics() {
+        return metrics;
+    }
+
+    private static final class LocalLock {
+        private final Queue<Object> queue = new ArrayDeque<>();
+        // Token and lease expiration of the local holder, if any
+        private Long token;
+        private long expiration;
+
+        private boolean isHeld(long now) {
+            return token != null && now < expiration + EXPIRED_LEASE_GRACE;
+        }
+    }
+}
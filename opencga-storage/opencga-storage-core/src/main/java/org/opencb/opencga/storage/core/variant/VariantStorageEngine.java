@@ -18,6 +18,7 @@ package org.opencb.opencga.storage.core.variant;
 
 import com.google.common.base.Throwables;
 import com.google.common.collect.Iterators;
+import htsjdk.variant.vcf.VCFConstants;
 import org.apache.commons.lang3.EnumUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.time.StopWatch;
@@ -42,6 +43,7 @@ import org.opencb.opencga.core.common.TimeUtils;
 import org.opencb.opencga.core.results.VariantQueryResult;
 import org.opencb.opencga.storage.core.StorageEngine;
 import org.opencb.opencga.storage.core.StoragePipelineResult;
+import org.opencb.opencga.storage.core.cache.VariantQueryCache;
 import org.opencb.opencga.storage.core.config.StorageConfiguration;
 import org.opencb.opencga.storage.core.exceptions.StorageEngineException;
 import org.opencb.opencga.storage.core.exceptions.StoragePipelineException;
@@ -56,10 +58,15 @@ import org.opencb.opencga.storage.core.variant.annotation.VariantAnnotationManag
 import org.opencb.opencga.storage.core.variant.annotation.VariantAnnotatorException;
 import org.opencb.opencga.storage.core.variant.annotation.annotators.VariantAnnotator;
 import org.opencb.opencga.storage.core.variant.annotation.annotators.VariantAnnotatorFactory;
+import org.opencb.opencga.storage.core.variant.facet.VariantFacetEngine;
 import org.opencb.opencga.storage.core.variant.io.VariantExporter;
 import org.opencb.opencga.storage.core.variant.io.VariantImporter;
 import org.opencb.opencga.storage.core.variant.io.VariantReaderUtils;
 import org.opencb.opencga.storage.core.variant.io.VariantWriterFactory.VariantOutputFormat;
+import org.opencb.opencga.storage.core.variant.phasing.PhaseSetIndex;
+import org.opencb.opencga.storage.core.variant.phasing.PhaseSetIndexTask;
+import org.opencb.opencga.storage.core.variant.query.VariantQuery;
+import org.opencb.opencga.storage.core.variant.search.StratifiedCountEstimator;
 import org.opencb.opencga.storage.core.variant.search.VariantSearchModel;
 import org.opencb.opencga.storage.core.variant.search.solr.VariantSearchManager;
 import org.opencb.opencga.storage.core.variant.search.solr.VariantSearchManager.UseSearchIndex;
@@ -92,6 +99,7 @@ public abstract class VariantStorageEngine extends StorageEngine<VariantDBAdapto
 
     public static final String REMOVE_OPERATION_NAME = BatchFileOperation.Type.REMOVE.name().toLowerCase();
     private final AtomicReference<VariantSearchManager> variantSearchManager = new AtomicReference<>();
+    private final AtomicReference<VariantQueryCache> queryCache = new AtomicReference<>();
     private Logger logger = LoggerFactory.getLogger(VariantStorageEngine.class);
     private CellBaseUtils cellBaseUtils;
 
@@ -116,6 +124,7 @@ public abstract class VariantStorageEngine extends StorageEngine<VariantDBAdapto
 //        INCLUDE_SRC("include.src", false),                  //Include original source file on the transformed file and the final db
 //        COMPRESS_GENOTYPES ("compressGenotypes", true),    //Stores sample information as compressed genotypes
         EXCLUDE_GENOTYPES("exclude.genotypes", false),              //Do not store genotypes from samples
+        PHASE_SET_INDEX("phaseSetIndex", false),                    //Index the phase set (PS) of each sample. Fixed by the first file
 
         STUDY_TYPE("studyType", SampleSetType.CASE_CONTROL),
         AGGREGATED_TYPE("aggregatedType", Aggregation.NONE),
@@ -133,9 +142,13 @@ public abstract class VariantStorageEngine extends StorageEngine<VariantDBAdapto
         TRANSFORM_BATCH_SIZE("transform.batch.size", 200),
         TRANSFORM_THREADS("transform.threads", 4),
         TRANSFORM_FORMAT("transform.format", "avro"),
+        TRANSFORM_NORMALIZER("transform.normalizer", "default"),          // Variant normalizer: "default", "cached" or a class name
+        TRANSFORM_NORMALIZER_CACHE_SIZE("transform.normalizer.cache.size", 10000), // Max alleles cached by the "cached" normalizer
+        TRANSFORM_CHECKPOINT_INTERVAL("transform.checkpoint.interval", 60000),  // Time in ms between transform checkpoints. 0 to disable
         LOAD_BATCH_SIZE("load.batch.size", 100),
         LOAD_THREADS("load.threads", 6),
         LOAD_SPLIT_DATA("load.split-data", false),
+        LOAD_CHECKPOINT_INTERVAL("load.checkpoint.interval", 60000),  // Time in ms between load checkpoints. 0 to disable
 
         POST_LOAD_CHECK_SKIP("postLoad.check.skip", false),
 
@@ -150,6 +163,8 @@ public abstract class VariantStorageEngine extends StorageEngine<VariantDBAdapto
 
         RESUME("resume", false),
 
+        METRICS_REGISTRY("metrics.registry", "jmx"),       // Pipeline metrics registry: "jmx", "none" or a MetricsRegistry class
+
         DEFAULT_TIMEOUT("dbadaptor.default_timeout", 10000), // Default timeout for DBAdaptor operations. Only used if none is provided.
         MAX_TIMEOUT("dbadaptor.max_timeout", 30000),         // Max allowed timeout for DBAdaptor operations
 
@@ -157,8 +172,24 @@ public abstract class VariantStorageEngine extends StorageEngine<VariantDBAdapto
         INTERSECT_ACTIVE("search.intersect.active", true),                       // Allow intersect queries with the SearchEngine (Solr)
         INTERSECT_ALWAYS("search.intersect.always", false),                      // Force intersect queries
         INTERSECT_PARAMS_THRESHOLD("search.intersect.params.threshold", 3),      // Minimum number of QueryParams in the query to intersect
+        INTERSECT_BATCH_SIZE("search.intersect.batchSize", 1000),                // Variant ids to fetch from the engine in each request
+        INTERSECT_PARALLELISM("search.intersect.parallelism", 4),                // Max number of concurrent requests to the engine
+
+        SEARCH_INDEX_INCREMENTAL("search.index.incremental", false),             // Only index the variants modified since the last sync
+
+        // Facet options, without the search engine
+        FACET_PARALLELISM("facet.parallelism", 4),                               // Max number of partitions aggregated in parallel
+        FACET_PARTITION_SIZE("facet.partition.size", 10000000),                  // Max size in bases of each region partition
 
-        APPROXIMATE_COUNT_SAMPLING_SIZE("approximateCountSamplingSize", 1000),
+        // Query cache options
+        QUERY_CACHE_PLAN_TTL("query.cache.plan.ttl", 0),                        // Time in ms to remember the route of a query. 0 to disable
+        QUERY_CACHE_RESULTS_SIZE("query.cache.results.size", 0),                // Max number of cached query results. 0 to disable
+        QUERY_CACHE_RESULTS_MAX_VARIANTS("query.cache.results.maxVariants", 1000), // Do not cache results with more variants
+
+        APPROXIMATE_COUNT_SAMPLING_SIZE("approximateCountSamplingSize", 1000),         // Initial sampling size
+        APPROXIMATE_COUNT_MAX_SAMPLING_SIZE("approximateCountMaxSamplingSize", 20000), // Max sampling size
+        APPROXIMATE_COUNT_RELATIVE_ERROR("approximateCountRelativeError", 0.05),        // Grow the sample until reaching this error
+        APPROXIMATE_COUNT_CONFIDENCE("approximateCountConfidence", 0.95),              // Confidence level of the bounds
         APPROXIMATE_COUNT("approximateCount", false);
 
         private final String key;
@@ -317,8 +348,11 @@ public abstract class VariantStorageEngine extends StorageEngine<VariantDBAdapto
      * @throws IOException                  If there is any IO problem
      */
     public void annotate(Query query, ObjectMap params) throws VariantAnnotatorException, StorageEngineException, IOException {
-        VariantAnnotationManager annotationManager = newVariantAnnotationManager(params);
-        annotationManager.annotate(query, params);
+        try (VariantAnnotationManager annotationManager = newVariantAnnotationManager(params)) {
+            annotationManager.annotate(query, params);
+        }
+        // The annotation is shared by all the studies
+        increaseDataVersion(getStudyConfigurationManager().getStudyIds(new QueryOptions()));
     }
 
     /**
@@ -366,12 +400,42 @@ public abstract class VariantStorageEngine extends StorageEngine<VariantDBAdapto
         }
     }
 
+    /**
+     * Fill the local variant annotation cache of the configured annotator, without modifying the database.
+     *
+     * @param query             Query to select variants to annotate. Ignored if the annotation file is given
+     * @param annotationFile    Optional annotation file to copy into the cache
+     * @param params            Other params
+     * @return                  Number of annotations in the cache
+     * @throws VariantAnnotatorException    If the annotation goes wrong, or the annotator does not have a cache
+     * @throws StorageEngineException       If there is any problem related with the StorageEngine
+     * @throws IOException                  If there is any IO problem
+     */
+    public long warmAnnotationCache(Query query, URI annotationFile, ObjectMap params)
+            throws VariantAnnotatorException, StorageEngineException, IOException {
+        try (VariantAnnotationManager annotationManager = newVariantAnnotationManager(params)) {
+            if (annotationManager instanceof DefaultVariantAnnotationManager) {
+                return ((DefaultVariantAnnotationManager) annotationManager).warmAnnotationCache(query, annotationFile, params);
+            } else {
+                throw new StorageEngineException("Unsupported annotation cache for " + annotationManager.getClass().getSimpleName());
+            }
+        }
+    }
+
     public void saveAnnotation(String name, ObjectMap params) throws StorageEngineException, VariantAnnotatorException {
-        newVariantAnnotationManager(params).saveAnnotation(name, params);
+        try (VariantAnnotationManager annotationManager = newVariantAnnotationManager(params)) {
+            annotationManager.saveAnnotation(name, params);
+        } catch (IOException e) {
+            throw new StorageEngineException("Error closing the variant annotation manager", e);
+        }
     }
 
     public void deleteAnnotation(String name, ObjectMap params) throws StorageEngineException, VariantAnnotatorException {
-        newVariantAnnotationManager(params).deleteAnnotation(name, params);
+        try (VariantAnnotationManager annotationManager = newVariantAnnotationManager(params)) {
+            annotationManager.deleteAnnotation(name, params);
+        } catch (IOException e) {
+            throw new StorageEngineException("Error closing the variant annotation manager", e);
+        }
     }
 
     public QueryResult<VariantAnnotation> getAnnotation(String name, Query query, QueryOptions options) throws StorageEngineException {
@@ -449,6 +513,7 @@ public abstract class VariantStorageEngine extends StorageEngine<VariantDBAdapto
     public void calculateStats(String study, List<String> cohorts, QueryOptions options) throws StorageEngineException, IOException {
         VariantStatisticsManager statisticsManager = newVariantStatisticsManager();
         statisticsManager.calculateStatistics(study, cohorts, options);
+        increaseDataVersion(Collections.singletonList(study));
     }
 
     public void calculateStats(String study, Map<String, ? extends Collection<String>> cohorts, QueryOptions options)
@@ -462,6 +527,7 @@ public abstract class VariantStorageEngine extends StorageEngine<VariantDBAdapto
         });
 
         statisticsManager.calculateStatistics(study, new ArrayList<>(cohorts.keySet()), options);
+        increaseDataVersion(Collections.singletonList(study));
     }
 
     /**
@@ -541,10 +607,34 @@ public abstract class VariantStorageEngine extends StorageEngine<VariantDBAdapto
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * Store the genotypes of a study in a compact binary format. Only supported by some storage engines.
+     *
+     * @param study     Study
+     * @return Number of migrated variants
+     * @throws StorageEngineException if there is any error
+     */
+    public long migrateGenotypesToBinary(String study) throws StorageEngineException {
+        throw new UnsupportedOperationException();
+    }
+
     public void searchIndex() throws StorageEngineException, IOException, VariantSearchException {
         searchIndex(new Query(), new QueryOptions());
     }
 
+    /**
+     * Index the variants in the search engine.
+     *
+     * With {@link Options#SEARCH_INDEX_INCREMENTAL}, only the variants modified since the last synchronisation of the whole database
+     * are indexed, and the removed variants are deleted from the search index. Storage engines not tracking the changes
+     * index all the variants.
+     *
+     * @param query         Variants to index
+     * @param queryOptions  Other options
+     * @throws StorageEngineException if there is any error
+     * @throws IOException            if there is any error
+     * @throws VariantSearchException if there is any error
+     */
     public void searchIndex(Query query, QueryOptions queryOptions) throws StorageEngineException, IOException, VariantSearchException {
         VariantDBAdaptor dbAdaptor = getDBAdaptor();
 
@@ -552,12 +642,53 @@ public abstract class VariantStorageEngine extends StorageEngine<VariantDBAdapto
         // first, create the collection it it does not exist
         variantSearchManager.create(dbName);
         if (configuration.getSearch().getActive() && variantSearchManager.isAlive(dbName)) {
-            // then, load variants
             queryOptions = queryOptions == null ? new QueryOptions() : new QueryOptions(queryOptions);
+            Query indexQuery = query == null ? new Query() : new Query(query);
+
+            // Only a synchronisation of the whole database can move the watermark
+            boolean wholeDatabase = indexQuery.isEmpty();
+            long syncStart = System.currentTimeMillis();
+            ProjectMetadata projectMetadata = getStudyConfigurationManager().getProjectMetadata().first();
+            long lastTimestamp = projectMetadata == null ? 0 : projectMetadata.getSearchIndexLastTimestamp();
+            boolean incremental = queryOptions.getBoolean(SEARCH_INDEX_INCREMENTAL.key(), SEARCH_INDEX_INCREMENTAL.defaultValue())
+                    && lastTimestamp > 0;
+            if (dbAdaptor.supportsChangeTracking()) {
+                // Delete before loading, as removed variants might have been loaded again.
+                // Done in every synchronisation, so the removed variants can be pruned once the watermark moves
+                try (VariantDBIterator removedVariants = dbAdaptor.removedVariantsIterator(lastTimestamp)) {
+                    int deleted = variantSearchManager.delete(dbName, Iterators.transform(removedVariants, Variant::toString));
+                    logger.info("Deleted {} removed variants from the search index", deleted);
+                } catch (IOException | VariantSearchException | RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new StorageEngineException("Error closing the removed variants iterator", e);
+                }
+                if (incremental) {
+                    indexQuery.put(VariantQueryUtils.MODIFIED_AFTER.key(), lastTimestamp);
+                }
+            } else if (incremental) {
+                logger.info("Changes are not tracked by the storage engine '{}'. Index all the variants", getStorageEngineId());
+            }
+
+            // then, load variants
             queryOptions.put(QueryOptions.EXCLUDE, Arrays.asList(VariantField.STUDIES_SAMPLES_DATA, VariantField.STUDIES_FILES));
-            VariantDBIterator iterator = dbAdaptor.iterator(query, queryOptions);
-            ProgressLogger progressLogger = new ProgressLogger("Variants loaded in Solr:", () -> dbAdaptor.count(query).first(), 200);
+            VariantDBIterator iterator = dbAdaptor.iterator(indexQuery, queryOptions);
+            ProgressLogger progressLogger = new ProgressLogger("Variants loaded in Solr:", () -> dbAdaptor.count(indexQuery).first(), 200);
             variantSearchManager.load(dbName, iterator, progressLogger);
+
+            // The result keys do not depend on the search index, and the routes might change
+            if (queryCache.get() != null) {
+                queryCache.get().clear();
+            }
+
+            if (wholeDatabase && projectMetadata != null) {
+                getStudyConfigurationManager().lockAndUpdateProject(pm -> pm.setSearchIndexLastTimestamp(syncStart));
+                if (dbAdaptor.supportsChangeTracking()) {
+                    // Variants removed before the new watermark are already deleted from the search index
+                    long pruned = dbAdaptor.pruneRemovedVariants(syncStart);
+                    logger.info("Pruned {} removed variants", pruned);
+                }
+            }
         } else {
             throw new StorageEngineException("Solr is not alive!");
         }
@@ -640,10 +771,19 @@ public abstract class VariantStorageEngine extends StorageEngine<VariantDBAdapto
 
                 StudyConfigurationManager.setStatus(studyConfiguration, BatchFileOperation.Status.READY, REMOVE_OPERATION_NAME, fileIds);
                 studyConfiguration.getIndexedFiles().removeAll(fileIds);
+                studyConfiguration.setDataVersion(studyConfiguration.getDataVersion() + 1);
                 Set<Integer> removedSamples = new HashSet<>();
                 for (Integer fileId : fileIds) {
                     removedSamples.addAll(studyConfiguration.getSamplesInFiles().get(fileId));
                 }
+                PhaseSetIndex phaseSetIndex = getDBAdaptor().getPhaseSetIndex();
+                if (phaseSetIndex != null) {
+                    try {
+                        phaseSetIndex.remove(studyConfiguration.getStudyId(), removedSamples);
+                    } catch (IOException e) {
+                        throw new StorageEngineException("Error removing samples from the phase set index", e);
+                    }
+                }
                 List<Integer> invalidCohorts = new ArrayList<>();
                 for (Integer cohortId : studyConfiguration.getCalculatedStats()) {
                     Set<Integer> cohort = studyConfiguration.getCohorts().get(cohortId);
@@ -734,10 +874,159 @@ public abstract class VariantStorageEngine extends StorageEngine<VariantDBAdapto
         return variantSearchManager.get();
     }
 
+    public VariantQueryCache getVariantQueryCache() {
+        if (queryCache.get() == null) {
+            synchronized (queryCache) {
+                if (queryCache.get() == null) {
+                    ObjectMap options = getOptions();
+                    queryCache.set(new VariantQueryCache(
+                            options.getLong(QUERY_CACHE_PLAN_TTL.key(), QUERY_CACHE_PLAN_TTL.defaultValue()),
+                            options.getInt(QUERY_CACHE_RESULTS_SIZE.key(), QUERY_CACHE_RESULTS_SIZE.defaultValue()),
+                            options.getInt(QUERY_CACHE_RESULTS_MAX_VARIANTS.key(), QUERY_CACHE_RESULTS_MAX_VARIANTS.defaultValue())));
+                }
+            }
+        }
+        return queryCache.get();
+    }
+
+    /**
+     * Increase the data version of the given studies, invalidating the cached query results.
+     *
+     * @param studies   Studies modified
+     * @throws StorageEngineException StorageEngineException
+     */
+    protected void increaseDataVersion(Collection<?> studies) throws StorageEngineException {
+        StudyConfigurationManager scm = getStudyConfigurationManager();
+        for (Object study : studies) {
+            scm.lockAndUpdate(scm.getStudyId(study, null), studyConfiguration -> {
+                studyConfiguration.setDataVersion(studyConfiguration.getDataVersion() + 1);
+                return studyConfiguration;
+            });
+        }
+    }
+
     public VariantQueryResult<Variant> getPhased(String variant, String studyName, String sampleName, QueryOptions options, int windowsSize)
             throws StorageEngineException {
         setDefaultTimeout(options);
-        return getDBAdaptor().getPhased(variant, studyName, sampleName, options, windowsSize);
+        VariantDBAdaptor dbAdaptor = getDBAdaptor();
+        PhaseSetIndex phaseSetIndex = dbAdaptor.getPhaseSetIndex();
+        if (phaseSetIndex != null) {
+            StudyConfiguration studyConfiguration = getStudyConfigurationManager().getStudyConfiguration(studyName, null).first();
+            if (studyConfiguration != null
+                    && studyConfiguration.getAttributes().getBoolean(PHASE_SET_INDEX.key(), PHASE_SET_INDEX.defaultValue())) {
+                return getPhased(dbAdaptor, phaseSetIndex, studyConfiguration, new Variant(variant), sampleName, options, windowsSize);
+            }
+        }
+        return dbAdaptor.getPhased(variant, studyName, sampleName, options, windowsSize);
+    }
+
+    /**
+     * Resolve the phased variants with the phase set index. Reads the phase set of the given variant,
+     * gets the variants of the phase set from the index and fetches them with a multi-get.
+     */
+    private VariantQueryResult<Variant> getPhased(VariantDBAdaptor dbAdaptor, PhaseSetIndex phaseSetIndex,
+                                                  StudyConfiguration studyConfiguration, Variant variant, String sampleName,
+                                                  QueryOptions options, int windowsSize) {
+        StopWatch watch = StopWatch.createStarted();
+        String studyName = studyConfiguration.getStudyName();
+        Integer sampleId = studyConfiguration.getSampleIds().get(sampleName);
+        if (sampleId == null) {
+            throw VariantQueryException.sampleNotFound(sampleName, studyName);
+        }
+
+        Query query = new Query(VariantQueryParam.ID.key(), variant.toString())
+                .append(VariantQueryParam.STUDY.key(), studyName)
+                .append(VariantQueryParam.INCLUDE_STUDY.key(), studyName)
+                .append(VariantQueryParam.INCLUDE_SAMPLE.key(), sampleName);
+        Variant storedVariant = dbAdaptor.get(query, new QueryOptions()).first();
+        String phaseSet = null;
+        if (storedVariant != null && !storedVariant.getStudies().isEmpty()) {
+            phaseSet = storedVariant.getStudies().get(0).getSampleData(sampleName, VCFConstants.PHASE_SET_KEY);
+        }
+
+        List<String> variants = new ArrayList<>();
+        if (PhaseSetIndexTask.isValidPhaseSet(phaseSet)) {
+            try {
+                for (String id : phaseSetIndex.get(studyConfiguration.getStudyId(), sampleId, variant.getChromosome(), phaseSet)) {
+                    // Keep the same window as the region based implementation
+                    int start = new Variant(id).getStart();
+                    if (start >= variant.getStart() - windowsSize && start <= variant.getEnd() + windowsSize) {
+                        variants.add(id);
+                    }
+                }
+            } catch (IOException e) {
+                throw VariantQueryException.internalException(e);
+            }
+        }
+
+        VariantQueryResult<Variant> queryResult;
+        if (variants.isEmpty()) {
+            queryResult = new VariantQueryResult<>("getPhased", 0, 0, 0, null, null, Collections.emptyList(), null,
+                    getStorageEngineId());
+        } else {
+            QueryOptions multiGetOptions = options == null ? new QueryOptions() : new QueryOptions(options);
+            multiGetOptions.remove(QueryOptions.LIMIT);
+            multiGetOptions.remove(QueryOptions.SKIP);
+            queryResult = dbAdaptor.get(variants.iterator(), new Query(VariantQueryParam.STUDY.key(), studyName), multiGetOptions);
+            queryResult.setId("getPhased");
+            queryResult.setNumResults(queryResult.getResult().size());
+            queryResult.setNumTotalResults(queryResult.getResult().size());
+            queryResult.setSource(getStorageEngineId());
+        }
+        queryResult.setDbTime((int) watch.getTime());
+        return queryResult;
+    }
+
+    /**
+     * Build the phase set index of a study from the variants already loaded.
+     * New files loaded into the study will keep the index updated.
+     *
+     * @param study     Study
+     * @param options   Other options
+     * @throws StorageEngineException if the storage engine does not support a phase set index
+     */
+    public void buildPhaseSetIndex(String study, ObjectMap options) throws StorageEngineException {
+        VariantDBAdaptor dbAdaptor = getDBAdaptor();
+        PhaseSetIndex phaseSetIndex = dbAdaptor.getPhaseSetIndex();
+        if (phaseSetIndex == null) {
+            throw new StorageEngineException("Phase set index not supported by storage engine " + getStorageEngineId());
+        }
+        ObjectMap params = new ObjectMap(getOptions());
+        if (options != null) {
+            params.putAll(options);
+        }
+        StudyConfigurationManager scm = getStudyConfigurationManager();
+        StudyConfiguration studyConfiguration = scm.getStudyConfiguration(study, null).first();
+        if (studyConfiguration == null) {
+            throw VariantQueryException.studyNotFound(study);
+        }
+        int batchSize = params.getInt(LOAD_BATCH_SIZE.key(), LOAD_BATCH_SIZE.defaultValue());
+        String studyName = studyConfiguration.getStudyName();
+        StopWatch watch = StopWatch.createStarted();
+        PhaseSetIndexTask task = new PhaseSetIndexTask(phaseSetIndex, studyConfiguration);
+        try {
+            phaseSetIndex.remove(studyConfiguration.getStudyId(), studyConfiguration.getSampleIds().values());
+            Query query = new Query(VariantQueryParam.STUDY.key(), studyName)
+                    .append(VariantQueryParam.INCLUDE_STUDY.key(), studyName)
+                    .append(VariantQueryParam.INCLUDE_SAMPLE.key(), VariantQueryUtils.ALL);
+            try (VariantDBIterator iterator = dbAdaptor.iterator(query, new QueryOptions())) {
+                Iterators.partition(iterator, batchSize).forEachRemaining(batch -> {
+                    try {
+                        task.apply(batch);
+                    } catch (Exception e) {
+                        throw Throwables.propagate(e);
+                    }
+                });
+            }
+        } catch (Exception e) {
+            throw new StorageEngineException("Error building phase set index for study " + studyName, e);
+        }
+        scm.lockAndUpdate(studyName, sc -> {
+            sc.getAttributes().put(PHASE_SET_INDEX.key(), true);
+            return sc;
+        });
+        logger.info("Phase set index of study {} built in {}s. {} entries", studyName, watch.getTime(TimeUnit.MILLISECONDS) / 1000.0,
+                task.getNumEntries());
     }
 
     protected void setDefaultTimeout(QueryOptions options) {
@@ -773,9 +1062,56 @@ public abstract class VariantStorageEngine extends StorageEngine<VariantDBAdapto
         if (options == null) {
             options = QueryOptions.empty();
         }
-        // TODO: Use CacheManager ?
         query = preProcessQuery(query);
-        if (doQuerySearchManager(query, options)) {
+        // Parse the filters only once. The model is shared with the DBAdaptor and the search engine
+        VariantQuery.attach(query, getStudyConfigurationManager());
+
+        VariantQueryCache queryCache = getVariantQueryCache();
+        boolean useResultCache = !iterator && queryCache.isResultCacheActive();
+        String normalizedQuery = null;
+        String resultKey = null;
+        if (useResultCache || queryCache.isPlanCacheActive()) {
+            normalizedQuery = VariantQueryCache.normalizeQuery(query, getStudyConfigurationManager());
+        }
+        if (useResultCache) {
+            resultKey = queryCache.buildResultKey(normalizedQuery, query, options, getStudyConfigurationManager());
+            VariantQueryResult<Variant> result = queryCache.getResult(resultKey);
+            if (result != null) {
+                return result;
+            }
+        }
+
+        Query finalQuery = query;
+        QueryOptions finalOptions = options;
+        VariantQueryCache.Route route = queryCache.getRoute(normalizedQuery, options, () -> {
+            if (doQuerySearchManager(finalQuery, finalOptions)) {
+                return VariantQueryCache.Route.SEARCH;
+            } else if (doIntersectWithSearch(finalQuery, finalOptions)) {
+                return VariantQueryCache.Route.INTERSECT;
+            } else {
+                return VariantQueryCache.Route.STORAGE;
+            }
+        });
+
+        Object result;
+        try {
+            result = getOrIterator(query, options, iterator, route);
+        } catch (StorageEngineException | RuntimeException e) {
+            if (route != VariantQueryCache.Route.STORAGE) {
+                // The search engine might be down. Do not reuse routes chosen while it was alive
+                queryCache.clearPlans();
+            }
+            throw e;
+        }
+        if (useResultCache) {
+            queryCache.putResult(resultKey, (VariantQueryResult<Variant>) result);
+        }
+        return result;
+    }
+
+    private Object getOrIterator(Query query, QueryOptions options, boolean iterator, VariantQueryCache.Route route)
+            throws StorageEngineException {
+        if (route == VariantQueryCache.Route.SEARCH) {
             try {
                 if (iterator) {
                     return getVariantSearchManager().iterator(dbName, query, options);
@@ -786,7 +1122,7 @@ public abstract class VariantStorageEngine extends StorageEngine<VariantDBAdapto
                 throw new VariantQueryException("Error querying Solr", e);
             }
         } else {
-            if (doIntersectWithSearch(query, options)) {
+            if (route == VariantQueryCache.Route.INTERSECT) {
                 // Intersect Solr+Engine
 
                 int limit = options.getInt(QueryOptions.LIMIT, 0);
@@ -798,6 +1134,8 @@ public abstract class VariantStorageEngine extends StorageEngine<VariantDBAdapto
                 AtomicLong searchCount = null;
                 Boolean approxCount = null;
                 Integer approxCountSamplingSize = null;
+                Long approxCountLowerBound = null;
+                Long approxCountUpperBound = null;
 
                 // Do not count for iterator
                 if (!iterator) {
@@ -814,6 +1152,8 @@ public abstract class VariantStorageEngine extends StorageEngine<VariantDBAdapto
                         numTotalResults = result.first();
                         approxCount = result.getApproximateCount();
                         approxCountSamplingSize = result.getApproximateCountSamplingSize();
+                        approxCountLowerBound = result.getApproximateCountLowerBound();
+                        approxCountUpperBound = result.getApproximateCountUpperBound();
                     }
                 }
 
@@ -835,6 +1175,13 @@ public abstract class VariantStorageEngine extends StorageEngine<VariantDBAdapto
                     variantsIterator = variantIdIteratorFromSearch(query, Integer.MAX_VALUE, 0, searchCount);
                 }
                 Query engineQuery = getEngineQuery(query, options, getStudyConfigurationManager());
+                VariantQuery.attach(engineQuery, getStudyConfigurationManager());
+
+                options = new QueryOptions(options);
+                options.put(INTERSECT_BATCH_SIZE.key(), options.getInt(INTERSECT_BATCH_SIZE.key(),
+                        getOptions().getInt(INTERSECT_BATCH_SIZE.key(), INTERSECT_BATCH_SIZE.defaultValue())));
+                options.put(INTERSECT_PARALLELISM.key(), options.getInt(INTERSECT_PARALLELISM.key(),
+                        getOptions().getInt(INTERSECT_PARALLELISM.key(), INTERSECT_PARALLELISM.defaultValue())));
 
                 VariantDBAdaptor dbAdaptor = getDBAdaptor();
                 logger.debug("Intersect query " + engineQuery.toJson() + " options " + options.toJson());
@@ -846,6 +1193,8 @@ public abstract class VariantStorageEngine extends StorageEngine<VariantDBAdapto
                     if (numTotalResults != null) {
                         queryResult.setApproximateCount(approxCount);
                         queryResult.setApproximateCountSamplingSize(approxCountSamplingSize);
+                        queryResult.setApproximateCountLowerBound(approxCountLowerBound);
+                        queryResult.setApproximateCountUpperBound(approxCountUpperBound);
                         queryResult.setNumTotalResults(numTotalResults.longValue());
                     }
                     queryResult.setSource(SEARCH_ENGINE_ID + '+' + getStorageEngineId());
@@ -991,6 +1340,7 @@ public abstract class VariantStorageEngine extends StorageEngine<VariantDBAdapto
 
     public QueryResult<Long> count(Query query) throws StorageEngineException {
         query = preProcessQuery(query);
+        VariantQuery.attach(query, getStudyConfigurationManager());
         if (!doQuerySearchManager(query, new QueryOptions(QueryOptions.COUNT, true))) {
             return getDBAdaptor().count(query);
         } else {
@@ -1009,34 +1359,46 @@ public abstract class VariantStorageEngine extends StorageEngine<VariantDBAdapto
         long count;
         boolean approxCount = true;
         int sampling = 0;
+        Long lowerBound = null;
+        Long upperBound = null;
         StopWatch watch = StopWatch.createStarted();
         try {
             if (doQuerySearchManager(query, new QueryOptions(QueryOptions.COUNT, true))) {
                 approxCount = false;
                 count = getVariantSearchManager().query(dbName, query, new QueryOptions(QueryOptions.LIMIT, 0)).getNumTotalResults();
             } else {
-                sampling = options.getInt(APPROXIMATE_COUNT_SAMPLING_SIZE.key(),
+                VariantSearchManager searchManager = getVariantSearchManager();
+                int initialSampling = options.getInt(APPROXIMATE_COUNT_SAMPLING_SIZE.key(),
                         getOptions().getInt(APPROXIMATE_COUNT_SAMPLING_SIZE.key(), APPROXIMATE_COUNT_SAMPLING_SIZE.defaultValue()));
-                QueryOptions queryOptions = new QueryOptions(QueryOptions.INCLUDE, VariantField.ID).append(QueryOptions.LIMIT, sampling);
-
-                VariantQueryResult<VariantSearchModel> nativeResult = getVariantSearchManager().nativeQuery(dbName, query, queryOptions);
-                List<String> variantIds = nativeResult.getResult().stream().map(VariantSearchModel::getId).collect(Collectors.toList());
-                // Adjust numSamples if the results from SearchManager is smaller than numSamples
-                // If this happens, the count is not approximated
-                if (variantIds.size() < sampling) {
-                    approxCount = false;
-                    sampling = variantIds.size();
-                }
-                long numSearchResults = nativeResult.getNumTotalResults();
-
+                int maxSampling = options.getInt(APPROXIMATE_COUNT_MAX_SAMPLING_SIZE.key(),
+                        getOptions().getInt(APPROXIMATE_COUNT_MAX_SAMPLING_SIZE.key(), APPROXIMATE_COUNT_MAX_SAMPLING_SIZE.defaultValue()));
+                double relativeError = options.getDouble(APPROXIMATE_COUNT_RELATIVE_ERROR.key(),
+                        getOptions().getDouble(APPROXIMATE_COUNT_RELATIVE_ERROR.key(), APPROXIMATE_COUNT_RELATIVE_ERROR.defaultValue()));
+                double confidence = options.getDouble(APPROXIMATE_COUNT_CONFIDENCE.key(),
+                        getOptions().getDouble(APPROXIMATE_COUNT_CONFIDENCE.key(), APPROXIMATE_COUNT_CONFIDENCE.defaultValue()));
+                StratifiedCountEstimator estimator = new StratifiedCountEstimator(initialSampling, Math.max(initialSampling, maxSampling),
+                        relativeError, confidence);
+
+                // Stratify by chromosome. Selective filters usually concentrate the variants in a few regions
+                Map<String, Long> numSearchResults = searchManager.countByChromosome(dbName, query);
                 Query engineQuery = getEngineQuery(query, options, getStudyConfigurationManager());
-                engineQuery.put(ID.key(), variantIds);
-                long numResults = getDBAdaptor().count(engineQuery).first();
-                logger.debug("NumResults: {}, NumSearchResults: {}, NumSamples: {}", numResults, numSearchResults, sampling);
+                VariantDBAdaptor dbAdaptor = getDBAdaptor();
+                StratifiedCountEstimator.Estimate estimate = estimator.estimate(numSearchResults,
+                        (chromosome, skip, limit) -> searchManager.nativeIds(dbName, query, chromosome, skip, limit),
+                        (chromosome, ids) -> dbAdaptor.get(new Query(engineQuery).append(ID.key(), ids),
+                                new QueryOptions(QueryOptions.INCLUDE, VariantField.ID.fieldName()).append(QueryOptions.SKIP_COUNT, true))
+                                .getResult()
+                                .stream()
+                                .map(Variant::toString)
+                                .collect(Collectors.toSet()));
+                logger.debug("NumSearchResults: {}, {}", numSearchResults, estimate);
+
+                count = estimate.getCount();
+                sampling = estimate.getSamplingSize();
+                approxCount = !estimate.isExact();
                 if (approxCount) {
-                    count = (long) ((numResults / (float) sampling) * numSearchResults);
-                } else {
-                    count = numResults;
+                    lowerBound = estimate.getLowerBound();
+                    upperBound = estimate.getUpperBound();
                 }
             }
         } catch (IOException | VariantSearchException e) {
@@ -1044,12 +1406,17 @@ public abstract class VariantStorageEngine extends StorageEngine<VariantDBAdapto
         }
         int time = (int) watch.getTime(TimeUnit.MILLISECONDS);
         return new VariantQueryResult<>("count", time, 1, 1, "", "", Collections.singletonList(count), null,
-                SEARCH_ENGINE_ID + '+' + getStorageEngineId(), approxCount, approxCount ? sampling : null);
+                SEARCH_ENGINE_ID + '+' + getStorageEngineId(), approxCount, approxCount ? sampling : null)
+                .setApproximateCountLowerBound(lowerBound)
+                .setApproximateCountUpperBound(upperBound);
     }
 
     /**
      * Fetch facet (i.e., counts) resulting of executing the query in the database.
      *
+     * Uses the search engine if active and alive. Otherwise, streams the variants from the storage with the {@link VariantFacetEngine},
+     * split by region or chromosome, and limited by the query timeout.
+     *
      * @param query          Query to be executed in the database to filter variants
      * @param options        Query modifiers, accepted values are: facet fields and facet ranges
      * @return               A FacetedQueryResult with the result of the query
@@ -1064,7 +1431,23 @@ public abstract class VariantStorageEngine extends StorageEngine<VariantDBAdapto
 
         FacetedQueryResult facetedQueryResult;
         try {
-            facetedQueryResult = getVariantSearchManager().facetedQuery(dbName, query, options);
+            boolean searchActive = configuration.getSearch().getActive() && getVariantSearchManager() != null;
+            if (searchActive && getVariantSearchManager().isAlive(dbName)) {
+                facetedQueryResult = getVariantSearchManager().facetedQuery(dbName, query, options);
+            } else {
+                options = new QueryOptions(options);
+                setDefaultTimeout(options);
+                if (searchActive) {
+                    logger.warn("Search engine not available. Computing facets from the variant storage, with a timeout of {}ms",
+                            options.getInt(QueryOptions.TIMEOUT));
+                }
+                int parallelism = options.getInt(FACET_PARALLELISM.key(),
+                        getOptions().getInt(FACET_PARALLELISM.key(), FACET_PARALLELISM.defaultValue()));
+                int partitionSize = options.getInt(FACET_PARTITION_SIZE.key(),
+                        getOptions().getInt(FACET_PARTITION_SIZE.key(), FACET_PARTITION_SIZE.defaultValue()));
+                facetedQueryResult = new VariantFacetEngine(this, this::getFacetChromosomes, parallelism, partitionSize)
+                        .facet(query, options);
+            }
         } catch (IOException | VariantSearchException | StorageEngineException e) {
             throw Throwables.propagate(e);
         }
@@ -1072,6 +1455,30 @@ public abstract class VariantStorageEngine extends StorageEngine<VariantDBAdapto
         return facetedQueryResult;
     }
 
+    /**
+     * Get the chromosomes with variants, to split in partitions the facets of queries without region.
+     *
+     * @return Chromosomes, or an empty list if the storage engine can not list them
+     */
+    protected List<String> getFacetChromosomes() {
+        try {
+            QueryResult<?> result = getDBAdaptor().distinct(new Query(), "chromosome");
+            if (result == null) {
+                return Collections.emptyList();
+            }
+            List<String> chromosomes = new ArrayList<>(result.getResult().size());
+            for (Object chromosome : result.getResult()) {
+                chromosomes.add(String.valueOf(chromosome));
+            }
+            return chromosomes;
+        } catch (UnsupportedOperationException e) {
+            logger.debug("Unable to list the chromosomes. Facets without region are not partitioned");
+            return Collections.emptyList();
+        } catch (StorageEngineException e) {
+            throw VariantQueryException.internalException(e);
+        }
+    }
+
     protected boolean searchActiveAndAlive() throws StorageEngineException {
         return configuration.getSearch().getActive() && getVariantSearchManager() != null && getVariantSearchManager().isAlive(dbName);
     }
@@ -1115,6 +1522,9 @@ public abstract class VariantStorageEngine extends StorageEngine<VariantDBAdapto
     @Override
     public void close() throws IOException {
         cellBaseUtils = null;
+        if (queryCache.get() != null) {
+            queryCache.get().clear();
+        }
         if (variantSearchManager.get() != null) {
             try {
                 variantSearchManager.get().close();
@@ -34,28 +34,34 @@ import org.opencb.biodata.models.variant.VariantFileMetadata;
 import org.opencb.biodata.models.variant.avro.VariantAvro;
 import org.opencb.biodata.models.variant.metadata.VariantFileHeader;
 import org.opencb.biodata.models.variant.metadata.VariantFileHeaderComplexLine;
+import org.opencb.biodata.tools.variant.VariantNormalizer;
 import org.opencb.biodata.tools.variant.merge.VariantMerger;
 import org.opencb.biodata.tools.variant.stats.VariantSetStatsCalculator;
 import org.opencb.commons.ProgressLogger;
 import org.opencb.commons.datastore.core.ObjectMap;
 import org.opencb.commons.datastore.core.QueryOptions;
-import org.opencb.commons.io.DataWriter;
 import org.opencb.commons.run.ParallelTaskRunner;
-import org.opencb.hpg.bigdata.core.io.avro.AvroFileWriter;
 import org.opencb.opencga.storage.core.StoragePipeline;
 import org.opencb.opencga.storage.core.config.StorageConfiguration;
 import org.opencb.opencga.storage.core.exceptions.StorageEngineException;
+import org.opencb.opencga.storage.core.io.PipelineCheckpoint;
+import org.opencb.opencga.storage.core.io.avro.AvroEncodedDataWriter;
 import org.opencb.opencga.storage.core.io.plain.StringDataReader;
 import org.opencb.opencga.storage.core.io.plain.StringDataWriter;
+import org.opencb.opencga.storage.core.metadata.BatchFileOperation;
 import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
 import org.opencb.opencga.storage.core.metadata.StudyConfigurationManager;
+import org.opencb.opencga.storage.core.metrics.PipelineMetrics;
 import org.opencb.opencga.storage.core.variant.VariantStorageEngine.Options;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantDBAdaptor;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryUtils;
 import org.opencb.opencga.storage.core.variant.io.VariantReaderUtils;
+import org.opencb.opencga.storage.core.variant.phasing.PhaseSetIndexTask;
+import org.opencb.opencga.storage.core.variant.transform.CachedVariantNormalizer;
 import org.opencb.opencga.storage.core.variant.transform.MalformedVariantHandler;
 import org.opencb.opencga.storage.core.variant.transform.VariantAvroTransformTask;
 import org.opencb.opencga.storage.core.variant.transform.VariantJsonTransformTask;
+import org.opencb.opencga.storage.core.variant.transform.VariantTransformCheckpoint;
 import org.opencb.opencga.storage.core.variant.transform.VariantTransformTask;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -89,6 +95,7 @@ public abstract class VariantStoragePipeline implements StoragePipeline {
     protected final VariantReaderUtils variantReaderUtils;
     private final Logger logger = LoggerFactory.getLogger(VariantStoragePipeline.class);
     protected final ObjectMap transformStats = new ObjectMap();
+    protected final ObjectMap loadStats = new ObjectMap();
     protected Integer privateFileId;
     protected Integer privateStudyId;
     protected StudyConfiguration privateStudyConfiguration;
@@ -129,6 +136,79 @@ public abstract class VariantStoragePipeline implements StoragePipeline {
         return transformStats;
     }
 
+    @Override
+    public ObjectMap getLoadStats() {
+        return loadStats;
+    }
+
+    /**
+     * Create a new {@link PipelineMetrics} for a stage of this pipeline.
+     *
+     * @param stage Stage name, like "transform" or "load"
+     * @return New PipelineMetrics
+     */
+    protected PipelineMetrics newPipelineMetrics(String stage) {
+        String name = privateFileId == null ? stage : stage + ".file_" + privateFileId;
+        return PipelineMetrics.create(name, options);
+    }
+
+    /**
+     * Close the metrics and add the summary to the stats, at "metrics.{stage}".
+     *
+     * @param stage   Stage name
+     * @param metrics Metrics to close
+     * @param stats   Transform or load stats
+     */
+    protected void closePipelineMetrics(String stage, PipelineMetrics metrics, ObjectMap stats) {
+        metrics.close();
+        Object map = stats.get("metrics");
+        if (!(map instanceof ObjectMap)) {
+            map = new ObjectMap();
+            stats.put("metrics", map);
+        }
+        ((ObjectMap) map).put(stage, metrics.toObjectMap());
+    }
+
+    /**
+     * Create a new {@link PipelineCheckpoint} for a load operation. The checkpoint is saved in the {@link BatchFileOperation}
+     * of the operation every {@link Options#LOAD_CHECKPOINT_INTERVAL} milliseconds, so an interrupted operation can be resumed
+     * from the last checkpoint instead of from the beginning. The writer must be idempotent when resuming.
+     *
+     * @param operationName Name of the batch operation
+     * @param fileIds       Files of the batch operation
+     * @param resume        If the operation is being resumed. If so, the records before the last checkpoint are skipped
+     * @return New PipelineCheckpoint
+     * @throws StorageEngineException if the study configuration can not be read
+     */
+    protected PipelineCheckpoint newLoadCheckpoint(String operationName, List<Integer> fileIds, boolean resume)
+            throws StorageEngineException {
+        int interval = options.getInt(Options.LOAD_CHECKPOINT_INTERVAL.key(), Options.LOAD_CHECKPOINT_INTERVAL.defaultValue());
+        if (interval <= 0) {
+            return new PipelineCheckpoint(0, -1, null);
+        }
+        int studyId = getStudyId();
+        StudyConfigurationManager scm = getStudyConfigurationManager();
+        long skipRecords = 0;
+        if (resume) {
+            StudyConfiguration studyConfiguration = scm.getStudyConfiguration(studyId, null).first();
+            BatchFileOperation operation = StudyConfigurationManager.getOperation(studyConfiguration, operationName, fileIds);
+            if (operation != null && operation.getCheckpoint() != null) {
+                skipRecords = operation.getCheckpoint().getRecords();
+                logger.info("Resume operation '{}' over files {} from {}", operationName, fileIds, operation.getCheckpoint());
+            }
+        }
+        return new PipelineCheckpoint(skipRecords, interval, (records, lastRecord) -> {
+            scm.lockAndUpdate(studyId, studyConfiguration -> {
+                BatchFileOperation operation = StudyConfigurationManager.getOperation(studyConfiguration, operationName, fileIds);
+                if (operation != null) {
+                    operation.setCheckpoint(new BatchFileOperation.Checkpoint(records, lastRecord, Calendar.getInstance().getTime()));
+                }
+                return studyConfiguration;
+            });
+            logger.debug("Checkpoint of operation '{}' over files {} at record {} ({})", operationName, fileIds, records, lastRecord);
+        });
+    }
+
     @Override
     public URI preTransform(URI input) throws StorageEngineException, IOException, FileFormatException {
         String fileName = VariantReaderUtils.getFileName(input);
@@ -315,55 +395,59 @@ public abstract class VariantStoragePipeline implements StoragePipeline {
             dataReader.setReadBytesListener((totalRead, delta) -> progressLogger.increment(delta, "Bytes"));
 
             //Writer
-            DataWriter<ByteBuffer> dataWriter;
-            try {
-                dataWriter = new AvroFileWriter<>(VariantAvro.getClassSchema(), compression, new FileOutputStream(outputVariantsFile
-                        .toFile()));
-            } catch (FileNotFoundException e) {
-                throw new StorageEngineException("Fail init writer", e);
-            }
-            Supplier<VariantTransformTask<ByteBuffer>> taskSupplier;
+            AvroEncodedDataWriter dataWriter = new AvroEncodedDataWriter(VariantAvro.getClassSchema(), compression, outputVariantsFile);
+            VariantTransformCheckpoint transformCheckpoint = new VariantTransformCheckpoint(outputVariantsFile, dataWriter);
+            PipelineCheckpoint checkpoint = newTransformCheckpoint(transformCheckpoint, outputVariantsFile);
 
+            Supplier<VariantTransformTask<ByteBuffer>> taskSupplier;
+            VariantSetStatsCalculator statsCalculator = new VariantSetStatsCalculator(studyId, metadata);
             if (parser.equalsIgnoreCase(HTSJDK_PARSER)) {
                 logger.info("Using HTSJDK to read variants.");
                 Pair<VCFHeader, VCFHeaderVersion> header = readHtsHeader(input);
-                VariantSetStatsCalculator statsCalculator = new VariantSetStatsCalculator(studyId, metadata);
                 taskSupplier = () -> new VariantAvroTransformTask(header.getKey(), header.getValue(), studyId, metadata, outputMetaFile,
                         statsCalculator, includeSrc, generateReferenceBlocks)
                         .setFailOnError(failOnError)
                         .addMalformedErrorHandler(malformedHandler)
+                        .setNormalizer(newVariantNormalizer(generateReferenceBlocks))
                         .configureNormalizer(variantMetadata);
             } else {
                 // TODO Create a utility to determine which extensions are variants files
                 final VariantVcfFactory factory = createVariantVcfFactory(fileName);
                 logger.info("Using Biodata to read variants.");
-                VariantSetStatsCalculator statsCalculator = new VariantSetStatsCalculator(studyId, metadata);
                 taskSupplier = () -> new VariantAvroTransformTask(factory, studyId, metadata, outputMetaFile, statsCalculator,
                         includeSrc, generateReferenceBlocks)
                         .setFailOnError(failOnError)
                         .addMalformedErrorHandler(malformedHandler)
+                        .setNormalizer(newVariantNormalizer(generateReferenceBlocks))
                         .configureNormalizer(variantMetadata);
             }
 
             logger.info("Generating output file {}", outputVariantsFile);
 
             ParallelTaskRunner<String, ByteBuffer> ptr;
+            PipelineMetrics metrics = newPipelineMetrics("transform");
             try {
                 ptr = new ParallelTaskRunner<>(
-                        dataReader,
-                        taskSupplier,
-                        dataWriter,
+                        metrics.wrapReader(checkpoint.wrapReader(
+                                transformCheckpoint.wrapReader(dataReader, statsCalculator, studyId, metadata),
+                                VariantStoragePipeline::getTransformRecordId)),
+                        metrics.wrapTaskSupplier(() -> checkpoint.wrapTask(taskSupplier.get())),
+                        metrics.wrapWriter(checkpoint.wrapWriter(dataWriter)),
                         config
                 );
             } catch (Exception e) {
+                metrics.close();
                 throw new StorageEngineException("Error while creating ParallelTaskRunner", e);
             }
             logger.info("Multi thread transform... [1 reading, {} transforming, 1 writing]", numTasks);
             start = System.currentTimeMillis();
             try {
                 ptr.run();
-            } catch (ExecutionException e) {
+                transformCheckpoint.delete();
+            } catch (ExecutionException | IOException e) {
                 throw new StorageEngineException("Error while executing TransformVariants in ParallelTaskRunner", e);
+            } finally {
+                closePipelineMetrics("transform", metrics, transformStats);
             }
             end = System.currentTimeMillis();
         } else if ("json".equals(format)) {
@@ -380,41 +464,48 @@ public abstract class VariantStoragePipeline implements StoragePipeline {
 
             //Writers
             StringDataWriter dataWriter = new StringDataWriter(outputVariantsFile, true);
+            VariantTransformCheckpoint transformCheckpoint = new VariantTransformCheckpoint(outputVariantsFile, dataWriter);
+            PipelineCheckpoint checkpoint = newTransformCheckpoint(transformCheckpoint, outputVariantsFile);
 
             ParallelTaskRunner<String, String> ptr;
 
             Supplier<VariantTransformTask<String>> taskSupplier;
+            VariantSetStatsCalculator statsCalculator = new VariantSetStatsCalculator(studyId, metadata);
             if (parser.equalsIgnoreCase(HTSJDK_PARSER)) {
                 logger.info("Using HTSJDK to read variants.");
                 Pair<VCFHeader, VCFHeaderVersion> header = readHtsHeader(input);
-                VariantSetStatsCalculator statsCalculator = new VariantSetStatsCalculator(studyId, metadata);
                 taskSupplier = () -> new VariantJsonTransformTask(header.getKey(), header.getValue(), studyId, metadata,
                         outputMetaFile, statsCalculator, includeSrc, generateReferenceBlocks)
                         .setFailOnError(failOnError)
                         .addMalformedErrorHandler(malformedHandler)
+                        .setNormalizer(newVariantNormalizer(generateReferenceBlocks))
                         .configureNormalizer(variantMetadata);
             } else {
                 // TODO Create a utility to determine which extensions are variants files
                 final VariantVcfFactory factory = createVariantVcfFactory(fileName);
                 logger.info("Using Biodata to read variants.");
-                VariantSetStatsCalculator statsCalculator = new VariantSetStatsCalculator(studyId, metadata);
                 taskSupplier = () -> new VariantJsonTransformTask(factory, studyId, metadata, outputMetaFile, statsCalculator,
                         includeSrc, generateReferenceBlocks)
                         .setFailOnError(failOnError)
                         .addMalformedErrorHandler(malformedHandler)
+                        .setNormalizer(newVariantNormalizer(generateReferenceBlocks))
                         .configureNormalizer(variantMetadata);
             }
 
             logger.info("Generating output file {}", outputVariantsFile);
 
+            PipelineMetrics metrics = newPipelineMetrics("transform");
             try {
                 ptr = new ParallelTaskRunner<>(
-                        dataReader,
-                        taskSupplier,
-                        dataWriter,
+                        metrics.wrapReader(checkpoint.wrapReader(
+                                transformCheckpoint.wrapReader(dataReader, statsCalculator, studyId, metadata),
+                                VariantStoragePipeline::getTransformRecordId)),
+                        metrics.wrapTaskSupplier(() -> checkpoint.wrapTask(taskSupplier.get())),
+                        metrics.wrapWriter(checkpoint.wrapWriter(dataWriter)),
                         config
                 );
             } catch (Exception e) {
+                metrics.close();
                 throw new StorageEngineException("Error while creating ParallelTaskRunner", e);
             }
 
@@ -422,8 +513,11 @@ public abstract class VariantStoragePipeline implements StoragePipeline {
             start = System.currentTimeMillis();
             try {
                 ptr.run();
-            } catch (ExecutionException e) {
+                transformCheckpoint.delete();
+            } catch (ExecutionException | IOException e) {
                 throw new StorageEngineException("Error while executing TransformVariants in ParallelTaskRunner", e);
+            } finally {
+                closePipelineMetrics("transform", metrics, transformStats);
             }
             end = System.currentTimeMillis();
         } else if ("proto".equals(format)) {
@@ -446,6 +540,81 @@ public abstract class VariantStoragePipeline implements StoragePipeline {
         return outputUri.resolve(outputVariantsFile.getFileName().toString());
     }
 
+    /**
+     * Create the checkpoint of the transform step, as defined by {@link Options#TRANSFORM_CHECKPOINT_INTERVAL}.
+     * If {@link Options#RESUME}, the output file is truncated to the last checkpoint, if any.
+     *
+     * @param transformCheckpoint Checkpoint of the output file
+     * @param outputVariantsFile  Output file
+     * @return New PipelineCheckpoint
+     * @throws StorageEngineException if the last checkpoint can not be resumed
+     */
+    protected PipelineCheckpoint newTransformCheckpoint(VariantTransformCheckpoint transformCheckpoint, Path outputVariantsFile)
+            throws StorageEngineException {
+        int interval = options.getInt(Options.TRANSFORM_CHECKPOINT_INTERVAL.key(), Options.TRANSFORM_CHECKPOINT_INTERVAL.defaultValue());
+        if (interval <= 0 || !VariantTransformCheckpoint.isSupported(outputVariantsFile)) {
+            return new PipelineCheckpoint(0, -1, null);
+        }
+        long skipRecords = 0;
+        try {
+            if (options.getBoolean(Options.RESUME.key(), Options.RESUME.defaultValue())) {
+                skipRecords = transformCheckpoint.resume();
+            } else {
+                // Discard checkpoints from previous executions. The output file is overwritten
+                transformCheckpoint.delete();
+            }
+        } catch (IOException e) {
+            throw new StorageEngineException("Unable to resume transform into " + outputVariantsFile, e);
+        }
+        return new PipelineCheckpoint(skipRecords, interval, transformCheckpoint).setSync(transformCheckpoint);
+    }
+
+    /**
+     * Short id of a line from the input file, to be stored with the transform checkpoint.
+     *
+     * @param line Line from the input file
+     * @return Chromosome and position of the line
+     */
+    private static String getTransformRecordId(String line) {
+        int idx = StringUtils.ordinalIndexOf(line, "\t", 2);
+        return idx < 0 ? StringUtils.abbreviate(line, 50) : line.substring(0, idx).replace('\t', ':');
+    }
+
+    /**
+     * Create the {@link VariantNormalizer} for the transform step, as defined by {@link Options#TRANSFORM_NORMALIZER}.
+     *
+     * <ul>
+     *     <li>default: {@link VariantNormalizer}</li>
+     *     <li>cached: {@link CachedVariantNormalizer}, with up to {@link Options#TRANSFORM_NORMALIZER_CACHE_SIZE} cached alleles</li>
+     *     <li>Name of a class extending {@link VariantNormalizer},
+     *         with a constructor (reuseVariants, removeNonVariants, decomposeMNVs)</li>
+     * </ul>
+     *
+     * @param generateReferenceBlocks Generate reference blocks
+     * @return New VariantNormalizer
+     */
+    protected VariantNormalizer newVariantNormalizer(boolean generateReferenceBlocks) {
+        String name = options.getString(Options.TRANSFORM_NORMALIZER.key(), Options.TRANSFORM_NORMALIZER.defaultValue());
+        VariantNormalizer normalizer;
+        if (StringUtils.isEmpty(name) || name.equalsIgnoreCase("default")) {
+            normalizer = new VariantNormalizer(true, true, false);
+        } else if (name.equalsIgnoreCase("cached")) {
+            int cacheSize = options.getInt(Options.TRANSFORM_NORMALIZER_CACHE_SIZE.key(),
+                    Options.TRANSFORM_NORMALIZER_CACHE_SIZE.defaultValue());
+            normalizer = new CachedVariantNormalizer(true, true, false, cacheSize);
+        } else {
+            try {
+                normalizer = Class.forName(name).asSubclass(VariantNormalizer.class)
+                        .getConstructor(boolean.class, boolean.class, boolean.class)
+                        .newInstance(true, true, false);
+            } catch (ReflectiveOperationException | ClassCastException e) {
+                throw new IllegalArgumentException("Unable to create VariantNormalizer " + name, e);
+            }
+        }
+        normalizer.setGenerateReferenceBlocks(generateReferenceBlocks);
+        return normalizer;
+    }
+
     protected VariantVcfFactory createVariantVcfFactory(String fileName) throws StorageEngineException {
         VariantVcfFactory factory;
         if (fileName.endsWith(".vcf") || fileName.endsWith(".vcf.gz") || fileName.endsWith(".vcf.snappy")) {
@@ -491,6 +660,20 @@ public abstract class VariantStoragePipeline implements StoragePipeline {
         return input;
     }
 
+    /**
+     * Task to keep the phase set index updated while loading, if the phase set index is enabled for the study.
+     *
+     * @param studyConfiguration StudyConfiguration
+     * @return The task, or null if the phase set index is not enabled or not supported by the DBAdaptor
+     */
+    protected PhaseSetIndexTask newPhaseSetIndexTask(StudyConfiguration studyConfiguration) {
+        if (dbAdaptor == null || dbAdaptor.getPhaseSetIndex() == null
+                || !studyConfiguration.getAttributes().getBoolean(Options.PHASE_SET_INDEX.key(), Options.PHASE_SET_INDEX.defaultValue())) {
+            return null;
+        }
+        return new PhaseSetIndexTask(dbAdaptor.getPhaseSetIndex(), studyConfiguration);
+    }
+
     /**
      * PreLoad step for modify the StudyConfiguration.
      * This step is executed inside a study lock.
@@ -522,12 +705,22 @@ public abstract class VariantStoragePipeline implements StoragePipeline {
             studyConfiguration.setAggregationStr(options.getString(Options.AGGREGATED_TYPE.key(),
                     Options.AGGREGATED_TYPE.defaultValue().toString()));
             studyConfiguration.getAttributes().put(Options.EXCLUDE_GENOTYPES.key(), excludeGenotypes);
+            studyConfiguration.getAttributes().put(Options.PHASE_SET_INDEX.key(),
+                    options.getBoolean(Options.PHASE_SET_INDEX.key(), Options.PHASE_SET_INDEX.defaultValue()));
         } else {
             // Not first indexed file
             // Use the EXCLUDE_GENOTYPES value from StudyConfiguration. Ignore CLI value
             excludeGenotypes = studyConfiguration.getAttributes()
                     .getBoolean(Options.EXCLUDE_GENOTYPES.key(), Options.EXCLUDE_GENOTYPES.defaultValue());
             options.put(Options.EXCLUDE_GENOTYPES.key(), excludeGenotypes);
+            // The phase set index is only complete if it was built from the first file, or offline.
+            boolean phaseSetIndex = studyConfiguration.getAttributes()
+                    .getBoolean(Options.PHASE_SET_INDEX.key(), Options.PHASE_SET_INDEX.defaultValue());
+            if (!phaseSetIndex && options.getBoolean(Options.PHASE_SET_INDEX.key(), Options.PHASE_SET_INDEX.defaultValue())) {
+                logger.warn("Ignore " + Options.PHASE_SET_INDEX.key() + ". The study '" + studyConfiguration.getStudyName()
+                        + "' has files loaded without phase set index. Build it with VariantStorageEngine.buildPhaseSetIndex");
+            }
+            options.put(Options.PHASE_SET_INDEX.key(), phaseSetIndex);
         }
 
         // Get Extra genotype fields
@@ -675,6 +868,7 @@ public abstract class VariantStoragePipeline implements StoragePipeline {
     public void securePostLoad(List<Integer> fileIds, StudyConfiguration studyConfiguration) throws StorageEngineException {
         // Update indexed files
         studyConfiguration.getIndexedFiles().addAll(fileIds);
+        studyConfiguration.setDataVersion(studyConfiguration.getDataVersion() + 1);
 
         // Update the cohort ALL. Invalidate if needed
         String defaultCohortName = StudyEntry.DEFAULT_COHORT;
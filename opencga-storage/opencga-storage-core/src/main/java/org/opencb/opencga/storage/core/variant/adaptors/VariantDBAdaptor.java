@@ -26,6 +26,8 @@ import org.opencb.commons.datastore.core.QueryResult;
 import org.opencb.opencga.core.results.VariantQueryResult;
 import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
 import org.opencb.opencga.storage.core.metadata.StudyConfigurationManager;
+import org.opencb.opencga.storage.core.variant.adaptors.iterators.VariantDBIterator;
+import org.opencb.opencga.storage.core.variant.phasing.PhaseSetIndex;
 import org.opencb.opencga.storage.core.variant.stats.VariantStatsWrapper;
 
 import java.io.IOException;
@@ -185,6 +187,48 @@ public interface VariantDBAdaptor extends VariantIterable, AutoCloseable {
      */
     QueryResult updateCustomAnnotations(Query query, String name, AdditionalAttribute attribute, QueryOptions options);
 
+    /**
+     * Whether this DBAdaptor keeps track of the modified and removed variants. If so, the query param
+     * {@link VariantQueryUtils#MODIFIED_AFTER} is accepted, and {@link #removedVariantsIterator(long)} and
+     * {@link #pruneRemovedVariants(long)} are supported.
+     *
+     * @return true if the changes are tracked
+     */
+    default boolean supportsChangeTracking() {
+        return false;
+    }
+
+    /**
+     * Iterate over the variants removed from the database at or after the given timestamp.
+     * Removed variants might have been loaded again later. The returned iterator must be closed.
+     *
+     * @param since Timestamp, in milliseconds
+     * @return      Iterator over the removed variants. Only the variant id is filled
+     */
+    default VariantDBIterator removedVariantsIterator(long since) {
+        throw new UnsupportedOperationException("Changes are not tracked by " + getClass().getSimpleName());
+    }
+
+    /**
+     * Forget the variants removed before the given timestamp. Called once every secondary index is synchronised up to it.
+     *
+     * @param before Timestamp, in milliseconds
+     * @return       Number of pruned variants
+     */
+    default long pruneRemovedVariants(long before) {
+        throw new UnsupportedOperationException("Changes are not tracked by " + getClass().getSimpleName());
+    }
+
+    /**
+     * Phase set index of this DBAdaptor, if any. Used by {@link org.opencb.opencga.storage.core.variant.VariantStorageEngine#getPhased}
+     * to resolve the phase sets without scanning the surrounding region.
+     *
+     * @return the phase set index, or null if not supported
+     */
+    default PhaseSetIndex getPhaseSetIndex() {
+        return null;
+    }
+
     StudyConfigurationManager getStudyConfigurationManager();
 
     void setStudyConfigurationManager(StudyConfigurationManager studyConfigurationManager);
@@ -72,6 +72,11 @@ public final class VariantQueryUtils {
     public static final QueryParam ANNOT_EXPRESSION_GENES = QueryParam.create("annot_expression_genes", "", QueryParam.Type.TEXT_ARRAY);
     public static final QueryParam ANNOT_GO_GENES = QueryParam.create("annot_go_genes", "", QueryParam.Type.TEXT_ARRAY);
     public static final QueryParam ANNOT_GENE_REGIONS = QueryParam.create("annot_gene_regions", "", QueryParam.Type.TEXT_ARRAY);
+    /**
+     * Internal param. Select variants modified at or after the given timestamp, in milliseconds.
+     * Only supported by the DBAdaptors with {@link VariantDBAdaptor#supportsChangeTracking()}.
+     */
+    public static final QueryParam MODIFIED_AFTER = QueryParam.create("modified_after", "", QueryParam.Type.TIMESTAMP);
 
     public static final Set<VariantQueryParam> MODIFIER_QUERY_PARAMS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
             INCLUDE_STUDY,
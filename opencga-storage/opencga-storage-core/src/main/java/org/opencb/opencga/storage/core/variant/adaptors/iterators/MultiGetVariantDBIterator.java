@@ -0,0 +1,262 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.variant.adaptors.iterators;
+
+import com.google.common.base.Throwables;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.commons.datastore.core.QueryOptions;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryException;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryParam;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fetches the variants given by an iterator of variant ids.
+ *
+ * The ids are grouped in batches of a fixed size, and every batch is fetched from the backend with a single multi-get request.
+ * Up to {@code parallelism} batches are requested concurrently. The variants are returned in the same order as the input ids,
+ * skipping the ids not found in the backend. Limit and skip are applied in the client side.
+ */
+public class MultiGetVariantDBIterator extends VariantDBIterator {
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "variant-multiget-" + THREAD_COUNT.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Logger logger = LoggerFactory.getLogger(MultiGetVariantDBIterator.class);
+
+    private final Iterator<?> variantsIterator;
+    private final int batchSize;
+    private final int parallelism;
+    private final QueryOptions options;
+    private final BatchFetcher fetcher;
+    private final Deque<Batch> pendingBatches;
+    private Iterator<Variant> batchIterator;
+
+    // Total number of elements to return. Includes the skipped elements. limit + skip
+    private final int maxResults;
+    private final int skip;
+    // Skip elements first time that hasNext or next is called.
+    private boolean pendingSkip;
+    // Count of returned results.
+    private int numResults;
+    private int numBatches;
+    private int numIds;
+
+    /**
+     * Multi-get request to the backend.
+     */
+    @FunctionalInterface
+    public interface BatchFetcher {
+        /**
+         * Fetch a batch of variants from the backend. May be called concurrently from multiple threads.
+         *
+         * @param variants  Variants to fetch
+         * @param options   Query options, without limit and skip
+         * @return          Found variants, in any order
+         * @throws Exception if the request fails
+         */
+        List<Variant> fetch(List<Variant> variants, QueryOptions options) throws Exception;
+    }
+
+    /**
+     * @param variantsIterator  Iterator with the variant ids to fetch. Elements can be {@link Variant} or variant id strings
+     * @param batchSize         Number of variants to fetch in each request
+     * @param parallelism       Max number of concurrent requests
+     * @param options           Query options to be used with the fetcher
+     * @param fetcher           Multi-get request to the backend
+     */
+    public MultiGetVariantDBIterator(Iterator<?> variantsIterator, int batchSize, int parallelism, QueryOptions options,
+                                     BatchFetcher fetcher) {
+        this.variantsIterator = Objects.requireNonNull(variantsIterator);
+        this.batchSize = Math.max(1, batchSize);
+        this.parallelism = Math.max(1, parallelism);
+        this.options = options == null ? new QueryOptions() : new QueryOptions(options);
+        this.fetcher = Objects.requireNonNull(fetcher);
+        pendingBatches = new ArrayDeque<>(this.parallelism);
+        batchIterator = Collections.emptyIterator();
+
+        int limit = this.options.getInt(QueryOptions.LIMIT, 0);
+        skip = Math.max(0, this.options.getInt(QueryOptions.SKIP, 0));
+        pendingSkip = skip != 0;
+        if (limit <= 0) {
+            maxResults = Integer.MAX_VALUE;
+        } else {
+            maxResults = limit + skip;
+        }
+
+        // Client side limit+skip. Remove from QueryOptions
+        this.options.remove(QueryOptions.LIMIT);
+        this.options.remove(QueryOptions.SKIP);
+    }
+
+    @Override
+    public boolean hasNext() {
+        init();
+        if (numResults >= maxResults) {
+            cancelPendingBatches();
+            return false;
+        }
+        while (!batchIterator.hasNext()) {
+            submitBatches();
+            Batch batch = pendingBatches.poll();
+            if (batch == null) {
+                return false;
+            }
+            List<Variant> result = fetch(batch::get);
+            batchIterator = convert(() -> sort(batch.variants, result)).iterator();
+            // Keep the pipeline full while the current batch is being consumed
+            submitBatches();
+        }
+        return true;
+    }
+
+    @Override
+    public Variant next() {
+        if (hasNext()) {
+            numResults++;
+            return batchIterator.next();
+        } else {
+            throw new NoSuchElementException();
+        }
+    }
+
+    @Override
+    public int getCount() {
+        return Math.max(0, numResults - skip);
+    }
+
+    public int getNumBatches() {
+        return numBatches;
+    }
+
+    @Override
+    public void close() throws Exception {
+        cancelPendingBatches();
+        logger.debug("Close multi-get iterator. {} ids in {} batches. Fetch = {}ms",
+                numIds, numBatches, getTimeFetching() / 1000000.0);
+        if (variantsIterator instanceof AutoCloseable) {
+            ((AutoCloseable) variantsIterator).close();
+        }
+        super.close();
+    }
+
+    /**
+     * Client side skip.
+     */
+    private void init() {
+        if (pendingSkip) {
+            // This lock avoids recursion
+            pendingSkip = false;
+            int skip = this.skip;
+            while (skip > 0 && hasNext()) {
+                next();
+                skip--;
+            }
+        }
+    }
+
+    /**
+     * Read batches from the input iterator until there are {@link #parallelism} requests in flight.
+     */
+    private void submitBatches() {
+        while (pendingBatches.size() < parallelism && variantsIterator.hasNext()) {
+            List<Variant> variants = new ArrayList<>(batchSize);
+            while (variantsIterator.hasNext() && variants.size() < batchSize) {
+                variants.add(toVariant(variantsIterator.next()));
+            }
+            numIds += variants.size();
+            numBatches++;
+            pendingBatches.add(new Batch(variants, EXECUTOR.submit(() -> fetcher.fetch(variants, options))));
+        }
+    }
+
+    private void cancelPendingBatches() {
+        for (Batch batch : pendingBatches) {
+            batch.future.cancel(true);
+        }
+        pendingBatches.clear();
+    }
+
+    private static Variant toVariant(Object o) {
+        if (o instanceof Variant) {
+            return (Variant) o;
+        }
+        Variant variant = VariantQueryUtils.toVariant(String.valueOf(o));
+        if (variant == null) {
+            throw VariantQueryException.malformedParam(VariantQueryParam.ID, String.valueOf(o), "Expected a variant id");
+        }
+        return variant;
+    }
+
+    /**
+     * Sort the fetched variants in the same order as the requested ones.
+     *
+     * @param requested Requested variants
+     * @param fetched   Fetched variants, in any order
+     * @return          Fetched variants in the requested order. Duplicated ids are returned only once.
+     */
+    static List<Variant> sort(List<Variant> requested, List<Variant> fetched) {
+        Map<String, Variant> fetchedById = new LinkedHashMap<>(fetched.size() * 2);
+        for (Variant variant : fetched) {
+            fetchedById.put(variant.toString(), variant);
+        }
+        List<Variant> sorted = new ArrayList<>(fetched.size());
+        for (Variant variant : requested) {
+            Variant found = fetchedById.remove(variant.toString());
+            if (found != null) {
+                sorted.add(found);
+            }
+        }
+        // Variants not matching any requested id, e.g. normalized by the backend, are returned at the end of the batch
+        sorted.addAll(fetchedById.values());
+        return sorted;
+    }
+
+    private static final class Batch {
+        private final List<Variant> variants;
+        private final Future<List<Variant>> future;
+
+        private Batch(List<Variant> variants, Future<List<Variant>> future) {
+            this.variants = variants;
+            this.future = future;
+        }
+
+        private List<Variant> get() {
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw VariantQueryException.internalException(e);
+            } catch (ExecutionException e) {
+                Throwables.propagateIfPossible(e.getCause());
+                throw VariantQueryException.internalException(e);
+            }
+        }
+    }
+}
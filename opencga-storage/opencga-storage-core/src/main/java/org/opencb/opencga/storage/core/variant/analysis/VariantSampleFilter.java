@@ -27,23 +27,37 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
-import java.util.function.Consumer;
+import java.util.function.IntConsumer;
 import java.util.stream.Collectors;
 
 /**
  * Created on 01/03/17.
  *
+ * Samples are mapped to dense indices from the first variant, and the matching samples of each variant are stored
+ * in {@code long[]} bitsets. Each distinct genotype is evaluated only once.
+ *
+ * The genotypes are always read from the variants iterator, even in backends with a sample index (see the Hadoop
+ * SampleIndexDBAdaptor). That index is keyed by sample and position, so it answers "variants of one sample", while
+ * this filter needs "samples of a few variants": it would require one scan per sample, instead of reading the
+ * samples data of at most {@link #getMaxVariants()} variants.
+ *
  * @author Jacobo Coll &lt;jacobo167@gmail.com&gt;
  */
 public class VariantSampleFilter {
 
+    public static final int DEFAULT_MAX_VARIANTS = 50;
+
     private final VariantIterable iterable;
     private int maxVariants;
     protected final Logger logger = LoggerFactory.getLogger(VariantSampleFilter.class);
 
     public VariantSampleFilter(VariantIterable iterable) {
+        this(iterable, DEFAULT_MAX_VARIANTS);
+    }
+
+    public VariantSampleFilter(VariantIterable iterable, int maxVariants) {
         this.iterable = iterable;
-        maxVariants = 50;
+        this.maxVariants = maxVariants;
     }
 
     public Map<String, Set<Variant>> getSamplesInAnyVariants(List<?> variants, String study, List<String> samples, List<String> genotypes) {
@@ -56,31 +70,35 @@ public class VariantSampleFilter {
     }
 
     public Map<String, Set<Variant>> getSamplesInAnyVariants(Query query, List<String> genotypes) {
-
-        Map<String, Set<Variant>> map = new HashMap<>();
-        Set<String> samples = new HashSet<>();
-
-        Set<String> genotypesSet = new HashSet<>(genotypes);
-        List<GenotypeClass> genotypeClasses = getGenotypeClasses(genotypesSet);
+        GenotypeFilter genotypeFilter = new GenotypeFilter(genotypes);
+        SampleIndex sampleIndex = new SampleIndex();
+        List<Variant> variants = new ArrayList<>();
+        List<long[]> variantsSamples = new ArrayList<>();
 
         iterate(query, variant -> {
-            getSamplesSet(variant, samples);
-            for (String sample : samples) {
-                map.put(sample, new HashSet<>());
-            }
-        }, (variant, sample, gt) -> {
-            if (isValidGenotype(genotypesSet, genotypeClasses, gt)) {
-                map.get(sample).add(variant);
-            }
+            variants.add(variant);
+            variantsSamples.add(sampleIndex.filter(variant, genotypeFilter, null));
             return true;
         });
 
-        for (String sample : samples) {
-            if (map.get(sample).isEmpty()) {
-                map.remove(sample);
-            }
+        Map<String, Set<Variant>> map = new HashMap<>();
+        if (variants.isEmpty()) {
+            return map;
+        }
+        long[] anySamples = new long[sampleIndex.words()];
+        for (long[] samples : variantsSamples) {
+            or(anySamples, samples);
+        }
+        List<Set<Variant>> samplesVariants = new ArrayList<>(Collections.nCopies(sampleIndex.size(), null));
+        forEachSample(anySamples, idx -> {
+            Set<Variant> set = new HashSet<>();
+            samplesVariants.set(idx, set);
+            map.put(sampleIndex.getSample(idx), set);
+        });
+        for (int i = 0; i < variants.size(); i++) {
+            Variant variant = variants.get(i);
+            forEachSample(variantsSamples.get(i), idx -> samplesVariants.get(idx).add(variant));
         }
-
         return map;
     }
 
@@ -94,60 +112,56 @@ public class VariantSampleFilter {
     }
 
     public Collection<String> getSamplesInAllVariants(Query query, List<String> genotypes) {
-        Set<String> samples = new HashSet<>();
-        Set<String> genotypesSet = new HashSet<>(genotypes);
-        List<GenotypeClass> genotypeClasses = getGenotypeClasses(genotypesSet);
-        iterate(query, variant -> getSamplesSet(variant, samples),
-                (variant, sample, gt) -> {
-                    // Remove if not a valid genotype
-                    if (!isValidGenotype(genotypesSet, genotypeClasses, gt)) {
-                        if (samples.remove(sample)) {
-                            logger.debug("variant: {}, sample: {}, gt: {}", variant, sample, gt);
-                            if (sample.isEmpty()) {
-                                return false;
-                            }
-                        }
-                    }
-                    return true;
-                });
+        GenotypeFilter genotypeFilter = new GenotypeFilter(genotypes);
+        SampleIndex sampleIndex = new SampleIndex();
+        // Samples with a valid genotype in all the variants read so far. Null before the first variant
+        long[][] allSamples = new long[1][];
+
+        iterate(query, variant -> {
+            // Only samples still valid are tested
+            allSamples[0] = sampleIndex.filter(variant, genotypeFilter, allSamples[0]);
+            if (isEmpty(allSamples[0])) {
+                logger.debug("No samples left after variant {}", variant);
+                return false;
+            }
+            return true;
+        });
+
+        List<String> samples = new ArrayList<>();
+        if (allSamples[0] != null) {
+            forEachSample(allSamples[0], idx -> samples.add(sampleIndex.getSample(idx)));
+        }
         return samples;
     }
 
+    public int getMaxVariants() {
+        return maxVariants;
+    }
+
+    public VariantSampleFilter setMaxVariants(int maxVariants) {
+        this.maxVariants = maxVariants;
+        return this;
+    }
+
     @FunctionalInterface
-    interface GenotypeWalker {
-        boolean accept(Variant variant, String sample, String gt);
+    interface VariantWalker {
+        boolean accept(Variant variant);
     }
 
-    protected void iterate(Query query, Consumer<Variant> init, GenotypeWalker walker) {
+    protected void iterate(Query query, VariantWalker walker) {
         QueryOptions options = new QueryOptions()
                 .append(QueryOptions.INCLUDE, Collections.singletonList(VariantField.STUDIES_SAMPLES_DATA))
                 .append(QueryOptions.LIMIT, maxVariants + 1);
         try (VariantDBIterator iterator = iterable.iterator(query, options)) {
-            if (!iterator.hasNext()) {
-                return;
-            }
             int numVariants = 0;
             while (iterator.hasNext()) {
                 Variant variant = iterator.next();
-                if (numVariants == 0) {
-                    init.accept(variant);
-                } else if (numVariants == maxVariants) {
+                if (numVariants == maxVariants) {
                     throw new VariantQueryException("Error! Limit reached with more than " + maxVariants + " variants!");
                 }
                 numVariants++;
-                StudyEntry studyEntry = variant.getStudies().get(0);
-                Integer gtIdx = studyEntry.getFormatPositions().get("GT");
-                if (gtIdx == null || gtIdx < 0) {
-                    throw new VariantQueryException("Missing GT at variant " + variant);
-                }
-
-                int sampleIdx = 0;
-                for (String sample : studyEntry.getOrderedSamplesName()) {
-                    String gt = studyEntry.getSamplesData().get(sampleIdx).get(gtIdx);
-                    if (!walker.accept(variant, sample, gt)) {
-                        break;
-                    }
-                    sampleIdx++;
+                if (!walker.accept(variant)) {
+                    break;
                 }
             }
         } catch (Exception e) {
@@ -155,32 +169,144 @@ public class VariantSampleFilter {
         }
     }
 
-    private Set<String> getSamplesSet(Variant variant, Set<String> samples) {
-        if (variant.getStudies().size() != 1) {
-            throw new VariantQueryException("Unable to process with " + variant.getStudies().size() + " studies.");
+    /**
+     * Dense indices of the samples, taken from the first variant.
+     */
+    private static class SampleIndex {
+        private List<String> samples;
+        private int words;
+        private Map<String, Integer> samplesPosition;
+        // Position in the samples data of each sample index
+        private int[] positions;
+
+        /**
+         * Get the samples of the variant with a valid genotype.
+         *
+         * @param variant           Variant
+         * @param genotypeFilter    Genotype filter
+         * @param candidates        Samples to test. Null for all the samples
+         * @return Bitset with the valid samples
+         */
+        long[] filter(Variant variant, GenotypeFilter genotypeFilter, long[] candidates) {
+            if (variant.getStudies().size() != 1) {
+                throw new VariantQueryException("Unable to process with " + variant.getStudies().size() + " studies.");
+            }
+            StudyEntry studyEntry = variant.getStudies().get(0);
+            init(studyEntry);
+            Integer gtIdx = studyEntry.getFormatPositions().get("GT");
+            if (gtIdx == null || gtIdx < 0) {
+                throw new VariantQueryException("Missing GT at variant " + variant);
+            }
+            List<List<String>> samplesData = studyEntry.getSamplesData();
+            long[] result = new long[words];
+            if (candidates == null) {
+                for (int idx = 0; idx < samples.size(); idx++) {
+                    test(samplesData, gtIdx, genotypeFilter, idx, result);
+                }
+            } else {
+                forEachSample(candidates, idx -> test(samplesData, gtIdx, genotypeFilter, idx, result));
+            }
+            return result;
         }
-        samples.addAll(variant.getStudies().get(0).getSamplesName());
-        if (samples.isEmpty()) {
-            throw new VariantQueryException("Unable to get samples!");
+
+        private void test(List<List<String>> samplesData, int gtIdx, GenotypeFilter genotypeFilter, int idx, long[] result) {
+            int position = positions[idx];
+            if (position < 0 || position >= samplesData.size()) {
+                return;
+            }
+            List<String> sampleData = samplesData.get(position);
+            if (gtIdx < sampleData.size() && genotypeFilter.test(sampleData.get(gtIdx))) {
+                result[idx >>> 6] |= 1L << idx;
+            }
+        }
+
+        private void init(StudyEntry studyEntry) {
+            if (studyEntry.getSamplesPosition() == samplesPosition) {
+                return;
+            }
+            samplesPosition = studyEntry.getSamplesPosition();
+            if (samples == null) {
+                samples = studyEntry.getOrderedSamplesName();
+                if (samples.isEmpty()) {
+                    throw new VariantQueryException("Unable to get samples!");
+                }
+                words = (samples.size() + 63) >>> 6;
+            }
+            positions = new int[samples.size()];
+            for (int idx = 0; idx < samples.size(); idx++) {
+                positions[idx] = samplesPosition.getOrDefault(samples.get(idx), -1);
+            }
+        }
+
+        String getSample(int idx) {
+            return samples.get(idx);
+        }
+
+        int size() {
+            return samples.size();
+        }
+
+        int words() {
+            return words;
         }
-        return samples;
     }
 
-    private boolean isValidGenotype(Set<String> genotypesSet, List<GenotypeClass> genotypeClasses, String gt) {
-        return genotypesSet.contains(gt) || !genotypeClasses.isEmpty() && genotypeClasses.stream().anyMatch(gc -> gc.test(gt));
+    /**
+     * Genotype predicate, evaluated only once for each distinct genotype.
+     */
+    private static class GenotypeFilter {
+        private final Set<String> genotypes;
+        private final List<GenotypeClass> genotypeClasses;
+        private final Map<String, Boolean> table = new HashMap<>();
+
+        GenotypeFilter(List<String> genotypes) {
+            this.genotypes = new HashSet<>();
+            this.genotypeClasses = new ArrayList<>();
+            for (String genotype : genotypes) {
+                GenotypeClass genotypeClass = GenotypeClass.from(genotype);
+                if (genotypeClass == null) {
+                    this.genotypes.add(genotype);
+                } else {
+                    this.genotypeClasses.add(genotypeClass);
+                }
+            }
+        }
+
+        boolean test(String gt) {
+            if (gt == null) {
+                return false;
+            }
+            Boolean valid = table.get(gt);
+            if (valid == null) {
+                valid = genotypes.contains(gt) || genotypeClasses.stream().anyMatch(gc -> gc.test(gt));
+                table.put(gt, valid);
+            }
+            return valid;
+        }
+    }
+
+    private static void forEachSample(long[] bitset, IntConsumer consumer) {
+        for (int w = 0; w < bitset.length; w++) {
+            long word = bitset[w];
+            while (word != 0) {
+                consumer.accept((w << 6) + Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+    }
+
+    private static void or(long[] target, long[] bitset) {
+        for (int w = 0; w < target.length; w++) {
+            target[w] |= bitset[w];
+        }
     }
 
-    private List<GenotypeClass> getGenotypeClasses(Set<String> genotypesSet) {
-        List<GenotypeClass> genotypeClasses = new ArrayList<>();
-        Iterator<String> iterator = genotypesSet.iterator();
-        while (iterator.hasNext()) {
-            String genotype = iterator.next();
-            GenotypeClass genotypeClass = GenotypeClass.from(genotype);
-            if (genotypeClass != null) {
-                genotypeClasses.add(genotypeClass);
-                iterator.remove();
+    private static boolean isEmpty(long[] bitset) {
+        for (long word : bitset) {
+            if (word != 0) {
+                return false;
             }
         }
-        return genotypeClasses;
+        return true;
     }
 }
@@ -41,10 +41,13 @@ import org.opencb.commons.run.ParallelTaskRunner;
 import org.opencb.opencga.core.common.TimeUtils;
 import org.opencb.opencga.core.common.UriUtils;
 import org.opencb.opencga.storage.core.exceptions.StorageEngineException;
+import org.opencb.opencga.storage.core.variant.VariantStorageEngine;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantDBAdaptor;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantField;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryParam;
+import org.opencb.opencga.storage.core.variant.annotation.annotators.AbstractCellBaseVariantAnnotator;
 import org.opencb.opencga.storage.core.variant.annotation.annotators.VariantAnnotator;
+import org.opencb.opencga.storage.core.variant.annotation.cache.VariantAnnotationCache;
 import org.opencb.opencga.storage.core.variant.io.VariantReaderUtils;
 import org.opencb.opencga.storage.core.variant.io.db.VariantAnnotationDBWriter;
 import org.opencb.opencga.storage.core.variant.io.db.VariantDBReader;
@@ -63,6 +66,7 @@ import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 import java.util.zip.GZIPInputStream;
 
 import static org.opencb.biodata.models.core.Region.*;
@@ -84,6 +88,12 @@ public class DefaultVariantAnnotationManager extends VariantAnnotationManager {
     public static final String BATCH_SIZE = "batchSize";
     public static final String NUM_WRITERS = "numWriters";
     public static final String NUM_THREADS = "numThreads";
+    // Annotate and load in one step, without the intermediate annotation file
+    public static final String DIRECT = "annotation.direct";
+    // Also write the annotation file in direct mode
+    public static final String DIRECT_WRITE_FILE = "annotation.direct.writeFile";
+    // Direct mode checkpoint file. Defaults to "{outDir}/annotation.checkpoint"
+    public static final String CHECKPOINT_FILE = "annotation.checkpoint.file";
 
     protected VariantDBAdaptor dbAdaptor;
     protected VariantAnnotator variantAnnotator;
@@ -97,6 +107,11 @@ public class DefaultVariantAnnotationManager extends VariantAnnotationManager {
         this.variantAnnotator = variantAnnotator;
     }
 
+    @Override
+    public void close() throws IOException {
+        variantAnnotator.close();
+    }
+
     @Override
     public void annotate(Query query, ObjectMap params) throws VariantAnnotatorException, IOException, StorageEngineException {
 
@@ -107,6 +122,7 @@ public class DefaultVariantAnnotationManager extends VariantAnnotationManager {
             doCreate = true;
             doLoad = true;
         }
+        boolean direct = doCreate && doLoad && StringUtils.isEmpty(annotationFileStr) && params.getBoolean(DIRECT, false);
         boolean overwrite = params.getBoolean(OVERWRITE_ANNOTATIONS, false);
         if (!overwrite) {
             query.put(VariantQueryParam.ANNOTATION_EXISTS.key(), false);
@@ -118,7 +134,20 @@ public class DefaultVariantAnnotationManager extends VariantAnnotationManager {
                 checkCurrentAnnotation(variantAnnotator, projectMetadata, overwrite);
                 return projectMetadata;
             });
+        }
 
+        if (direct) {
+            long start = System.currentTimeMillis();
+            logger.info("Starting direct annotation");
+            logger.info("Query : {} ", query.toJson());
+            createAndLoadAnnotation(
+                    Paths.get(params.getString(OUT_DIR, "/tmp")),
+                    params.getString(FILE_NAME, "annotation_" + TimeUtils.getTime()),
+                    query, params);
+            logger.info("Finished direct annotation {}ms", System.currentTimeMillis() - start);
+            annotationFile = null;
+            doLoad = false;
+        } else if (doCreate) {
             long start = System.currentTimeMillis();
             logger.info("Starting annotation creation");
             logger.info("Query : {} ", query.toJson());
@@ -140,13 +169,13 @@ public class DefaultVariantAnnotationManager extends VariantAnnotationManager {
             logger.info("Starting annotation load");
             loadAnnotation(annotationFile, params);
             logger.info("Finished annotation load {}ms", System.currentTimeMillis() - start);
+        }
 
-            if (doCreate) {
-                dbAdaptor.getStudyConfigurationManager().lockAndUpdateProject(projectMetadata -> {
-                    updateCurrentAnnotation(variantAnnotator, projectMetadata, overwrite);
-                    return projectMetadata;
-                });
-            }
+        if (doCreate && (doLoad || direct)) {
+            dbAdaptor.getStudyConfigurationManager().lockAndUpdateProject(projectMetadata -> {
+                updateCurrentAnnotation(variantAnnotator, projectMetadata, overwrite);
+                return projectMetadata;
+            });
         }
     }
 
@@ -181,18 +210,7 @@ public class DefaultVariantAnnotationManager extends VariantAnnotationManager {
 
         try {
             DataReader<Variant> variantDataReader = new VariantDBReader(dbAdaptor, query, iteratorQueryOptions);
-            ProgressLogger progressLogger;
-            if (params != null && params.getBoolean(QueryOptions.SKIP_COUNT, false)) {
-                progressLogger = new ProgressLogger("Annotated variants:", iteratorQueryOptions.getLong(QueryOptions.LIMIT, 0), 200);
-            } else {
-                progressLogger = new ProgressLogger("Annotated variants:", () -> {
-                    long limit = iteratorQueryOptions.getLong(QueryOptions.LIMIT, 0);
-                    if (limit > 0) {
-                        return limit;
-                    }
-                    return dbAdaptor.count(query).first();
-                }, 200);
-            }
+            ProgressLogger progressLogger = newAnnotationProgressLogger(query, iteratorQueryOptions, params);
             ParallelTaskRunner.TaskWithException<Variant, VariantAnnotation, VariantAnnotatorException> annotationTask = variantList -> {
                 List<VariantAnnotation> variantAnnotationList;
                 long start = System.currentTimeMillis();
@@ -225,10 +243,188 @@ public class DefaultVariantAnnotationManager extends VariantAnnotationManager {
         } catch (ExecutionException e) {
             throw new VariantAnnotatorException("Error creating annotations", e);
         }
+        logAnnotationCacheStats();
 
         return fileUri;
     }
 
+    /**
+     * Annotates the variants from the database and loads the annotations directly, without any intermediate file.
+     *
+     * Each task annotates a batch of variants and loads it with the task provided by
+     * {@link #newAnnotationLoadTask(ObjectMap, ProgressLogger)}. The number of batches in memory is bounded by the
+     * capacity of the {@link ParallelTaskRunner}. The progress is stored in a {@link VariantAnnotationCheckpoint}, so an
+     * interrupted annotation with {@link #OVERWRITE_ANNOTATIONS} can be resumed with {@link VariantStorageEngine.Options#RESUME}.
+     * Without {@link #OVERWRITE_ANNOTATIONS}, the already annotated variants are excluded by the query.
+     *
+     * @param outDir   Directory for the checkpoint and for the optional annotation file.
+     * @param fileName Optional annotation file name.
+     * @param query    Query for those variants to annotate.
+     * @param params   Specific params.
+     * @return URI of the generated annotation file, if any.
+     * @throws VariantAnnotatorException if there is a problem annotating the variants
+     * @throws StorageEngineException if there is a problem loading the annotations
+     * @throws IOException if there is a problem with the checkpoint
+     */
+    public URI createAndLoadAnnotation(Path outDir, String fileName, Query query, ObjectMap params)
+            throws VariantAnnotatorException, StorageEngineException, IOException {
+        boolean overwrite = params.getBoolean(OVERWRITE_ANNOTATIONS, false);
+        boolean resume = params.getBoolean(VariantStorageEngine.Options.RESUME.key(), VariantStorageEngine.Options.RESUME.defaultValue());
+        boolean writeFile = params.getBoolean(DIRECT_WRITE_FILE, false);
+        boolean gzip = params.getBoolean("gzip", true);
+        boolean avro = params.getBoolean("annotation.file.avro", false);
+        int batchSize = params.getInt(BATCH_SIZE, 200);
+        int numThreads = params.getInt(NUM_THREADS, 8);
+
+        QueryOptions iteratorQueryOptions = getIteratorQueryOptions(query, params);
+        // The checkpoint requires to read the variants always in the same order
+        iteratorQueryOptions.putIfAbsent(QueryOptions.SORT, true);
+
+        Path checkpointFile = Paths.get(params.getString(CHECKPOINT_FILE, outDir.resolve("annotation.checkpoint").toString()));
+        // Without overwrite, the query already skips the annotated variants
+        VariantAnnotationCheckpoint checkpoint = new VariantAnnotationCheckpoint(checkpointFile, resume && overwrite);
+
+        // A resumed run restarts the query from the checkpoint variant
+        DataReader<Variant> variantDataReader = checkpoint.newReader(dbAdaptor, query, iteratorQueryOptions);
+        ProgressLogger progressLogger = newAnnotationProgressLogger(query, iteratorQueryOptions, params);
+
+        Supplier<ParallelTaskRunner.Task<Variant, VariantAnnotation>> taskSupplier = () -> {
+            ParallelTaskRunner.Task<VariantAnnotation, ?> loadTask = newAnnotationLoadTask(params, null);
+            return new ParallelTaskRunner.Task<Variant, VariantAnnotation>() {
+                @Override
+                public void pre() throws Exception {
+                    loadTask.pre();
+                }
+
+                @Override
+                public List<VariantAnnotation> apply(List<Variant> variantList) throws Exception {
+                    List<VariantAnnotation> variantAnnotationList = variantAnnotator.annotate(variantList);
+                    loadTask.apply(variantAnnotationList);
+                    checkpoint.loaded(variantList);
+                    progressLogger.increment(variantList.size(),
+                            () -> ", up to position " + variantList.get(variantList.size() - 1).toString());
+                    return writeFile ? variantAnnotationList : Collections.emptyList();
+                }
+
+                @Override
+                public List<VariantAnnotation> drain() throws Exception {
+                    loadTask.drain();
+                    return Collections.emptyList();
+                }
+
+                @Override
+                public void post() throws Exception {
+                    loadTask.post();
+                }
+            };
+        };
+
+        URI fileUri = null;
+        DataWriter<VariantAnnotation> variantAnnotationDataWriter = null;
+        if (writeFile) {
+            Path path = outDir.resolve(fileName + ".annot" + (avro ? ".avro" : ".json") + (gzip ? ".gz" : ""));
+            fileUri = path.toUri();
+            if (avro) {
+                variantAnnotationDataWriter = new AvroDataWriter<>(path, gzip, VariantAnnotation.getClassSchema());
+            } else {
+                variantAnnotationDataWriter = new VariantAnnotationJsonDataWriter(path, gzip);
+            }
+        }
+
+        ParallelTaskRunner.Config config = ParallelTaskRunner.Config.builder()
+                .setNumTasks(numThreads)
+                .setBatchSize(batchSize)
+                .setCapacity(numThreads * 2)
+                .setAbortOnFail(true)
+                .setSorted(false).build();
+        try {
+            new ParallelTaskRunner<>(variantDataReader, taskSupplier, variantAnnotationDataWriter, config).run();
+        } catch (ExecutionException e) {
+            logger.info("Annotation interrupted. Checkpoint at variant {}, {} annotated variants. Checkpoint file: {}",
+                    checkpoint.getLastVariant(), checkpoint.getNumVariants(), checkpoint.getFile());
+            throw new VariantAnnotatorException("Error creating and loading annotations", e);
+        }
+        logger.info("Annotated and loaded {} variants", checkpoint.getNumVariants() - checkpoint.getResumeCount());
+        logAnnotationCacheStats();
+        checkpoint.delete();
+        return fileUri;
+    }
+
+    /**
+     * Fills the local annotation cache of the annotator, without modifying the database.
+     *
+     * If an annotation file is given (as generated by {@link #createAnnotation}), the annotations are copied into the
+     * cache. Otherwise, the variants from the database matching the query are annotated, and the annotations are discarded.
+     *
+     * @param query          Query for those variants to annotate. Ignored if the annotation file is given.
+     * @param annotationFile Optional annotation file.
+     * @param params         Specific params.
+     * @return Number of annotations in the cache
+     * @throws VariantAnnotatorException if the annotator does not have a cache, or there is a problem annotating the variants
+     * @throws IOException if there is a problem writing the cache
+     */
+    public long warmAnnotationCache(Query query, URI annotationFile, ObjectMap params) throws VariantAnnotatorException, IOException {
+        if (!(variantAnnotator instanceof AbstractCellBaseVariantAnnotator)
+                || ((AbstractCellBaseVariantAnnotator) variantAnnotator).getCache() == null) {
+            throw new VariantAnnotatorException("Missing variant annotation cache. Use the param "
+                    + AbstractCellBaseVariantAnnotator.ANNOTATOR_CACHE_DIR + " with a CellBase annotator");
+        }
+        VariantAnnotationCache cache = ((AbstractCellBaseVariantAnnotator) variantAnnotator).getCache();
+
+        int batchSize = params.getInt(BATCH_SIZE, 200);
+        int numThreads = params.getInt(NUM_THREADS, 8);
+        ParallelTaskRunner.Config config = ParallelTaskRunner.Config.builder()
+                .setNumTasks(numThreads)
+                .setBatchSize(batchSize)
+                .setAbortOnFail(true)
+                .setSorted(false).build();
+        try {
+            if (annotationFile != null) {
+                ProgressLogger progressLogger = new ProgressLogger("Cached annotations:");
+                new ParallelTaskRunner<VariantAnnotation, Object>(newVariantAnnotationDataReader(annotationFile), list -> {
+                    for (VariantAnnotation annotation : list) {
+                        cache.put(annotation);
+                    }
+                    progressLogger.increment(list.size());
+                    return Collections.emptyList();
+                }, null, config).run();
+            } else {
+                QueryOptions iteratorQueryOptions = getIteratorQueryOptions(query, params);
+                ProgressLogger progressLogger = newAnnotationProgressLogger(query, iteratorQueryOptions, params);
+                new ParallelTaskRunner<Variant, Object>(new VariantDBReader(dbAdaptor, query, iteratorQueryOptions), list -> {
+                    variantAnnotator.annotate(list);
+                    progressLogger.increment(list.size());
+                    return Collections.emptyList();
+                }, null, config).run();
+            }
+        } catch (ExecutionException e) {
+            throw new VariantAnnotatorException("Error filling variant annotation cache", e);
+        }
+        logAnnotationCacheStats();
+        return cache.size();
+    }
+
+    private void logAnnotationCacheStats() {
+        if (variantAnnotator instanceof AbstractCellBaseVariantAnnotator
+                && ((AbstractCellBaseVariantAnnotator) variantAnnotator).getCache() != null) {
+            logger.info("Variant annotation cache : {}", ((AbstractCellBaseVariantAnnotator) variantAnnotator).getCache().toObjectMap());
+        }
+    }
+
+    private ProgressLogger newAnnotationProgressLogger(Query query, QueryOptions iteratorQueryOptions, ObjectMap params) {
+        if (params != null && params.getBoolean(QueryOptions.SKIP_COUNT, false)) {
+            return new ProgressLogger("Annotated variants:", iteratorQueryOptions.getLong(QueryOptions.LIMIT, 0), 200);
+        } else {
+            return new ProgressLogger("Annotated variants:", () -> {
+                long limit = iteratorQueryOptions.getLong(QueryOptions.LIMIT, 0);
+                if (limit > 0) {
+                    return limit;
+                }
+                return dbAdaptor.count(query).first();
+            }, 200);
+        }
+    }
+
     protected QueryOptions getIteratorQueryOptions(Query query, ObjectMap params) {
         QueryOptions iteratorQueryOptions;
         if (params == null) {
@@ -309,6 +505,18 @@ public class DefaultVariantAnnotationManager extends VariantAnnotationManager {
         return reader;
     }
 
+    /**
+     * Task to load a batch of annotations in the database, used by the direct annotation.
+     * The batch must be stored in the database when the method apply returns.
+     *
+     * @param params          Specific params.
+     * @param progressLogger  Optional progress logger
+     * @return Load task
+     */
+    protected ParallelTaskRunner.Task<VariantAnnotation, ?> newAnnotationLoadTask(ObjectMap params, ProgressLogger progressLogger) {
+        return newVariantAnnotationDBWriter(dbAdaptor, new QueryOptions(params)).setProgressLogger(progressLogger);
+    }
+
     protected VariantAnnotationDBWriter newVariantAnnotationDBWriter(VariantDBAdaptor dbAdaptor, QueryOptions options) {
         return new VariantAnnotationDBWriter(dbAdaptor, options, null);
     }
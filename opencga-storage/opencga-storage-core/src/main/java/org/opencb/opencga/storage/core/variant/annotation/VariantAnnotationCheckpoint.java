@@ -0,0 +1,375 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.variant.annotation;
+
+import org.opencb.biodata.models.core.Region;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.commons.datastore.core.Query;
+import org.opencb.commons.datastore.core.QueryOptions;
+import org.opencb.commons.io.DataReader;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantIterable;
+import org.opencb.opencga.storage.core.variant.io.db.VariantDBReader;
+import org.opencb.opencga.storage.core.variant.query.VariantQuery;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.opencb.opencga.storage.core.variant.adaptors.VariantQueryParam.REGION;
+
+/**
+ * Checkpoint of a direct annotation (annotate and load without intermediate file).
+ *
+ * Batches are numbered in the order they are read from the database. As batches are annotated and loaded concurrently,
+ * the checkpoint only moves forward when all the previous batches are loaded, so every variant read before the
+ * checkpoint variant is already annotated in the database. The checkpoint is stored in a small text file with the
+ * last variant, the number of loaded variants and the chromosomes already finished, replaced atomically on every update.
+ *
+ * A resumed run restarts the query from the checkpoint variant, see {@link #newReader}. This requires the variants to be
+ * read in the same order, so the reader should be sorted.
+ */
+public class VariantAnnotationCheckpoint {
+
+    private final Path file;
+    private final String resumeFrom;
+    private final Variant resumeVariant;
+    private final long resumeCount;
+
+    private final Map<String, Long> readBatches = new HashMap<>();
+    private final TreeMap<Long, Batch> loadedBatches = new TreeMap<>();
+    private long nextReadBatch = 0;
+    private long nextCheckpointBatch = 0;
+    private String lastVariant;
+    private long numVariants;
+    private String chromosome;
+    private final Set<String> finishedChromosomes = new LinkedHashSet<>();
+
+    private final Logger logger = LoggerFactory.getLogger(VariantAnnotationCheckpoint.class);
+
+    /**
+     * Create a new checkpoint.
+     *
+     * @param file   Checkpoint file
+     * @param resume Resume from the checkpoint file, if exists. Otherwise, any previous checkpoint is discarded.
+     * @throws IOException if the checkpoint file can not be read
+     */
+    public VariantAnnotationCheckpoint(Path file, boolean resume) throws IOException {
+        this.file = file;
+        if (resume && Files.exists(file)) {
+            String[] split = new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim().split("\t");
+            resumeFrom = split[0];
+            resumeCount = split.length > 1 ? Long.parseLong(split[1]) : 0;
+            if (split.length > 2 && !split[2].isEmpty()) {
+                finishedChromosomes.addAll(Arrays.asList(split[2].split(",")));
+            }
+            resumeVariant = parseVariant(resumeFrom);
+            chromosome = resumeVariant == null ? null : resumeVariant.getChromosome();
+            logger.info("Resume annotation from variant {}. {} variants already annotated", resumeFrom, resumeCount);
+        } else {
+            Files.deleteIfExists(file);
+            resumeFrom = null;
+            resumeVariant = null;
+            resumeCount = 0;
+        }
+        lastVariant = resumeFrom;
+        numVariants = resumeCount;
+    }
+
+    /**
+     * Create the reader of the variants to annotate, numbering the read batches.
+     *
+     * A resumed run does not read again the variants already annotated. The chromosome of the checkpoint variant is read
+     * with a region filter starting at the checkpoint position, followed by the rest of chromosomes not finished yet.
+     * Queries with genes, ids or xrefs can not be restricted by region, so they are read from the beginning, skipping the
+     * variants up to the checkpoint variant. The reader fails if the checkpoint variant is not found.
+     *
+     * @param iterable Variants to annotate
+     * @param query    Query of the variants to annotate
+     * @param options  Query options. Must be sorted
+     * @return Variants reader
+     */
+    public DataReader<Variant> newReader(VariantIterable iterable, Query query, QueryOptions options) {
+        return newReader(q -> new VariantDBReader(iterable, q, options), query);
+    }
+
+    DataReader<Variant> newReader(Function<Query, DataReader<Variant>> readerFactory, Query query) {
+        if (resumeFrom == null) {
+            return new CheckpointReader(Collections.singletonList(readerFactory.apply(query)), false, Collections.emptySet());
+        }
+        VariantQuery variantQuery = VariantQuery.get(query);
+        if (resumeVariant == null || !variantQuery.getGenes().isEmpty() || !variantQuery.getVariants().isEmpty()
+                || !variantQuery.getIds().isEmpty() || !variantQuery.getOtherXrefs().isEmpty()) {
+            logger.info("Can not restart the query from the checkpoint variant. Skip variants up to {}", resumeFrom);
+            return new CheckpointReader(Collections.singletonList(readerFactory.apply(query)), false, Collections.emptySet());
+        }
+
+        int start = resumeVariant.getStart();
+        List<DataReader<Variant>> readers = new ArrayList<>(2);
+        if (variantQuery.getRegions().isEmpty()) {
+            readers.add(readerFactory.apply(withRegions(query,
+                    Collections.singletonList(new Region(chromosome, start, Integer.MAX_VALUE)))));
+            // The chromosomes order depends on the storage engine. Read the rest, discarding the finished chromosomes.
+            readers.add(readerFactory.apply(query));
+        } else {
+            List<Region> resumeRegions = new ArrayList<>();
+            List<Region> pendingRegions = new ArrayList<>();
+            for (Region region : variantQuery.getRegions()) {
+                if (region.getChromosome().equals(chromosome)) {
+                    if (region.getEnd() >= start) {
+                        resumeRegions.add(new Region(chromosome, Math.max(start, region.getStart()), region.getEnd()));
+                    }
+                } else if (!finishedChromosomes.contains(region.getChromosome())) {
+                    pendingRegions.add(region);
+                }
+            }
+            if (resumeRegions.isEmpty()) {
+                throw notFound(0);
+            }
+            readers.add(readerFactory.apply(withRegions(query, resumeRegions)));
+            if (!pendingRegions.isEmpty()) {
+                readers.add(readerFactory.apply(withRegions(query, pendingRegions)));
+            }
+        }
+        Set<String> skipChromosomes = new HashSet<>(finishedChromosomes);
+        skipChromosomes.add(chromosome);
+        return new CheckpointReader(readers, true, skipChromosomes);
+    }
+
+    /**
+     * Mark a batch as loaded into the database. Moves the checkpoint forward if all the previous batches are loaded.
+     *
+     * @param batch Batch of variants, as returned by the wrapped reader
+     */
+    public synchronized void loaded(List<Variant> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        String last = batch.get(batch.size() - 1).toString();
+        Long batchNumber = readBatches.remove(last);
+        if (batchNumber == null) {
+            throw new IllegalStateException("Unknown batch ending in variant " + last);
+        }
+        loadedBatches.put(batchNumber, new Batch(batch));
+
+        boolean moved = false;
+        while (!loadedBatches.isEmpty() && loadedBatches.firstKey() == nextCheckpointBatch) {
+            Batch loaded = loadedBatches.pollFirstEntry().getValue();
+            for (String batchChromosome : loaded.chromosomes) {
+                if (chromosome != null && !chromosome.equals(batchChromosome)) {
+                    finishedChromosomes.add(chromosome);
+                }
+                chromosome = batchChromosome;
+            }
+            lastVariant = loaded.lastVariant;
+            numVariants += loaded.size;
+            nextCheckpointBatch++;
+            moved = true;
+        }
+        if (moved) {
+            write();
+        }
+    }
+
+    /**
+     * Remove the checkpoint file. To be called once the annotation finishes successfully.
+     *
+     * @throws IOException if the file can not be deleted
+     */
+    public void delete() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public synchronized String getLastVariant() {
+        return lastVariant;
+    }
+
+    public synchronized long getNumVariants() {
+        return numVariants;
+    }
+
+    public synchronized Set<String> getFinishedChromosomes() {
+        return new LinkedHashSet<>(finishedChromosomes);
+    }
+
+    public long getResumeCount() {
+        return resumeCount;
+    }
+
+    private synchronized void register(List<Variant> batch) {
+        readBatches.put(batch.get(batch.size() - 1).toString(), nextReadBatch++);
+    }
+
+    private void write() {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        String line = lastVariant + '\t' + numVariants + '\t' + String.join(",", finishedChromosomes) + '\n';
+        try {
+            Files.write(tmp, line.getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error writing annotation checkpoint " + file, e);
+        }
+    }
+
+    private IllegalStateException notFound(long skipped) {
+        return new IllegalStateException("Checkpoint variant " + resumeFrom + " not found after skipping " + skipped + " variants. "
+                + "The variants are not read in the same order as in the interrupted run. "
+                + "Remove the checkpoint file " + file + " to annotate from the beginning");
+    }
+
+    private static Query withRegions(Query query, List<Region> regions) {
+        Query regionQuery = new Query(query);
+        regionQuery.put(REGION.key(), regions.stream()
+                .map(region -> region.getChromosome() + ':' + region.getStart() + '-' + region.getEnd())
+                .collect(Collectors.joining(",")));
+        return regionQuery;
+    }
+
+    private Variant parseVariant(String variant) {
+        try {
+            return new Variant(variant);
+        } catch (RuntimeException e) {
+            logger.warn("Unable to parse checkpoint variant {}", variant, e);
+            return null;
+        }
+    }
+
+    private static final class Batch {
+        private final String lastVariant;
+        private final int size;
+        private final List<String> chromosomes = new ArrayList<>(1);
+
+        private Batch(List<Variant> variants) {
+            lastVariant = variants.get(variants.size() - 1).toString();
+            size = variants.size();
+            for (Variant variant : variants) {
+                if (chromosomes.isEmpty() || !chromosomes.get(chromosomes.size() - 1).equals(variant.getChromosome())) {
+                    chromosomes.add(variant.getChromosome());
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads sequentially from a list of readers. When resuming, skips the variants up to the checkpoint variant in the first
+     * reader, and the finished chromosomes in the rest.
+     */
+    private final class CheckpointReader implements DataReader<Variant> {
+        private final List<DataReader<Variant>> readers;
+        private final boolean restarted;
+        private final Set<String> skipChromosomes;
+        private int current = 0;
+        private boolean skipping;
+        private long skipped = 0;
+
+        // The first reader of a restarted query starts at the checkpoint position
+        private CheckpointReader(List<DataReader<Variant>> readers, boolean restarted, Set<String> skipChromosomes) {
+            this.readers = readers;
+            this.restarted = restarted;
+            this.skipChromosomes = skipChromosomes;
+            skipping = resumeFrom != null;
+        }
+
+        @Override
+        public boolean open() {
+            return readers.get(current).open();
+        }
+
+        @Override
+        public boolean pre() {
+            return readers.get(current).pre();
+        }
+
+        @Override
+        public List<Variant> read(int batchSize) {
+            while (current < readers.size()) {
+                List<Variant> batch = readers.get(current).read(batchSize);
+                if (batch.isEmpty()) {
+                    if (skipping) {
+                        throw notFound(skipped);
+                    }
+                    nextReader();
+                    continue;
+                }
+                if (skipping) {
+                    batch = skip(batch);
+                }
+                if (current > 0) {
+                    // The checkpoint chromosome was read by the first reader
+                    batch = batch.stream()
+                            .filter(variant -> !skipChromosomes.contains(variant.getChromosome()))
+                            .collect(Collectors.toList());
+                }
+                if (!batch.isEmpty()) {
+                    register(batch);
+                    return batch;
+                }
+            }
+            return Collections.emptyList();
+        }
+
+        private void nextReader() {
+            DataReader<Variant> reader = readers.get(current);
+            reader.post();
+            reader.close();
+            current++;
+            if (current < readers.size()) {
+                readers.get(current).open();
+                readers.get(current).pre();
+            }
+        }
+
+        private List<Variant> skip(List<Variant> batch) {
+            for (int i = 0; i < batch.size(); i++) {
+                Variant variant = batch.get(i);
+                if (variant.toString().equals(resumeFrom)) {
+                    skipping = false;
+                    skipped += i + 1;
+                    logger.info("Skipped {} variants already annotated", skipped);
+                    return new ArrayList<>(batch.subList(i + 1, batch.size()));
+                }
+                if (restarted && variant.getStart() > resumeVariant.getStart()) {
+                    // Already past the checkpoint position
+                    throw notFound(skipped + i);
+                }
+            }
+            skipped += batch.size();
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean post() {
+            return current >= readers.size() || readers.get(current).post();
+        }
+
+        @Override
+        public boolean close() {
+            return current >= readers.size() || readers.get(current).close();
+        }
+    }
+}
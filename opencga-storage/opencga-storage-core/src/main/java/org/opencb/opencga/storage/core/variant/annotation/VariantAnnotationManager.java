@@ -27,6 +27,7 @@ import org.opencb.opencga.storage.core.variant.annotation.annotators.VariantAnno
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.sql.Date;
 import java.time.Instant;
@@ -40,7 +41,7 @@ import java.util.stream.Collectors;
  *
  * @author Jacobo Coll &lt;jacobo167@gmail.com&gt;
  */
-public abstract class VariantAnnotationManager {
+public abstract class VariantAnnotationManager implements Closeable {
 
     public static final String SPECIES = "species";
     public static final String ASSEMBLY = "assembly";
@@ -63,6 +64,10 @@ public abstract class VariantAnnotationManager {
 
     public abstract void deleteAnnotation(String name, ObjectMap options) throws StorageEngineException, VariantAnnotatorException;
 
+    @Override
+    public void close() throws IOException {
+    }
+
     protected final VariantAnnotationMetadata checkCurrentAnnotation(VariantAnnotator annotator, ProjectMetadata projectMetadata,
                                                                      boolean overwrite)
             throws VariantAnnotatorException {
@@ -16,6 +16,7 @@
 
 package org.opencb.opencga.storage.core.variant.annotation.annotators;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.opencb.biodata.models.variant.Variant;
 import org.opencb.biodata.models.variant.avro.AdditionalAttribute;
@@ -26,13 +27,13 @@ import org.opencb.commons.datastore.core.QueryResult;
 import org.opencb.opencga.storage.core.config.StorageConfiguration;
 import org.opencb.opencga.storage.core.metadata.ProjectMetadata;
 import org.opencb.opencga.storage.core.variant.annotation.VariantAnnotatorException;
+import org.opencb.opencga.storage.core.variant.annotation.cache.VariantAnnotationCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Iterator;
-import java.util.List;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.*;
 
 /**
  * Created by jacobo on 9/01/15.
@@ -45,6 +46,9 @@ public abstract class AbstractCellBaseVariantAnnotator extends VariantAnnotator
     // Imprecise variants supported by cellbase (REST only)
     public static final String ANNOTATOR_CELLBASE_IMPRECISE_VARIANTS = "annotator.cellbase.imprecise_variants";
     public static final int CELLBASE_VARIANT_THRESHOLD = 5000;
+    // Local annotation cache. Disabled if empty
+    public static final String ANNOTATOR_CACHE_DIR = "annotator.cache.dir";
+    public static final String ANNOTATOR_CACHE_MAX_SIZE = "annotator.cache.maxSize";
 
     public static final String ADDITIONAL_ATTRIBUTES_KEY = "opencga";
     public static final String ADDITIONAL_ATTRIBUTES_VARIANT_ID = "id";
@@ -55,6 +59,7 @@ public abstract class AbstractCellBaseVariantAnnotator extends VariantAnnotator
     protected final String cellbaseVersion;
     protected final QueryOptions queryOptions;
     protected final boolean impreciseVariants;
+    protected final VariantAnnotationCache cache;
 
     public AbstractCellBaseVariantAnnotator(StorageConfiguration storageConfiguration, ProjectMetadata projectMetadata, ObjectMap params)
             throws VariantAnnotatorException {
@@ -80,6 +85,43 @@ public abstract class AbstractCellBaseVariantAnnotator extends VariantAnnotator
         checkNotNull(species, "species");
         checkNotNull(assembly, "assembly");
 
+        String cacheDir = params.getString(ANNOTATOR_CACHE_DIR);
+        if (StringUtils.isNotEmpty(cacheDir)) {
+            try {
+                cache = VariantAnnotationCache.open(Paths.get(cacheDir), getCacheTag(),
+                        params.getLong(ANNOTATOR_CACHE_MAX_SIZE, VariantAnnotationCache.DEFAULT_MAX_SIZE));
+            } catch (IOException e) {
+                throw new VariantAnnotatorException("Error opening variant annotation cache at " + cacheDir, e);
+            }
+        } else {
+            cache = null;
+        }
+    }
+
+    /**
+     * Identifier of the annotations produced by this annotator, used to tag the annotation cache.
+     * Includes the CellBase version, species, assembly and the include/exclude options.
+     *
+     * @return Cache tag
+     */
+    protected String getCacheTag() {
+        String tag = "cellbase_" + cellbaseVersion + '_' + species + '_' + assembly;
+        String fields = queryOptions.getString(QueryOptions.INCLUDE, "") + '|' + queryOptions.getString(QueryOptions.EXCLUDE, "");
+        if (!fields.equals("|")) {
+            tag += '_' + DigestUtils.md5Hex(fields).substring(0, 8);
+        }
+        return tag;
+    }
+
+    public VariantAnnotationCache getCache() {
+        return cache;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (cache != null) {
+            cache.close();
+        }
     }
 
     protected static void checkNotNull(String value, String name) throws VariantAnnotatorException {
@@ -100,7 +142,55 @@ public abstract class AbstractCellBaseVariantAnnotator extends VariantAnnotator
     @Override
     public final List<VariantAnnotation> annotate(List<Variant> variants) throws VariantAnnotatorException {
         List<Variant> nonStructuralVariations = filterStructuralVariants(variants);
-        return getVariantAnnotationList(variants, annotateFiltered(nonStructuralVariations));
+        if (cache == null) {
+            return getVariantAnnotationList(variants, annotateFiltered(nonStructuralVariations));
+        } else {
+            return annotateWithCache(nonStructuralVariations);
+        }
+    }
+
+    private List<VariantAnnotation> annotateWithCache(List<Variant> variants) throws VariantAnnotatorException {
+        try {
+            List<VariantAnnotation> annotations = new ArrayList<>(variants.size());
+            List<Variant> missing = new ArrayList<>();
+            for (Variant variant : variants) {
+                VariantAnnotation annotation = cache.get(VariantAnnotationCache.key(variant));
+                if (annotation == null) {
+                    missing.add(variant);
+                } else {
+                    addStructuralVariantId(variant, annotation);
+                }
+                annotations.add(annotation);
+            }
+
+            if (!missing.isEmpty()) {
+                // Annotations of the missing variants, in the same order. Null for skipped variants
+                Iterator<VariantAnnotation> annotated = getVariantAnnotations(missing, annotateFiltered(missing)).iterator();
+                Iterator<Variant> missingIterator = missing.iterator();
+                for (int i = 0; i < variants.size(); i++) {
+                    if (annotations.get(i) == null) {
+                        Variant variant = missingIterator.next();
+                        VariantAnnotation annotation = annotated.hasNext() ? annotated.next() : null;
+                        if (annotation != null) {
+                            cache.put(VariantAnnotationCache.key(variant), annotation);
+                            annotations.set(i, annotation);
+                        }
+                    }
+                }
+            }
+
+            // Skipped variants have no annotation
+            List<VariantAnnotation> variantAnnotationList = new ArrayList<>(variants.size());
+            for (VariantAnnotation annotation : annotations) {
+                if (annotation != null) {
+                    variantAnnotationList.add(annotation);
+                }
+            }
+            logger.debug("Annotated {} variants. {} from cache", variants.size(), variants.size() - missing.size());
+            return variantAnnotationList;
+        } catch (IOException e) {
+            throw new VariantAnnotatorException("Error reading variant annotation cache " + cache.getDir(), e);
+        }
     }
 
     protected abstract List<QueryResult<VariantAnnotation>> annotateFiltered(List<Variant> variants) throws VariantAnnotatorException;
@@ -129,6 +219,23 @@ public abstract class AbstractCellBaseVariantAnnotator extends VariantAnnotator
     }
 
     protected List<VariantAnnotation> getVariantAnnotationList(List<Variant> variants, List<QueryResult<VariantAnnotation>> queryResults) {
+        List<VariantAnnotation> variantAnnotationList = new ArrayList<>(variants.size());
+        for (VariantAnnotation variantAnnotation : getVariantAnnotations(variants, queryResults)) {
+            if (variantAnnotation != null) {
+                variantAnnotationList.add(variantAnnotation);
+            }
+        }
+        return variantAnnotationList;
+    }
+
+    /**
+     * Match the annotations with the variants, checking the order.
+     *
+     * @param variants      Annotated variants
+     * @param queryResults  Annotation results, in the same order as the variants
+     * @return Annotations at the same position as their variants. Null for the skipped variants.
+     */
+    private List<VariantAnnotation> getVariantAnnotations(List<Variant> variants, List<QueryResult<VariantAnnotation>> queryResults) {
         List<VariantAnnotation> variantAnnotationList = new ArrayList<>(variants.size());
         Iterator<Variant> iterator = variants.iterator();
         if (queryResults != null) {
@@ -137,8 +244,9 @@ public abstract class AbstractCellBaseVariantAnnotator extends VariantAnnotator
                 // Check that the skipped variant matches with the expected variant
                 if (queryResult.getResult().isEmpty()) {
                     Variant variant = iterator.next();
+                    String reason = StringUtils.isEmpty(queryResult.getErrorMsg()) ? "" : ". " + queryResult.getErrorMsg();
                     if (variant.toString().equals(queryResult.getId()) || variant.toStringSimple().equals(queryResult.getId())) {
-                        logger.warn("Skip annotation for variant " + variant);
+                        logger.warn("Skip annotation for variant " + variant + reason);
                     } else {
                         Variant variantId = new Variant(queryResult.getId());
                         if (!variant.getChromosome().equals(variantId.getChromosome())
@@ -147,9 +255,10 @@ public abstract class AbstractCellBaseVariantAnnotator extends VariantAnnotator
                                 || !variant.getAlternate().equals(variantId.getAlternate())) {
                             throw unexpectedVariantOrderException(variant, variantId);
                         } else {
-                            logger.warn("Skip annotation for variant " + variant);
+                            logger.warn("Skip annotation for variant " + variant + reason);
                         }
                     }
+                    variantAnnotationList.add(null);
                 }
                 for (VariantAnnotation variantAnnotation : queryResult.getResult()) {
                     Variant variant = iterator.next();
@@ -162,18 +271,7 @@ public abstract class AbstractCellBaseVariantAnnotator extends VariantAnnotator
                                 + variantAnnotation.getReference() + ':'
                                 + variantAnnotation.getAlternate());
                     }
-                    if (variant.isSV()) {
-                        // Variant annotation class does not have information about Structural Variations.
-                        // Store the original Variant.toString as an additional attribute.
-                        AdditionalAttribute additionalAttribute =
-                                new AdditionalAttribute(Collections.singletonMap(ADDITIONAL_ATTRIBUTES_VARIANT_ID, variant.toString()));
-                        if (variantAnnotation.getAdditionalAttributes() == null) {
-                            variantAnnotation
-                                    .setAdditionalAttributes(Collections.singletonMap(ADDITIONAL_ATTRIBUTES_KEY, additionalAttribute));
-                        } else {
-                            variantAnnotation.getAdditionalAttributes().put(ADDITIONAL_ATTRIBUTES_KEY, additionalAttribute);
-                        }
-                    }
+                    addStructuralVariantId(variant, variantAnnotation);
                     variantAnnotationList.add(variantAnnotation);
                 }
             }
@@ -181,6 +279,21 @@ public abstract class AbstractCellBaseVariantAnnotator extends VariantAnnotator
         return variantAnnotationList;
     }
 
+    private static void addStructuralVariantId(Variant variant, VariantAnnotation variantAnnotation) {
+        if (variant.isSV()) {
+            // Variant annotation class does not have information about Structural Variations.
+            // Store the original Variant.toString as an additional attribute.
+            AdditionalAttribute additionalAttribute =
+                    new AdditionalAttribute(Collections.singletonMap(ADDITIONAL_ATTRIBUTES_VARIANT_ID, variant.toString()));
+            if (variantAnnotation.getAdditionalAttributes() == null) {
+                variantAnnotation
+                        .setAdditionalAttributes(Collections.singletonMap(ADDITIONAL_ATTRIBUTES_KEY, additionalAttribute));
+            } else {
+                variantAnnotation.getAdditionalAttributes().put(ADDITIONAL_ATTRIBUTES_KEY, additionalAttribute);
+            }
+        }
+    }
+
     static RuntimeException unexpectedVariantOrderException(Object expected, Object actual) {
         return new IllegalArgumentException("Variants not in the expected order! "
                 + "Expected '" + expected + "', " + "but got '" + actual + "'.");
@@ -0,0 +1,361 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.variant.annotation.annotators;
+
+import org.opencb.commons.datastore.core.ObjectMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Sends batches of elements to a remote service, adapting the request size and the number of concurrent requests
+ * to the observed latency and error rate (AIMD, additive increase, multiplicative decrease).
+ *
+ * <ul>
+ *     <li>Each successful request faster than the target latency increases the request size additively. Once a full
+ *     window of requests (as many as the concurrency limit) succeeds, the concurrency limit is increased by one.</li>
+ *     <li>A slow request halves the request size. A failed request halves both the request size and the concurrency
+ *     limit. Decreases are applied at most once per target latency period, so a burst of errors counts as one.</li>
+ *     <li>Failed requests are retried with exponential backoff and full jitter. If the request still fails, the batch is
+ *     split in halves to isolate the failing elements, which are finally resolved with a fallback function.</li>
+ *     <li>A circuit breaker stops sending requests when the remote service seems to be down. After a number of consecutive
+ *     failed requests, any new request fails immediately until the reset timeout expires. Then, a single failure opens
+ *     the circuit again, and a success closes it. The execution also fails if too many elements had to use the
+ *     fallback.</li>
+ * </ul>
+ *
+ * The controller is shared by all the threads using the same remote service. All the methods are thread safe.
+ * Close the controller to stop its threads once it is not used anymore.
+ */
+public class AdaptiveRequestController implements AutoCloseable {
+
+    public static final String MIN_BATCH_SIZE = "annotator.adaptive.batchSize.min";
+    public static final String MAX_BATCH_SIZE = "annotator.adaptive.batchSize.max";
+    public static final String BATCH_SIZE = "annotator.adaptive.batchSize";
+    public static final String BATCH_SIZE_INCREMENT = "annotator.adaptive.batchSize.increment";
+    public static final String MAX_CONCURRENCY = "annotator.adaptive.concurrency.max";
+    public static final String CONCURRENCY = "annotator.adaptive.concurrency";
+    public static final String TARGET_LATENCY_MS = "annotator.adaptive.targetLatencyMs";
+    public static final String MAX_RETRIES = "annotator.adaptive.maxRetries";
+    public static final String RETRY_BASE_DELAY_MS = "annotator.adaptive.retry.baseDelayMs";
+    public static final String RETRY_MAX_DELAY_MS = "annotator.adaptive.retry.maxDelayMs";
+    public static final String MAX_CONSECUTIVE_FAILURES = "annotator.adaptive.circuitBreaker.maxConsecutiveFailures";
+    public static final String CIRCUIT_BREAKER_RESET_MS = "annotator.adaptive.circuitBreaker.resetMs";
+    public static final String MAX_FAILED_RATIO = "annotator.adaptive.maxFailedRatio";
+
+    private final int minBatchSize;
+    private final int maxBatchSize;
+    private final int batchSizeIncrement;
+    private final int maxConcurrency;
+    private final long targetLatencyNanos;
+    private final int maxRetries;
+    private final long retryBaseDelayMs;
+    private final long retryMaxDelayMs;
+    private final int maxConsecutiveFailures;
+    private final long circuitBreakerResetNanos;
+    private final double maxFailedRatio;
+
+    private final Object lock = new Object();
+    private int batchSize;
+    private int concurrencyLimit;
+    private int inFlight;
+    private int windowSuccesses;
+    private long lastDecreaseNanos;
+    private int consecutiveFailures;
+    private long openUntilNanos;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder failedRequests = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder splits = new LongAdder();
+    private final LongAdder failedElements = new LongAdder();
+
+    private final ExecutorService executor;
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+    private static Logger logger = LoggerFactory.getLogger(AdaptiveRequestController.class);
+
+    /**
+     * Remote request.
+     *
+     * @param <T> Input element
+     * @param <R> Result for each element
+     */
+    @FunctionalInterface
+    public interface Request<T, R> {
+        /**
+         * Send a request.
+         *
+         * @param batch Batch of elements
+         * @return One result per element, in the same order
+         * @throws Exception if the request fails
+         */
+        List<R> call(List<T> batch) throws Exception;
+    }
+
+    public AdaptiveRequestController(ObjectMap options) {
+        minBatchSize = Math.max(1, options.getInt(MIN_BATCH_SIZE, 10));
+        maxBatchSize = Math.max(minBatchSize, options.getInt(MAX_BATCH_SIZE, 1000));
+        batchSizeIncrement = Math.max(1, options.getInt(BATCH_SIZE_INCREMENT, 20));
+        maxConcurrency = Math.max(1, options.getInt(MAX_CONCURRENCY, 32));
+        targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(options.getLong(TARGET_LATENCY_MS, 4000));
+        maxRetries = options.getInt(MAX_RETRIES, 3);
+        retryBaseDelayMs = options.getLong(RETRY_BASE_DELAY_MS, 200);
+        retryMaxDelayMs = options.getLong(RETRY_MAX_DELAY_MS, 10000);
+        maxConsecutiveFailures = Math.max(1, options.getInt(MAX_CONSECUTIVE_FAILURES, 20));
+        circuitBreakerResetNanos = TimeUnit.MILLISECONDS.toNanos(options.getLong(CIRCUIT_BREAKER_RESET_MS, 30000));
+        maxFailedRatio = options.getDouble(MAX_FAILED_RATIO, 0.1);
+
+        batchSize = Math.min(maxBatchSize, Math.max(minBatchSize, options.getInt(BATCH_SIZE, 200)));
+        concurrencyLimit = Math.min(maxConcurrency, Math.max(1, options.getInt(CONCURRENCY, 8)));
+        executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "adaptive-request-" + THREAD_COUNT.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Send all the elements in batches of the current request size, concurrently up to the current concurrency limit.
+     *
+     * @param elements  Elements to send
+     * @param request   Remote request
+     * @param fallback  Result for the elements that fail after all the retries
+     * @param <T>       Input element
+     * @param <R>       Result for each element
+     * @return One result per element, in the same order
+     * @throws InterruptedException if the thread is interrupted
+     * @throws IllegalStateException if the circuit breaker is open, or too many elements failed
+     */
+    public <T, R> List<R> execute(List<T> elements, Request<T, R> request, Function<T, R> fallback) throws InterruptedException {
+        checkCircuitBreaker();
+        AtomicInteger failed = new AtomicInteger();
+        Function<T, R> countingFallback = element -> {
+            failed.incrementAndGet();
+            return fallback.apply(element);
+        };
+        List<Future<List<R>>> futures = new ArrayList<>();
+        int start = 0;
+        while (start < elements.size()) {
+            int end = Math.min(elements.size(), start + getBatchSize());
+            List<T> batch = elements.subList(start, end);
+            futures.add(executor.submit(() -> send(batch, request, countingFallback, true)));
+            start = end;
+        }
+        List<R> results = new ArrayList<>(elements.size());
+        try {
+            for (Future<List<R>> future : futures) {
+                results.addAll(future.get());
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            for (Future<List<R>> future : futures) {
+                future.cancel(true);
+            }
+        }
+        if (failed.get() > elements.size() * maxFailedRatio) {
+            throw new IllegalStateException("Requests failed for " + failed.get() + " out of " + elements.size() + " elements. "
+                    + this);
+        }
+        return results;
+    }
+
+    private <T, R> List<R> send(List<T> batch, Request<T, R> request, Function<T, R> fallback, boolean retry)
+            throws InterruptedException {
+        // Single elements are always retried before giving up
+        int attempts = retry || batch.size() == 1 ? maxRetries + 1 : 1;
+        Exception lastException = null;
+        for (int attempt = 0; attempt < attempts; attempt++) {
+            if (attempt > 0) {
+                retries.increment();
+                backoff(attempt);
+            }
+            acquire();
+            long start = System.nanoTime();
+            try {
+                List<R> results = request.call(batch);
+                if (results == null || results.size() != batch.size()) {
+                    throw new IllegalStateException("Expected " + batch.size() + " results, got "
+                            + (results == null ? null : results.size()));
+                }
+                onSuccess(System.nanoTime() - start);
+                return results;
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                lastException = e;
+                onFailure();
+                logger.debug("Request of {} elements failed: {}", batch.size(), e.getMessage());
+            } finally {
+                release();
+            }
+        }
+
+        if (batch.size() == 1) {
+            failedElements.increment();
+            logger.warn("Request failed after {} attempts for element {}", attempts, batch.get(0), lastException);
+            List<R> results = new ArrayList<>(1);
+            results.add(fallback.apply(batch.get(0)));
+            return results;
+        }
+        // Split the batch to isolate the failing elements
+        splits.increment();
+        int half = batch.size() / 2;
+        List<R> results = new ArrayList<>(batch.size());
+        results.addAll(send(batch.subList(0, half), request, fallback, false));
+        results.addAll(send(batch.subList(half, batch.size()), request, fallback, false));
+        return results;
+    }
+
+    private void checkCircuitBreaker() {
+        synchronized (lock) {
+            if (openUntilNanos != 0 && System.nanoTime() - openUntilNanos < 0) {
+                throw new IllegalStateException("Remote service unavailable after " + consecutiveFailures
+                        + " consecutive failed requests. " + this);
+            }
+        }
+    }
+
+    private void backoff(int attempt) throws InterruptedException {
+        long maxDelay = Math.min(retryMaxDelayMs, retryBaseDelayMs << Math.min(attempt, 20));
+        Thread.sleep(ThreadLocalRandom.current().nextLong(maxDelay + 1));
+    }
+
+    private void acquire() throws InterruptedException {
+        synchronized (lock) {
+            checkCircuitBreaker();
+            while (inFlight >= concurrencyLimit) {
+                lock.wait();
+                checkCircuitBreaker();
+            }
+            inFlight++;
+        }
+    }
+
+    private void release() {
+        synchronized (lock) {
+            inFlight--;
+            lock.notifyAll();
+        }
+    }
+
+    private void onSuccess(long latencyNanos) {
+        requests.increment();
+        synchronized (lock) {
+            consecutiveFailures = 0;
+            openUntilNanos = 0;
+            if (latencyNanos > targetLatencyNanos) {
+                decrease(false);
+            } else {
+                batchSize = Math.min(maxBatchSize, batchSize + batchSizeIncrement);
+                windowSuccesses++;
+                if (windowSuccesses >= concurrencyLimit) {
+                    windowSuccesses = 0;
+                    concurrencyLimit = Math.min(maxConcurrency, concurrencyLimit + 1);
+                    lock.notifyAll();
+                }
+            }
+        }
+    }
+
+    private void onFailure() {
+        requests.increment();
+        failedRequests.increment();
+        synchronized (lock) {
+            consecutiveFailures++;
+            if (consecutiveFailures >= maxConsecutiveFailures) {
+                if (openUntilNanos == 0) {
+                    logger.warn("Open circuit breaker after {} consecutive failed requests", consecutiveFailures);
+                }
+                openUntilNanos = System.nanoTime() + circuitBreakerResetNanos;
+            }
+            decrease(true);
+        }
+    }
+
+    private void decrease(boolean error) {
+        windowSuccesses = 0;
+        long now = System.nanoTime();
+        if (lastDecreaseNanos != 0 && now - lastDecreaseNanos < targetLatencyNanos) {
+            return;
+        }
+        lastDecreaseNanos = now;
+        batchSize = Math.max(minBatchSize, batchSize / 2);
+        if (error) {
+            concurrencyLimit = Math.max(1, concurrencyLimit / 2);
+        }
+        logger.info("Decrease request size to {} and concurrent requests to {} after a {} request",
+                batchSize, concurrencyLimit, error ? "failed" : "slow");
+    }
+
+    /**
+     * Stop the threads sending the requests. Any further execution is rejected.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        logger.debug("Close {}", this);
+    }
+
+    public int getBatchSize() {
+        synchronized (lock) {
+            return batchSize;
+        }
+    }
+
+    public int getConcurrencyLimit() {
+        synchronized (lock) {
+            return concurrencyLimit;
+        }
+    }
+
+    public long getFailedElements() {
+        return failedElements.sum();
+    }
+
+    public int getConsecutiveFailures() {
+        synchronized (lock) {
+            return consecutiveFailures;
+        }
+    }
+
+    public ObjectMap toObjectMap() {
+        return new ObjectMap()
+                .append("batchSize", getBatchSize())
+                .append("concurrencyLimit", getConcurrencyLimit())
+                .append("requests", requests.sum())
+                .append("failedRequests", failedRequests.sum())
+                .append("retries", retries.sum())
+                .append("splits", splits.sum())
+                .append("failedElements", getFailedElements())
+                .append("consecutiveFailures", getConsecutiveFailures());
+    }
+
+    @Override
+    public String toString() {
+        return "AdaptiveRequestController" + toObjectMap();
+    }
+}
@@ -41,9 +41,13 @@ import java.util.stream.Collectors;
  */
 public class CellBaseRestVariantAnnotator extends AbstractCellBaseVariantAnnotator {
     private static final int TIMEOUT = 10000;
+    private static final String FAILED_REQUEST = "CellBase request failed after all the retries";
+    // Adapt the request size and the concurrent requests to the server latency. See AdaptiveRequestController
+    public static final String ANNOTATOR_CELLBASE_ADAPTIVE = "annotator.cellbase.adaptive";
 
     private final CellBaseClient cellBaseClient;
     private final Function<Variant, String> variantSerializer;
+    private final AdaptiveRequestController requestController;
 
     public CellBaseRestVariantAnnotator(StorageConfiguration storageConfiguration, ProjectMetadata projectMetadata, ObjectMap options)
             throws VariantAnnotatorException {
@@ -72,6 +76,14 @@ public class CellBaseRestVariantAnnotator extends AbstractCellBaseVariantAnnotat
                     + ':' + (variant.getReference().isEmpty() ? "-" : variant.getReference())
                     + ':' + (variant.getAlternate().isEmpty() ? "-" : variant.getAlternate());
         }
+
+        if (options.getBoolean(ANNOTATOR_CELLBASE_ADAPTIVE, true)) {
+            ObjectMap controllerOptions = new ObjectMap(AdaptiveRequestController.TARGET_LATENCY_MS, TIMEOUT / 2);
+            controllerOptions.putAll(options);
+            requestController = new AdaptiveRequestController(controllerOptions);
+        } else {
+            requestController = null;
+        }
     }
 
     @Override
@@ -79,13 +91,47 @@ public class CellBaseRestVariantAnnotator extends AbstractCellBaseVariantAnnotat
         if (variants.isEmpty()) {
             return Collections.emptyList();
         }
+        if (requestController == null) {
+            try {
+                return getAnnotations(variants);
+            } catch (IOException e) {
+                throw new VariantAnnotatorException("Error fetching variants from Client");
+            }
+        }
         try {
-            // FIXME getAnnotations has been renamed to getAnnotationByVariantIds
-            QueryResponse<VariantAnnotation> queryResponse = cellBaseClient.getVariantClient()
-                    .getAnnotations(variants.stream().map(variantSerializer).collect(Collectors.toList()), queryOptions, true);
-            return queryResponse.getResponse();
-        } catch (IOException e) {
-            throw new VariantAnnotatorException("Error fetching variants from Client");
+            // Variants failing after all the retries are skipped and reported in the result with an error.
+            // Fails if too many variants fail, or CellBase seems to be down
+            return requestController.execute(variants, this::getAnnotations,
+                    variant -> new QueryResult<>(variant.toString(), 0, 0, 0, null, FAILED_REQUEST, Collections.emptyList()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new VariantAnnotatorException("Interrupted while fetching variants from Client", e);
+        } catch (RuntimeException e) {
+            throw new VariantAnnotatorException("Error fetching variants from Client", e);
+        } finally {
+            logger.debug("CellBase requests : {}", requestController.toObjectMap());
+        }
+    }
+
+    private List<QueryResult<VariantAnnotation>> getAnnotations(List<Variant> variants) throws IOException {
+        // FIXME getAnnotations has been renamed to getAnnotationByVariantIds
+        QueryResponse<VariantAnnotation> queryResponse = cellBaseClient.getVariantClient()
+                .getAnnotations(variants.stream().map(variantSerializer).collect(Collectors.toList()), queryOptions, true);
+        return queryResponse.getResponse();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            if (requestController != null) {
+                if (requestController.getFailedElements() > 0) {
+                    logger.warn("{} variants were not annotated, as the CellBase requests failed after all the retries",
+                            requestController.getFailedElements());
+                }
+                requestController.close();
+            }
         }
     }
 
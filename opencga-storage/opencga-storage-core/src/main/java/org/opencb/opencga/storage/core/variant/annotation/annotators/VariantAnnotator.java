@@ -23,13 +23,14 @@ import org.opencb.opencga.storage.core.config.StorageConfiguration;
 import org.opencb.opencga.storage.core.metadata.ProjectMetadata;
 import org.opencb.opencga.storage.core.variant.annotation.VariantAnnotatorException;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.util.List;
 
 /**
  * Created by jacobo on 9/01/15.
  */
-public abstract class VariantAnnotator {
+public abstract class VariantAnnotator implements Closeable {
 
     public VariantAnnotator(StorageConfiguration configuration, ProjectMetadata projectMetadata, ObjectMap options)
             throws VariantAnnotatorException {
@@ -48,4 +49,13 @@ public abstract class VariantAnnotator {
 
     public abstract List<ObjectMap> getVariantAnnotatorSourceVersion() throws IOException;
 
+    /**
+     * Release the resources used by the annotator.
+     *
+     * @throws IOException if the resources can not be released
+     */
+    @Override
+    public void close() throws IOException {
+    }
+
 }
@@ -0,0 +1,566 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.variant.annotation.cache;
+
+import org.apache.avro.io.*;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.avro.VariantAnnotation;
+import org.opencb.commons.datastore.core.ObjectMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Persistent local cache of variant annotations, keyed by "chr:pos:ref:alt".
+ *
+ * The cache is stored in a directory named after a tag that identifies the annotation source (annotator version,
+ * species and assembly), so annotations from different sources are never mixed. The data is appended to segment
+ * files of limited size, with the annotations serialized in Avro binary format. An in memory index points to the
+ * last copy of each key, and is rebuilt from the segments when the cache is opened.
+ *
+ * The size of the cache is bounded. The least recently used annotations are evicted when the live annotations exceed
+ * 3/4 of the limit. Evicted annotations keep using disk space until their segment is released: segments without live
+ * annotations are removed, and when the files exceed the limit the oldest segment is compacted, copying its live
+ * annotations to the current segment.
+ *
+ * Instances are shared per directory within the JVM. Use {@link #open} to get an instance, and {@link #close} to
+ * release it. All the methods are thread safe. Other processes can not open the same directory at the same time, as the
+ * cache holds an exclusive lock on the file {@value #LOCK_FILE} while open.
+ */
+public class VariantAnnotationCache implements Closeable {
+
+    public static final long DEFAULT_MAX_SIZE = 10L * 1024 * 1024 * 1024;
+    private static final String FORMAT_VERSION = "v1";
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int MIN_SEGMENT_SIZE = 1024 * 1024;
+    private static final int MAX_SEGMENT_SIZE = 256 * 1024 * 1024;
+    private static final String LOCK_FILE = "cache.lock";
+
+    private static final Map<Path, VariantAnnotationCache> OPEN_CACHES = new HashMap<>();
+
+    private final Path dir;
+    private final long maxSize;
+    private final long segmentSize;
+    private final FileChannel lockChannel;
+    // Access ordered, from the least to the most recently used. Guarded by writeLock, as any access modifies the order.
+    private final LinkedHashMap<String, Entry> index = new LinkedHashMap<>(1024, 0.75f, true);
+    private final ConcurrentSkipListMap<Integer, FileChannel> segments = new ConcurrentSkipListMap<>();
+    private final Map<Integer, Segment> segmentEntries = new HashMap<>();
+    private final Object writeLock = new Object();
+    private int currentSegment;
+    private long currentSegmentSize;
+    private long totalSize;
+    private long liveSize;
+    private int references;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder puts = new LongAdder();
+    private final LongAdder evictedSegments = new LongAdder();
+    private final LongAdder evictedEntries = new LongAdder();
+
+    private final ThreadLocal<DatumWriter<VariantAnnotation>> datumWriter =
+            ThreadLocal.withInitial(() -> new SpecificDatumWriter<>(VariantAnnotation.getClassSchema()));
+    private final ThreadLocal<DatumReader<VariantAnnotation>> datumReader =
+            ThreadLocal.withInitial(() -> new SpecificDatumReader<>(VariantAnnotation.getClassSchema()));
+
+    private static Logger logger = LoggerFactory.getLogger(VariantAnnotationCache.class);
+
+    /**
+     * Position of an annotation. Mutable, so compacted entries can be moved without altering the access order.
+     */
+    private static final class Entry {
+        private final String key;
+        private final int recordLength;
+        private final int length;
+        private int segment;
+        private long offset;
+        private boolean live = true;
+
+        private Entry(String key, int segment, long offset, int length, int recordLength) {
+            this.key = key;
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.recordLength = recordLength;
+        }
+    }
+
+    /**
+     * Entries written in a segment, and size of the ones still live.
+     */
+    private static final class Segment {
+        private final List<Entry> entries = new ArrayList<>();
+        private long liveSize;
+    }
+
+    protected VariantAnnotationCache(Path dir, long maxSize) throws IOException {
+        this.dir = dir;
+        this.maxSize = maxSize;
+        segmentSize = Math.max(MIN_SEGMENT_SIZE, Math.min(MAX_SEGMENT_SIZE, maxSize / 16));
+        Files.createDirectories(dir);
+        lockChannel = lock(dir);
+        try {
+            load();
+        } catch (IOException | RuntimeException e) {
+            try {
+                closeSegments();
+            } finally {
+                lockChannel.close();
+            }
+            throw e;
+        }
+    }
+
+    private static FileChannel lock(Path dir) throws IOException {
+        FileChannel channel = FileChannel.open(dir.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // Already locked by another instance of this JVM
+            lock = null;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        if (lock == null) {
+            channel.close();
+            throw new IOException("Variant annotation cache " + dir + " is in use by another process");
+        }
+        // The lock is released when closing the channel
+        return channel;
+    }
+
+    /**
+     * Open a cache, or get the already opened instance for the same directory.
+     *
+     * @param baseDir Base directory of the cache
+     * @param tag     Annotation source. Annotator version, species and assembly.
+     * @param maxSize Maximum size of the cache, in bytes
+     * @return Cache instance
+     * @throws IOException if the cache can not be opened
+     */
+    public static VariantAnnotationCache open(Path baseDir, String tag, long maxSize) throws IOException {
+        Path dir = baseDir.resolve(FORMAT_VERSION).resolve(tag.replaceAll("[^a-zA-Z0-9._-]", "_")).toAbsolutePath().normalize();
+        synchronized (OPEN_CACHES) {
+            VariantAnnotationCache cache = OPEN_CACHES.get(dir);
+            if (cache == null) {
+                cache = new VariantAnnotationCache(dir, maxSize);
+                OPEN_CACHES.put(dir, cache);
+            }
+            cache.references++;
+            return cache;
+        }
+    }
+
+    /**
+     * Build the cache key of a variant.
+     * Structural variants use the full variant string, as "chr:pos:ref:alt" does not identify them.
+     *
+     * @param variant Variant
+     * @return Key "chr:pos:ref:alt"
+     */
+    public static String key(Variant variant) {
+        if (variant.isSV()) {
+            return variant.toString();
+        }
+        return variant.getChromosome() + ':' + variant.getStart() + ':' + variant.getReference() + ':' + variant.getAlternate();
+    }
+
+    /**
+     * Build the cache key of an annotation.
+     *
+     * @param annotation Variant annotation
+     * @return Key "chr:pos:ref:alt"
+     */
+    public static String key(VariantAnnotation annotation) {
+        return annotation.getChromosome() + ':' + annotation.getStart() + ':' + annotation.getReference() + ':'
+                + annotation.getAlternate();
+    }
+
+    /**
+     * Get an annotation from the cache.
+     *
+     * @param key Variant key
+     * @return Cached annotation, or null if missing
+     * @throws IOException if the annotation can not be read
+     */
+    public VariantAnnotation get(String key) throws IOException {
+        int segment;
+        long offset;
+        int length;
+        synchronized (writeLock) {
+            Entry entry = index.get(key);
+            if (entry == null) {
+                misses.increment();
+                return null;
+            }
+            segment = entry.segment;
+            offset = entry.offset;
+            length = entry.length;
+        }
+        FileChannel channel = segments.get(segment);
+        if (channel != null) {
+            try {
+                ByteBuffer buffer = ByteBuffer.allocate(length);
+                readFully(channel, buffer, offset);
+                BinaryDecoder decoder = DecoderFactory.get().binaryDecoder(buffer.array(), null);
+                VariantAnnotation annotation = datumReader.get().read(null, decoder);
+                hits.increment();
+                return annotation;
+            } catch (ClosedChannelException e) {
+                // Segment released while reading.
+                logger.debug("Segment {} released", segment);
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Add an annotation to the cache.
+     *
+     * @param annotation Variant annotation
+     * @throws IOException if the annotation can not be written
+     */
+    public void put(VariantAnnotation annotation) throws IOException {
+        put(key(annotation), annotation);
+    }
+
+    /**
+     * Add an annotation to the cache.
+     *
+     * @param key        Variant key
+     * @param annotation Variant annotation
+     * @throws IOException if the annotation can not be written
+     */
+    public void put(String key, VariantAnnotation annotation) throws IOException {
+        synchronized (writeLock) {
+            if (index.containsKey(key)) {
+                return;
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+        BinaryEncoder encoder = EncoderFactory.get().directBinaryEncoder(out, null);
+        datumWriter.get().write(annotation, encoder);
+        encoder.flush();
+        byte[] value = out.toByteArray();
+
+        synchronized (writeLock) {
+            if (index.containsKey(key)) {
+                return;
+            }
+            long offset = append(key, value);
+            Entry entry = new Entry(key, currentSegment, offset, value.length, recordLength(key, value));
+            addEntry(entry);
+            index.put(key, entry);
+            puts.increment();
+            evict();
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public double getHitRate() {
+        long numHits = getHits();
+        long total = numHits + getMisses();
+        return total == 0 ? 0 : ((double) numHits) / total;
+    }
+
+    public long getPuts() {
+        return puts.sum();
+    }
+
+    public long getEvictedEntries() {
+        return evictedEntries.sum();
+    }
+
+    public int size() {
+        synchronized (writeLock) {
+            return index.size();
+        }
+    }
+
+    public long getSizeBytes() {
+        synchronized (writeLock) {
+            return totalSize;
+        }
+    }
+
+    public Path getDir() {
+        return dir;
+    }
+
+    public ObjectMap toObjectMap() {
+        return new ObjectMap()
+                .append("dir", dir.toString())
+                .append("entries", size())
+                .append("sizeBytes", getSizeBytes())
+                .append("hits", getHits())
+                .append("misses", getMisses())
+                .append("hitRate", getHitRate())
+                .append("puts", getPuts())
+                .append("evictedSegments", evictedSegments.sum())
+                .append("evictedEntries", getEvictedEntries());
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (OPEN_CACHES) {
+            references--;
+            if (references > 0) {
+                return;
+            }
+            OPEN_CACHES.remove(dir);
+        }
+        logger.info("Close variant annotation cache {}", toObjectMap());
+        try {
+            closeSegments();
+        } finally {
+            lockChannel.close();
+        }
+    }
+
+    private void closeSegments() throws IOException {
+        synchronized (writeLock) {
+            for (FileChannel channel : segments.values()) {
+                channel.close();
+            }
+            segments.clear();
+            segmentEntries.clear();
+            index.clear();
+        }
+    }
+
+    private void load() throws IOException {
+        List<Integer> segmentIds = new ArrayList<>();
+        try (Stream<Path> stream = Files.list(dir)) {
+            stream.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+                    .forEach(name -> segmentIds.add(Integer.valueOf(
+                            name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()))));
+        }
+        Collections.sort(segmentIds);
+        for (Integer segmentId : segmentIds) {
+            long size = loadSegment(segmentId);
+            totalSize += size;
+            currentSegment = segmentId;
+            currentSegmentSize = size;
+        }
+        if (segments.isEmpty()) {
+            newSegment();
+        }
+        logger.info("Open variant annotation cache at {} with {} annotations in {} segments ({}B)",
+                dir, index.size(), segments.size(), totalSize);
+        evict();
+    }
+
+    private long loadSegment(int segmentId) throws IOException {
+        Path path = segmentPath(segmentId);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long offset = 0;
+        long fileSize = channel.size();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            while (offset + Integer.BYTES <= fileSize) {
+                int keyLength = in.readInt();
+                if (offset + Integer.BYTES * 2 + keyLength > fileSize) {
+                    break;
+                }
+                byte[] key = new byte[keyLength];
+                in.readFully(key);
+                int valueLength = in.readInt();
+                long valueOffset = offset + Integer.BYTES * 2 + keyLength;
+                if (valueOffset + valueLength > fileSize) {
+                    break;
+                }
+                skipFully(in, valueLength);
+                String keyStr = new String(key, StandardCharsets.UTF_8);
+                Entry entry = new Entry(keyStr, segmentId, valueOffset, valueLength, Integer.BYTES * 2 + keyLength + valueLength);
+                addEntry(entry);
+                Entry previous = index.put(keyStr, entry);
+                if (previous != null) {
+                    removeEntry(previous);
+                }
+                offset = valueOffset + valueLength;
+            }
+        }
+        if (offset < fileSize) {
+            // Incomplete record at the end of the segment. Discard.
+            logger.warn("Discard incomplete record at the end of cache segment {}", path);
+            channel.truncate(offset);
+        }
+        segments.put(segmentId, channel);
+        segmentEntries.computeIfAbsent(segmentId, id -> new Segment());
+        return offset;
+    }
+
+    private void newSegment() throws IOException {
+        int segmentId = segments.isEmpty() ? 0 : segments.lastKey() + 1;
+        FileChannel channel = FileChannel.open(segmentPath(segmentId),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segments.put(segmentId, channel);
+        segmentEntries.put(segmentId, new Segment());
+        currentSegment = segmentId;
+        currentSegmentSize = 0;
+    }
+
+    private static int recordLength(String key, byte[] value) {
+        return Integer.BYTES * 2 + key.getBytes(StandardCharsets.UTF_8).length + value.length;
+    }
+
+    /**
+     * Append a record to the current segment. Must be called holding the writeLock.
+     *
+     * @return Offset of the value, in the current segment
+     */
+    private long append(String key, byte[] value) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(Integer.BYTES * 2 + keyBytes.length + value.length);
+        record.putInt(keyBytes.length).put(keyBytes).putInt(value.length).put(value);
+        record.flip();
+
+        if (currentSegmentSize >= segmentSize) {
+            newSegment();
+        }
+        long offset = currentSegmentSize;
+        FileChannel channel = segments.get(currentSegment);
+        while (record.hasRemaining()) {
+            currentSegmentSize += channel.write(record, currentSegmentSize);
+        }
+        totalSize += record.limit();
+        return offset + Integer.BYTES * 2 + keyBytes.length;
+    }
+
+    private void addEntry(Entry entry) {
+        Segment segment = segmentEntries.computeIfAbsent(entry.segment, id -> new Segment());
+        segment.entries.add(entry);
+        segment.liveSize += entry.recordLength;
+        liveSize += entry.recordLength;
+    }
+
+    /**
+     * Mark an entry as removed from the index. Must be called holding the writeLock.
+     */
+    private void removeEntry(Entry entry) {
+        entry.live = false;
+        segmentEntries.get(entry.segment).liveSize -= entry.recordLength;
+        liveSize -= entry.recordLength;
+    }
+
+    private void evict() throws IOException {
+        // Least recently used annotations first
+        boolean evicted = false;
+        Iterator<Entry> iterator = index.values().iterator();
+        while (liveSize > maxSize / 4 * 3 && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            iterator.remove();
+            removeEntry(entry);
+            evictedEntries.increment();
+            evicted = true;
+        }
+        if (evicted) {
+            // Release the segments without live annotations
+            for (Integer segmentId : new ArrayList<>(segmentEntries.keySet())) {
+                if (segmentId != currentSegment && segmentEntries.get(segmentId).liveSize == 0) {
+                    releaseSegment(segmentId);
+                }
+            }
+        }
+        // Reclaim the space of the evicted annotations
+        int maxCompactions = segments.size() - 1;
+        while (totalSize > maxSize && segments.size() > 1 && maxCompactions-- > 0) {
+            compactSegment(segments.firstKey());
+        }
+    }
+
+    /**
+     * Copy the live annotations of a segment to the current segment, and release it.
+     */
+    private void compactSegment(int segmentId) throws IOException {
+        FileChannel channel = segments.get(segmentId);
+        for (Entry entry : segmentEntries.get(segmentId).entries) {
+            if (entry.live) {
+                ByteBuffer buffer = ByteBuffer.allocate(entry.length);
+                readFully(channel, buffer, entry.offset);
+                removeEntry(entry);
+                // Move in place, so the position in the access order is kept
+                long offset = append(entry.key, buffer.array());
+                entry.segment = currentSegment;
+                entry.offset = offset;
+                entry.live = true;
+                addEntry(entry);
+            }
+        }
+        releaseSegment(segmentId);
+    }
+
+    private void releaseSegment(int segmentId) throws IOException {
+        FileChannel channel = segments.remove(segmentId);
+        segmentEntries.remove(segmentId);
+        totalSize -= channel.size();
+        channel.close();
+        Files.deleteIfExists(segmentPath(segmentId));
+        evictedSegments.increment();
+        logger.debug("Released cache segment {}", segmentId);
+    }
+
+    private Path segmentPath(int segmentId) {
+        return dir.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, segmentId, SEGMENT_SUFFIX));
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new EOFException("Unexpected end of cache segment");
+            }
+        }
+    }
+
+    private static void skipFully(DataInputStream in, int n) throws IOException {
+        int remaining = n;
+        while (remaining > 0) {
+            int skipped = in.skipBytes(remaining);
+            if (skipped <= 0) {
+                throw new EOFException();
+            }
+            remaining -= skipped;
+        }
+    }
+}
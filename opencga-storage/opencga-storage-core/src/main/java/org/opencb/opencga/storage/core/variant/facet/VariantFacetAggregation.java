@@ -0,0 +1,376 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.variant.facet;
+
+import org.apache.commons.lang3.StringUtils;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.commons.datastore.core.result.FacetedQueryResultItem;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryException;
+import org.opencb.opencga.storage.core.variant.search.VariantSearchModel;
+
+import java.util.*;
+
+import static org.opencb.opencga.storage.core.variant.search.solr.VariantSearchUtils.toInclude;
+import static org.opencb.opencga.storage.core.variant.search.solr.VariantSearchUtils.updateValueIfSoAcc;
+
+/**
+ * Partial aggregation of a set of facets over a stream of variants.
+ *
+ * Each thread aggregates the variants of one partition, and the partial aggregations are merged at the end.
+ * Not thread safe.
+ */
+public class VariantFacetAggregation {
+
+    private final List<FieldFacet> fieldFacets;
+    private final List<RangeFacet> rangeFacets;
+    private final List<Map<String, Node>> fieldCounts;
+    private final List<long[]> rangeCounts;
+    private long count;
+
+    /**
+     * Categorical facet over one field, with an optional nested facet. Format: field_name[includes]:skip:limit
+     * Nested facets are separated by "&gt;&gt;", e.g.: biotypes&gt;&gt;soAcc
+     */
+    public static class FieldFacet {
+        public static final int DEFAULT_LIMIT = 100;
+
+        private final String name;
+        private final int skip;
+        private final int limit;
+        private final FieldFacet nested;
+
+        public FieldFacet(String name, int skip, int limit, FieldFacet nested) {
+            this.name = name;
+            this.skip = skip;
+            this.limit = limit;
+            this.nested = nested;
+        }
+
+        public static FieldFacet parse(String facet) {
+            FieldFacet fieldFacet = null;
+            String[] split = facet.split(">>");
+            for (int i = split.length - 1; i >= 0; i--) {
+                fieldFacet = parseField(split[i], fieldFacet);
+            }
+            return fieldFacet;
+        }
+
+        private static FieldFacet parseField(String field, FieldFacet nested) {
+            String name;
+            String[] skipLimit;
+            String[] splits1 = field.split("[\\[\\]]");
+            if (splits1.length == 1) {
+                skipLimit = field.split(":");
+                name = skipLimit[0];
+            } else {
+                name = splits1[0];
+                skipLimit = splits1.length >= 3 ? splits1[2].split(":") : new String[0];
+            }
+            if (!VariantFacetFields.isValid(name)) {
+                throw new VariantQueryException("Unknown facet field '" + name + "'");
+            }
+            int skip = 0;
+            int limit = DEFAULT_LIMIT;
+            try {
+                if (skipLimit.length >= 2 && StringUtils.isNotEmpty(skipLimit[1])) {
+                    skip = Integer.parseInt(skipLimit[1]);
+                }
+                if (skipLimit.length >= 3 && StringUtils.isNotEmpty(skipLimit[2])) {
+                    limit = Integer.parseInt(skipLimit[2]);
+                }
+            } catch (NumberFormatException e) {
+                throw new VariantQueryException("Malformed facet '" + field + "'. Expected format: field_name[includes]:skip:limit", e);
+            }
+            return new FieldFacet(name, skip, limit, nested);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getSkip() {
+            return skip;
+        }
+
+        public int getLimit() {
+            return limit;
+        }
+
+        public FieldFacet getNested() {
+            return nested;
+        }
+
+        @Override
+        public String toString() {
+            return name + "[]:" + skip + ':' + limit + (nested == null ? "" : ">>" + nested);
+        }
+    }
+
+    /**
+     * Numeric range facet. Format: field_name:start:end:gap, e.g.: sift:0:1:0.2
+     * Buckets include the lower bound. The last bucket ends at the first multiple of the gap after the end.
+     */
+    public static class RangeFacet {
+        private final String name;
+        private final Number start;
+        private final Number end;
+        private final Number gap;
+        private final int numBuckets;
+
+        public RangeFacet(String name, Number start, Number end, Number gap) {
+            if (gap.doubleValue() <= 0) {
+                throw new VariantQueryException("Malformed facet range '" + name + "'. Gap must be positive");
+            }
+            this.name = name;
+            this.start = start;
+            this.end = end;
+            this.gap = gap;
+            this.numBuckets = Math.max(0, (int) Math.ceil((end.doubleValue() - start.doubleValue()) / gap.doubleValue()));
+        }
+
+        /**
+         * Parse a range facet.
+         *
+         * @param range Range facet, as field_name:start:end:gap
+         * @return Parsed range facet. Null if malformed
+         */
+        public static RangeFacet parse(String range) {
+            String[] split = range.split(":");
+            if (split.length != 4) {
+                return null;
+            }
+            if (!VariantFacetFields.isValid(split[0])) {
+                throw new VariantQueryException("Unknown facet field '" + split[0] + "'");
+            }
+            try {
+                if (("start").equals(split[0])) {
+                    return new RangeFacet(split[0], Integer.parseInt(split[1]), Integer.parseInt(split[2]), Integer.parseInt(split[3]));
+                } else {
+                    return new RangeFacet(split[0], Double.parseDouble(split[1]), Double.parseDouble(split[2]),
+                            Double.parseDouble(split[3]));
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        private int getBucket(Object value) {
+            if (!(value instanceof Number)) {
+                return -1;
+            }
+            double v = ((Number) value).doubleValue();
+            if (v < start.doubleValue()) {
+                return -1;
+            }
+            int bucket = (int) Math.floor((v - start.doubleValue()) / gap.doubleValue());
+            return bucket < numBuckets ? bucket : -1;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public String toString() {
+            return name + ':' + start + ':' + end + ':' + gap;
+        }
+    }
+
+    private static final class Node {
+        private long count;
+        private Map<String, Node> nested;
+    }
+
+    public VariantFacetAggregation(List<FieldFacet> fieldFacets, List<RangeFacet> rangeFacets) {
+        this.fieldFacets = fieldFacets;
+        this.rangeFacets = rangeFacets;
+        this.fieldCounts = new ArrayList<>(fieldFacets.size());
+        for (int i = 0; i < fieldFacets.size(); i++) {
+            fieldCounts.add(new HashMap<>());
+        }
+        this.rangeCounts = new ArrayList<>(rangeFacets.size());
+        for (RangeFacet rangeFacet : rangeFacets) {
+            rangeCounts.add(new long[rangeFacet.numBuckets]);
+        }
+    }
+
+    /**
+     * Create a new empty aggregation with the same facets.
+     *
+     * @return Empty aggregation
+     */
+    public VariantFacetAggregation newAggregation() {
+        return new VariantFacetAggregation(fieldFacets, rangeFacets);
+    }
+
+    public void add(VariantSearchModel model, Variant variant) {
+        count++;
+        for (int i = 0; i < fieldFacets.size(); i++) {
+            add(fieldCounts.get(i), fieldFacets.get(i), model, variant);
+        }
+        for (int i = 0; i < rangeFacets.size(); i++) {
+            RangeFacet rangeFacet = rangeFacets.get(i);
+            long[] counts = rangeCounts.get(i);
+            Collection<Object> values = VariantFacetFields.getValues(rangeFacet.name, model, variant);
+            if (values.size() == 1) {
+                int bucket = rangeFacet.getBucket(values.iterator().next());
+                if (bucket >= 0) {
+                    counts[bucket]++;
+                }
+            } else {
+                // Count each bucket only once per variant
+                Set<Integer> buckets = new HashSet<>();
+                for (Object value : values) {
+                    int bucket = rangeFacet.getBucket(value);
+                    if (bucket >= 0 && buckets.add(bucket)) {
+                        counts[bucket]++;
+                    }
+                }
+            }
+        }
+    }
+
+    private void add(Map<String, Node> counts, FieldFacet facet, VariantSearchModel model, Variant variant) {
+        for (Object value : VariantFacetFields.getValues(facet.name, model, variant)) {
+            Node node = counts.computeIfAbsent(value.toString(), key -> new Node());
+            node.count++;
+            if (facet.nested != null) {
+                if (node.nested == null) {
+                    node.nested = new HashMap<>();
+                }
+                add(node.nested, facet.nested, model, variant);
+            }
+        }
+    }
+
+    /**
+     * Merge another partial aggregation of the same facets into this one. The other aggregation can not be used after this.
+     *
+     * @param other Partial aggregation
+     * @return this
+     */
+    public VariantFacetAggregation merge(VariantFacetAggregation other) {
+        count += other.count;
+        for (int i = 0; i < fieldCounts.size(); i++) {
+            merge(fieldCounts.get(i), other.fieldCounts.get(i));
+        }
+        for (int i = 0; i < rangeCounts.size(); i++) {
+            long[] counts = rangeCounts.get(i);
+            long[] otherCounts = other.rangeCounts.get(i);
+            for (int bucket = 0; bucket < counts.length; bucket++) {
+                counts[bucket] += otherCounts[bucket];
+            }
+        }
+        return this;
+    }
+
+    private static void merge(Map<String, Node> counts, Map<String, Node> otherCounts) {
+        for (Map.Entry<String, Node> entry : otherCounts.entrySet()) {
+            Node otherNode = entry.getValue();
+            Node node = counts.get(entry.getKey());
+            if (node == null) {
+                counts.put(entry.getKey(), otherNode);
+            } else {
+                node.count += otherNode.count;
+                if (otherNode.nested != null) {
+                    if (node.nested == null) {
+                        node.nested = otherNode.nested;
+                    } else {
+                        merge(node.nested, otherNode.nested);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Build the result, with the same shape as the facets from the search engine.
+     *
+     * Values are sorted by count, and then skip and limit are applied. The total of each field is the sum of the
+     * returned counts. Ensembl genes and transcripts are discarded from the "genes" field.
+     *
+     * @param includes Values to include by field name
+     * @return FacetedQueryResultItem
+     */
+    public FacetedQueryResultItem toFacetedQueryResultItem(Map<String, Set<String>> includes) {
+        List<FacetedQueryResultItem.Field> fields = new ArrayList<>(fieldFacets.size());
+        for (int i = 0; i < fieldFacets.size(); i++) {
+            fields.add(toField(fieldFacets.get(i), fieldCounts.get(i), includes));
+        }
+
+        List<FacetedQueryResultItem.Range> ranges = new ArrayList<>(rangeFacets.size());
+        for (int i = 0; i < rangeFacets.size(); i++) {
+            RangeFacet rangeFacet = rangeFacets.get(i);
+            List<Long> counts = new ArrayList<>(rangeFacet.numBuckets);
+            long total = 0;
+            for (long c : rangeCounts.get(i)) {
+                total += c;
+                counts.add(c);
+            }
+            ranges.add(new FacetedQueryResultItem().new Range(rangeFacet.name, rangeFacet.start, rangeFacet.end, rangeFacet.gap,
+                    total, counts));
+        }
+
+        return new FacetedQueryResultItem(fields, ranges, new ArrayList<>());
+    }
+
+    private FacetedQueryResultItem.Field toField(FieldFacet facet, Map<String, Node> counts, Map<String, Set<String>> includes) {
+        List<Map.Entry<String, Node>> entries = new ArrayList<>(counts.entrySet());
+        entries.sort((a, b) -> {
+            int compare = Long.compare(b.getValue().count, a.getValue().count);
+            return compare == 0 ? a.getKey().compareTo(b.getKey()) : compare;
+        });
+        int from = Math.min(facet.skip, entries.size());
+        int to = facet.limit < 0 ? entries.size() : (int) Math.min((long) from + facet.limit, entries.size());
+
+        FacetedQueryResultItem.Field field = new FacetedQueryResultItem().new Field();
+        field.setName(facet.name);
+        long total = 0;
+        List<FacetedQueryResultItem.Count> fieldCounts = new ArrayList<>();
+        for (Map.Entry<String, Node> entry : entries.subList(from, to)) {
+            String value = entry.getKey();
+            Node node = entry.getValue();
+            // Discard Ensembl genes and transcripts
+            if (!("genes").equals(facet.name) || (!value.startsWith("ENSG0") && !value.startsWith("ENST0"))) {
+                if (toInclude(includes, facet.name, value)) {
+                    FacetedQueryResultItem.Field nestedField = null;
+                    if (facet.nested != null && node.nested != null && !node.nested.isEmpty()) {
+                        nestedField = toField(facet.nested, node.nested, includes);
+                    }
+                    fieldCounts.add(new FacetedQueryResultItem().new Count(updateValueIfSoAcc(facet.name, value), node.count,
+                            nestedField));
+                }
+                total += node.count;
+            }
+        }
+        field.setTotal(total);
+        field.setCounts(fieldCounts);
+        return field;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public List<FieldFacet> getFieldFacets() {
+        return fieldFacets;
+    }
+
+    public List<RangeFacet> getRangeFacets() {
+        return rangeFacets;
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.variant.facet;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.time.StopWatch;
+import org.opencb.biodata.models.core.Region;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.commons.datastore.core.Query;
+import org.opencb.commons.datastore.core.QueryOptions;
+import org.opencb.commons.datastore.core.result.FacetedQueryResult;
+import org.opencb.commons.datastore.core.result.FacetedQueryResultItem;
+import org.opencb.opencga.storage.core.exceptions.StorageEngineException;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantField;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantIterable;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryException;
+import org.opencb.opencga.storage.core.variant.adaptors.iterators.VariantDBIterator;
+import org.opencb.opencga.storage.core.variant.search.VariantSearchToVariantConverter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.opencb.opencga.storage.core.variant.adaptors.VariantQueryParam.*;
+import static org.opencb.opencga.storage.core.variant.adaptors.VariantQueryUtils.NONE;
+import static org.opencb.opencga.storage.core.variant.adaptors.VariantQueryUtils.isValidParam;
+import static org.opencb.opencga.storage.core.variant.search.solr.VariantSearchUtils.getIncludeMap;
+
+/**
+ * Computes facets streaming the variants from the storage, without the search engine.
+ *
+ * Accepts the same facets as the search engine (see {@link VariantFacetFields}), and returns a result with the same shape:
+ * <ul>
+ *     <li>{@link QueryOptions#FACET}: fields separated by ";". Nested fields separated by "&gt;&gt;", e.g. biotypes&gt;&gt;soAcc.
+ *         Ranges as field_name:start:end:gap, e.g. popFreq__1kG_phase3__ALL:0:1:0.1</li>
+ *     <li>{@link QueryOptions#FACET_RANGE}: ranges separated by ";"</li>
+ * </ul>
+ * Intersections are not supported.
+ *
+ * The variants are read with a minimal projection, and converted to the search model. If the query is filtered by
+ * region, each region is a partition, and large regions are split in partitions of a fixed size. Without region, each
+ * chromosome is a partition. Partitions are aggregated in parallel, and the partial aggregations are merged. A variant
+ * returned by more than one partition is counted only in the first partition containing its start.
+ *
+ * The whole computation is limited by the {@link QueryOptions#TIMEOUT}, if any.
+ */
+public class VariantFacetEngine {
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+    private static final int DEADLINE_CHECK_INTERVAL = 1000;
+
+    private final VariantIterable iterable;
+    private final Supplier<List<String>> chromosomes;
+    private final int parallelism;
+    private final int partitionSize;
+    private final Logger logger = LoggerFactory.getLogger(VariantFacetEngine.class);
+
+    /**
+     * Create a new VariantFacetEngine.
+     *
+     * @param iterable      Source of variants
+     * @param parallelism   Max number of partitions aggregated in parallel
+     * @param partitionSize Max size in bases of each partition. Zero or negative to not split the regions
+     */
+    public VariantFacetEngine(VariantIterable iterable, int parallelism, int partitionSize) {
+        this(iterable, Collections::emptyList, parallelism, partitionSize);
+    }
+
+    /**
+     * Create a new VariantFacetEngine.
+     *
+     * @param iterable      Source of variants
+     * @param chromosomes   Chromosomes with variants, to partition the queries without region. Empty if unknown
+     * @param parallelism   Max number of partitions aggregated in parallel
+     * @param partitionSize Max size in bases of each partition. Zero or negative to not split the regions
+     */
+    public VariantFacetEngine(VariantIterable iterable, Supplier<List<String>> chromosomes, int parallelism, int partitionSize) {
+        this.iterable = iterable;
+        this.chromosomes = chromosomes;
+        this.parallelism = parallelism;
+        this.partitionSize = partitionSize;
+    }
+
+    public FacetedQueryResult facet(Query query, QueryOptions options) throws StorageEngineException {
+        StopWatch stopWatch = StopWatch.createStarted();
+        VariantFacetAggregation aggregation = parseFacets(options);
+
+        Query projectionQuery = new Query(query);
+        QueryOptions projection = getProjection(aggregation, projectionQuery);
+        int timeout = options.getInt(QueryOptions.TIMEOUT, 0);
+        long deadline = Long.MAX_VALUE;
+        if (timeout > 0) {
+            projection.put(QueryOptions.TIMEOUT, timeout);
+            deadline = System.currentTimeMillis() + timeout;
+        }
+        List<Region> partitions = getPartitions(query);
+        logger.debug("Facet {} over {} partitions, with projection {}", options.getString(QueryOptions.FACET),
+                partitions.size(), projection.getString(QueryOptions.INCLUDE));
+
+        if (partitions.isEmpty()) {
+            aggregate(aggregation, projectionQuery, projection, partitions, -1, deadline, timeout);
+        } else if (partitions.size() == 1 || parallelism <= 1) {
+            for (int i = 0; i < partitions.size(); i++) {
+                aggregate(aggregation, projectionQuery, projection, partitions, i, deadline, timeout);
+            }
+        } else {
+            ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, partitions.size()), r -> {
+                Thread thread = new Thread(r, "variant-facet-" + THREAD_COUNT.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            try {
+                List<Future<VariantFacetAggregation>> futures = new ArrayList<>(partitions.size());
+                long finalDeadline = deadline;
+                for (int i = 0; i < partitions.size(); i++) {
+                    int partition = i;
+                    futures.add(executor.submit(() -> aggregate(aggregation.newAggregation(), projectionQuery, projection,
+                            partitions, partition, finalDeadline, timeout)));
+                }
+                // Merge in order
+                for (Future<VariantFacetAggregation> future : futures) {
+                    if (timeout > 0) {
+                        aggregation.merge(future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS));
+                    } else {
+                        aggregation.merge(future.get());
+                    }
+                }
+            } catch (TimeoutException e) {
+                throw timeoutException(timeout);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new StorageEngineException("Interrupted while computing facets", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                } else if (e.getCause() instanceof StorageEngineException) {
+                    throw (StorageEngineException) e.getCause();
+                }
+                throw new StorageEngineException("Error computing facets", e.getCause());
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        FacetedQueryResultItem item = aggregation.toFacetedQueryResultItem(getIncludeMap(options));
+        return new FacetedQueryResult("", (int) stopWatch.getTime(), 1, 1, "Faceted data from the variant storage", "", item);
+    }
+
+    private VariantFacetAggregation aggregate(VariantFacetAggregation aggregation, Query query, QueryOptions projection,
+                                              List<Region> partitions, int partition, long deadline, int timeout)
+            throws StorageEngineException {
+        if (System.currentTimeMillis() > deadline) {
+            throw timeoutException(timeout);
+        }
+        if (partition >= 0) {
+            query = new Query(query);
+            query.put(REGION.key(), partitions.get(partition).toString());
+        }
+        VariantSearchToVariantConverter converter = new VariantSearchToVariantConverter();
+        int count = 0;
+        try (VariantDBIterator iterator = iterable.iterator(query, projection)) {
+            while (iterator.hasNext()) {
+                Variant variant = iterator.next();
+                if (partition < 0 || isFirstPartition(partitions, partition, variant)) {
+                    aggregation.add(converter.convertToStorageType(variant), variant);
+                }
+                if (++count % DEADLINE_CHECK_INTERVAL == 0 && System.currentTimeMillis() > deadline) {
+                    throw timeoutException(timeout);
+                }
+            }
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new StorageEngineException("Error reading variants from " + query.toJson(), e);
+        }
+        return aggregation;
+    }
+
+    /**
+     * Check if the given partition is the first one containing the start of the variant. Variants starting out of all the
+     * partitions (i.e. returned because they overlap a partition) are counted in the first partition they overlap.
+     *
+     * @param partitions All the partitions
+     * @param partition  Partition returning the variant
+     * @param variant    Variant
+     * @return If the variant has to be counted in this partition
+     */
+    protected static boolean isFirstPartition(List<Region> partitions, int partition, Variant variant) {
+        for (int i = 0; i < partitions.size(); i++) {
+            Region region = partitions.get(i);
+            if (region.getChromosome().equals(variant.getChromosome())
+                    && region.getStart() <= variant.getStart() && variant.getStart() <= region.getEnd()) {
+                return i == partition;
+            }
+        }
+        for (int i = 0; i < partition; i++) {
+            if (partitions.get(i).overlaps(variant.getChromosome(), variant.getStart(), variant.getEnd())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static VariantQueryException timeoutException(int timeout) {
+        return new VariantQueryException("Timeout computing facets from the variant storage after " + timeout + "ms. "
+                + "Narrow the query with a region, or use the search engine");
+    }
+
+    public static VariantFacetAggregation parseFacets(QueryOptions options) {
+        List<VariantFacetAggregation.FieldFacet> fieldFacets = new ArrayList<>();
+        List<VariantFacetAggregation.RangeFacet> rangeFacets = new ArrayList<>();
+        List<String> ranges = new ArrayList<>();
+        if (StringUtils.isNotEmpty(options.getString(QueryOptions.FACET))) {
+            for (String facet : options.getString(QueryOptions.FACET).split(";")) {
+                if (facet.contains("^")) {
+                    throw new VariantQueryException("Facet intersections are only supported by the search engine. Found '"
+                            + facet + "'");
+                } else if (facet.contains(":") && !facet.contains("[")) {
+                    ranges.add(facet);
+                } else {
+                    fieldFacets.add(VariantFacetAggregation.FieldFacet.parse(facet));
+                }
+            }
+        }
+        if (StringUtils.isNotEmpty(options.getString(QueryOptions.FACET_RANGE))) {
+            ranges.addAll(Arrays.asList(options.getString(QueryOptions.FACET_RANGE).split(";")));
+        }
+        for (String range : ranges) {
+            VariantFacetAggregation.RangeFacet rangeFacet = VariantFacetAggregation.RangeFacet.parse(range);
+            if (rangeFacet == null) {
+                throw new VariantQueryException("Facet range '" + range + "' malformed. Range format is 'name:start:end:gap'"
+                        + " where start, end and gap values are numbers.");
+            }
+            rangeFacets.add(rangeFacet);
+        }
+        return new VariantFacetAggregation(fieldFacets, rangeFacets);
+    }
+
+    /**
+     * Get the minimal projection to compute the facets. Samples are never returned. Files are only returned for QUAL.
+     *
+     * @param aggregation Facets to compute
+     * @param query       Query to modify with the samples and files to return
+     * @return QueryOptions with the fields to include
+     */
+    protected static QueryOptions getProjection(VariantFacetAggregation aggregation, Query query) {
+        Set<VariantField> include = new LinkedHashSet<>(Arrays.asList(VariantField.ID, VariantField.CHROMOSOME, VariantField.START,
+                VariantField.END, VariantField.REFERENCE, VariantField.ALTERNATE, VariantField.TYPE));
+        List<String> fields = new ArrayList<>();
+        for (VariantFacetAggregation.FieldFacet fieldFacet : aggregation.getFieldFacets()) {
+            for (VariantFacetAggregation.FieldFacet f = fieldFacet; f != null; f = f.getNested()) {
+                fields.add(f.getName());
+            }
+        }
+        for (VariantFacetAggregation.RangeFacet rangeFacet : aggregation.getRangeFacets()) {
+            fields.add(rangeFacet.getName());
+        }
+        for (String field : fields) {
+            VariantField requiredField = VariantFacetFields.getRequiredField(field);
+            if (requiredField != null) {
+                include.add(requiredField);
+            }
+        }
+        query.put(INCLUDE_SAMPLE.key(), NONE);
+        if (!include.contains(VariantField.STUDIES_FILES)) {
+            query.put(INCLUDE_FILE.key(), NONE);
+        }
+        List<String> includeNames = new ArrayList<>(include.size());
+        for (VariantField field : include) {
+            includeNames.add(field.fieldName());
+        }
+        return new QueryOptions(QueryOptions.INCLUDE, includeNames);
+    }
+
+    /**
+     * Split the query in region partitions. Only if the query is not filtered by gene, xref or id, as these are combined
+     * with the regions. Queries without region are split by chromosome.
+     *
+     * @param query Query
+     * @return Partitions. Empty if the query can not be split
+     */
+    protected List<Region> getPartitions(Query query) {
+        if (isValidParam(query, GENE) || isValidParam(query, ANNOT_XREF) || isValidParam(query, ID)) {
+            return Collections.emptyList();
+        }
+        List<Region> regions;
+        if (isValidParam(query, REGION)) {
+            regions = Region.parseRegions(query.getString(REGION.key()));
+        } else {
+            regions = new ArrayList<>();
+            for (String chromosome : chromosomes.get()) {
+                regions.add(new Region(chromosome, 1, Integer.MAX_VALUE));
+            }
+        }
+        List<Region> partitions = new ArrayList<>();
+        for (Region region : regions) {
+            if (partitionSize <= 0 || region.getEnd() == Integer.MAX_VALUE
+                    || (long) region.getEnd() - region.getStart() < partitionSize) {
+                partitions.add(region);
+            } else {
+                for (long start = region.getStart(); start <= region.getEnd(); start += partitionSize) {
+                    partitions.add(new Region(region.getChromosome(), (int) start,
+                            (int) Math.min(region.getEnd(), start + partitionSize - 1)));
+                }
+            }
+        }
+        return partitions;
+    }
+}
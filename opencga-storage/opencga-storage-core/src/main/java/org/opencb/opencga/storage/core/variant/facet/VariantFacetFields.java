@@ -0,0 +1,168 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.variant.facet;
+
+import org.opencb.biodata.models.variant.StudyEntry;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.avro.FileEntry;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantField;
+import org.opencb.opencga.storage.core.variant.search.VariantSearchModel;
+
+import java.util.*;
+
+/**
+ * Fields accepted by the {@link VariantFacetEngine}. Same names as in the search index (see {@link VariantSearchModel}),
+ * plus the QUAL of the files.
+ *
+ * <ul>
+ *     <li>Variant: chromosome, start, end, type</li>
+ *     <li>Studies: studies, stats__{study}__{cohort}, qual</li>
+ *     <li>Annotation: genes, biotypes, soAcc, geneToSoAcc, release, sift, siftDesc, polyphen, polyphenDesc,
+ *         phastCons, phylop, gerp, caddRaw, caddScaled, popFreq__{study}__{population}</li>
+ * </ul>
+ */
+public final class VariantFacetFields {
+
+    public static final String QUAL = "qual";
+    public static final String STATS_PREFIX = "stats__";
+    public static final String POP_FREQ_PREFIX = "popFreq__";
+
+    private static final Set<String> VARIANT_FIELDS = new HashSet<>(Arrays.asList("chromosome", "start", "end", "type"));
+    private static final Set<String> ANNOTATION_FIELDS = new HashSet<>(Arrays.asList("genes", "biotypes", "soAcc", "geneToSoAcc",
+            "release", "sift", "siftDesc", "polyphen", "polyphenDesc", "phastCons", "phylop", "gerp", "caddRaw", "caddScaled"));
+
+    private VariantFacetFields() {
+    }
+
+    public static boolean isValid(String field) {
+        return VARIANT_FIELDS.contains(field) || ANNOTATION_FIELDS.contains(field) || field.equals("studies") || field.equals(QUAL)
+                || field.startsWith(STATS_PREFIX) || field.startsWith(POP_FREQ_PREFIX);
+    }
+
+    /**
+     * Get the part of the variant required to compute a facet over the given field.
+     *
+     * @param field Facet field
+     * @return Required VariantField. Null if only the main variant fields are required
+     */
+    public static VariantField getRequiredField(String field) {
+        if (ANNOTATION_FIELDS.contains(field) || field.startsWith(POP_FREQ_PREFIX)) {
+            return VariantField.ANNOTATION;
+        } else if (field.equals(QUAL)) {
+            return VariantField.STUDIES_FILES;
+        } else if (field.startsWith(STATS_PREFIX)) {
+            return VariantField.STUDIES_STATS;
+        } else if (field.equals("studies")) {
+            return VariantField.STUDIES_STUDY_ID;
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Get the distinct values of a field for one variant.
+     *
+     * @param field   Facet field
+     * @param model   Variant converted to the search model
+     * @param variant Variant, with the files if the field is QUAL
+     * @return Distinct values of the field. Strings or numbers
+     */
+    public static Collection<Object> getValues(String field, VariantSearchModel model, Variant variant) {
+        switch (field) {
+            case "chromosome":
+                return singleton(model.getChromosome());
+            case "start":
+                return singleton(model.getStart());
+            case "end":
+                return singleton(model.getEnd());
+            case "type":
+                return singleton(model.getType());
+            case "studies":
+                return distinct(model.getStudies());
+            case "genes":
+                return distinct(model.getGenes());
+            case "biotypes":
+                return distinct(model.getBiotypes());
+            case "soAcc":
+                return distinct(model.getSoAcc());
+            case "geneToSoAcc":
+                return distinct(model.getGeneToSoAcc());
+            case "release":
+                return singleton(model.getRelease());
+            case "sift":
+                return singleton(model.getSift());
+            case "siftDesc":
+                return singleton(model.getSiftDesc());
+            case "polyphen":
+                return singleton(model.getPolyphen());
+            case "polyphenDesc":
+                return singleton(model.getPolyphenDesc());
+            case "phastCons":
+                return singleton(model.getPhastCons());
+            case "phylop":
+                return singleton(model.getPhylop());
+            case "gerp":
+                return singleton(model.getGerp());
+            case "caddRaw":
+                return singleton(model.getCaddRaw());
+            case "caddScaled":
+                return singleton(model.getCaddScaled());
+            case QUAL:
+                return getQual(variant);
+            default:
+                if (field.startsWith(STATS_PREFIX)) {
+                    return model.getStats() == null ? Collections.emptyList() : singleton(model.getStats().get(field));
+                } else if (field.startsWith(POP_FREQ_PREFIX)) {
+                    return model.getPopFreq() == null ? Collections.emptyList() : singleton(model.getPopFreq().get(field));
+                } else {
+                    throw new IllegalArgumentException("Unknown facet field '" + field + "'");
+                }
+        }
+    }
+
+    private static Collection<Object> getQual(Variant variant) {
+        Set<Object> values = new LinkedHashSet<>();
+        if (variant.getStudies() != null) {
+            for (StudyEntry studyEntry : variant.getStudies()) {
+                for (FileEntry fileEntry : studyEntry.getFiles()) {
+                    String qual = fileEntry.getAttributes() == null ? null : fileEntry.getAttributes().get(StudyEntry.QUAL);
+                    if (qual != null && !qual.isEmpty() && !qual.equals(".")) {
+                        try {
+                            values.add(Double.valueOf(qual));
+                        } catch (NumberFormatException ignore) {
+                            // Skip invalid QUAL values
+                        }
+                    }
+                }
+            }
+        }
+        return values;
+    }
+
+    private static Collection<Object> singleton(Object value) {
+        return value == null ? Collections.emptyList() : Collections.singletonList(value);
+    }
+
+    private static Collection<Object> distinct(Collection<?> values) {
+        if (values == null || values.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Set<Object> set = new LinkedHashSet<>(values);
+        set.remove(null);
+        return set;
+    }
+}
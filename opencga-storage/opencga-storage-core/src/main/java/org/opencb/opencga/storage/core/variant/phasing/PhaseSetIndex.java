@@ -0,0 +1,75 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.variant.phasing;
+
+import org.opencb.biodata.models.variant.Variant;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Index of the variants in each phase set. A phase set is identified by the study, the sample, the chromosome
+ * and the value of the {@code PS} format field.
+ *
+ * Maintained by the storage pipelines while loading, or built offline with
+ * {@link org.opencb.opencga.storage.core.variant.VariantStorageEngine#buildPhaseSetIndex}.
+ */
+public interface PhaseSetIndex extends AutoCloseable {
+
+    Comparator<Variant> POSITION_COMPARATOR = Comparator.comparing(Variant::getStart)
+            .thenComparing(Variant::getEnd)
+            .thenComparing(Variant::toString);
+
+    /**
+     * Add variants to a phase set. Variants already in the phase set are ignored.
+     *
+     * @param studyId       Study id
+     * @param sampleId      Sample id
+     * @param chromosome    Chromosome of the phase set
+     * @param phaseSet      Value of the PS format field
+     * @param variants      Variant ids. See {@link Variant#toString()}
+     * @throws IOException  if there is any problem writing the index
+     */
+    void add(int studyId, int sampleId, String chromosome, String phaseSet, Collection<String> variants) throws IOException;
+
+    /**
+     * Get the variants of a phase set.
+     *
+     * @param studyId       Study id
+     * @param sampleId      Sample id
+     * @param chromosome    Chromosome of the phase set
+     * @param phaseSet      Value of the PS format field
+     * @return              Variant ids, sorted by position. Empty if the phase set does not exist
+     * @throws IOException  if there is any problem reading the index
+     */
+    List<String> get(int studyId, int sampleId, String chromosome, String phaseSet) throws IOException;
+
+    /**
+     * Remove all the phase sets of the given samples.
+     *
+     * @param studyId       Study id
+     * @param sampleIds     Sample ids
+     * @throws IOException  if there is any problem writing the index
+     */
+    void remove(int studyId, Collection<Integer> sampleIds) throws IOException;
+
+    @Override
+    default void close() throws IOException {
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.variant.phasing;
+
+import htsjdk.variant.vcf.VCFConstants;
+import org.opencb.biodata.models.variant.StudyEntry;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.commons.run.Task;
+import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Adds the phase set ({@code PS} format field) of every sample to the {@link PhaseSetIndex}.
+ * Variants are returned without modifications, so the task can be chained in the load pipeline.
+ *
+ * All the variants must belong to the given study.
+ */
+public class PhaseSetIndexTask implements Task<Variant, Variant> {
+
+    private final PhaseSetIndex phaseSetIndex;
+    private final StudyConfiguration studyConfiguration;
+    private final AtomicLong numEntries = new AtomicLong();
+
+    public PhaseSetIndexTask(PhaseSetIndex phaseSetIndex, StudyConfiguration studyConfiguration) {
+        this.phaseSetIndex = Objects.requireNonNull(phaseSetIndex);
+        this.studyConfiguration = Objects.requireNonNull(studyConfiguration);
+    }
+
+    @Override
+    public List<Variant> apply(List<Variant> batch) throws Exception {
+        // Group the batch by phase set, to write each phase set once
+        Map<PhaseSet, List<String>> phaseSets = new LinkedHashMap<>();
+        for (Variant variant : batch) {
+            for (StudyEntry studyEntry : variant.getStudies()) {
+                Integer psIdx = studyEntry.getFormatPositions().get(VCFConstants.PHASE_SET_KEY);
+                if (psIdx == null) {
+                    continue;
+                }
+                List<String> samples = studyEntry.getOrderedSamplesName();
+                List<List<String>> samplesData = studyEntry.getSamplesData();
+                for (int i = 0; i < samplesData.size() && i < samples.size(); i++) {
+                    List<String> sampleData = samplesData.get(i);
+                    if (sampleData.size() <= psIdx || !isValidPhaseSet(sampleData.get(psIdx))) {
+                        continue;
+                    }
+                    Integer sampleId = studyConfiguration.getSampleIds().get(samples.get(i));
+                    if (sampleId != null) {
+                        phaseSets.computeIfAbsent(new PhaseSet(sampleId, variant.getChromosome(), sampleData.get(psIdx)),
+                                key -> new ArrayList<>()).add(variant.toString());
+                    }
+                }
+            }
+        }
+        for (Map.Entry<PhaseSet, List<String>> entry : phaseSets.entrySet()) {
+            PhaseSet phaseSet = entry.getKey();
+            phaseSetIndex.add(studyConfiguration.getStudyId(), phaseSet.sampleId, phaseSet.chromosome, phaseSet.phaseSet,
+                    entry.getValue());
+            numEntries.addAndGet(entry.getValue().size());
+        }
+        return batch;
+    }
+
+    /**
+     * @return Number of (sample, variant) pairs added to the index
+     */
+    public long getNumEntries() {
+        return numEntries.get();
+    }
+
+    public static boolean isValidPhaseSet(String phaseSet) {
+        return phaseSet != null && !phaseSet.isEmpty() && !phaseSet.equals(VCFConstants.MISSING_VALUE_v4);
+    }
+
+    private static final class PhaseSet {
+        private final int sampleId;
+        private final String chromosome;
+        private final String phaseSet;
+
+        private PhaseSet(int sampleId, String chromosome, String phaseSet) {
+            this.sampleId = sampleId;
+            this.chromosome = chromosome;
+            this.phaseSet = phaseSet;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            PhaseSet that = (PhaseSet) o;
+            return sampleId == that.sampleId
+                    && Objects.equals(chromosome, that.chromosome)
+                    && Objects.equals(phaseSet, that.phaseSet);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(sampleId, chromosome, phaseSet);
+        }
+    }
+}
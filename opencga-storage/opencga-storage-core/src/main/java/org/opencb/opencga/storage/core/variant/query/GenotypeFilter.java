@@ -0,0 +1,141 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.variant.query;
+
+import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
+import org.opencb.opencga.storage.core.metadata.StudyConfigurationManager;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryParam;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryUtils;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryUtils.QueryOperation;
+
+import java.util.*;
+
+/**
+ * Genotype filter from {@link VariantQueryParam#GENOTYPE}, with the expression: {SAMPLE}:{GT}[,{GT}]*[(;|,){SAMPLE}:{GT}...].
+ * e.g. "HG0097:0/1,1/1;HG0098:0/0"
+ */
+public final class GenotypeFilter {
+
+    private static final GenotypeFilter EMPTY = new GenotypeFilter(null, Collections.emptyMap(), Collections.emptyMap());
+
+    private final QueryOperation operation;
+    private final Map<String, List<String>> genotypes;
+    private final Map<String, Integer> sampleIds;
+
+    private GenotypeFilter(QueryOperation operation, Map<String, List<String>> genotypes, Map<String, Integer> sampleIds) {
+        this.operation = operation;
+        this.genotypes = genotypes;
+        this.sampleIds = sampleIds;
+    }
+
+    public static GenotypeFilter empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Parse the genotype filter. If a StudyConfigurationManager is provided, resolves the numeric id of all the samples.
+     *
+     * @param value             Genotype filter value
+     * @param scm               StudyConfigurationManager. May be null
+     * @param defaultStudy      Default study, for samples without study. May be null
+     * @return                  GenotypeFilter
+     * @throws org.opencb.opencga.storage.core.variant.adaptors.VariantQueryException if a sample can not be resolved
+     */
+    public static GenotypeFilter parse(String value, StudyConfigurationManager scm, StudyConfiguration defaultStudy) {
+        if (value == null || value.isEmpty()) {
+            return EMPTY;
+        }
+        Map<Object, List<String>> map = new LinkedHashMap<>();
+        QueryOperation operation = VariantQueryUtils.parseGenotypeFilter(value, map);
+
+        Map<String, List<String>> genotypes = new LinkedHashMap<>(map.size());
+        Map<String, Integer> sampleIds = new LinkedHashMap<>(map.size());
+        for (Map.Entry<Object, List<String>> entry : map.entrySet()) {
+            String sample = entry.getKey().toString();
+            genotypes.put(sample, Collections.unmodifiableList(new ArrayList<>(entry.getValue())));
+            if (scm != null) {
+                sampleIds.put(sample, scm.getSampleId(sample, defaultStudy));
+            }
+        }
+        return new GenotypeFilter(operation, Collections.unmodifiableMap(genotypes), Collections.unmodifiableMap(sampleIds));
+    }
+
+    public boolean isEmpty() {
+        return genotypes.isEmpty();
+    }
+
+    /**
+     * @return Operation between samples. Null if there is only one sample
+     */
+    public QueryOperation getOperation() {
+        return operation;
+    }
+
+    /**
+     * @return Genotypes to filter for each sample, in the same order as in the query
+     */
+    public Map<String, List<String>> getGenotypes() {
+        return genotypes;
+    }
+
+    /**
+     * @return Numeric id of each sample. Empty if the filter was parsed without a StudyConfigurationManager
+     */
+    public Map<String, Integer> getSampleIds() {
+        return sampleIds;
+    }
+
+    public Integer getSampleId(String sample) {
+        return sampleIds.get(sample);
+    }
+
+    public String toQueryValue() {
+        String separator = operation == null ? VariantQueryUtils.AND : operation.separator();
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, List<String>> entry : genotypes.entrySet()) {
+            if (sb.length() > 0) {
+                sb.append(separator);
+            }
+            sb.append(entry.getKey()).append(VariantQueryUtils.IS).append(String.join(VariantQueryUtils.OR, entry.getValue()));
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        GenotypeFilter that = (GenotypeFilter) o;
+        return operation == that.operation
+                && Objects.equals(genotypes, that.genotypes)
+                && Objects.equals(sampleIds, that.sampleIds);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(operation, genotypes, sampleIds);
+    }
+
+    @Override
+    public String toString() {
+        return toQueryValue();
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.variant.query;
+
+import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryException;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryParam;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryUtils;
+
+import java.util.Objects;
+
+/**
+ * Population frequency filter with the expression: {STUDY}:{POPULATION}{OPERATION}{VALUE}.
+ * e.g. "1kG_phase3:CEU&lt;=0.01"
+ */
+public final class PopulationFrequencyFilter {
+
+    private final String study;
+    private final String population;
+    private final String operator;
+    private final double value;
+
+    public PopulationFrequencyFilter(String study, String population, String operator, double value) {
+        this.study = study;
+        this.population = population;
+        this.operator = operator;
+        this.value = value;
+    }
+
+    public static ValuesFilter<PopulationFrequencyFilter> parse(VariantQueryParam param, String value) {
+        return ValuesFilter.parse(value).map(elem -> {
+            String[] split = elem.split(VariantQueryUtils.IS);
+            if (split.length != 2) {
+                throw VariantQueryException.malformedParam(param, value, "Bad population frequency filter: " + elem);
+            }
+            String[] populationSplit = VariantQueryUtils.splitOperator(split[1]);
+            if (populationSplit[0] == null || populationSplit[0].isEmpty()) {
+                throw VariantQueryException.malformedParam(param, value, "Missing population at " + elem);
+            }
+            try {
+                return new PopulationFrequencyFilter(split[0], populationSplit[0], populationSplit[1],
+                        Double.parseDouble(populationSplit[2]));
+            } catch (NumberFormatException e) {
+                throw VariantQueryException.malformedParam(param, value, "Expected a number at " + elem);
+            }
+        });
+    }
+
+    public String getStudy() {
+        return study;
+    }
+
+    public String getPopulation() {
+        return population;
+    }
+
+    /**
+     * @return Comparison operator. May start with "&lt;&lt;" or "&gt;&gt;" to include variants without this population
+     */
+    public String getOperator() {
+        return operator;
+    }
+
+    public double getValue() {
+        return value;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        PopulationFrequencyFilter that = (PopulationFrequencyFilter) o;
+        return Double.compare(that.value, value) == 0
+                && Objects.equals(study, that.study)
+                && Objects.equals(population, that.population)
+                && Objects.equals(operator, that.operator);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(study, population, operator, value);
+    }
+
+    @Override
+    public String toString() {
+        return study + VariantQueryUtils.STUDY_POP_FREQ_SEPARATOR + population + operator + value;
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.variant.query;
+
+import org.apache.commons.lang3.math.NumberUtils;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryException;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryParam;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryUtils;
+
+import java.util.Objects;
+
+/**
+ * Annotation score filter with the expression: [{SOURCE}]{OPERATION}{VALUE}.
+ * e.g. "sift&lt;0.2", "phylop&gt;=0.5", "&lt;0.2" or "tolerated".
+ *
+ * The value can be a number or a score description.
+ */
+public final class ScoreFilter {
+
+    private final String source;
+    private final String operator;
+    private final String value;
+
+    public ScoreFilter(String source, String operator, String value) {
+        this.source = source == null ? "" : source;
+        this.operator = operator;
+        this.value = value;
+    }
+
+    public static ValuesFilter<ScoreFilter> parse(VariantQueryParam param, String value) {
+        return ValuesFilter.parse(value).map(elem -> {
+            String[] split = VariantQueryUtils.splitOperator(elem);
+            if (split[2].isEmpty()) {
+                throw VariantQueryException.malformedParam(param, value);
+            }
+            return new ScoreFilter(split[0], split[1], split[2]);
+        });
+    }
+
+    /**
+     * @return Score source. Empty if the score is implicit in the query param. e.g. {@link VariantQueryParam#ANNOT_SIFT}
+     */
+    public String getSource() {
+        return source;
+    }
+
+    public String getOperator() {
+        return operator;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public boolean isNumeric() {
+        return NumberUtils.isParsable(value);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        ScoreFilter that = (ScoreFilter) o;
+        return Objects.equals(source, that.source)
+                && Objects.equals(operator, that.operator)
+                && Objects.equals(value, that.value);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(source, operator, value);
+    }
+
+    @Override
+    public String toString() {
+        return source + operator + value;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.variant.query;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryUtils;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryUtils.QueryOperation;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Immutable list of values from a query param, with the operation between them.
+ *
+ * @param <T> Value type
+ */
+public final class ValuesFilter<T> {
+
+    private static final ValuesFilter<?> EMPTY = new ValuesFilter<>(null, Collections.emptyList());
+
+    private final QueryOperation operation;
+    private final List<T> values;
+
+    private ValuesFilter(QueryOperation operation, List<T> values) {
+        this.operation = operation;
+        this.values = values;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> ValuesFilter<T> empty() {
+        return (ValuesFilter<T>) EMPTY;
+    }
+
+    /**
+     * Split a query value. Mixing AND and OR operators is not allowed.
+     *
+     * @param value Value to split. May be null
+     * @return Split values
+     */
+    public static ValuesFilter<String> parse(String value) {
+        if (value == null || value.isEmpty()) {
+            return empty();
+        }
+        Pair<QueryOperation, List<String>> pair = VariantQueryUtils.splitValue(value);
+        return new ValuesFilter<>(pair.getKey(), Collections.unmodifiableList(new ArrayList<>(pair.getValue())));
+    }
+
+    /**
+     * Parse each of the values, keeping the operation.
+     *
+     * @param mapper Value parser
+     * @param <R>    New value type
+     * @return New ValuesFilter
+     */
+    public <R> ValuesFilter<R> map(Function<? super T, ? extends R> mapper) {
+        if (values.isEmpty()) {
+            return empty();
+        }
+        List<R> list = new ArrayList<>(values.size());
+        for (T value : values) {
+            list.add(mapper.apply(value));
+        }
+        return new ValuesFilter<>(operation, Collections.unmodifiableList(list));
+    }
+
+    public boolean isEmpty() {
+        return values.isEmpty();
+    }
+
+    /**
+     * @return Operation between values. Null if there is only one value
+     */
+    public QueryOperation getOperation() {
+        return operation;
+    }
+
+    public List<T> getValues() {
+        return values;
+    }
+
+    /**
+     * Build the query value. Values containing any separator are quoted.
+     *
+     * @param toString Value serializer
+     * @return Query value
+     */
+    public String toQueryValue(Function<? super T, String> toString) {
+        String separator = operation == null ? VariantQueryUtils.OR : operation.separator();
+        StringBuilder sb = new StringBuilder();
+        for (T value : values) {
+            if (sb.length() > 0) {
+                sb.append(separator);
+            }
+            String str = toString.apply(value);
+            if (str.indexOf(VariantQueryUtils.OR_CHAR) >= 0 || str.indexOf(VariantQueryUtils.AND_CHAR) >= 0) {
+                sb.append(VariantQueryUtils.QUOTE_CHAR).append(str).append(VariantQueryUtils.QUOTE_CHAR);
+            } else {
+                sb.append(str);
+            }
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        ValuesFilter<?> that = (ValuesFilter<?>) o;
+        return operation == that.operation && Objects.equals(values, that.values);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(operation, values);
+    }
+
+    @Override
+    public String toString() {
+        return toQueryValue(String::valueOf);
+    }
+}
@@ -0,0 +1,398 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.variant.query;
+
+import com.fasterxml.jackson.annotation.JsonValue;
+import org.opencb.biodata.models.core.Region;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.commons.datastore.core.Query;
+import org.opencb.commons.datastore.core.QueryOptions;
+import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
+import org.opencb.opencga.storage.core.metadata.StudyConfigurationManager;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantField;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryParam;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryUtils;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryUtils.SelectVariantElements;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryUtils.VariantQueryXref;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.opencb.opencga.storage.core.variant.adaptors.VariantQueryParam.*;
+import static org.opencb.opencga.storage.core.variant.adaptors.VariantQueryUtils.isValidParam;
+
+/**
+ * Typed and immutable view of the filters of a {@link Query}.
+ *
+ * The query strings are parsed and validated only once, so the storage engines do not need to parse again the same values
+ * with {@link VariantQueryUtils}. Includes the region, xref, genotype, annotation and population frequency filters.
+ * Any other filter has to be read from the original query.
+ *
+ * The VariantStorageEngine parses each query once and attaches the model to it (see {@link #attach}). The storage engines and the
+ * search engine get it back with {@link #get}, which parses the query again only if it was modified after being attached.
+ */
+public final class VariantQuery {
+
+    /**
+     * Key of the attached model within the query.
+     */
+    public static final String QUERY_KEY = "_variantQuery";
+
+    // Params of the parsed query, to detect later modifications
+    private final Map<String, Object> source;
+    private final boolean resolved;
+    private final Map<Set<VariantField>, SelectVariantElements> selectElements = new ConcurrentHashMap<>();
+
+    private final List<Region> regions;
+    private final List<String> genes;
+    private final List<Variant> variants;
+    private final List<String> ids;
+    private final List<String> otherXrefs;
+    private final GenotypeFilter genotype;
+    private final ValuesFilter<String> consequenceTypes;
+    private final ValuesFilter<String> biotypes;
+    private final ValuesFilter<ScoreFilter> sift;
+    private final ValuesFilter<ScoreFilter> polyphen;
+    private final ValuesFilter<ScoreFilter> proteinSubstitution;
+    private final ValuesFilter<ScoreFilter> conservation;
+    private final ValuesFilter<ScoreFilter> functionalScore;
+    private final ValuesFilter<PopulationFrequencyFilter> populationAlternateFrequency;
+    private final ValuesFilter<PopulationFrequencyFilter> populationReferenceFrequency;
+    private final ValuesFilter<PopulationFrequencyFilter> populationMinorAlleleFrequency;
+
+    private VariantQuery(Query query, StudyConfigurationManager scm) {
+        source = new HashMap<>(query);
+        source.remove(QUERY_KEY);
+        resolved = scm != null;
+
+        if (isValidParam(query, REGION)) {
+            regions = Collections.unmodifiableList(Region.parseRegions(query.getString(REGION.key()), true));
+        } else {
+            regions = Collections.emptyList();
+        }
+
+        VariantQueryXref xrefs = VariantQueryUtils.parseXrefs(query);
+        genes = Collections.unmodifiableList(new ArrayList<>(xrefs.getGenes()));
+        variants = Collections.unmodifiableList(new ArrayList<>(xrefs.getVariants()));
+        ids = Collections.unmodifiableList(new ArrayList<>(xrefs.getIds()));
+        otherXrefs = Collections.unmodifiableList(new ArrayList<>(xrefs.getOtherXrefs()));
+
+        if (isValidParam(query, GENOTYPE)) {
+            StudyConfiguration defaultStudy = scm == null ? null : VariantQueryUtils.getDefaultStudyConfiguration(query, null, scm);
+            genotype = GenotypeFilter.parse(query.getString(GENOTYPE.key()), scm, defaultStudy);
+        } else {
+            genotype = GenotypeFilter.empty();
+        }
+
+        consequenceTypes = ValuesFilter.parse(getString(query, ANNOT_CONSEQUENCE_TYPE)).map(ct -> VariantQueryUtils.isNegated(ct)
+                ? VariantQueryUtils.NOT + toSoAccession(VariantQueryUtils.removeNegation(ct))
+                : toSoAccession(ct));
+        biotypes = ValuesFilter.parse(getString(query, ANNOT_BIOTYPE));
+
+        sift = ScoreFilter.parse(ANNOT_SIFT, getString(query, ANNOT_SIFT));
+        polyphen = ScoreFilter.parse(ANNOT_POLYPHEN, getString(query, ANNOT_POLYPHEN));
+        proteinSubstitution = ScoreFilter.parse(ANNOT_PROTEIN_SUBSTITUTION, getString(query, ANNOT_PROTEIN_SUBSTITUTION));
+        conservation = ScoreFilter.parse(ANNOT_CONSERVATION, getString(query, ANNOT_CONSERVATION));
+        functionalScore = ScoreFilter.parse(ANNOT_FUNCTIONAL_SCORE, getString(query, ANNOT_FUNCTIONAL_SCORE));
+
+        populationAlternateFrequency = PopulationFrequencyFilter.parse(ANNOT_POPULATION_ALTERNATE_FREQUENCY,
+                getString(query, ANNOT_POPULATION_ALTERNATE_FREQUENCY));
+        populationReferenceFrequency = PopulationFrequencyFilter.parse(ANNOT_POPULATION_REFERENCE_FREQUENCY,
+                getString(query, ANNOT_POPULATION_REFERENCE_FREQUENCY));
+        populationMinorAlleleFrequency = PopulationFrequencyFilter.parse(ANNOT_POPULATION_MINOR_ALLELE_FREQUENCY,
+                getString(query, ANNOT_POPULATION_MINOR_ALLELE_FREQUENCY));
+    }
+
+    /**
+     * Parse the query without resolving the numeric ids.
+     *
+     * @param query Query to parse
+     * @return VariantQuery
+     */
+    public static VariantQuery parse(Query query) {
+        return parse(query, null);
+    }
+
+    /**
+     * Parse and validate the query.
+     *
+     * @param query Query to parse
+     * @param scm   StudyConfigurationManager to resolve the numeric ids of samples. May be null
+     * @return VariantQuery
+     * @throws org.opencb.opencga.storage.core.variant.adaptors.VariantQueryException if the query is not valid
+     */
+    public static VariantQuery parse(Query query, StudyConfigurationManager scm) {
+        return new VariantQuery(query == null ? new Query() : query, scm);
+    }
+
+    /**
+     * Get the model attached to the query, or parse it if missing or if the query was modified after attaching it.
+     *
+     * @param query Query
+     * @return VariantQuery
+     */
+    public static VariantQuery get(Query query) {
+        return get(query, null);
+    }
+
+    /**
+     * Get the model attached to the query, or parse it if missing or if the query was modified after attaching it.
+     *
+     * @param query Query
+     * @param scm   StudyConfigurationManager to resolve the numeric ids of samples. May be null
+     * @return VariantQuery
+     * @throws org.opencb.opencga.storage.core.variant.adaptors.VariantQueryException if the query is not valid
+     */
+    public static VariantQuery get(Query query, StudyConfigurationManager scm) {
+        if (query != null) {
+            Object attached = query.get(QUERY_KEY);
+            if (attached instanceof VariantQuery) {
+                VariantQuery variantQuery = (VariantQuery) attached;
+                if ((variantQuery.resolved || scm == null) && variantQuery.isParsedFrom(query)) {
+                    return variantQuery;
+                }
+            }
+        }
+        return parse(query, scm);
+    }
+
+    /**
+     * Parse the query, if needed, and attach the model to it.
+     *
+     * @param query Query to modify
+     * @param scm   StudyConfigurationManager to resolve the numeric ids of samples
+     * @return VariantQuery
+     * @throws org.opencb.opencga.storage.core.variant.adaptors.VariantQueryException if the query is not valid
+     */
+    public static VariantQuery attach(Query query, StudyConfigurationManager scm) {
+        VariantQuery variantQuery = get(query, scm);
+        query.put(QUERY_KEY, variantQuery);
+        return variantQuery;
+    }
+
+    private boolean isParsedFrom(Query query) {
+        int size = query.containsKey(QUERY_KEY) ? query.size() - 1 : query.size();
+        if (size != source.size()) {
+            return false;
+        }
+        for (Map.Entry<String, Object> entry : source.entrySet()) {
+            if (!Objects.equals(entry.getValue(), query.get(entry.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String toSoAccession(String ct) {
+        return String.format("SO:%07d", VariantQueryUtils.parseConsequenceType(ct));
+    }
+
+    private static String getString(Query query, VariantQueryParam param) {
+        return isValidParam(query, param) ? query.getString(param.key()) : null;
+    }
+
+    /**
+     * Build an equivalent query with the filters from this model. The values are normalized,
+     * so the result of parsing it again is equal to this object.
+     *
+     * @return Query
+     */
+    @JsonValue
+    public Query toQuery() {
+        Query query = new Query();
+        putIfNotEmpty(query, REGION, regions.stream().map(Region::toString).collect(Collectors.joining(VariantQueryUtils.OR)));
+        putIfNotEmpty(query, GENE, String.join(VariantQueryUtils.OR, genes));
+        List<String> idValues = new ArrayList<>(ids);
+        variants.forEach(variant -> idValues.add(variant.toString()));
+        putIfNotEmpty(query, ID, String.join(VariantQueryUtils.OR, idValues));
+        putIfNotEmpty(query, ANNOT_XREF, String.join(VariantQueryUtils.OR, otherXrefs));
+        putIfNotEmpty(query, GENOTYPE, genotype.toQueryValue());
+        putIfNotEmpty(query, ANNOT_CONSEQUENCE_TYPE, consequenceTypes.toQueryValue(Function.identity()));
+        putIfNotEmpty(query, ANNOT_BIOTYPE, biotypes.toQueryValue(Function.identity()));
+        putIfNotEmpty(query, ANNOT_SIFT, sift.toQueryValue(ScoreFilter::toString));
+        putIfNotEmpty(query, ANNOT_POLYPHEN, polyphen.toQueryValue(ScoreFilter::toString));
+        putIfNotEmpty(query, ANNOT_PROTEIN_SUBSTITUTION, proteinSubstitution.toQueryValue(ScoreFilter::toString));
+        putIfNotEmpty(query, ANNOT_CONSERVATION, conservation.toQueryValue(ScoreFilter::toString));
+        putIfNotEmpty(query, ANNOT_FUNCTIONAL_SCORE, functionalScore.toQueryValue(ScoreFilter::toString));
+        putIfNotEmpty(query, ANNOT_POPULATION_ALTERNATE_FREQUENCY,
+                populationAlternateFrequency.toQueryValue(PopulationFrequencyFilter::toString));
+        putIfNotEmpty(query, ANNOT_POPULATION_REFERENCE_FREQUENCY,
+                populationReferenceFrequency.toQueryValue(PopulationFrequencyFilter::toString));
+        putIfNotEmpty(query, ANNOT_POPULATION_MINOR_ALLELE_FREQUENCY,
+                populationMinorAlleleFrequency.toQueryValue(PopulationFrequencyFilter::toString));
+        return query;
+    }
+
+    private static void putIfNotEmpty(Query query, VariantQueryParam param, String value) {
+        if (!value.isEmpty()) {
+            query.put(param.key(), value);
+        }
+    }
+
+    /**
+     * @return Regions from {@link VariantQueryParam#REGION}
+     */
+    public List<Region> getRegions() {
+        return regions;
+    }
+
+    /**
+     * @return Genes found at {@link VariantQueryParam#GENE} and {@link VariantQueryParam#ANNOT_XREF}
+     */
+    public List<String> getGenes() {
+        return genes;
+    }
+
+    /**
+     * @return Variants found at {@link VariantQueryParam#ANNOT_XREF} and {@link VariantQueryParam#ID}
+     */
+    public List<Variant> getVariants() {
+        return variants;
+    }
+
+    /**
+     * @return Ids found at {@link VariantQueryParam#ID}
+     */
+    public List<String> getIds() {
+        return ids;
+    }
+
+    /**
+     * @return Other xrefs found at {@link VariantQueryParam#ANNOT_XREF}, {@link VariantQueryParam#ANNOT_CLINVAR}
+     * and {@link VariantQueryParam#ANNOT_COSMIC}
+     */
+    public List<String> getOtherXrefs() {
+        return otherXrefs;
+    }
+
+    /**
+     * @return New {@link VariantQueryXref} with the genes, variants, ids and other xrefs. See {@link VariantQueryUtils#parseXrefs}
+     */
+    public VariantQueryXref getXrefs() {
+        VariantQueryXref xrefs = new VariantQueryXref();
+        xrefs.getGenes().addAll(genes);
+        xrefs.getVariants().addAll(variants);
+        xrefs.getIds().addAll(ids);
+        xrefs.getOtherXrefs().addAll(otherXrefs);
+        return xrefs;
+    }
+
+    /**
+     * Elements to include in the result, parsed only once for each set of included fields.
+     * See {@link VariantQueryUtils#parseSelectElements}.
+     *
+     * @param options   Query options
+     * @param scm       StudyConfigurationManager
+     * @return SelectVariantElements
+     */
+    public SelectVariantElements getSelectElements(QueryOptions options, StudyConfigurationManager scm) {
+        return selectElements.computeIfAbsent(VariantField.getIncludeFields(options),
+                fields -> VariantQueryUtils.parseSelectElements(new Query(source), options, scm));
+    }
+
+    public GenotypeFilter getGenotype() {
+        return genotype;
+    }
+
+    /**
+     * @return Normalized SO accessions from {@link VariantQueryParam#ANNOT_CONSEQUENCE_TYPE}. e.g. "SO:0001583" or "!SO:0001583"
+     */
+    public ValuesFilter<String> getConsequenceTypes() {
+        return consequenceTypes;
+    }
+
+    public ValuesFilter<String> getBiotypes() {
+        return biotypes;
+    }
+
+    public ValuesFilter<ScoreFilter> getSift() {
+        return sift;
+    }
+
+    public ValuesFilter<ScoreFilter> getPolyphen() {
+        return polyphen;
+    }
+
+    public ValuesFilter<ScoreFilter> getProteinSubstitution() {
+        return proteinSubstitution;
+    }
+
+    public ValuesFilter<ScoreFilter> getConservation() {
+        return conservation;
+    }
+
+    public ValuesFilter<ScoreFilter> getFunctionalScore() {
+        return functionalScore;
+    }
+
+    public ValuesFilter<PopulationFrequencyFilter> getPopulationAlternateFrequency() {
+        return populationAlternateFrequency;
+    }
+
+    public ValuesFilter<PopulationFrequencyFilter> getPopulationReferenceFrequency() {
+        return populationReferenceFrequency;
+    }
+
+    public ValuesFilter<PopulationFrequencyFilter> getPopulationMinorAlleleFrequency() {
+        return populationMinorAlleleFrequency;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        VariantQuery that = (VariantQuery) o;
+        return Objects.equals(toStrings(regions), toStrings(that.regions))
+                && Objects.equals(genes, that.genes)
+                && Objects.equals(toStrings(variants), toStrings(that.variants))
+                && Objects.equals(ids, that.ids)
+                && Objects.equals(otherXrefs, that.otherXrefs)
+                && Objects.equals(genotype, that.genotype)
+                && Objects.equals(consequenceTypes, that.consequenceTypes)
+                && Objects.equals(biotypes, that.biotypes)
+                && Objects.equals(sift, that.sift)
+                && Objects.equals(polyphen, that.polyphen)
+                && Objects.equals(proteinSubstitution, that.proteinSubstitution)
+                && Objects.equals(conservation, that.conservation)
+                && Objects.equals(functionalScore, that.functionalScore)
+                && Objects.equals(populationAlternateFrequency, that.populationAlternateFrequency)
+                && Objects.equals(populationReferenceFrequency, that.populationReferenceFrequency)
+                && Objects.equals(populationMinorAlleleFrequency, that.populationMinorAlleleFrequency);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(toStrings(regions), genes, toStrings(variants), ids, otherXrefs, genotype, consequenceTypes, biotypes,
+                sift, polyphen, proteinSubstitution, conservation, functionalScore,
+                populationAlternateFrequency, populationReferenceFrequency, populationMinorAlleleFrequency);
+    }
+
+    private static List<String> toStrings(List<?> list) {
+        return list.stream().map(Object::toString).collect(Collectors.toList());
+    }
+
+    @Override
+    public String toString() {
+        return "VariantQuery" + toQuery().toJson();
+    }
+}
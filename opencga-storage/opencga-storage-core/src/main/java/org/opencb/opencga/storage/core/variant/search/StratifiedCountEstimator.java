@@ -0,0 +1,319 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.variant.search;
+
+import org.opencb.opencga.storage.core.exceptions.VariantSearchException;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Estimates the number of variants matching a query from the variants returned by the search engine, which is a superset.
+ *
+ * The candidates from the search engine are stratified (e.g. by chromosome). Each round takes a random sample of blocks of
+ * consecutive candidates, allocated across the strata with the Neyman allocation, and checks how many of them match the query
+ * in the storage engine, with one query per stratum and round. The variance is computed from the blocks, as matches of
+ * selective queries tend to be clustered.
+ * The sample grows until the estimated relative error is below the target, or the max sampling size is reached.
+ * If all the candidates are checked, the count is exact.
+ */
+public class StratifiedCountEstimator {
+
+    public static final int DEFAULT_BLOCK_SIZE = 20;
+
+    private final int initialSamplingSize;
+    private final int maxSamplingSize;
+    private final double targetRelativeError;
+    private final double z;
+    private final int blockSize;
+    private final Random random;
+
+    /**
+     * Returns a block of consecutive candidates from one stratum.
+     */
+    @FunctionalInterface
+    public interface Sampler {
+        List<String> sample(String stratum, int skip, int limit) throws IOException, VariantSearchException;
+    }
+
+    /**
+     * Returns which of the given candidates from one stratum match the query.
+     */
+    @FunctionalInterface
+    public interface Matcher {
+        Set<String> match(String stratum, List<String> ids) throws IOException, VariantSearchException;
+    }
+
+    public StratifiedCountEstimator(int initialSamplingSize, int maxSamplingSize, double targetRelativeError, double confidence) {
+        this(initialSamplingSize, maxSamplingSize, targetRelativeError, confidence, DEFAULT_BLOCK_SIZE, new Random());
+    }
+
+    public StratifiedCountEstimator(int initialSamplingSize, int maxSamplingSize, double targetRelativeError, double confidence,
+                                    int blockSize, Random random) {
+        if (initialSamplingSize <= 0 || maxSamplingSize < initialSamplingSize) {
+            throw new IllegalArgumentException("Invalid sampling size. Initial: " + initialSamplingSize + ", max: " + maxSamplingSize);
+        }
+        if (confidence <= 0 || confidence >= 1) {
+            throw new IllegalArgumentException("Invalid confidence level " + confidence + ". Must be between 0 and 1");
+        }
+        this.initialSamplingSize = initialSamplingSize;
+        this.maxSamplingSize = maxSamplingSize;
+        this.targetRelativeError = targetRelativeError;
+        this.z = zScore(confidence);
+        this.blockSize = blockSize;
+        this.random = random;
+    }
+
+    /**
+     * Estimate the number of matching variants.
+     *
+     * @param strata    Number of candidates from the search engine in each stratum
+     * @param sampler   Returns blocks of candidates from one stratum
+     * @param matcher   Returns the matching candidates
+     * @return          Estimated count with the confidence bounds
+     * @throws IOException            IOException
+     * @throws VariantSearchException VariantSearchException
+     */
+    public Estimate estimate(Map<String, Long> strata, Sampler sampler, Matcher matcher) throws IOException, VariantSearchException {
+        List<Stratum> list = new ArrayList<>(strata.size());
+        for (Map.Entry<String, Long> entry : strata.entrySet()) {
+            if (entry.getValue() > 0) {
+                list.add(new Stratum(entry.getKey(), entry.getValue()));
+            }
+        }
+
+        int sampled = 0;
+        int roundSize = initialSamplingSize;
+        Estimate estimate = compute(list, 0);
+        while (!estimate.isExact()) {
+            Map<Stratum, Integer> allocation = allocate(list, roundSize, sampled == 0);
+            for (Map.Entry<Stratum, Integer> entry : allocation.entrySet()) {
+                Stratum stratum = entry.getKey();
+                List<List<String>> blocks = new ArrayList<>();
+                List<String> stratumIds = new ArrayList<>(entry.getValue());
+                while (stratumIds.size() < entry.getValue() && !stratum.isExhausted()) {
+                    int block = stratum.nextBlock(random);
+                    List<String> ids = sampler.sample(stratum.name, block * blockSize, blockSize);
+                    blocks.add(ids);
+                    stratumIds.addAll(ids);
+                }
+                // Check all the blocks of the round at once
+                Set<String> matches = stratumIds.isEmpty() ? Collections.emptySet() : matcher.match(stratum.name, stratumIds);
+                for (List<String> ids : blocks) {
+                    long blockMatches = 0;
+                    for (String id : ids) {
+                        if (matches.contains(id)) {
+                            blockMatches++;
+                        }
+                    }
+                    stratum.addBlock(ids.size(), blockMatches);
+                }
+                sampled += stratumIds.size();
+            }
+            estimate = compute(list, sampled);
+            if (estimate.getRelativeError() <= targetRelativeError || sampled >= maxSamplingSize) {
+                break;
+            }
+            // Double the sampling size on each round
+            roundSize = Math.min(sampled, maxSamplingSize - sampled);
+        }
+        return estimate;
+    }
+
+    private Map<Stratum, Integer> allocate(List<Stratum> strata, int size, boolean firstRound) {
+        double[] weights = new double[strata.size()];
+        double totalWeight = 0;
+        for (int i = 0; i < strata.size(); i++) {
+            Stratum stratum = strata.get(i);
+            if (!stratum.isExhausted()) {
+                // Proportional allocation on the first round. Neyman allocation after that
+                weights[i] = firstRound ? stratum.size : stratum.size * Math.sqrt(stratum.unitVariance());
+                totalWeight += weights[i];
+            }
+        }
+        Map<Stratum, Integer> allocation = new LinkedHashMap<>();
+        for (int i = 0; i < strata.size(); i++) {
+            if (weights[i] > 0) {
+                Stratum stratum = strata.get(i);
+                int n = (int) Math.ceil(size * weights[i] / totalWeight);
+                if (firstRound) {
+                    // At least one block from each stratum
+                    n = Math.max(n, blockSize);
+                }
+                allocation.put(stratum, (int) Math.min(n, stratum.size - stratum.sampled));
+            }
+        }
+        return allocation;
+    }
+
+    private Estimate compute(List<Stratum> strata, int sampled) {
+        double count = 0;
+        double variance = 0;
+        long knownMatches = 0;
+        long knownMismatches = 0;
+        long total = 0;
+        boolean exact = true;
+        for (Stratum stratum : strata) {
+            total += stratum.size;
+            knownMatches += stratum.matches;
+            knownMismatches += stratum.sampled - stratum.matches;
+            if (stratum.isExhausted()) {
+                count += stratum.matches;
+            } else {
+                exact = false;
+                double n = stratum.sampled;
+                double p = n == 0 ? 0.5 : stratum.matches / n;
+                count += stratum.size * p;
+                // Variance of the mean of the sampled blocks, with finite population correction
+                double b = Math.max(stratum.sampledBlocks.cardinality(), 1);
+                variance += (double) stratum.numBlocks * stratum.numBlocks * (1 - b / stratum.numBlocks)
+                        * stratum.unitVariance() * blockSize * blockSize / b;
+            }
+        }
+        if (exact) {
+            return new Estimate(knownMatches, knownMatches, knownMatches, sampled, true, 0);
+        }
+        double margin = z * Math.sqrt(variance);
+        long lower = Math.max(knownMatches, (long) Math.floor(count - margin));
+        long upper = Math.min(total - knownMismatches, (long) Math.ceil(count + margin));
+        double relativeError = margin / Math.max(count, 1);
+        return new Estimate(Math.round(count), lower, upper, sampled, false, relativeError);
+    }
+
+    /**
+     * Two-sided z-score of a confidence level. Abramowitz and Stegun, formula 26.2.23. Absolute error below 4.5e-4.
+     *
+     * @param confidence    Confidence level. e.g. 0.95
+     * @return              z-score
+     */
+    static double zScore(double confidence) {
+        double p = (1 - confidence) / 2;
+        double t = Math.sqrt(-2 * Math.log(p));
+        return t - (2.515517 + 0.802853 * t + 0.010328 * t * t) / (1 + 1.432788 * t + 0.189269 * t * t + 0.001308 * t * t * t);
+    }
+
+    private final class Stratum {
+        private final String name;
+        private final long size;
+        private final int numBlocks;
+        private final BitSet sampledBlocks;
+        private long sampled;
+        private long matches;
+        private double sumSquaredMatches;
+
+        private Stratum(String name, long size) {
+            this.name = name;
+            this.size = size;
+            this.numBlocks = (int) ((size + blockSize - 1) / blockSize);
+            this.sampledBlocks = new BitSet(numBlocks);
+        }
+
+        private boolean isExhausted() {
+            return sampled >= size || sampledBlocks.cardinality() >= numBlocks;
+        }
+
+        private int nextBlock(Random random) {
+            int block = sampledBlocks.nextClearBit(random.nextInt(numBlocks));
+            if (block >= numBlocks) {
+                block = sampledBlocks.nextClearBit(0);
+            }
+            sampledBlocks.set(block);
+            return block;
+        }
+
+        private void addBlock(int size, long blockMatches) {
+            sampled += size;
+            matches += blockMatches;
+            sumSquaredMatches += (double) blockMatches * blockMatches;
+        }
+
+        /**
+         * Variance of the matches per candidate, from the variance of the matches per block.
+         * Never lower than the binomial variance with a smoothed proportion, so strata without matches in the sample,
+         * or with too few blocks, still add uncertainty.
+         *
+         * @return Variance per candidate
+         */
+        private double unitVariance() {
+            int b = sampledBlocks.cardinality();
+            double blockVariance = 0;
+            if (b > 1) {
+                double mean = matches / (double) b;
+                blockVariance = (sumSquaredMatches - b * mean * mean) / (b - 1);
+            }
+            double p = (matches + 0.5) / (sampled + 1);
+            return Math.max(blockVariance / ((double) blockSize * blockSize), p * (1 - p) / blockSize);
+        }
+    }
+
+    /**
+     * Estimated count, with the confidence bounds.
+     */
+    public static class Estimate {
+        private final long count;
+        private final long lowerBound;
+        private final long upperBound;
+        private final int samplingSize;
+        private final boolean exact;
+        private final double relativeError;
+
+        public Estimate(long count, long lowerBound, long upperBound, int samplingSize, boolean exact, double relativeError) {
+            this.count = count;
+            this.lowerBound = lowerBound;
+            this.upperBound = upperBound;
+            this.samplingSize = samplingSize;
+            this.exact = exact;
+            this.relativeError = relativeError;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getLowerBound() {
+            return lowerBound;
+        }
+
+        public long getUpperBound() {
+            return upperBound;
+        }
+
+        public int getSamplingSize() {
+            return samplingSize;
+        }
+
+        public boolean isExact() {
+            return exact;
+        }
+
+        public double getRelativeError() {
+            return relativeError;
+        }
+
+        @Override
+        public String toString() {
+            return "Estimate{"
+                    + "count=" + count
+                    + ", lowerBound=" + lowerBound
+                    + ", upperBound=" + upperBound
+                    + ", samplingSize=" + samplingSize
+                    + ", exact=" + exact
+                    + ", relativeError=" + relativeError
+                    + '}';
+        }
+    }
+}
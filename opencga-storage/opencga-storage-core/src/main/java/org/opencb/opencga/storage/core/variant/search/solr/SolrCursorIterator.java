@@ -0,0 +1,280 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.variant.search.solr;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.params.CursorMarkParams;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryException;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Iterates over the results of a Solr query using cursor marks, prefetching the next pages in background.
+ *
+ * <ul>
+ *     <li>The request of the page N+1 is sent as soon as the response of the page N arrives, while the page N is being converted
+ *     and consumed. At most {@link #DEFAULT_PREFETCH_PAGES} pages are requested ahead of the consumer, so memory is bounded.</li>
+ *     <li>Pages are converted in a small shared worker pool, in order, instead of in the consumer thread.
+ *     Requests are sent from a separate pool, as they are mostly waiting for the network.</li>
+ *     <li>The page size is doubled while the responses are faster than half the target response time, and halved when slower
+ *     than twice the target, between a min and a max page size.</li>
+ * </ul>
+ *
+ * @param <T> Result type
+ */
+public class SolrCursorIterator<T> implements Iterator<T>, AutoCloseable {
+
+    public static final int DEFAULT_MIN_PAGE_SIZE = 100;
+    public static final int DEFAULT_MAX_PAGE_SIZE = 5000;
+    public static final int DEFAULT_PREFETCH_PAGES = 2;
+    public static final long DEFAULT_TARGET_RESPONSE_TIME_MS = 500;
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+    private static final ExecutorService REQUEST_EXECUTOR = Executors.newCachedThreadPool(r -> newThread(r, "solr-cursor-request-"));
+    private static final ExecutorService CONVERTER_EXECUTOR = Executors.newFixedThreadPool(
+            Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors())), r -> newThread(r, "solr-cursor-converter-"));
+
+    private final SolrClient solrClient;
+    private final String collection;
+    private final SolrQuery solrQuery;
+    private final Function<QueryResponse, List<T>> converter;
+    private final int minPageSize;
+    private final int maxPageSize;
+    private final int prefetchPages;
+    private final long targetResponseTimeMs;
+
+    // Only modified within the chain of requests, which are executed sequentially
+    private volatile int pageSize;
+    private int remaining;
+
+    private final Deque<CompletableFuture<Page<T>>> pages = new ArrayDeque<>();
+    private CompletableFuture<Response> lastRequest;
+    private CompletableFuture<Page<T>> lastPage;
+    private Iterator<T> current = Collections.emptyIterator();
+    private boolean finished;
+    private long numFound = -1;
+
+    private static Thread newThread(Runnable r, String prefix) {
+        Thread thread = new Thread(r, prefix + THREAD_COUNT.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    private static final class Response {
+        private final QueryResponse queryResponse;
+        private final boolean last;
+
+        private Response(QueryResponse queryResponse, boolean last) {
+            this.queryResponse = queryResponse;
+            this.last = last;
+        }
+    }
+
+    private static final class Page<T> {
+        private final List<T> results;
+        private final long numFound;
+        private final boolean last;
+
+        private Page(List<T> results, long numFound, boolean last) {
+            this.results = results;
+            this.numFound = numFound;
+            this.last = last;
+        }
+    }
+
+    public SolrCursorIterator(SolrClient solrClient, String collection, SolrQuery solrQuery, Function<QueryResponse, List<T>> converter) {
+        this(solrClient, collection, solrQuery, converter, DEFAULT_MIN_PAGE_SIZE, DEFAULT_MAX_PAGE_SIZE, DEFAULT_PREFETCH_PAGES,
+                DEFAULT_TARGET_RESPONSE_TIME_MS);
+    }
+
+    /**
+     * @param solrClient            Solr client
+     * @param collection            Collection
+     * @param solrQuery             Query. The rows are the max number of results
+     * @param converter             Converts each response into a list of results. Executed in a worker thread
+     * @param minPageSize           Min number of documents per request. Used for the first request
+     * @param maxPageSize           Max number of documents per request
+     * @param prefetchPages         Number of pages requested ahead of the consumer
+     * @param targetResponseTimeMs  Target response time, to adapt the page size
+     */
+    public SolrCursorIterator(SolrClient solrClient, String collection, SolrQuery solrQuery, Function<QueryResponse, List<T>> converter,
+                              int minPageSize, int maxPageSize, int prefetchPages, long targetResponseTimeMs) {
+        this.solrClient = solrClient;
+        this.collection = collection;
+        this.solrQuery = solrQuery.getCopy();
+        this.converter = converter;
+        this.minPageSize = Math.max(1, minPageSize);
+        this.maxPageSize = Math.max(this.minPageSize, maxPageSize);
+        this.prefetchPages = Math.max(1, prefetchPages);
+        this.targetResponseTimeMs = targetResponseTimeMs;
+
+        // Cursors require a sort by the unique key
+        this.solrQuery.setSort(SolrQuery.SortClause.asc("id"));
+        // This is the limit of the user, or the default limit if it is not passed
+        this.remaining = (solrQuery.getRows() == null || solrQuery.getRows() < 0) ? Integer.MAX_VALUE : solrQuery.getRows();
+        this.pageSize = this.minPageSize;
+
+        // Cursors do not support skip. Fetch and discard these records
+        int skip = 0;
+        if (solrQuery.getStart() != null && solrQuery.getStart() > 0) {
+            skip = solrQuery.getStart();
+            this.remaining = (this.remaining < Integer.MAX_VALUE - skip) ? this.remaining + skip : Integer.MAX_VALUE;
+        }
+        this.solrQuery.setStart(null);
+
+        for (int i = 0; i < this.prefetchPages; i++) {
+            requestNextPage();
+        }
+        for (int i = 0; i < skip && hasNext(); i++) {
+            next();
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!current.hasNext()) {
+            if (finished) {
+                return false;
+            }
+            Page<T> page = join(pages.poll());
+            if (page.numFound >= 0) {
+                numFound = page.numFound;
+            }
+            current = page.results.iterator();
+            if (page.last) {
+                finished = true;
+                close();
+            } else {
+                requestNextPage();
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public T next() {
+        if (hasNext()) {
+            return current.next();
+        } else {
+            throw new NoSuchElementException();
+        }
+    }
+
+    @Override
+    public void close() {
+        for (CompletableFuture<Page<T>> page : pages) {
+            page.cancel(false);
+        }
+        pages.clear();
+    }
+
+    public long getNumFound() {
+        if (numFound < 0 && !pages.isEmpty()) {
+            numFound = join(pages.peek()).numFound;
+        }
+        return Math.max(numFound, 0);
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    private void requestNextPage() {
+        CompletableFuture<Response> request;
+        if (lastRequest == null) {
+            request = CompletableFuture.supplyAsync(() -> query(CursorMarkParams.CURSOR_MARK_START), REQUEST_EXECUTOR);
+        } else {
+            request = lastRequest.thenApplyAsync(previous -> previous.last
+                    ? previous
+                    : query(previous.queryResponse.getNextCursorMark()), REQUEST_EXECUTOR);
+        }
+        // Convert pages in order. Converters are not required to be thread safe
+        CompletableFuture<Page<T>> page;
+        if (lastPage == null) {
+            page = request.thenApplyAsync(this::convert, CONVERTER_EXECUTOR);
+        } else {
+            page = request.thenCombineAsync(lastPage, (response, previousPage) -> convert(response), CONVERTER_EXECUTOR);
+        }
+        lastRequest = request;
+        lastPage = page;
+        pages.add(page);
+    }
+
+    private Response query(String cursorMark) {
+        int rows = Math.min(pageSize, remaining);
+        if (rows <= 0) {
+            return new Response(null, true);
+        }
+        SolrQuery query = solrQuery.getCopy();
+        query.setRows(rows);
+        query.set(CursorMarkParams.CURSOR_MARK_PARAM, cursorMark);
+        long start = System.currentTimeMillis();
+        QueryResponse queryResponse;
+        try {
+            queryResponse = solrClient.query(collection, query);
+        } catch (SolrServerException | IOException e) {
+            throw new CompletionException(e);
+        }
+        int numResults = queryResponse.getResults().size();
+        remaining -= numResults;
+        adaptPageSize(System.currentTimeMillis() - start, numResults, rows);
+
+        // Less results than requested, or the same cursor mark, means that there are no more results in the server
+        boolean last = numResults < rows || remaining <= 0 || cursorMark.equals(queryResponse.getNextCursorMark());
+        return new Response(queryResponse, last);
+    }
+
+    private Page<T> convert(Response response) {
+        if (response.queryResponse == null) {
+            return new Page<>(Collections.emptyList(), -1, true);
+        }
+        return new Page<>(converter.apply(response.queryResponse), response.queryResponse.getResults().getNumFound(), response.last);
+    }
+
+    private void adaptPageSize(long time, int numResults, int rows) {
+        if (numResults < rows) {
+            // Last page. Not representative
+            return;
+        }
+        if (time < targetResponseTimeMs / 2) {
+            pageSize = Math.min(maxPageSize, pageSize * 2);
+        } else if (time > targetResponseTimeMs * 2) {
+            pageSize = Math.max(minPageSize, pageSize / 2);
+        }
+    }
+
+    private Page<T> join(CompletableFuture<Page<T>> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            close();
+            finished = true;
+            Throwable cause = e.getCause() == null ? e : e.getCause();
+            if (cause instanceof VariantQueryException) {
+                throw (VariantQueryException) cause;
+            }
+            throw new VariantQueryException("Error searching more variants", cause);
+        }
+    }
+}
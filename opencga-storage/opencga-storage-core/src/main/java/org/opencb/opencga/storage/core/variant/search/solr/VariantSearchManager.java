@@ -27,7 +27,6 @@ import org.apache.solr.client.solrj.response.*;
 import org.apache.solr.common.util.NamedList;
 import org.opencb.biodata.formats.variant.io.VariantReader;
 import org.opencb.biodata.models.variant.Variant;
-import org.opencb.biodata.models.variant.annotation.ConsequenceTypeMappings;
 import org.opencb.commons.ProgressLogger;
 import org.opencb.commons.datastore.core.Query;
 import org.opencb.commons.datastore.core.QueryOptions;
@@ -40,6 +39,7 @@ import org.opencb.opencga.storage.core.config.StorageConfiguration;
 import org.opencb.opencga.storage.core.exceptions.StorageEngineException;
 import org.opencb.opencga.storage.core.exceptions.VariantSearchException;
 import org.opencb.opencga.storage.core.metadata.StudyConfigurationManager;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantField;
 import org.opencb.opencga.storage.core.variant.adaptors.iterators.VariantDBIterator;
 import org.opencb.opencga.storage.core.variant.io.VariantReaderUtils;
 import org.opencb.opencga.storage.core.variant.search.VariantSearchModel;
@@ -54,6 +54,10 @@ import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
 
+import static org.opencb.opencga.storage.core.variant.search.solr.VariantSearchUtils.getIncludeMap;
+import static org.opencb.opencga.storage.core.variant.search.solr.VariantSearchUtils.toInclude;
+import static org.opencb.opencga.storage.core.variant.search.solr.VariantSearchUtils.updateValueIfSoAcc;
+
 /**
  * Created by imedina on 09/11/16.
  * Created by wasim on 09/11/16.
@@ -199,6 +203,36 @@ public class VariantSearchManager {
         logger.debug("Variant Search loading done: {} variants indexed", count);
     }
 
+    /**
+     * Delete variants from a Solr core/collection.
+     *
+     * @param collection Collection name
+     * @param variantIds Iterator over the ids of the variants to delete, as returned by {@link Variant#toString()}
+     * @return Number of deleted variants
+     * @throws IOException            IOException
+     * @throws VariantSearchException VariantSearchException
+     */
+    public int delete(String collection, Iterator<String> variantIds) throws IOException, VariantSearchException {
+        int count = 0;
+        List<String> ids = new ArrayList<>(insertBatchSize);
+        while (variantIds.hasNext()) {
+            ids.add(variantIds.next());
+            count++;
+            if (ids.size() == insertBatchSize) {
+                delete(collection, ids);
+                ids.clear();
+            }
+        }
+
+        // Delete the remaining variants
+        if (!ids.isEmpty()) {
+            delete(collection, ids);
+        }
+
+        logger.debug("Variant Search delete done: {} variants deleted", count);
+        return count;
+    }
+
     /**
      * Return the list of Variant objects from a Solr core/collection
      * according a given query.
@@ -314,6 +348,68 @@ public class VariantSearchManager {
     }
 
 
+    /**
+     * Count the variants matching a given query for each chromosome.
+     *
+     * @param collection   Collection name
+     * @param query        Query
+     * @return Number of variants per chromosome. Chromosomes without variants are not included
+     * @throws IOException            IOException
+     * @throws VariantSearchException VariantSearchException
+     */
+    public Map<String, Long> countByChromosome(String collection, Query query) throws IOException, VariantSearchException {
+        SolrQuery solrQuery = solrQueryParser.parse(query, new QueryOptions(QueryOptions.LIMIT, 0));
+        solrQuery.setFacet(true);
+        solrQuery.addFacetField("chromosome");
+        solrQuery.setFacetLimit(-1);
+        solrQuery.setFacetMinCount(1);
+        try {
+            QueryResponse response = solrManager.getSolrClient().query(collection, solrQuery);
+            Map<String, Long> counts = new LinkedHashMap<>();
+            FacetField facetField = response.getFacetField("chromosome");
+            if (facetField != null && facetField.getValues() != null) {
+                for (FacetField.Count count : facetField.getValues()) {
+                    counts.put(count.getName(), count.getCount());
+                }
+            }
+            return counts;
+        } catch (SolrServerException e) {
+            throw new VariantSearchException("Error fetching from Solr", e);
+        }
+    }
+
+    /**
+     * Return the ids of a consecutive block of variants from one chromosome matching a given query.
+     * Used to take samples of the variants within a chromosome, moving the skip randomly.
+     *
+     * @param collection   Collection name
+     * @param query        Query
+     * @param chromosome   Chromosome
+     * @param skip         Variants to skip within the chromosome
+     * @param limit        Max number of ids to return
+     * @return List of variant ids
+     * @throws IOException            IOException
+     * @throws VariantSearchException VariantSearchException
+     */
+    public List<String> nativeIds(String collection, Query query, String chromosome, int skip, int limit)
+            throws IOException, VariantSearchException {
+        QueryOptions queryOptions = new QueryOptions(QueryOptions.INCLUDE, VariantField.ID.fieldName())
+                .append(QueryOptions.SKIP, skip)
+                .append(QueryOptions.LIMIT, limit);
+        SolrQuery solrQuery = solrQueryParser.parse(query, queryOptions);
+        solrQuery.addFilterQuery("chromosome:\"" + chromosome + "\"");
+        try {
+            QueryResponse response = solrManager.getSolrClient().query(collection, solrQuery);
+            List<String> ids = new ArrayList<>(limit);
+            for (VariantSearchModel variantSearchModel : response.getBeans(VariantSearchModel.class)) {
+                ids.add(variantSearchModel.getId());
+            }
+            return ids;
+        } catch (SolrServerException e) {
+            throw new VariantSearchException("Error fetching from Solr", e);
+        }
+    }
+
     /**-------------------------------------
      *  P R I V A T E    M E T H O D S
      -------------------------------------*/
@@ -342,6 +438,17 @@ public class VariantSearchManager {
         }
     }
 
+    private void delete(String collection, List<String> variantIds) throws IOException, VariantSearchException {
+        try {
+            UpdateResponse updateResponse = solrManager.getSolrClient().deleteById(collection, variantIds);
+            if (updateResponse.getStatus() == 0) {
+                solrManager.getSolrClient().commit(collection);
+            }
+        } catch (SolrServerException e) {
+            throw new VariantSearchException(e.getMessage(), e);
+        }
+    }
+
     /**
      * Load a JSON file into the Solr core/collection.
      *
@@ -426,57 +533,6 @@ public class VariantSearchManager {
         return field;
     }
 
-    private Map<String, Set<String>> getIncludeMap(QueryOptions queryOptions) {
-        Map<String, Set<String>> includeMap = new HashMap<>();
-
-        if (queryOptions.containsKey(QueryOptions.FACET)) {
-            String strFields = queryOptions.getString(QueryOptions.FACET);
-            if (StringUtils.isNotEmpty(strFields)) {
-                String[] fieldsBySc = strFields.split("[;]");
-                for (String fieldSc : fieldsBySc) {
-                    String[] fieldsByGt = fieldSc.split(">>");
-                    for (String fieldGt : fieldsByGt) {
-                        String[] splits1 = fieldGt.split("[\\[\\]]");
-                        // first, name
-                        String name = splits1[0];
-
-                        // second, includes
-                        if (splits1.length >= 2 && StringUtils.isNotEmpty(splits1[1])) {
-                            // we have to split by "," to get the includes
-                            String[] includes = splits1[1].split(",");
-                            for (String include : includes) {
-                                if (!includeMap.containsKey(name)) {
-                                    includeMap.put(name, new HashSet<>());
-                                }
-                                includeMap.get(name).add(include);
-                            }
-                        }
-                    }
-                }
-            }
-        }
-        return includeMap;
-    }
-
-    private boolean toInclude(Map<String, Set<String>> includes, String name, String value) {
-        boolean ret = false;
-        if (includes.size() == 0
-                || !includes.containsKey(name)
-                || (includes.containsKey(name) && includes.get(name).contains(value))) {
-            ret = true;
-        }
-        return ret;
-    }
-
-    private String updateValueIfSoAcc(String fieldName, String fieldValue) {
-        String value = fieldValue;
-        if (("soAcc").equals(fieldName)) {
-            int so = Integer.parseInt(fieldValue);
-            value = ConsequenceTypeMappings.accessionToTerm.get(so) + String.format(" (SO:%07d)", so);
-        }
-        return value;
-    }
-
     private FacetedQueryResultItem toFacetedQueryResultItem(QueryOptions queryOptions, QueryResponse response) {
         Map<String, Set<String>> includes = getIncludeMap(queryOptions);
         String countName;
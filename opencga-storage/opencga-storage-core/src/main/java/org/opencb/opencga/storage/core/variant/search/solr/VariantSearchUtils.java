@@ -16,13 +16,15 @@
 
 package org.opencb.opencga.storage.core.variant.search.solr;
 
+import org.apache.commons.lang3.StringUtils;
+import org.opencb.biodata.models.variant.annotation.ConsequenceTypeMappings;
 import org.opencb.commons.datastore.core.Query;
 import org.opencb.commons.datastore.core.QueryOptions;
 import org.opencb.opencga.storage.core.exceptions.StorageEngineException;
 import org.opencb.opencga.storage.core.metadata.StudyConfigurationManager;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantField;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryParam;
-import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryUtils;
+import org.opencb.opencga.storage.core.variant.query.VariantQuery;
 
 import java.util.*;
 
@@ -128,10 +130,68 @@ public class VariantSearchUtils {
                 engineQuery.put(STUDY.key(), query.get(STUDY.key()));
             } else if (!isValidParam(query, INCLUDE_STUDY)) {
                 // If returned studies is not defined, we need to define it with the values from STUDIES
-                List<Integer> studies = VariantQueryUtils.getIncludeStudies(query, options, scm);
+                List<Integer> studies = VariantQuery.get(query, scm).getSelectElements(options, scm).getStudies();
                 engineQuery.put(INCLUDE_STUDY.key(), studies);
             }
         }
         return engineQuery;
     }
+
+    /**
+     * Read the values to include of each facet field, from the facet query option.
+     * The format of each field is: field_name[value_1,value_2,...]:skip:limit
+     *
+     * @param queryOptions Query options with the facets
+     * @return Values to include by field name. Fields without includes are not in the map
+     */
+    public static Map<String, Set<String>> getIncludeMap(QueryOptions queryOptions) {
+        Map<String, Set<String>> includeMap = new HashMap<>();
+
+        if (queryOptions.containsKey(QueryOptions.FACET)) {
+            String strFields = queryOptions.getString(QueryOptions.FACET);
+            if (StringUtils.isNotEmpty(strFields)) {
+                String[] fieldsBySc = strFields.split("[;]");
+                for (String fieldSc : fieldsBySc) {
+                    String[] fieldsByGt = fieldSc.split(">>");
+                    for (String fieldGt : fieldsByGt) {
+                        String[] splits1 = fieldGt.split("[\\[\\]]");
+                        // first, name
+                        String name = splits1[0];
+
+                        // second, includes
+                        if (splits1.length >= 2 && StringUtils.isNotEmpty(splits1[1])) {
+                            // we have to split by "," to get the includes
+                            String[] includes = splits1[1].split(",");
+                            for (String include : includes) {
+                                if (!includeMap.containsKey(name)) {
+                                    includeMap.put(name, new HashSet<>());
+                                }
+                                includeMap.get(name).add(include);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return includeMap;
+    }
+
+    public static boolean toInclude(Map<String, Set<String>> includes, String name, String value) {
+        boolean ret = false;
+        if (includes.size() == 0
+                || !includes.containsKey(name)
+                || (includes.containsKey(name) && includes.get(name).contains(value))) {
+            ret = true;
+        }
+        return ret;
+    }
+
+    public static String updateValueIfSoAcc(String fieldName, String fieldValue) {
+        String value = fieldValue;
+        if (("soAcc").equals(fieldName)) {
+            int so = Integer.parseInt(fieldValue);
+            value = ConsequenceTypeMappings.accessionToTerm.get(so) + String.format(" (SO:%07d)", so);
+        }
+        return value;
+    }
 }
@@ -21,38 +21,49 @@ import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.opencb.biodata.models.variant.Variant;
 import org.opencb.opencga.storage.core.variant.adaptors.iterators.VariantDBIterator;
+import org.opencb.opencga.storage.core.variant.search.VariantSearchModel;
 import org.opencb.opencga.storage.core.variant.search.VariantSearchToVariantConverter;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Created by jtarraga on 01/03/17.
  */
 public class VariantSolrIterator extends VariantDBIterator {
 
-    private VariantSearchSolrIterator variantSearchSolrIterator;
+    private SolrCursorIterator<Variant> cursorIterator;
     private VariantSearchToVariantConverter variantSearchToVariantConverter;
     private int count = 0;
 
     public VariantSolrIterator(SolrClient solrClient, String collection, SolrQuery solrQuery) throws IOException, SolrServerException {
-        variantSearchSolrIterator = new VariantSearchSolrIterator(solrClient, collection, solrQuery);
         variantSearchToVariantConverter = new VariantSearchToVariantConverter();
+        // Pages are fetched in background, and converted in a worker thread
+        cursorIterator = new SolrCursorIterator<>(solrClient, collection, solrQuery, response -> {
+            List<VariantSearchModel> beans = response.getBeans(VariantSearchModel.class);
+            List<Variant> variants = new ArrayList<>(beans.size());
+            for (VariantSearchModel bean : beans) {
+                variants.add(variantSearchToVariantConverter.convertToDataModelType(bean));
+            }
+            return variants;
+        });
     }
 
     @Override
     public boolean hasNext() {
-        return variantSearchSolrIterator.hasNext();
+        return cursorIterator.hasNext();
     }
 
     @Override
     public Variant next() {
         count++;
-        return variantSearchToVariantConverter.convertToDataModelType(variantSearchSolrIterator.next());
+        return cursorIterator.next();
     }
 
     @Override
     public void close() throws Exception {
-        // nothing to do
+        cursorIterator.close();
     }
 
     @Override
@@ -61,7 +72,7 @@ public class VariantSolrIterator extends VariantDBIterator {
     }
 
     public long getNumFound() {
-        return variantSearchSolrIterator.getNumFound();
+        return cursorIterator.getNumFound();
     }
 
 }
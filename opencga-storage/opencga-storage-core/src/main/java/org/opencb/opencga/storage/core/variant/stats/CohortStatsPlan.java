@@ -0,0 +1,130 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.variant.stats;
+
+import java.util.*;
+
+/**
+ * Precompiled mapping from sample positions to cohorts.
+ *
+ * For every sample position of a {@link org.opencb.biodata.models.variant.StudyEntry} stores a bitset with the
+ * cohorts containing that sample. The plan only depends on the samples position and the cohort definitions, so
+ * it can be built once per study and reused for every variant.
+ */
+public final class CohortStatsPlan {
+
+    private final Map<String, Integer> samplesPosition;
+    private final Map<String, Set<String>> cohorts;
+    private final String[] cohortNames;
+    private final int[] cohortSizes;
+    private final int words;
+    // Flattened bitsets. Cohorts of the sample at position "p" are in [p * words, (p + 1) * words)
+    private final long[] cohortMasks;
+    private final int numSamples;
+
+    private CohortStatsPlan(Map<String, Integer> samplesPosition, Map<String, Set<String>> cohorts) {
+        this.samplesPosition = samplesPosition;
+        this.cohorts = cohorts;
+        cohortNames = cohorts.keySet().toArray(new String[0]);
+        cohortSizes = new int[cohortNames.length];
+        words = Math.max(1, (cohortNames.length + 63) >>> 6);
+
+        int maxPosition = -1;
+        for (Integer position : samplesPosition.values()) {
+            maxPosition = Math.max(maxPosition, position);
+        }
+        numSamples = maxPosition + 1;
+        cohortMasks = new long[numSamples * words];
+
+        for (int cohortIdx = 0; cohortIdx < cohortNames.length; cohortIdx++) {
+            Set<String> samples = cohorts.get(cohortNames[cohortIdx]);
+            if (samples == null) {
+                continue;
+            }
+            for (String sample : samples) {
+                Integer position = samplesPosition.get(sample);
+                if (position != null) {
+                    cohortMasks[position * words + (cohortIdx >>> 6)] |= 1L << (cohortIdx & 63);
+                    cohortSizes[cohortIdx]++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Build a new plan.
+     *
+     * @param samplesPosition Samples position of the StudyEntry
+     * @param cohorts         Cohorts to calculate. Keys are cohort names, values are sets of sample names.
+     * @return The compiled plan
+     */
+    public static CohortStatsPlan compile(Map<String, Integer> samplesPosition, Map<String, Set<String>> cohorts) {
+        return new CohortStatsPlan(Objects.requireNonNull(samplesPosition), Objects.requireNonNull(cohorts));
+    }
+
+    /**
+     * Check if this plan can be used with the given samples position and cohorts.
+     * Same instances are checked first, as the samples position is usually shared between all the variants of a batch.
+     *
+     * @param otherSamplesPosition Samples position of the StudyEntry
+     * @param otherCohorts         Cohorts to calculate
+     * @return if the plan is valid for the given input
+     */
+    public boolean isCompatible(Map<String, Integer> otherSamplesPosition, Map<String, Set<String>> otherCohorts) {
+        return (samplesPosition == otherSamplesPosition || samplesPosition.equals(otherSamplesPosition))
+                && (cohorts == otherCohorts || cohorts.equals(otherCohorts));
+    }
+
+    public int getNumCohorts() {
+        return cohortNames.length;
+    }
+
+    public String getCohortName(int cohortIdx) {
+        return cohortNames[cohortIdx];
+    }
+
+    /**
+     * Number of samples of the cohort present in the samples position.
+     *
+     * @param cohortIdx Cohort index
+     * @return Number of samples
+     */
+    public int getCohortSize(int cohortIdx) {
+        return cohortSizes[cohortIdx];
+    }
+
+    public int getNumSamples() {
+        return numSamples;
+    }
+
+    int getWords() {
+        return words;
+    }
+
+    long[] getCohortMasks() {
+        return cohortMasks;
+    }
+
+    @Override
+    public String toString() {
+        return "CohortStatsPlan{"
+                + "cohorts=" + Arrays.toString(cohortNames)
+                + ", cohortSizes=" + Arrays.toString(cohortSizes)
+                + ", numSamples=" + numSamples
+                + '}';
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.variant.stats;
+
+import org.opencb.biodata.models.feature.Genotype;
+import org.opencb.biodata.models.variant.StudyEntry;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.stats.VariantStats;
+import org.opencb.biodata.tools.variant.stats.VariantStatsCalculator;
+
+import java.util.*;
+
+/**
+ * Counts genotypes for all the cohorts of a {@link CohortStatsPlan} in a single pass over the samples data.
+ *
+ * Each distinct genotype string of the variant is assigned a small integer code. Counts are accumulated in a
+ * primitive array indexed by code and cohort, and converted into {@link VariantStats} only at the end.
+ *
+ * Instances are reusable, but not thread safe.
+ */
+public class GenotypeCountKernel {
+
+    private static final int INITIAL_CODES = 8;
+
+    private String[] codes = new String[INITIAL_CODES];
+    private int numCodes;
+    // counts[code * numCohorts + cohort]
+    private int[] counts = new int[0];
+    private int numCohorts;
+
+    /**
+     * Count the genotypes of all the cohorts for the given study.
+     *
+     * @param study     StudyEntry with the samples data
+     * @param gtIdx     Position of the GT field in the format
+     * @param plan      Precompiled cohort plan
+     */
+    public void count(StudyEntry study, int gtIdx, CohortStatsPlan plan) {
+        reset(plan);
+
+        List<List<String>> samplesData = study.getSamplesData();
+        long[] masks = plan.getCohortMasks();
+        int words = plan.getWords();
+        int numSamples = Math.min(samplesData.size(), plan.getNumSamples());
+
+        for (int samplePosition = 0; samplePosition < numSamples; samplePosition++) {
+            int maskOffset = samplePosition * words;
+            // Skip samples not present in any cohort before reading the genotype
+            if (isEmpty(masks, maskOffset, words)) {
+                continue;
+            }
+            List<String> sampleData = samplesData.get(samplePosition);
+            String gt = gtIdx < sampleData.size() ? sampleData.get(gtIdx) : null;
+            int countsOffset = getCode(gt) * numCohorts;
+
+            for (int w = 0; w < words; w++) {
+                long word = masks[maskOffset + w];
+                while (word != 0) {
+                    int cohortIdx = (w << 6) + Long.numberOfTrailingZeros(word);
+                    counts[countsOffset + cohortIdx]++;
+                    word &= word - 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * Build the VariantStats for each cohort from the accumulated counts.
+     *
+     * @param variant   Variant
+     * @param plan      Plan used in the last call to {@link #count}
+     * @return Map from cohort name to VariantStats
+     */
+    public Map<String, VariantStats> buildStats(Variant variant, CohortStatsPlan plan) {
+        Map<String, VariantStats> stats = new HashMap<>(plan.getNumCohorts() * 2);
+        Genotype[] genotypes = new Genotype[numCodes];
+        for (int code = 0; code < numCodes; code++) {
+            if (codes[code] != null) {
+                genotypes[code] = new Genotype(codes[code], variant.getReference(), variant.getAlternate());
+            }
+        }
+        for (int cohortIdx = 0; cohortIdx < numCohorts; cohortIdx++) {
+            Map<Genotype, Integer> gtCountMap = new HashMap<>(numCodes * 2);
+            for (int code = 0; code < numCodes; code++) {
+                int count = counts[code * numCohorts + cohortIdx];
+                if (count > 0 && genotypes[code] != null) {
+                    gtCountMap.merge(genotypes[code], count, Integer::sum);
+                }
+            }
+            stats.put(plan.getCohortName(cohortIdx), VariantStatsCalculator.calculate(variant, gtCountMap));
+        }
+        return stats;
+    }
+
+    /**
+     * Get the count of a genotype for a cohort after calling {@link #count}.
+     *
+     * @param gt        Genotype string
+     * @param cohortIdx Cohort index in the plan
+     * @return Number of samples of the cohort with that genotype
+     */
+    public int getCount(String gt, int cohortIdx) {
+        for (int code = 0; code < numCodes; code++) {
+            if (Objects.equals(codes[code], gt)) {
+                return counts[code * numCohorts + cohortIdx];
+            }
+        }
+        return 0;
+    }
+
+    private void reset(CohortStatsPlan plan) {
+        numCohorts = plan.getNumCohorts();
+        numCodes = 0;
+        Arrays.fill(codes, null);
+        if (counts.length < INITIAL_CODES * numCohorts) {
+            counts = new int[INITIAL_CODES * numCohorts];
+        } else {
+            Arrays.fill(counts, 0);
+        }
+    }
+
+    private int getCode(String gt) {
+        // Linear scan. Variants rarely have more than a handful of distinct genotypes.
+        for (int code = 0; code < numCodes; code++) {
+            if (Objects.equals(codes[code], gt)) {
+                return code;
+            }
+        }
+        if (numCodes == codes.length) {
+            codes = Arrays.copyOf(codes, numCodes * 2);
+        }
+        if ((numCodes + 1) * numCohorts > counts.length) {
+            counts = Arrays.copyOf(counts, counts.length * 2);
+        }
+        codes[numCodes] = gt;
+        return numCodes++;
+    }
+
+    private static boolean isEmpty(long[] masks, int offset, int words) {
+        for (int w = 0; w < words; w++) {
+            if (masks[offset + w] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
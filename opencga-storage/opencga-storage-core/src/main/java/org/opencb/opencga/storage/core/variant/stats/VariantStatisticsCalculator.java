@@ -34,6 +34,8 @@ public class VariantStatisticsCalculator {
     private boolean overwrite;
     private VariantAggregatedStatsCalculator aggregatedCalculator;
     private Aggregation aggregation;
+    private CohortStatsPlan plan;
+    private final GenotypeCountKernel genotypeCountKernel = new GenotypeCountKernel();
 
     public VariantStatisticsCalculator() {
         this(false);
@@ -129,19 +131,13 @@ public class VariantStatisticsCalculator {
             study.setStats(new HashMap<>());
 
             if (!AggregationUtils.isAggregated(aggregation) && samples != null) {
-                for (Map.Entry<String, Set<String>> cohort : samples.entrySet()) {
-                    if (overwrite || study.getStats(cohort.getKey()) == null) {
-
-                        VariantStats variantStats = new VariantStats(variant);
-                        Map<String, String> attributes = study.getAttributes();
-                        attributes = attributes == null
-                                ? Collections.emptyMap()
-                                : attributes;
-
-                        VariantStatsCalculator.calculate(study, cohort.getValue(), attributes, null, variantStats);
-                        study.setStats(cohort.getKey(), variantStats);
-
-                    }
+                Integer gtIdx = study.getFormatPositions().get("GT");
+                if (gtIdx == null) {
+                    calculateBySampleNames(variant, study, samples);
+                } else {
+                    CohortStatsPlan cohortStatsPlan = getPlan(study.getSamplesPosition(), samples);
+                    genotypeCountKernel.count(study, gtIdx, cohortStatsPlan);
+                    study.setStats(genotypeCountKernel.buildStats(variant, cohortStatsPlan));
                 }
             } else if (aggregatedCalculator != null) { // another way to say that the study is aggregated (!Aggregation
                 // .NONE.equals(aggregation))
@@ -161,6 +157,35 @@ public class VariantStatisticsCalculator {
         return variantStatsWrappers;
     }
 
+    /**
+     * Reuse the last compiled plan if possible. Variants from the same batch usually share the samples position.
+     *
+     * @param samplesPosition Samples position of the StudyEntry
+     * @param cohorts         Cohorts to calculate
+     * @return Compiled plan
+     */
+    private CohortStatsPlan getPlan(Map<String, Integer> samplesPosition, Map<String, Set<String>> cohorts) {
+        if (plan == null || !plan.isCompatible(samplesPosition, cohorts)) {
+            plan = CohortStatsPlan.compile(samplesPosition, cohorts);
+        }
+        return plan;
+    }
+
+    /**
+     * Fallback for studies without the GT field. Reads the samples data by sample name for each cohort.
+     */
+    private void calculateBySampleNames(Variant variant, StudyEntry study, Map<String, Set<String>> samples) {
+        Map<String, String> attributes = study.getAttributes();
+        attributes = attributes == null
+                ? Collections.emptyMap()
+                : attributes;
+        for (Map.Entry<String, Set<String>> cohort : samples.entrySet()) {
+            VariantStats variantStats = new VariantStats(variant);
+            VariantStatsCalculator.calculate(study, cohort.getValue(), attributes, null, variantStats);
+            study.setStats(cohort.getKey(), variantStats);
+        }
+    }
+
     @Deprecated
     public static Map<String, String> removeAttributePrefix(Map<String, String> attributes)
             throws IllegalArgumentException {
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.variant.transform;
+
+import org.opencb.biodata.tools.variant.VariantNormalizer;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link VariantNormalizer} that caches the decomposition of the alleles.
+ *
+ * The normalization of a variant without a reference genome only depends on the reference and alternate alleles.
+ * The chromosome is not used, and the position only shifts the result. The result is cached relative to the position,
+ * so variants with the same alleles, like the multi-allelic indels found in repeated regions, are normalized once.
+ *
+ * Results with reference blocks or decomposed MNVs are not cached. Alleles longer than the max allele length are not
+ * cached, to bound the memory used by the cache.
+ *
+ * Not thread safe. Each transform task has its own normalizer.
+ */
+public class CachedVariantNormalizer extends VariantNormalizer {
+
+    public static final int DEFAULT_MAX_ALLELE_LENGTH = 1000;
+
+    private final Map<String, List<RelativeKeyFields>> cache;
+    private final int maxAlleleLength;
+    private long hits;
+    private long misses;
+
+    public CachedVariantNormalizer(boolean reuseVariants, boolean removeNonVariants, boolean decomposeMNVs, int cacheSize) {
+        this(reuseVariants, removeNonVariants, decomposeMNVs, cacheSize, DEFAULT_MAX_ALLELE_LENGTH);
+    }
+
+    public CachedVariantNormalizer(boolean reuseVariants, boolean removeNonVariants, boolean decomposeMNVs, int cacheSize,
+                                   int maxAlleleLength) {
+        super(reuseVariants, removeNonVariants, decomposeMNVs);
+        this.maxAlleleLength = maxAlleleLength;
+        this.cache = new LinkedHashMap<String, List<RelativeKeyFields>>(Math.min(cacheSize, 1024), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<RelativeKeyFields>> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    @Override
+    public List<VariantKeyFields> normalize(String chromosome, int position, String reference, List<String> alternates) {
+        String key = buildKey(reference, alternates);
+        if (key == null) {
+            return super.normalize(chromosome, position, reference, alternates);
+        }
+        List<RelativeKeyFields> cached = cache.get(key);
+        if (cached != null) {
+            hits++;
+            List<VariantKeyFields> keyFieldsList = new ArrayList<>(cached.size());
+            for (RelativeKeyFields keyFields : cached) {
+                keyFieldsList.add(keyFields.toKeyFields(position));
+            }
+            return keyFieldsList;
+        }
+        misses++;
+        List<VariantKeyFields> keyFieldsList = super.normalize(chromosome, position, reference, alternates);
+        List<RelativeKeyFields> relative = new ArrayList<>(keyFieldsList.size());
+        for (VariantKeyFields keyFields : keyFieldsList) {
+            if (keyFields.getOriginalKeyFields() != null || keyFields.isReferenceBlock()) {
+                // Do not cache
+                return keyFieldsList;
+            }
+            relative.add(new RelativeKeyFields(keyFields, position));
+        }
+        cache.put(key, relative);
+        return keyFieldsList;
+    }
+
+    private String buildKey(String reference, List<String> alternates) {
+        int length = reference.length();
+        for (String alternate : alternates) {
+            length += alternate.length() + 1;
+        }
+        if (length > maxAlleleLength) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder(length + 1).append(reference);
+        for (String alternate : alternates) {
+            sb.append(':').append(alternate);
+        }
+        return sb.toString();
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    private static final class RelativeKeyFields {
+        private final int start;
+        private final int end;
+        private final int numAllele;
+        private final String reference;
+        private final String alternate;
+
+        private RelativeKeyFields(VariantKeyFields keyFields, int position) {
+            this.start = keyFields.getStart() - position;
+            this.end = keyFields.getEnd() - position;
+            this.numAllele = keyFields.getNumAllele();
+            this.reference = keyFields.getReference();
+            this.alternate = keyFields.getAlternate();
+        }
+
+        private VariantKeyFields toKeyFields(int position) {
+            return new VariantKeyFields(position + start, position + end, numAllele, reference, alternate);
+        }
+    }
+}
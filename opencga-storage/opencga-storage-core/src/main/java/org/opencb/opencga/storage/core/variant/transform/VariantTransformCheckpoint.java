@@ -0,0 +1,244 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.variant.transform;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.opencb.biodata.models.feature.Genotype;
+import org.opencb.biodata.models.variant.StudyEntry;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.VariantFileMetadata;
+import org.opencb.biodata.models.variant.stats.VariantStats;
+import org.opencb.biodata.tools.variant.stats.VariantSetStatsCalculator;
+import org.opencb.commons.io.DataReader;
+import org.opencb.opencga.storage.core.io.PipelineCheckpoint;
+import org.opencb.opencga.storage.core.io.SyncDataWriter;
+import org.opencb.opencga.storage.core.io.plain.StringDataWriter;
+import org.opencb.opencga.storage.core.variant.io.VariantReaderUtils;
+import org.opencb.opencga.storage.core.variant.io.avro.VariantAvroReader;
+import org.opencb.opencga.storage.core.variant.io.json.mixin.GenotypeJsonMixin;
+import org.opencb.opencga.storage.core.variant.io.json.mixin.VariantSourceEntryJsonMixin;
+import org.opencb.opencga.storage.core.variant.io.json.mixin.VariantStatsJsonMixin;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Checkpoint of the transform step into avro or json files.
+ *
+ * The checkpoint is stored next to the output file, with the number of lines read from the input, and the size of the output
+ * file at that point. When resuming, the output file is truncated to that size, the variants already transformed are
+ * replayed into the {@link VariantSetStatsCalculator}, and the lines already read are skipped.
+ *
+ * <pre>
+ *     VariantTransformCheckpoint transformCheckpoint = new VariantTransformCheckpoint(outputFile, writer);
+ *     long skipRecords = resume ? transformCheckpoint.resume() : 0;
+ *     PipelineCheckpoint checkpoint = new PipelineCheckpoint(skipRecords, interval, transformCheckpoint)
+ *             .setSync(transformCheckpoint);
+ * </pre>
+ */
+public class VariantTransformCheckpoint implements PipelineCheckpoint.Listener, PipelineCheckpoint.Sync {
+
+    public static final String CHECKPOINT_EXTENSION = ".checkpoint";
+    private static final int REPLAY_BATCH_SIZE = 1000;
+
+    private final Path outputFile;
+    private final Path checkpointFile;
+    private final SyncDataWriter<?> writer;
+    private long syncedBytes;
+    private long resumedBytes;
+
+    private final Logger logger = LoggerFactory.getLogger(VariantTransformCheckpoint.class);
+
+    public VariantTransformCheckpoint(Path outputFile, SyncDataWriter<?> writer) {
+        this.outputFile = outputFile;
+        this.checkpointFile = getCheckpointFile(outputFile);
+        this.writer = writer;
+    }
+
+    public static Path getCheckpointFile(Path outputFile) {
+        return outputFile.resolveSibling(outputFile.getFileName().toString() + CHECKPOINT_EXTENSION);
+    }
+
+    public static boolean isSupported(Path outputFile) {
+        return VariantReaderUtils.isAvro(outputFile.toString()) || StringDataWriter.isSyncSupported(outputFile);
+    }
+
+    /**
+     * Read the last checkpoint, if any, and truncate the output file to the checkpoint.
+     * The writer will append to the output file.
+     *
+     * @return Number of lines to skip from the input
+     * @throws IOException if the checkpoint can not be read, or the output file is shorter than the checkpoint
+     */
+    public long resume() throws IOException {
+        if (!Files.exists(checkpointFile) || !Files.exists(outputFile)) {
+            return 0;
+        }
+        String[] split = new String(Files.readAllBytes(checkpointFile), StandardCharsets.UTF_8).trim().split("\t", 3);
+        long records = Long.parseLong(split[0]);
+        long bytes = Long.parseLong(split[1]);
+        try (FileChannel channel = FileChannel.open(outputFile, StandardOpenOption.WRITE)) {
+            if (channel.size() < bytes) {
+                throw new IOException("Unable to resume transform. Output file " + outputFile + " has " + channel.size()
+                        + " bytes, expected at least " + bytes);
+            }
+            channel.truncate(bytes);
+        }
+        logger.info("Resume transform from line {} ({}). Keep {} bytes from {}", records, split.length > 2 ? split[2] : "",
+                bytes, outputFile);
+        writer.setAppend(true);
+        resumedBytes = bytes;
+        return records;
+    }
+
+    /**
+     * Wrap the reader of the pipeline to replay the variants already transformed into the stats calculator, before the first read.
+     * The stats calculator is shared by all the tasks, so this is done once all the tasks are initialized.
+     *
+     * @param reader          Reader to wrap
+     * @param statsCalculator Stats calculator shared by the transform tasks
+     * @param studyId         Study of the transformed variants
+     * @param metadata        Metadata of the file being transformed
+     * @return Wrapped reader
+     */
+    public DataReader<String> wrapReader(DataReader<String> reader, VariantSetStatsCalculator statsCalculator, String studyId,
+                                         VariantFileMetadata metadata) {
+        if (resumedBytes == 0) {
+            return reader;
+        }
+        return new DataReader<String>() {
+            private boolean replayed;
+
+            @Override
+            public boolean open() {
+                return reader.open();
+            }
+
+            @Override
+            public boolean pre() {
+                return reader.pre();
+            }
+
+            @Override
+            public List<String> read(int batchSize) {
+                if (!replayed) {
+                    try {
+                        replayStats(statsCalculator, studyId, metadata);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    replayed = true;
+                }
+                return reader.read(batchSize);
+            }
+
+            @Override
+            public boolean post() {
+                return reader.post();
+            }
+
+            @Override
+            public boolean close() {
+                return reader.close();
+            }
+        };
+    }
+
+    private void replayStats(VariantSetStatsCalculator statsCalculator, String studyId, VariantFileMetadata metadata)
+            throws IOException {
+        LinkedHashMap<String, Integer> samplesPosition = new LinkedHashMap<>();
+        metadata.getSamplesPosition().entrySet().stream()
+                .sorted(Map.Entry.comparingByValue())
+                .forEach(entry -> samplesPosition.put(entry.getKey(), samplesPosition.size()));
+
+        long count = 0;
+        if (VariantReaderUtils.isAvro(outputFile.toString())) {
+            VariantAvroReader reader = new VariantAvroReader(outputFile.toFile(), Collections.singletonMap(studyId, samplesPosition));
+            reader.open();
+            reader.pre();
+            List<Variant> batch = reader.read(REPLAY_BATCH_SIZE);
+            while (!batch.isEmpty()) {
+                statsCalculator.apply(batch);
+                count += batch.size();
+                batch = reader.read(REPLAY_BATCH_SIZE);
+            }
+            reader.post();
+            reader.close();
+        } else {
+            ObjectMapper objectMapper = new ObjectMapper();
+            objectMapper.addMixIn(StudyEntry.class, VariantSourceEntryJsonMixin.class);
+            objectMapper.addMixIn(Genotype.class, GenotypeJsonMixin.class);
+            objectMapper.addMixIn(VariantStats.class, VariantStatsJsonMixin.class);
+
+            InputStream is = new FileInputStream(outputFile.toFile());
+            if (outputFile.toString().endsWith(".gz")) {
+                is = new GZIPInputStream(is);
+            }
+            try (BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
+                List<Variant> batch = new ArrayList<>(REPLAY_BATCH_SIZE);
+                String line;
+                while ((line = bufferedReader.readLine()) != null) {
+                    Variant variant = objectMapper.readValue(line, Variant.class);
+                    for (StudyEntry studyEntry : variant.getStudies()) {
+                        studyEntry.setSortedSamplesPosition(samplesPosition);
+                    }
+                    batch.add(variant);
+                    if (batch.size() == REPLAY_BATCH_SIZE) {
+                        statsCalculator.apply(batch);
+                        count += batch.size();
+                        batch = new ArrayList<>(REPLAY_BATCH_SIZE);
+                    }
+                }
+                statsCalculator.apply(batch);
+                count += batch.size();
+            }
+        }
+        logger.info("Replayed stats of {} variants already transformed", count);
+    }
+
+    @Override
+    public long sync(long records) throws IOException {
+        syncedBytes = writer.sync();
+        return records;
+    }
+
+    @Override
+    public void checkpoint(long records, String lastRecord) throws IOException {
+        Path tmp = checkpointFile.resolveSibling(checkpointFile.getFileName().toString() + ".tmp");
+        String content = records + "\t" + syncedBytes + "\t" + (lastRecord == null ? "" : lastRecord) + "\n";
+        Files.write(tmp, content.getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Remove the checkpoint, once the transform is finished.
+     *
+     * @throws IOException if the checkpoint can not be removed
+     */
+    public void delete() throws IOException {
+        Files.deleteIfExists(checkpointFile);
+    }
+}
@@ -65,7 +65,7 @@ public abstract class VariantTransformTask<T> implements ParallelTaskRunner.Task
     protected final Logger logger = LoggerFactory.getLogger(VariantAvroTransformTask.class);
     protected final VCFCodec vcfCodec;
     protected final VariantContextToVariantConverter converter;
-    protected final VariantNormalizer normalizer;
+    protected VariantNormalizer normalizer;
     protected final Path outputFileJsonFile;
     protected final VariantSetStatsCalculator variantStatsTask;
     protected final AtomicLong htsConvertTime = new AtomicLong(0);
@@ -221,6 +221,10 @@ public abstract class VariantTransformTask<T> implements ParallelTaskRunner.Task
         logger.debug("Time txt2hts: " + this.htsConvertTime.get());
         logger.debug("Time hts2biodata: " + this.biodataConvertTime.get());
         logger.debug("Time normalization: " + this.normTime.get());
+        if (normalizer instanceof CachedVariantNormalizer) {
+            CachedVariantNormalizer cachedNormalizer = (CachedVariantNormalizer) normalizer;
+            logger.debug("Normalization cache hits: {}, misses: {}", cachedNormalizer.getHits(), cachedNormalizer.getMisses());
+        }
     }
 
     public static void writeVariantFileMetadata(VariantFileMetadata fileMetadata, Path outputFileJsonFile) {
@@ -256,6 +260,21 @@ public abstract class VariantTransformTask<T> implements ParallelTaskRunner.Task
         return this;
     }
 
+    /**
+     * Replace the default normalizer. Must be called before {@link #configureNormalizer}.
+     *
+     * @param normalizer Normalizer, with the reference blocks generation already configured
+     * @return this
+     */
+    public VariantTransformTask<T> setNormalizer(VariantNormalizer normalizer) {
+        this.normalizer = normalizer;
+        return this;
+    }
+
+    public VariantNormalizer getNormalizer() {
+        return normalizer;
+    }
+
     public VariantTransformTask<T> configureNormalizer(VariantFileHeader header) {
         normalizer.configure(header);
         return this;
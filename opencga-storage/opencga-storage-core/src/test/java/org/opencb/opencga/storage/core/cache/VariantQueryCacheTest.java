@@ -0,0 +1,181 @@
+package org.opencb.opencga.storage.core.cache;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opencb.biodata.models.variant.StudyEntry;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.commons.datastore.core.Query;
+import org.opencb.commons.datastore.core.QueryOptions;
+import org.opencb.opencga.core.results.VariantQueryResult;
+import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
+import org.opencb.opencga.storage.core.metadata.StudyConfigurationManager;
+import org.opencb.opencga.storage.core.variant.dummy.DummyProjectMetadataAdaptor;
+import org.opencb.opencga.storage.core.variant.dummy.DummyStudyConfigurationAdaptor;
+import org.opencb.opencga.storage.core.variant.dummy.DummyVariantFileMetadataDBAdaptor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.opencb.opencga.storage.core.variant.adaptors.VariantQueryParam.*;
+
+public class VariantQueryCacheTest {
+
+    private StudyConfigurationManager scm;
+
+    @Before
+    public void setUp() throws Exception {
+        DummyProjectMetadataAdaptor.clear();
+        DummyStudyConfigurationAdaptor.clear();
+        scm = new StudyConfigurationManager(new DummyProjectMetadataAdaptor(), new DummyStudyConfigurationAdaptor(),
+                new DummyVariantFileMetadataDBAdaptor());
+        scm.updateStudyConfiguration(new StudyConfiguration(1, "s1"), null);
+        scm.updateStudyConfiguration(new StudyConfiguration(2, "s2"), null);
+    }
+
+    @Test
+    public void testNormalizeQuery() {
+        Query query1 = new Query(STUDY.key(), "s1")
+                .append(REGION.key(), Arrays.asList("1:100-200", "2"))
+                .append(GENE.key(), "");
+        Query query2 = new Query(REGION.key(), "1:100-200,2")
+                .append(STUDY.key(), 1);
+        assertEquals(VariantQueryCache.normalizeQuery(query1, scm), VariantQueryCache.normalizeQuery(query2, scm));
+
+        assertEquals(VariantQueryCache.normalizeQuery(new Query(STUDY.key(), "!s2;s1"), scm),
+                VariantQueryCache.normalizeQuery(new Query(STUDY.key(), "!2;1"), scm));
+        assertNotEquals(VariantQueryCache.normalizeQuery(new Query(STUDY.key(), "s1,s2"), scm),
+                VariantQueryCache.normalizeQuery(new Query(STUDY.key(), "s1;s2"), scm));
+    }
+
+    @Test
+    public void testNormalizeOptions() {
+        QueryOptions options1 = new QueryOptions(QueryOptions.LIMIT, 10).append(QueryOptions.SKIP, 20).append(QueryOptions.SORT, true);
+        QueryOptions options2 = new QueryOptions(QueryOptions.SORT, true).append(QueryOptions.LIMIT, 10).append(QueryOptions.SKIP, 20);
+        assertEquals(VariantQueryCache.normalizeOptions(options1), VariantQueryCache.normalizeOptions(options2));
+        assertEquals(VariantQueryCache.normalizeOptions(new QueryOptions(QueryOptions.SORT, true)),
+                VariantQueryCache.normalizeOptions(options1, QueryOptions.LIMIT, QueryOptions.SKIP));
+    }
+
+    @Test
+    public void testPlanCache() throws Exception {
+        VariantQueryCache cache = new VariantQueryCache(60000, 0, 0);
+        AtomicInteger calls = new AtomicInteger();
+        VariantQueryCache.RouteSupplier supplier = () -> {
+            calls.incrementAndGet();
+            return VariantQueryCache.Route.INTERSECT;
+        };
+        String query = VariantQueryCache.normalizeQuery(new Query(STUDY.key(), "s1"), scm);
+        assertEquals(VariantQueryCache.Route.INTERSECT, cache.getRoute(query, new QueryOptions(QueryOptions.LIMIT, 10), supplier));
+        // Same route for other pages
+        assertEquals(VariantQueryCache.Route.INTERSECT, cache.getRoute(query, new QueryOptions(QueryOptions.SKIP, 10), supplier));
+        assertEquals(1, calls.get());
+
+        // Expired plans are computed again
+        cache = new VariantQueryCache(1, 0, 0);
+        cache.getRoute(query, new QueryOptions(), supplier);
+        Thread.sleep(10);
+        cache.getRoute(query, new QueryOptions(), supplier);
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    public void testClearPlans() throws Exception {
+        VariantQueryCache cache = new VariantQueryCache(60000, 2, 2);
+        AtomicInteger calls = new AtomicInteger();
+        VariantQueryCache.RouteSupplier supplier = () -> {
+            calls.incrementAndGet();
+            return VariantQueryCache.Route.SEARCH;
+        };
+        String query = VariantQueryCache.normalizeQuery(new Query(STUDY.key(), "s1"), scm);
+        cache.getRoute(query, new QueryOptions(), supplier);
+        cache.putResult("a", result(1));
+
+        cache.clearPlans();
+        cache.getRoute(query, new QueryOptions(), supplier);
+        assertEquals(2, calls.get());
+        // Results are kept
+        assertNotNull(cache.getResult("a"));
+    }
+
+    @Test
+    public void testResultCache() throws Exception {
+        VariantQueryCache cache = new VariantQueryCache(0, 2, 2);
+        Query query = new Query(STUDY.key(), "s1");
+        QueryOptions options = new QueryOptions(QueryOptions.LIMIT, 2);
+        String key = cache.buildResultKey(VariantQueryCache.normalizeQuery(query, scm), query, options, scm);
+
+        assertNull(cache.getResult(key));
+        cache.putResult(key, result(2));
+        assertEquals(2, cache.getResult(key).getResult().size());
+        assertEquals(1, cache.getResultHits());
+        assertEquals(1, cache.getResultMisses());
+
+        // Modifying the returned result does not modify the cache
+        cache.getResult(key).getResult().clear();
+        assertEquals(2, cache.getResult(key).getResult().size());
+        cache.getResult(key).getResult().get(0).setIds(Collections.singletonList("rs1"));
+        assertNotEquals(Collections.singletonList("rs1"), cache.getResult(key).getResult().get(0).getIds());
+
+        // Too many variants
+        String bigKey = cache.buildResultKey(VariantQueryCache.normalizeQuery(query, scm), query, new QueryOptions(), scm);
+        cache.putResult(bigKey, result(3));
+        assertNull(cache.getResult(bigKey));
+
+        // Modifying the study invalidates the result
+        scm.lockAndUpdate("s1", sc -> {
+            sc.setDataVersion(sc.getDataVersion() + 1);
+            return sc;
+        });
+        assertNotEquals(key, cache.buildResultKey(VariantQueryCache.normalizeQuery(query, scm), query, options, scm));
+
+        // Other studies do not modify the result
+        scm.lockAndUpdate("s2", sc -> {
+            sc.setDataVersion(sc.getDataVersion() + 1);
+            return sc;
+        });
+        String newKey = cache.buildResultKey(VariantQueryCache.normalizeQuery(query, scm), query, options, scm);
+        scm.lockAndUpdate("s2", sc -> {
+            sc.setDataVersion(sc.getDataVersion() + 1);
+            return sc;
+        });
+        assertEquals(newKey, cache.buildResultKey(VariantQueryCache.normalizeQuery(query, scm), query, options, scm));
+    }
+
+    @Test
+    public void testCopyVariant() {
+        Variant variant = new Variant("1:1000:A:C");
+        StudyEntry study = new StudyEntry("1", Collections.emptyList(), Collections.singletonList("GT"))
+                .addSampleData("S1", Collections.singletonList("0/1"));
+        variant.setStudies(Collections.singletonList(study));
+
+        Variant copy = VariantQueryCache.copy(variant);
+        assertEquals(variant, copy);
+        assertEquals("0/1", copy.getStudies().get(0).getSampleData("S1", "GT"));
+        copy.getStudies().get(0).getSamplesData().get(0).set(0, "1/1");
+        assertEquals("0/1", study.getSampleData("S1", "GT"));
+    }
+
+    @Test
+    public void testResultCacheLru() {
+        VariantQueryCache cache = new VariantQueryCache(0, 2, 10);
+        cache.putResult("a", result(1));
+        cache.putResult("b", result(1));
+        cache.getResult("a");
+        cache.putResult("c", result(1));
+        assertNotNull(cache.getResult("a"));
+        assertNull(cache.getResult("b"));
+        assertNotNull(cache.getResult("c"));
+    }
+
+    private static VariantQueryResult<Variant> result(int numVariants) {
+        List<Variant> variants = new ArrayList<>(numVariants);
+        for (int i = 0; i < numVariants; i++) {
+            variants.add(new Variant("1:" + (1000 + i) + ":A:C"));
+        }
+        return new VariantQueryResult<>("", 0, numVariants, numVariants, "", "", variants, null, "test");
+    }
+}
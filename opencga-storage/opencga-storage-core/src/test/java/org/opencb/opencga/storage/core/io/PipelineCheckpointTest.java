@@ -0,0 +1,247 @@
+package org.opencb.opencga.storage.core.io;
+
+import org.junit.Test;
+import org.opencb.commons.io.DataReader;
+import org.opencb.commons.io.DataWriter;
+import org.opencb.commons.run.ParallelTaskRunner;
+import org.opencb.commons.run.Task;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class PipelineCheckpointTest {
+
+    private static final int NUM_ELEMENTS = 1000;
+
+    private final List<Long> checkpoints = Collections.synchronizedList(new ArrayList<>());
+    private final PipelineCheckpoint.Listener listener = (records, lastRecord) -> {
+        if (records > 0) {
+            assertEquals(String.valueOf(records - 1), lastRecord);
+        }
+        checkpoints.add(records);
+    };
+
+    private static DataReader<Integer> newReader(int numElements, List<Integer> read) {
+        AtomicInteger count = new AtomicInteger();
+        return new DataReader<Integer>() {
+            @Override
+            public List<Integer> read(int b) {
+                List<Integer> batch = new ArrayList<>(b);
+                while (batch.size() < b && count.get() < numElements) {
+                    batch.add(count.getAndIncrement());
+                }
+                read.addAll(batch);
+                return batch;
+            }
+        };
+    }
+
+    /**
+     * Shuffle the order of the batches, sleeping a random time.
+     */
+    private static Task<Integer, String> newTask() {
+        Random random = new Random(1);
+        return batch -> {
+            Thread.sleep(random.nextInt(3));
+            List<String> result = new ArrayList<>(batch.size());
+            for (Integer i : batch) {
+                result.add(i.toString());
+            }
+            return result;
+        };
+    }
+
+    /**
+     * Writer that fails after writing the given number of elements.
+     */
+    private static DataWriter<String> newWriter(Set<Integer> written, int failAfter) {
+        return new DataWriter<String>() {
+            @Override
+            public boolean write(List<String> batch) {
+                if (written.size() >= failAfter) {
+                    throw new IllegalStateException("Fail!");
+                }
+                for (String s : batch) {
+                    written.add(Integer.valueOf(s));
+                }
+                return true;
+            }
+        };
+    }
+
+    private static void run(PipelineCheckpoint checkpoint, DataReader<Integer> reader, Task<Integer, String> task,
+                            DataWriter<String> writer) throws ExecutionException {
+        ParallelTaskRunner.Config config = ParallelTaskRunner.Config.builder().setNumTasks(4).setBatchSize(10)
+                .setAbortOnFail(true).build();
+        try {
+            if (writer == null) {
+                new ParallelTaskRunner<>(checkpoint.wrapReader(reader), checkpoint.wrapWritingTask(task), null, config).run();
+            } else {
+                new ParallelTaskRunner<>(checkpoint.wrapReader(reader), checkpoint.wrapTask(task), checkpoint.wrapWriter(writer), config)
+                        .run();
+            }
+        } finally {
+            checkpoint.flush();
+        }
+    }
+
+    @Test
+    public void testCheckpoint() throws Exception {
+        PipelineCheckpoint checkpoint = new PipelineCheckpoint(0, 0, listener);
+        Set<Integer> written = Collections.synchronizedSet(new HashSet<>());
+        run(checkpoint, newReader(NUM_ELEMENTS, new ArrayList<>()), newTask(), newWriter(written, NUM_ELEMENTS));
+
+        assertEquals(NUM_ELEMENTS, written.size());
+        assertEquals(NUM_ELEMENTS, checkpoint.getRecords());
+        assertEquals(String.valueOf(NUM_ELEMENTS - 1), checkpoint.getLastRecord());
+        assertEquals(Long.valueOf(NUM_ELEMENTS), checkpoints.get(checkpoints.size() - 1));
+        // Checkpoints never go back
+        for (int i = 1; i < checkpoints.size(); i++) {
+            assertTrue(checkpoints.get(i - 1) < checkpoints.get(i));
+        }
+    }
+
+    @Test
+    public void testCheckpointWritingTask() throws Exception {
+        Set<Integer> written = Collections.synchronizedSet(new HashSet<>());
+        PipelineCheckpoint checkpoint = new PipelineCheckpoint(0, 0, listener);
+        run(checkpoint, newReader(NUM_ELEMENTS, new ArrayList<>()), newTask().then(batch -> {
+            for (String s : batch) {
+                written.add(Integer.valueOf(s));
+            }
+            return batch;
+        }), null);
+
+        assertEquals(NUM_ELEMENTS, written.size());
+        assertEquals(NUM_ELEMENTS, checkpoint.getRecords());
+    }
+
+    @Test
+    public void testResume() throws Exception {
+        Set<Integer> written = Collections.synchronizedSet(new HashSet<>());
+        PipelineCheckpoint checkpoint = new PipelineCheckpoint(0, 0, listener);
+        try {
+            run(checkpoint, newReader(NUM_ELEMENTS, new ArrayList<>()), newTask(), newWriter(written, 400));
+            fail("Expected to fail");
+        } catch (ExecutionException ignore) {
+            // Expected
+        }
+        long records = checkpoint.getRecords();
+        assertTrue(records > 0);
+        assertTrue(records <= written.size());
+        assertEquals(Long.valueOf(records), checkpoints.get(checkpoints.size() - 1));
+        // All the records before the checkpoint are written
+        for (int i = 0; i < records; i++) {
+            assertTrue(written.contains(i));
+        }
+
+        // Resume from the checkpoint
+        List<Integer> read = new ArrayList<>();
+        Set<Integer> resumed = Collections.synchronizedSet(new HashSet<>());
+        PipelineCheckpoint resumeCheckpoint = new PipelineCheckpoint(records, 0, listener);
+        run(resumeCheckpoint, newReader(NUM_ELEMENTS, read), newTask(), newWriter(resumed, NUM_ELEMENTS));
+
+        assertEquals(records, resumeCheckpoint.getSkippedRecords());
+        assertEquals(NUM_ELEMENTS, resumeCheckpoint.getRecords());
+        assertEquals(NUM_ELEMENTS, read.size()); // Skipped records are read, but not processed
+        assertEquals(NUM_ELEMENTS - records, resumed.size());
+        for (Integer i : resumed) {
+            assertTrue(i >= records);
+        }
+        written.addAll(resumed);
+        assertEquals(NUM_ELEMENTS, written.size());
+    }
+
+    @Test
+    public void testSkipInTheMiddleOfABatch() throws Exception {
+        Set<Integer> written = Collections.synchronizedSet(new HashSet<>());
+        PipelineCheckpoint checkpoint = new PipelineCheckpoint(15, -1, listener);
+        DataReader<Integer> reader = newReader(NUM_ELEMENTS, new ArrayList<>());
+        // Reader returning bigger batches than requested
+        DataReader<Integer> bigBatchesReader = new DataReader<Integer>() {
+            @Override
+            public List<Integer> read(int batchSize) {
+                return reader.read(batchSize + 7);
+            }
+        };
+        run(checkpoint, bigBatchesReader, newTask(), newWriter(written, NUM_ELEMENTS));
+
+        assertEquals(NUM_ELEMENTS - 15, written.size());
+        assertFalse(written.contains(14));
+        assertTrue(written.contains(15));
+        assertEquals(NUM_ELEMENTS, checkpoint.getRecords());
+        // Only notified on flush
+        assertEquals(Collections.singletonList((long) NUM_ELEMENTS), checkpoints);
+    }
+
+    @Test
+    public void testSkipMoreThanInput() throws Exception {
+        PipelineCheckpoint checkpoint = new PipelineCheckpoint(NUM_ELEMENTS + 1, 0, listener);
+        try {
+            run(checkpoint, newReader(NUM_ELEMENTS, new ArrayList<>()), newTask(), newWriter(new HashSet<>(), NUM_ELEMENTS));
+            fail("Expected to fail");
+        } catch (ExecutionException | IllegalStateException e) {
+            // Expected
+        }
+        assertEquals(Collections.emptyList(), checkpoints);
+    }
+
+    @Test
+    public void testListenerErrorsDoNotFail() throws Exception {
+        PipelineCheckpoint checkpoint = new PipelineCheckpoint(0, 0, (records, lastRecord) -> {
+            throw new IllegalStateException("Unable to save");
+        });
+        Set<Integer> written = Collections.synchronizedSet(new HashSet<>());
+        run(checkpoint, newReader(NUM_ELEMENTS, new ArrayList<>()), newTask(), newWriter(written, NUM_ELEMENTS));
+        assertEquals(NUM_ELEMENTS, written.size());
+        assertEquals(NUM_ELEMENTS, checkpoint.getRecords());
+    }
+
+    @Test
+    public void testSyncFromWriter() throws Exception {
+        Set<Integer> written = Collections.synchronizedSet(new HashSet<>());
+        Set<String> syncThreads = Collections.synchronizedSet(new HashSet<>());
+        Set<String> writerThreads = Collections.synchronizedSet(new HashSet<>());
+        DataWriter<String> writer = newWriter(written, NUM_ELEMENTS);
+        PipelineCheckpoint checkpoint = new PipelineCheckpoint(0, 0, listener).setSync(records -> {
+            syncThreads.add(Thread.currentThread().getName());
+            // Every record in the checkpoint is already written
+            assertTrue(written.size() >= records);
+            return records;
+        });
+        run(checkpoint, newReader(NUM_ELEMENTS, new ArrayList<>()), newTask(), new DataWriter<String>() {
+            @Override
+            public boolean write(List<String> batch) {
+                writerThreads.add(Thread.currentThread().getName());
+                return writer.write(batch);
+            }
+        });
+
+        assertEquals(NUM_ELEMENTS, written.size());
+        assertFalse(checkpoints.isEmpty());
+        assertEquals(writerThreads, syncThreads);
+    }
+
+    @Test
+    public void testSyncRecords() throws Exception {
+        PipelineCheckpoint checkpoint = new PipelineCheckpoint(0, 0, (records, lastRecord) -> {
+            assertEquals(0, records % 100);
+            if (lastRecord != null) {
+                assertEquals(String.valueOf(records - 1), lastRecord);
+            }
+            checkpoints.add(records);
+        }).setSync(records -> records - records % 100);
+        try {
+            run(checkpoint, newReader(NUM_ELEMENTS, new ArrayList<>()), newTask(), newWriter(new HashSet<>(), NUM_ELEMENTS / 2));
+            fail("Expected to fail");
+        } catch (ExecutionException | IllegalStateException e) {
+            // Expected
+        }
+
+        assertFalse(checkpoints.isEmpty());
+        assertTrue(checkpoints.get(checkpoints.size() - 1) <= NUM_ELEMENTS / 2);
+    }
+}
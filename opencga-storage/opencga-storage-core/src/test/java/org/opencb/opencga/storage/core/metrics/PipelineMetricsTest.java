@@ -0,0 +1,129 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.metrics;
+
+import org.junit.Test;
+import org.opencb.commons.datastore.core.ObjectMap;
+import org.opencb.commons.io.DataReader;
+import org.opencb.commons.io.DataWriter;
+import org.opencb.commons.run.ParallelTaskRunner;
+import org.opencb.commons.run.Task;
+import org.opencb.opencga.storage.core.variant.VariantStorageEngine;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class PipelineMetricsTest {
+
+    @Test
+    public void testMetrics() throws Exception {
+        PipelineMetrics metrics = PipelineMetrics.create("test",
+                new ObjectMap(VariantStorageEngine.Options.METRICS_REGISTRY.key(), "none"));
+        runPipeline(metrics, 1000, 10);
+        metrics.close();
+
+        assertEquals(101, metrics.getRead().getBatches()); // Last batch is empty
+        assertEquals(1000, metrics.getRead().getElements());
+        assertEquals(100, metrics.getTask().getBatches());
+        assertEquals(1000, metrics.getTask().getElements());
+        assertEquals(1000, metrics.getWrite().getElements());
+        assertEquals(0, metrics.getReadQueueSize());
+        assertEquals(0, metrics.getWriteQueueSize());
+        assertTrue(metrics.getTask().getLatencyP99Millis() >= metrics.getTask().getLatencyP50Millis());
+
+        ObjectMap map = metrics.toObjectMap();
+        assertEquals(1000, ((ObjectMap) map.get(PipelineMetrics.TASK)).getInt("elements"));
+        assertNotNull(map.getString("bottleneck"));
+    }
+
+    @Test
+    public void testJmx() throws Exception {
+        PipelineMetrics metrics = PipelineMetrics.create("test",
+                new ObjectMap(VariantStorageEngine.Options.METRICS_REGISTRY.key(), "jmx"));
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(JmxMetricsRegistry.DOMAIN + ":type=Pipeline,name=" + ObjectName.quote(metrics.getName())
+                + ",stage=" + ObjectName.quote(PipelineMetrics.TASK));
+        assertTrue(mBeanServer.isRegistered(name));
+
+        runPipeline(metrics, 100, 10);
+        assertEquals(100L, mBeanServer.getAttribute(name, "Elements"));
+
+        metrics.close();
+        assertFalse(mBeanServer.isRegistered(name));
+    }
+
+    @Test
+    public void testCustomRegistry() throws Exception {
+        PipelineMetrics metrics = PipelineMetrics.create("test",
+                new ObjectMap(VariantStorageEngine.Options.METRICS_REGISTRY.key(), CountRegistry.class.getName()));
+        assertEquals(1, CountRegistry.REGISTERED.get());
+        metrics.close();
+        assertEquals(0, CountRegistry.REGISTERED.get());
+    }
+
+    public static class CountRegistry implements MetricsRegistry {
+        private static final AtomicInteger REGISTERED = new AtomicInteger();
+
+        @Override
+        public void register(PipelineMetrics metrics) {
+            REGISTERED.incrementAndGet();
+        }
+
+        @Override
+        public void unregister(PipelineMetrics metrics) {
+            REGISTERED.decrementAndGet();
+        }
+    }
+
+    private void runPipeline(PipelineMetrics metrics, int numElements, int batchSize) throws Exception {
+        AtomicInteger count = new AtomicInteger();
+        DataReader<Integer> reader = new DataReader<Integer>() {
+            @Override
+            public List<Integer> read(int b) {
+                List<Integer> batch = new ArrayList<>(b);
+                while (batch.size() < b && count.get() < numElements) {
+                    batch.add(count.getAndIncrement());
+                }
+                return batch;
+            }
+        };
+        Task<Integer, String> task = batch -> {
+            List<String> result = new ArrayList<>(batch.size());
+            for (Integer i : batch) {
+                result.add(i.toString());
+            }
+            return result;
+        };
+        List<String> output = new ArrayList<>();
+        DataWriter<String> writer = new DataWriter<String>() {
+            @Override
+            public boolean write(List<String> batch) {
+                return output.addAll(batch);
+            }
+        };
+
+        ParallelTaskRunner.Config config = ParallelTaskRunner.Config.builder().setNumTasks(2).setBatchSize(batchSize).build();
+        new ParallelTaskRunner<>(metrics.wrapReader(reader), metrics.wrapTask(task), metrics.wrapWriter(writer), config).run();
+        assertEquals(numElements, output.size());
+    }
+}
@@ -0,0 +1,174 @@
+package org.opencb.opencga.storage.core.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class LockCoordinatorTest {
+
+    /**
+     * In memory lock, as stored in a database shared by many processes.
+     */
+    private static class InMemoryLock {
+        private long token;
+        private long expiration;
+
+        synchronized Long tryLock(long lockDuration) {
+            long now = System.currentTimeMillis();
+            if (expiration > now) {
+                return null;
+            }
+            token++;
+            expiration = now + lockDuration;
+            return token;
+        }
+
+        synchronized void unlock(long lockToken) {
+            if (lockToken != token || expiration == 0) {
+                throw new IllegalStateException("Lock token " + lockToken + " not found!");
+            }
+            expiration = 0;
+        }
+    }
+
+    private final InMemoryLock backend = new InMemoryLock();
+    private final LockCoordinator coordinator = new LockCoordinator("test");
+
+    private long lock(long lockDuration, long timeout) throws Exception {
+        return coordinator.lock("1", lockDuration, timeout, () -> backend.tryLock(lockDuration));
+    }
+
+    private void unlock(long token) {
+        try {
+            backend.unlock(token);
+        } finally {
+            coordinator.unlocked("1", token);
+        }
+    }
+
+    @Test
+    public void testLockUnlock() throws Exception {
+        for (int i = 1; i <= 10; i++) {
+            long token = lock(1000, 1000);
+            assertEquals(i, token);
+            unlock(token);
+        }
+        assertEquals(10, coordinator.getMetrics().getAcquisitions());
+        assertEquals(0, coordinator.getMetrics().getContendedAcquisitions());
+        assertEquals(10, coordinator.getMetrics().getAttempts());
+    }
+
+    @Test
+    public void testConcurrentLock() throws Exception {
+        int nThreads = 20;
+        int iterations = 10;
+        AtomicInteger holders = new AtomicInteger();
+        AtomicLong lastToken = new AtomicLong();
+        ExecutorService executorService = Executors.newFixedThreadPool(nThreads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < nThreads; t++) {
+            futures.add(executorService.submit(() -> {
+                for (int i = 0; i < iterations; i++) {
+                    long token = lock(10000, 20000);
+                    assertEquals(1, holders.incrementAndGet());
+                    // Fencing tokens always increase
+                    assertTrue(token > lastToken.getAndSet(token));
+                    Thread.sleep(1);
+                    assertEquals(0, holders.decrementAndGet());
+                    unlock(token);
+                }
+                return null;
+            }));
+        }
+        executorService.shutdown();
+        executorService.awaitTermination(60, TimeUnit.SECONDS);
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        assertEquals(nThreads * iterations, coordinator.getMetrics().getAcquisitions());
+        // Local waiters do not poll the backend while the lock is held by this JVM
+        assertEquals(nThreads * iterations, coordinator.getMetrics().getAttempts());
+    }
+
+    @Test
+    public void testLocalReleaseWakesUpWaiters() throws Exception {
+        long token = lock(10000, 1000);
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        Future<Long> future = executorService.submit(() -> lock(10000, 10000));
+        Thread.sleep(200);
+        assertFalse(future.isDone());
+
+        long start = System.currentTimeMillis();
+        unlock(token);
+        long newToken = future.get(1, TimeUnit.SECONDS);
+        assertTrue(System.currentTimeMillis() - start < 500);
+        assertEquals(token + 1, newToken);
+        assertEquals(1, coordinator.getMetrics().getContendedAcquisitions());
+        executorService.shutdown();
+    }
+
+    @Test
+    public void testLockHeldByOtherProcess() throws Exception {
+        // Lock taken without the coordinator
+        long token = backend.tryLock(10000);
+        try {
+            lock(1000, 300);
+            fail("Expected TimeoutException");
+        } catch (TimeoutException e) {
+            assertEquals(1, coordinator.getMetrics().getTimeouts());
+        }
+        // Exponential backoff between attempts
+        assertTrue(coordinator.getMetrics().getAttempts() < 10);
+
+        backend.unlock(token);
+        lock(1000, 300);
+    }
+
+    @Test
+    public void testLockAfterExpiring() throws Exception {
+        long token = lock(100, 1000);
+        // Never unlocked. Expires
+        long newToken = lock(100, 2000);
+        assertEquals(token + 1, newToken);
+
+        // The expired holder can not unlock the new holder
+        try {
+            unlock(token);
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException ignore) {
+            // Expected
+        }
+        unlock(newToken);
+    }
+
+    @Test
+    public void testLockAndLock() throws Exception {
+        lock(1000, 1000);
+        try {
+            lock(1000, 500);
+            fail("Expected TimeoutException");
+        } catch (TimeoutException ignore) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testRenew() throws Exception {
+        long token = lock(200, 1000);
+        coordinator.renewed("1", token, 10000);
+        try {
+            // Local waiters respect the renewed lease
+            lock(1000, 500);
+            fail("Expected TimeoutException");
+        } catch (TimeoutException ignore) {
+            // Expected
+        }
+        assertEquals(1, coordinator.getMetrics().getRenewals());
+    }
+}
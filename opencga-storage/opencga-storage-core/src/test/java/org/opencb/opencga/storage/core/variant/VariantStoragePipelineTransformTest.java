@@ -17,13 +17,23 @@
 package org.opencb.opencga.storage.core.variant;
 
 import org.junit.Test;
+import org.opencb.biodata.models.variant.VariantFileMetadata;
 import org.opencb.commons.datastore.core.ObjectMap;
 import org.opencb.opencga.storage.core.StoragePipelineResult;
 import org.opencb.opencga.storage.core.exceptions.StoragePipelineException;
+import org.opencb.opencga.storage.core.variant.transform.VariantTransformCheckpoint;
 
+import java.io.*;
 import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import static org.junit.Assert.*;
 import static org.opencb.opencga.storage.core.variant.io.VariantReaderUtils.MALFORMED_FILE;
@@ -97,5 +107,56 @@ public abstract class VariantStoragePipelineTransformTest extends VariantStorage
         assertEquals(2, result.getTransformStats().getInt("malformed lines"));
     }
 
+    @Test
+    public void transformResumeFromCheckpointTest() throws Exception {
+        ObjectMap params = new ObjectMap(VariantStorageEngine.Options.TRANSFORM_FORMAT.key(), "json");
+        VariantStorageEngine variantStorageEngine = getVariantStorageEngine();
+        StoragePipelineResult expected = runETL(variantStorageEngine, smallInputUri, newOutputUri(), params, true, true, false);
+
+        // Transform the first half of the input file, with the same file name
+        List<String> inputLines;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(
+                Paths.get(smallInputUri).toFile()))))) {
+            inputLines = reader.lines().collect(Collectors.toList());
+        }
+        int lines = inputLines.size() / 2;
+        Path partialInput = Paths.get(newOutputUri()).resolve(Paths.get(smallInputUri).getFileName());
+        try (PrintStream out = new PrintStream(new GZIPOutputStream(new FileOutputStream(partialInput.toFile())))) {
+            inputLines.subList(0, lines).forEach(out::println);
+        }
+        StoragePipelineResult partial = runETL(variantStorageEngine, partialInput.toUri(), newOutputUri(), params, true, true, false);
+
+        // Interrupted transform. Some variants were written after the last checkpoint
+        URI outputUri = newOutputUri();
+        Path partialOutput = Paths.get(partial.getTransformResult());
+        Path outputFile = Paths.get(outputUri).resolve(partialOutput.getFileName());
+        Files.copy(partialOutput, outputFile);
+        long bytes = Files.size(outputFile);
+        Files.write(outputFile, readLines(partialOutput.toUri()).get(0).getBytes(), StandardOpenOption.APPEND);
+        Path checkpointFile = VariantTransformCheckpoint.getCheckpointFile(outputFile);
+        Files.write(checkpointFile, (lines + "\t" + bytes + "\t\n").getBytes());
+
+        StoragePipelineResult resumed = runETL(variantStorageEngine, smallInputUri, outputUri,
+                new ObjectMap(params).append(VariantStorageEngine.Options.RESUME.key(), true), true, true, false);
+
+        assertFalse(Files.exists(checkpointFile));
+        assertEquals(readLines(expected.getTransformResult()), readLines(resumed.getTransformResult()));
+
+        VariantFileMetadata expectedMetadata = variantStorageEngine.getVariantReaderUtils()
+                .readVariantFileMetadata(expected.getTransformResult());
+        VariantFileMetadata resumedMetadata = variantStorageEngine.getVariantReaderUtils()
+                .readVariantFileMetadata(resumed.getTransformResult());
+        assertEquals(expectedMetadata.getStats().getNumVariants(), resumedMetadata.getStats().getNumVariants());
+        assertEquals(expectedMetadata.getStats().getVariantTypeCounts(), resumedMetadata.getStats().getVariantTypeCounts());
+        assertEquals(expectedMetadata.getStats().getChromosomeCounts(), resumedMetadata.getStats().getChromosomeCounts());
+    }
+
+    private static List<String> readLines(URI uri) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(
+                Paths.get(uri).toFile()))))) {
+            return reader.lines().collect(Collectors.toList());
+        }
+    }
+
 
 }
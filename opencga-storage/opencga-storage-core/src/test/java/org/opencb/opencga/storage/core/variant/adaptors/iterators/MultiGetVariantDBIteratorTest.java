@@ -0,0 +1,148 @@
+package org.opencb.opencga.storage.core.variant.adaptors.iterators;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.commons.datastore.core.QueryOptions;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryException;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class MultiGetVariantDBIteratorTest {
+
+    private List<String> ids;
+    private List<String> expected;
+
+    /**
+     * In memory backend. Variants with a position multiple of 7 do not exist. Results are returned in reverse order.
+     */
+    private static class DummyFetcher implements MultiGetVariantDBIterator.BatchFetcher {
+        private final long latency;
+        private final int failAt;
+        private final AtomicInteger requests = new AtomicInteger();
+        private final AtomicInteger running = new AtomicInteger();
+        private final AtomicInteger maxRunning = new AtomicInteger();
+        private final AtomicInteger maxBatchSize = new AtomicInteger();
+
+        DummyFetcher(long latency, int failAt) {
+            this.latency = latency;
+            this.failAt = failAt;
+        }
+
+        @Override
+        public List<Variant> fetch(List<Variant> variants, QueryOptions options) throws Exception {
+            assertFalse(options.containsKey(QueryOptions.LIMIT));
+            assertFalse(options.containsKey(QueryOptions.SKIP));
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            maxBatchSize.accumulateAndGet(variants.size(), Math::max);
+            try {
+                if (requests.incrementAndGet() == failAt) {
+                    throw new IOException("Connection reset");
+                }
+                if (latency > 0) {
+                    Thread.sleep(latency);
+                }
+                List<Variant> result = new ArrayList<>(variants.size());
+                for (Variant variant : variants) {
+                    if (variant.getStart() % 7 != 0) {
+                        result.add(new Variant(variant.toString()));
+                    }
+                }
+                Collections.reverse(result);
+                return result;
+            } finally {
+                running.decrementAndGet();
+            }
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        ids = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            ids.add("1:" + (1000 + i) + ":A:C");
+        }
+        Collections.shuffle(ids, new Random(1));
+        expected = new ArrayList<>();
+        for (String id : ids) {
+            if (new Variant(id).getStart() % 7 != 0) {
+                expected.add(id);
+            }
+        }
+    }
+
+    private static List<String> readAll(VariantDBIterator iterator) throws Exception {
+        List<String> result = new ArrayList<>();
+        iterator.forEachRemaining(variant -> result.add(variant.toString()));
+        iterator.close();
+        return result;
+    }
+
+    @Test
+    public void testInputOrder() throws Exception {
+        DummyFetcher fetcher = new DummyFetcher(0, -1);
+        MultiGetVariantDBIterator iterator = new MultiGetVariantDBIterator(ids.iterator(), 300, 4, new QueryOptions(), fetcher);
+        assertEquals(expected, readAll(iterator));
+        assertEquals(expected.size(), iterator.getCount());
+        assertEquals(34, iterator.getNumBatches());
+        assertEquals(300, fetcher.maxBatchSize.get());
+        assertTrue(fetcher.maxRunning.get() <= 4);
+    }
+
+    @Test
+    public void testVariantObjects() throws Exception {
+        List<Variant> variants = new ArrayList<>();
+        for (String id : ids) {
+            variants.add(new Variant(id));
+        }
+        assertEquals(expected, readAll(new MultiGetVariantDBIterator(variants.iterator(), 1000, 2, null, new DummyFetcher(0, -1))));
+    }
+
+    @Test
+    public void testLimitAndSkip() throws Exception {
+        QueryOptions options = new QueryOptions(QueryOptions.LIMIT, 250).append(QueryOptions.SKIP, 130);
+        MultiGetVariantDBIterator iterator = new MultiGetVariantDBIterator(ids.iterator(), 100, 3, options, new DummyFetcher(0, -1));
+        assertEquals(expected.subList(130, 380), readAll(iterator));
+        assertEquals(250, iterator.getCount());
+        // Do not read the whole input
+        assertTrue(iterator.getNumBatches() < 10);
+    }
+
+    @Test
+    public void testDuplicatedIds() throws Exception {
+        List<String> duplicated = Arrays.asList("1:1000:A:C", "1:1001:A:C", "1:1000:A:C");
+        assertEquals(Arrays.asList("1:1000:A:C", "1:1001:A:C"),
+                readAll(new MultiGetVariantDBIterator(duplicated.iterator(), 10, 1, null, new DummyFetcher(0, -1))));
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        DummyFetcher fetcher = new DummyFetcher(0, -1);
+        assertEquals(Collections.emptyList(),
+                readAll(new MultiGetVariantDBIterator(Collections.emptyIterator(), 10, 1, null, fetcher)));
+        assertEquals(0, fetcher.requests.get());
+    }
+
+    @Test(expected = VariantQueryException.class)
+    public void testError() throws Exception {
+        readAll(new MultiGetVariantDBIterator(ids.iterator(), 100, 4, null, new DummyFetcher(0, 5)));
+    }
+
+    @Test(expected = VariantQueryException.class)
+    public void testMalformedId() throws Exception {
+        readAll(new MultiGetVariantDBIterator(Arrays.asList("1:1000:A:C", "rs123").iterator(), 10, 1, null,
+                new DummyFetcher(0, -1)));
+    }
+
+    @Test
+    public void testParallel() throws Exception {
+        DummyFetcher fetcher = new DummyFetcher(5, -1);
+        assertEquals(expected, readAll(new MultiGetVariantDBIterator(ids.iterator(), 250, 4, null, fetcher)));
+        assertTrue(fetcher.maxRunning.get() > 1);
+        assertTrue(fetcher.maxRunning.get() <= 4);
+    }
+}
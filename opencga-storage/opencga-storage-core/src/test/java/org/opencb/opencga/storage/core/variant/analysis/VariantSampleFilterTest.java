@@ -4,14 +4,17 @@ import com.google.common.collect.Iterators;
 import org.junit.Before;
 import org.junit.Test;
 import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.VariantBuilder;
 import org.opencb.commons.datastore.core.Query;
 import org.opencb.opencga.storage.core.variant.adaptors.GenotypeClass;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryException;
 import org.opencb.opencga.storage.core.variant.adaptors.iterators.VariantDBIterator;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantIterable;
 
 import java.util.*;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Created on 26/06/18.
@@ -87,4 +90,71 @@ public class VariantSampleFilterTest {
 
         assertEquals(new HashSet<>(Arrays.asList(S1, S3)), samples.keySet());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testGetSamplesInAnyVariantsVariants() throws Exception {
+        Map<String, Set<Variant>> samples = filter.getSamplesInAnyVariants(Arrays.asList("1:100:A:C", "1:101:A:C", "1:104:A:C"), STUDY,
+                SAMPLES, Arrays.asList("1/1"));
+
+        assertEquals(new HashSet<>(Arrays.asList(S1, S3)), samples.keySet());
+        assertEquals(Collections.singleton("1:104:A:C"), toStrings(samples.get(S1)));
+        assertEquals(new HashSet<>(Arrays.asList("1:100:A:C", "1:101:A:C", "1:104:A:C")), toStrings(samples.get(S3)));
+    }
+
+    @Test
+    public void testGetSamplesInAllVariantsNone() throws Exception {
+        Collection<String> samplesInAllVariants = filter.getSamplesInAllVariants(new Query(), Arrays.asList("1/1"));
+        assertEquals(Collections.emptyList(), new ArrayList<>(samplesInAllVariants));
+    }
+
+    @Test
+    public void testGetSamplesInAllVariantsNoVariants() throws Exception {
+        Collection<String> samplesInAllVariants = filter.getSamplesInAllVariants(Arrays.asList("2:100:A:C"), STUDY, SAMPLES,
+                Arrays.asList("1/1"));
+        assertEquals(Collections.emptyList(), new ArrayList<>(samplesInAllVariants));
+    }
+
+    @Test(expected = VariantQueryException.class)
+    public void testMaxVariants() throws Exception {
+        filter.setMaxVariants(4).getSamplesInAnyVariants(new Query(), Arrays.asList("1/1"));
+    }
+
+    @Test
+    public void testManySamples() throws Exception {
+        int numSamples = 2000;
+        int numVariants = 500;
+        Random random = new Random(1);
+        List<Variant> variants = new ArrayList<>(numVariants);
+        for (int i = 0; i < numVariants; i++) {
+            VariantBuilder builder = Variant.newBuilder("1:" + (1000 + i) + ":A:C").setStudyId(STUDY).setFormat("GT");
+            for (int s = 0; s < numSamples; s++) {
+                // Samples multiple of 100 are always HET
+                builder.addSample("S" + s, s % 100 == 0 ? "0/1" : random.nextInt(100) == 0 ? "1/1" : "0/0");
+            }
+            variants.add(builder.build());
+        }
+        VariantSampleFilter filter = new VariantSampleFilter((query, options) -> VariantDBIterator.wrapper(variants.iterator()),
+                numVariants);
+
+        Map<String, Set<Variant>> any = filter.getSamplesInAnyVariants(new Query(), Arrays.asList("1/1"));
+        Collection<String> all = filter.getSamplesInAllVariants(new Query(), Arrays.asList(GenotypeClass.HET.toString()));
+
+        for (Map.Entry<String, Set<Variant>> entry : any.entrySet()) {
+            int sample = Integer.valueOf(entry.getKey().substring(1));
+            for (Variant variant : variants) {
+                String gt = variant.getStudies().get(0).getSampleData(entry.getKey(), "GT");
+                assertEquals(gt.equals("1/1"), entry.getValue().contains(variant));
+            }
+            assertTrue(sample % 100 != 0);
+        }
+        assertEquals(numSamples / 100, all.size());
+    }
+
+    private static Set<String> toStrings(Set<Variant> variants) {
+        Set<String> set = new HashSet<>();
+        for (Variant variant : variants) {
+            set.add(variant.toString());
+        }
+        return set;
+    }
+}
@@ -0,0 +1,181 @@
+package org.opencb.opencga.storage.core.variant.annotation;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opencb.biodata.models.core.Region;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.commons.datastore.core.Query;
+import org.opencb.commons.io.DataReader;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+import static org.opencb.opencga.storage.core.variant.adaptors.VariantQueryParam.ID;
+import static org.opencb.opencga.storage.core.variant.adaptors.VariantQueryParam.REGION;
+
+public class VariantAnnotationCheckpointTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path file;
+    private List<Variant> variants;
+    private List<Query> queries;
+
+    @Before
+    public void setUp() throws Exception {
+        file = temporaryFolder.getRoot().toPath().resolve("annotation.checkpoint");
+        variants = new ArrayList<>();
+        for (String chromosome : Arrays.asList("1", "2", "3")) {
+            for (int i = 1; i <= 10; i++) {
+                variants.add(new Variant(chromosome + ":" + i + ":A:C"));
+            }
+        }
+        queries = new ArrayList<>();
+    }
+
+    @Test
+    public void testOutOfOrderBatches() throws Exception {
+        VariantAnnotationCheckpoint checkpoint = new VariantAnnotationCheckpoint(file, false);
+        DataReader<Variant> reader = checkpoint.newReader(this::newReader, new Query(REGION.key(), "1"));
+
+        List<Variant> batch1 = reader.read(4);
+        List<Variant> batch2 = reader.read(4);
+        List<Variant> batch3 = reader.read(4);
+        assertEquals(0, reader.read(4).size());
+
+        checkpoint.loaded(batch2);
+        assertNull(checkpoint.getLastVariant());
+        assertFalse(Files.exists(file));
+
+        checkpoint.loaded(batch1);
+        assertEquals("1:8:A:C", checkpoint.getLastVariant());
+        assertEquals(8, checkpoint.getNumVariants());
+        assertTrue(Files.exists(file));
+
+        checkpoint.loaded(batch3);
+        assertEquals("1:10:A:C", checkpoint.getLastVariant());
+        assertEquals(10, checkpoint.getNumVariants());
+
+        checkpoint.delete();
+        assertFalse(Files.exists(file));
+    }
+
+    @Test
+    public void testResume() throws Exception {
+        VariantAnnotationCheckpoint checkpoint = new VariantAnnotationCheckpoint(file, false);
+        DataReader<Variant> reader = checkpoint.newReader(this::newReader, new Query());
+        // Batches crossing the chromosomes 1 and 2
+        checkpoint.loaded(reader.read(8));
+        checkpoint.loaded(reader.read(5));
+        reader.read(3);
+        assertEquals("2:3:A:C", checkpoint.getLastVariant());
+        assertEquals(Collections.singleton("1"), checkpoint.getFinishedChromosomes());
+
+        // Resume. Restart from the checkpoint position
+        queries.clear();
+        checkpoint = new VariantAnnotationCheckpoint(file, true);
+        assertEquals(13, checkpoint.getResumeCount());
+        List<Variant> read = readAll(checkpoint, checkpoint.newReader(this::newReader, new Query()), 3);
+        assertEquals(17, read.size());
+        assertEquals("2:4:A:C", read.get(0).toString());
+        assertEquals(30, checkpoint.getNumVariants());
+        assertEquals(new LinkedHashSet<>(Arrays.asList("1", "2")), checkpoint.getFinishedChromosomes());
+        assertEquals("2:3-" + Integer.MAX_VALUE, queries.get(0).getString(REGION.key()));
+        assertFalse(queries.get(1).containsKey(REGION.key()));
+
+        // Do not resume. Discard the checkpoint
+        checkpoint = new VariantAnnotationCheckpoint(file, false);
+        assertEquals(0, checkpoint.getResumeCount());
+        assertFalse(Files.exists(file));
+    }
+
+    @Test
+    public void testResumeRegions() throws Exception {
+        Files.write(file, "2:3:A:C\t5\t1\n".getBytes(StandardCharsets.UTF_8));
+        VariantAnnotationCheckpoint checkpoint = new VariantAnnotationCheckpoint(file, true);
+        Query query = new Query(REGION.key(), "1:1-5,2:1-5,3:6-7");
+        List<Variant> read = readAll(checkpoint, checkpoint.newReader(this::newReader, query), 2);
+
+        assertEquals(Arrays.asList("2:4:A:C", "2:5:A:C", "3:6:A:C", "3:7:A:C"),
+                read.stream().map(Variant::toString).collect(Collectors.toList()));
+        assertEquals(2, queries.size());
+        assertEquals("2:3-5", queries.get(0).getString(REGION.key()));
+        assertEquals("3:6-7", queries.get(1).getString(REGION.key()));
+        assertEquals(9, checkpoint.getNumVariants());
+    }
+
+    @Test
+    public void testResumeMissingVariant() throws Exception {
+        Files.write(file, "2:3:A:G\t12\t1\n".getBytes(StandardCharsets.UTF_8));
+        VariantAnnotationCheckpoint checkpoint = new VariantAnnotationCheckpoint(file, true);
+        DataReader<Variant> reader = checkpoint.newReader(this::newReader, new Query());
+        try {
+            reader.read(10);
+            fail("Expected to fail");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("2:3:A:G"));
+        }
+        // The checkpoint is kept
+        assertTrue(Files.exists(file));
+    }
+
+    @Test
+    public void testResumeFromTheBeginning() throws Exception {
+        Files.write(file, "1:4:A:C\t4\n".getBytes(StandardCharsets.UTF_8));
+        VariantAnnotationCheckpoint checkpoint = new VariantAnnotationCheckpoint(file, true);
+        // Queries by id can not be restricted by region
+        DataReader<Variant> reader = checkpoint.newReader(this::newReader, new Query(ID.key(), "1:2:A:C,1:4:A:C,1:6:A:C"));
+        List<Variant> read = readAll(checkpoint, reader, 10);
+        assertEquals(26, read.size());
+        assertEquals("1:5:A:C", read.get(0).toString());
+        assertEquals(1, queries.size());
+    }
+
+    private static List<Variant> readAll(VariantAnnotationCheckpoint checkpoint, DataReader<Variant> reader, int batchSize) {
+        List<Variant> read = new ArrayList<>();
+        reader.open();
+        reader.pre();
+        List<Variant> batch = reader.read(batchSize);
+        while (!batch.isEmpty()) {
+            read.addAll(batch);
+            checkpoint.loaded(batch);
+            batch = reader.read(batchSize);
+        }
+        reader.post();
+        reader.close();
+        return read;
+    }
+
+    // Sorted reader. Only filters by region
+    private DataReader<Variant> newReader(Query query) {
+        queries.add(query);
+        List<Region> regions = query.containsKey(REGION.key())
+                ? Arrays.stream(query.getString(REGION.key()).split(",")).map(Region::new).collect(Collectors.toList())
+                : Collections.singletonList((Region) null);
+        List<Variant> filtered = variants.stream()
+                .filter(variant -> regions.stream().anyMatch(region -> region == null
+                        || region.getChromosome().equals(variant.getChromosome())
+                        && region.getStart() <= variant.getStart() && variant.getStart() <= region.getEnd()))
+                .collect(Collectors.toList());
+        return new DataReader<Variant>() {
+            private int next = 0;
+
+            @Override
+            public List<Variant> read(int batchSize) {
+                if (next >= filtered.size()) {
+                    return Collections.emptyList();
+                }
+                List<Variant> batch = new ArrayList<>(filtered.subList(next, Math.min(next + batchSize, filtered.size())));
+                next += batch.size();
+                return batch;
+            }
+        };
+    }
+}
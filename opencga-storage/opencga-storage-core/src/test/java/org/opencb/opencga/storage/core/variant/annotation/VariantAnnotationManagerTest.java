@@ -18,6 +18,9 @@ import org.opencb.opencga.storage.core.variant.annotation.annotators.VariantAnno
 import org.opencb.opencga.storage.core.variant.annotation.annotators.VariantAnnotatorFactory;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Collections;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -117,6 +120,26 @@ public abstract class VariantAnnotationManagerTest extends VariantStorageBaseTes
 
     }
 
+    @Test
+    public void testDirectAnnotation() throws Exception {
+        VariantStorageEngine variantStorageEngine = getVariantStorageEngine();
+        runDefaultETL(smallInputUri, variantStorageEngine, newStudyConfiguration(),
+                new ObjectMap(VariantStorageEngine.Options.ANNOTATE.key(), false));
+
+        variantStorageEngine.getOptions()
+                .append(VARIANT_ANNOTATOR_CLASSNAME, TestAnnotator.class.getName())
+                .append(ANNOTATOR, VariantAnnotatorFactory.AnnotationSource.OTHER);
+
+        Path outDir = Paths.get(newOutputUri());
+        variantStorageEngine.annotate(new Query(), new ObjectMap(TestAnnotator.ANNOT_KEY, "v1")
+                .append(DefaultVariantAnnotationManager.DIRECT, true)
+                .append(DefaultVariantAnnotationManager.OUT_DIR, outDir.toString()));
+        assertEquals("v1", variantStorageEngine.getStudyConfigurationManager().getProjectMetadata().first().getAnnotation().getCurrent().getAnnotator().getVersion());
+        checkAnnotationSnapshot(variantStorageEngine, VariantAnnotationManager.CURRENT, "v1");
+        // No intermediate file, and no checkpoint after a successful run
+        assertEquals(0, Files.list(outDir).count());
+    }
+
     public void testQueries(VariantStorageEngine variantStorageEngine) throws StorageEngineException {
         long count = variantStorageEngine.count(new Query()).first();
         long partialCount = 0;
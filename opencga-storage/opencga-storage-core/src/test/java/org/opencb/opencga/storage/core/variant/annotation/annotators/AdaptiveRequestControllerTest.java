@@ -0,0 +1,261 @@
+package org.opencb.opencga.storage.core.variant.annotation.annotators;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opencb.commons.datastore.core.ObjectMap;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test the AdaptiveRequestController against a local HTTP server that annotates a list of ids,
+ * with configurable latency and errors.
+ */
+public class AdaptiveRequestControllerTest {
+
+    private HttpServer server;
+    private final AtomicLong latencyMs = new AtomicLong(0);
+    private final AtomicInteger failNextRequests = new AtomicInteger(0);
+    private final AtomicInteger numRequests = new AtomicInteger(0);
+    private final AtomicInteger inFlight = new AtomicInteger(0);
+    private final AtomicInteger maxInFlight = new AtomicInteger(0);
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(java.util.concurrent.Executors.newCachedThreadPool());
+        server.createContext("/annotate", exchange -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                numRequests.incrementAndGet();
+                String body;
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8))) {
+                    body = reader.lines().collect(Collectors.joining("\n"));
+                }
+                Thread.sleep(latencyMs.get());
+                List<String> ids = Arrays.asList(body.split(","));
+                if (failNextRequests.getAndDecrement() > 0 || ids.contains("FAIL")) {
+                    exchange.sendResponseHeaders(500, -1);
+                } else {
+                    byte[] response = ids.stream().map(id -> "annotated_" + id).collect(Collectors.joining("\n"))
+                            .getBytes(StandardCharsets.UTF_8);
+                    exchange.sendResponseHeaders(200, response.length);
+                    try (OutputStream os = exchange.getResponseBody()) {
+                        os.write(response);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                inFlight.decrementAndGet();
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    private List<String> annotate(List<String> ids) throws IOException {
+        URL url = new URL("http://localhost:" + server.getAddress().getPort() + "/annotate");
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        try (OutputStream os = connection.getOutputStream()) {
+            os.write(String.join(",", ids).getBytes(StandardCharsets.UTF_8));
+        }
+        if (connection.getResponseCode() != 200) {
+            throw new IOException("HTTP " + connection.getResponseCode());
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+            return reader.lines().collect(Collectors.toList());
+        }
+    }
+
+    private static List<String> ids(int n) {
+        List<String> ids = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            ids.add("v" + i);
+        }
+        return ids;
+    }
+
+    @Test
+    public void testIncreaseWhenFast() throws Exception {
+        AdaptiveRequestController controller = new AdaptiveRequestController(new ObjectMap()
+                .append(AdaptiveRequestController.BATCH_SIZE, 10)
+                .append(AdaptiveRequestController.CONCURRENCY, 2));
+
+        List<String> ids = ids(5000);
+        List<String> results = controller.execute(ids, this::annotate, id -> null);
+
+        assertEquals(ids.size(), results.size());
+        for (int i = 0; i < ids.size(); i++) {
+            assertEquals("annotated_" + ids.get(i), results.get(i));
+        }
+        assertTrue(controller.toString(), controller.getBatchSize() > 10);
+        assertTrue(controller.toString(), controller.getConcurrencyLimit() > 2);
+    }
+
+    @Test
+    public void testDecreaseWhenSlow() throws Exception {
+        latencyMs.set(100);
+        AdaptiveRequestController controller = new AdaptiveRequestController(new ObjectMap()
+                .append(AdaptiveRequestController.BATCH_SIZE, 100)
+                .append(AdaptiveRequestController.MIN_BATCH_SIZE, 10)
+                .append(AdaptiveRequestController.TARGET_LATENCY_MS, 20));
+
+        for (int i = 0; i < 5; i++) {
+            controller.execute(ids(100), this::annotate, id -> null);
+        }
+        assertEquals(controller.toString(), 10, controller.getBatchSize());
+    }
+
+    @Test
+    public void testLimitConcurrency() throws Exception {
+        latencyMs.set(20);
+        AdaptiveRequestController controller = new AdaptiveRequestController(new ObjectMap()
+                .append(AdaptiveRequestController.BATCH_SIZE, 10)
+                .append(AdaptiveRequestController.MAX_BATCH_SIZE, 10)
+                .append(AdaptiveRequestController.CONCURRENCY, 3)
+                .append(AdaptiveRequestController.MAX_CONCURRENCY, 3));
+
+        controller.execute(ids(500), this::annotate, id -> null);
+        assertEquals(50, numRequests.get());
+        assertTrue(maxInFlight.get() <= 3);
+    }
+
+    @Test
+    public void testRetryTransientErrors() throws Exception {
+        failNextRequests.set(2);
+        AdaptiveRequestController controller = new AdaptiveRequestController(new ObjectMap()
+                .append(AdaptiveRequestController.BATCH_SIZE, 50)
+                .append(AdaptiveRequestController.CONCURRENCY, 1)
+                .append(AdaptiveRequestController.RETRY_BASE_DELAY_MS, 10));
+
+        List<String> results = controller.execute(ids(50), this::annotate, id -> null);
+        assertEquals(50, results.size());
+        assertFalse(results.contains(null));
+        assertEquals(0, controller.getFailedElements());
+    }
+
+    @Test
+    public void testIsolateFailingElement() throws Exception {
+        AdaptiveRequestController controller = new AdaptiveRequestController(new ObjectMap()
+                .append(AdaptiveRequestController.BATCH_SIZE, 64)
+                .append(AdaptiveRequestController.RETRY_BASE_DELAY_MS, 1));
+
+        List<String> ids = ids(64);
+        ids.set(37, "FAIL");
+        List<String> results = controller.execute(ids, this::annotate, id -> "skipped_" + id);
+
+        assertEquals(64, results.size());
+        for (int i = 0; i < ids.size(); i++) {
+            if (i == 37) {
+                assertEquals("skipped_FAIL", results.get(i));
+            } else {
+                assertEquals("annotated_" + ids.get(i), results.get(i));
+            }
+        }
+        assertEquals(1, controller.getFailedElements());
+    }
+
+    @Test
+    public void testCircuitBreaker() throws Exception {
+        // Remote service down
+        failNextRequests.set(Integer.MAX_VALUE);
+        AdaptiveRequestController controller = new AdaptiveRequestController(new ObjectMap()
+                .append(AdaptiveRequestController.BATCH_SIZE, 10)
+                .append(AdaptiveRequestController.RETRY_BASE_DELAY_MS, 1)
+                .append(AdaptiveRequestController.MAX_CONSECUTIVE_FAILURES, 5));
+
+        try {
+            controller.execute(ids(1000), this::annotate, id -> null);
+            fail("Expected circuit breaker to open");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("consecutive failed requests"));
+        }
+        // Far fewer requests than the retries and splits of every element
+        assertTrue(String.valueOf(numRequests.get()), numRequests.get() < 50);
+
+        // Open circuit. Fail without sending any request
+        int requests = numRequests.get();
+        try {
+            controller.execute(ids(10), this::annotate, id -> null);
+            fail("Expected circuit breaker to be open");
+        } catch (IllegalStateException e) {
+            assertEquals(requests, numRequests.get());
+        }
+    }
+
+    @Test
+    public void testCircuitBreakerReset() throws Exception {
+        failNextRequests.set(5);
+        AdaptiveRequestController controller = new AdaptiveRequestController(new ObjectMap()
+                .append(AdaptiveRequestController.BATCH_SIZE, 10)
+                .append(AdaptiveRequestController.CONCURRENCY, 1)
+                .append(AdaptiveRequestController.RETRY_BASE_DELAY_MS, 1)
+                .append(AdaptiveRequestController.MAX_CONSECUTIVE_FAILURES, 5)
+                .append(AdaptiveRequestController.CIRCUIT_BREAKER_RESET_MS, 100));
+
+        try {
+            controller.execute(ids(10), this::annotate, id -> null);
+            fail("Expected circuit breaker to open");
+        } catch (IllegalStateException ignore) {
+        }
+        Thread.sleep(150);
+
+        // Remote service is back
+        List<String> results = controller.execute(ids(10), this::annotate, id -> null);
+        assertEquals(10, results.size());
+        assertFalse(results.contains(null));
+        assertEquals(0, controller.getConsecutiveFailures());
+    }
+
+    @Test
+    public void testTooManyFailedElements() throws Exception {
+        AdaptiveRequestController controller = new AdaptiveRequestController(new ObjectMap()
+                .append(AdaptiveRequestController.BATCH_SIZE, 64)
+                .append(AdaptiveRequestController.RETRY_BASE_DELAY_MS, 1)
+                .append(AdaptiveRequestController.MAX_FAILED_RATIO, 0.01));
+
+        List<String> ids = ids(64);
+        ids.set(37, "FAIL");
+        try {
+            controller.execute(ids, this::annotate, id -> "skipped_" + id);
+            fail("Expected too many failed elements");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("1 out of 64"));
+        }
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        AdaptiveRequestController controller = new AdaptiveRequestController(new ObjectMap());
+        assertEquals(10, controller.execute(ids(10), this::annotate, id -> null).size());
+        controller.close();
+        try {
+            controller.execute(ids(10), this::annotate, id -> null);
+            fail("Expected closed controller");
+        } catch (RejectedExecutionException e) {
+            // Threads stopped
+        }
+    }
+}
@@ -4,6 +4,7 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 import org.opencb.biodata.models.variant.Variant;
 import org.opencb.biodata.models.variant.avro.VariantAnnotation;
 import org.opencb.commons.datastore.core.ObjectMap;
@@ -30,6 +31,8 @@ public class VariantAnnotatorTest {
 
     @Rule
     public ExpectedException thrown = ExpectedException.none();
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
     private ProjectMetadata projectMetadata;
 
     @Before
@@ -99,6 +102,37 @@ public class VariantAnnotatorTest {
         testAnnotator.annotate(Arrays.asList(new Variant("10:999:A:C"), new Variant("10:1000:A:C"), new Variant("10:1001:A:C")));
     }
 
+    @Test
+    public void testAnnotateWithCache() throws Exception {
+        ObjectMap options = new ObjectMap(VariantAnnotationManager.ANNOTATOR, VariantAnnotatorFactory.AnnotationSource.OTHER.toString())
+                .append(VariantAnnotationManager.VARIANT_ANNOTATOR_CLASSNAME, TestCellBaseRestVariantAnnotator.class.getName())
+                .append(AbstractCellBaseVariantAnnotator.ANNOTATOR_CACHE_DIR, temporaryFolder.getRoot().getAbsolutePath());
+        List<Variant> variants = Arrays.asList(new Variant("10:1001:A:C"), new Variant("10:999:A:C"), new Variant("10:1000:A:C"),
+                new Variant("10:999:A:C"));
+        List<String> expected = Arrays.asList("10:1001:A:C", "10:999:A:C", "10:999:A:C");
+
+        try (TestCellBaseRestVariantAnnotator testAnnotator = (TestCellBaseRestVariantAnnotator) VariantAnnotatorFactory
+                .buildVariantAnnotator(storageConfiguration, storageConfiguration.getDefaultStorageEngineId(), projectMetadata, options)) {
+            testAnnotator.skip("10:1000:A:C");
+            // Duplicated variants are annotated once per position. Skipped variants are not returned
+            assertEquals(expected, toVariantStrings(testAnnotator.annotate(variants)));
+            assertEquals(2, testAnnotator.getCache().size());
+
+            // Same result from the cache
+            assertEquals(expected, toVariantStrings(testAnnotator.annotate(variants)));
+            assertEquals(3, testAnnotator.getCache().getHits());
+        }
+    }
+
+    private static List<String> toVariantStrings(List<VariantAnnotation> annotations) {
+        List<String> variants = new ArrayList<>(annotations.size());
+        for (VariantAnnotation annotation : annotations) {
+            variants.add(annotation.getChromosome() + ':' + annotation.getStart() + ':' + annotation.getReference() + ':'
+                    + annotation.getAlternate());
+        }
+        return variants;
+    }
+
     public static class TestCellBaseRestVariantAnnotator extends CellBaseRestVariantAnnotator {
 
         private final Set<String> skipvariants;
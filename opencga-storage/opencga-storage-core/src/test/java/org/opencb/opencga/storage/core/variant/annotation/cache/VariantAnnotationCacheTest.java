@@ -0,0 +1,134 @@
+package org.opencb.opencga.storage.core.variant.annotation.cache;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.avro.VariantAnnotation;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class VariantAnnotationCacheTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testPutGet() throws Exception {
+        Path dir = temporaryFolder.getRoot().toPath();
+        try (VariantAnnotationCache cache = VariantAnnotationCache.open(dir, "cellbase_v4_hsapiens_grch37", 1024 * 1024 * 10)) {
+            assertNull(cache.get("1:100:A:C"));
+            cache.put(newAnnotation("1:100:A:C", "rs1"));
+            cache.put(newAnnotation("1:200:A:-", "rs2"));
+
+            VariantAnnotation annotation = cache.get("1:100:A:C");
+            assertNotNull(annotation);
+            assertEquals("rs1", annotation.getId());
+            assertEquals(100, annotation.getStart().intValue());
+            assertEquals("rs2", cache.get(VariantAnnotationCache.key(new Variant("1:200:A:-"))).getId());
+            assertEquals(2, cache.getHits());
+            assertEquals(1, cache.getMisses());
+            assertEquals(2.0 / 3, cache.getHitRate(), 0.0001);
+        }
+
+        // Reopen. Annotations are persistent
+        try (VariantAnnotationCache cache = VariantAnnotationCache.open(dir, "cellbase_v4_hsapiens_grch37", 1024 * 1024 * 10)) {
+            assertEquals(2, cache.size());
+            assertEquals("rs1", cache.get("1:100:A:C").getId());
+        }
+
+        // Different tag. Empty cache
+        try (VariantAnnotationCache cache = VariantAnnotationCache.open(dir, "cellbase_v4_hsapiens_grch38", 1024 * 1024 * 10)) {
+            assertEquals(0, cache.size());
+            assertNull(cache.get("1:100:A:C"));
+        }
+    }
+
+    @Test
+    public void testSharedInstance() throws Exception {
+        Path dir = temporaryFolder.getRoot().toPath();
+        VariantAnnotationCache cache1 = VariantAnnotationCache.open(dir, "tag", 1024 * 1024);
+        VariantAnnotationCache cache2 = VariantAnnotationCache.open(dir, "tag", 1024 * 1024);
+        assertSame(cache1, cache2);
+        cache1.close();
+        cache2.put(newAnnotation("1:100:A:C", "rs1"));
+        cache2.close();
+    }
+
+    @Test
+    public void testLockDirectory() throws Exception {
+        Path dir = temporaryFolder.getRoot().toPath();
+        VariantAnnotationCache cache = new VariantAnnotationCache(dir, 1024 * 1024);
+        try {
+            // As another process opening the same directory
+            new VariantAnnotationCache(dir, 1024 * 1024);
+            fail("Expected the directory to be locked");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("in use"));
+        }
+        cache.put(newAnnotation("1:100:A:C", "rs1"));
+        cache.close();
+
+        // Released on close
+        cache = new VariantAnnotationCache(dir, 1024 * 1024);
+        assertEquals("rs1", cache.get("1:100:A:C").getId());
+        cache.close();
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        Path dir = temporaryFolder.getRoot().toPath();
+        long maxSize = 4 * 1024 * 1024;
+        try (VariantAnnotationCache cache = VariantAnnotationCache.open(dir, "tag", maxSize)) {
+            int numVariants = 200000;
+            for (int i = 1; i <= numVariants; i++) {
+                cache.put(newAnnotation("1:" + i + ":A:C", "rs" + i));
+            }
+            assertTrue(cache.getSizeBytes() <= maxSize);
+            assertTrue(cache.getEvictedEntries() > 0);
+            assertEquals(numVariants, cache.size() + cache.getEvictedEntries());
+            // Oldest entries are evicted first
+            assertNull(cache.get("1:1:A:C"));
+            assertEquals("rs" + numVariants, cache.get("1:" + numVariants + ":A:C").getId());
+        }
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() throws Exception {
+        Path dir = temporaryFolder.getRoot().toPath();
+        long maxSize = 4 * 1024 * 1024;
+        try (VariantAnnotationCache cache = VariantAnnotationCache.open(dir, "tag", maxSize)) {
+            int numVariants = 200000;
+            for (int i = 1; i <= numVariants; i++) {
+                cache.put(newAnnotation("1:" + i + ":A:C", "rs" + i));
+                // Keep the first variant in use
+                assertNotNull(cache.get("1:1:A:C"));
+            }
+            assertTrue(cache.getSizeBytes() <= maxSize);
+            assertTrue(cache.getEvictedEntries() > 0);
+            assertEquals("rs1", cache.get("1:1:A:C").getId());
+            assertNull(cache.get("1:2:A:C"));
+        }
+
+        // Reopen. The moved annotations are still readable
+        try (VariantAnnotationCache cache = VariantAnnotationCache.open(dir, "tag", maxSize)) {
+            assertEquals("rs1", cache.get("1:1:A:C").getId());
+            assertEquals("rs200000", cache.get("1:200000:A:C").getId());
+        }
+    }
+
+    private static VariantAnnotation newAnnotation(String variantStr, String id) {
+        Variant variant = new Variant(variantStr);
+        VariantAnnotation annotation = new VariantAnnotation();
+        annotation.setChromosome(variant.getChromosome());
+        annotation.setStart(variant.getStart());
+        annotation.setEnd(variant.getEnd());
+        annotation.setReference(variant.getReference());
+        annotation.setAlternate(variant.getAlternate());
+        annotation.setId(id);
+        return annotation;
+    }
+}
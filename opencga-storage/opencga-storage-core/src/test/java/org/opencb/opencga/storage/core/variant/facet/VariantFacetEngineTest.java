@@ -0,0 +1,346 @@
+package org.opencb.opencga.storage.core.variant.facet;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opencb.biodata.models.core.Region;
+import org.opencb.biodata.models.variant.StudyEntry;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.avro.*;
+import org.opencb.commons.datastore.core.Query;
+import org.opencb.commons.datastore.core.QueryOptions;
+import org.opencb.commons.datastore.core.result.FacetedQueryResultItem;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantField;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantIterable;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryException;
+import org.opencb.opencga.storage.core.variant.adaptors.iterators.VariantDBIterator;
+import org.opencb.opencga.storage.core.variant.search.VariantSearchToVariantConverter;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.opencb.opencga.storage.core.variant.adaptors.VariantQueryParam.*;
+import static org.opencb.opencga.storage.core.variant.adaptors.VariantQueryUtils.NONE;
+import static org.opencb.opencga.storage.core.variant.adaptors.VariantQueryUtils.isValidParam;
+
+public class VariantFacetEngineTest {
+
+    private static final int NUM_VARIANTS = 1000;
+
+    private final List<Variant> variants = new ArrayList<>();
+    private final AtomicInteger readVariants = new AtomicInteger();
+    private final List<QueryOptions> projections = Collections.synchronizedList(new ArrayList<>());
+    private final List<Query> queries = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * In memory variants, filtered by region.
+     */
+    private final VariantIterable iterable = (query, options) -> {
+        queries.add(query);
+        projections.add(options);
+        List<Variant> result = new ArrayList<>();
+        List<Region> regions = isValidParam(query, REGION)
+                ? Region.parseRegions(query.getString(REGION.key()))
+                : Collections.emptyList();
+        for (Variant variant : variants) {
+            if (regions.isEmpty() || regions.stream().anyMatch(r -> r.overlaps(variant.getChromosome(), variant.getStart(),
+                    variant.getEnd()))) {
+                result.add(variant);
+            }
+        }
+        readVariants.addAndGet(result.size());
+        return VariantDBIterator.wrapper(result.iterator());
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        for (int i = 0; i < NUM_VARIANTS; i++) {
+            String chromosome = i < 800 ? "1" : "2";
+            Variant variant = new Variant(chromosome + ":" + position(i) + ":A:" + (i % 5 == 0 ? "AT" : "C"));
+
+            ConsequenceType ct = new ConsequenceType();
+            ct.setGeneName("G" + (i % 5));
+            ct.setEnsemblGeneId("ENSG0000" + (i % 5));
+            ct.setEnsemblTranscriptId("ENST0000" + (i % 5));
+            ct.setBiotype(i % 2 == 0 ? "protein_coding" : "lincRNA");
+            ct.setSequenceOntologyTerms(Collections.singletonList(i % 3 == 0
+                    ? new SequenceOntologyTerm("SO:0001583", "missense_variant")
+                    : new SequenceOntologyTerm("SO:0001819", "synonymous_variant")));
+            ct.setExonOverlap(Collections.emptyList());
+            ct.setTranscriptAnnotationFlags(Collections.emptyList());
+            VariantAnnotation annotation = new VariantAnnotation();
+            annotation.setConsequenceTypes(Collections.singletonList(ct));
+            float freq = (i % 10) / 10F + 0.05F;
+            annotation.setPopulationFrequencies(Collections.singletonList(
+                    new PopulationFrequency("1kG", "ALL", "A", "C", 1 - freq, freq, 0F, 0F, 0F)));
+            variant.setAnnotation(annotation);
+
+            StudyEntry studyEntry = new StudyEntry("s1", Collections.emptyList(), Collections.singletonList("GT"));
+            String qual = i % 50 == 0 ? "." : String.valueOf(i % 100);
+            studyEntry.setFiles(Collections.singletonList(new FileEntry("f1", "", Collections.singletonMap(StudyEntry.QUAL, qual))));
+            variant.addStudyEntry(studyEntry);
+            variants.add(variant);
+        }
+    }
+
+    private static int position(int i) {
+        return 1000 + (i % 800) * 100;
+    }
+
+    private static Map<String, Long> counts(FacetedQueryResultItem.Field field) {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (FacetedQueryResultItem.Count count : field.getCounts()) {
+            counts.put(count.getValue(), count.getCount());
+        }
+        return counts;
+    }
+
+    /**
+     * Flatten the counts of all the fields, nested fields and ranges.
+     */
+    private static Map<String, Object> flatten(FacetedQueryResultItem result) {
+        Map<String, Object> map = new TreeMap<>();
+        for (FacetedQueryResultItem.Field field : result.getFields()) {
+            flatten("", field, map);
+        }
+        for (FacetedQueryResultItem.Range range : result.getRanges()) {
+            map.put(range.getName(), range.getCounts());
+        }
+        return map;
+    }
+
+    private static void flatten(String prefix, FacetedQueryResultItem.Field field, Map<String, Object> map) {
+        map.put(prefix + field.getName(), field.getTotal());
+        for (FacetedQueryResultItem.Count count : field.getCounts()) {
+            String key = prefix + field.getName() + ':' + count.getValue();
+            map.put(key, count.getCount());
+            if (count.getNestedField() != null) {
+                flatten(key + ">>", count.getNestedField(), map);
+            }
+        }
+    }
+
+    private FacetedQueryResultItem facet(Query query, QueryOptions options, int parallelism, int partitionSize) throws Exception {
+        return new VariantFacetEngine(iterable, parallelism, partitionSize).facet(query, options).getResult();
+    }
+
+    @Test
+    public void testFieldFacets() throws Exception {
+        FacetedQueryResultItem result = facet(new Query(), new QueryOptions(QueryOptions.FACET, "biotypes;genes;soAcc;type"), 1, 0);
+        assertEquals(4, result.getFields().size());
+
+        FacetedQueryResultItem.Field biotypes = result.getFields().get(0);
+        assertEquals("biotypes", biotypes.getName());
+        assertEquals(NUM_VARIANTS, biotypes.getTotal());
+        assertEquals(new HashMap<String, Long>() {{
+            put("protein_coding", 500L);
+            put("lincRNA", 500L);
+        }}, counts(biotypes));
+
+        // Ensembl genes and transcripts are discarded
+        FacetedQueryResultItem.Field genes = result.getFields().get(1);
+        assertEquals(NUM_VARIANTS, genes.getTotal());
+        assertEquals(Arrays.asList("G0", "G1", "G2", "G3", "G4"), new ArrayList<>(counts(genes).keySet()));
+        assertEquals(Long.valueOf(200), counts(genes).get("G0"));
+
+        FacetedQueryResultItem.Field soAcc = result.getFields().get(2);
+        assertEquals(Long.valueOf(334), counts(soAcc).get("missense_variant (SO:0001583)"));
+        assertEquals(Long.valueOf(666), counts(soAcc).get("synonymous_variant (SO:0001819)"));
+        // Sorted by count
+        assertEquals("synonymous_variant (SO:0001819)", soAcc.getCounts().get(0).getValue());
+
+        FacetedQueryResultItem.Field type = result.getFields().get(3);
+        assertEquals(Long.valueOf(800), counts(type).get("SNV"));
+        assertEquals(Long.valueOf(200), counts(type).get("INDEL"));
+    }
+
+    @Test
+    public void testIncludeSkipLimit() throws Exception {
+        FacetedQueryResultItem result = facet(new Query(), new QueryOptions(QueryOptions.FACET, "genes[G1,G3];biotypes[]:1:1"), 1, 0);
+
+        FacetedQueryResultItem.Field genes = result.getFields().get(0);
+        assertEquals(Arrays.asList("G1", "G3"), new ArrayList<>(counts(genes).keySet()));
+        assertEquals(NUM_VARIANTS, genes.getTotal());
+
+        FacetedQueryResultItem.Field biotypes = result.getFields().get(1);
+        assertEquals(Collections.singletonMap("protein_coding", 500L), counts(biotypes));
+        assertEquals(500, biotypes.getTotal());
+    }
+
+    @Test
+    public void testNestedFacet() throws Exception {
+        FacetedQueryResultItem result = facet(new Query(), new QueryOptions(QueryOptions.FACET, "biotypes>>soAcc"), 1, 0);
+        assertEquals(1, result.getFields().size());
+        FacetedQueryResultItem.Field biotypes = result.getFields().get(0);
+        assertEquals("biotypes", biotypes.getName());
+
+        for (FacetedQueryResultItem.Count count : biotypes.getCounts()) {
+            FacetedQueryResultItem.Field soAcc = count.getNestedField();
+            assertEquals("soAcc", soAcc.getName());
+            assertEquals(count.getCount(), soAcc.getTotal());
+            long missense = 0;
+            for (int i = 0; i < NUM_VARIANTS; i++) {
+                String biotype = i % 2 == 0 ? "protein_coding" : "lincRNA";
+                if (biotype.equals(count.getValue()) && i % 3 == 0) {
+                    missense++;
+                }
+            }
+            assertEquals(Long.valueOf(missense), counts(soAcc).get("missense_variant (SO:0001583)"));
+        }
+    }
+
+    @Test
+    public void testRangeFacets() throws Exception {
+        QueryOptions options = new QueryOptions(QueryOptions.FACET, "popFreq__1kG__ALL:0:1:0.1")
+                .append(QueryOptions.FACET_RANGE, "qual:0:100:10;start:0:100000:20000");
+        FacetedQueryResultItem result = facet(new Query(), options, 1, 0);
+        assertEquals(0, result.getFields().size());
+        assertEquals(3, result.getRanges().size());
+
+        FacetedQueryResultItem.Range popFreq = result.getRanges().get(0);
+        assertEquals("popFreq__1kG__ALL", popFreq.getName());
+        assertEquals(Collections.nCopies(10, 100L), popFreq.getCounts());
+        assertEquals(NUM_VARIANTS, popFreq.getTotal());
+
+        // Missing QUAL in 0 and 50
+        FacetedQueryResultItem.Range qual = result.getRanges().get(1);
+        assertEquals(Arrays.asList(90L, 100L, 100L, 100L, 100L, 90L, 100L, 100L, 100L, 100L), qual.getCounts());
+
+        FacetedQueryResultItem.Range start = result.getRanges().get(2);
+        assertEquals(Arrays.asList(380L, 210L, 200L, 200L, 10L), start.getCounts());
+    }
+
+    @Test
+    public void testPartitions() throws Exception {
+        // Overlapping regions. Variants in both regions are counted once
+        Query query = new Query(REGION.key(), "1:1-50000,1:40000-90000,2");
+        QueryOptions options = new QueryOptions(QueryOptions.FACET, "chromosome;genes>>biotypes")
+                .append(QueryOptions.FACET_RANGE, "start:0:100000:10000");
+
+        FacetedQueryResultItem expected = facet(new Query(), options, 1, 0);
+        readVariants.set(0);
+        FacetedQueryResultItem sequential = facet(query, options, 1, 0);
+        assertTrue(readVariants.get() > NUM_VARIANTS);
+        FacetedQueryResultItem parallel = facet(query, options, 4, 10000);
+
+        assertEquals(flatten(expected), flatten(sequential));
+        assertEquals(flatten(expected), flatten(parallel));
+        assertEquals(Long.valueOf(800), counts(parallel.getFields().get(0)).get("1"));
+        assertEquals(Long.valueOf(200), counts(parallel.getFields().get(0)).get("2"));
+    }
+
+    @Test
+    public void testGetPartitions() throws Exception {
+        VariantFacetEngine engine = new VariantFacetEngine(iterable, 4, 1000);
+        assertEquals(Collections.emptyList(), engine.getPartitions(new Query()));
+        assertEquals(Collections.emptyList(), engine.getPartitions(new Query(REGION.key(), "1:1-5000").append(GENE.key(), "BRCA2")));
+        List<Region> partitions = engine.getPartitions(new Query(REGION.key(), "1:1-2500,2"));
+        assertEquals(4, partitions.size());
+        assertEquals("1:1-1000", partitions.get(0).toString());
+        assertEquals("1:1001-2000", partitions.get(1).toString());
+        assertEquals("1:2001-2500", partitions.get(2).toString());
+        assertEquals("2", partitions.get(3).getChromosome());
+
+        // Without region, split by chromosome
+        engine = new VariantFacetEngine(iterable, () -> Arrays.asList("1", "2"), 4, 1000);
+        partitions = engine.getPartitions(new Query());
+        assertEquals(2, partitions.size());
+        assertEquals("1", partitions.get(0).getChromosome());
+        assertEquals("2", partitions.get(1).getChromosome());
+        assertEquals(Collections.emptyList(), engine.getPartitions(new Query(GENE.key(), "BRCA2")));
+    }
+
+    @Test
+    public void testChromosomePartitions() throws Exception {
+        QueryOptions options = new QueryOptions(QueryOptions.FACET, "chromosome;genes>>biotypes");
+        FacetedQueryResultItem expected = facet(new Query(), options, 1, 0);
+        queries.clear();
+        FacetedQueryResultItem parallel = new VariantFacetEngine(iterable, () -> Arrays.asList("1", "2"), 4, 0)
+                .facet(new Query(), options).getResult();
+        assertEquals(flatten(expected), flatten(parallel));
+        assertEquals(2, queries.size());
+        for (Query query : queries) {
+            assertTrue(isValidParam(query, REGION));
+        }
+    }
+
+    @Test
+    public void testIsFirstPartition() throws Exception {
+        // Unsorted partitions
+        List<Region> partitions = Arrays.asList(new Region("1", 300, 400), new Region("1", 100, 200));
+        // Counted in the partition containing its start, even if it overlaps a previous partition
+        Variant deletion = new Variant("1", 180, 320, "A", "<DEL>");
+        assertFalse(VariantFacetEngine.isFirstPartition(partitions, 0, deletion));
+        assertTrue(VariantFacetEngine.isFirstPartition(partitions, 1, deletion));
+        // Starting out of all the partitions, counted in the first partition it overlaps
+        Variant outside = new Variant("1", 50, 350, "A", "<DEL>");
+        assertTrue(VariantFacetEngine.isFirstPartition(partitions, 0, outside));
+        assertFalse(VariantFacetEngine.isFirstPartition(partitions, 1, outside));
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        VariantIterable slowIterable = (query, options) -> {
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return iterable.iterator(query, options);
+        };
+        QueryOptions options = new QueryOptions(QueryOptions.FACET, "chromosome").append(QueryOptions.TIMEOUT, 100);
+        for (int parallelism : new int[]{1, 4}) {
+            try {
+                new VariantFacetEngine(slowIterable, () -> Arrays.asList("1", "2", "3"), parallelism, 0).facet(new Query(), options);
+                fail("Expected timeout with parallelism " + parallelism);
+            } catch (VariantQueryException e) {
+                assertTrue(e.getMessage().contains("Timeout"));
+            }
+        }
+        assertEquals(100, projections.get(0).getInt(QueryOptions.TIMEOUT));
+    }
+
+    @Test
+    public void testProjection() throws Exception {
+        facet(new Query(), new QueryOptions(QueryOptions.FACET, "chromosome;type"), 1, 0);
+        List<String> include = projections.get(0).getAsStringList(QueryOptions.INCLUDE);
+        assertFalse(include.contains(VariantField.ANNOTATION.fieldName()));
+        assertFalse(include.contains(VariantField.STUDIES_FILES.fieldName()));
+        assertEquals(NONE, queries.get(0).getString(INCLUDE_SAMPLE.key()));
+        assertEquals(NONE, queries.get(0).getString(INCLUDE_FILE.key()));
+
+        facet(new Query(), new QueryOptions(QueryOptions.FACET, "genes").append(QueryOptions.FACET_RANGE, "qual:0:100:10"), 1, 0);
+        include = projections.get(1).getAsStringList(QueryOptions.INCLUDE);
+        assertTrue(include.contains(VariantField.ANNOTATION.fieldName()));
+        assertTrue(include.contains(VariantField.STUDIES_FILES.fieldName()));
+        assertEquals(NONE, queries.get(1).getString(INCLUDE_SAMPLE.key()));
+        assertFalse(isValidParam(queries.get(1), INCLUDE_FILE));
+    }
+
+    @Test
+    public void testMerge() throws Exception {
+        VariantFacetAggregation all = VariantFacetEngine.parseFacets(new QueryOptions(QueryOptions.FACET, "genes>>soAcc;qual:0:100:5"));
+        VariantFacetAggregation first = all.newAggregation();
+        VariantFacetAggregation second = all.newAggregation();
+        VariantSearchToVariantConverter converter = new VariantSearchToVariantConverter();
+        for (int i = 0; i < variants.size(); i++) {
+            Variant variant = variants.get(i);
+            all.add(converter.convertToStorageType(variant), variant);
+            (i % 3 == 0 ? first : second).add(converter.convertToStorageType(variant), variant);
+        }
+        first.merge(second);
+        assertEquals(NUM_VARIANTS, first.getCount());
+        assertEquals(flatten(all.toFacetedQueryResultItem(Collections.emptyMap())),
+                flatten(first.toFacetedQueryResultItem(Collections.emptyMap())));
+    }
+
+    @Test(expected = VariantQueryException.class)
+    public void testUnknownField() throws Exception {
+        facet(new Query(), new QueryOptions(QueryOptions.FACET, "unknownField"), 1, 0);
+    }
+
+    @Test(expected = VariantQueryException.class)
+    public void testIntersectionNotSupported() throws Exception {
+        facet(new Query(), new QueryOptions(QueryOptions.FACET, "studies:s1^s2"), 1, 0);
+    }
+}
@@ -0,0 +1,53 @@
+package org.opencb.opencga.storage.core.variant.phasing;
+
+import org.opencb.biodata.models.variant.Variant;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Thread safe {@link PhaseSetIndex} stored in memory, for testing.
+ */
+public class InMemoryPhaseSetIndex implements PhaseSetIndex {
+
+    private final Map<String, NavigableSet<Variant>> phaseSets = new ConcurrentHashMap<>();
+
+    @Override
+    public void add(int studyId, int sampleId, String chromosome, String phaseSet, Collection<String> variants) {
+        NavigableSet<Variant> set = phaseSets.computeIfAbsent(buildKey(studyId, sampleId, chromosome, phaseSet),
+                key -> new ConcurrentSkipListSet<>(POSITION_COMPARATOR));
+        for (String variant : variants) {
+            set.add(new Variant(variant));
+        }
+    }
+
+    @Override
+    public List<String> get(int studyId, int sampleId, String chromosome, String phaseSet) {
+        NavigableSet<Variant> set = phaseSets.get(buildKey(studyId, sampleId, chromosome, phaseSet));
+        if (set == null) {
+            return Collections.emptyList();
+        }
+        List<String> variants = new ArrayList<>(set.size());
+        for (Variant variant : set) {
+            variants.add(variant.toString());
+        }
+        return variants;
+    }
+
+    @Override
+    public void remove(int studyId, Collection<Integer> sampleIds) {
+        for (Integer sampleId : sampleIds) {
+            String prefix = studyId + "_" + sampleId + "_";
+            phaseSets.keySet().removeIf(key -> key.startsWith(prefix));
+        }
+    }
+
+    public int size() {
+        return phaseSets.size();
+    }
+
+    private static String buildKey(int studyId, int sampleId, String chromosome, String phaseSet) {
+        return studyId + "_" + sampleId + "_" + chromosome + "_" + phaseSet;
+    }
+}
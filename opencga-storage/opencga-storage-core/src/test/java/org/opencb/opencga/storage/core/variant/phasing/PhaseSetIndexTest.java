@@ -0,0 +1,215 @@
+package org.opencb.opencga.storage.core.variant.phasing;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opencb.biodata.models.core.Region;
+import org.opencb.biodata.models.variant.StudyEntry;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.commons.datastore.core.Query;
+import org.opencb.commons.datastore.core.QueryOptions;
+import org.opencb.opencga.core.results.VariantQueryResult;
+import org.opencb.opencga.storage.core.config.StorageConfiguration;
+import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
+import org.opencb.opencga.storage.core.metadata.StudyConfigurationManager;
+import org.opencb.opencga.storage.core.variant.VariantStorageEngine;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantDBAdaptor;
+import org.opencb.opencga.storage.core.variant.adaptors.iterators.VariantDBIterator;
+import org.opencb.opencga.storage.core.variant.dummy.*;
+
+import java.io.InputStream;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.opencb.opencga.storage.core.variant.adaptors.VariantQueryParam.ID;
+import static org.opencb.opencga.storage.core.variant.adaptors.VariantQueryParam.REGION;
+import static org.opencb.opencga.storage.core.variant.adaptors.VariantQueryUtils.isValidParam;
+
+public class PhaseSetIndexTest {
+
+    private static final int NUM_VARIANTS = 1000;
+    private static final int BLOCK_SIZE = 50;
+
+    private InMemoryVariantDBAdaptor dbAdaptor;
+    private VariantStorageEngine engine;
+    private StudyConfigurationManager scm;
+
+    /**
+     * In memory variants in the chromosome 1, every 100 bases. Returns all the samples, and supports ID and REGION filters.
+     * Sample S1 is phased in blocks of {@link #BLOCK_SIZE} variants. Sample S2 is phased only in 60 variants.
+     */
+    private static class InMemoryVariantDBAdaptor extends DummyVariantDBAdaptor {
+        private final Map<String, Variant> variants = new LinkedHashMap<>();
+        private final InMemoryPhaseSetIndex phaseSetIndex = new InMemoryPhaseSetIndex();
+        private final AtomicInteger readVariants = new AtomicInteger();
+
+        InMemoryVariantDBAdaptor() {
+            super("test");
+            for (int i = 0; i < NUM_VARIANTS; i++) {
+                Variant variant = new Variant("1:" + position(i) + ":A:C");
+                StudyEntry studyEntry = new StudyEntry("s1", Collections.emptyList(), Arrays.asList("GT", "PS"));
+                studyEntry.addSampleData("S1", Arrays.asList("0|1", String.valueOf(position(i / BLOCK_SIZE * BLOCK_SIZE))));
+                if (i >= 200 && i < 260) {
+                    studyEntry.addSampleData("S2", Arrays.asList("1|0", String.valueOf(position(200))));
+                } else {
+                    studyEntry.addSampleData("S2", Arrays.asList("0/1", "."));
+                }
+                variant.addStudyEntry(studyEntry);
+                variants.put(variant.toString(), variant);
+            }
+        }
+
+        @Override
+        public VariantDBIterator iterator(Query query, QueryOptions options) {
+            List<Variant> result = new ArrayList<>();
+            if (isValidParam(query, ID)) {
+                for (String id : query.getAsStringList(ID.key())) {
+                    Variant variant = variants.get(new Variant(id).toString());
+                    if (variant != null) {
+                        result.add(variant);
+                    }
+                }
+            } else if (isValidParam(query, REGION)) {
+                Region region = Region.parseRegion(query.getString(REGION.key()));
+                for (Variant variant : variants.values()) {
+                    if (region.overlaps(variant.getChromosome(), variant.getStart(), variant.getEnd())) {
+                        result.add(variant);
+                    }
+                }
+            } else {
+                result.addAll(variants.values());
+            }
+            readVariants.addAndGet(result.size());
+            return VariantDBIterator.wrapper(result.iterator());
+        }
+
+        /**
+         * Region based implementation. Reads all the variants in the window, and filters by phase set.
+         */
+        @Override
+        public VariantQueryResult<Variant> getPhased(String varStr, String studyName, String sampleName, QueryOptions options,
+                                                     int windowsSize) {
+            Variant variant = new Variant(varStr);
+            String ps = variants.get(variant.toString()).getStudies().get(0).getSampleData(sampleName, "PS");
+            List<Variant> result = new ArrayList<>();
+            if (PhaseSetIndexTask.isValidPhaseSet(ps)) {
+                Region region = new Region(variant.getChromosome(), Math.max(0, variant.getStart() - windowsSize),
+                        variant.getEnd() + windowsSize);
+                iterator(new Query(REGION.key(), region), options).forEachRemaining(next -> {
+                    if (ps.equals(next.getStudies().get(0).getSampleData(sampleName, "PS"))) {
+                        result.add(next);
+                    }
+                });
+            }
+            return new VariantQueryResult<>("getPhased", 0, result.size(), result.size(), "", "", result, null,
+                    DummyVariantStorageEngine.STORAGE_ENGINE_ID);
+        }
+
+        @Override
+        public PhaseSetIndex getPhaseSetIndex() {
+            return phaseSetIndex;
+        }
+    }
+
+    private static int position(int i) {
+        return 1000 + i * 100;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        DummyProjectMetadataAdaptor.clear();
+        DummyStudyConfigurationAdaptor.clear();
+        scm = new StudyConfigurationManager(new DummyProjectMetadataAdaptor(), new DummyStudyConfigurationAdaptor(),
+                new DummyVariantFileMetadataDBAdaptor());
+        StudyConfiguration sc = new StudyConfiguration(1, "s1");
+        sc.getSampleIds().put("S1", 10);
+        sc.getSampleIds().put("S2", 11);
+        scm.updateStudyConfiguration(sc, null);
+
+        dbAdaptor = new InMemoryVariantDBAdaptor();
+        engine = new DummyVariantStorageEngine() {
+            @Override
+            public VariantDBAdaptor getDBAdaptor() {
+                return dbAdaptor;
+            }
+        };
+        try (InputStream is = DummyVariantStorageEngine.class.getClassLoader().getResourceAsStream("storage-configuration.yml")) {
+            engine.setConfiguration(StorageConfiguration.load(is), DummyVariantStorageEngine.STORAGE_ENGINE_ID);
+        }
+    }
+
+    private static List<String> ids(VariantQueryResult<Variant> result) {
+        List<String> ids = new ArrayList<>();
+        for (Variant variant : result.getResult()) {
+            ids.add(variant.toString());
+        }
+        return ids;
+    }
+
+    @Test
+    public void testIndexTask() throws Exception {
+        PhaseSetIndexTask task = new PhaseSetIndexTask(dbAdaptor.phaseSetIndex, scm.getStudyConfiguration("s1", null).first());
+        List<Variant> variants = new ArrayList<>(dbAdaptor.variants.values());
+        // Shuffle, so phase sets are split across batches
+        Collections.shuffle(variants, new Random(1));
+        for (int i = 0; i < variants.size(); i += 100) {
+            task.apply(variants.subList(i, Math.min(variants.size(), i + 100)));
+        }
+        assertEquals(NUM_VARIANTS + 60, task.getNumEntries());
+        assertEquals(NUM_VARIANTS / BLOCK_SIZE + 1, dbAdaptor.phaseSetIndex.size());
+
+        List<String> phaseSet = dbAdaptor.phaseSetIndex.get(1, 10, "1", String.valueOf(position(100)));
+        assertEquals(BLOCK_SIZE, phaseSet.size());
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            assertEquals("1:" + position(100 + i) + ":A:C", phaseSet.get(i));
+        }
+        assertEquals(60, dbAdaptor.phaseSetIndex.get(1, 11, "1", String.valueOf(position(200))).size());
+        assertEquals(Collections.emptyList(), dbAdaptor.phaseSetIndex.get(1, 11, "1", "."));
+        assertEquals(Collections.emptyList(), dbAdaptor.phaseSetIndex.get(1, 10, "2", String.valueOf(position(100))));
+
+        dbAdaptor.phaseSetIndex.remove(1, Collections.singletonList(10));
+        assertEquals(Collections.emptyList(), dbAdaptor.phaseSetIndex.get(1, 10, "1", String.valueOf(position(100))));
+        assertEquals(60, dbAdaptor.phaseSetIndex.get(1, 11, "1", String.valueOf(position(200))).size());
+    }
+
+    @Test
+    public void testGetPhased() throws Exception {
+        String variant = "1:" + position(120) + ":A:C";
+        // Without the index, use the region based implementation
+        dbAdaptor.readVariants.set(0);
+        List<String> expected = ids(engine.getPhased(variant, "s1", "S1", new QueryOptions(), 5000));
+        assertEquals(BLOCK_SIZE, expected.size());
+        assertEquals(101, dbAdaptor.readVariants.get());
+
+        engine.buildPhaseSetIndex("s1", null);
+        assertTrue(scm.getStudyConfiguration("s1", null).first().getAttributes()
+                .getBoolean(VariantStorageEngine.Options.PHASE_SET_INDEX.key()));
+
+        // With the index, read only the given variant and the variants in the phase set
+        dbAdaptor.readVariants.set(0);
+        assertEquals(expected, ids(engine.getPhased(variant, "s1", "S1", new QueryOptions(), 5000)));
+        assertEquals(1 + BLOCK_SIZE, dbAdaptor.readVariants.get());
+    }
+
+    @Test
+    public void testGetPhasedSameAsRegionScan() throws Exception {
+        engine.buildPhaseSetIndex("s1", null);
+        Random random = new Random(2);
+        for (int i = 0; i < 200; i++) {
+            String variant = "1:" + position(random.nextInt(NUM_VARIANTS)) + ":A:C";
+            String sample = random.nextBoolean() ? "S1" : "S2";
+            int windowsSize = random.nextInt(4000);
+            List<String> expected = ids(dbAdaptor.getPhased(variant, "s1", sample, new QueryOptions(), windowsSize));
+            assertEquals(variant + " " + sample + " " + windowsSize, expected,
+                    ids(engine.getPhased(variant, "s1", sample, new QueryOptions(), windowsSize)));
+        }
+    }
+
+    @Test
+    public void testGetPhasedNotPhased() throws Exception {
+        engine.buildPhaseSetIndex("s1", null);
+        VariantQueryResult<Variant> result = engine.getPhased("1:" + position(10) + ":A:C", "s1", "S2", new QueryOptions(), 5000);
+        assertEquals(0, result.getNumResults());
+        assertEquals(Collections.emptyList(), result.getResult());
+    }
+}
@@ -0,0 +1,314 @@
+package org.opencb.opencga.storage.core.variant.query;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.opencb.commons.datastore.core.Query;
+import org.opencb.commons.datastore.core.QueryOptions;
+import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
+import org.opencb.opencga.storage.core.metadata.StudyConfigurationManager;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantField;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryException;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryUtils;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryUtils.QueryOperation;
+import org.opencb.opencga.storage.core.variant.dummy.DummyProjectMetadataAdaptor;
+import org.opencb.opencga.storage.core.variant.dummy.DummyStudyConfigurationAdaptor;
+import org.opencb.opencga.storage.core.variant.dummy.DummyVariantFileMetadataDBAdaptor;
+
+import java.util.*;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+import static org.opencb.opencga.storage.core.variant.adaptors.VariantQueryParam.*;
+
+public class VariantQueryTest {
+
+    private static final String[] SAMPLES = {"S1", "S2", "S3", "S4", "S5"};
+    private static final String[] GENOTYPES = {"0/1", "1/1", "0|1", "1|0", "./.", "!0/0"};
+    private static final String[] CONSEQUENCE_TYPES = {"missense_variant", "stop_gained", "SO:0001583", "!synonymous_variant"};
+    private static final String[] BIOTYPES = {"protein_coding", "miRNA", "lincRNA"};
+    private static final String[] CONSERVATION = {"phylop", "phastCons", "gerp"};
+    private static final String[] FUNCTIONAL = {"cadd_raw", "cadd_scaled"};
+    private static final String[] OPERATORS = {"<", "<=", ">", ">="};
+    private static final String[] POP_OPERATORS = {"<", "<=", ">", ">=", "<<", ">>="};
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private StudyConfigurationManager scm;
+
+    @Before
+    public void setUp() throws Exception {
+        DummyProjectMetadataAdaptor.clear();
+        DummyStudyConfigurationAdaptor.clear();
+        scm = new StudyConfigurationManager(new DummyProjectMetadataAdaptor(), new DummyStudyConfigurationAdaptor(),
+                new DummyVariantFileMetadataDBAdaptor());
+        StudyConfiguration sc = new StudyConfiguration(1, "s1");
+        for (int i = 0; i < SAMPLES.length; i++) {
+            sc.getSampleIds().put(SAMPLES[i], i + 10);
+        }
+        scm.updateStudyConfiguration(sc, null);
+    }
+
+    @Test
+    public void testParse() {
+        Query query = new Query(REGION.key(), "1:1000-2000,2")
+                .append(ID.key(), "rs123,1:1000:A:C")
+                .append(GENE.key(), "BRCA2")
+                .append(ANNOT_XREF.key(), "COSM456,TP53")
+                .append(GENOTYPE.key(), "S1:0/1,1/1;S2:0/0")
+                .append(ANNOT_CONSEQUENCE_TYPE.key(), "missense_variant,SO:0001587")
+                .append(ANNOT_SIFT.key(), "<0.2")
+                .append(ANNOT_CONSERVATION.key(), "phylop>0.5;gerp<=1")
+                .append(ANNOT_POPULATION_ALTERNATE_FREQUENCY.key(), "1kG_phase3:ALL<0.01,GNOMAD_GENOMES:EUR<<=0.05");
+
+        VariantQuery variantQuery = VariantQuery.parse(query, scm);
+
+        assertEquals(2, variantQuery.getRegions().size());
+        assertEquals("1", variantQuery.getRegions().get(0).getChromosome());
+        assertEquals(1000, variantQuery.getRegions().get(0).getStart());
+        assertEquals(2000, variantQuery.getRegions().get(0).getEnd());
+        assertEquals(Collections.singletonList("rs123"), variantQuery.getIds());
+        assertEquals("1:1000:A:C", variantQuery.getVariants().get(0).toString());
+        assertEquals(Arrays.asList("BRCA2", "TP53"), variantQuery.getGenes());
+        assertEquals(Collections.singletonList("COSM456"), variantQuery.getOtherXrefs());
+
+        GenotypeFilter genotype = variantQuery.getGenotype();
+        assertEquals(QueryOperation.AND, genotype.getOperation());
+        assertEquals(Arrays.asList("0/1", "1/1"), genotype.getGenotypes().get("S1"));
+        assertEquals(Integer.valueOf(10), genotype.getSampleId("S1"));
+        assertEquals(Integer.valueOf(11), genotype.getSampleId("S2"));
+
+        assertEquals(QueryOperation.OR, variantQuery.getConsequenceTypes().getOperation());
+        assertEquals(Arrays.asList("SO:0001583", "SO:0001587"), variantQuery.getConsequenceTypes().getValues());
+
+        assertEquals(new ScoreFilter("", "<", "0.2"), variantQuery.getSift().getValues().get(0));
+        assertEquals(QueryOperation.AND, variantQuery.getConservation().getOperation());
+        assertEquals(new ScoreFilter("gerp", "<=", "1"), variantQuery.getConservation().getValues().get(1));
+
+        assertEquals(new PopulationFrequencyFilter("GNOMAD_GENOMES", "EUR", "<<=", 0.05),
+                variantQuery.getPopulationAlternateFrequency().getValues().get(1));
+        assertTrue(variantQuery.getPopulationMinorAlleleFrequency().isEmpty());
+    }
+
+    @Test
+    public void testParseWithoutStudyConfigurationManager() {
+        VariantQuery variantQuery = VariantQuery.parse(new Query(GENOTYPE.key(), "S1:0/1"));
+        assertNull(variantQuery.getGenotype().getOperation());
+        assertTrue(variantQuery.getGenotype().getSampleIds().isEmpty());
+        assertTrue(VariantQuery.parse(null).getRegions().isEmpty());
+    }
+
+    @Test
+    public void testImmutable() {
+        VariantQuery variantQuery = VariantQuery.parse(new Query(GENE.key(), "BRCA2").append(ANNOT_BIOTYPE.key(), "miRNA"));
+        thrown.expect(UnsupportedOperationException.class);
+        variantQuery.getBiotypes().getValues().add("lincRNA");
+    }
+
+    @Test
+    public void testUnknownSample() {
+        thrown.expect(VariantQueryException.class);
+        VariantQuery.parse(new Query(GENOTYPE.key(), "S99:0/1"), scm);
+    }
+
+    @Test
+    public void testMalformedPopulationFrequency() {
+        thrown.expect(VariantQueryException.class);
+        thrown.expectMessage(ANNOT_POPULATION_REFERENCE_FREQUENCY.key());
+        VariantQuery.parse(new Query(ANNOT_POPULATION_REFERENCE_FREQUENCY.key(), "1kG_phase3:ALL<high"));
+    }
+
+    @Test
+    public void testMalformedConsequenceType() {
+        thrown.expect(VariantQueryException.class);
+        VariantQuery.parse(new Query(ANNOT_CONSEQUENCE_TYPE.key(), "not_a_consequence_type"));
+    }
+
+    @Test
+    public void testQuotedValues() {
+        VariantQuery variantQuery = VariantQuery.parse(new Query(ANNOT_BIOTYPE.key(), "\"a,b\";c"));
+        assertEquals(Arrays.asList("a,b", "c"), variantQuery.getBiotypes().getValues());
+        assertEquals("\"a,b\";c", variantQuery.toQuery().getString(ANNOT_BIOTYPE.key()));
+    }
+
+    /**
+     * Property: parsing the query generated by {@link VariantQuery#toQuery()} returns an equal object.
+     */
+    @Test
+    public void testRoundTrip() {
+        Random random = new Random(1);
+        for (int i = 0; i < 2000; i++) {
+            Query query = randomQuery(random);
+            VariantQuery variantQuery = VariantQuery.parse(query, scm);
+            Query normalized = variantQuery.toQuery();
+            VariantQuery reparsed = VariantQuery.parse(normalized, scm);
+            assertEquals(query.toJson(), variantQuery, reparsed);
+            assertEquals(query.toJson(), variantQuery.hashCode(), reparsed.hashCode());
+            assertEquals(query.toJson(), normalized, reparsed.toQuery());
+        }
+    }
+
+    @Test
+    public void testRoundTripEmpty() {
+        assertEquals(new Query(), VariantQuery.parse(new Query()).toQuery());
+        assertEquals(VariantQuery.parse(new Query()), VariantQuery.parse(new Query(GENE.key(), "").append(REGION.key(), null)));
+    }
+
+    @Test
+    public void testGetAttached() {
+        Query query = new Query(GENE.key(), "BRCA2").append(GENOTYPE.key(), "S1:0/1");
+        VariantQuery variantQuery = VariantQuery.attach(query, scm);
+
+        assertSame(variantQuery, query.get(VariantQuery.QUERY_KEY));
+        assertSame(variantQuery, VariantQuery.get(query));
+        assertSame(variantQuery, VariantQuery.get(query, scm));
+        assertSame(variantQuery, VariantQuery.get(new Query(query), scm));
+        assertEquals(Integer.valueOf(10), VariantQuery.get(query, scm).getGenotype().getSampleId("S1"));
+    }
+
+    @Test
+    public void testGetModifiedAfterAttach() {
+        Query query = new Query(GENE.key(), "BRCA2");
+        VariantQuery variantQuery = VariantQuery.attach(query, scm);
+
+        query.put(GENE.key(), "TP53");
+        assertNotSame(variantQuery, VariantQuery.get(query, scm));
+        assertEquals(Collections.singletonList("TP53"), VariantQuery.get(query, scm).getGenes());
+
+        query.put(REGION.key(), "1:1000-2000");
+        assertEquals(1, VariantQuery.get(query).getRegions().size());
+
+        query.remove(REGION.key());
+        query.remove(GENE.key());
+        assertTrue(VariantQuery.get(query).getGenes().isEmpty());
+    }
+
+    @Test
+    public void testGetUnresolved() {
+        Query query = new Query(GENOTYPE.key(), "S1:0/1");
+        VariantQuery variantQuery = VariantQuery.parse(query);
+        query.put(VariantQuery.QUERY_KEY, variantQuery);
+
+        assertSame(variantQuery, VariantQuery.get(query));
+        VariantQuery resolved = VariantQuery.get(query, scm);
+        assertNotSame(variantQuery, resolved);
+        assertEquals(Integer.valueOf(10), resolved.getGenotype().getSampleId("S1"));
+    }
+
+    @Test
+    public void testGetSelectElements() {
+        Query query = new Query(STUDY.key(), "s1").append(INCLUDE_SAMPLE.key(), "S1,S2");
+        VariantQuery variantQuery = VariantQuery.attach(query, scm);
+
+        VariantQueryUtils.SelectVariantElements selectElements = variantQuery.getSelectElements(new QueryOptions(), scm);
+        assertSame(selectElements, variantQuery.getSelectElements(new QueryOptions(), scm));
+        assertEquals(Collections.singletonList(1), selectElements.getStudies());
+        assertEquals(Arrays.asList(10, 11), selectElements.getSamples().get(1));
+
+        VariantQueryUtils.SelectVariantElements annotation =
+                variantQuery.getSelectElements(new QueryOptions(QueryOptions.INCLUDE, VariantField.ANNOTATION), scm);
+        assertNotSame(selectElements, annotation);
+        assertTrue(annotation.getStudies().isEmpty());
+    }
+
+    @Test
+    public void testAttachedToJson() {
+        Query query = new Query(GENE.key(), "BRCA2");
+        String json = query.toJson();
+        VariantQuery.attach(query, scm);
+        assertNotEquals(json, query.toJson());
+        assertTrue(query.toJson().contains(VariantQuery.QUERY_KEY));
+    }
+
+    private static Query randomQuery(Random random) {
+        Query query = new Query();
+        if (random.nextBoolean()) {
+            query.put(REGION.key(), values(random, 3, r -> {
+                int start = 1 + r.nextInt(1000000);
+                return (1 + r.nextInt(22)) + ":" + start + "-" + (start + r.nextInt(10000));
+            }, ","));
+        }
+        if (random.nextBoolean()) {
+            query.put(GENE.key(), values(random, 3, r -> "GENE" + r.nextInt(100), ","));
+        }
+        if (random.nextBoolean()) {
+            query.put(ID.key(), values(random, 3, r -> r.nextBoolean()
+                    ? "rs" + r.nextInt(100000)
+                    : (1 + r.nextInt(22)) + ":" + (1 + r.nextInt(1000000)) + ":A:" + (r.nextBoolean() ? "C" : "GT"), ","));
+        }
+        if (random.nextBoolean()) {
+            query.put(ANNOT_XREF.key(), values(random, 3, r -> pick(r, "COSM", "RCV", "HP:", "OMIM:") + r.nextInt(10000), ","));
+        }
+        if (random.nextBoolean()) {
+            List<String> samples = new ArrayList<>(Arrays.asList(SAMPLES));
+            Collections.shuffle(samples, random);
+            int numSamples = 1 + random.nextInt(3);
+            String separator = random.nextBoolean() ? ";" : ",";
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < numSamples; i++) {
+                if (i > 0) {
+                    sb.append(separator);
+                }
+                sb.append(samples.get(i)).append(':').append(values(random, 2, r -> pick(r, GENOTYPES), ","));
+            }
+            query.put(GENOTYPE.key(), sb.toString());
+        }
+        if (random.nextBoolean()) {
+            query.put(ANNOT_CONSEQUENCE_TYPE.key(), values(random, 3, r -> pick(r, CONSEQUENCE_TYPES), separator(random)));
+        }
+        if (random.nextBoolean()) {
+            query.put(ANNOT_BIOTYPE.key(), values(random, 2, r -> pick(r, BIOTYPES), separator(random)));
+        }
+        if (random.nextBoolean()) {
+            query.put(ANNOT_SIFT.key(), random.nextBoolean() ? "tolerated" : pick(random, OPERATORS) + score(random));
+        }
+        if (random.nextBoolean()) {
+            query.put(ANNOT_CONSERVATION.key(), values(random, 2,
+                    r -> pick(r, CONSERVATION) + pick(r, OPERATORS) + score(r), separator(random)));
+        }
+        if (random.nextBoolean()) {
+            query.put(ANNOT_FUNCTIONAL_SCORE.key(), values(random, 2,
+                    r -> pick(r, FUNCTIONAL) + pick(r, OPERATORS) + score(r), separator(random)));
+        }
+        if (random.nextBoolean()) {
+            query.put(ANNOT_POPULATION_ALTERNATE_FREQUENCY.key(), values(random, 3, VariantQueryTest::populationFrequency,
+                    separator(random)));
+        }
+        if (random.nextBoolean()) {
+            query.put(ANNOT_POPULATION_MINOR_ALLELE_FREQUENCY.key(), values(random, 2, VariantQueryTest::populationFrequency,
+                    separator(random)));
+        }
+        return query;
+    }
+
+    private static String populationFrequency(Random random) {
+        return pick(random, "1kG_phase3", "GNOMAD_GENOMES") + ':' + pick(random, "ALL", "EUR", "AFR") + pick(random, POP_OPERATORS)
+                + score(random);
+    }
+
+    private static String score(Random random) {
+        return String.valueOf(random.nextInt(1000) / 1000.0);
+    }
+
+    private static String separator(Random random) {
+        return random.nextBoolean() ? VariantQueryUtils.AND : VariantQueryUtils.OR;
+    }
+
+    private static String pick(Random random, String... values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    private static String values(Random random, int max, Function<Random, String> generator, String separator) {
+        int n = 1 + random.nextInt(max);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            if (i > 0) {
+                sb.append(separator);
+            }
+            sb.append(generator.apply(random));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,159 @@
+package org.opencb.opencga.storage.core.variant.search;
+
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class StratifiedCountEstimatorTest {
+
+    /**
+     * Generated dataset. Candidates returned by the search engine, per chromosome, and the subset matching the query.
+     */
+    private static class Dataset {
+        private final Map<String, List<String>> candidates = new LinkedHashMap<>();
+        private final Set<String> matches = new HashSet<>();
+        private long numCandidates;
+
+        private void add(String chromosome, int numVariants, double defaultRate, int clusterStart, int clusterEnd, double clusterRate,
+                         Random random) {
+            List<String> ids = new ArrayList<>(numVariants);
+            for (int i = 0; i < numVariants; i++) {
+                String id = chromosome + ':' + (i * 100 + 1) + ":A:C";
+                ids.add(id);
+                double rate = i >= clusterStart && i < clusterEnd ? clusterRate : defaultRate;
+                if (random.nextDouble() < rate) {
+                    matches.add(id);
+                }
+            }
+            candidates.put(chromosome, ids);
+            numCandidates += numVariants;
+        }
+
+        private Map<String, Long> strata() {
+            Map<String, Long> strata = new LinkedHashMap<>();
+            candidates.forEach((chromosome, ids) -> strata.put(chromosome, (long) ids.size()));
+            return strata;
+        }
+
+        private StratifiedCountEstimator.Estimate estimate(StratifiedCountEstimator estimator) throws Exception {
+            return estimator.estimate(strata(),
+                    (chromosome, skip, limit) -> {
+                        List<String> ids = candidates.get(chromosome);
+                        return ids.subList(Math.min(skip, ids.size()), Math.min(skip + limit, ids.size()));
+                    },
+                    (chromosome, ids) -> ids.stream().filter(matches::contains).collect(Collectors.toSet()));
+        }
+    }
+
+    private static Dataset uniform(Random random, int numVariantsPerChromosome, double rate) {
+        Dataset dataset = new Dataset();
+        for (int chr = 1; chr <= 22; chr++) {
+            dataset.add(String.valueOf(chr), numVariantsPerChromosome, rate, 0, 0, 0, random);
+        }
+        return dataset;
+    }
+
+    private static Dataset selective(Random random, int numVariantsPerChromosome) {
+        // e.g. filter by a sample with a deletion. Almost all matches are in a single region of one chromosome
+        Dataset dataset = new Dataset();
+        for (int chr = 1; chr <= 22; chr++) {
+            if (chr == 7) {
+                dataset.add(String.valueOf(chr), numVariantsPerChromosome, 0.001, 8000, 9000, 0.8, random);
+            } else {
+                dataset.add(String.valueOf(chr), numVariantsPerChromosome, 0.001, 0, 0, 0, random);
+            }
+        }
+        return dataset;
+    }
+
+    @Test
+    public void testZScore() {
+        assertEquals(1.645, StratifiedCountEstimator.zScore(0.90), 0.001);
+        assertEquals(1.960, StratifiedCountEstimator.zScore(0.95), 0.001);
+        assertEquals(2.576, StratifiedCountEstimator.zScore(0.99), 0.001);
+    }
+
+    @Test
+    public void testExactIfSmall() throws Exception {
+        Dataset dataset = uniform(new Random(1), 20, 0.3);
+        StratifiedCountEstimator estimator = new StratifiedCountEstimator(1000, 5000, 0.05, 0.95, 20, new Random(1));
+        StratifiedCountEstimator.Estimate estimate = dataset.estimate(estimator);
+        assertTrue(estimate.isExact());
+        assertEquals(dataset.matches.size(), estimate.getCount());
+        assertEquals(estimate.getCount(), estimate.getLowerBound());
+        assertEquals(estimate.getCount(), estimate.getUpperBound());
+        assertEquals(dataset.numCandidates, estimate.getSamplingSize());
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        StratifiedCountEstimator estimator = new StratifiedCountEstimator(1000, 5000, 0.05, 0.95);
+        StratifiedCountEstimator.Estimate estimate = estimator.estimate(Collections.emptyMap(),
+                (chromosome, skip, limit) -> Collections.emptyList(), (chromosome, ids) -> Collections.emptySet());
+        assertTrue(estimate.isExact());
+        assertEquals(0, estimate.getCount());
+    }
+
+    @Test
+    public void testUniform() throws Exception {
+        checkCoverage(uniform(new Random(2), 10000, 0.3), 0.05, 30);
+    }
+
+    @Test
+    public void testSelective() throws Exception {
+        checkCoverage(selective(new Random(3), 10000), 0.1, 30);
+    }
+
+    @Test
+    public void testMaxSamplingSize() throws Exception {
+        Dataset dataset = selective(new Random(4), 10000);
+        StratifiedCountEstimator estimator = new StratifiedCountEstimator(500, 2000, 0.001, 0.95, 20, new Random(4));
+        StratifiedCountEstimator.Estimate estimate = dataset.estimate(estimator);
+        assertFalse(estimate.isExact());
+        assertTrue(estimate.getSamplingSize() <= 2000 + 22 * 20);
+        assertTrue(estimate.getRelativeError() > 0.001);
+        assertTrue(estimate.getLowerBound() <= estimate.getCount());
+        assertTrue(estimate.getCount() <= estimate.getUpperBound());
+    }
+
+    @Test
+    public void testOneMatchPerStratumAndRound() throws Exception {
+        Dataset dataset = uniform(new Random(5), 10000, 0.3);
+        StratifiedCountEstimator estimator = new StratifiedCountEstimator(1000, 50000, 0.05, 0.95, 20, new Random(5));
+        AtomicInteger samples = new AtomicInteger();
+        AtomicInteger matches = new AtomicInteger();
+        estimator.estimate(dataset.strata(),
+                (chromosome, skip, limit) -> {
+                    samples.incrementAndGet();
+                    List<String> ids = dataset.candidates.get(chromosome);
+                    return ids.subList(Math.min(skip, ids.size()), Math.min(skip + limit, ids.size()));
+                },
+                (chromosome, ids) -> {
+                    matches.incrementAndGet();
+                    return ids.stream().filter(dataset.matches::contains).collect(Collectors.toSet());
+                });
+        // One match for each of the 22 strata on each round, and several blocks per stratum
+        assertEquals(0, matches.get() % 22);
+        assertTrue(matches.get() < samples.get());
+    }
+
+    private void checkCoverage(Dataset dataset, double targetError, int runs) throws Exception {
+        long exact = dataset.matches.size();
+        int covered = 0;
+        for (int run = 0; run < runs; run++) {
+            StratifiedCountEstimator estimator = new StratifiedCountEstimator(1000, 50000, targetError, 0.95, 20, new Random(run));
+            StratifiedCountEstimator.Estimate estimate = dataset.estimate(estimator);
+            assertFalse(estimate.isExact());
+            assertTrue(estimate.toString(), estimate.getRelativeError() <= targetError);
+            if (estimate.getLowerBound() <= exact && exact <= estimate.getUpperBound()) {
+                covered++;
+            }
+        }
+        // 95% confidence bounds. Allow some misses
+        assertTrue("Exact count inside the bounds in " + covered + " of " + runs + " runs", covered >= runs * 0.8);
+    }
+}
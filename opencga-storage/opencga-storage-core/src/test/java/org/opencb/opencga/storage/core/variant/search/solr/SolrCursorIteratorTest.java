@@ -0,0 +1,136 @@
+package org.opencb.opencga.storage.core.variant.search.solr;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.CursorMarkParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.junit.Test;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SolrCursorIteratorTest {
+
+    /**
+     * In memory Solr client. The cursor mark is the index of the next document.
+     */
+    private static class DummySolrClient extends SolrClient {
+        private final int numDocs;
+        private final int failAt;
+        private final AtomicInteger requests = new AtomicInteger();
+        private final AtomicInteger maxRows = new AtomicInteger();
+
+        DummySolrClient(int numDocs, int failAt) {
+            this.numDocs = numDocs;
+            this.failAt = failAt;
+        }
+
+        @Override
+        public NamedList<Object> request(SolrRequest request, String collection) throws SolrServerException, IOException {
+            SolrParams params = request.getParams();
+            String cursorMark = params.get(CursorMarkParams.CURSOR_MARK_PARAM);
+            int start = cursorMark.equals(CursorMarkParams.CURSOR_MARK_START) ? 0 : Integer.parseInt(cursorMark);
+            int rows = params.getInt("rows");
+            if (requests.incrementAndGet() == failAt) {
+                throw new IOException("Connection reset");
+            }
+            maxRows.accumulateAndGet(rows, Math::max);
+            SolrDocumentList documents = new SolrDocumentList();
+            documents.setNumFound(numDocs);
+            for (int i = start; i < Math.min(numDocs, start + rows); i++) {
+                SolrDocument document = new SolrDocument();
+                document.setField("id", String.format("%06d", i));
+                documents.add(document);
+            }
+            NamedList<Object> response = new NamedList<>();
+            response.add("response", documents);
+            response.add(CursorMarkParams.CURSOR_MARK_NEXT, String.valueOf(start + documents.size()));
+            return response;
+        }
+
+        @Override
+        public void close() throws IOException {
+        }
+    }
+
+    private static List<String> ids(QueryResponse response) {
+        List<String> ids = new ArrayList<>(response.getResults().size());
+        for (SolrDocument document : response.getResults()) {
+            ids.add(document.getFieldValue("id").toString());
+        }
+        return ids;
+    }
+
+    private static List<String> readAll(SolrCursorIterator<String> iterator) {
+        List<String> ids = new ArrayList<>();
+        iterator.forEachRemaining(ids::add);
+        return ids;
+    }
+
+    @Test
+    public void testIterateAll() {
+        DummySolrClient client = new DummySolrClient(10050, -1);
+        SolrCursorIterator<String> iterator = new SolrCursorIterator<>(client, "c", new SolrQuery("*:*"),
+                SolrCursorIteratorTest::ids, 100, 1000, 2, 10000);
+        List<String> ids = readAll(iterator);
+        assertEquals(10050, ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            assertEquals(String.format("%06d", i), ids.get(i));
+        }
+        assertEquals(10050, iterator.getNumFound());
+        assertFalse(iterator.hasNext());
+        // Fast responses increase the page size, up to the max
+        assertEquals(1000, iterator.getPageSize());
+        assertEquals(1000, client.maxRows.get());
+    }
+
+    @Test
+    public void testLimitAndSkip() {
+        DummySolrClient client = new DummySolrClient(10000, -1);
+        SolrQuery solrQuery = new SolrQuery("*:*");
+        solrQuery.setStart(130);
+        solrQuery.setRows(250);
+        List<String> ids = readAll(new SolrCursorIterator<>(client, "c", solrQuery, SolrCursorIteratorTest::ids, 100, 1000, 2, 10000));
+        assertEquals(250, ids.size());
+        assertEquals(String.format("%06d", 130), ids.get(0));
+        assertEquals(String.format("%06d", 379), ids.get(249));
+        // The input query is not modified
+        assertEquals(Integer.valueOf(130), solrQuery.getStart());
+    }
+
+    @Test
+    public void testEmpty() {
+        SolrCursorIterator<String> iterator = new SolrCursorIterator<>(new DummySolrClient(0, -1), "c", new SolrQuery("*:*"),
+                SolrCursorIteratorTest::ids);
+        assertFalse(iterator.hasNext());
+        assertEquals(0, iterator.getNumFound());
+    }
+
+    @Test
+    public void testPrefetchBounded() throws Exception {
+        DummySolrClient client = new DummySolrClient(100000, -1);
+        SolrCursorIterator<String> iterator = new SolrCursorIterator<>(client, "c", new SolrQuery("*:*"),
+                SolrCursorIteratorTest::ids, 100, 100, 3, 10000);
+        iterator.next();
+        Thread.sleep(200);
+        // Current page, plus the prefetched pages
+        assertTrue(client.requests.get() <= 4);
+        iterator.close();
+    }
+
+    @Test(expected = VariantQueryException.class)
+    public void testError() {
+        readAll(new SolrCursorIterator<>(new DummySolrClient(10000, 3), "c", new SolrQuery("*:*"), SolrCursorIteratorTest::ids));
+    }
+}
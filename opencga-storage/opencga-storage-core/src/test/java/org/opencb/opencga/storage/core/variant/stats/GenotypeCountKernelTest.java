@@ -0,0 +1,142 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.core.variant.stats;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opencb.biodata.models.feature.Genotype;
+import org.opencb.biodata.models.variant.StudyEntry;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.stats.VariantStats;
+import org.opencb.biodata.tools.variant.stats.VariantStatsCalculator;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class GenotypeCountKernelTest {
+
+    private Variant variant;
+    private StudyEntry study;
+    private Map<String, Set<String>> cohorts;
+
+    @Before
+    public void setUp() throws Exception {
+        variant = new Variant("1:1000:A:C");
+        study = new StudyEntry("1", Collections.emptyList(), Arrays.asList("GT", "DP"))
+                .addSampleData("S1", Arrays.asList("0/0", "10"))
+                .addSampleData("S2", Arrays.asList("0/1", "10"))
+                .addSampleData("S3", Arrays.asList("1/1", "10"))
+                .addSampleData("S4", Arrays.asList("0/1", "10"))
+                .addSampleData("S5", Arrays.asList("./.", "."));
+        variant.setStudies(Collections.singletonList(study));
+
+        cohorts = new LinkedHashMap<>();
+        cohorts.put(StudyEntry.DEFAULT_COHORT, new HashSet<>(Arrays.asList("S1", "S2", "S3", "S4", "S5")));
+        cohorts.put("C1", new HashSet<>(Arrays.asList("S1", "S2")));
+        cohorts.put("C2", new HashSet<>(Arrays.asList("S2", "S4", "S5", "UNKNOWN_SAMPLE")));
+    }
+
+    @Test
+    public void testPlan() throws Exception {
+        CohortStatsPlan plan = CohortStatsPlan.compile(study.getSamplesPosition(), cohorts);
+        assertEquals(3, plan.getNumCohorts());
+        assertEquals(5, plan.getNumSamples());
+        assertEquals(5, plan.getCohortSize(0));
+        assertEquals(2, plan.getCohortSize(1));
+        assertEquals(3, plan.getCohortSize(2));
+        assertTrue(plan.isCompatible(study.getSamplesPosition(), cohorts));
+        assertFalse(plan.isCompatible(study.getSamplesPosition(), Collections.singletonMap("C1", cohorts.get("C1"))));
+    }
+
+    @Test
+    public void testCount() throws Exception {
+        CohortStatsPlan plan = CohortStatsPlan.compile(study.getSamplesPosition(), cohorts);
+        GenotypeCountKernel kernel = new GenotypeCountKernel();
+        kernel.count(study, 0, plan);
+
+        assertEquals(1, kernel.getCount("0/0", 0));
+        assertEquals(2, kernel.getCount("0/1", 0));
+        assertEquals(1, kernel.getCount("1/1", 0));
+        assertEquals(1, kernel.getCount("./.", 0));
+
+        assertEquals(1, kernel.getCount("0/0", 1));
+        assertEquals(1, kernel.getCount("0/1", 1));
+        assertEquals(0, kernel.getCount("1/1", 1));
+
+        assertEquals(0, kernel.getCount("0/0", 2));
+        assertEquals(2, kernel.getCount("0/1", 2));
+        assertEquals(1, kernel.getCount("./.", 2));
+    }
+
+    @Test
+    public void testBuildStats() throws Exception {
+        CohortStatsPlan plan = CohortStatsPlan.compile(study.getSamplesPosition(), cohorts);
+        GenotypeCountKernel kernel = new GenotypeCountKernel();
+        kernel.count(study, 0, plan);
+        Map<String, VariantStats> stats = kernel.buildStats(variant, plan);
+
+        assertEquals(cohorts.keySet(), stats.keySet());
+        for (Map.Entry<String, Set<String>> entry : cohorts.entrySet()) {
+            Map<Genotype, Integer> gtCount = new HashMap<>();
+            for (String sample : entry.getValue()) {
+                String gt = study.getSampleData(sample, "GT");
+                if (gt != null) {
+                    gtCount.merge(new Genotype(gt, variant.getReference(), variant.getAlternate()), 1, Integer::sum);
+                }
+            }
+            VariantStats expected = VariantStatsCalculator.calculate(variant, gtCount);
+            assertEquals(entry.getKey(), expected.getGenotypesCount(), stats.get(entry.getKey()).getGenotypesCount());
+            assertEquals(entry.getKey(), expected.getMaf(), stats.get(entry.getKey()).getMaf(), 0.0001);
+        }
+    }
+
+    @Test
+    public void testReuseKernel() throws Exception {
+        CohortStatsPlan plan = CohortStatsPlan.compile(study.getSamplesPosition(), cohorts);
+        GenotypeCountKernel kernel = new GenotypeCountKernel();
+        kernel.count(study, 0, plan);
+
+        StudyEntry other = new StudyEntry("1", Collections.emptyList(), Collections.singletonList("GT"))
+                .addSampleData("S1", Collections.singletonList("1/1"))
+                .addSampleData("S2", Collections.singletonList("1/1"))
+                .addSampleData("S3", Collections.singletonList("1/1"))
+                .addSampleData("S4", Collections.singletonList("1/1"))
+                .addSampleData("S5", Collections.singletonList("1/1"));
+        kernel.count(other, 0, plan);
+
+        assertEquals(0, kernel.getCount("0/1", 0));
+        assertEquals(5, kernel.getCount("1/1", 0));
+        assertEquals(3, kernel.getCount("1/1", 2));
+    }
+
+    @Test
+    public void testManyCohorts() throws Exception {
+        Map<String, Set<String>> manyCohorts = new LinkedHashMap<>();
+        for (int i = 0; i < 150; i++) {
+            manyCohorts.put("C" + i, Collections.singleton("S" + (i % 5 + 1)));
+        }
+        CohortStatsPlan plan = CohortStatsPlan.compile(study.getSamplesPosition(), manyCohorts);
+        GenotypeCountKernel kernel = new GenotypeCountKernel();
+        kernel.count(study, 0, plan);
+
+        for (int i = 0; i < 150; i++) {
+            String gt = study.getSampleData("S" + (i % 5 + 1), "GT");
+            assertEquals(1, kernel.getCount(gt, i));
+        }
+    }
+}
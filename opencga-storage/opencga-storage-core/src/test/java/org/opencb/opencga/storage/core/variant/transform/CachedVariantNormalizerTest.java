@@ -0,0 +1,83 @@
+package org.opencb.opencga.storage.core.variant.transform;
+
+import org.junit.Test;
+import org.opencb.biodata.tools.variant.VariantNormalizer;
+import org.opencb.biodata.tools.variant.VariantNormalizer.VariantKeyFields;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class CachedVariantNormalizerTest {
+
+    private static final List<List<String>> PATTERNS = Arrays.asList(
+            Arrays.asList("A", "C"),
+            Arrays.asList("A", "AT"),
+            Arrays.asList("ATT", "A"),
+            Arrays.asList("CAG", "C"),
+            Arrays.asList("ATT", "A", "AT", "ATTT"),
+            Arrays.asList("CA", "C", "CAA"),
+            Arrays.asList("GAC", "G", "GACAC"),
+            Arrays.asList("T", "C", "G"),
+            Arrays.asList("AC", "A", "GC"),
+            Arrays.asList("ACGT", "TCGA"));
+
+    private static List<String> toStrings(List<VariantKeyFields> keyFieldsList) {
+        List<String> list = new ArrayList<>(keyFieldsList.size());
+        for (VariantKeyFields keyFields : keyFieldsList) {
+            list.add(keyFields.getStart() + "-" + keyFields.getEnd() + ":" + keyFields.getNumAllele() + ":"
+                    + keyFields.getReference() + ":" + keyFields.getAlternate());
+        }
+        return list;
+    }
+
+    @Test
+    public void testSameAsVariantNormalizer() throws Exception {
+        VariantNormalizer normalizer = new VariantNormalizer(true, true, false);
+        CachedVariantNormalizer cachedNormalizer = new CachedVariantNormalizer(true, true, false, 100);
+        Random random = new Random(1);
+        for (int i = 0; i < 1000; i++) {
+            List<String> pattern = PATTERNS.get(random.nextInt(PATTERNS.size()));
+            int position = 1 + random.nextInt(1000000);
+            String reference = pattern.get(0);
+            List<String> alternates = pattern.subList(1, pattern.size());
+            assertEquals(pattern + " at " + position,
+                    toStrings(normalizer.normalize("1", position, reference, alternates)),
+                    toStrings(cachedNormalizer.normalize("1", position, reference, alternates)));
+        }
+        assertEquals(PATTERNS.size(), cachedNormalizer.size());
+        assertEquals(PATTERNS.size(), cachedNormalizer.getMisses());
+        assertEquals(1000 - PATTERNS.size(), cachedNormalizer.getHits());
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        CachedVariantNormalizer cachedNormalizer = new CachedVariantNormalizer(true, true, false, 2);
+        cachedNormalizer.normalize("1", 100, "A", Arrays.asList("C"));
+        cachedNormalizer.normalize("1", 200, "A", Arrays.asList("G"));
+        // Access the first one, so the second one is the eldest
+        cachedNormalizer.normalize("1", 300, "A", Arrays.asList("C"));
+        cachedNormalizer.normalize("1", 400, "A", Arrays.asList("T"));
+        assertEquals(2, cachedNormalizer.size());
+        assertEquals(3, cachedNormalizer.getMisses());
+        assertEquals(1, cachedNormalizer.getHits());
+
+        cachedNormalizer.normalize("1", 500, "A", Arrays.asList("C"));
+        cachedNormalizer.normalize("1", 600, "A", Arrays.asList("G"));
+        assertEquals(4, cachedNormalizer.getMisses());
+        assertEquals(2, cachedNormalizer.getHits());
+    }
+
+    @Test
+    public void testLongAllelesNotCached() throws Exception {
+        CachedVariantNormalizer cachedNormalizer = new CachedVariantNormalizer(true, true, false, 100, 10);
+        List<String> alternates = Arrays.asList("ACGTACGTACGT");
+        cachedNormalizer.normalize("1", 100, "A", alternates);
+        cachedNormalizer.normalize("1", 200, "A", alternates);
+        assertEquals(0, cachedNormalizer.size());
+        assertEquals(0, cachedNormalizer.getHits());
+    }
+}
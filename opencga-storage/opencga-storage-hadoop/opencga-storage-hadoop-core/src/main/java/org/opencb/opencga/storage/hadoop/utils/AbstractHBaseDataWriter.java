@@ -65,13 +65,22 @@ public abstract class AbstractHBaseDataWriter<T, M extends Mutation> implements
     @Override
     public boolean post() {
         try {
-            mutator.flush();
+            flush();
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
         return true;
     }
 
+    /**
+     * Send all the buffered mutations to HBase.
+     *
+     * @throws IOException if the mutations fail
+     */
+    public void flush() throws IOException {
+        mutator.flush();
+    }
+
     @Override
     public boolean close() {
         try {
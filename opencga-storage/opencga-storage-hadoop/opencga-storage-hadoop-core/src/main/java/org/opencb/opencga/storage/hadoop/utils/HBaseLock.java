@@ -16,10 +16,10 @@
 
 package org.opencb.opencga.storage.hadoop.utils;
 
-import org.apache.commons.lang3.RandomStringUtils;
-import org.apache.commons.lang3.time.StopWatch;
 import org.apache.hadoop.hbase.client.*;
 import org.apache.hadoop.hbase.util.Bytes;
+import org.opencb.opencga.storage.core.metrics.LockMetrics;
+import org.opencb.opencga.storage.core.utils.LockCoordinator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -33,7 +33,7 @@ import java.util.concurrent.TimeoutException;
  * Basic algorithm:
  *
  * Lock:
- *      String token = Random();
+ *      String token = HBase.increment(row, column + "_FENCE");
  *      HBase.append(row, column, token);
  *      if (HBase.get(row, column).startsWith(token)) {
  *           // Win the token
@@ -44,7 +44,10 @@ import java.util.concurrent.TimeoutException;
  *      }
  *
  * Unlock:
- *      HBase.put(row, column, "");
+ *      HBase.checkAndPut(row, column, currentValue, "");
+ *
+ * Tokens come from a counter, so they increase with every acquisition and work as fencing tokens.
+ * Threads sharing the same HBaseLock instance wait in a local queue, see {@link LockCoordinator}.
  *
  * Created on 19/05/16.
  *
@@ -55,11 +58,13 @@ public class HBaseLock {
     private static final String LOCK_SEPARATOR = "_";
     private static final String LOCK_EXPIRING_DATE_SEPARATOR = ":";
     private static final String CURRENT_LOCK = "CURRENT-";
+    private static final byte[] FENCE_SUFFIX = Bytes.toBytes("_FENCE");
 
     protected final HBaseManager hbaseManager;
     protected final String tableName;
     protected final byte[] columnFamily;
     protected final byte[] defaultRow;
+    private final LockCoordinator coordinator;
     protected static Logger logger = LoggerFactory.getLogger(HBaseLock.class);
 
     public HBaseLock(HBaseManager hbaseManager, String tableName, byte[] columnFamily, byte[] row) {
@@ -67,6 +72,7 @@ public class HBaseLock {
         this.tableName = tableName;
         this.columnFamily = columnFamily;
         this.defaultRow = row;
+        coordinator = new LockCoordinator("hbase-" + tableName);
     }
 
     /**
@@ -103,53 +109,67 @@ public class HBaseLock {
      */
     public long lock(byte[] row, byte[] column, long lockDuration, long timeout)
             throws InterruptedException, TimeoutException, IOException {
-        String token = RandomStringUtils.randomAlphanumeric(10);
-
         // Minimum lock duration of 100ms
-        lockDuration = Math.max(lockDuration, 100);
+        long duration = Math.max(lockDuration, 100);
+        return coordinator.lock(getLockKey(row, column), duration, timeout, () -> tryLock(row, column, duration));
+    }
 
-        String[] lockValue;
-        String readToken = "";
-        StopWatch stopWatch = new StopWatch();
-        stopWatch.start();
+    private Long tryLock(byte[] row, byte[] column, long lockDuration) throws IOException {
+        String[] lockValue = readLockValue(row, column);
+        // If the lock is taken, try again later
+        if (isLockTaken(lockValue)) {
+            return null;
+        }
 
-        lockValue = readLockValue(row, column);
-        do {
-            // If the lock is taken, wait
-            while (isLockTaken(lockValue)) {
-                Thread.sleep(100);
-                lockValue = readLockValue(row, column);
-                //Check if the lock is still valid
-                if (stopWatch.getTime() > timeout) {
-                    throw new TimeoutException("Unable to get the lock");
-                }
-            }
-            //Check if the lock is still valid
-            if (stopWatch.getTime() > timeout) {
-                throw new TimeoutException("Unable to get the lock");
-            }
+        long fencingToken = nextFencingToken(row, column);
+        String token = String.valueOf(fencingToken);
 
-            // Append token to the lock cell
-            appendToken(token, lockDuration, row, column);
+        // Append token to the lock cell
+        appendToken(token, lockDuration, row, column);
 
-            lockValue = readLockValue(row, column);
+        lockValue = readLockValue(row, column);
 
-            // Get the first non expired lock
-            for (String lock : lockValue) {
-                if (!isLockExpired(lock)) {
-                    readToken = lock.split(LOCK_EXPIRING_DATE_SEPARATOR)[0];
-                    break;
-                }
+        // Get the first non expired lock
+        String readToken = "";
+        for (String lock : lockValue) {
+            if (!isLockExpired(lock)) {
+                readToken = lock.split(LOCK_EXPIRING_DATE_SEPARATOR)[0];
+                break;
             }
+        }
 
-            // You win the lock if the first available lock is yours.
-        } while (!readToken.equals(token));
+        // You win the lock if the first available lock is yours.
+        if (!readToken.equals(token)) {
+            return null;
+        }
 
-        logger.debug("Won the lock with token " + token + " (" + token.hashCode() + ") from lock: " + Arrays.toString(lockValue));
+        logger.debug("Won the lock with token " + token + " from lock: " + Arrays.toString(lockValue));
         // Overwrite the lock with the winner current lock. Remove previous expired locks
         putCurrentLock(token, lockDuration, row, column);
 
-        return token.hashCode();
+        return fencingToken;
+    }
+
+    /**
+     * Extends the lease of the lock.
+     *
+     * @param row           Row to find the lock cell
+     * @param column        Column to find the lock cell
+     * @param lockToken     Lock token
+     * @param lockDuration  New duration in milliseconds of the token, from now.
+     * @throws IOException                if there is an error writing or reading from HBase.
+     * @throws IllegalLockStatusException if the lockToken does not match with the current lockToken
+     */
+    public void renew(byte[] row, byte[] column, long lockToken, long lockDuration) throws IOException, IllegalLockStatusException {
+        long duration = Math.max(lockDuration, 100);
+        String lockCell = readLockCell(row, column);
+        checkCurrentLock(row, column, lockToken, lockCell);
+        // Only extend the lock if it did not change since it was read
+        if (!checkAndPut(row, column, lockCell, buildCurrentLock(String.valueOf(lockToken), duration))) {
+            String newLockCell = readLockCell(row, column);
+            throw new IllegalLockStatusException(row, column, lockToken, getCurrentLock(newLockCell), splitLockValue(newLockCell));
+        }
+        coordinator.renewed(getLockKey(row, column), lockToken, duration);
     }
 
     /**
@@ -174,23 +194,59 @@ public class HBaseLock {
      * @throws IllegalLockStatusException if the lockToken does not match with the current lockToken
      */
     public void unlock(byte[] row, byte[] column, long lockToken) throws IOException, IllegalLockStatusException {
-        String[] lockValue;
-        lockValue = readLockValue(row, column);
+        try {
+            String lockCell = readLockCell(row, column);
+            checkCurrentLock(row, column, lockToken, lockCell);
+
+            logger.debug("Unlock lock with token " + lockToken);
+            // Only clear the lock if it did not change since it was read
+            if (!checkAndPut(row, column, lockCell, "")) {
+                String newLockCell = readLockCell(row, column);
+                throw new IllegalLockStatusException(row, column, lockToken, getCurrentLock(newLockCell), splitLockValue(newLockCell));
+            }
+        } finally {
+            coordinator.unlocked(getLockKey(row, column), lockToken);
+        }
+    }
 
-        String currentLock = "";
-        for (String lock : lockValue) {
+    public LockMetrics getMetrics() {
+        return coordinator.getMetrics();
+    }
+
+    private void checkCurrentLock(byte[] row, byte[] column, long lockToken, String lockCell) throws IllegalLockStatusException {
+        String currentLock = getCurrentLock(lockCell);
+        if (!currentLock.equals(String.valueOf(lockToken))) {
+            throw new IllegalLockStatusException(row, column, lockToken, currentLock, splitLockValue(lockCell));
+        }
+    }
+
+    private String getCurrentLock(String lockCell) {
+        for (String lock : splitLockValue(lockCell)) {
             if (lock.startsWith(CURRENT_LOCK)) {
-                currentLock = lock.replace(CURRENT_LOCK, "").split(LOCK_EXPIRING_DATE_SEPARATOR)[0];
-                break;
+                return lock.replace(CURRENT_LOCK, "").split(LOCK_EXPIRING_DATE_SEPARATOR)[0];
             }
         }
+        return "";
+    }
 
-        if (currentLock.hashCode() != lockToken) {
-            throw new IllegalLockStatusException(row, column, lockToken, currentLock, lockValue);
-        }
+    private long nextFencingToken(byte[] row, byte[] column) throws IOException {
+        return HBaseManager.act(getConnection(), tableName, table -> {
+            return table.incrementColumnValue(row, getColumnFamily(), Bytes.add(column, FENCE_SUFFIX), 1);
+        });
+    }
+
+    private boolean checkAndPut(byte[] row, byte[] qualifier, String expectedValue, String newValue) throws IOException {
+        return HBaseManager.act(getConnection(), tableName, table -> {
+            Put p = new Put(row);
+            p.addColumn(getColumnFamily(), qualifier, Bytes.toBytes(newValue));
+            // A null expected value checks for the non existence of the cell
+            byte[] expected = expectedValue == null ? null : Bytes.toBytes(expectedValue);
+            return table.checkAndPut(row, getColumnFamily(), qualifier, expected, p);
+        });
+    }
 
-        logger.debug("Unlock lock with token " + lockToken);
-        clearLock(row, column);
+    private String getLockKey(byte[] row, byte[] column) {
+        return Bytes.toStringBinary(row) + ':' + Bytes.toStringBinary(column);
     }
 
     private void appendToken(String token, long lockDuration, byte[] row, byte[] qualifier) throws IOException {
@@ -213,25 +269,17 @@ public class HBaseLock {
             Put p = new Put(row);
             byte[] columnFamily = getColumnFamily();
 
-            p.addColumn(columnFamily, qualifier,
-                    Bytes.toBytes(
-                            CURRENT_LOCK
-                            + token
-                            + LOCK_EXPIRING_DATE_SEPARATOR
-                            + (System.currentTimeMillis() + lockDuration)
-                            + LOCK_SEPARATOR));
+            p.addColumn(columnFamily, qualifier, Bytes.toBytes(buildCurrentLock(token, lockDuration)));
             table.put(p);
         });
     }
 
-    private void clearLock(byte[] row, byte[] qualifier) throws IOException {
-        HBaseManager.act(getConnection(), tableName, table -> {
-            Put p = new Put(row);
-            byte[] columnFamily = getColumnFamily();
-
-            p.addColumn(columnFamily, qualifier, Bytes.toBytes(""));
-            table.put(p);
-        });
+    private String buildCurrentLock(String token, long lockDuration) {
+        return CURRENT_LOCK
+                + token
+                + LOCK_EXPIRING_DATE_SEPARATOR
+                + (System.currentTimeMillis() + lockDuration)
+                + LOCK_SEPARATOR;
     }
 
     /**
@@ -258,8 +306,11 @@ public class HBaseLock {
     }
 
     private String[] readLockValue(byte[] row, byte[] qualifier) throws IOException {
-        String lockValue;
-        lockValue = HBaseManager.act(getConnection(), tableName, table -> {
+        return splitLockValue(readLockCell(row, qualifier));
+    }
+
+    private String readLockCell(byte[] row, byte[] qualifier) throws IOException {
+        return HBaseManager.act(getConnection(), tableName, table -> {
             byte[] columnFamily = getColumnFamily();
 
             Result result = table.get(new Get(row).addColumn(columnFamily, qualifier));
@@ -269,7 +320,9 @@ public class HBaseLock {
                 return Bytes.toString(result.getValue(columnFamily, qualifier));
             }
         });
+    }
 
+    private String[] splitLockValue(String lockValue) {
         if (lockValue == null || lockValue.isEmpty()) {
             return new String[0];
         } else {
@@ -290,7 +343,7 @@ public class HBaseLock {
             super("Inconsistent lock status. You don't have the lock! "
                     + "Row: '" + Bytes.toStringBinary(row) + "', "
                     + "column: '" + Bytes.toStringBinary(column) + "'. "
-                    + lockToken + " != " + currentLock.hashCode() + " from " + Arrays.toString(lockValue));
+                    + lockToken + " != " + currentLock + " from " + Arrays.toString(lockValue));
         }
     }
 }
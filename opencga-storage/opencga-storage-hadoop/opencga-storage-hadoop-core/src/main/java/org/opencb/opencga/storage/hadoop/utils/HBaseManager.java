@@ -33,6 +33,7 @@ import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
@@ -370,6 +371,25 @@ public class HBaseManager implements AutoCloseable {
     public static boolean createTableIfNeeded(Connection con, String tableName, byte[] columnFamily,
                                               List<byte[]> preSplits, Compression.Algorithm compressionType)
             throws IOException {
+        return createTableIfNeeded(con, tableName, columnFamily, preSplits, compressionType, Collections.emptyMap());
+    }
+
+    /**
+     * Create default HBase table layout with one column family.
+     *
+     * @param con HBase connection object
+     * @param tableName    HBase table name
+     * @param columnFamily Column Family
+     * @param preSplits Pre-split regions at table creation
+     * @param compressionType Compression Algorithm
+     * @param tableValues Metadata values to store in the table descriptor
+     * @return boolean True if a new table was created
+     * @throws IOException throws {@link IOException} from creating a connection / table
+     **/
+    public static boolean createTableIfNeeded(Connection con, String tableName, byte[] columnFamily,
+                                              List<byte[]> preSplits, Compression.Algorithm compressionType,
+                                              Map<String, String> tableValues)
+            throws IOException {
         TableName tName = TableName.valueOf(tableName);
         LOGGER.debug("Create table if needed with connection {}", con);
         return act(con, tableName, (table, admin) -> {
@@ -380,6 +400,9 @@ public class HBaseManager implements AutoCloseable {
                     family.setCompressionType(compressionType);
                 }
                 descr.addFamily(family);
+                for (Map.Entry<String, String> entry : tableValues.entrySet()) {
+                    descr.setValue(entry.getKey(), entry.getValue());
+                }
                 try {
                     if (preSplits != null && !preSplits.isEmpty()) {
                         admin.createTable(descr, preSplits.toArray(new byte[0][]));
@@ -103,6 +103,12 @@ public abstract class AbstractVariantsTableDriver extends AbstractHBaseDriver im
         String dbName = HBaseVariantTableNameGenerator.getDBNameFromVariantsTableName(getVariantsTable());
         generator = new HBaseVariantTableNameGenerator(dbName, getConf());
 
+        if (StringUtils.isNotEmpty(archiveTable)) {
+            // Read the archive row key layout from the table metadata
+            try (HBaseManager hBaseManager = new HBaseManager(conf)) {
+                ArchiveTableHelper.configureRowKeyLayout(hBaseManager.getConnection(), archiveTable, conf);
+            }
+        }
         initVariantTableHelper(getStudyId());
 
         /* -------------------------------*/
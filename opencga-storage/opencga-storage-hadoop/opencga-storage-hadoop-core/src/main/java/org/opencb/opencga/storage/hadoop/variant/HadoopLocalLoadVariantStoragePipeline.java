@@ -28,11 +28,14 @@ import org.opencb.commons.run.ParallelTaskRunner;
 import org.opencb.commons.run.Task;
 import org.opencb.opencga.storage.core.config.StorageConfiguration;
 import org.opencb.opencga.storage.core.exceptions.StorageEngineException;
+import org.opencb.opencga.storage.core.io.PipelineCheckpoint;
 import org.opencb.opencga.storage.core.metadata.BatchFileOperation;
 import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
 import org.opencb.opencga.storage.core.metadata.StudyConfigurationManager;
+import org.opencb.opencga.storage.core.metrics.PipelineMetrics;
 import org.opencb.opencga.storage.core.variant.VariantStorageEngine;
 import org.opencb.opencga.storage.core.variant.io.VariantReaderUtils;
+import org.opencb.opencga.storage.hadoop.exceptions.StorageHadoopException;
 import org.opencb.opencga.storage.hadoop.variant.adaptors.VariantHadoopDBAdaptor;
 import org.opencb.opencga.storage.hadoop.variant.archive.ArchiveTableHelper;
 import org.opencb.opencga.storage.hadoop.variant.archive.VariantHBaseArchiveDataWriter;
@@ -131,10 +134,15 @@ public class HadoopLocalLoadVariantStoragePipeline extends HadoopVariantStorageP
             fileMetadata.setId(String.valueOf(fileId));
 //            fileMetadata.setStudyId(Integer.toString(studyId));
 
+            ArchiveTableHelper helper;
+            try {
+                helper = dbAdaptor.getArchiveHelper(studyId, fileMetadata);
+            } catch (IOException e) {
+                throw new StorageHadoopException("Error reading metadata from table " + table, e);
+            }
+
             long start = System.currentTimeMillis();
             if (VariantReaderUtils.isProto(fileName)) {
-                ArchiveTableHelper helper = new ArchiveTableHelper(dbAdaptor.getGenomeHelper(), studyId, fileMetadata);
-
                 ProgressLogger progressLogger = new ProgressLogger("Loaded slices:");
                 if (fileMetadata.getStats() != null) {
                     progressLogger.setApproximateTotalCount(fileMetadata.getStats().getNumVariants());
@@ -142,8 +150,6 @@ public class HadoopLocalLoadVariantStoragePipeline extends HadoopVariantStorageP
 
                 loadFromProto(input, table, helper, progressLogger);
             } else {
-                ArchiveTableHelper helper = new ArchiveTableHelper(dbAdaptor.getGenomeHelper(), studyId, fileMetadata);
-
                 ProgressLogger progressLogger;
                 if (fileMetadata.getStats() != null) {
                     progressLogger = new ProgressLogger("Loaded variants for file \"" + input.getFileName() + "\" :",
@@ -266,13 +272,33 @@ public class HadoopLocalLoadVariantStoragePipeline extends HadoopVariantStorageP
         // Task
         GroupedVariantsTask task = new GroupedVariantsTask(archiveWriter, hadoopDBWriter, sampleIndexDBLoader, null);
 
+        // Checkpoint. Records are slices. Resume from the first slice of a sample index chunk, as the chunks are written entirely
+        boolean resume = options.getBoolean(VariantStorageEngine.Options.RESUME.key(), VariantStorageEngine.Options.RESUME.defaultValue());
+        PipelineCheckpoint checkpoint = newLoadCheckpoint(OPERATION_NAME, Collections.singletonList(fileId), resume).setSync(records -> {
+            archiveWriter.flush();
+            hadoopDBWriter.flush();
+            if (sampleIndexDBLoader != null) {
+                sampleIndexDBLoader.flush();
+                updateLoadedGenotypes(new HashSet<>(sampleIndexDBLoader.getLoadedGenotypes()));
+            }
+            return records - task.getSlicesInIndexChunk();
+        });
+        task.setResume(checkpoint.getSkippedRecords() > 0);
+        if (checkpoint.getSkippedRecords() > 0) {
+            loadStats.append("loadSkippedRecords", checkpoint.getSkippedRecords());
+        }
 
-        ParallelTaskRunner<ImmutablePair<Long, List<Variant>>, VcfSlice> ptr =
-                new ParallelTaskRunner<>(sliceReader, task, null, config);
+        PipelineMetrics metrics = newPipelineMetrics("load");
+        ParallelTaskRunner<ImmutablePair<Long, List<Variant>>, VcfSlice> ptr = new ParallelTaskRunner<>(
+                metrics.wrapReader(checkpoint.wrapReader(sliceReader,
+                        slice -> slice.getRight().get(0).getChromosome() + ':' + slice.getLeft())),
+                metrics.wrapTask(checkpoint.wrapWritingTask(task)), null, config);
         try {
             ptr.run();
         } catch (ExecutionException e) {
             throw new StorageEngineException("Error loading file " + input, e);
+        } finally {
+            closePipelineMetrics("load", metrics, loadStats);
         }
 
         if (sampleIndexDBLoader != null) {
@@ -310,6 +336,11 @@ public class HadoopLocalLoadVariantStoragePipeline extends HadoopVariantStorageP
         private final VariantHBaseArchiveDataWriter archiveWriter;
         private final VariantHadoopDBWriter hadoopDBWriter;
         private final SampleIndexDBLoader sampleIndexDBLoader;
+        private boolean resume = false;
+        // Slices processed from the current sample index chunk
+        private String indexChunkChromosome;
+        private long indexChunk = -1;
+        private long slicesInIndexChunk;
 
         GroupedVariantsTask(VariantHBaseArchiveDataWriter archiveWriter, VariantHadoopDBWriter hadoopDBWriter,
                             SampleIndexDBLoader sampleIndexDBLoader, ProgressLogger progressLogger) {
@@ -335,9 +366,36 @@ public class HadoopLocalLoadVariantStoragePipeline extends HadoopVariantStorageP
             converterTask.pre();
         }
 
+        /**
+         * Resume a load. The first slice processed is the first slice of a sample index chunk.
+         *
+         * @param resume If the load is being resumed
+         * @return this
+         */
+        GroupedVariantsTask setResume(boolean resume) {
+            this.resume = resume;
+            return this;
+        }
+
+        long getSlicesInIndexChunk() {
+            return slicesInIndexChunk;
+        }
+
         @Override
         public List<VcfSlice> apply(List<ImmutablePair<Long, List<Variant>>> batch) {
             for (ImmutablePair<Long, List<Variant>> pair : batch) {
+                String chromosome = pair.getRight().get(0).getChromosome();
+                long chunk = pair.getLeft() / SampleIndexDBLoader.BATCH_SIZE;
+                if (chunk != indexChunk || !chromosome.equals(indexChunkChromosome)) {
+                    if (resume && indexChunk < 0 && sampleIndexDBLoader != null) {
+                        sampleIndexDBLoader.setResumePosition(chromosome, pair.getLeft().intValue());
+                    }
+                    indexChunkChromosome = chromosome;
+                    indexChunk = chunk;
+                    slicesInIndexChunk = 0;
+                }
+                slicesInIndexChunk++;
+
                 hadoopDBWriter.write(pair.getRight());
 
                 if (sampleIndexDBLoader != null) {
@@ -169,6 +169,12 @@ public class HadoopVariantStorageEngine extends VariantStorageEngine {
     public static final String ARCHIVE_ROW_KEY_SEPARATOR = "opencga.archive.row_key_sep";
     public static final String ARCHIVE_FILE_BATCH_SIZE = "opencga.archive.file_batch_size";
     public static final int DEFAULT_ARCHIVE_FILE_BATCH_SIZE = 1000;
+    // Row key layout of new archive tables. Existing tables keep the layout stored in the table metadata
+    public static final String ARCHIVE_ROW_KEY_LAYOUT = "opencga.archive.row_key.layout";
+    public static final String ARCHIVE_ROW_KEY_SALT_BUCKETS = "opencga.archive.row_key.salt_buckets";
+    public static final int DEFAULT_ARCHIVE_ROW_KEY_SALT_BUCKETS = 16;
+    // Non standard chromosomes of the BINARY row key layout, in order of registration. Read from the table metadata
+    public static final String ARCHIVE_ROW_KEY_CHROMOSOMES = "opencga.archive.row_key.chromosomes";
 
     // Sample index table configuration
     public static final String SAMPLE_INDEX_TABLE_COMPRESSION = "opencga.sample-index.table.compression";
@@ -178,7 +184,13 @@ public class HadoopVariantStorageEngine extends VariantStorageEngine {
 
     public static final String DBADAPTOR_PHOENIX_FETCH_SIZE = "dbadaptor.phoenix.fetch_size";
     public static final String MISSING_GENOTYPES_UPDATED = "missing_genotypes_updated";
+    // See VcfSliceIndexBenchmark for the scaling of the archive lookups with the number of samples
     public static final int FILL_GAPS_MAX_SAMPLES = 100;
+    public static final String FILL_GAPS_MAX_SAMPLES_LIMIT = "opencga.fill-gaps.max-samples";
+    // Number of files from the same archive row processed in parallel by each fill gaps mapper.
+    // The map tasks request as many vcores.
+    public static final String FILL_GAPS_PARALLEL_FILES = "opencga.fill-gaps.parallel-files";
+    public static final int FILL_GAPS_PARALLEL_FILES_DEFAULT = 1;
 
     public static final EnumSet<VariantType> TARGET_VARIANT_TYPE_SET = EnumSet.of(
             VariantType.SNV, VariantType.SNP,
@@ -383,9 +395,12 @@ public class HadoopVariantStorageEngine extends VariantStorageEngine {
     public void fillGaps(String study, List<String> samples, ObjectMap options) throws StorageEngineException {
         if (samples == null || samples.size() < 2) {
             throw new IllegalArgumentException("Fill gaps operation requires at least two samples.");
-        } else if (samples.size() > FILL_GAPS_MAX_SAMPLES) {
+        }
+        int maxSamples = (options == null ? getOptions() : options).getInt(FILL_GAPS_MAX_SAMPLES_LIMIT,
+                getOptions().getInt(FILL_GAPS_MAX_SAMPLES_LIMIT, FILL_GAPS_MAX_SAMPLES));
+        if (samples.size() > maxSamples) {
             throw new IllegalArgumentException("Unable to execute fill gaps operation with more than "
-                    + FILL_GAPS_MAX_SAMPLES + " samples.");
+                    + maxSamples + " samples.");
         }
 
         StudyConfigurationManager scm = getStudyConfigurationManager();
@@ -28,6 +28,7 @@ import org.opencb.biodata.formats.io.FileFormatException;
 import org.opencb.biodata.formats.variant.io.VariantReader;
 import org.opencb.biodata.models.variant.Variant;
 import org.opencb.biodata.models.variant.VariantFileMetadata;
+import org.opencb.biodata.models.variant.metadata.VariantFileHeaderComplexLine;
 import org.opencb.biodata.models.variant.protobuf.VcfSliceProtos;
 import org.opencb.biodata.tools.variant.VariantNormalizer;
 import org.opencb.biodata.tools.variant.VariantVcfHtsjdkReader;
@@ -154,9 +155,8 @@ public abstract class HadoopVariantStoragePipeline extends VariantStoragePipelin
         DataWriter<VcfSliceProtos.VcfSlice> dataWriter = new ProtoFileWriter<>(outputVariantsFile, compression);
 
         // Normalizer
-        VariantNormalizer normalizer = new VariantNormalizer(true, true, false);
+        VariantNormalizer normalizer = newVariantNormalizer(generateReferenceBlocks);
         normalizer.configure(fileMetadata.getHeader());
-        normalizer.setGenerateReferenceBlocks(generateReferenceBlocks);
 
         // Stats calculator
         VariantSetStatsCalculator statsCalculator = new VariantSetStatsCalculator(String.valueOf(getStudyId()), fileMetadata);
@@ -297,8 +297,7 @@ public abstract class HadoopVariantStoragePipeline extends VariantStoragePipelin
 
     @Override
     public URI preLoad(URI input, URI output) throws StorageEngineException {
-        super.preLoad(input, output);
-
+        // Create the tables before the securePreLoad, where the archive row key dictionary is updated
         try {
             ArchiveTableHelper.createArchiveTableIfNeeded(dbAdaptor.getGenomeHelper(), getArchiveTable(),
                     dbAdaptor.getConnection());
@@ -312,6 +311,8 @@ public abstract class HadoopVariantStoragePipeline extends VariantStoragePipelin
             throw new StorageHadoopException("Issue creating table " + variantsTableCredentials.getTable(), e);
         }
 
+        super.preLoad(input, output);
+
         return input;
     }
 
@@ -319,6 +320,24 @@ public abstract class HadoopVariantStoragePipeline extends VariantStoragePipelin
     protected void securePreLoad(StudyConfiguration studyConfiguration, VariantFileMetadata fileMetadata) throws StorageEngineException {
         super.securePreLoad(studyConfiguration, fileMetadata);
 
+        // Register the chromosomes of the file in the archive row key dictionary, if needed. Protected by the study lock.
+        Set<String> chromosomes = new HashSet<>();
+        if (fileMetadata.getStats() != null) {
+            chromosomes.addAll(fileMetadata.getStats().getChromosomeCounts().keySet());
+        }
+        if (fileMetadata.getHeader() != null) {
+            for (VariantFileHeaderComplexLine line : fileMetadata.getHeader().getComplexLines()) {
+                if (line.getKey().equals("contig")) {
+                    chromosomes.add(line.getId());
+                }
+            }
+        }
+        try {
+            ArchiveTableHelper.registerChromosomes(dbAdaptor.getConnection(), getArchiveTable(), chromosomes);
+        } catch (IOException e) {
+            throw new StorageHadoopException("Error registering chromosomes in table " + getArchiveTable(), e);
+        }
+
         MergeMode mergeMode;
         if (!studyConfiguration.getAttributes().containsKey(Options.MERGE_MODE.key())) {
             mergeMode = MergeMode.from(options);
@@ -33,6 +33,7 @@ import org.opencb.opencga.storage.core.variant.adaptors.VariantField;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryException;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryParam;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryUtils;
+import org.opencb.opencga.storage.core.variant.query.VariantQuery;
 import org.opencb.opencga.storage.hadoop.variant.GenomeHelper;
 import org.opencb.opencga.storage.hadoop.variant.HadoopVariantStorageEngine;
 import org.opencb.opencga.storage.hadoop.variant.archive.ArchiveRowKeyFactory;
@@ -167,10 +168,11 @@ public class VariantHBaseQueryParser {
     }
 
     public List<Scan> parseQueryMultiRegion(Query query, QueryOptions options) {
-        return parseQueryMultiRegion(VariantQueryUtils.parseSelectElements(query, options, studyConfigurationManager), query, options);
+        return parseQueryMultiRegion(VariantQuery.get(query, studyConfigurationManager)
+                .getSelectElements(options, studyConfigurationManager), query, options);
     }
     public List<Scan> parseQueryMultiRegion(SelectVariantElements selectElements, Query query, QueryOptions options) {
-        VariantQueryXref xrefs = VariantQueryUtils.parseXrefs(query);
+        VariantQueryXref xrefs = VariantQuery.get(query).getXrefs();
         if (!xrefs.getOtherXrefs().isEmpty()) {
             throw VariantQueryException.unsupportedVariantQueryFilter(VariantQueryParam.ANNOT_XREF,
                     HadoopVariantStorageEngine.STORAGE_ENGINE_ID, "Only variant ids are supported with HBase native query");
@@ -234,8 +236,8 @@ public class VariantHBaseQueryParser {
     }
 
     public Scan parseQuery(Query query, QueryOptions options) {
-        VariantQueryUtils.SelectVariantElements selectElements =
-                VariantQueryUtils.parseSelectElements(query, options, studyConfigurationManager);
+        VariantQueryUtils.SelectVariantElements selectElements = VariantQuery.get(query, studyConfigurationManager)
+                .getSelectElements(options, studyConfigurationManager);
         return parseQuery(selectElements, query, options);
     }
 
@@ -606,12 +608,17 @@ public class VariantHBaseQueryParser {
     }
 
     public static void addArchiveRegionFilter(Scan scan, Region region, int fileId, ArchiveRowKeyFactory keyFactory) {
-        if (region != null) {
-            scan.setStartRow(keyFactory.generateBlockIdAsBytes(fileId, region.getChromosome(), region.getStart()));
-            long endSlice = keyFactory.getSliceId((long) region.getEnd()) + 1;
-            // +1 because the stop row is exclusive
-            scan.setStopRow(Bytes.toBytes(keyFactory.generateBlockIdFromSlice(
-                    fileId, region.getChromosome(), endSlice)));
+        if (region == null) {
+            return;
+        }
+        if (region.getStart() <= 1 && region.getEnd() == Integer.MAX_VALUE) {
+            // Whole chromosome. Scan all the slices of the chromosome in the file batch
+            int fileBatch = keyFactory.getFileBatch(fileId);
+            scan.setStartRow(keyFactory.generateChromosomeStartRow(fileBatch, region.getChromosome()));
+            scan.setStopRow(keyFactory.generateChromosomeStopRow(fileBatch, region.getChromosome()));
+        } else {
+            scan.setStartRow(keyFactory.generateRegionStartRow(fileId, region));
+            scan.setStopRow(keyFactory.generateRegionStopRow(fileId, region));
         }
     }
 
@@ -38,11 +38,15 @@ import org.opencb.opencga.storage.core.exceptions.StorageEngineException;
 import org.opencb.opencga.storage.core.metadata.ProjectMetadata;
 import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
 import org.opencb.opencga.storage.core.metadata.StudyConfigurationManager;
+import org.opencb.opencga.storage.core.variant.VariantStorageEngine;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantDBAdaptor;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryException;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryParam;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryUtils;
+import org.opencb.opencga.storage.core.variant.adaptors.iterators.MultiGetVariantDBIterator;
 import org.opencb.opencga.storage.core.variant.adaptors.iterators.VariantDBIterator;
 import org.opencb.opencga.storage.core.variant.annotation.VariantAnnotationManager;
+import org.opencb.opencga.storage.core.variant.query.VariantQuery;
 import org.opencb.opencga.storage.core.variant.stats.VariantStatsWrapper;
 import org.opencb.opencga.storage.hadoop.auth.HBaseCredentials;
 import org.opencb.opencga.storage.hadoop.utils.HBaseManager;
@@ -52,6 +56,7 @@ import org.opencb.opencga.storage.hadoop.variant.annotation.phoenix.VariantAnnot
 import org.opencb.opencga.storage.hadoop.variant.annotation.phoenix.VariantAnnotationUpsertExecutor;
 import org.opencb.opencga.storage.hadoop.variant.archive.ArchiveTableHelper;
 import org.opencb.opencga.storage.hadoop.variant.archive.VariantHadoopArchiveDBIterator;
+import org.opencb.opencga.storage.hadoop.variant.converters.HBaseToVariantConverter;
 import org.opencb.opencga.storage.hadoop.variant.converters.annotation.HBaseToVariantAnnotationConverter;
 import org.opencb.opencga.storage.hadoop.variant.converters.annotation.VariantAnnotationToPhoenixConverter;
 import org.opencb.opencga.storage.hadoop.variant.converters.stats.VariantStatsToHBaseConverter;
@@ -59,6 +64,7 @@ import org.opencb.opencga.storage.hadoop.variant.index.VariantHBaseResultSetIter
 import org.opencb.opencga.storage.hadoop.variant.index.VariantHBaseScanIterator;
 import org.opencb.opencga.storage.hadoop.variant.index.phoenix.PhoenixHelper;
 import org.opencb.opencga.storage.hadoop.variant.index.phoenix.VariantPhoenixHelper;
+import org.opencb.opencga.storage.hadoop.variant.index.phoenix.VariantPhoenixKeyFactory;
 import org.opencb.opencga.storage.hadoop.variant.index.phoenix.VariantSqlQueryParser;
 import org.opencb.opencga.storage.hadoop.variant.metadata.HBaseVariantFileMetadataDBAdaptor;
 import org.opencb.opencga.storage.hadoop.variant.metadata.HBaseVariantStorageMetadataDBAdaptorFactory;
@@ -194,10 +200,17 @@ public class VariantHadoopDBAdaptor implements VariantDBAdaptor {
         if (fileMetadata == null) {
             throw new StorageEngineException("File '" + fileId + "' not found in study '" + studyId + "'");
         }
-        return new ArchiveTableHelper(genomeHelper, studyId, fileMetadata);
+        return getArchiveHelper(studyId, fileMetadata);
 
     }
 
+    public ArchiveTableHelper getArchiveHelper(int studyId, VariantFileMetadata fileMetadata) throws IOException {
+        // Each archive table has its own row key layout
+        Configuration conf = ArchiveTableHelper.configureRowKeyLayout(getConnection(), getArchiveTableName(studyId),
+                new Configuration(genomeHelper.getConf()));
+        return new ArchiveTableHelper(conf, studyId, fileMetadata);
+    }
+
     @Deprecated
     public HBaseVariantFileMetadataDBAdaptor getVariantFileMetadataDBAdaptor() {
         return variantFileMetadataDBAdaptor;
@@ -307,7 +320,8 @@ public class VariantHadoopDBAdaptor implements VariantDBAdaptor {
             annotationColumn = Bytes.toBytes(VariantPhoenixHelper.getAnnotationSnapshotColumn(saved.getId()));
             query.put(ANNOT_NAME.key(), saved.getId());
         }
-        SelectVariantElements selectElements = VariantQueryUtils.parseSelectElements(query, options, getStudyConfigurationManager());
+        SelectVariantElements selectElements = VariantQuery.get(query, getStudyConfigurationManager())
+                .getSelectElements(options, getStudyConfigurationManager());
         List<Scan> scans = hbaseQueryParser.parseQueryMultiRegion(selectElements, query, options);
 
         try {
@@ -438,7 +452,8 @@ public class VariantHadoopDBAdaptor implements VariantDBAdaptor {
             }
         } else if (hbaseIterator) {
             logger.debug("Creating " + VariantHBaseScanIterator.class.getSimpleName() + " iterator");
-            SelectVariantElements selectElements = VariantQueryUtils.parseSelectElements(query, options, studyConfigurationManager.get());
+            SelectVariantElements selectElements = VariantQuery.get(query, studyConfigurationManager.get())
+                    .getSelectElements(options, studyConfigurationManager.get());
             List<Scan> scans = hbaseQueryParser.parseQueryMultiRegion(selectElements, query, options);
             try {
                 Table table = getConnection().getTable(TableName.valueOf(variantTable));
@@ -529,6 +544,116 @@ public class VariantHadoopDBAdaptor implements VariantDBAdaptor {
         }
     }
 
+    /**
+     * Fetch the variants given by an iterator of variant ids. The ids are split in batches of
+     * {@link VariantStorageEngine.Options#INTERSECT_BATCH_SIZE} ids, and up to
+     * {@link VariantStorageEngine.Options#INTERSECT_PARALLELISM} batches are fetched concurrently.
+     * Variants are returned in the same order as the input ids.
+     *
+     * If the query can be resolved only with the row key, each batch is fetched with a multi-get, grouped by region server.
+     * Otherwise, each batch is executed with phoenix.
+     *
+     * @param variants  Iterator of variant ids
+     * @param query     Query to apply to all the variants
+     * @param options   Query options
+     * @return          Variant iterator
+     */
+    @Override
+    public VariantDBIterator iterator(Iterator<?> variants, Query query, QueryOptions options) {
+        if (options == null) {
+            options = new QueryOptions();
+        }
+        Query baseQuery = query == null ? new Query() : new Query(query);
+        baseQuery.remove(ID.key());
+        int batchSize = options.getInt(VariantStorageEngine.Options.INTERSECT_BATCH_SIZE.key(),
+                VariantStorageEngine.Options.INTERSECT_BATCH_SIZE.defaultValue());
+        int parallelism = options.getInt(VariantStorageEngine.Options.INTERSECT_PARALLELISM.key(),
+                VariantStorageEngine.Options.INTERSECT_PARALLELISM.defaultValue());
+
+        Set<VariantQueryParam> filterParams = validParams(baseQuery);
+        filterParams.removeAll(MODIFIER_QUERY_PARAMS);
+        boolean multiGet = filterParams.isEmpty()
+                || options.getBoolean(NATIVE, false)
+                && !filterParams.contains(REGION)
+                && VariantHBaseQueryParser.isSupportedQuery(baseQuery);
+
+        if (multiGet) {
+            logger.debug("Creating multi-get iterator");
+            SelectVariantElements selectElements = VariantQuery.get(baseQuery, studyConfigurationManager.get())
+                    .getSelectElements(options, studyConfigurationManager.get());
+            // Each get returns at most one row. Do not add the PageFilter from the LIMIT to the template
+            QueryOptions templateOptions = new QueryOptions(options);
+            templateOptions.remove(QueryOptions.LIMIT);
+            templateOptions.remove(QueryOptions.SKIP);
+            Scan template = hbaseQueryParser.parseQuery(selectElements, baseQuery, templateOptions);
+            String unknownGenotype = isValidParam(baseQuery, UNKNOWN_GENOTYPE) ? baseQuery.getString(UNKNOWN_GENOTYPE.key()) : null;
+            List<String> formats = getIncludeFormats(baseQuery);
+            return new MultiGetVariantDBIterator(variants, batchSize, parallelism, options, (batch, batchOptions) -> {
+                HBaseToVariantConverter<Result> converter = HBaseToVariantConverter
+                        .fromResult(genomeHelper, studyConfigurationManager.get())
+                        .setMutableSamplesPosition(false)
+                        .setStudyNameAsStudyId(batchOptions.getBoolean(HBaseToVariantConverter.STUDY_NAME_AS_STUDY_ID, true))
+                        .setSimpleGenotypes(batchOptions.getBoolean(HBaseToVariantConverter.SIMPLE_GENOTYPES, true))
+                        .setUnknownGenotype(unknownGenotype)
+                        .setSelectVariantElements(selectElements)
+                        .setFormats(formats);
+                return multiGet(batch, template, converter);
+            });
+        } else {
+            logger.debug("Creating multi-get iterator using phoenix. Filter params : {}", filterParams);
+            return new MultiGetVariantDBIterator(variants, batchSize, parallelism, options, (batch, batchOptions) -> {
+                List<String> ids = new ArrayList<>(batch.size());
+                for (Variant variant : batch) {
+                    ids.add(variant.toString());
+                }
+                List<Variant> result = new ArrayList<>(batch.size());
+                try (VariantDBIterator iterator = iterator(new Query(baseQuery).append(ID.key(), ids), new QueryOptions(batchOptions))) {
+                    iterator.forEachRemaining(result::add);
+                }
+                return result;
+            });
+        }
+    }
+
+    /**
+     * Get a batch of variants by row key. The HBase client groups the gets by region server, and sends one RPC per server.
+     *
+     * @param variants  Variants to get
+     * @param template  Scan with the columns and filters to apply to each get
+     * @param converter Result converter
+     * @return          Found variants
+     * @throws IOException if there is any problem reading from HBase
+     */
+    private List<Variant> multiGet(List<Variant> variants, Scan template, HBaseToVariantConverter<Result> converter)
+            throws IOException {
+        try (Table table = getConnection().getTable(TableName.valueOf(variantTable))) {
+            List<Get> gets = new ArrayList<>(variants.size());
+            for (Variant variant : variants) {
+                byte[] rowKey = VariantPhoenixKeyFactory.generateVariantRowKey(variant);
+                Get get = new Get(rowKey);
+                for (Map.Entry<byte[], NavigableSet<byte[]>> entry : template.getFamilyMap().entrySet()) {
+                    if (entry.getValue() == null) {
+                        get.addFamily(entry.getKey());
+                    } else {
+                        for (byte[] column : entry.getValue()) {
+                            get.addColumn(entry.getKey(), column);
+                        }
+                    }
+                }
+                get.setFilter(template.getFilter());
+                gets.add(get);
+            }
+
+            List<Variant> result = new ArrayList<>(variants.size());
+            for (Result r : table.get(gets)) {
+                if (!r.isEmpty()) {
+                    result.add(converter.convert(r));
+                }
+            }
+            return result;
+        }
+    }
+
     @Override
     public void forEach(Consumer<? super Variant> action) {
         iterator().forEachRemaining(action);
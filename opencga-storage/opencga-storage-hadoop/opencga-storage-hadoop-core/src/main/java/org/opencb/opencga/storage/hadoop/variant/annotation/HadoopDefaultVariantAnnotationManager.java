@@ -43,6 +43,7 @@ import org.opencb.opencga.storage.hadoop.variant.executors.MRExecutor;
 import org.opencb.opencga.storage.hadoop.variant.index.phoenix.VariantPhoenixHelper;
 
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -81,6 +82,38 @@ public class HadoopDefaultVariantAnnotationManager extends DefaultVariantAnnotat
         }
     }
 
+    @Override
+    protected ParallelTaskRunner.Task<VariantAnnotation, ?> newAnnotationLoadTask(ObjectMap params, ProgressLogger progressLogger) {
+        if (VariantPhoenixHelper.DEFAULT_TABLE_TYPE == PTableType.VIEW
+                || params.getBoolean(HadoopVariantStorageEngine.VARIANT_TABLE_INDEXES_SKIP, false)) {
+            VariantAnnotationToHBaseConverter converter =
+                    new VariantAnnotationToHBaseConverter(dbAdaptor.getGenomeHelper(), progressLogger);
+            HBaseDataWriter<Put> writer = new HBaseDataWriter<>(dbAdaptor.getHBaseManager(), dbAdaptor.getVariantTable());
+            return new ParallelTaskRunner.Task<VariantAnnotation, Object>() {
+                @Override
+                public void pre() {
+                    writer.open();
+                    writer.pre();
+                }
+
+                @Override
+                public List<Object> apply(List<VariantAnnotation> list) throws Exception {
+                    writer.write(converter.apply(list));
+                    // Flush every batch, so the annotation checkpoint never moves ahead of the stored annotations
+                    writer.post();
+                    return Collections.emptyList();
+                }
+
+                @Override
+                public void post() {
+                    writer.close();
+                }
+            };
+        } else {
+            return dbAdaptor.newAnnotationLoader(new QueryOptions(params)).setProgressLogger(progressLogger);
+        }
+    }
+
     @Override
     protected QueryOptions getIteratorQueryOptions(Query query, ObjectMap params) {
         QueryOptions iteratorQueryOptions = super.getIteratorQueryOptions(query, params);
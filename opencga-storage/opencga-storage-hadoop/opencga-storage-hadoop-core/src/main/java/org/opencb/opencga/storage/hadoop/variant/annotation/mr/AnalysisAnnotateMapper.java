@@ -114,6 +114,14 @@ public class AnalysisAnnotateMapper extends AbstractHBaseVariantMapper<NullWrita
         this.variantsToAnnotate.clear();
     }
 
+    @Override
+    protected void cleanup(Context context) throws IOException, InterruptedException {
+        super.cleanup(context);
+        if (variantAnnotator != null) {
+            variantAnnotator.close();
+        }
+    }
+
     @Override
     public void run(Context context) throws IOException, InterruptedException {
         this.setup(context);
@@ -94,6 +94,9 @@ public class ArchiveDriver extends Configured implements Tool {
         } else {
             LOGGER.info("Table '{}' exists in hbase!", tableName);
         }
+        try (HBaseManager hBaseManager = new HBaseManager(conf)) {
+            ArchiveTableHelper.configureRowKeyLayout(hBaseManager.getConnection(), tableName, conf);
+        }
 
         // add metadata config as string
         VariantFileMetadata meta = readMetaData(conf, inputMetaFile);
@@ -22,12 +22,18 @@ import org.apache.hadoop.hbase.util.Bytes;
 import org.opencb.biodata.models.core.Region;
 import org.opencb.biodata.models.variant.Variant;
 
+import java.util.*;
+
 import static org.opencb.opencga.storage.hadoop.variant.GenomeHelper.DEFAULT_ROWKEY_SEPARATOR;
 import static org.opencb.opencga.storage.hadoop.variant.HadoopVariantStorageEngine.*;
 
 /**
  * Created on 25/04/17.
  *
+ * Generates and parses the row keys of the archive table. There are two layouts, see {@link Layout}.
+ * The String methods always use the {@link Layout#STRING} format, and are used as internal identifiers.
+ * The byte[] methods use the layout of the archive table, and must be used to read and write HBase row keys.
+ *
  * @author Jacobo Coll &lt;jacobo167@gmail.com&gt;
  */
 public class ArchiveRowKeyFactory {
@@ -35,6 +41,10 @@ public class ArchiveRowKeyFactory {
     private final int chunkSize;
     private final char separator;
     private final int fileBatchSize;
+    private final Layout layout;
+    private final int saltBuckets;
+    private final List<String> chromosomes;
+    private final Map<String, Integer> chromosomeCodes;
 
     private static final int FILE_BATCH_IDX = 0;
     private static final int CHROMOSOME_IDX = 1;
@@ -44,16 +54,100 @@ public class ArchiveRowKeyFactory {
     private static final int FILE_BATCH_PAD = 5;
     private static final int POSITION_PAD = 12;
 
+    // BINARY layout
+    private static final int SALT_OFFSET = 0;
+    private static final int FILE_BATCH_OFFSET = SALT_OFFSET + Bytes.SIZEOF_BYTE;
+    private static final int CHROMOSOME_OFFSET = FILE_BATCH_OFFSET + Bytes.SIZEOF_INT;
+    private static final int SLICE_OFFSET = CHROMOSOME_OFFSET + Bytes.SIZEOF_SHORT;
+    public static final int BINARY_KEY_LENGTH = SLICE_OFFSET + Bytes.SIZEOF_INT;
+    private static final List<String> STANDARD_CHROMOSOMES = Collections.unmodifiableList(Arrays.asList(
+            "1", "2", "3", "4", "5", "6", "7", "8", "9", "10", "11", "12", "13", "14", "15", "16", "17", "18", "19", "20",
+            "21", "22", "X", "Y", "MT"));
+    private static final int FIRST_CHROMOSOME_CODE = 1;
+    private static final int FIRST_NON_STANDARD_CHROMOSOME_CODE = 256;
+    private static final int MAX_CHROMOSOME_CODE = 0xFFFF;
+
+    /**
+     * Archive table row key layouts.
+     */
+    public enum Layout {
+        /**
+         * String row key {@code <fileBatch>_<chromosome>_<slice>}, with the file batch and the slice zero padded.
+         */
+        STRING,
+        /**
+         * Fixed width binary row key of {@link #BINARY_KEY_LENGTH} bytes, big-endian.
+         * {@code <salt (1B)><fileBatch (4B)><chromosome code (2B)><slice (4B)>}.
+         * The salt depends on the file batch and the chromosome, so the chromosomes of a file batch are spread across
+         * the salt buckets, and any range of one file batch and chromosome is contiguous.
+         * Standard chromosomes have a fixed code. Other contigs are coded by their position in a dictionary stored
+         * in the table metadata.
+         */
+        BINARY
+    }
+
     public ArchiveRowKeyFactory(Configuration conf) {
         this.chunkSize = conf.getInt(ARCHIVE_CHUNK_SIZE, DEFAULT_ARCHIVE_CHUNK_SIZE);
         this.separator = conf.get(ARCHIVE_ROW_KEY_SEPARATOR, DEFAULT_ROWKEY_SEPARATOR).charAt(0);
         this.fileBatchSize = conf.getInt(ARCHIVE_FILE_BATCH_SIZE, DEFAULT_ARCHIVE_FILE_BATCH_SIZE);
+        this.layout = Layout.valueOf(conf.get(ARCHIVE_ROW_KEY_LAYOUT, Layout.STRING.name()).toUpperCase());
+        this.saltBuckets = conf.getInt(ARCHIVE_ROW_KEY_SALT_BUCKETS, DEFAULT_ARCHIVE_ROW_KEY_SALT_BUCKETS);
+        this.chromosomes = Arrays.asList(conf.getTrimmedStrings(ARCHIVE_ROW_KEY_CHROMOSOMES));
+        this.chromosomeCodes = buildChromosomeCodes(chromosomes);
+        if (saltBuckets <= 0 || saltBuckets > 256) {
+            throw new IllegalArgumentException("Salt buckets must be between 1 and 256. Got " + saltBuckets);
+        }
     }
 
     public ArchiveRowKeyFactory(int chunkSize, char separator, int fileBatchSize) {
         this.chunkSize = chunkSize;
         this.separator = separator;
         this.fileBatchSize = fileBatchSize;
+        this.layout = Layout.STRING;
+        this.saltBuckets = DEFAULT_ARCHIVE_ROW_KEY_SALT_BUCKETS;
+        this.chromosomes = Collections.emptyList();
+        this.chromosomeCodes = buildChromosomeCodes(chromosomes);
+    }
+
+    private static Map<String, Integer> buildChromosomeCodes(List<String> chromosomes) {
+        if (FIRST_NON_STANDARD_CHROMOSOME_CODE + chromosomes.size() > MAX_CHROMOSOME_CODE + 1) {
+            throw new IllegalArgumentException("Too many chromosomes for the archive BINARY row key: " + chromosomes.size());
+        }
+        Map<String, Integer> codes = new HashMap<>();
+        for (int i = 0; i < STANDARD_CHROMOSOMES.size(); i++) {
+            codes.put(STANDARD_CHROMOSOMES.get(i), FIRST_CHROMOSOME_CODE + i);
+        }
+        for (int i = 0; i < chromosomes.size(); i++) {
+            codes.put(chromosomes.get(i), FIRST_NON_STANDARD_CHROMOSOME_CODE + i);
+        }
+        return codes;
+    }
+
+    public Layout getLayout() {
+        return layout;
+    }
+
+    public int getSaltBuckets() {
+        return saltBuckets;
+    }
+
+    /**
+     * Dictionary of non standard chromosomes of the {@link Layout#BINARY} layout.
+     *
+     * @return Chromosomes, in order of registration
+     */
+    public List<String> getChromosomes() {
+        return chromosomes;
+    }
+
+    /**
+     * Check if the chromosome can be used in a {@link Layout#BINARY} row key.
+     *
+     * @param chrom Chromosome
+     * @return If the chromosome is standard or is in the dictionary
+     */
+    public boolean hasChromosomeCode(String chrom) {
+        return chromosomeCodes.containsKey(Region.normalizeChromosome(chrom));
     }
 
     public int getChunkSize() {
@@ -121,7 +215,7 @@ public class ArchiveRowKeyFactory {
     }
 
     /**
-     * Changes the String from {@link #generateBlockId(int, String, long)} to bytes.
+     * Generates the row key of a genomic position, in the layout of this factory.
      *
      * @param fileId File id
      * @param chrom  Chromosome
@@ -129,7 +223,173 @@ public class ArchiveRowKeyFactory {
      * @return {@link Byte} array
      */
     public byte[] generateBlockIdAsBytes(int fileId, String chrom, int start) {
-        return Bytes.toBytes(generateBlockId(fileId, chrom, start));
+        return generateBlockIdFromSliceAndBatchAsBytes(getFileBatch(fileId), chrom, getSliceId(start));
+    }
+
+    public byte[] generateBlockIdFromSliceAsBytes(int fileId, String chrom, long slice) {
+        return generateBlockIdFromSliceAndBatchAsBytes(getFileBatch(fileId), chrom, slice);
+    }
+
+    public byte[] generateBlockIdFromSliceAndBatchAsBytes(int fileBatch, String chrom, long slice) {
+        if (layout == Layout.STRING) {
+            return Bytes.toBytes(generateBlockIdFromSliceAndBatch(fileBatch, chrom, slice));
+        }
+        if (slice < 0 || slice > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Slice out of range: " + slice);
+        }
+        byte[] rowKey = new byte[BINARY_KEY_LENGTH];
+        writeBinaryPrefix(rowKey, fileBatch, chrom);
+        Bytes.putInt(rowKey, SLICE_OFFSET, (int) slice);
+        return rowKey;
+    }
+
+    /**
+     * First row key of the region, for a range scan. Includes the slice containing the region start.
+     *
+     * @param fileId File id
+     * @param region Region
+     * @return Start row, inclusive
+     */
+    public byte[] generateRegionStartRow(int fileId, Region region) {
+        return generateBlockIdFromSliceAsBytes(fileId, region.getChromosome(), getSliceId(region.getStart()));
+    }
+
+    /**
+     * Row key after the region, for a range scan. Includes the slice containing the region end.
+     *
+     * @param fileId File id
+     * @param region Region
+     * @return Stop row, exclusive
+     */
+    public byte[] generateRegionStopRow(int fileId, Region region) {
+        return generateBlockIdFromSliceAsBytes(fileId, region.getChromosome(), getSliceId((long) region.getEnd()) + 1);
+    }
+
+    /**
+     * First row key of a chromosome in a file batch, for a range scan.
+     *
+     * @param fileBatch File batch
+     * @param chrom     Chromosome
+     * @return Start row, inclusive
+     */
+    public byte[] generateChromosomeStartRow(int fileBatch, String chrom) {
+        if (layout == Layout.STRING) {
+            return Bytes.toBytes(StringUtils.leftPad(String.valueOf(fileBatch), FILE_BATCH_PAD, '0') + getSeparator()
+                    + Region.normalizeChromosome(chrom) + getSeparator());
+        }
+        byte[] rowKey = new byte[SLICE_OFFSET];
+        writeBinaryPrefix(rowKey, fileBatch, chrom);
+        return rowKey;
+    }
+
+    /**
+     * Row key after the last row of a chromosome in a file batch, for a range scan.
+     *
+     * @param fileBatch File batch
+     * @param chrom     Chromosome
+     * @return Stop row, exclusive
+     */
+    public byte[] generateChromosomeStopRow(int fileBatch, String chrom) {
+        byte[] startRow = generateChromosomeStartRow(fileBatch, chrom);
+        if (layout == Layout.STRING) {
+            // Next char after the separator
+            startRow[startRow.length - 1]++;
+            return startRow;
+        }
+        // Greater than any row key with this prefix
+        byte[] stopRow = Arrays.copyOf(startRow, BINARY_KEY_LENGTH + 1);
+        Arrays.fill(stopRow, SLICE_OFFSET, stopRow.length, (byte) 0xFF);
+        return stopRow;
+    }
+
+    private void writeBinaryPrefix(byte[] rowKey, int fileBatch, String chrom) {
+        int chromosomeCode = getChromosomeCode(chrom);
+        rowKey[SALT_OFFSET] = getSalt(fileBatch, chromosomeCode);
+        Bytes.putInt(rowKey, FILE_BATCH_OFFSET, fileBatch);
+        Bytes.putShort(rowKey, CHROMOSOME_OFFSET, (short) chromosomeCode);
+    }
+
+    private byte getSalt(int fileBatch, int chromosomeCode) {
+        // Spread the chromosomes of one file batch, which are loaded together, across the salt buckets
+        return (byte) Math.floorMod(fileBatch * 31 + chromosomeCode, saltBuckets);
+    }
+
+    private int getChromosomeCode(String chrom) {
+        String chromosome = Region.normalizeChromosome(chrom);
+        Integer code = chromosomeCodes.get(chromosome);
+        if (code == null) {
+            throw new IllegalArgumentException("Chromosome '" + chromosome + "' not found in the archive row key dictionary. "
+                    + "Non standard chromosomes must be registered in the archive table before loading.");
+        }
+        return code;
+    }
+
+    private String getChromosome(int code) {
+        if (code >= FIRST_NON_STANDARD_CHROMOSOME_CODE) {
+            int idx = code - FIRST_NON_STANDARD_CHROMOSOME_CODE;
+            if (idx < chromosomes.size()) {
+                return chromosomes.get(idx);
+            }
+        } else if (code >= FIRST_CHROMOSOME_CODE && code - FIRST_CHROMOSOME_CODE < STANDARD_CHROMOSOMES.size()) {
+            return STANDARD_CHROMOSOMES.get(code - FIRST_CHROMOSOME_CODE);
+        }
+        throw new IllegalStateException("Unknown chromosome code " + code + " in archive row key");
+    }
+
+    private void checkBinaryRowKey(byte[] rowKey) {
+        if (rowKey.length != BINARY_KEY_LENGTH) {
+            throw new IllegalStateException("Invalid archive BINARY row key " + Bytes.toStringBinary(rowKey));
+        }
+    }
+
+    public int extractFileBatchFromBlockId(byte[] rowKey) {
+        if (layout == Layout.STRING) {
+            return extractFileBatchFromBlockId(Bytes.toString(rowKey));
+        }
+        checkBinaryRowKey(rowKey);
+        return Bytes.toInt(rowKey, FILE_BATCH_OFFSET);
+    }
+
+    public String extractChromosomeFromBlockId(byte[] rowKey) {
+        if (layout == Layout.STRING) {
+            return extractChromosomeFromBlockId(Bytes.toString(rowKey));
+        }
+        checkBinaryRowKey(rowKey);
+        return getChromosome(Bytes.toShort(rowKey, CHROMOSOME_OFFSET) & 0xFFFF);
+    }
+
+    public long extractSliceFromBlockId(byte[] rowKey) {
+        if (layout == Layout.STRING) {
+            return extractSliceFromBlockId(Bytes.toString(rowKey));
+        }
+        checkBinaryRowKey(rowKey);
+        return Bytes.toInt(rowKey, SLICE_OFFSET);
+    }
+
+    public long extractPositionFromBlockId(byte[] rowKey) {
+        return getStartPositionFromSlice(extractSliceFromBlockId(rowKey));
+    }
+
+    public Region extractRegionFromBlockId(byte[] rowKey) {
+        if (layout == Layout.STRING) {
+            return extractRegionFromBlockId(Bytes.toString(rowKey));
+        }
+        long position = extractPositionFromBlockId(rowKey);
+        return new Region(extractChromosomeFromBlockId(rowKey), (int) position, (int) (position + getChunkSize()));
+    }
+
+    /**
+     * Readable representation of a row key, in the {@link Layout#STRING} format.
+     *
+     * @param rowKey Row key in the layout of this factory
+     * @return Block id
+     */
+    public String toBlockId(byte[] rowKey) {
+        if (layout == Layout.STRING) {
+            return Bytes.toString(rowKey);
+        }
+        return generateBlockIdFromSliceAndBatch(extractFileBatchFromBlockId(rowKey), extractChromosomeFromBlockId(rowKey),
+                extractSliceFromBlockId(rowKey));
     }
 
     public int extractFileBatchFromBlockId(String blockId) {
@@ -0,0 +1,342 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.hadoop.variant.archive;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.*;
+import org.apache.hadoop.hbase.filter.FirstKeyOnlyFilter;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.mapreduce.TableMapper;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.util.ToolRunner;
+import org.opencb.commons.datastore.core.ObjectMap;
+import org.opencb.opencga.storage.core.exceptions.StorageEngineException;
+import org.opencb.opencga.storage.core.metadata.BatchFileOperation;
+import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
+import org.opencb.opencga.storage.core.metadata.StudyConfigurationManager;
+import org.opencb.opencga.storage.hadoop.utils.AbstractHBaseDriver;
+import org.opencb.opencga.storage.hadoop.utils.HBaseManager;
+import org.opencb.opencga.storage.hadoop.variant.GenomeHelper;
+import org.opencb.opencga.storage.hadoop.variant.HadoopVariantStorageEngine;
+import org.opencb.opencga.storage.hadoop.variant.metadata.HBaseVariantStorageMetadataDBAdaptorFactory;
+import org.opencb.opencga.storage.hadoop.variant.mr.VariantMapReduceUtil;
+import org.opencb.opencga.storage.hadoop.variant.utils.HBaseVariantTableNameGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Copies an archive table with {@link ArchiveRowKeyFactory.Layout#STRING} row keys into a new table with
+ * {@link ArchiveRowKeyFactory.Layout#BINARY} row keys.
+ *
+ * The chromosomes of the source table are registered in the dictionary of the target table before the copy.
+ * If {@link #REPLACE} is set, the source table is replaced by the migrated table after a successful copy.
+ * The study is locked during the whole migration, and it fails if there is any operation in progress in the study.
+ *
+ * Usage: ArchiveRowKeyMigrationDriver [generic options] &lt;archive_table&gt; (&lt;key&gt; &lt;value&gt;)*
+ */
+public class ArchiveRowKeyMigrationDriver extends AbstractHBaseDriver {
+
+    public static final String TARGET_TABLE = "opencga.archive.migration.target_table";
+    public static final String REPLACE = "opencga.archive.migration.replace";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ArchiveRowKeyMigrationDriver.class);
+    private static final String OPERATION_NAME = "migrate archive row keys";
+    private static final long LOCK_DURATION = TimeUnit.MINUTES.toMillis(10);
+    private static final long LOCK_TIMEOUT = TimeUnit.MINUTES.toMillis(1);
+    private String targetTable;
+    private int studyId;
+    private StudyConfigurationManager scm;
+    private Long lock;
+    private ScheduledExecutorService lockRenewer;
+
+    public ArchiveRowKeyMigrationDriver() {
+    }
+
+    public ArchiveRowKeyMigrationDriver(Configuration conf) {
+        if (conf != null) {
+            setConf(conf);
+        }
+    }
+
+    @Override
+    protected String getJobName() {
+        return "opencga: migrate row keys of archive table '" + table + "' into '" + targetTable + '\'';
+    }
+
+    @Override
+    public int run(String[] args) throws Exception {
+        try {
+            return super.run(args);
+        } finally {
+            unLockStudy();
+        }
+    }
+
+    @Override
+    protected void parseAndValidateParameters() throws IOException {
+        super.parseAndValidateParameters();
+        Configuration conf = getConf();
+        targetTable = conf.get(TARGET_TABLE, table + "_binary");
+
+        try (HBaseManager hBaseManager = new HBaseManager(conf)) {
+            if (!hBaseManager.tableExists(table)) {
+                throw new IllegalArgumentException("Table " + table + " does not exist");
+            }
+            lockStudy();
+            Connection con = hBaseManager.getConnection();
+            ArchiveTableHelper.configureRowKeyLayout(con, table, conf);
+            ArchiveRowKeyFactory sourceFactory = new ArchiveRowKeyFactory(conf);
+            if (sourceFactory.getLayout() != ArchiveRowKeyFactory.Layout.STRING) {
+                throw new IllegalArgumentException("Table " + table + " already uses the " + sourceFactory.getLayout() + " layout");
+            }
+
+            Set<String> chromosomes = readChromosomes(con, sourceFactory);
+            LOGGER.info("Found chromosomes {} in table {}", chromosomes, table);
+
+            Configuration targetConf = new Configuration(conf);
+            targetConf.set(HadoopVariantStorageEngine.ARCHIVE_ROW_KEY_LAYOUT, ArchiveRowKeyFactory.Layout.BINARY.name());
+            targetConf.unset(HadoopVariantStorageEngine.ARCHIVE_ROW_KEY_CHROMOSOMES);
+            ArchiveTableHelper.createArchiveTableIfNeeded(new GenomeHelper(targetConf), targetTable, con);
+            ArchiveTableHelper.registerChromosomes(con, targetTable, chromosomes);
+        }
+    }
+
+    /**
+     * Lock the study of the archive table until the end of the migration, renewing the lock periodically.
+     * Fails if there is any operation in progress in the study.
+     */
+    private void lockStudy() throws IOException {
+        studyId = HBaseVariantTableNameGenerator.getStudyIdFromArchiveTable(table);
+        String dbName = HBaseVariantTableNameGenerator.getDBNameFromArchiveTableName(table);
+        scm = new StudyConfigurationManager(new HBaseVariantStorageMetadataDBAdaptorFactory(
+                null, HBaseVariantTableNameGenerator.getMetaTableName(dbName, getConf()), getConf()));
+        try {
+            lock = scm.lockStudy(studyId, LOCK_DURATION, LOCK_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Unable to lock the study " + studyId, e);
+        } catch (TimeoutException e) {
+            throw new IOException("Unable to lock the study " + studyId, e);
+        }
+        lockRenewer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "archive-migration-lock-renewer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        lockRenewer.scheduleAtFixedRate(() -> {
+            try {
+                scm.renewLockStudy(studyId, lock, LOCK_DURATION);
+            } catch (RuntimeException e) {
+                LOGGER.error("Unable to renew the lock of study " + studyId, e);
+            }
+        }, LOCK_DURATION / 2, LOCK_DURATION / 2, TimeUnit.MILLISECONDS);
+
+        StudyConfiguration studyConfiguration = scm.getStudyConfiguration(studyId, null).first();
+        if (studyConfiguration != null) {
+            for (BatchFileOperation operation : studyConfiguration.getBatches()) {
+                if (!BatchFileOperation.Status.READY.equals(operation.currentStatus())) {
+                    throw new IOException(StorageEngineException.otherOperationInProgressException(operation, OPERATION_NAME,
+                            Collections.emptyList()));
+                }
+            }
+        }
+    }
+
+    private void unLockStudy() throws IOException {
+        if (lockRenewer != null) {
+            lockRenewer.shutdownNow();
+            lockRenewer = null;
+        }
+        if (scm != null) {
+            try {
+                if (lock != null) {
+                    scm.unLockStudy(studyId, lock);
+                    lock = null;
+                }
+            } finally {
+                scm.close();
+                scm = null;
+            }
+        }
+    }
+
+    /**
+     * Read the chromosomes of each file batch, jumping from one chromosome to the next one.
+     */
+    private Set<String> readChromosomes(Connection con, ArchiveRowKeyFactory sourceFactory) throws IOException {
+        Set<String> chromosomes = new LinkedHashSet<>();
+        char nextSeparator = (char) (sourceFactory.getSeparator() + 1);
+        try (Table hTable = con.getTable(TableName.valueOf(table))) {
+            byte[] startRow = new byte[0];
+            while (true) {
+                Scan scan = new Scan(startRow)
+                        .setFilter(new FirstKeyOnlyFilter())
+                        .setCaching(1)
+                        .setCacheBlocks(false);
+                Result result;
+                try (ResultScanner scanner = hTable.getScanner(scan)) {
+                    result = scanner.next();
+                }
+                if (result == null) {
+                    break;
+                }
+                String[] split = sourceFactory.splitBlockId(Bytes.toString(result.getRow()));
+                chromosomes.add(split[1]);
+                startRow = Bytes.toBytes(split[0] + sourceFactory.getSeparator() + split[1] + nextSeparator);
+            }
+        }
+        return chromosomes;
+    }
+
+    @Override
+    protected void setupJob(Job job, String table) throws IOException {
+        Scan scan = new Scan();
+        int caching = job.getConfiguration().getInt(HadoopVariantStorageEngine.MAPREDUCE_HBASE_SCAN_CACHING, 50);
+        LOGGER.info("Scan set Caching to " + caching);
+        scan.setCaching(caching);
+        scan.setCacheBlocks(false);
+        scan.setMaxVersions();
+        job.getConfiguration().set(TARGET_TABLE, targetTable);
+
+        VariantMapReduceUtil.initTableMapperJob(job, table, targetTable, scan, ArchiveRowKeyMigrationMapper.class);
+    }
+
+    @Override
+    protected void postExecution(boolean succeed) throws IOException, StorageEngineException {
+        super.postExecution(succeed);
+        if (succeed && getConf().getBoolean(REPLACE, false)) {
+            replaceTable();
+        }
+    }
+
+    /**
+     * Replace the source table with the migrated table.
+     *
+     * The snapshot of the migrated table is first cloned into a temporary table, to check that it can be cloned.
+     * Then, the source table is deleted, after taking a backup snapshot, and the migrated table is cloned with the
+     * source table name. If this last clone fails, the source table is restored from the backup.
+     */
+    private void replaceTable() throws IOException {
+        long timestamp = System.currentTimeMillis();
+        String snapshot = targetTable.replace(':', '_') + "_snapshot_" + timestamp;
+        String backupSnapshot = table.replace(':', '_') + "_backup_" + timestamp;
+        try (HBaseManager hBaseManager = new HBaseManager(getConf());
+             Admin admin = hBaseManager.getConnection().getAdmin()) {
+            TableName source = TableName.valueOf(table);
+            TableName target = TableName.valueOf(targetTable);
+            TableName tmp = TableName.valueOf(table + "_migration_" + timestamp);
+            LOGGER.info("Replace table {} with {}", table, targetTable);
+            admin.disableTable(target);
+            admin.snapshot(snapshot, target);
+
+            LOGGER.info("Clone snapshot {} into temporary table {}", snapshot, tmp);
+            admin.cloneSnapshot(snapshot, tmp);
+            if (!admin.isTableAvailable(tmp)) {
+                throw new IOException("Unable to clone snapshot " + snapshot + " into table " + tmp);
+            }
+
+            admin.snapshot(backupSnapshot, source);
+            admin.disableTable(source);
+            admin.deleteTable(source);
+            try {
+                admin.cloneSnapshot(snapshot, source);
+            } catch (IOException | RuntimeException e) {
+                LOGGER.error("Unable to clone snapshot " + snapshot + " into table " + source + ". Restore from " + backupSnapshot, e);
+                if (admin.tableExists(source)) {
+                    if (admin.isTableEnabled(source)) {
+                        admin.disableTable(source);
+                    }
+                    admin.deleteTable(source);
+                }
+                admin.cloneSnapshot(backupSnapshot, source);
+                throw e;
+            }
+
+            admin.disableTable(tmp);
+            admin.deleteTable(tmp);
+            admin.deleteTable(target);
+            admin.deleteSnapshot(snapshot);
+            admin.deleteSnapshot(backupSnapshot);
+            LOGGER.info("Table {} replaced", table);
+        }
+    }
+
+    public static String[] buildArgs(String archiveTable, ObjectMap options) {
+        return AbstractHBaseDriver.buildArgs(archiveTable, options == null ? new ObjectMap() : options);
+    }
+
+    public static void main(String[] args) throws Exception {
+        try {
+            System.exit(new ArchiveRowKeyMigrationDriver().privateMain(args, null));
+        } catch (Exception e) {
+            LOGGER.error("Error executing " + ArchiveRowKeyMigrationDriver.class, e);
+            System.exit(1);
+        }
+    }
+
+    public int privateMain(String[] args, Configuration conf) throws Exception {
+        if (conf != null) {
+            setConf(conf);
+        }
+        return ToolRunner.run(this, args);
+    }
+
+    public static class ArchiveRowKeyMigrationMapper extends TableMapper<ImmutableBytesWritable, Mutation> {
+
+        private ArchiveRowKeyFactory sourceFactory;
+        private ArchiveRowKeyFactory targetFactory;
+
+        @Override
+        protected void setup(Context context) throws IOException, InterruptedException {
+            Configuration conf = context.getConfiguration();
+            sourceFactory = new ArchiveRowKeyFactory(conf);
+            try (HBaseManager hBaseManager = new HBaseManager(conf)) {
+                targetFactory = new ArchiveRowKeyFactory(ArchiveTableHelper.configureRowKeyLayout(hBaseManager.getConnection(),
+                        conf.get(TARGET_TABLE), new Configuration(conf)));
+            }
+        }
+
+        @Override
+        protected void map(ImmutableBytesWritable key, Result result, Context context) throws IOException, InterruptedException {
+            byte[] row = result.getRow();
+            byte[] newRow = targetFactory.generateBlockIdFromSliceAndBatchAsBytes(
+                    sourceFactory.extractFileBatchFromBlockId(row),
+                    sourceFactory.extractChromosomeFromBlockId(row),
+                    sourceFactory.extractSliceFromBlockId(row));
+            Put put = new Put(newRow);
+            for (Cell cell : result.rawCells()) {
+                put.addColumn(CellUtil.cloneFamily(cell), CellUtil.cloneQualifier(cell), cell.getTimestamp(), CellUtil.cloneValue(cell));
+            }
+            context.write(new ImmutableBytesWritable(newRow), put);
+            context.getCounter("ArchiveRowKeyMigration", "ROWS").increment(1);
+            context.getCounter("ArchiveRowKeyMigration", "BYTES_SAVED").increment(row.length - newRow.length);
+        }
+    }
+}
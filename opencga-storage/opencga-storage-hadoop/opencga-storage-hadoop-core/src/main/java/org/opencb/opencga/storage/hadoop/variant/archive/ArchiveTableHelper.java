@@ -19,12 +19,16 @@
  */
 package org.opencb.opencga.storage.hadoop.variant.archive;
 
+import org.apache.commons.lang3.StringUtils;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.hbase.client.Connection;
 import org.apache.hadoop.hbase.client.ConnectionFactory;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.io.compress.Compression;
 import org.apache.hadoop.hbase.util.Bytes;
+import org.opencb.biodata.models.core.Region;
 import org.opencb.biodata.models.variant.VariantFileMetadata;
 import org.opencb.biodata.models.variant.metadata.VariantStudyMetadata;
 import org.opencb.biodata.models.variant.protobuf.VcfSliceProtos.VcfSlice;
@@ -37,10 +41,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
 import java.util.concurrent.atomic.AtomicReference;
 
+import static org.opencb.opencga.storage.hadoop.variant.HadoopVariantStorageEngine.*;
+
 /**
  * @author Matthias Haimel mh719+git@cam.ac.uk.
  */
@@ -51,7 +56,7 @@ public class ArchiveTableHelper extends GenomeHelper {
     public static final String REF_COLUMN_SUFIX = "_R";
     public static final byte[] REF_COLUMN_SUFIX_BYTES = Bytes.toBytes(REF_COLUMN_SUFIX);
 
-    private final Logger logger = LoggerFactory.getLogger(ArchiveTableHelper.class);
+    private static final Logger LOGGER = LoggerFactory.getLogger(ArchiveTableHelper.class);
     private final AtomicReference<VariantFileMetadata> meta = new AtomicReference<>();
     private final ArchiveRowKeyFactory keyFactory;
     private final byte[] nonRefColumn;
@@ -189,7 +194,86 @@ public class ArchiveTableHelper extends GenomeHelper {
         Compression.Algorithm compression = Compression.getCompressionAlgorithmByName(
                 genomeHelper.getConf().get(HadoopVariantStorageEngine.ARCHIVE_TABLE_COMPRESSION, Compression.Algorithm.SNAPPY.getName()));
         final List<byte[]> preSplits = generateArchiveTableBootPreSplitHuman(genomeHelper.getConf());
-        return HBaseManager.createTableIfNeeded(con, tableName, genomeHelper.getColumnFamily(), preSplits, compression);
+        // Store the row key layout in the table metadata. Tables without this value use the STRING layout.
+        ArchiveRowKeyFactory rowKeyFactory = new ArchiveRowKeyFactory(genomeHelper.getConf());
+        Map<String, String> tableValues = new HashMap<>();
+        tableValues.put(ARCHIVE_ROW_KEY_LAYOUT, rowKeyFactory.getLayout().name());
+        if (rowKeyFactory.getLayout() == ArchiveRowKeyFactory.Layout.BINARY) {
+            tableValues.put(ARCHIVE_ROW_KEY_SALT_BUCKETS, String.valueOf(rowKeyFactory.getSaltBuckets()));
+            tableValues.put(ARCHIVE_ROW_KEY_CHROMOSOMES, StringUtils.join(rowKeyFactory.getChromosomes(), ','));
+        }
+        return HBaseManager.createTableIfNeeded(con, tableName, genomeHelper.getColumnFamily(), preSplits, compression, tableValues);
+    }
+
+    /**
+     * Copy the row key layout from the archive table metadata into the configuration.
+     * Does nothing if the table does not exist.
+     *
+     * @param con       HBase connection
+     * @param tableName Archive table name
+     * @param conf      Configuration to modify
+     * @return The same configuration
+     * @throws IOException on error reading the table metadata
+     */
+    public static Configuration configureRowKeyLayout(Connection con, String tableName, Configuration conf) throws IOException {
+        HTableDescriptor descriptor = HBaseManager.act(con, tableName, (table, admin) -> {
+            TableName tName = TableName.valueOf(tableName);
+            return admin.tableExists(tName) ? admin.getTableDescriptor(tName) : null;
+        });
+        if (descriptor != null) {
+            configureRowKeyLayout(descriptor, conf);
+        }
+        return conf;
+    }
+
+    private static void configureRowKeyLayout(HTableDescriptor descriptor, Configuration conf) {
+        String layout = descriptor.getValue(ARCHIVE_ROW_KEY_LAYOUT);
+        conf.set(ARCHIVE_ROW_KEY_LAYOUT, layout == null ? ArchiveRowKeyFactory.Layout.STRING.name() : layout);
+        String saltBuckets = descriptor.getValue(ARCHIVE_ROW_KEY_SALT_BUCKETS);
+        if (saltBuckets != null) {
+            conf.set(ARCHIVE_ROW_KEY_SALT_BUCKETS, saltBuckets);
+        }
+        String chromosomes = descriptor.getValue(ARCHIVE_ROW_KEY_CHROMOSOMES);
+        conf.set(ARCHIVE_ROW_KEY_CHROMOSOMES, chromosomes == null ? "" : chromosomes);
+    }
+
+    /**
+     * Add new non standard chromosomes to the row key dictionary of an archive table with {@link ArchiveRowKeyFactory.Layout#BINARY}
+     * layout. Chromosomes already registered keep their code.
+     *
+     * Concurrent calls for the same table must be synchronized by the caller, e.g. with the study lock.
+     *
+     * @param con         HBase connection
+     * @param tableName   Archive table name
+     * @param chromosomes Chromosomes to register
+     * @return Number of new chromosomes
+     * @throws IOException on error modifying the table metadata
+     */
+    public static int registerChromosomes(Connection con, String tableName, Collection<String> chromosomes) throws IOException {
+        return HBaseManager.act(con, tableName, (table, admin) -> {
+            TableName tName = TableName.valueOf(tableName);
+            HTableDescriptor descriptor = admin.getTableDescriptor(tName);
+            Configuration conf = new Configuration(false);
+            configureRowKeyLayout(descriptor, conf);
+            ArchiveRowKeyFactory rowKeyFactory = new ArchiveRowKeyFactory(conf);
+            if (rowKeyFactory.getLayout() != ArchiveRowKeyFactory.Layout.BINARY) {
+                return 0;
+            }
+            Set<String> newChromosomes = new LinkedHashSet<>();
+            for (String chromosome : chromosomes) {
+                if (!rowKeyFactory.hasChromosomeCode(chromosome)) {
+                    newChromosomes.add(Region.normalizeChromosome(chromosome));
+                }
+            }
+            if (!newChromosomes.isEmpty()) {
+                List<String> dictionary = new ArrayList<>(rowKeyFactory.getChromosomes());
+                dictionary.addAll(newChromosomes);
+                descriptor.setValue(ARCHIVE_ROW_KEY_CHROMOSOMES, StringUtils.join(dictionary, ','));
+                admin.modifyTable(tName, descriptor);
+                LOGGER.info("Register chromosomes {} in archive table {}", newChromosomes, tableName);
+            }
+            return newChromosomes.size();
+        });
     }
 
     public static List<byte[]> generateArchiveTableBootPreSplitHuman(Configuration conf) {
@@ -206,7 +290,7 @@ public class ArchiveTableHelper extends GenomeHelper {
         for (int batch = 0; batch <= expectedNumBatches; batch++) {
             int finalBatch = batch;
             preSplits.addAll(generateBootPreSplitsHuman(nSplits, (chr, start) ->
-                    Bytes.toBytes(rowKeyFactory.generateBlockIdFromSliceAndBatch(finalBatch, chr, start))));
+                    rowKeyFactory.generateBlockIdFromSliceAndBatchAsBytes(finalBatch, chr, rowKeyFactory.getSliceId(start))));
         }
         return preSplits;
     }
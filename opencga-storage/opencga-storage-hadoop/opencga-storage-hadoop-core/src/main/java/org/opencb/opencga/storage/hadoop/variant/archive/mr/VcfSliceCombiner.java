@@ -20,7 +20,6 @@
 package org.opencb.opencga.storage.hadoop.variant.archive.mr;
 
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
-import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.mapreduce.Reducer;
 import org.opencb.biodata.models.variant.Variant;
 import org.opencb.biodata.models.variant.protobuf.VcfSliceProtos.VcfSlice;
@@ -62,8 +61,7 @@ public class VcfSliceCombiner extends Reducer<ImmutableBytesWritable, VcfSliceWr
             variants.addAll(converterFromSlice.convert(vcfSlice.get()));
         }
 
-        String keyStr = Bytes.toString(key.get());
-        int position = (int) keyFactory.extractPositionFromBlockId(keyStr);
+        int position = (int) keyFactory.extractPositionFromBlockId(key.copyBytes());
         VcfSlice slice = converterToSlice.convert(variants, position);
         cxt.getCounter("OPENCGA.HBASE", "VCF_SLICE_SIZE").increment(slice.getRecordsCount());
 
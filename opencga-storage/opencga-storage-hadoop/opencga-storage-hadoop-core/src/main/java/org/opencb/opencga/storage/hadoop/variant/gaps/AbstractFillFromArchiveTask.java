@@ -2,7 +2,9 @@ package org.opencb.opencga.storage.hadoop.variant.gaps;
 
 import com.google.protobuf.InvalidProtocolBufferException;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.tuple.Pair;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Result;
@@ -28,7 +30,8 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
+import java.util.function.Function;
 
 import static org.opencb.opencga.storage.hadoop.variant.HadoopVariantStorageEngine.TARGET_VARIANT_TYPE_SET;
 
@@ -50,13 +53,17 @@ public abstract class AbstractFillFromArchiveTask implements Task<Result, Abstra
     protected final StudyConfiguration studyConfiguration;
     protected final GenomeHelper helper;
     protected final FillGapsTask fillGapsTask;
+    // One FillGapsTask for each parallel worker. The first one is fillGapsTask
+    private final List<FillGapsTask> fillGapsTasks = new ArrayList<>();
+    private final boolean skipReferenceVariants;
+    private ExecutorService executor;
     protected final SortedSet<Integer> fileIds;
     protected final Map<Integer, byte[]> fileToNonRefColumnMap;
     protected final Logger logger = LoggerFactory.getLogger(AbstractFillFromArchiveTask.class);
     protected final ArchiveRowKeyFactory rowKeyFactory;
     protected long timestamp = HConstants.LATEST_TIMESTAMP;
 
-    private final Map<String, Long> stats = new HashMap<>();
+    private final Map<String, Long> stats = new ConcurrentHashMap<>();
 
     public static final class FillResult {
         private List<Put> variantPuts;
@@ -114,12 +121,31 @@ public abstract class AbstractFillFromArchiveTask implements Task<Result, Abstra
             }
         }
 
+        this.skipReferenceVariants = skipReferenceVariants;
         fillGapsTask = new FillGapsTask(studyConfiguration, helper, skipReferenceVariants);
+        fillGapsTasks.add(fillGapsTask);
         rowKeyFactory = new ArchiveRowKeyFactory(helper.getConf());
     }
 
     public void setQuiet(boolean quiet) {
-        fillGapsTask.setQuiet(quiet);
+        for (FillGapsTask task : fillGapsTasks) {
+            task.setQuiet(quiet);
+        }
+    }
+
+    /**
+     * Process the files of each archive row in parallel.
+     *
+     * @param parallelFiles Max number of threads processing files from the same row
+     */
+    public void setParallelFiles(int parallelFiles) {
+        boolean quiet = fillGapsTask.isQuiet();
+        while (fillGapsTasks.size() < parallelFiles) {
+            fillGapsTasks.add(new FillGapsTask(studyConfiguration, helper, skipReferenceVariants).setQuiet(quiet));
+        }
+        while (fillGapsTasks.size() > Math.max(1, parallelFiles)) {
+            fillGapsTasks.remove(fillGapsTasks.size() - 1);
+        }
     }
 
     public void setTimestamp(long timestamp) {
@@ -134,7 +160,12 @@ public abstract class AbstractFillFromArchiveTask implements Task<Result, Abstra
     public void pre() throws IOException { }
 
     @Override
-    public void post() throws IOException { }
+    public void post() throws IOException {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
 
     @Override
     public List<FillResult> apply(List<Result> list) throws IOException {
@@ -169,51 +200,108 @@ public abstract class AbstractFillFromArchiveTask implements Task<Result, Abstra
         // Store all PUT operations, one for each variant
         Map<Variant, Put> putsMap = new TreeMap<>(VARIANT_COMPARATOR);
         List<Put> sampleIndexPuts = new ArrayList<>();
-        for (Map.Entry<Integer, List<Variant>> entry : fileToVariantsMap.entrySet()) {
-            Integer fileId = entry.getKey();
-            List<Variant> variants = entry.getValue();
+        List<Integer> files = new ArrayList<>(fileToVariantsMap.keySet());
+        int numWorkers = Math.min(fillGapsTasks.size(), files.size());
+        if (numWorkers <= 1) {
+            fillGaps(context, fileToVariantsMap, files, fillGapsTask, putsMap, this::createPut, sampleIndexPuts);
+        } else {
+            // Split the files in contiguous groups, each one processed by a different worker with its own puts.
+            List<Future<Pair<Map<Variant, Put>, List<Put>>>> futures = new ArrayList<>(numWorkers);
+            for (int i = 0; i < numWorkers; i++) {
+                List<Integer> workerFiles = files.subList(files.size() * i / numWorkers, files.size() * (i + 1) / numWorkers);
+                FillGapsTask workerTask = fillGapsTasks.get(i);
+                futures.add(getExecutor().submit(() -> {
+                    Map<Variant, Put> workerPuts = new HashMap<>();
+                    List<Put> workerSampleIndexPuts = new ArrayList<>();
+                    fillGaps(context, fileToVariantsMap, workerFiles, workerTask, workerPuts,
+                            v -> new Put(VariantPhoenixKeyFactory.generateVariantRowKey(v), timestamp), workerSampleIndexPuts);
+                    return Pair.of(workerPuts, workerSampleIndexPuts);
+                }));
+            }
+            // Merge results in order
+            for (Future<Pair<Map<Variant, Put>, List<Put>>> future : futures) {
+                Pair<Map<Variant, Put>, List<Put>> workerResult = getFuture(future);
+                for (Map.Entry<Variant, Put> entry : workerResult.getLeft().entrySet()) {
+                    Put put = putsMap.computeIfAbsent(entry.getKey(), this::createPut);
+                    for (List<Cell> cells : entry.getValue().getFamilyCellMap().values()) {
+                        for (Cell cell : cells) {
+                            put.add(cell);
+                        }
+                    }
+                }
+                sampleIndexPuts.addAll(workerResult.getRight());
+            }
+        }
+
+        List<Put> variantPuts = new ArrayList<>(variantsToFill.size());
+        for (Put put : putsMap.values()) {
+            if (!put.isEmpty()) {
+                variantPuts.add(put);
+            } else {
+                increment("PUTS_EMPTY", context.fileBatch, 1);
+            }
+        }
+        if (variantPuts.isEmpty()) {
+            increment("PUTS_NONE", context.fileBatch, 1);
+        } else {
+            increment("PUTS", context.fileBatch, variantPuts.size());
+        }
+        return new FillResult(variantPuts, sampleIndexPuts);
+    }
+
+    private void fillGaps(Context context, SortedMap<Integer, List<Variant>> fileToVariantsMap, List<Integer> files,
+                          FillGapsTask task, Map<Variant, Put> putsMap, Function<Variant, Put> putFactory, List<Put> sampleIndexPuts)
+            throws IOException {
+        for (Integer fileId : files) {
+            List<Variant> variants = fileToVariantsMap.get(fileId);
 
             VcfSlicePair vcfSlicePair = context.getVcfSlice(fileId);
             if (vcfSlicePair == null) {
                 continue;
             }
-            VcfSlice nonRefVcfSlice = vcfSlicePair.getNonRefVcfSlice();
-            ListIterator<VcfSliceProtos.VcfRecord> nonRefIterator = nonRefVcfSlice == null
-                    ? Collections.<VcfSliceProtos.VcfRecord>emptyList().listIterator()
-                    : nonRefVcfSlice.getRecordsList().listIterator();
-            VcfSlice refVcfSlice = vcfSlicePair.getRefVcfSlice();
-            ListIterator<VcfSliceProtos.VcfRecord> refIterator = refVcfSlice == null
-                    ? Collections.<VcfSliceProtos.VcfRecord>emptyList().listIterator()
-                    : refVcfSlice.getRecordsList().listIterator();
-
+            VcfSliceIndex nonRefIndex = vcfSlicePair.getNonRefIndex();
+            VcfSliceIndex refIndex = vcfSlicePair.getRefIndex();
 
             Set<Integer> sampleIds = studyConfiguration.getSamplesInFiles().get(fileId);
             for (Variant variant : variants) {
-                Put put = putsMap.computeIfAbsent(variant, this::createPut);
+                Put put = putsMap.computeIfAbsent(variant, putFactory);
 
                 StopWatch stopWatch = new StopWatch().start();
-                VariantOverlappingStatus overlappingStatus = fillGapsTask.fillGaps(variant, sampleIds, put, sampleIndexPuts, fileId,
-                        nonRefVcfSlice, nonRefIterator, refVcfSlice, refIterator);
+                VariantOverlappingStatus overlappingStatus = task.fillGaps(variant, sampleIds, put, sampleIndexPuts, fileId,
+                        nonRefIndex, refIndex);
                 increment("OVERLAPPING_STATUS_" + String.valueOf(overlappingStatus), context.fileBatch, 1);
                 increment("OVERLAPPING_STATUS_" + String.valueOf(overlappingStatus), context.fileBatch, stopWatch);
             }
             context.clearVcfSlice(fileId);
         }
+    }
 
-        List<Put> variantPuts = new ArrayList<>(variantsToFill.size());
-        for (Put put : putsMap.values()) {
-            if (!put.isEmpty()) {
-                variantPuts.add(put);
+    private ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(fillGapsTasks.size(), r -> {
+                Thread thread = new Thread(r, "fill-gaps");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executor;
+    }
+
+    private static <T> T getFuture(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
             } else {
-                increment("PUTS_EMPTY", context.fileBatch, 1);
+                throw new IOException(e.getCause());
             }
         }
-        if (variantPuts.isEmpty()) {
-            increment("PUTS_NONE", context.fileBatch, 1);
-        } else {
-            increment("PUTS", context.fileBatch, variantPuts.size());
-        }
-        return new FillResult(variantPuts, sampleIndexPuts);
     }
 
     protected Put createPut(Variant v) {
@@ -237,10 +325,10 @@ public abstract class AbstractFillFromArchiveTask implements Task<Result, Abstra
         protected Context(Result result) throws IOException {
             this.rowKey = result.getRow();
             this.result = result;
-            String blockId = Bytes.toString(rowKey);
-            region = rowKeyFactory.extractRegionFromBlockId(blockId);
+            String blockId = rowKeyFactory.toBlockId(rowKey);
+            region = rowKeyFactory.extractRegionFromBlockId(rowKey);
 
-            fileBatch = rowKeyFactory.extractFileBatchFromBlockId(blockId);
+            fileBatch = rowKeyFactory.extractFileBatchFromBlockId(rowKey);
             this.fileIdsInBatch = new TreeSet<>();
             for (Integer fileId : AbstractFillFromArchiveTask.this.fileIds) {
                 if (rowKeyFactory.getFileBatch(fileId) == fileBatch) {
@@ -252,7 +340,8 @@ public abstract class AbstractFillFromArchiveTask implements Task<Result, Abstra
                         + " without any file from " + AbstractFillFromArchiveTask.this.fileIds);
             }
 
-            filesMap = new HashMap<>();
+            // Accessed concurrently when processing files in parallel
+            filesMap = Collections.synchronizedMap(new HashMap<>());
 
 //            StopWatch stopWatch = new StopWatch().start();
 //            variants = extractVariantsToFill();
@@ -270,7 +359,7 @@ public abstract class AbstractFillFromArchiveTask implements Task<Result, Abstra
                 if (pair == null) {
                     if (fileBatch != rowKeyFactory.getFileBatch(fileId)) {
                         // This should never happen
-                        logger.warn("Skip VcfSlice for file " + fileId + " in RK " + Bytes.toString(rowKey));
+                        logger.warn("Skip VcfSlice for file " + fileId + " in RK " + rowKeyFactory.toBlockId(rowKey));
                     }
                     vcfSliceNotFound(fileId);
                 }
@@ -288,7 +377,7 @@ public abstract class AbstractFillFromArchiveTask implements Task<Result, Abstra
                     increment("PARSE_VCF_SLICE", fileBatch, stopWatch);
                     increment("PARSE_VCF_SLICE", fileBatch, 1);
                 } catch (InvalidProtocolBufferException | RuntimeException e) {
-                    throw new IOException("Error parsing data from row " + Bytes.toString(rowKey), e);
+                    throw new IOException("Error parsing data from row " + rowKeyFactory.toBlockId(rowKey), e);
                 }
             } else {
                 vcfSlice = null;
@@ -310,6 +399,8 @@ public abstract class AbstractFillFromArchiveTask implements Task<Result, Abstra
     public static class VcfSlicePair {
         private final VcfSlice nonRefVcfSlice;
         private final VcfSlice refVcfSlice;
+        private VcfSliceIndex nonRefIndex;
+        private VcfSliceIndex refIndex;
 
         public VcfSlicePair(VcfSlice nonRefVcfSlice, VcfSlice refVcfSlice) {
             this.nonRefVcfSlice = nonRefVcfSlice;
@@ -323,6 +414,20 @@ public abstract class AbstractFillFromArchiveTask implements Task<Result, Abstra
         public VcfSlice getRefVcfSlice() {
             return refVcfSlice;
         }
+
+        public VcfSliceIndex getNonRefIndex() {
+            if (nonRefIndex == null && nonRefVcfSlice != null) {
+                nonRefIndex = new VcfSliceIndex(nonRefVcfSlice);
+            }
+            return nonRefIndex;
+        }
+
+        public VcfSliceIndex getRefIndex() {
+            if (refIndex == null && refVcfSlice != null) {
+                refIndex = new VcfSliceIndex(refVcfSlice);
+            }
+            return refIndex;
+        }
     }
 
     protected static Scan buildScan(Configuration conf) {
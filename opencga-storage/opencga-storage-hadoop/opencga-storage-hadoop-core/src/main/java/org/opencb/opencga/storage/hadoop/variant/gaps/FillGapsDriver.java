@@ -9,6 +9,7 @@ import org.apache.hadoop.io.BytesWritable;
 import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.compress.DeflateCodec;
 import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.MRJobConfig;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 import org.apache.hadoop.mapreduce.lib.output.SequenceFileAsBinaryOutputFormat;
 import org.opencb.commons.datastore.core.Query;
@@ -79,6 +80,14 @@ public class FillGapsDriver extends AbstractVariantsTableDriver {
 
             int caching = getConf().getInt(HadoopVariantStorageEngine.MAPREDUCE_HBASE_SCAN_CACHING, 50);
             logger.info("Scan set Caching to " + caching);
+
+            // Each map task processes the files of an archive row in parallel. Request one vcore per thread.
+            int parallelFiles = getConf().getInt(HadoopVariantStorageEngine.FILL_GAPS_PARALLEL_FILES,
+                    HadoopVariantStorageEngine.FILL_GAPS_PARALLEL_FILES_DEFAULT);
+            if (job.getConfiguration().getInt(MRJobConfig.MAP_CPU_VCORES, MRJobConfig.DEFAULT_MAP_CPU_VCORES) < parallelFiles) {
+                logger.info("Set " + MRJobConfig.MAP_CPU_VCORES + " to " + parallelFiles);
+                job.getConfiguration().setInt(MRJobConfig.MAP_CPU_VCORES, parallelFiles);
+            }
             for (int i = 0; i < scans.size(); i++) {
                 Scan scan = scans.get(i);
                 scan.setCaching(caching);        // 1 is the default in Scan, 200 caused timeout issues.
@@ -6,6 +6,7 @@ import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.mapreduce.Job;
+import org.opencb.opencga.storage.hadoop.variant.HadoopVariantStorageEngine;
 import org.opencb.opencga.storage.hadoop.variant.archive.ArchiveDriver;
 import org.opencb.opencga.storage.hadoop.variant.index.AbstractArchiveTableMapper;
 import org.opencb.opencga.storage.hadoop.variant.mr.VariantsTableMapReduceHelper;
@@ -71,6 +72,8 @@ public class FillGapsFromArchiveMapper extends AbstractArchiveTableMapper {
         }
         task.setTimestamp(timestamp);
         task.setQuiet(true);
+        task.setParallelFiles(context.getConfiguration().getInt(HadoopVariantStorageEngine.FILL_GAPS_PARALLEL_FILES,
+                HadoopVariantStorageEngine.FILL_GAPS_PARALLEL_FILES_DEFAULT));
         task.pre();
 
         variantsTable = new ImmutableBytesWritable(getHelper().getVariantsTable());
@@ -138,7 +138,7 @@ public class FillGapsFromVariantTask implements TaskWithException<Variant, Put,
         for (Integer missingSample : missingSamples) {
             fileIds.add(samplesFileMap.get(missingSample));
         }
-        Get get = new Get(Bytes.toBytes(archiveRowKeyFactory.generateBlockId(variant, anyFileId)));
+        Get get = new Get(archiveRowKeyFactory.generateBlockIdAsBytes(anyFileId, variant.getChromosome(), variant.getStart()));
         for (Integer fileId : fileIds) {
             get.addColumn(helper.getColumnFamily(), fileToNonRefColumnMap.get(fileId));
         }
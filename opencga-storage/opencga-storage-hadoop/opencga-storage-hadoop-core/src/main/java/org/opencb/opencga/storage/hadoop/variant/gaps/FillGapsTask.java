@@ -59,6 +59,10 @@ public class FillGapsTask {
         variantMerger = new VariantMerger(false).configure(studyConfiguration.getVariantHeader());
     }
 
+    public boolean isQuiet() {
+        return quiet;
+    }
+
     public FillGapsTask setQuiet(boolean quiet) {
         this.quiet = quiet;
         return this;
@@ -76,13 +80,6 @@ public class FillGapsTask {
                                              Integer fileId,
                                              VcfSliceProtos.VcfSlice nonRefVcfSlice, ListIterator<VcfSliceProtos.VcfRecord> nonRefIterator,
                                              VcfSliceProtos.VcfSlice refVcfSlice, ListIterator<VcfSliceProtos.VcfRecord> refIterator) {
-        final VariantOverlappingStatus overlappingStatus;
-
-        // Three scenarios:
-        //  Overlap with NO_VARIATION,
-        //  Overlap with another variant
-        //  No overlap
-
         List<Pair<VcfSliceProtos.VcfSlice, VcfSliceProtos.VcfRecord>> overlappingRecords = new ArrayList<>(1);
         if (nonRefVcfSlice != null) {
             boolean isVariantAlreadyLoaded = getOverlappingVariants(variant, fileId, nonRefVcfSlice, nonRefIterator, overlappingRecords);
@@ -98,6 +95,48 @@ public class FillGapsTask {
                 logger.warn(msg);
             }
         }
+        return fillGaps(variant, missingSamples, put, sampleIndexPuts, fileId, overlappingRecords);
+    }
+
+    /**
+     * Fill the gaps of a variant for one file, finding the overlapping records with the VcfSlice indexes.
+     *
+     * @param variant           Variant to fill
+     * @param missingSamples    Samples to fill
+     * @param put               Put of the variant
+     * @param sampleIndexPuts   List to add the pending sample index puts
+     * @param fileId            File id
+     * @param nonRefIndex       Index of the non ref VcfSlice, if any
+     * @param refIndex          Index of the ref VcfSlice, if any
+     * @return                  Overlapping status
+     */
+    public VariantOverlappingStatus fillGaps(Variant variant, Set<Integer> missingSamples, Put put, List<Put> sampleIndexPuts,
+                                             Integer fileId, VcfSliceIndex nonRefIndex, VcfSliceIndex refIndex) {
+        List<Pair<VcfSliceProtos.VcfSlice, VcfSliceProtos.VcfRecord>> overlappingRecords = new ArrayList<>(1);
+        if (nonRefIndex != null) {
+            boolean isVariantAlreadyLoaded = getOverlappingVariants(variant, nonRefIndex, overlappingRecords);
+            if (isVariantAlreadyLoaded) {
+                return VariantOverlappingStatus.NONE;
+            }
+        }
+        if (refIndex != null) {
+            boolean isVariantAlreadyLoaded = getOverlappingVariants(variant, refIndex, overlappingRecords);
+            if (isVariantAlreadyLoaded) {
+                logger.warn("Found that the variant " + variant + " was already loaded in refVcfSlice!");
+            }
+        }
+        return fillGaps(variant, missingSamples, put, sampleIndexPuts, fileId, overlappingRecords);
+    }
+
+    private VariantOverlappingStatus fillGaps(Variant variant, Set<Integer> missingSamples, Put put, List<Put> sampleIndexPuts,
+                                              Integer fileId,
+                                              List<Pair<VcfSliceProtos.VcfSlice, VcfSliceProtos.VcfRecord>> overlappingRecords) {
+        final VariantOverlappingStatus overlappingStatus;
+
+        // Three scenarios:
+        //  Overlap with NO_VARIATION,
+        //  Overlap with another variant
+        //  No overlap
 
         final VcfSliceProtos.VcfRecord vcfRecord;
         final VcfSliceProtos.VcfSlice vcfSlice;
@@ -343,6 +382,36 @@ public class FillGapsTask {
         return isAlreadyPresent;
     }
 
+    /**
+     * Get the records overlapping the variant from a VcfSlice index.
+     *
+     * @param variant            Variant
+     * @param index              VcfSlice index
+     * @param overlappingRecords List to add the overlapping records
+     * @return                   If the variant was already loaded from this VcfSlice
+     */
+    public boolean getOverlappingVariants(Variant variant, VcfSliceIndex index,
+                                          List<Pair<VcfSliceProtos.VcfSlice, VcfSliceProtos.VcfRecord>> overlappingRecords) {
+        VcfSliceProtos.VcfSlice vcfSlice = index.getVcfSlice();
+        String chromosome = vcfSlice.getChromosome();
+        int position = vcfSlice.getPosition();
+        for (VcfSliceProtos.VcfRecord vcfRecord : index.getOverlappingRecords(variant)) {
+            if (skipReferenceVariants && hasAllReferenceGenotype(vcfSlice, vcfRecord)) {
+                // Skip this variant
+                continue;
+            }
+            int start = VcfRecordProtoToVariantConverter.getStart(vcfRecord, position);
+            int end = VcfRecordProtoToVariantConverter.getEnd(vcfRecord, position);
+            // If the same variant is present for this file in the VcfSlice, the variant is already loaded
+            if (isVariantAlreadyLoaded(variant, vcfSlice, vcfRecord, chromosome, start, end,
+                    vcfRecord.getReference(), vcfRecord.getAlternate())) {
+                return true;
+            }
+            overlappingRecords.add(ImmutablePair.of(vcfSlice, vcfRecord));
+        }
+        return false;
+    }
+
     /**
      * Check if this VcfRecord is already loaded in the variant that is being processed.
      *
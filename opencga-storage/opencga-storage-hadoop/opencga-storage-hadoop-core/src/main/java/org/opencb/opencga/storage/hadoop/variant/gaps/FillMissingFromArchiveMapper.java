@@ -8,6 +8,7 @@ import org.apache.hadoop.hbase.protobuf.ProtobufUtil;
 import org.apache.hadoop.hbase.protobuf.generated.ClientProtos;
 import org.apache.hadoop.io.BytesWritable;
 import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
+import org.opencb.opencga.storage.hadoop.variant.HadoopVariantStorageEngine;
 import org.opencb.opencga.storage.hadoop.variant.index.VariantTableHelper;
 import org.opencb.opencga.storage.hadoop.variant.mr.VariantsTableMapReduceHelper;
 
@@ -31,6 +32,8 @@ public class FillMissingFromArchiveMapper extends TableMapper<BytesWritable, Byt
         boolean overwrite = FillGapsFromArchiveMapper.isOverwrite(context.getConfiguration());
         task = new FillMissingFromArchiveTask(studyConfiguration, helper, overwrite);
         task.setQuiet(true);
+        task.setParallelFiles(context.getConfiguration().getInt(HadoopVariantStorageEngine.FILL_GAPS_PARALLEL_FILES,
+                HadoopVariantStorageEngine.FILL_GAPS_PARALLEL_FILES_DEFAULT));
         task.pre();
     }
 
@@ -66,7 +66,7 @@ public class FillMissingFromArchiveTask extends AbstractFillFromArchiveTask {
         @Override
         protected void vcfSliceNotFound(int fileId) {
             // Not reading Ref column. It may have information, but only reference information
-            logger.debug("Nothing to read for fileId " + fileId + " in RK " + Bytes.toString(rowKey));
+            logger.debug("Nothing to read for fileId " + fileId + " in RK " + rowKeyFactory.toBlockId(rowKey));
         }
 
         @Override
@@ -118,7 +118,7 @@ public class FillMissingFromArchiveTask extends AbstractFillFromArchiveTask {
 
             if (filesToProcess.isEmpty()) {
                 throw new IllegalStateException("No files found for variant " + variant
-                        + " in row " + Bytes.toString(result.getRow()));
+                        + " in row " + rowKeyFactory.toBlockId(result.getRow()));
             }
             return filesToProcess;
         }
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.hadoop.variant.gaps;
+
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.protobuf.VcfSliceProtos;
+import org.opencb.biodata.tools.variant.converters.proto.VcfRecordProtoToVariantConverter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Index of the VcfRecords from a VcfSlice by genomic interval, to find the records overlapping a variant.
+ *
+ * Records are sorted by start, together with the running maximum end, which is a flattened interval tree for
+ * a static set of intervals. Each query costs a binary search plus the scan of the candidate records, instead of
+ * walking the list of records. Built once per archive row and file, and shared by all the variants to fill.
+ *
+ * Insertions, where end = start - 1, are indexed in the interval [end, start].
+ */
+public class VcfSliceIndex {
+
+    private final VcfSliceProtos.VcfSlice vcfSlice;
+    // Original position of the records, sorted by low
+    private final int[] order;
+    private final int[] low;
+    private final int[] high;
+    private final int[] maxHigh;
+    private final int[] starts;
+    private final int[] ends;
+
+    public VcfSliceIndex(VcfSliceProtos.VcfSlice vcfSlice) {
+        this.vcfSlice = vcfSlice;
+        List<VcfSliceProtos.VcfRecord> records = vcfSlice.getRecordsList();
+        int size = records.size();
+        int position = vcfSlice.getPosition();
+
+        starts = new int[size];
+        ends = new int[size];
+        long[] sortKeys = new long[size];
+        for (int i = 0; i < size; i++) {
+            VcfSliceProtos.VcfRecord vcfRecord = records.get(i);
+            starts[i] = VcfRecordProtoToVariantConverter.getStart(vcfRecord, position);
+            ends[i] = VcfRecordProtoToVariantConverter.getEnd(vcfRecord, position);
+            // Sort by low, and then by original position
+            sortKeys[i] = ((long) Math.min(starts[i], ends[i]) << 32) | i;
+        }
+        Arrays.sort(sortKeys);
+
+        order = new int[size];
+        low = new int[size];
+        high = new int[size];
+        maxHigh = new int[size];
+        for (int i = 0; i < size; i++) {
+            int idx = (int) sortKeys[i];
+            order[i] = idx;
+            low[i] = Math.min(starts[idx], ends[idx]);
+            high[i] = Math.max(starts[idx], ends[idx]);
+            maxHigh[i] = i == 0 ? high[i] : Math.max(maxHigh[i - 1], high[i]);
+        }
+    }
+
+    public VcfSliceProtos.VcfSlice getVcfSlice() {
+        return vcfSlice;
+    }
+
+    /**
+     * Get the records overlapping the variant, as defined by {@link FillGapsTask#overlapsWith}.
+     *
+     * @param variant Variant
+     * @return Overlapping records, in the same order as in the VcfSlice
+     */
+    public List<VcfSliceProtos.VcfRecord> getOverlappingRecords(Variant variant) {
+        if (order.length == 0 || !variant.getChromosome().equals(vcfSlice.getChromosome())) {
+            return Collections.emptyList();
+        }
+        int queryLow = Math.min(variant.getStart(), variant.getEnd());
+        int queryHigh = Math.max(variant.getStart(), variant.getEnd());
+
+        // Last record with low <= queryHigh
+        int idx = upperBound(queryHigh) - 1;
+        List<Integer> positions = null;
+        // Walk back while any previous record may reach the query
+        while (idx >= 0 && maxHigh[idx] >= queryLow) {
+            if (high[idx] >= queryLow) {
+                int recordIdx = order[idx];
+                if (FillGapsTask.overlapsWith(variant, vcfSlice.getChromosome(), starts[recordIdx], ends[recordIdx])) {
+                    if (positions == null) {
+                        positions = new ArrayList<>(2);
+                    }
+                    positions.add(recordIdx);
+                }
+            }
+            idx--;
+        }
+        if (positions == null) {
+            return Collections.emptyList();
+        }
+        Collections.sort(positions);
+        List<VcfSliceProtos.VcfRecord> records = new ArrayList<>(positions.size());
+        for (Integer position : positions) {
+            records.add(vcfSlice.getRecords(position));
+        }
+        return records;
+    }
+
+    public int size() {
+        return order.length;
+    }
+
+    private int upperBound(int value) {
+        int from = 0;
+        int to = low.length;
+        while (from < to) {
+            int mid = (from + to) >>> 1;
+            if (low[mid] <= value) {
+                from = mid + 1;
+            } else {
+                to = mid;
+            }
+        }
+        return from;
+    }
+}
@@ -92,7 +92,7 @@ public abstract class AbstractArchiveTableMapper extends AbstractHBaseVariantMap
 
     @Override
     public final void map(ImmutableBytesWritable key, Result value, Context context) throws IOException, InterruptedException {
-        logger.info("Start mapping key: " + Bytes.toString(key.get()));
+        logger.info("Start mapping key: " + rowKeyFactory.toBlockId(key.get()));
         startStep();
         if (value.isEmpty()) {
             context.getCounter(VariantsTableMapReduceHelper.COUNTER_GROUP_NAME, "VCF_RESULT_EMPTY").increment(1);
@@ -104,9 +104,9 @@ public abstract class AbstractArchiveTableMapper extends AbstractHBaseVariantMap
 
         // Calculate various positions
         byte[] currRowKey = key.get();
-        String sliceKey = Bytes.toString(currRowKey);
-        String chr = rowKeyFactory.extractChromosomeFromBlockId(sliceKey);
-        Long sliceReg = rowKeyFactory.extractSliceFromBlockId(sliceKey);
+        String sliceKey = rowKeyFactory.toBlockId(currRowKey);
+        String chr = rowKeyFactory.extractChromosomeFromBlockId(currRowKey);
+        Long sliceReg = rowKeyFactory.extractSliceFromBlockId(currRowKey);
         long startPos = rowKeyFactory.getStartPositionFromSlice(sliceReg);
         long nextStartPos = rowKeyFactory.getStartPositionFromSlice(sliceReg + 1);
 
@@ -136,7 +136,7 @@ public abstract class AbstractArchiveTableMapper extends AbstractHBaseVariantMap
         // Clean up of this slice
         this.getMrHelper().addTimesAsCounters();
 
-        logger.info("Finished mapping key: " + Bytes.toString(key.get()));
+        logger.info("Finished mapping key: " + sliceKey);
     }
 
     protected abstract void map(VariantMapReduceContext ctx) throws IOException, InterruptedException;
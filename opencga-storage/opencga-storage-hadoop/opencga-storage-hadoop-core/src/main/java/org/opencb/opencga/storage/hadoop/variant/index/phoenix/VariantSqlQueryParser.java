@@ -33,6 +33,7 @@ import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
 import org.opencb.opencga.storage.core.metadata.StudyConfigurationManager;
 import org.opencb.opencga.storage.core.variant.adaptors.*;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryUtils.*;
+import org.opencb.opencga.storage.core.variant.query.VariantQuery;
 import org.opencb.opencga.storage.hadoop.variant.GenomeHelper;
 import org.opencb.opencga.storage.hadoop.variant.HadoopVariantStorageEngine;
 import org.opencb.opencga.storage.hadoop.variant.converters.annotation.VariantAnnotationToPhoenixConverter;
@@ -201,7 +202,8 @@ public class VariantSqlQueryParser {
         if (options.getBoolean(COUNT)) {
             return sb.append(" COUNT(*) ");
         } else {
-            SelectVariantElements selectVariantElements = parseSelectElements(query, options, studyConfigurationManager);
+            SelectVariantElements selectVariantElements = VariantQuery.get(query, studyConfigurationManager)
+                    .getSelectElements(options, studyConfigurationManager);
             phoenixSQLQuery.select = selectVariantElements;
             Set<VariantField> returnedFields = selectVariantElements.getFields();
             Map<Integer, List<Integer>> returnedSamples = selectVariantElements.getSamples();
@@ -337,13 +339,13 @@ public class VariantSqlQueryParser {
         List<String> regionFilters = new LinkedList<>();
 
         if (isValidParam(query, REGION)) {
-            List<Region> regions = Region.parseRegions(query.getString(REGION.key()), true);
+            List<Region> regions = VariantQuery.get(query).getRegions();
             for (Region region : regions) {
                 regionFilters.add(getRegionFilter(region));
             }
         }
 
-        VariantQueryXref variantQueryXref = VariantQueryUtils.parseXrefs(query);
+        VariantQueryXref variantQueryXref = VariantQuery.get(query).getXrefs();
 
         // TODO: This should filter by ID from the VCF
         for (String id : variantQueryXref.getIds()) {
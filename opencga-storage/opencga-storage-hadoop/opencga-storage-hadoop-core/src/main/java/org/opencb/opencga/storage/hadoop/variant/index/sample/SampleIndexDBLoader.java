@@ -29,6 +29,9 @@ public class SampleIndexDBLoader extends AbstractHBaseDataWriter<Variant, Put> {
     // Map from IndexChunk -> List (following sampleIds order) of Map<Genotype, StringBuilder>
     private final Map<IndexChunk, List<Map<String, Set<String>>>> buffer = new LinkedHashMap<>();
     private final HashSet<String> genotypes = new HashSet<>();
+    // When resuming, skip variants from chunks already loaded
+    private String resumeChromosome;
+    private int resumePosition;
 
     public SampleIndexDBLoader(HBaseManager hBaseManager, String tableName, List<Integer> sampleIds, byte[] family) {
         super(hBaseManager, tableName);
@@ -80,6 +83,9 @@ public class SampleIndexDBLoader extends AbstractHBaseDataWriter<Variant, Put> {
     @Override
     protected List<Put> convert(List<Variant> variants) {
         for (Variant variant : variants) {
+            if (variant.getChromosome().equals(resumeChromosome) && variant.getStart() < resumePosition) {
+                continue;
+            }
             IndexChunk indexChunk = new IndexChunk(variant.getChromosome(), (variant.getStart() / BATCH_SIZE) * BATCH_SIZE);
             int sampleIdx = 0;
             for (List<String> samplesData : variant.getStudies().get(0).getSamplesData()) {
@@ -145,25 +151,56 @@ public class SampleIndexDBLoader extends AbstractHBaseDataWriter<Variant, Put> {
 
         while (buffer.size() > remain) {
             IndexChunk indexChunk = buffer.keySet().iterator().next();
-            List<Map<String, Set<String>>> sampleList = buffer.remove(indexChunk);
-            Iterator<Integer> sampleIterator = sampleIds.iterator();
-            for (Map<String, Set<String>> gtsMap : sampleList) {
-                Integer sampleId = sampleIterator.next();
+            addPuts(puts, indexChunk, buffer.remove(indexChunk));
+        }
 
-                byte[] rk = SampleIndexConverter.toRowKey(sampleId, indexChunk.chromosome, indexChunk.position);
-                Put put = new Put(rk);
+        return puts;
+    }
 
-                for (Map.Entry<String, Set<String>> gtsEntry : gtsMap.entrySet()) {
-                    put.addColumn(family, toGenotypeColumn(gtsEntry.getKey()), Bytes.toBytes(String.join(",", gtsEntry.getValue())));
-                    put.addColumn(family, toGenotypeCountColumn(gtsEntry.getKey()), Bytes.toBytes(gtsEntry.getValue().size()));
-                }
-                if (!put.isEmpty()) {
-                    puts.add(put);
-                }
+    private void addPuts(List<Put> puts, IndexChunk indexChunk, List<Map<String, Set<String>>> sampleList) {
+        Iterator<Integer> sampleIterator = sampleIds.iterator();
+        for (Map<String, Set<String>> gtsMap : sampleList) {
+            Integer sampleId = sampleIterator.next();
+
+            byte[] rk = SampleIndexConverter.toRowKey(sampleId, indexChunk.chromosome, indexChunk.position);
+            Put put = new Put(rk);
+
+            for (Map.Entry<String, Set<String>> gtsEntry : gtsMap.entrySet()) {
+                put.addColumn(family, toGenotypeColumn(gtsEntry.getKey()), Bytes.toBytes(String.join(",", gtsEntry.getValue())));
+                put.addColumn(family, toGenotypeCountColumn(gtsEntry.getKey()), Bytes.toBytes(gtsEntry.getValue().size()));
+            }
+            if (!put.isEmpty()) {
+                puts.add(put);
             }
         }
+    }
 
-        return puts;
+    /**
+     * Write all the buffered chunks, keeping them in the buffer.
+     * Each chunk is written entirely, so the chunks still receiving variants will be overwritten later.
+     *
+     * @throws IOException if the mutations fail
+     */
+    @Override
+    public void flush() throws IOException {
+        List<Put> puts = new LinkedList<>();
+        for (Map.Entry<IndexChunk, List<Map<String, Set<String>>>> entry : buffer.entrySet()) {
+            addPuts(puts, entry.getKey(), entry.getValue());
+        }
+        mutate(puts);
+        super.flush();
+    }
+
+    /**
+     * Resume a load. The chunks before the given position were loaded entirely in the previous execution, so any variant
+     * from those chunks is skipped. Otherwise, the chunk would be overwritten with only those variants.
+     *
+     * @param chromosome Chromosome of the first variant to load
+     * @param position   Position of the first variant to load
+     */
+    public void setResumePosition(String chromosome, int position) {
+        this.resumeChromosome = chromosome;
+        this.resumePosition = (position / BATCH_SIZE) * BATCH_SIZE;
     }
 
     public HashSet<String> getLoadedGenotypes() {
@@ -6,6 +6,7 @@ import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
 import org.opencb.opencga.storage.core.metadata.StudyConfigurationManager;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryException;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryUtils;
+import org.opencb.opencga.storage.core.variant.query.VariantQuery;
 
 import java.util.*;
 
@@ -38,7 +39,7 @@ public final class SampleIndexQuery {
      * @return      if the query is valid
      */
     public static boolean validSampleIndexQuery(Query query) {
-        VariantQueryUtils.VariantQueryXref xref = VariantQueryUtils.parseXrefs(query);
+        VariantQueryUtils.VariantQueryXref xref = VariantQuery.get(query).getXrefs();
         if (!xref.getIds().isEmpty() || !xref.getVariants().isEmpty() || !xref.getOtherXrefs().isEmpty()) {
             // Can not be used for specific variant IDs. Only regions and genes
             return false;
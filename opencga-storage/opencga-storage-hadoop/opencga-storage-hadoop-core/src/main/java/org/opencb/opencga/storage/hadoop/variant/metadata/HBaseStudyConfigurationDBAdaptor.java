@@ -99,6 +99,16 @@ public class HBaseStudyConfigurationDBAdaptor extends AbstractHBaseDBAdaptor imp
         }
     }
 
+    @Override
+    public void renewLockStudy(int studyId, long lockToken, long lockDuration, String lockName) {
+        try {
+            byte[] column = StringUtils.isEmpty(lockName) ? getLockColumn() : Bytes.toBytes(lockName);
+            lock.renew(getStudyConfigurationRowKey(studyId), column, lockToken, lockDuration);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     @Override
     public void unLockStudy(int studyId, long lockToken, String lockName) {
         try {
@@ -71,7 +71,7 @@ public class HBaseVariantTableNameGenerator {
     }
 
     private static int checkValidArchiveTableNameGetEndIndex(String archiveTableName) {
-        int endIndex = archiveTableName.lastIndexOf(archiveTableName);
+        int endIndex = archiveTableName.lastIndexOf(ARCHIVE_SUFIX);
         if (endIndex <= 0 || !StringUtils.isNumeric(archiveTableName.substring(endIndex + ARCHIVE_SUFIX.length()))) {
             throw new IllegalArgumentException("Invalid archive table name : " + archiveTableName);
         }
@@ -0,0 +1,133 @@
+package org.opencb.opencga.storage.hadoop.variant.archive;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+import org.opencb.biodata.models.core.Region;
+import org.opencb.opencga.storage.hadoop.variant.adaptors.VariantHBaseQueryParser;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import static org.opencb.opencga.storage.hadoop.variant.HadoopVariantStorageEngine.*;
+
+public class ArchiveRowKeyFactoryTest {
+
+    private static ArchiveRowKeyFactory factory(ArchiveRowKeyFactory.Layout layout, String... chromosomes) {
+        Configuration conf = new Configuration(false);
+        conf.setInt(ARCHIVE_CHUNK_SIZE, 1000);
+        conf.setInt(ARCHIVE_FILE_BATCH_SIZE, 100);
+        conf.set(ARCHIVE_ROW_KEY_LAYOUT, layout.name());
+        conf.setStrings(ARCHIVE_ROW_KEY_CHROMOSOMES, chromosomes);
+        return new ArchiveRowKeyFactory(conf);
+    }
+
+    @Test
+    public void testRoundTrip() {
+        for (ArchiveRowKeyFactory.Layout layout : ArchiveRowKeyFactory.Layout.values()) {
+            ArchiveRowKeyFactory keyFactory = factory(layout, "GL000192.1");
+            for (String chr : new String[]{"1", "22", "X", "MT", "GL000192.1"}) {
+                byte[] rowKey = keyFactory.generateBlockIdAsBytes(250, chr, 123456);
+                assertEquals(2, keyFactory.extractFileBatchFromBlockId(rowKey));
+                assertEquals(chr, keyFactory.extractChromosomeFromBlockId(rowKey));
+                assertEquals(123, keyFactory.extractSliceFromBlockId(rowKey));
+                assertEquals(123000, keyFactory.extractPositionFromBlockId(rowKey));
+                assertEquals(new Region(chr, 123000, 124000), keyFactory.extractRegionFromBlockId(rowKey));
+                assertEquals(keyFactory.generateBlockId(250, chr, 123456), keyFactory.toBlockId(rowKey));
+            }
+        }
+    }
+
+    @Test
+    public void testBinaryKeyLength() {
+        ArchiveRowKeyFactory keyFactory = factory(ArchiveRowKeyFactory.Layout.BINARY);
+        assertEquals(ArchiveRowKeyFactory.BINARY_KEY_LENGTH, keyFactory.generateBlockIdAsBytes(1, "1", 1).length);
+        assertEquals(ArchiveRowKeyFactory.BINARY_KEY_LENGTH, keyFactory.generateBlockIdAsBytes(Integer.MAX_VALUE, "X", 250000000).length);
+    }
+
+    @Test
+    public void testNormalizeChromosome() {
+        ArchiveRowKeyFactory keyFactory = factory(ArchiveRowKeyFactory.Layout.BINARY);
+        assertArrayEquals(keyFactory.generateBlockIdAsBytes(1, "1", 1000), keyFactory.generateBlockIdAsBytes(1, "chr1", 1000));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownChromosome() {
+        factory(ArchiveRowKeyFactory.Layout.BINARY).generateBlockIdAsBytes(1, "GL000192.1", 1000);
+    }
+
+    @Test
+    public void testSortedWithinFileBatch() {
+        ArchiveRowKeyFactory keyFactory = factory(ArchiveRowKeyFactory.Layout.BINARY);
+        byte[] prev = null;
+        for (long slice = 0; slice < 300000; slice += 997) {
+            byte[] rowKey = keyFactory.generateBlockIdFromSliceAndBatchAsBytes(7, "2", slice);
+            if (prev != null) {
+                assertTrue(Bytes.compareTo(prev, rowKey) < 0);
+            }
+            prev = rowKey;
+        }
+        // Same salt within a file batch and chromosome
+        assertEquals(keyFactory.generateBlockIdFromSliceAndBatchAsBytes(7, "1", 0)[0],
+                keyFactory.generateBlockIdFromSliceAndBatchAsBytes(7, "1", 250000)[0]);
+        // Consecutive file batches go to different salt buckets
+        assertNotEquals(keyFactory.generateBlockIdFromSliceAndBatchAsBytes(7, "1", 0)[0],
+                keyFactory.generateBlockIdFromSliceAndBatchAsBytes(8, "1", 0)[0]);
+    }
+
+    @Test
+    public void testSaltSpreadWithinFileBatch() {
+        ArchiveRowKeyFactory keyFactory = factory(ArchiveRowKeyFactory.Layout.BINARY);
+        for (int fileBatch = 0; fileBatch < 10; fileBatch++) {
+            Set<Byte> salts = new HashSet<>();
+            for (String chr : new String[]{"1", "2", "3", "4", "5", "6", "7", "8", "9", "10", "11", "12", "13", "14", "15", "16"}) {
+                salts.add(keyFactory.generateBlockIdFromSliceAndBatchAsBytes(fileBatch, chr, 0)[0]);
+            }
+            // The chromosomes of a file batch use all the buckets
+            assertEquals(keyFactory.getSaltBuckets(), salts.size());
+        }
+    }
+
+    @Test
+    public void testRegionRange() {
+        for (ArchiveRowKeyFactory.Layout layout : ArchiveRowKeyFactory.Layout.values()) {
+            ArchiveRowKeyFactory keyFactory = factory(layout);
+            Region region = new Region("3", 10500, 12500);
+            byte[] startRow = keyFactory.generateRegionStartRow(5, region);
+            byte[] stopRow = keyFactory.generateRegionStopRow(5, region);
+            assertTrue(inRange(keyFactory.generateBlockIdAsBytes(5, "3", 10000), startRow, stopRow));
+            assertTrue(inRange(keyFactory.generateBlockIdAsBytes(5, "3", 12999), startRow, stopRow));
+            assertFalse(inRange(keyFactory.generateBlockIdAsBytes(5, "3", 9999), startRow, stopRow));
+            assertFalse(inRange(keyFactory.generateBlockIdAsBytes(5, "3", 13000), startRow, stopRow));
+            assertFalse(inRange(keyFactory.generateBlockIdAsBytes(5, "4", 11000), startRow, stopRow));
+            assertFalse(inRange(keyFactory.generateBlockIdAsBytes(105, "3", 11000), startRow, stopRow));
+        }
+    }
+
+    @Test
+    public void testChromosomeRange() {
+        for (ArchiveRowKeyFactory.Layout layout : ArchiveRowKeyFactory.Layout.values()) {
+            ArchiveRowKeyFactory keyFactory = factory(layout, "GL000192.1");
+            byte[] startRow = keyFactory.generateChromosomeStartRow(3, "1");
+            byte[] stopRow = keyFactory.generateChromosomeStopRow(3, "1");
+            assertTrue(inRange(keyFactory.generateBlockIdFromSliceAndBatchAsBytes(3, "1", 0), startRow, stopRow));
+            assertTrue(inRange(keyFactory.generateBlockIdFromSliceAndBatchAsBytes(3, "1", 250000), startRow, stopRow));
+            assertFalse(inRange(keyFactory.generateBlockIdFromSliceAndBatchAsBytes(3, "10", 0), startRow, stopRow));
+            assertFalse(inRange(keyFactory.generateBlockIdFromSliceAndBatchAsBytes(3, "GL000192.1", 0), startRow, stopRow));
+            assertFalse(inRange(keyFactory.generateBlockIdFromSliceAndBatchAsBytes(2, "1", 0), startRow, stopRow));
+            assertFalse(inRange(keyFactory.generateBlockIdFromSliceAndBatchAsBytes(4, "1", 0), startRow, stopRow));
+
+            // Whole chromosome scans use the chromosome range of the file batch
+            Scan scan = new Scan();
+            VariantHBaseQueryParser.addArchiveRegionFilter(scan, new Region("1"), 350, keyFactory);
+            assertArrayEquals(startRow, scan.getStartRow());
+            assertArrayEquals(stopRow, scan.getStopRow());
+        }
+    }
+
+    private static boolean inRange(byte[] rowKey, byte[] startRow, byte[] stopRow) {
+        return Bytes.compareTo(startRow, rowKey) <= 0 && Bytes.compareTo(rowKey, stopRow) < 0;
+    }
+}
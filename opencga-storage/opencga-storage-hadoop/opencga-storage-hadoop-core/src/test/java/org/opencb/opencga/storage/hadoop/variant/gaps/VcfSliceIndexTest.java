@@ -0,0 +1,117 @@
+package org.opencb.opencga.storage.hadoop.variant.gaps;
+
+import org.junit.Test;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.protobuf.VcfSliceProtos;
+import org.opencb.biodata.tools.variant.converters.proto.VcfRecordProtoToVariantConverter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class VcfSliceIndexTest {
+
+    private static final int POSITION = 1000000;
+
+    @Test
+    public void testGetOverlappingRecords() {
+        VcfSliceProtos.VcfSlice vcfSlice = buildVcfSlice(
+                "1:1000100:A:C",
+                "1:1000100:ATTT:",
+                "1:1000102::G",
+                "1:1000102:T:G",
+                "1:1000500-1000499::AAAA",
+                "1:1000500:G:");
+        VcfSliceIndex index = new VcfSliceIndex(vcfSlice);
+        assertEquals(6, index.size());
+
+        for (String variant : new String[]{"1:1000100:A:T", "1:1000101:T:G", "1:1000102::C", "1:1000103:T:A", "1:1000104:A:T",
+                "1:1000499:C:T", "1:1000500::T", "1:1000500:G:C", "1:1000501:C:G", "2:1000100:A:T"}) {
+            assertEquals(variant, getOverlappingRecordsLinear(vcfSlice, new Variant(variant)),
+                    index.getOverlappingRecords(new Variant(variant)));
+        }
+    }
+
+    @Test
+    public void testGetOverlappingRecordsRandom() {
+        Random random = new Random(1);
+        VcfSliceProtos.VcfSlice vcfSlice = buildRandomVcfSlice(random, 2000);
+        VcfSliceIndex index = new VcfSliceIndex(vcfSlice);
+        for (Variant variant : buildRandomVariants(random, 2000)) {
+            assertEquals(variant.toString(), getOverlappingRecordsLinear(vcfSlice, variant), index.getOverlappingRecords(variant));
+        }
+    }
+
+    @Test
+    public void testEmpty() {
+        VcfSliceIndex index = new VcfSliceIndex(buildVcfSlice());
+        assertEquals(0, index.size());
+        assertEquals(0, index.getOverlappingRecords(new Variant("1:1000100:A:C")).size());
+    }
+
+    private static List<VcfSliceProtos.VcfRecord> getOverlappingRecordsLinear(VcfSliceProtos.VcfSlice vcfSlice, Variant variant) {
+        List<VcfSliceProtos.VcfRecord> records = new ArrayList<>();
+        for (VcfSliceProtos.VcfRecord vcfRecord : vcfSlice.getRecordsList()) {
+            int start = VcfRecordProtoToVariantConverter.getStart(vcfRecord, vcfSlice.getPosition());
+            int end = VcfRecordProtoToVariantConverter.getEnd(vcfRecord, vcfSlice.getPosition());
+            if (FillGapsTask.overlapsWith(variant, vcfSlice.getChromosome(), start, end)) {
+                records.add(vcfRecord);
+            }
+        }
+        return records;
+    }
+
+    private static List<Variant> buildRandomVariants(Random random, int numVariants) {
+        List<Variant> variants = new ArrayList<>(numVariants);
+        for (int i = 0; i < numVariants; i++) {
+            variants.add(randomVariant(random));
+        }
+        return variants;
+    }
+
+    private static VcfSliceProtos.VcfSlice buildRandomVcfSlice(Random random, int numRecords) {
+        String[] variants = new String[numRecords];
+        int start = POSITION;
+        for (int i = 0; i < numRecords; i++) {
+            // Sorted by start, as in the archive
+            start += random.nextInt(3);
+            variants[i] = randomVariant(random, start).toString();
+        }
+        return buildVcfSlice(variants);
+    }
+
+    private static Variant randomVariant(Random random) {
+        return randomVariant(random, POSITION + random.nextInt(2000));
+    }
+
+    private static Variant randomVariant(Random random, int start) {
+        switch (random.nextInt(4)) {
+            case 0:
+                return new Variant("1:" + start + ':' + "TTTTTTTTTT".substring(random.nextInt(10)) + ':');
+            case 1:
+                return new Variant("1:" + start + "::" + "AAAAA".substring(random.nextInt(5)));
+            default:
+                return new Variant("1:" + start + ":A:C");
+        }
+    }
+
+    private static VcfSliceProtos.VcfSlice buildVcfSlice(String... variants) {
+        VcfSliceProtos.VcfSlice.Builder vcfSlice = VcfSliceProtos.VcfSlice.newBuilder()
+                .setChromosome("1")
+                .setPosition(POSITION);
+
+        for (String s : variants) {
+            Variant variant = new Variant(s);
+            vcfSlice.addRecords(VcfSliceProtos.VcfRecord.newBuilder()
+                    .setRelativeStart(variant.getStart() - POSITION)
+                    .setRelativeEnd(variant.getEnd() - POSITION)
+                    .setReference(variant.getReference())
+                    .setAlternate(variant.getAlternate())
+                    .build());
+        }
+
+        return vcfSlice.build();
+    }
+}
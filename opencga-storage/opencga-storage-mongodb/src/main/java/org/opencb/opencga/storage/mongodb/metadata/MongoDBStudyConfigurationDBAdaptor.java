@@ -38,6 +38,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
 
@@ -50,6 +51,7 @@ public class MongoDBStudyConfigurationDBAdaptor implements StudyConfigurationAda
 
     private final DocumentToStudyConfigurationConverter studyConfigurationConverter = new DocumentToStudyConfigurationConverter();
     private final MongoLock mongoLock;
+    private final Map<String, MongoLock> namedLocks = new ConcurrentHashMap<>();
     private final MongoDBCollection collection;
 
     public MongoDBStudyConfigurationDBAdaptor(MongoDataStore db, String collectionName) {
@@ -72,19 +74,30 @@ public class MongoDBStudyConfigurationDBAdaptor implements StudyConfigurationAda
 
     @Override
     public long lockStudy(int studyId, long lockDuration, long timeout, String lockName) throws InterruptedException, TimeoutException {
-        if (StringUtils.isNotEmpty(lockName)) {
-            throw new UnsupportedOperationException("Unsupported lockStudy given a lockName");
-        }
+        return getLock(lockName).lock(studyId, lockDuration, timeout);
+    }
 
-        return mongoLock.lock(studyId, lockDuration, timeout);
+    @Override
+    public void renewLockStudy(int studyId, long lockId, long lockDuration, String lockName) {
+        getLock(lockName).renew(studyId, lockId, lockDuration);
     }
 
     @Override
     public void unLockStudy(int studyId, long lockId, String lockName) {
-        if (StringUtils.isNotEmpty(lockName)) {
-            throw new UnsupportedOperationException("Unsupported unlockStudy given a lockName");
+        getLock(lockName).unlock(studyId, lockId);
+    }
+
+    /**
+     * Named locks are stored in the study document, in the field "_lock_{lockName}".
+     *
+     * @param lockName Lock name, or null for the default study lock
+     * @return MongoLock for the given name
+     */
+    private MongoLock getLock(String lockName) {
+        if (StringUtils.isEmpty(lockName)) {
+            return mongoLock;
         }
-        mongoLock.unlock(studyId, lockId);
+        return namedLocks.computeIfAbsent(lockName, name -> new MongoLock(collection, "_lock_" + name));
     }
 
     private QueryResult<StudyConfiguration> getStudyConfiguration(Integer studyId, String studyName, Long timeStamp,
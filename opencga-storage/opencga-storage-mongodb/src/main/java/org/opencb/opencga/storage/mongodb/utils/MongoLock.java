@@ -20,23 +20,32 @@ import com.mongodb.DuplicateKeyException;
 import com.mongodb.MongoWriteException;
 import com.mongodb.ReadPreference;
 import com.mongodb.WriteConcern;
-import org.apache.commons.lang3.time.StopWatch;
 import org.bson.Document;
 import org.bson.conversions.Bson;
 import org.opencb.commons.datastore.core.QueryOptions;
 import org.opencb.commons.datastore.mongodb.MongoDBCollection;
+import org.opencb.opencga.storage.core.metrics.LockMetrics;
+import org.opencb.opencga.storage.core.utils.LockCoordinator;
 
-import java.util.Calendar;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Date;
 import java.util.concurrent.TimeoutException;
 
 import static com.mongodb.client.model.Filters.*;
 import static com.mongodb.client.model.Updates.combine;
+import static com.mongodb.client.model.Updates.inc;
 import static com.mongodb.client.model.Updates.set;
 
 /**
  * Concurrent lock using a MongoDB document.
  *
+ * The lock is stored in the document as the expiration date of the lease, and a counter incremented with every
+ * acquisition. The counter is returned as lock token, and works as a fencing token: a holder whose lease expired and
+ * was taken by someone else can not unlock nor renew the lock.
+ *
+ * Threads sharing the same MongoLock instance wait in a local queue, see {@link LockCoordinator}.
+ *
  * Created on 13/06/16
  *
  * see http://stackoverflow.com/questions/31064750/mongodb-implement-a-read-write-lock-mutex
@@ -47,9 +56,13 @@ public class MongoLock {
 
     private static final String LOCK_FIELD = "lock";
     private static final String WRITE_FIELD = "write";
+    private static final String TOKEN_FIELD = "token";
+    private final String lockField;
     private final String lockWriteField;
+    private final String lockTokenField;
 
     private final MongoDBCollection collection;
+    private final LockCoordinator coordinator;
 
     public MongoLock(MongoDBCollection collection) {
         this(collection, LOCK_FIELD);
@@ -59,7 +72,10 @@ public class MongoLock {
         this.collection = collection;
         this.collection.withReadPreference(ReadPreference.primary())
                 .withWriteConcern(WriteConcern.ACKNOWLEDGED);
+        this.lockField = lockField;
         lockWriteField = lockField + '.' + WRITE_FIELD;
+        lockTokenField = lockField + '.' + TOKEN_FIELD;
+        coordinator = new LockCoordinator("mongo-" + lockField);
     }
 
     /**
@@ -91,32 +107,50 @@ public class MongoLock {
             // See https://jira.mongodb.org/browse/SERVER-14322
         }
 
-        StopWatch watch = new StopWatch();
-        watch.start();
-        long modifiedCount;
-        Date date;
-        do {
-            date = new Date(Calendar.getInstance().getTimeInMillis() + lockDuration);
-            Date now = Calendar.getInstance().getTime();
-
-            Bson query = and(eq("_id", id), or(eq(lockWriteField, null), lt(lockWriteField, now)));
-            Bson update = combine(set(lockWriteField, date));
-
-            modifiedCount = collection.update(query, update, null).first().getModifiedCount();
-
-            if (modifiedCount != 1) {
-                Thread.sleep(100);
-                //Check if the lock is still valid
-                if (watch.getTime() > timeout) {
-                    throw new TimeoutException("Unable to get the lock");
-                }
-            }
-        } while (modifiedCount == 0);
+        try {
+            return coordinator.lock(String.valueOf(id), lockDuration, timeout, () -> tryLock(id, lockDuration));
+        } catch (IOException e) {
+            // Should never happen
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Long tryLock(Object id, long lockDuration) {
+        Date now = new Date();
+        Date expiration = new Date(now.getTime() + lockDuration);
 
+        Bson query = and(eq("_id", id), or(eq(lockWriteField, null), lt(lockWriteField, now)));
+        Bson update = combine(set(lockWriteField, expiration), inc(lockTokenField, 1L));
+        Document projection = new Document(lockTokenField, true);
 
-        return date.getTime();
+        Document document = collection.findAndUpdate(query, projection, null, update, new QueryOptions("returnNew", true)).first();
+        if (document == null) {
+            // Lock taken
+            return null;
+        } else {
+            return ((Number) document.get(lockField, Document.class).get(TOKEN_FIELD)).longValue();
+        }
     }
 
+    /**
+     * Extends the lease of the lock.
+     *
+     * @param id            _id the document to lock
+     * @param lockToken     Lock token
+     * @param lockDuration  New duration in milliseconds of the token, from now.
+     * @throws IllegalStateException  if the lockToken does not match with the current lockToken
+     */
+    public void renew(Object id, long lockToken, long lockDuration) {
+        Date expiration = new Date(System.currentTimeMillis() + lockDuration);
+        Bson query = and(eq("_id", id), eq(lockTokenField, lockToken), ne(lockWriteField, null));
+        Bson update = set(lockWriteField, expiration);
+
+        long matchedCount = collection.update(query, update, null).first().getMatchedCount();
+        if (matchedCount == 0) {
+            throw new IllegalStateException("Lock token " + lockToken + " not found!");
+        }
+        coordinator.renewed(String.valueOf(id), lockToken, lockDuration);
+    }
 
     /**
      * Releases the lock.
@@ -127,14 +161,21 @@ public class MongoLock {
      */
     public void unlock(Object id, long lockToken) {
 
-        Date date = new Date(lockToken);
-        Bson query = and(eq("_id", id), eq(lockWriteField, date));
+        Bson query = and(eq("_id", id), eq(lockTokenField, lockToken), ne(lockWriteField, null));
         Bson update = set(lockWriteField, null);
 
-        long matchedCount = collection.update(query, update, null).first().getMatchedCount();
-        if (matchedCount == 0) {
-            throw new IllegalStateException("Lock token " + lockToken + " not found!");
+        try {
+            long matchedCount = collection.update(query, update, null).first().getMatchedCount();
+            if (matchedCount == 0) {
+                throw new IllegalStateException("Lock token " + lockToken + " not found!");
+            }
+        } finally {
+            coordinator.unlocked(String.valueOf(id), lockToken);
         }
     }
 
+    public LockMetrics getMetrics() {
+        return coordinator.getMetrics();
+    }
+
 }
@@ -50,6 +50,7 @@ import org.opencb.opencga.storage.mongodb.annotation.MongoDBVariantAnnotationMan
 import org.opencb.opencga.storage.mongodb.auth.MongoCredentials;
 import org.opencb.opencga.storage.mongodb.metadata.MongoDBVariantStorageMetadataDBAdaptorFactory;
 import org.opencb.opencga.storage.mongodb.variant.adaptors.VariantMongoDBAdaptor;
+import org.opencb.opencga.storage.mongodb.variant.load.MongoDBGenotypeBinaryMigration;
 import org.opencb.opencga.storage.mongodb.variant.load.MongoVariantImporter;
 import org.opencb.opencga.storage.mongodb.variant.stats.MongoDBVariantStatisticsManager;
 import org.slf4j.Logger;
@@ -91,6 +92,9 @@ public class MongoDBVariantStorageEngine extends VariantStorageEngine {
         COLLECTION_PROJECT("collection.project",  "project"),
         COLLECTION_STAGE("collection.stage",  "stage"),
         COLLECTION_ANNOTATION("collection.annotation",  "annot"),
+        COLLECTION_DENSITY("collection.density",  "density"),
+        COLLECTION_REMOVED_VARIANTS("collection.removedVariants",  "removed_variants"),
+        COLLECTION_PHASE_SETS("collection.phaseSets",  "phase_sets"),
         BULK_SIZE("bulkSize",  100),
         DEFAULT_GENOTYPE("defaultGenotype", Arrays.asList("0/0", "0|0")),
         ALREADY_LOADED_VARIANTS("alreadyLoadedVariants", 0),
@@ -111,7 +115,22 @@ public class MongoDBVariantStorageEngine extends VariantStorageEngine {
         MERGE_RESUME("merge.resume", false),
         MERGE_IGNORE_OVERLAPPING_VARIANTS("merge.ignore-overlapping-variants", false),   //Do not look for overlapping variants
         MERGE_PARALLEL_WRITE("merge.parallel.write", false),
-        MERGE_BATCH_SIZE("merge.batch.size", 10);          //Number of files to merge directly from first to second collection
+        MERGE_BATCH_SIZE("merge.batch.size", 10),          //Number of files to merge directly from first to second collection
+        MERGE_PARALLEL_CHROMOSOMES("merge.parallel.chromosomes", 1),    //Number of chromosomes merged at the same time
+        MERGE_READ_BATCH_SIZE("merge.read.batch.size", 100),            //Number of documents fetched from the stage collection per request
+        MERGE_WRITE_IN_FLIGHT("merge.write.in-flight", 1),              //Number of bulk writes executed concurrently by the merge writer
+
+        STATS_PARTITION_SIZE("stats.partition.size", 10_000_000),  //Size in bases of each region partition read to calculate stats
+        STATS_PARTITION_PARALLEL("stats.partition.parallel", 4),   //Number of partitions read concurrently to calculate stats
+
+        REGION_PLANNER_MAX_CHUNK_IDS("region.planner.chunkIds.max", 10),   //Max chunk ids to look up a region. Otherwise, range scan
+        REGION_PLANNER_SPLIT_SIZE("region.planner.split.size", 200),        //Max number of regions per query in iterators. 0 to disable
+        REGION_PLANNER_SPLIT_PARALLEL("region.planner.split.parallel", 4),  //Number of split region queries read concurrently
+
+        DENSITY_SUMMARY("density.summary", true),               //Maintain the variant density summary while loading
+        DENSITY_SUMMARY_READY("density.summary.ready", false),  //Study attribute. The density summary of the study is complete
+
+        GENOTYPES_BINARY("genotypes.binary", false);               //Study attribute. Store binary genotypes instead of the genotypes map
 
         private final String key;
         private final Object value;
@@ -221,6 +240,25 @@ public class MongoDBVariantStorageEngine extends VariantStorageEngine {
         }
     }
 
+    /**
+     * Replace the genotypes map of all the variants from a study with the compact binary genotypes.
+     * The study is flagged first, so new loads write binary genotypes. Can be resumed if interrupted.
+     *
+     * @param study Study
+     * @return Number of migrated variants
+     * @throws StorageEngineException if the study does not exist
+     */
+    @Override
+    public long migrateGenotypesToBinary(String study) throws StorageEngineException {
+        StudyConfigurationManager scm = getStudyConfigurationManager();
+        int studyId = scm.getStudyId(study, null);
+        scm.lockAndUpdate(study, studyConfiguration -> {
+            studyConfiguration.getAttributes().put(GENOTYPES_BINARY.key(), true);
+            return studyConfiguration;
+        });
+        return new MongoDBGenotypeBinaryMigration(getDBAdaptor().getVariantsCollection(), studyId).run();
+    }
+
     @Override
     public void removeStudy(String studyName) throws StorageEngineException {
         StudyConfigurationManager scm = getStudyConfigurationManager();
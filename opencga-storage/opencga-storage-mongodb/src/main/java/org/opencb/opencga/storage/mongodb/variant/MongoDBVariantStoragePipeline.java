@@ -30,7 +30,6 @@ import org.opencb.biodata.models.variant.avro.VariantType;
 import org.opencb.biodata.models.variant.metadata.VariantStudyMetadata;
 import org.opencb.biodata.tools.variant.VariantDeduplicationTask;
 import org.opencb.commons.ProgressLogger;
-import org.opencb.commons.datastore.core.ObjectMap;
 import org.opencb.commons.datastore.core.Query;
 import org.opencb.commons.datastore.mongodb.MongoDBCollection;
 import org.opencb.commons.io.DataReader;
@@ -38,16 +37,20 @@ import org.opencb.commons.run.ParallelTaskRunner;
 import org.opencb.commons.run.Task;
 import org.opencb.opencga.storage.core.config.StorageConfiguration;
 import org.opencb.opencga.storage.core.exceptions.StorageEngineException;
+import org.opencb.opencga.storage.core.io.PipelineCheckpoint;
 import org.opencb.opencga.storage.core.metadata.BatchFileOperation;
 import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
 import org.opencb.opencga.storage.core.metadata.StudyConfigurationManager;
+import org.opencb.opencga.storage.core.metrics.PipelineMetrics;
 import org.opencb.opencga.storage.core.metadata.adaptors.VariantFileMetadataDBAdaptor;
 import org.opencb.opencga.storage.core.variant.VariantStorageEngine.MergeMode;
 import org.opencb.opencga.storage.core.variant.VariantStoragePipeline;
 import org.opencb.opencga.storage.core.variant.adaptors.GenotypeClass;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryParam;
 import org.opencb.opencga.storage.core.variant.io.VariantReaderUtils;
+import org.opencb.opencga.storage.core.variant.phasing.PhaseSetIndexTask;
 import org.opencb.opencga.storage.core.variant.transform.RemapVariantIdsTask;
+import org.opencb.opencga.storage.mongodb.variant.adaptors.MongoDBVariantDensitySummary;
 import org.opencb.opencga.storage.mongodb.variant.adaptors.VariantMongoDBAdaptor;
 import org.opencb.opencga.storage.mongodb.variant.exceptions.MongoVariantStorageEngineException;
 import org.opencb.opencga.storage.mongodb.variant.load.MongoDBVariantWriteResult;
@@ -67,8 +70,7 @@ import java.net.URI;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
@@ -98,10 +100,13 @@ public class MongoDBVariantStoragePipeline extends VariantStoragePipeline {
     ));
 
     private final VariantMongoDBAdaptor dbAdaptor;
-    private final ObjectMap loadStats = new ObjectMap();
     private final Logger logger = LoggerFactory.getLogger(MongoDBVariantStoragePipeline.class);
     private MongoDBVariantWriteResult writeResult;
     private List<Integer> fileIds;
+    // Density summary to increment while loading, if any
+    private MongoDBVariantDensitySummary densitySummaryIncrement;
+    // Rebuild the density summary after loading
+    private boolean densitySummaryRebuild;
 
     public MongoDBVariantStoragePipeline(StorageConfiguration configuration, String storageEngineId,
                                          VariantMongoDBAdaptor dbAdaptor) {
@@ -176,6 +181,11 @@ public class MongoDBVariantStoragePipeline extends VariantStoragePipeline {
             }
             studyConfiguration.getAttributes().put(DEFAULT_GENOTYPE.key(), defaultGenotype);
         }
+        if (studyConfiguration.getIndexedFiles().isEmpty()
+                && options.getBoolean(GENOTYPES_BINARY.key(), GENOTYPES_BINARY.defaultValue())) {
+            // Only for new studies. Existing studies must be migrated with MongoDBVariantStorageEngine#migrateGenotypesToBinary
+            studyConfiguration.getAttributes().put(GENOTYPES_BINARY.key(), true);
+        }
 
         boolean loadSplitData = options.getBoolean(Options.LOAD_SPLIT_DATA.key(), Options.LOAD_SPLIT_DATA.defaultValue());
         boolean newSampleBatch = checkCanLoadSampleBatch(studyConfiguration, fileId, loadSplitData);
@@ -305,6 +315,10 @@ public class MongoDBVariantStoragePipeline extends VariantStoragePipeline {
 
             //Remapping ids task
             Task<Variant, Variant> remapIdsTask = new RemapVariantIdsTask(studyConfiguration, fileId);
+            PhaseSetIndexTask phaseSetIndexTask = newPhaseSetIndexTask(studyConfiguration);
+            if (phaseSetIndexTask != null) {
+                remapIdsTask = remapIdsTask.then(phaseSetIndexTask);
+            }
 
             //Runner
             ProgressLogger progressLogger = new ProgressLogger("Write variants in VARIANTS collection:", numRecords, 200);
@@ -313,6 +327,8 @@ public class MongoDBVariantStoragePipeline extends VariantStoragePipeline {
                     isResume(options), release, progressLogger);
             MongoDBVariantDirectLoader loader = new MongoDBVariantDirectLoader(dbAdaptor, getStudyConfiguration(), fileId,
                     isResume(options));
+            prepareDensitySummary(studyConfiguration, isResume(options));
+            loader.setDensitySummary(densitySummaryIncrement);
 
             ParallelTaskRunner<Variant, ?> ptr;
             ParallelTaskRunner.Config config = ParallelTaskRunner.Config.builder()
@@ -320,12 +336,15 @@ public class MongoDBVariantStoragePipeline extends VariantStoragePipeline {
                     .setNumTasks(loadThreads)
                     .setBatchSize(batchSize)
                     .setAbortOnFail(true).build();
+            PipelineMetrics metrics = newPipelineMetrics(DIRECT_LOAD.key());
             if (isDirectLoadParallelWrite(options)) {
                 logger.info("Multi thread direct load... [{} readerThreads, {} writerThreads]", numReaders, loadThreads);
-                ptr = new ParallelTaskRunner<>(variantReader, remapIdsTask.then(converter).then(loader), null, config);
+                ptr = new ParallelTaskRunner<>(metrics.wrapReader(variantReader),
+                        metrics.wrapTask(remapIdsTask.then(converter).then(loader)), null, config);
             } else {
                 logger.info("Multi thread direct load... [{} readerThreads, {} tasks, {} writerThreads]", numReaders, loadThreads, 1);
-                ptr = new ParallelTaskRunner<>(variantReader, remapIdsTask.then(converter), loader, config);
+                ptr = new ParallelTaskRunner<>(metrics.wrapReader(variantReader), metrics.wrapTask(remapIdsTask.then(converter)),
+                        metrics.wrapWriter(loader), config);
             }
 
             Thread hook = getStudyConfigurationManager().buildShutdownHook(DIRECT_LOAD.key(), studyId, fileId);
@@ -335,6 +354,7 @@ public class MongoDBVariantStoragePipeline extends VariantStoragePipeline {
                 getStudyConfigurationManager().atomicSetStatus(studyId, BatchFileOperation.Status.DONE, DIRECT_LOAD.key(), fileIds);
             } finally {
                 Runtime.getRuntime().removeShutdownHook(hook);
+                closePipelineMetrics(DIRECT_LOAD.key(), metrics, loadStats);
             }
 
             writeResult = loader.getResult();
@@ -378,6 +398,7 @@ public class MongoDBVariantStoragePipeline extends VariantStoragePipeline {
 //        final int numTasks = loadThreads == 1 ? 1 : loadThreads - numReaders; //Subtract the reader thread
 
 
+        PipelineCheckpoint checkpoint = null;
         try {
             StudyConfiguration studyConfiguration = getStudyConfiguration();
             MongoDBCollection stageCollection = dbAdaptor.getStageCollection(studyConfiguration.getStudyId());
@@ -388,6 +409,10 @@ public class MongoDBVariantStoragePipeline extends VariantStoragePipeline {
 
             //Remapping ids task
             Task<Variant, Variant> remapIdsTask = new RemapVariantIdsTask(studyConfiguration, fileId);
+            PhaseSetIndexTask phaseSetIndexTask = newPhaseSetIndexTask(studyConfiguration);
+            if (phaseSetIndexTask != null) {
+                remapIdsTask = remapIdsTask.then(phaseSetIndexTask);
+            }
 
             //Runner
             ProgressLogger progressLogger = new ProgressLogger("Write variants in STAGE collection:", numRecords, 200);
@@ -395,6 +420,9 @@ public class MongoDBVariantStoragePipeline extends VariantStoragePipeline {
             MongoDBVariantStageLoader stageLoader =
                     new MongoDBVariantStageLoader(stageCollection, studyConfiguration.getStudyId(), fileId,
                             isResumeStage(options));
+            // Stage writes are idempotent when resuming, so the records after the checkpoint can be written again
+            checkpoint = newLoadCheckpoint(STAGE.key(), Collections.singletonList(fileId), isResumeStage(options));
+            DataReader<Variant> reader = checkpoint.wrapReader(variantReader);
 
             ParallelTaskRunner<Variant, ?> ptr;
             ParallelTaskRunner.Config config = ParallelTaskRunner.Config.builder()
@@ -402,17 +430,23 @@ public class MongoDBVariantStoragePipeline extends VariantStoragePipeline {
                     .setNumTasks(loadThreads)
                     .setBatchSize(batchSize)
                     .setAbortOnFail(true).build();
+            PipelineMetrics metrics = newPipelineMetrics(STAGE.key());
             if (isStageParallelWrite(options)) {
                 logger.info("Multi thread stage load... [{} readerThreads, {} writerThreads]", numReaders, loadThreads);
-                ptr = new ParallelTaskRunner<>(variantReader, remapIdsTask.then(converterTask).then(stageLoader), null, config);
+                ptr = new ParallelTaskRunner<>(metrics.wrapReader(reader),
+                        metrics.wrapTask(checkpoint.wrapWritingTask(remapIdsTask.then(converterTask).then(stageLoader))), null, config);
             } else {
                 logger.info("Multi thread stage load... [{} readerThreads, {} tasks, {} writerThreads]", numReaders, loadThreads, 1);
-                ptr = new ParallelTaskRunner<>(variantReader, remapIdsTask.then(converterTask), stageLoader, config);
+                ptr = new ParallelTaskRunner<>(metrics.wrapReader(reader),
+                        metrics.wrapTask(checkpoint.wrapTask(remapIdsTask.then(converterTask))),
+                        metrics.wrapWriter(checkpoint.wrapWriter(stageLoader)), config);
             }
 
+            PipelineCheckpoint finalCheckpoint = checkpoint;
             Thread hook = new Thread(() -> {
                 try {
                     logger.error("Stage shutdown hook!");
+                    finalCheckpoint.flush();
                     stageError();
                 } catch (StorageEngineException e) {
                     logger.error("Error at shutdown", e);
@@ -425,16 +459,23 @@ public class MongoDBVariantStoragePipeline extends VariantStoragePipeline {
                 stageSuccess(fileMetadata);
             } finally {
                 Runtime.getRuntime().removeShutdownHook(hook);
+                closePipelineMetrics(STAGE.key(), metrics, loadStats);
             }
 
             long skippedVariants = converterTask.getSkippedVariants();
             stageLoader.getWriteResult().setSkippedVariants(skippedVariants);
             loadStats.append(MERGE.key(), false);
             loadStats.append("stageWriteResult", stageLoader.getWriteResult());
+            if (checkpoint.getSkippedRecords() > 0) {
+                loadStats.append("stageSkippedRecords", checkpoint.getSkippedRecords());
+            }
             options.put("skippedVariants", skippedVariants);
             logger.info("Stage Write result: {}", skippedVariants);
         } catch (ExecutionException | RuntimeException e) {
             try {
+                if (checkpoint != null) {
+                    checkpoint.flush();
+                }
                 stageError();
             } catch (Exception e2) {
                 // Do not propagate this exception!
@@ -556,7 +597,6 @@ public class MongoDBVariantStoragePipeline extends VariantStoragePipeline {
 
         int batchSize = options.getInt(Options.LOAD_BATCH_SIZE.key(), Options.LOAD_BATCH_SIZE.defaultValue());
         int loadThreads = options.getInt(Options.LOAD_THREADS.key(), Options.LOAD_THREADS.defaultValue());
-        int capacity = options.getInt("blockingQueueCapacity", loadThreads * 2);
 
         //Iterate over all the files
         Query query = new Query(VariantFileMetadataDBAdaptor.VariantFileMetadataQueryParam.STUDY_ID.key(), studyConfiguration.getStudyId());
@@ -606,6 +646,7 @@ public class MongoDBVariantStoragePipeline extends VariantStoragePipeline {
             }
         }
 
+        prepareDensitySummary(studyConfiguration, isResumeMerge(options) || options.getBoolean(MERGE_SKIP.key()));
         if (options.getBoolean(MERGE_SKIP.key())) {
             // It was already merged, but still some work is needed. Exit to do postLoad step
             writeResult = new MongoDBVariantWriteResult();
@@ -621,6 +662,7 @@ public class MongoDBVariantStoragePipeline extends VariantStoragePipeline {
                 }
             });
             Runtime.getRuntime().addShutdownHook(hook);
+            PipelineMetrics metrics = newPipelineMetrics(MERGE.key());
             try {
                 // This scenario only matters when adding unknownGenotypes
                 if (loadUnknownGenotypes && !wholeGenomeFiles.isEmpty() && !byChromosomeFiles.isEmpty()) {
@@ -633,22 +675,17 @@ public class MongoDBVariantStoragePipeline extends VariantStoragePipeline {
 
                 if (chromosomesToLoad.isEmpty()) {
                     writeResult = mergeByChromosome(fileIds, batchSize, loadThreads,
-                            studyConfiguration, null, studyConfiguration.getIndexedFiles());
+                            studyConfiguration, null, studyConfiguration.getIndexedFiles(), metrics);
                 } else {
-                    writeResult = new MongoDBVariantWriteResult();
-                    for (String chromosome : chromosomesToLoad) {
-                        List<Integer> filesToLoad = chromosomeInFilesToLoad.get(chromosome);
-                        Set<Integer> indexedFiles = new HashSet<>(chromosomeInLoadedFiles.get(chromosome));
-                        MongoDBVariantWriteResult aux = mergeByChromosome(filesToLoad, batchSize, loadThreads,
-                                studyConfiguration, chromosome, indexedFiles);
-                        writeResult.merge(aux);
-                    }
+                    writeResult = mergeByChromosomes(chromosomesToLoad, chromosomeInFilesToLoad, chromosomeInLoadedFiles,
+                            batchSize, loadThreads, studyConfiguration, metrics);
                 }
             } catch (Exception e) {
                 getStudyConfigurationManager().atomicSetStatus(getStudyId(), BatchFileOperation.Status.ERROR, MERGE.key(), fileIds);
                 throw e;
             } finally {
                 Runtime.getRuntime().removeShutdownHook(hook);
+                closePipelineMetrics(MERGE.key(), metrics, loadStats);
             }
             getStudyConfigurationManager().atomicSetStatus(getStudyId(), BatchFileOperation.Status.DONE, MERGE.key(), fileIds);
         }
@@ -675,6 +712,32 @@ public class MongoDBVariantStoragePipeline extends VariantStoragePipeline {
         return writeResult;
     }
 
+    /**
+     * Decide how to update the density summary of the study with the files to load.
+     * The summary is incremented while loading if the study is empty or if the summary was complete. Otherwise, the
+     * increments are not reliable, and the summary is rebuilt after loading.
+     *
+     * @param studyConfiguration StudyConfiguration
+     * @param resume             If the load is being resumed
+     */
+    private void prepareDensitySummary(StudyConfiguration studyConfiguration, boolean resume) {
+        densitySummaryIncrement = null;
+        densitySummaryRebuild = false;
+        if (!MongoDBVariantDensitySummary.isEnabled(options)) {
+            return;
+        }
+        MongoDBVariantDensitySummary densitySummary = dbAdaptor.getDensitySummary();
+        if (!resume && studyConfiguration.getIndexedFiles().isEmpty()) {
+            // Remove leftovers from previous loads
+            densitySummary.remove(studyConfiguration.getStudyId());
+            densitySummaryIncrement = densitySummary;
+        } else if (!resume && MongoDBVariantDensitySummary.isReady(studyConfiguration)) {
+            densitySummaryIncrement = densitySummary;
+        } else {
+            densitySummaryRebuild = true;
+        }
+    }
+
     private StudyConfiguration preMerge(List<Integer> fileIds) throws StorageEngineException {
         return dbAdaptor.getStudyConfigurationManager().lockAndUpdate(getStudyId(), studyConfiguration -> {
             studyConfiguration = checkExistsStudyConfiguration(studyConfiguration);
@@ -695,8 +758,77 @@ public class MongoDBVariantStoragePipeline extends VariantStoragePipeline {
         });
     }
 
+    /**
+     * Merge each chromosome independently.
+     *
+     * Up to {@link MongoDBVariantStorageEngine.MongoDBVariantOptions#MERGE_PARALLEL_CHROMOSOMES} chromosomes are merged at the same time.
+     * The load threads are split between the chromosomes being merged, so the total number of merge tasks does not change.
+     *
+     * @param chromosomes       Chromosomes to merge
+     * @param filesToLoad       Files to load per chromosome
+     * @param loadedFiles       Already indexed files per chromosome
+     * @param batchSize         Batch size
+     * @param loadThreads       Total number of merge threads
+     * @param studyConfiguration StudyConfiguration
+     * @param metrics           Metrics shared by all the chromosomes
+     * @return                  Write Result with times and count
+     * @throws StorageEngineException  If there is a problem merging any chromosome
+     */
+    private MongoDBVariantWriteResult mergeByChromosomes(Collection<String> chromosomes, ListMultimap<String, Integer> filesToLoad,
+                                                         ListMultimap<String, Integer> loadedFiles, int batchSize, int loadThreads,
+                                                         StudyConfiguration studyConfiguration, PipelineMetrics metrics)
+            throws StorageEngineException {
+        MongoDBVariantWriteResult result = new MongoDBVariantWriteResult();
+        int parallelChromosomes = Math.min(chromosomes.size(),
+                options.getInt(MERGE_PARALLEL_CHROMOSOMES.key(), MERGE_PARALLEL_CHROMOSOMES.defaultValue()));
+        if (parallelChromosomes <= 1) {
+            for (String chromosome : chromosomes) {
+                MongoDBVariantWriteResult aux = mergeByChromosome(filesToLoad.get(chromosome), batchSize, loadThreads,
+                        studyConfiguration, chromosome, new HashSet<>(loadedFiles.get(chromosome)), metrics);
+                result.merge(aux);
+            }
+            return result;
+        }
+
+        int threadsPerChromosome = Math.max(1, loadThreads / parallelChromosomes);
+        logger.info("Merging {} chromosomes, {} at a time with {} threads each", chromosomes.size(), parallelChromosomes,
+                threadsPerChromosome);
+        ExecutorService executorService = Executors.newFixedThreadPool(parallelChromosomes, r -> {
+            Thread t = new Thread(r);
+            t.setDaemon(true);
+            return t;
+        });
+        List<Future<MongoDBVariantWriteResult>> futures = new ArrayList<>(chromosomes.size());
+        for (String chromosome : chromosomes) {
+            List<Integer> chromosomeFilesToLoad = filesToLoad.get(chromosome);
+            Set<Integer> indexedFiles = new HashSet<>(loadedFiles.get(chromosome));
+            futures.add(executorService.submit(() -> {
+                Thread.currentThread().setName("merge-chr-" + chromosome);
+                return mergeByChromosome(chromosomeFilesToLoad, batchSize, threadsPerChromosome, studyConfiguration, chromosome,
+                        indexedFiles, metrics);
+            }));
+        }
+        executorService.shutdown();
+        try {
+            for (Future<MongoDBVariantWriteResult> future : futures) {
+                result.merge(future.get());
+            }
+        } catch (InterruptedException e) {
+            executorService.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new StorageEngineException("Interrupted while merging chromosomes", e);
+        } catch (ExecutionException e) {
+            executorService.shutdownNow();
+            if (e.getCause() instanceof StorageEngineException) {
+                throw (StorageEngineException) e.getCause();
+            }
+            throw new StorageEngineException("Error merging chromosomes", e.getCause());
+        }
+        return result;
+    }
+
     private MongoDBVariantWriteResult mergeByChromosome(List<Integer> fileIds, int batchSize, int loadThreads,
-            StudyConfiguration studyConfiguration, String chromosomeToLoad, Set<Integer> indexedFiles)
+            StudyConfiguration studyConfiguration, String chromosomeToLoad, Set<Integer> indexedFiles, PipelineMetrics metrics)
             throws StorageEngineException {
         MongoDBCollection stageCollection = dbAdaptor.getStageCollection(studyConfiguration.getStudyId());
         MongoDBVariantStageReader reader = new MongoDBVariantStageReader(stageCollection, studyConfiguration.getStudyId(),
@@ -706,6 +838,7 @@ public class MongoDBVariantStoragePipeline extends VariantStoragePipeline {
             // Read only files to load when MergeMode is BASIC
             reader.setFileIds(fileIds);
         }
+        reader.setCursorBatchSize(options.getInt(MERGE_READ_BATCH_SIZE.key(), MERGE_READ_BATCH_SIZE.defaultValue()));
         boolean resume = isResumeMerge(options);
         boolean cleanWhileLoading = options.getBoolean(STAGE_CLEAN_WHILE_LOAD.key(), STAGE_CLEAN_WHILE_LOAD.defaultValue());
         ProgressLogger progressLogger = new ProgressLogger("Write variants in VARIANTS collection:", reader::countNumVariants, 200);
@@ -719,18 +852,29 @@ public class MongoDBVariantStoragePipeline extends VariantStoragePipeline {
         MongoDBVariantMergeLoader variantLoader = new MongoDBVariantMergeLoader(
                 dbAdaptor.getVariantsCollection(), stageCollection, dbAdaptor.getStudiesCollection(),
                 studyConfiguration, fileIds, resume, cleanWhileLoading, progressLogger);
+        variantLoader.setDensitySummary(densitySummaryIncrement);
+        if (!isMergeParallelWrite(options)) {
+            // Pipeline the bulk writes, so the writer does not block the merger tasks.
+            // Not needed when writing from the tasks, as the writes are already concurrent.
+            variantLoader.setMaxInFlightWrites(options.getInt(MERGE_WRITE_IN_FLIGHT.key(), MERGE_WRITE_IN_FLIGHT.defaultValue()));
+        }
 
         ParallelTaskRunner<Document, MongoDBOperations> ptrMerge;
+        // Let the reader prefetch batches ahead of the merger
+        int capacity = options.getInt("blockingQueueCapacity", loadThreads * 2);
         ParallelTaskRunner.Config config = ParallelTaskRunner.Config.builder()
                 .setReadQueuePutTimeout(20 * 60)
+                .setCapacity(capacity)
                 .setNumTasks(loadThreads)
                 .setBatchSize(batchSize)
                 .setAbortOnFail(true).build();
         try {
             if (isMergeParallelWrite(options)) {
-                ptrMerge = new ParallelTaskRunner<>(reader, variantMerger.then(variantLoader), null, config);
+                ptrMerge = new ParallelTaskRunner<>(metrics.wrapReader(reader), metrics.wrapTask(variantMerger.then(variantLoader)),
+                        null, config);
             } else {
-                ptrMerge = new ParallelTaskRunner<>(reader, variantMerger, variantLoader, config);
+                ptrMerge = new ParallelTaskRunner<>(metrics.wrapReader(reader), metrics.wrapTask(variantMerger),
+                        metrics.wrapWriter(variantLoader), config);
             }
         } catch (RuntimeException e) {
             throw new StorageEngineException("Error while creating ParallelTaskRunner", e);
@@ -755,6 +899,9 @@ public class MongoDBVariantStoragePipeline extends VariantStoragePipeline {
     public URI postLoad(URI input, URI output) throws StorageEngineException {
 
         if (options.getBoolean(MERGE.key()) || options.getBoolean(DIRECT_LOAD.key(), DIRECT_LOAD.defaultValue())) {
+            if (densitySummaryRebuild) {
+                dbAdaptor.getDensitySummary().rebuild(getStudyId(), dbAdaptor.getVariantsCollection());
+            }
             return postLoad(input, output, fileIds);
         } else {
             return input;
@@ -779,11 +926,8 @@ public class MongoDBVariantStoragePipeline extends VariantStoragePipeline {
         Set<String> genotypes = new HashSet<>(studyConfiguration.getAttributes().getAsStringList(LOADED_GENOTYPES.key()));
         genotypes.addAll(writeResult.getGenotypes());
         studyConfiguration.getAttributes().put(LOADED_GENOTYPES.key(), genotypes);
-    }
-
-    @Override
-    public ObjectMap getLoadStats() {
-        return loadStats;
+        // The summary is only complete if it was updated while loading these files
+        studyConfiguration.getAttributes().put(DENSITY_SUMMARY_READY.key(), densitySummaryIncrement != null || densitySummaryRebuild);
     }
 
     @Override
@@ -0,0 +1,298 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.mongodb.variant.adaptors;
+
+import com.mongodb.ServerAddress;
+import com.mongodb.ServerCursor;
+import com.mongodb.client.MongoCursor;
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryUtils.QueryOperation;
+import org.opencb.opencga.storage.mongodb.variant.converters.DocumentToStudyVariantEntryConverter;
+import org.opencb.opencga.storage.mongodb.variant.converters.DocumentToVariantConverter;
+import org.opencb.opencga.storage.mongodb.variant.converters.GenotypeBinaryCodec;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Genotype filter over the binary genotypes of a study, applied to the documents returned by MongoDB.
+ *
+ * MongoDB can not filter the binary genotypes, so the {@link VariantMongoDBQueryParser} returns this filter instead of
+ * the conditions over the genotypes map, with the same semantics. Variants not migrated yet are filtered from the genotypes map.
+ *
+ * @see org.opencb.opencga.storage.mongodb.variant.MongoDBVariantStorageEngine.MongoDBVariantOptions#GENOTYPES_BINARY
+ */
+public class MongoDBGenotypeBinaryFilter implements Predicate<Document> {
+
+    private static final String STUDY_ID = DocumentToVariantConverter.STUDIES_FIELD + '.'
+            + DocumentToStudyVariantEntryConverter.STUDYID_FIELD;
+    private static final String GENOTYPES = DocumentToVariantConverter.STUDIES_FIELD + '.'
+            + DocumentToStudyVariantEntryConverter.GENOTYPES_FIELD;
+    private static final String GENOTYPES_BINARY = DocumentToVariantConverter.STUDIES_FIELD + '.'
+            + DocumentToStudyVariantEntryConverter.GENOTYPES_BINARY_FIELD;
+
+    private final int studyId;
+    private final boolean or;
+    private final Map<Integer, SampleFilter> samples = new TreeMap<>();
+    private final List<String> removeFields = new ArrayList<>(2);
+    private int[] sortedSampleIds;
+
+    MongoDBGenotypeBinaryFilter(int studyId, QueryOperation operation) {
+        this.studyId = studyId;
+        this.or = operation == QueryOperation.OR;
+    }
+
+    SampleFilter addSample(int sampleId) {
+        return samples.computeIfAbsent(sampleId, SampleFilter::new);
+    }
+
+    /**
+     * Add to the projection the fields required by the filter.
+     * Fields not requested by the projection are removed from the documents once filtered.
+     *
+     * @param projection MongoDB projection
+     * @return Projection, modified
+     */
+    public Document addRequiredFields(Document projection) {
+        if (projection.isEmpty()) {
+            // Include all
+            return projection;
+        }
+        Object studies = projection.get(DocumentToVariantConverter.STUDIES_FIELD);
+        if (studies instanceof Document) {
+            // Projection $elemMatch of other studies. Return all the studies. The converter skips the non requested ones
+            projection.remove(DocumentToVariantConverter.STUDIES_FIELD);
+            if (projection.keySet().stream().noneMatch(key -> key.startsWith(DocumentToVariantConverter.STUDIES_FIELD + '.'))) {
+                // The $elemMatch was returning the whole study
+                projection.put(DocumentToVariantConverter.STUDIES_FIELD, 1);
+                return projection;
+            }
+        } else if (studies != null) {
+            // Include the whole study
+            return projection;
+        }
+        projection.putIfAbsent(STUDY_ID, 1);
+        for (String field : Arrays.asList(GENOTYPES, GENOTYPES_BINARY)) {
+            if (!projection.containsKey(field)) {
+                projection.put(field, 1);
+                removeFields.add(field.substring(DocumentToVariantConverter.STUDIES_FIELD.length() + 1));
+            }
+        }
+        return projection;
+    }
+
+    /**
+     * Filter a cursor. Skip and limit are applied over the filtered documents.
+     *
+     * @param cursor MongoDB cursor
+     * @param skip   Documents to skip
+     * @param limit  Max number of documents to return. Non positive for no limit
+     * @return Filtered cursor
+     */
+    public MongoCursor<Document> filter(MongoCursor<Document> cursor, int skip, int limit) {
+        return new FilteredCursor(cursor, skip, limit);
+    }
+
+    @Override
+    public boolean test(Document document) {
+        Document study = getStudy(document);
+        if (study == null) {
+            return false;
+        }
+        String[] genotypes = decode(study);
+        int i = 0;
+        for (SampleFilter sample : samples.values()) {
+            boolean match = sample.test(genotypes[i++]);
+            if (or && match) {
+                return true;
+            } else if (!or && !match) {
+                return false;
+            }
+        }
+        return !or;
+    }
+
+    private Document getStudy(Document document) {
+        List<Document> studies = (List<Document>) document.get(DocumentToVariantConverter.STUDIES_FIELD);
+        if (studies != null) {
+            for (Document study : studies) {
+                if (((Number) study.get(DocumentToStudyVariantEntryConverter.STUDYID_FIELD)).intValue() == studyId) {
+                    return study;
+                }
+            }
+        }
+        return null;
+    }
+
+    private String[] decode(Document study) {
+        if (sortedSampleIds == null) {
+            sortedSampleIds = samples.keySet().stream().mapToInt(Integer::intValue).toArray();
+        }
+        Binary binary = study.get(DocumentToStudyVariantEntryConverter.GENOTYPES_BINARY_FIELD, Binary.class);
+        if (binary != null) {
+            return GenotypeBinaryCodec.decode(binary.getData(), sortedSampleIds);
+        }
+        String[] genotypes = new String[sortedSampleIds.length];
+        Document gt = study.get(DocumentToStudyVariantEntryConverter.GENOTYPES_FIELD, Document.class);
+        if (gt != null) {
+            for (Map.Entry<String, Object> entry : gt.entrySet()) {
+                Collection<?> sampleIds = (Collection<?>) entry.getValue();
+                for (int i = 0; i < sortedSampleIds.length; i++) {
+                    if (sampleIds.contains(sortedSampleIds[i])) {
+                        genotypes[i] = entry.getKey();
+                    }
+                }
+            }
+        }
+        return genotypes;
+    }
+
+    private void removeFields(Document document) {
+        if (removeFields.isEmpty()) {
+            return;
+        }
+        List<Document> studies = (List<Document>) document.get(DocumentToVariantConverter.STUDIES_FIELD);
+        if (studies != null) {
+            for (Document study : studies) {
+                for (String field : removeFields) {
+                    study.remove(field);
+                }
+            }
+        }
+    }
+
+    /**
+     * Genotypes filter of one sample. The sample matches any of the accepted genotypes, and none of the rejected ones.
+     */
+    static final class SampleFilter {
+        private final int sampleId;
+        private boolean acceptDefault;
+        private boolean acceptNonDefault;
+        private final Set<String> accepted = new HashSet<>();
+        private final Set<String> rejected = new HashSet<>();
+
+        private SampleFilter(int sampleId) {
+            this.sampleId = sampleId;
+        }
+
+        SampleFilter acceptDefault() {
+            acceptDefault = true;
+            return this;
+        }
+
+        SampleFilter acceptNonDefault() {
+            acceptNonDefault = true;
+            return this;
+        }
+
+        SampleFilter accept(String genotype) {
+            accepted.add(genotype);
+            return this;
+        }
+
+        SampleFilter reject(String genotype) {
+            rejected.add(genotype);
+            return this;
+        }
+
+        // Genotype in storage format, or null for the default genotype
+        private boolean test(String genotype) {
+            boolean anyAccepted = !acceptDefault && !acceptNonDefault && accepted.isEmpty();
+            if (genotype == null) {
+                return anyAccepted || acceptDefault;
+            } else {
+                return (anyAccepted || acceptNonDefault || accepted.contains(genotype)) && !rejected.contains(genotype);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "SampleFilter{sampleId=" + sampleId + ", acceptDefault=" + acceptDefault + ", acceptNonDefault=" + acceptNonDefault
+                    + ", accepted=" + accepted + ", rejected=" + rejected + '}';
+        }
+    }
+
+    private final class FilteredCursor implements MongoCursor<Document> {
+        private final MongoCursor<Document> cursor;
+        private final int limit;
+        private int skip;
+        private int count;
+        private Document next;
+
+        private FilteredCursor(MongoCursor<Document> cursor, int skip, int limit) {
+            this.cursor = cursor;
+            this.skip = Math.max(0, skip);
+            this.limit = limit;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (limit > 0 && count >= limit) {
+                return false;
+            }
+            while (next == null && cursor.hasNext()) {
+                Document document = cursor.next();
+                if (test(document)) {
+                    if (skip > 0) {
+                        skip--;
+                    } else {
+                        removeFields(document);
+                        next = document;
+                    }
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public Document next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Document document = next;
+            next = null;
+            count++;
+            return document;
+        }
+
+        @Override
+        public Document tryNext() {
+            return hasNext() ? next() : null;
+        }
+
+        @Override
+        public void close() {
+            cursor.close();
+        }
+
+        @Override
+        public ServerCursor getServerCursor() {
+            return cursor.getServerCursor();
+        }
+
+        @Override
+        public ServerAddress getServerAddress() {
+            return cursor.getServerAddress();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MongoDBGenotypeBinaryFilter{studyId=" + studyId + ", " + (or ? "OR" : "AND") + ", samples=" + samples.values() + '}';
+    }
+}
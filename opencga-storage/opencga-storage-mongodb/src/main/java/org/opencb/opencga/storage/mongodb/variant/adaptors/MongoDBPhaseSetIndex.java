@@ -0,0 +1,118 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.mongodb.variant.adaptors;
+
+import com.mongodb.DuplicateKeyException;
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.model.Projections;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.commons.datastore.core.ObjectMap;
+import org.opencb.commons.datastore.core.QueryOptions;
+import org.opencb.commons.datastore.mongodb.MongoDBCollection;
+import org.opencb.opencga.storage.core.variant.phasing.PhaseSetIndex;
+
+import java.util.*;
+
+import static com.mongodb.client.model.Filters.*;
+import static com.mongodb.client.model.Updates.*;
+
+/**
+ * Phase set index stored in a MongoDB collection. One document per study, sample, chromosome and phase set:
+ *
+ *   { _id: "sid_sample_chr_ps", sid: int, sample: int, chr: string, ps: string, v: [ variant ids ] }
+ */
+public class MongoDBPhaseSetIndex implements PhaseSetIndex {
+
+    public static final String STUDY_FIELD = "sid";
+    public static final String SAMPLE_FIELD = "sample";
+    public static final String CHROMOSOME_FIELD = "chr";
+    public static final String PHASE_SET_FIELD = "ps";
+    public static final String VARIANTS_FIELD = "v";
+
+    private static final QueryOptions UPSERT = new QueryOptions(MongoDBCollection.UPSERT, true);
+    private static final QueryOptions MULTI = new QueryOptions(MongoDBCollection.MULTI, true);
+
+    private final MongoDBCollection collection;
+
+    public MongoDBPhaseSetIndex(MongoDBCollection collection) {
+        this.collection = collection;
+    }
+
+    public void createIndexes() {
+        collection.createIndex(new Document(STUDY_FIELD, 1).append(SAMPLE_FIELD, 1), new ObjectMap(MongoDBCollection.BACKGROUND, true));
+    }
+
+    @Override
+    public void add(int studyId, int sampleId, String chromosome, String phaseSet, Collection<String> variants) {
+        update(eq("_id", buildId(studyId, sampleId, chromosome, phaseSet)), combine(
+                addEachToSet(VARIANTS_FIELD, new ArrayList<>(variants)),
+                setOnInsert(STUDY_FIELD, studyId),
+                setOnInsert(SAMPLE_FIELD, sampleId),
+                setOnInsert(CHROMOSOME_FIELD, chromosome),
+                setOnInsert(PHASE_SET_FIELD, phaseSet)), true);
+    }
+
+    private void update(Bson query, Bson update, boolean retry) {
+        try {
+            collection.update(query, update, UPSERT);
+        } catch (MongoWriteException e) {
+            // Concurrent upserts of the same phase set may fail with a DuplicatedKeyException (e:11000).
+            // See https://jira.mongodb.org/browse/SERVER-14322
+            if (!retry || !ErrorCategory.fromErrorCode(e.getError().getCode()).equals(ErrorCategory.DUPLICATE_KEY)) {
+                throw e;
+            }
+            // Retry once! The document exists now, so the upsert becomes an update.
+            update(query, update, false);
+        } catch (DuplicateKeyException e) {
+            if (!retry) {
+                throw e;
+            }
+            update(query, update, false);
+        }
+    }
+
+    @Override
+    public List<String> get(int studyId, int sampleId, String chromosome, String phaseSet) {
+        Document document = collection.find(eq("_id", buildId(studyId, sampleId, chromosome, phaseSet)),
+                Projections.include(VARIANTS_FIELD), new QueryOptions()).first();
+        if (document == null) {
+            return Collections.emptyList();
+        }
+        List<Variant> variants = new ArrayList<>();
+        for (Object id : document.get(VARIANTS_FIELD, List.class)) {
+            variants.add(new Variant(id.toString()));
+        }
+        variants.sort(POSITION_COMPARATOR);
+        List<String> ids = new ArrayList<>(variants.size());
+        for (Variant variant : variants) {
+            ids.add(variant.toString());
+        }
+        return ids;
+    }
+
+    @Override
+    public void remove(int studyId, Collection<Integer> sampleIds) {
+        collection.remove(and(eq(STUDY_FIELD, studyId), in(SAMPLE_FIELD, new ArrayList<>(sampleIds))), MULTI);
+    }
+
+    public static String buildId(int studyId, int sampleId, String chromosome, String phaseSet) {
+        return studyId + "_" + sampleId + '_' + chromosome + '_' + phaseSet;
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.opencb.opencga.storage.mongodb.variant.adaptors;
+
+import org.bson.Document;
+import org.opencb.biodata.models.core.Region;
+import org.opencb.opencga.storage.mongodb.variant.MongoDBVariantStorageEngine.MongoDBVariantOptions;
+import org.opencb.opencga.storage.mongodb.variant.converters.DocumentToVariantConverter;
+import org.opencb.opencga.storage.mongodb.variant.converters.VariantStringIdConverter;
+
+import java.util.*;
+
+/**
+ * Builds the MongoDB filter for a list of regions.
+ *
+ * Overlapping or adjacent regions are merged first. Then, for each merged region, chooses between:
+ * <ul>
+ *     <li>{@link Strategy#CHUNK_IDS}: Look up the variants by "_at.chunkIds".
+ *     Used with narrow regions, that only require a few chunks.</li>
+ *     <li>{@link Strategy#RANGE}: Range scan over the compound index "chromosome, start, end". Used with wide regions.</li>
+ * </ul>
+ *
+ * In both cases, a variant matches the region if its start is within the region, as the chunk ids are built from the start.
+ *
+ * Regions are sorted in the same order as the variant "_id", so a plan can be split in consecutive partitions
+ * that return disjoint and sorted sets of variants.
+ *
+ * @see MongoDBVariantOptions#REGION_PLANNER_MAX_CHUNK_IDS
+ */
+public class MongoDBRegionQueryPlanner {
+
+    public enum Strategy {
+        CHUNK_IDS,
+        RANGE
+    }
+
+    private static final Comparator<Region> REGION_COMPARATOR = Comparator
+            .comparing((Region r) -> VariantStringIdConverter.convertChromosome(r.getChromosome()))
+            .thenComparingInt(Region::getStart)
+            .thenComparingInt(Region::getEnd);
+
+    private final int maxChunkIds;
+
+    public MongoDBRegionQueryPlanner() {
+        this((Integer) MongoDBVariantOptions.REGION_PLANNER_MAX_CHUNK_IDS.defaultValue());
+    }
+
+    public MongoDBRegionQueryPlanner(int maxChunkIds) {
+        this.maxChunkIds = maxChunkIds;
+    }
+
+    /**
+     * Plan the filter for the given regions.
+     *
+     * @param regions Regions to query
+     * @return Region plan
+     */
+    public Plan plan(List<Region> regions) {
+        List<RegionFilter> filters = new ArrayList<>();
+        for (Region region : mergeRegions(regions)) {
+            filters.add(planRegion(region));
+        }
+        return new Plan(regions.size(), filters);
+    }
+
+    private RegionFilter planRegion(Region region) {
+        if (numChunks(region, VariantMongoDBAdaptor.CHUNK_SIZE_SMALL) <= maxChunkIds) {
+            return new RegionFilter(region, Strategy.CHUNK_IDS, getChunkIds(region, VariantMongoDBAdaptor.CHUNK_SIZE_SMALL));
+        } else if (numChunks(region, VariantMongoDBAdaptor.CHUNK_SIZE_BIG) <= maxChunkIds) {
+            return new RegionFilter(region, Strategy.CHUNK_IDS, getChunkIds(region, VariantMongoDBAdaptor.CHUNK_SIZE_BIG));
+        } else {
+            return new RegionFilter(region, Strategy.RANGE, Collections.emptyList());
+        }
+    }
+
+    /**
+     * Sort and merge overlapping or adjacent regions from the same chromosome.
+     *
+     * @param regions Regions to merge
+     * @return Sorted list of non overlapping regions
+     */
+    public static List<Region> mergeRegions(List<Region> regions) {
+        List<Region> sorted = new ArrayList<>(regions);
+        sorted.sort(REGION_COMPARATOR);
+
+        List<Region> merged = new ArrayList<>(sorted.size());
+        Region current = null;
+        for (Region region : sorted) {
+            if (current != null
+                    && current.getChromosome().equals(region.getChromosome())
+                    && region.getStart() <= (long) current.getEnd() + 1) {
+                if (region.getEnd() > current.getEnd()) {
+                    current = new Region(current.getChromosome(), current.getStart(), region.getEnd());
+                    merged.set(merged.size() - 1, current);
+                }
+            } else {
+                current = new Region(region.getChromosome(), region.getStart(), region.getEnd());
+                merged.add(current);
+            }
+        }
+        return merged;
+    }
+
+    private static long numChunks(Region region, int chunkSize) {
+        return region.getEnd() / chunkSize - region.getStart() / chunkSize + 1;
+    }
+
+    private static List<String> getChunkIds(Region region, int chunkSize) {
+        int ks = chunkSize / 1000;
+        int chunkStart = region.getStart() / chunkSize;
+        int chunkEnd = region.getEnd() / chunkSize;
+
+        List<String> chunkIds = new ArrayList<>(chunkEnd - chunkStart + 1);
+        for (int i = chunkStart; i <= chunkEnd; i++) {
+            chunkIds.add(region.getChromosome() + "_" + i + "_" + ks + "k");
+        }
+        return chunkIds;
+    }
+
+    /**
+     * Filter of one merged region.
+     */
+    public static final class RegionFilter {
+        private final Region region;
+        private final Strategy strategy;
+        private final List<String> chunkIds;
+
+        private RegionFilter(Region region, Strategy strategy, List<String> chunkIds) {
+            this.region = region;
+            this.strategy = strategy;
+            this.chunkIds = chunkIds;
+        }
+
+        public Region getRegion() {
+            return region;
+        }
+
+        public Strategy getStrategy() {
+            return strategy;
+        }
+
+        public List<String> getChunkIds() {
+            return chunkIds;
+        }
+
+        public Document toQuery() {
+            Document startFilter = new Document("$gte", region.getStart()).append("$lte", region.getEnd());
+            if (strategy == Strategy.CHUNK_IDS) {
+                Document chunkFilter = chunkIds.size() == 1
+                        ? new Document("$eq", chunkIds.get(0))
+                        : new Document("$in", chunkIds);
+                return new Document(DocumentToVariantConverter.AT_FIELD + '.' + DocumentToVariantConverter.CHUNK_IDS_FIELD, chunkFilter)
+                        .append(DocumentToVariantConverter.START_FIELD, startFilter);
+            } else {
+                return new Document(DocumentToVariantConverter.CHROMOSOME_FIELD, region.getChromosome())
+                        .append(DocumentToVariantConverter.START_FIELD, startFilter);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return region + " " + strategy + (strategy == Strategy.CHUNK_IDS ? " " + chunkIds.size() + " chunks" : "");
+        }
+    }
+
+    /**
+     * Result of planning a list of regions.
+     */
+    public static final class Plan {
+        private final int numInputRegions;
+        private final List<RegionFilter> filters;
+
+        private Plan(int numInputRegions, List<RegionFilter> filters) {
+            this.numInputRegions = numInputRegions;
+            this.filters = Collections.unmodifiableList(filters);
+        }
+
+        public List<RegionFilter> getFilters() {
+            return filters;
+        }
+
+        public List<Region> getRegions() {
+            List<Region> regions = new ArrayList<>(filters.size());
+            for (RegionFilter filter : filters) {
+                regions.add(filter.getRegion());
+            }
+            return regions;
+        }
+
+        public int size() {
+            return filters.size();
+        }
+
+        public int getNumInputRegions() {
+            return numInputRegions;
+        }
+
+        /**
+         * Filters to be joined with an "$or".
+         *
+         * @return List of filters, one per merged region
+         */
+        public List<Document> toQueries() {
+            List<Document> queries = new ArrayList<>(filters.size());
+            for (RegionFilter filter : filters) {
+                queries.add(filter.toQuery());
+            }
+            return queries;
+        }
+
+        /**
+         * Split the merged regions in consecutive partitions. The variants returned by each partition are disjoint, and
+         * sorted between partitions.
+         *
+         * @param maxRegions Max number of merged regions per partition
+         * @return List of partitions, in the order of the variant "_id"
+         */
+        public List<List<Region>> split(int maxRegions) {
+            List<Region> regions = getRegions();
+            if (maxRegions <= 0 || regions.size() <= maxRegions) {
+                return Collections.singletonList(regions);
+            }
+            int numPartitions = (regions.size() + maxRegions - 1) / maxRegions;
+            // Balance the partition size
+            int partitionSize = (regions.size() + numPartitions - 1) / numPartitions;
+            List<List<Region>> partitions = new ArrayList<>(numPartitions);
+            for (int i = 0; i < regions.size(); i += partitionSize) {
+                partitions.add(regions.subList(i, Math.min(regions.size(), i + partitionSize)));
+            }
+            return partitions;
+        }
+
+        /**
+         * Describe the plan, to be reported in the explain.
+         *
+         * @return Plan description
+         */
+        public Document toDocument() {
+            int chunkIdRegions = 0;
+            int numChunkIds = 0;
+            for (RegionFilter filter : filters) {
+                if (filter.getStrategy() == Strategy.CHUNK_IDS) {
+                    chunkIdRegions++;
+                    numChunkIds += filter.getChunkIds().size();
+                }
+            }
+            List<String> regions = new ArrayList<>(filters.size());
+            for (RegionFilter filter : filters) {
+                regions.add(filter.toString());
+            }
+            return new Document("inputRegions", numInputRegions)
+                    .append("mergedRegions", filters.size())
+                    .append("chunkIdRegions", chunkIdRegions)
+                    .append("chunkIds", numChunkIds)
+                    .append("rangeRegions", filters.size() - chunkIdRegions)
+                    .append("regions", regions);
+        }
+
+        @Override
+        public String toString() {
+            return toDocument().toJson();
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.opencb.opencga.storage.mongodb.variant.adaptors;
+
+import com.mongodb.ServerAddress;
+import com.mongodb.ServerCursor;
+import com.mongodb.client.MongoCursor;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Cursor over a list of sub-queries, executed concurrently.
+ *
+ * Sub-queries are expected to return disjoint sets of documents, sorted between them, like the partitions from
+ * {@link MongoDBRegionQueryPlanner.Plan#split}. Results are merged client side keeping the order of the sub-queries,
+ * so the merge is sorted if each sub-query is sorted.
+ *
+ * Up to "parallelism" sub-queries are read at the same time, each one prefetching a limited number of batches.
+ * The time waiting for the database is measured in the reading threads, see {@link #getTimeFetching}.
+ */
+public class MongoDBSplitQueryCursor implements MongoCursor<Document> {
+
+    private static final List<Document> END_OF_INPUT = Collections.unmodifiableList(new ArrayList<>());
+    private static final int PREFETCH_BATCHES = 2;
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+    private static Logger logger = LoggerFactory.getLogger(MongoDBSplitQueryCursor.class);
+
+    private final List<SubQuery> subQueries;
+    private final ExecutorService executor;
+    private int currentSubQuery;
+    private Iterator<Document> currentBatch = Collections.emptyIterator();
+    private volatile boolean closed;
+    private final LongAdder timeFetching = new LongAdder();
+
+    public MongoDBSplitQueryCursor(List<Supplier<MongoCursor<Document>>> cursors, int parallelism, int batchSize) {
+        subQueries = new ArrayList<>(cursors.size());
+        for (Supplier<MongoCursor<Document>> cursor : cursors) {
+            subQueries.add(new SubQuery(cursor, Math.max(1, batchSize)));
+        }
+        executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, cursors.size())), r -> {
+            Thread t = new Thread(r, "split-query-cursor-" + THREAD_COUNT.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        // Sub-queries are started in order. The consumer always drains the oldest running sub-query, so it never waits
+        // for a sub-query queued behind others blocked on a full queue.
+        for (SubQuery subQuery : subQueries) {
+            executor.submit(subQuery::read);
+        }
+        executor.shutdown();
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!currentBatch.hasNext()) {
+            if (closed || currentSubQuery >= subQueries.size()) {
+                return false;
+            }
+            List<Document> batch = subQueries.get(currentSubQuery).take();
+            if (batch == END_OF_INPUT) {
+                currentSubQuery++;
+            } else {
+                currentBatch = batch.iterator();
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Document next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return currentBatch.next();
+    }
+
+    @Override
+    public Document tryNext() {
+        return hasNext() ? next() : null;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        for (SubQuery subQuery : subQueries) {
+            // Unblock any worker waiting on a full queue
+            subQuery.queue.clear();
+        }
+        executor.shutdownNow();
+        logger.debug("Close split query cursor. {} sub-queries, {}ms fetching", subQueries.size(),
+                TimeUnit.NANOSECONDS.toMillis(getTimeFetching()));
+    }
+
+    @Override
+    public ServerCursor getServerCursor() {
+        return null;
+    }
+
+    @Override
+    public ServerAddress getServerAddress() {
+        return null;
+    }
+
+    public int getNumSubQueries() {
+        return subQueries.size();
+    }
+
+    /**
+     * Time spent by all the sub-queries fetching documents from the database, in nanoseconds.
+     * Sub-queries run concurrently, so this may be greater than the elapsed time.
+     *
+     * @return Time fetching, in nanoseconds
+     */
+    public long getTimeFetching() {
+        return timeFetching.sum();
+    }
+
+    private final class SubQuery {
+        private final Supplier<MongoCursor<Document>> cursorSupplier;
+        private final int batchSize;
+        private final BlockingQueue<List<Document>> queue = new ArrayBlockingQueue<>(PREFETCH_BATCHES + 1);
+        private volatile RuntimeException exception;
+
+        private SubQuery(Supplier<MongoCursor<Document>> cursorSupplier, int batchSize) {
+            this.cursorSupplier = cursorSupplier;
+            this.batchSize = batchSize;
+        }
+
+        private void read() {
+            try {
+                if (!closed) {
+                    long start = System.nanoTime();
+                    try (MongoCursor<Document> cursor = cursorSupplier.get()) {
+                        List<Document> batch = new ArrayList<>(batchSize);
+                        while (!closed && cursor.hasNext()) {
+                            batch.add(cursor.next());
+                            if (batch.size() == batchSize) {
+                                // Do not count the time waiting for the consumer
+                                timeFetching.add(System.nanoTime() - start);
+                                queue.put(batch);
+                                start = System.nanoTime();
+                                batch = new ArrayList<>(batchSize);
+                            }
+                        }
+                        timeFetching.add(System.nanoTime() - start);
+                        if (!batch.isEmpty()) {
+                            queue.put(batch);
+                        }
+                    }
+                }
+            } catch (RuntimeException e) {
+                exception = e;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                if (!closed) {
+                    try {
+                        queue.put(END_OF_INPUT);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        }
+
+        private List<Document> take() {
+            try {
+                List<Document> batch = queue.take();
+                if (batch == END_OF_INPUT && exception != null) {
+                    // Leave the mark for any other call
+                    queue.offer(END_OF_INPUT);
+                    throw exception;
+                }
+                return batch;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,334 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.opencb.opencga.storage.mongodb.variant.adaptors;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.opencb.biodata.models.core.Region;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.commons.datastore.core.ObjectMap;
+import org.opencb.commons.datastore.core.QueryOptions;
+import org.opencb.commons.datastore.mongodb.MongoDBCollection;
+import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
+import org.opencb.opencga.storage.mongodb.variant.MongoDBVariantStorageEngine.MongoDBVariantOptions;
+import org.opencb.opencga.storage.mongodb.variant.converters.DocumentToStudyVariantEntryConverter;
+import org.opencb.opencga.storage.mongodb.variant.converters.DocumentToVariantConverter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+import static com.mongodb.client.model.Filters.*;
+import static com.mongodb.client.model.Updates.*;
+
+/**
+ * Density summary of the variants collection.
+ *
+ * Keeps, for each study, the number of variants of each type starting in each chunk of {@link #CHUNK_SIZE} bases.
+ * One document per study, chromosome and chunk:
+ *
+ *   { _id: "sid_chr_chunk", sid: int, chr: string, chunk: int, count: long, types: { SNV: long, INDEL: long, ... } }
+ *
+ * The summary is incremented while loading new variants into a study, and rebuilt from the variants collection
+ * when the increments are not reliable (resumed loads, removed files, studies loaded before the summary existed).
+ * A study can only use the summary if {@link MongoDBVariantOptions#DENSITY_SUMMARY_READY} is true.
+ */
+public class MongoDBVariantDensitySummary {
+
+    public static final int CHUNK_SIZE = VariantMongoDBAdaptor.CHUNK_SIZE_BIG;
+
+    public static final String STUDY_FIELD = "sid";
+    public static final String CHROMOSOME_FIELD = "chr";
+    public static final String CHUNK_FIELD = "chunk";
+    public static final String COUNT_FIELD = "count";
+    public static final String TYPES_FIELD = "types";
+
+    private static final int WRITE_BATCH_SIZE = 1000;
+    private static final QueryOptions UPSERT = new QueryOptions(MongoDBCollection.UPSERT, true);
+    private static final QueryOptions MULTI = new QueryOptions(MongoDBCollection.MULTI, true);
+
+    private final MongoDBCollection collection;
+    private final Logger logger = LoggerFactory.getLogger(MongoDBVariantDensitySummary.class);
+
+    public MongoDBVariantDensitySummary(MongoDBCollection collection) {
+        this.collection = collection;
+    }
+
+    public static boolean isReady(StudyConfiguration studyConfiguration) {
+        return studyConfiguration != null && studyConfiguration.getAttributes()
+                .getBoolean(MongoDBVariantOptions.DENSITY_SUMMARY_READY.key(), MongoDBVariantOptions.DENSITY_SUMMARY_READY.defaultValue());
+    }
+
+    public static boolean isEnabled(ObjectMap options) {
+        return options.getBoolean(MongoDBVariantOptions.DENSITY_SUMMARY.key(), MongoDBVariantOptions.DENSITY_SUMMARY.defaultValue());
+    }
+
+    public static int getChunk(int position) {
+        return position / CHUNK_SIZE;
+    }
+
+    public void createIndexes() {
+        collection.createIndex(new Document(STUDY_FIELD, 1).append(CHROMOSOME_FIELD, 1).append(CHUNK_FIELD, 1),
+                new ObjectMap(MongoDBCollection.BACKGROUND, true));
+    }
+
+    /**
+     * Add the given counts to the summary of a study.
+     *
+     * @param studyId Study
+     * @param counts  Counts of new variants in the study
+     */
+    public void increment(int studyId, Counts counts) {
+        List<Bson> queries = new ArrayList<>(WRITE_BATCH_SIZE);
+        List<Bson> updates = new ArrayList<>(WRITE_BATCH_SIZE);
+        for (Map.Entry<String, Map<Integer, Map<String, Integer>>> chromosomeEntry : counts.counts.entrySet()) {
+            String chromosome = chromosomeEntry.getKey();
+            for (Map.Entry<Integer, Map<String, Integer>> chunkEntry : chromosomeEntry.getValue().entrySet()) {
+                int chunk = chunkEntry.getKey();
+                List<Bson> update = new ArrayList<>(chunkEntry.getValue().size() + 4);
+                int total = 0;
+                for (Map.Entry<String, Integer> typeEntry : chunkEntry.getValue().entrySet()) {
+                    update.add(inc(TYPES_FIELD + '.' + typeEntry.getKey(), typeEntry.getValue()));
+                    total += typeEntry.getValue();
+                }
+                update.add(inc(COUNT_FIELD, total));
+                update.add(setOnInsert(STUDY_FIELD, studyId));
+                update.add(setOnInsert(CHROMOSOME_FIELD, chromosome));
+                update.add(setOnInsert(CHUNK_FIELD, chunk));
+                queries.add(eq("_id", buildId(studyId, chromosome, chunk)));
+                updates.add(combine(update));
+                if (queries.size() == WRITE_BATCH_SIZE) {
+                    update(queries, updates, true);
+                    queries.clear();
+                    updates.clear();
+                }
+            }
+        }
+        if (!queries.isEmpty()) {
+            update(queries, updates, true);
+        }
+    }
+
+    private void update(List<Bson> queries, List<Bson> updates, boolean retry) {
+        try {
+            collection.update(queries, updates, UPSERT);
+        } catch (MongoBulkWriteException e) {
+            // Concurrent upserts of the same chunk may fail with a DuplicatedKeyException (e:11000).
+            // See https://jira.mongodb.org/browse/SERVER-14322
+            // Assume unordered bulk. Only the failed updates were not applied.
+            List<Bson> retryQueries = new ArrayList<>(e.getWriteErrors().size());
+            List<Bson> retryUpdates = new ArrayList<>(e.getWriteErrors().size());
+            for (BulkWriteError writeError : e.getWriteErrors()) {
+                if (!retry || !ErrorCategory.fromErrorCode(writeError.getCode()).equals(ErrorCategory.DUPLICATE_KEY)) {
+                    throw e;
+                }
+                logger.warn("Catch error : {}. DupKey exception upserting density chunk. Retry!", writeError.toString());
+                retryQueries.add(queries.get(writeError.getIndex()));
+                retryUpdates.add(updates.get(writeError.getIndex()));
+            }
+            // Retry once! The document exists now, so the upsert becomes an update.
+            update(retryQueries, retryUpdates, false);
+        }
+    }
+
+    /**
+     * Remove the summary of a study.
+     *
+     * @param studyId Study
+     * @return Number of removed documents
+     */
+    public long remove(int studyId) {
+        return collection.remove(eq(STUDY_FIELD, studyId), MULTI).first().getDeletedCount();
+    }
+
+    /**
+     * Rebuild the summary of a study from the variants collection. Aggregates one chromosome at a time.
+     *
+     * @param studyId            Study
+     * @param variantsCollection Variants collection
+     * @return Number of variants in the study
+     */
+    public long rebuild(int studyId, MongoDBCollection variantsCollection) {
+        logger.info("Rebuild variant density summary of study {}", studyId);
+        remove(studyId);
+        String studyIdField = DocumentToVariantConverter.STUDIES_FIELD + '.' + DocumentToStudyVariantEntryConverter.STUDYID_FIELD;
+        List<?> chromosomes = variantsCollection.distinct(DocumentToVariantConverter.CHROMOSOME_FIELD, new Document(studyIdField, studyId))
+                .getResult();
+
+        long numVariants = 0;
+        for (Object chromosome : chromosomes) {
+            List<Bson> pipeline = Arrays.asList(
+                    new Document("$match", new Document(studyIdField, studyId)
+                            .append(DocumentToVariantConverter.CHROMOSOME_FIELD, chromosome)),
+                    new Document("$group", new Document("_id", new Document()
+                            .append(CHUNK_FIELD, chunkExpression("$" + DocumentToVariantConverter.START_FIELD))
+                            .append("type", "$" + DocumentToVariantConverter.TYPE_FIELD))
+                            .append(COUNT_FIELD, new Document("$sum", 1))));
+            Counts counts = new Counts();
+            for (Document document : variantsCollection.aggregate(pipeline, new QueryOptions()).getResult()) {
+                Document id = document.get("_id", Document.class);
+                int chunk = (int) Math.round(((Number) id.get(CHUNK_FIELD)).doubleValue());
+                int count = ((Number) document.get(COUNT_FIELD)).intValue();
+                counts.add(chromosome.toString(), chunk, id.getString("type"), count);
+                numVariants += count;
+            }
+            increment(studyId, counts);
+        }
+        logger.info("Variant density summary of study {} rebuilt. {} variants in {} chromosomes", studyId, numVariants,
+                chromosomes.size());
+        return numVariants;
+    }
+
+    /**
+     * Count the variants of a study in intervals of the given size. The size must be a multiple of {@link #CHUNK_SIZE}.
+     * Only the chunks fully contained in the region are counted. The variants in the partially covered chunks at the
+     * edges of the region, given by {@link #getPartialRegions}, have to be counted from the variants collection.
+     *
+     * @param studyId      Study
+     * @param region       Region
+     * @param intervalSize Interval size
+     * @param types        Variant types to count. Empty or null to count all.
+     * @return Number of variants for each non empty interval, where the interval id is "position / intervalSize"
+     */
+    public Map<Integer, Long> getIntervalCounts(int studyId, Region region, int intervalSize, Collection<String> types) {
+        if (intervalSize <= 0 || intervalSize % CHUNK_SIZE != 0) {
+            throw new IllegalArgumentException("Interval size must be a multiple of " + CHUNK_SIZE + ". Got " + intervalSize);
+        }
+        int chunksPerInterval = intervalSize / CHUNK_SIZE;
+        int firstChunk = getFirstFullChunk(region);
+        int lastChunk = getLastFullChunk(region);
+        Map<Integer, Long> intervals = new TreeMap<>();
+        if (firstChunk > lastChunk) {
+            return intervals;
+        }
+        Bson query = and(
+                eq(STUDY_FIELD, studyId),
+                eq(CHROMOSOME_FIELD, region.getChromosome()),
+                gte(CHUNK_FIELD, firstChunk),
+                lte(CHUNK_FIELD, lastChunk));
+
+        for (Document document : collection.find(query, new QueryOptions(QueryOptions.EXCLUDE, "_id")).getResult()) {
+            long count;
+            if (types == null || types.isEmpty()) {
+                count = ((Number) document.get(COUNT_FIELD)).longValue();
+            } else {
+                count = 0;
+                Document typesDocument = document.get(TYPES_FIELD, Document.class);
+                for (String type : types) {
+                    Object typeCount = typesDocument == null ? null : typesDocument.get(type);
+                    if (typeCount != null) {
+                        count += ((Number) typeCount).longValue();
+                    }
+                }
+            }
+            if (count > 0) {
+                int interval = ((Number) document.get(CHUNK_FIELD)).intValue() / chunksPerInterval;
+                intervals.merge(interval, count, Long::sum);
+            }
+        }
+        return intervals;
+    }
+
+    /**
+     * Get the parts of the region not covered by any chunk fully contained in the region.
+     * These are, at most, one region at each edge, each one within a single chunk.
+     *
+     * @param region Region
+     * @return Partially covered regions
+     */
+    public static List<Region> getPartialRegions(Region region) {
+        int firstChunk = getFirstFullChunk(region);
+        int lastChunk = getLastFullChunk(region);
+        List<Region> regions = new ArrayList<>(2);
+        if (firstChunk > lastChunk) {
+            // No full chunks. The region may still span two chunks.
+            int startChunk = getChunk(region.getStart());
+            int endChunk = getChunk(region.getEnd());
+            if (startChunk == endChunk) {
+                regions.add(new Region(region.getChromosome(), region.getStart(), region.getEnd()));
+            } else {
+                regions.add(new Region(region.getChromosome(), region.getStart(), endChunk * CHUNK_SIZE - 1));
+                regions.add(new Region(region.getChromosome(), endChunk * CHUNK_SIZE, region.getEnd()));
+            }
+            return regions;
+        }
+        if (region.getStart() < firstChunk * CHUNK_SIZE) {
+            regions.add(new Region(region.getChromosome(), region.getStart(), firstChunk * CHUNK_SIZE - 1));
+        }
+        if (region.getEnd() >= (lastChunk + 1) * CHUNK_SIZE) {
+            regions.add(new Region(region.getChromosome(), (lastChunk + 1) * CHUNK_SIZE, region.getEnd()));
+        }
+        return regions;
+    }
+
+    private static int getFirstFullChunk(Region region) {
+        return (region.getStart() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    }
+
+    private static int getLastFullChunk(Region region) {
+        return (region.getEnd() + 1) / CHUNK_SIZE - 1;
+    }
+
+    private static Document chunkExpression(String field) {
+        // Same as the integer division "field / CHUNK_SIZE"
+        return new Document("$subtract", Arrays.asList(
+                new Document("$divide", Arrays.asList(field, CHUNK_SIZE)),
+                new Document("$divide", Arrays.asList(new Document("$mod", Arrays.asList(field, CHUNK_SIZE)), CHUNK_SIZE))));
+    }
+
+    private static String buildId(int studyId, String chromosome, int chunk) {
+        return studyId + "_" + chromosome + "_" + chunk;
+    }
+
+    /**
+     * Variant counts by chromosome, chunk and type, to be added to the summary. Not thread safe.
+     */
+    public static class Counts {
+        private final Map<String, Map<Integer, Map<String, Integer>>> counts = new HashMap<>();
+
+        public Counts add(Variant variant) {
+            return add(variant.getChromosome(), getChunk(variant.getStart()), variant.getType().toString(), 1);
+        }
+
+        public Counts add(String chromosome, int chunk, String type, int count) {
+            counts.computeIfAbsent(chromosome, k -> new HashMap<>())
+                    .computeIfAbsent(chunk, k -> new HashMap<>())
+                    .merge(type, count, Integer::sum);
+            return this;
+        }
+
+        public boolean isEmpty() {
+            return counts.isEmpty();
+        }
+
+        public long getCount() {
+            long count = 0;
+            for (Map<Integer, Map<String, Integer>> chunks : counts.values()) {
+                for (Map<String, Integer> types : chunks.values()) {
+                    for (Integer value : types.values()) {
+                        count += value;
+                    }
+                }
+            }
+            return count;
+        }
+    }
+}
@@ -16,6 +16,7 @@
 
 package org.opencb.opencga.storage.mongodb.variant.adaptors;
 
+import com.google.common.collect.Iterators;
 import com.mongodb.BasicDBList;
 import com.mongodb.MongoClient;
 import com.mongodb.bulk.BulkWriteResult;
@@ -27,6 +28,7 @@ import htsjdk.variant.vcf.VCFConstants;
 import org.apache.commons.lang3.time.StopWatch;
 import org.bson.Document;
 import org.bson.conversions.Bson;
+import org.bson.types.Binary;
 import org.bson.json.JsonMode;
 import org.bson.json.JsonWriterSettings;
 import org.opencb.biodata.models.core.Region;
@@ -34,6 +36,7 @@ import org.opencb.biodata.models.variant.StudyEntry;
 import org.opencb.biodata.models.variant.Variant;
 import org.opencb.biodata.models.variant.avro.AdditionalAttribute;
 import org.opencb.biodata.models.variant.avro.VariantAnnotation;
+import org.opencb.biodata.models.variant.avro.VariantType;
 import org.opencb.biodata.models.variant.stats.VariantStats;
 import org.opencb.commons.datastore.core.ObjectMap;
 import org.opencb.commons.datastore.core.Query;
@@ -51,8 +54,10 @@ import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
 import org.opencb.opencga.storage.core.metadata.StudyConfigurationManager;
 import org.opencb.opencga.storage.core.variant.VariantStorageEngine;
 import org.opencb.opencga.storage.core.variant.adaptors.*;
+import org.opencb.opencga.storage.core.variant.adaptors.iterators.MultiGetVariantDBIterator;
 import org.opencb.opencga.storage.core.variant.adaptors.iterators.VariantDBIterator;
 import org.opencb.opencga.storage.core.variant.annotation.VariantAnnotationManager;
+import org.opencb.opencga.storage.core.variant.query.VariantQuery;
 import org.opencb.opencga.storage.core.variant.stats.VariantStatsWrapper;
 import org.opencb.opencga.storage.mongodb.auth.MongoCredentials;
 import org.opencb.opencga.storage.mongodb.variant.MongoDBVariantStorageEngine;
@@ -65,6 +70,7 @@ import java.io.IOException;
 import java.net.UnknownHostException;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import static com.mongodb.client.model.Filters.*;
@@ -94,6 +100,8 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
     private final StorageConfiguration storageConfiguration;
     private final MongoCredentials credentials;
     private final VariantMongoDBQueryParser queryParser;
+    private final MongoDBVariantDensitySummary densitySummary;
+    private final MongoDBPhaseSetIndex phaseSetIndex;
 
     private StudyConfigurationManager studyConfigurationManager;
     private final ObjectMap configuration;
@@ -103,6 +111,7 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
 
     public static final int CHUNK_SIZE_SMALL = 1000;
     public static final int CHUNK_SIZE_BIG = 10000;
+    private static final int BINARY_GENOTYPES_BATCH_SIZE = 1000;
     // Number of opened dbAdaptors
     public static final AtomicInteger NUMBER_INSTANCES = new AtomicInteger(0);
 
@@ -132,7 +141,12 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
                 ? new ObjectMap()
                 : storageEngineConfiguration.getVariant().getOptions();
 
-        queryParser = new VariantMongoDBQueryParser(studyConfigurationManager);
+        queryParser = new VariantMongoDBQueryParser(studyConfigurationManager, new MongoDBRegionQueryPlanner(
+                configuration.getInt(REGION_PLANNER_MAX_CHUNK_IDS.key(), REGION_PLANNER_MAX_CHUNK_IDS.defaultValue())));
+        densitySummary = new MongoDBVariantDensitySummary(
+                db.getCollection(configuration.getString(COLLECTION_DENSITY.key(), COLLECTION_DENSITY.defaultValue())));
+        phaseSetIndex = new MongoDBPhaseSetIndex(
+                db.getCollection(configuration.getString(COLLECTION_PHASE_SETS.key(), COLLECTION_PHASE_SETS.defaultValue())));
         NUMBER_INSTANCES.incrementAndGet();
     }
 
@@ -140,6 +154,15 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
         return variantsCollection;
     }
 
+    public MongoDBVariantDensitySummary getDensitySummary() {
+        return densitySummary;
+    }
+
+    @Override
+    public MongoDBPhaseSetIndex getPhaseSetIndex() {
+        return phaseSetIndex;
+    }
+
     public MongoDBCollection getStageCollection(int studyId) {
         String stageCollectionName = configuration.getString(COLLECTION_STAGE.key(), COLLECTION_STAGE.defaultValue());
         // Ensure retro-compatibility.
@@ -152,6 +175,10 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
         }
     }
 
+    public MongoDBCollection getRemovedVariantsCollection() {
+        return db.getCollection(configuration.getString(COLLECTION_REMOVED_VARIANTS.key(), COLLECTION_REMOVED_VARIANTS.defaultValue()));
+    }
+
     public MongoDBCollection getStudiesCollection() {
         return db.getCollection(configuration.getString(COLLECTION_STUDIES.key(), COLLECTION_STUDIES.defaultValue()));
     }
@@ -190,6 +217,7 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
     public QueryResult remove(Query query, QueryOptions options) {
         Bson mongoQuery = queryParser.parseQuery(query);
         logger.debug("Delete to be executed: '{}'", mongoQuery.toString());
+        registerRemovedVariants(mongoQuery);
         return variantsCollection.remove(mongoQuery, options);
     }
 
@@ -226,7 +254,12 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
         );
         removeFilesFromStageCollection(studiesToRemoveQuery, studyId, fileIds);
 
-        return removeFilesFromVariantsCollection(studiesToRemoveQuery, sc, fileIds);
+        QueryResult<UpdateResult> result = removeFilesFromVariantsCollection(studiesToRemoveQuery, sc, fileIds);
+        if (MongoDBVariantDensitySummary.isReady(sc)) {
+            // Can not know which variants left the study. Rebuild from the variants collection
+            densitySummary.rebuild(studyId, variantsCollection);
+        }
+        return result;
     }
 
     private void removeFilesFromStageCollection(Bson studiesToRemoveQuery, Integer studyId, List<Integer> fileIds) {
@@ -311,6 +344,8 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
                     pullByFilter(
                             in(DocumentToVariantConverter.STUDIES_FIELD + ".$." + GENOTYPES_FIELD + '.' + gt, sampleIds)));
         }
+        // The remaining variants lose files and samples. Mark them as modified for the secondary indexes
+        updates.add(set(DocumentToVariantConverter.LAST_MODIFIED_FIELD, System.currentTimeMillis()));
 
         Bson update = combine(updates);
         logger.debug("removeFile: query = " + query.toBsonDocument(Document.class, MongoClient.getDefaultCodecRegistry()));
@@ -320,6 +355,9 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
         QueryResult<UpdateResult> result2 = getVariantsCollection().update(query, update, new QueryOptions(MULTI, true));
         logger.debug("removeFile: matched  = " + result2.first().getMatchedCount());
         logger.debug("removeFile: modified = " + result2.first().getModifiedCount());
+        if (sc.getAttributes().getBoolean(GENOTYPES_BINARY.key(), GENOTYPES_BINARY.defaultValue())) {
+            removeSamplesFromBinaryGenotypes(query, studyId, sampleIds);
+        }
 
         logger.info("Remove files from variants collection - step 3/3"); // purge
         long removedVariantsDocuments = removeEmptyVariants();
@@ -329,6 +367,39 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
         return result2;
     }
 
+    private void removeSamplesFromBinaryGenotypes(Bson query, int studyId, Set<Integer> sampleIds) {
+        // Variants not migrated yet lost the samples from the genotypes map with the previous update
+        Bson binaryQuery = and(query, elemMatch(DocumentToVariantConverter.STUDIES_FIELD,
+                and(eq(STUDYID_FIELD, studyId), exists(GENOTYPES_BINARY_FIELD))));
+        Document projection = new Document(DocumentToVariantConverter.STUDIES_FIELD + '.' + STUDYID_FIELD, 1)
+                .append(DocumentToVariantConverter.STUDIES_FIELD + '.' + GENOTYPES_BINARY_FIELD, 1);
+        List<Bson> queries = new ArrayList<>();
+        List<Bson> updates = new ArrayList<>();
+        try (MongoCursor<Document> cursor = getVariantsCollection().nativeQuery()
+                .find(binaryQuery, projection, new QueryOptions()).iterator()) {
+            while (cursor.hasNext()) {
+                Document variant = cursor.next();
+                for (Document study : (List<Document>) variant.get(DocumentToVariantConverter.STUDIES_FIELD)) {
+                    Binary data = study.get(GENOTYPES_BINARY_FIELD, Binary.class);
+                    if (((Number) study.get(STUDYID_FIELD)).intValue() == studyId && data != null) {
+                        queries.add(and(eq("_id", variant.get("_id")),
+                                eq(DocumentToVariantConverter.STUDIES_FIELD + '.' + STUDYID_FIELD, studyId)));
+                        updates.add(set(DocumentToVariantConverter.STUDIES_FIELD + ".$." + GENOTYPES_BINARY_FIELD,
+                                GenotypeBinaryCodec.remove(data.getData(), sampleIds)));
+                    }
+                }
+                if (queries.size() >= BINARY_GENOTYPES_BATCH_SIZE) {
+                    getVariantsCollection().update(queries, updates, new QueryOptions());
+                    queries.clear();
+                    updates.clear();
+                }
+            }
+        }
+        if (!queries.isEmpty()) {
+            getVariantsCollection().update(queries, updates, new QueryOptions());
+        }
+    }
+
     /**
      * Remove the given study from the database.
      *
@@ -365,6 +436,7 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
             logger.info("Remove study from stage collection - step 2/2");
             removeEmptyVariantsFromStage(studyId);
         }
+        densitySummary.remove(studyId);
         return result;
     }
 
@@ -372,7 +444,8 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
         // { $pull : { files : {  sid : <studyId> } } }
         Bson update = combine(
                 pull(DocumentToVariantConverter.STUDIES_FIELD, eq(STUDYID_FIELD, studyId)),
-                pull(DocumentToVariantConverter.STATS_FIELD, eq(DocumentToVariantStatsConverter.STUDY_ID, studyId))
+                pull(DocumentToVariantConverter.STATS_FIELD, eq(DocumentToVariantStatsConverter.STUDY_ID, studyId)),
+                set(DocumentToVariantConverter.LAST_MODIFIED_FIELD, System.currentTimeMillis())
         );
         logger.debug("removeStudy: query = {}", query.toBsonDocument(Document.class, MongoClient.getDefaultCodecRegistry()));
         logger.debug("removeStudy: update = {}", update.toBsonDocument(Document.class, MongoClient.getDefaultCodecRegistry()));
@@ -386,9 +459,71 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
 
     private long removeEmptyVariants() {
         Bson purgeQuery = exists(DocumentToVariantConverter.STUDIES_FIELD + '.' + STUDYID_FIELD, false);
+        registerRemovedVariants(purgeQuery);
         return variantsCollection.remove(purgeQuery, new QueryOptions(MULTI, true)).first().getDeletedCount();
     }
 
+    /**
+     * Register in the removed variants collection the variants about to be removed, so they can be removed as well
+     * from secondary indexes. See {@link #removedVariantsIterator(long)}.
+     *
+     * @param query Variants to be removed
+     */
+    private void registerRemovedVariants(Bson query) {
+        MongoDBCollection removedVariantsCollection = getRemovedVariantsCollection();
+        VariantStringIdConverter idConverter = new VariantStringIdConverter();
+        Bson projection = Projections.include(DocumentToVariantConverter.END_FIELD, DocumentToVariantConverter.REFERENCE_FIELD,
+                DocumentToVariantConverter.ALTERNATE_FIELD);
+        long timestamp = System.currentTimeMillis();
+        long count = 0;
+
+        List<Bson> queries = new ArrayList<>(CHUNK_SIZE_SMALL);
+        List<Bson> updates = new ArrayList<>(CHUNK_SIZE_SMALL);
+        try (MongoCursor<Document> cursor = variantsCollection.nativeQuery()
+                .find(query, projection, new QueryOptions(MongoDBCollection.BATCH_SIZE, CHUNK_SIZE_SMALL)).iterator()) {
+            while (cursor.hasNext()) {
+                Document document = cursor.next();
+                Variant variant = idConverter.buildVariant(document.getString("_id"),
+                        document.getInteger(DocumentToVariantConverter.END_FIELD),
+                        document.getString(DocumentToVariantConverter.REFERENCE_FIELD),
+                        document.getString(DocumentToVariantConverter.ALTERNATE_FIELD));
+                queries.add(eq("_id", variant.toString()));
+                updates.add(set(DocumentToVariantConverter.LAST_MODIFIED_FIELD, timestamp));
+                if (queries.size() == CHUNK_SIZE_SMALL) {
+                    count += queries.size();
+                    removedVariantsCollection.update(queries, updates, new QueryOptions(MongoDBCollection.UPSERT, true));
+                    queries.clear();
+                    updates.clear();
+                }
+            }
+        }
+        if (!queries.isEmpty()) {
+            count += queries.size();
+            removedVariantsCollection.update(queries, updates, new QueryOptions(MongoDBCollection.UPSERT, true));
+        }
+        logger.debug("Registered {} removed variants", count);
+    }
+
+    @Override
+    public boolean supportsChangeTracking() {
+        return true;
+    }
+
+    @Override
+    public VariantDBIterator removedVariantsIterator(long since) {
+        MongoCursor<Document> cursor = getRemovedVariantsCollection().nativeQuery()
+                .find(gte(DocumentToVariantConverter.LAST_MODIFIED_FIELD, since), new QueryOptions(MongoDBCollection.BATCH_SIZE, 1000))
+                .iterator();
+        return VariantDBIterator.wrapper(Iterators.transform(cursor, document -> new Variant(document.getString("_id"))))
+                .addCloseable(cursor);
+    }
+
+    @Override
+    public long pruneRemovedVariants(long before) {
+        return getRemovedVariantsCollection().remove(lt(DocumentToVariantConverter.LAST_MODIFIED_FIELD, before),
+                new QueryOptions(MULTI, true)).first().getDeletedCount();
+    }
+
     private long removeEmptyVariantsFromStage(int studyId) {
         Bson purgeQuery = eq(StageDocumentToVariantConverter.STUDY_FILE_FIELD, Collections.emptyList());
         return getStageCollection(studyId).remove(purgeQuery, new QueryOptions(MULTI, true)).first().getDeletedCount();
@@ -400,23 +535,66 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
             options = new QueryOptions();
         }
 
-        Document mongoQuery = queryParser.parseQuery(query);
+        List<MongoDBGenotypeBinaryFilter> postFilters = new ArrayList<>(1);
+        Document mongoQuery = queryParser.parseQuery(query, postFilters);
         Document projection = queryParser.createProjection(query, options);
         options.putIfAbsent(QueryOptions.SKIP_COUNT, DEFAULT_SKIP_COUNT);
 
         if (options.getBoolean("explain", false)) {
-            Document explain = variantsCollection.nativeQuery()
-                    .find(mongoQuery, projection, options)
-                    .modifiers(new Document("$explain", true))
-                    .first();
+            Document explain = explain(query, mongoQuery, projection, options);
             logger.debug("MongoDB Explain = {}", explain.toJson(new JsonWriterSettings(JsonMode.SHELL, true)));
         }
 
         DocumentToVariantConverter converter = getDocumentToVariantConverter(query, options);
         Map<String, List<String>> samples = getSamplesMetadataIfRequested(query, options, studyConfigurationManager);
+        if (!postFilters.isEmpty()) {
+            StopWatch stopWatch = StopWatch.createStarted();
+            List<Variant> variants = new ArrayList<>();
+            try (VariantDBIterator iterator = genotypeBinaryFilterIterator(mongoQuery, projection, options, converter,
+                    postFilters.get(0))) {
+                iterator.forEachRemaining(variants::add);
+            } catch (Exception e) {
+                throw VariantQueryException.internalException(e);
+            }
+            long numTotalResults = options.getBoolean(QueryOptions.SKIP_COUNT) ? -1 : count(query).first();
+            return new VariantQueryResult<>(new QueryResult<>("", (int) stopWatch.getTime(), variants.size(), numTotalResults,
+                    "", "", variants), samples);
+        }
         return new VariantQueryResult<>(variantsCollection.find(mongoQuery, projection, converter, options), samples);
     }
 
+    /**
+     * Explain the execution of a query. Includes the plan of the region filter, if any, and the MongoDB explain.
+     *
+     * @param query   Query
+     * @param options Query options
+     * @return Explain document
+     */
+    public Document explain(Query query, QueryOptions options) {
+        if (options == null) {
+            options = new QueryOptions();
+        }
+        return explain(query, queryParser.parseQuery(query), queryParser.createProjection(query, options), options);
+    }
+
+    private Document explain(Query query, Document mongoQuery, Document projection, QueryOptions options) {
+        Document explain = new Document();
+        MongoDBRegionQueryPlanner.Plan regionPlan = queryParser.planRegions(query);
+        if (regionPlan != null) {
+            int subQueries = queryParser.isRegionOnlyLocationFilter(query) ? regionPlan.split(getRegionSplitSize()).size() : 1;
+            explain.append("regionPlan", regionPlan.toDocument().append("iteratorSubQueries", subQueries));
+        }
+        explain.append("mongodb", variantsCollection.nativeQuery()
+                .find(mongoQuery, projection, options)
+                .modifiers(new Document("$explain", true))
+                .first());
+        return explain;
+    }
+
+    private int getRegionSplitSize() {
+        return configuration.getInt(REGION_PLANNER_SPLIT_SIZE.key(), REGION_PLANNER_SPLIT_SIZE.defaultValue());
+    }
+
     @Override
     public List<VariantQueryResult<Variant>> get(List<Query> queries, QueryOptions options) {
         List<VariantQueryResult<Variant>> queryResultList = new ArrayList<>(queries.size());
@@ -495,8 +673,8 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
         } else {
             annotationCollection = getAnnotationCollection(name);
         }
-        SelectVariantElements selectVariantElements = VariantQueryUtils.parseSelectElements(
-                query, new QueryOptions(QueryOptions.INCLUDE, VariantField.ANNOTATION), studyConfigurationManager);
+        SelectVariantElements selectVariantElements = VariantQuery.get(query, studyConfigurationManager)
+                .getSelectElements(new QueryOptions(QueryOptions.INCLUDE, VariantField.ANNOTATION), studyConfigurationManager);
 
         DocumentToVariantConverter converter = getDocumentToVariantConverter(new Query(), selectVariantElements);
         QueryResult<Variant> result = annotationCollection.find(mongoQuery, projection, converter, options);
@@ -512,14 +690,32 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
 
     @Override
     public QueryResult<Long> count(Query query) {
-        Document mongoQuery = queryParser.parseQuery(query);
-        return variantsCollection.count(mongoQuery);
+        List<MongoDBGenotypeBinaryFilter> postFilters = new ArrayList<>(1);
+        Document mongoQuery = queryParser.parseQuery(query, postFilters);
+        if (postFilters.isEmpty()) {
+            return variantsCollection.count(mongoQuery);
+        }
+        StopWatch stopWatch = StopWatch.createStarted();
+        MongoDBGenotypeBinaryFilter filter = postFilters.get(0);
+        Document projection = filter.addRequiredFields(new Document("_id", 1));
+        long count = 0;
+        try (MongoCursor<Document> cursor = filter.filter(
+                variantsCollection.nativeQuery().find(mongoQuery, projection, new QueryOptions()).iterator(), 0, -1)) {
+            while (cursor.hasNext()) {
+                cursor.next();
+                count++;
+            }
+        }
+        return new QueryResult<>("count", (int) stopWatch.getTime(), 1, 1, "", "", Collections.singletonList(count));
     }
 
     @Override
     public QueryResult distinct(Query query, String field) {
         String documentPath;
         switch (field) {
+            case "chromosome":
+                documentPath = DocumentToVariantConverter.CHROMOSOME_FIELD;
+                break;
             case "gene":
             case "ensemblGene":
                 documentPath = DocumentToVariantConverter.ANNOTATION_FIELD
@@ -556,26 +752,115 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
             options = new QueryOptions();
         }
 
-        Document mongoQuery = queryParser.parseQuery(query);
         Document projection = queryParser.createProjection(query, options);
         DocumentToVariantConverter converter = getDocumentToVariantConverter(query, options);
         options.putIfAbsent(MongoDBCollection.BATCH_SIZE, 100);
 
+        List<MongoDBGenotypeBinaryFilter> postFilters = new ArrayList<>(1);
+        Document mongoQuery = queryParser.parseQuery(query, postFilters);
+        if (!postFilters.isEmpty()) {
+            return genotypeBinaryFilterIterator(mongoQuery, projection, options, converter, postFilters.get(0));
+        }
+
+        // Queries with too many regions are split in concurrent sub-queries. Limit and skip require one single query.
+        // Genes, ids and xrefs would be returned by every sub-query, so only pure region queries are split.
+        if (!options.containsKey(QueryOptions.LIMIT) && !options.containsKey(QueryOptions.SKIP)
+                && queryParser.isRegionOnlyLocationFilter(query)) {
+            MongoDBRegionQueryPlanner.Plan regionPlan = queryParser.planRegions(query);
+            if (regionPlan != null) {
+                List<List<Region>> partitions = regionPlan.split(getRegionSplitSize());
+                if (partitions.size() > 1) {
+                    return splitRegionsIterator(query, options, partitions, projection, converter);
+                }
+            }
+        }
+
         // Short unsorted queries with timeout or limit don't need the persistent cursor.
         if (options.containsKey(QueryOptions.TIMEOUT)
                 || options.containsKey(QueryOptions.LIMIT)
                 || !options.getBoolean(QueryOptions.SORT, false)) {
-            StopWatch stopWatch = StopWatch.createStarted();
+            // The query is lazy. The iterator measures the time executing the query and fetching each batch
             FindIterable<Document> dbCursor = variantsCollection.nativeQuery().find(mongoQuery, projection, options);
-            VariantMongoDBIterator dbIterator = new VariantMongoDBIterator(dbCursor, converter);
-            dbIterator.setTimeFetching(dbIterator.getTimeFetching() + stopWatch.getNanoTime());
-            return dbIterator;
+            return new VariantMongoDBIterator(dbCursor, converter);
         } else {
             logger.debug("Using mongodb persistent iterator");
             return VariantMongoDBIterator.persistentIterator(variantsCollection, mongoQuery, projection, options, converter);
         }
     }
 
+    /**
+     * Fetch the variants given by an iterator of variant ids. The ids are split in chunks of
+     * {@link VariantStorageEngine.Options#INTERSECT_BATCH_SIZE} ids, each one resolved with one single {@code _id $in} query.
+     * Up to {@link VariantStorageEngine.Options#INTERSECT_PARALLELISM} chunks are queried concurrently.
+     * Variants are returned in the same order as the input ids.
+     *
+     * @param variants  Iterator of variant ids
+     * @param query     Query to apply to all the variants
+     * @param options   Query options
+     * @return          Variant iterator
+     */
+    @Override
+    public VariantDBIterator iterator(Iterator<?> variants, Query query, QueryOptions options) {
+        if (options == null) {
+            options = new QueryOptions();
+        }
+        Query baseQuery = query == null ? new Query() : query;
+        int batchSize = options.getInt(VariantStorageEngine.Options.INTERSECT_BATCH_SIZE.key(),
+                VariantStorageEngine.Options.INTERSECT_BATCH_SIZE.defaultValue());
+        int parallelism = options.getInt(VariantStorageEngine.Options.INTERSECT_PARALLELISM.key(),
+                VariantStorageEngine.Options.INTERSECT_PARALLELISM.defaultValue());
+        return new MultiGetVariantDBIterator(variants, batchSize, parallelism, options, (batch, batchOptions) -> {
+            // Ids are not sorted. The query planner sorts and deduplicates the $in values to build the _id index bounds,
+            // so the index is read in order anyway. The iterator restores the input order
+            List<String> ids = batch.stream()
+                    .map(Variant::toString)
+                    .collect(Collectors.toList());
+            List<Variant> result = new ArrayList<>(batch.size());
+            try (VariantDBIterator iterator = iterator(new Query(baseQuery).append(ID.key(), ids), new QueryOptions(batchOptions))) {
+                iterator.forEachRemaining(result::add);
+            }
+            return result;
+        });
+    }
+
+    private VariantDBIterator genotypeBinaryFilterIterator(Document mongoQuery, Document projection, QueryOptions options,
+                                                           DocumentToVariantConverter converter, MongoDBGenotypeBinaryFilter filter) {
+        logger.debug("Genotype post filter: {}", filter);
+        // Skip and limit are applied over the filtered documents
+        QueryOptions mongoOptions = new QueryOptions(options);
+        mongoOptions.remove(QueryOptions.SKIP);
+        mongoOptions.remove(QueryOptions.LIMIT);
+        StopWatch stopWatch = StopWatch.createStarted();
+        MongoCursor<Document> cursor = variantsCollection.nativeQuery()
+                .find(mongoQuery, filter.addRequiredFields(projection), mongoOptions).iterator();
+        VariantMongoDBIterator dbIterator = new VariantMongoDBIterator(filter.filter(cursor,
+                options.getInt(QueryOptions.SKIP, 0), options.getInt(QueryOptions.LIMIT, -1)), converter);
+        dbIterator.setTimeFetching(dbIterator.getTimeFetching() + stopWatch.getNanoTime());
+        return dbIterator;
+    }
+
+    private VariantDBIterator splitRegionsIterator(Query query, QueryOptions options, List<List<Region>> partitions,
+                                                   Document projection, DocumentToVariantConverter converter) {
+        int parallel = configuration.getInt(REGION_PLANNER_SPLIT_PARALLEL.key(), REGION_PLANNER_SPLIT_PARALLEL.defaultValue());
+        logger.debug("Split region query in {} sub-queries. Parallel {}", partitions.size(), parallel);
+        boolean sort = options.getBoolean(QueryOptions.SORT, false);
+        List<Supplier<MongoCursor<Document>>> cursors = new ArrayList<>(partitions.size());
+        for (List<Region> partition : partitions) {
+            Query subQuery = new Query(query).append(REGION.key(), partition.stream().map(Region::toString)
+                    .collect(Collectors.joining(VariantQueryUtils.OR)));
+            Document mongoQuery = queryParser.parseQuery(subQuery);
+            if (sort) {
+                cursors.add(() -> new MongoPersistentCursor(variantsCollection, mongoQuery, projection, options));
+            } else {
+                cursors.add(() -> variantsCollection.nativeQuery().find(mongoQuery, projection, options).iterator());
+            }
+        }
+        // Sub-queries are executed in background. The iterator measures the time waiting for their results
+        MongoDBSplitQueryCursor cursor = new MongoDBSplitQueryCursor(cursors, parallel,
+                options.getInt(MongoDBCollection.BATCH_SIZE, 100));
+        return new VariantMongoDBIterator(cursor, converter);
+    }
+
     public MongoCursor<Document> nativeIterator(Query query, QueryOptions options, boolean persistent) {
         if (query == null) {
             query = new Query();
@@ -602,7 +887,7 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
 
     @Override
     public QueryResult getFrequency(Query query, Region region, int regionIntervalSize) {
-        // db.variants.aggregate( { $match: { $and: [ {chr: "1"}, {start: {$gt: 251391, $lt: 2701391}} ] }},
+        // db.variants.aggregate( { $match: { $and: [ {chr: "1"}, {start: {$gte: 251391, $lte: 2701391}} ] }},
         //                        { $group: { _id: { $subtract: [ { $divide: ["$start", 20000] }, { $divide: [{$mod: ["$start", 20000]},
         // 20000] } ] },
         //                                  totalCount: {$sum: 1}}})
@@ -615,8 +900,14 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
             regionIntervalSize = (region.getEnd() - region.getStart()) / 200;
         }
 
-        Document start = new Document("$gt", region.getStart());
-        start.append("$lt", region.getEnd());
+        QueryResult summaryResult = getFrequencyFromDensitySummary(query, region, regionIntervalSize);
+        if (summaryResult != null) {
+            return summaryResult;
+        }
+
+        // Inclusive bounds, as the density summary and the region filters
+        Document start = new Document("$gte", region.getStart());
+        start.append("$lte", region.getEnd());
 
         BasicDBList andArr = new BasicDBList();
         andArr.add(new Document(DocumentToVariantConverter.CHROMOSOME_FIELD, region.getChromosome()));
@@ -708,6 +999,97 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
                 resultList.size(), resultList.size(), null, null, resultList);
     }
 
+    /**
+     * Answer {@link #getFrequency} from the density summary, if possible.
+     *
+     * The summary can only be used if the interval size is a multiple of {@link MongoDBVariantDensitySummary#CHUNK_SIZE},
+     * and the query only filters by one study (optional if there is only one study) and by variant type.
+     * The chunks partially covered by the region, at most one at each edge, are counted from the variants collection.
+     *
+     * @param query              Query
+     * @param region             Region
+     * @param regionIntervalSize Interval size
+     * @return QueryResult as in {@link #getFrequency}, or null if the summary can not be used
+     */
+    private QueryResult getFrequencyFromDensitySummary(Query query, Region region, int regionIntervalSize) {
+        if (regionIntervalSize <= 0 || regionIntervalSize % MongoDBVariantDensitySummary.CHUNK_SIZE != 0) {
+            return null;
+        }
+        Set<VariantQueryParam> params = validParams(query);
+        params.remove(STUDY);
+        params.remove(TYPE);
+        if (!params.isEmpty()) {
+            return null;
+        }
+
+        StudyConfiguration studyConfiguration;
+        if (isValidParam(query, STUDY)) {
+            String studyValue = query.getString(STUDY.key());
+            List<String> studies = splitValue(studyValue, checkOperator(studyValue));
+            if (studies.size() != 1 || isNegated(studies.get(0))) {
+                return null;
+            }
+            studyConfiguration = studyConfigurationManager.getStudyConfiguration(studies.get(0), null).first();
+        } else {
+            List<Integer> studyIds = studyConfigurationManager.getStudyIds(null);
+            if (studyIds.size() != 1) {
+                return null;
+            }
+            studyConfiguration = studyConfigurationManager.getStudyConfiguration(studyIds.get(0), null).first();
+        }
+        if (!MongoDBVariantDensitySummary.isReady(studyConfiguration)) {
+            return null;
+        }
+
+        Set<String> types = new HashSet<>();
+        if (isValidParam(query, TYPE)) {
+            String typeValue = query.getString(TYPE.key());
+            if (checkOperator(typeValue) == QueryOperation.AND) {
+                return null;
+            }
+            for (String type : splitValue(typeValue, QueryOperation.OR)) {
+                if (isNegated(type)) {
+                    return null;
+                }
+                types.add(type);
+                for (VariantType subType : Variant.subTypes(VariantType.valueOf(type))) {
+                    types.add(subType.toString());
+                }
+            }
+        }
+
+        StopWatch watch = StopWatch.createStarted();
+        Map<Integer, Long> counts = densitySummary.getIntervalCounts(studyConfiguration.getStudyId(), region, regionIntervalSize, types);
+        Document mongoQuery = queryParser.parseQuery(query);
+        for (Region partialRegion : MongoDBVariantDensitySummary.getPartialRegions(region)) {
+            Bson partialQuery = and(
+                    eq(DocumentToVariantConverter.CHROMOSOME_FIELD, partialRegion.getChromosome()),
+                    gte(DocumentToVariantConverter.START_FIELD, partialRegion.getStart()),
+                    lte(DocumentToVariantConverter.START_FIELD, partialRegion.getEnd()),
+                    mongoQuery);
+            long count = variantsCollection.count(partialQuery).first();
+            if (count > 0) {
+                counts.merge(queryParser.getChunkId(partialRegion.getStart(), regionIntervalSize), count, Long::sum);
+            }
+        }
+        BasicDBList resultList = new BasicDBList();
+        int firstChunkId = queryParser.getChunkId(region.getStart(), regionIntervalSize);
+        int lastChunkId = queryParser.getChunkId(region.getEnd(), regionIntervalSize);
+        for (int chunkId = firstChunkId; chunkId <= lastChunkId; chunkId++) {
+            Long count = counts.get(chunkId);
+            Document intervalObj = new Document();
+            intervalObj.put("_id", chunkId);
+            intervalObj.put("start", queryParser.getChunkStart(chunkId, regionIntervalSize));
+            intervalObj.put("end", queryParser.getChunkEnd(chunkId, regionIntervalSize));
+            intervalObj.put("chromosome", region.getChromosome());
+            // Same scale as the aggregation
+            intervalObj.put("features_count", count == null ? 0 : Math.log(count));
+            resultList.add(intervalObj);
+        }
+        watch.stop();
+        return new QueryResult(region.toString(), (int) watch.getTime(), resultList.size(), resultList.size(), null, null, resultList);
+    }
+
     @Override
     public QueryResult rank(Query query, String field, int numResults, boolean asc) {
         QueryOptions options = new QueryOptions();
@@ -726,60 +1108,117 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
             options = new QueryOptions(options); // Copy given QueryOptions.
         }
 
-        String documentPath;
-        String unwindPath;
-        int numUnwinds = 2;
-        switch (field) {
-            case "gene":
-            case "ensemblGene":
-                documentPath = DocumentToVariantConverter.ANNOTATION_FIELD
-                        + '.' + DocumentToVariantAnnotationConverter.CONSEQUENCE_TYPE_FIELD
-                        + '.' + DocumentToVariantAnnotationConverter.CT_ENSEMBL_GENE_ID_FIELD;
-                unwindPath = DocumentToVariantConverter.ANNOTATION_FIELD
-                        + '.' + DocumentToVariantAnnotationConverter.CONSEQUENCE_TYPE_FIELD;
-
-                break;
-            case "ct":
-            case "consequence_type":
-                documentPath = DocumentToVariantConverter.ANNOTATION_FIELD
-                        + '.' + DocumentToVariantAnnotationConverter.CONSEQUENCE_TYPE_FIELD
-                        + '.' + DocumentToVariantAnnotationConverter.CT_SO_ACCESSION_FIELD;
-                unwindPath = DocumentToVariantConverter.ANNOTATION_FIELD
-                        + '.' + DocumentToVariantAnnotationConverter.CONSEQUENCE_TYPE_FIELD;
-                numUnwinds = 3;
-                break;
-            default:
-                documentPath = DocumentToVariantConverter.ANNOTATION_FIELD
-                        + '.' + DocumentToVariantAnnotationConverter.CONSEQUENCE_TYPE_FIELD
-                        + '.' + DocumentToVariantAnnotationConverter.CT_GENE_NAME_FIELD;
-                unwindPath = DocumentToVariantConverter.ANNOTATION_FIELD
-                        + '.' + DocumentToVariantAnnotationConverter.CONSEQUENCE_TYPE_FIELD;
-                break;
+        GroupByField groupByField = GroupByField.from(field);
+        String documentPath = groupByField.getDocumentPath();
+        int numUnwinds = groupByField.isArray() ? 1 : 0;
+        if (groupByField.isConsequenceType()) {
+            // Unwind the consequence types array, and the values projected from each consequence type
+            numUnwinds += 2;
         }
 
         Document mongoQuery = queryParser.parseQuery(query);
 
         boolean count = options.getBoolean("count", false);
-        int order = options.getInt("order", -1);
 
         Document project;
-        Document projectAndCount;
         if (count) {
             project = new Document("$project", new Document("field", "$" + documentPath));
+        } else {
+            project = new Document("$project", appendGroupByVariantFields(new Document()
+                    .append("field", "$" + documentPath)));
+        }
+
+        Document unwindField = new Document("$unwind", "$field");
+        Document notNull = new Document("$match", new Document("field", new Document("$ne", null)));
+
+        List<Bson> operations = new LinkedList<>();
+        operations.add(new Document("$match", mongoQuery));
+        operations.add(project);
+        for (int i = 0; i < numUnwinds; i++) {
+            operations.add(unwindField);
+        }
+        operations.add(notNull);
+        return aggregateGroupBy(operations, "$field", count, options);
+    }
+
+    /**
+     * Group by multiple fields. Each group is identified by a document with one value for each field.
+     * Values from the same consequence type are grouped together, e.g. "gene" and "ct" returns the consequence types
+     * of each gene.
+     *
+     * @param query   Query to match
+     * @param fields  Fields to group by
+     * @param options Query options. See {@link #groupBy(Query, String, QueryOptions)}
+     * @return Groups sorted by count
+     */
+    @Override
+    public QueryResult groupBy(Query query, List<String> fields, QueryOptions options) {
+        if (fields.size() == 1) {
+            return groupBy(query, fields.get(0), options);
+        }
+        if (options == null) {
+            options = new QueryOptions();
+        } else {
+            options = new QueryOptions(options); // Copy given QueryOptions.
+        }
+        boolean count = options.getBoolean("count", false);
+
+        List<Bson> operations = new LinkedList<>();
+        operations.add(new Document("$match", queryParser.parseQuery(query)));
+
+        List<GroupByField> groupByFields = new ArrayList<>(fields.size());
+        for (String field : fields) {
+            groupByFields.add(GroupByField.from(field));
+        }
+        if (groupByFields.stream().anyMatch(GroupByField::isConsequenceType)) {
+            // Unwind once, so all the values come from the same consequence type
+            operations.add(new Document("$unwind", "$" + DocumentToVariantConverter.ANNOTATION_FIELD
+                    + '.' + DocumentToVariantAnnotationConverter.CONSEQUENCE_TYPE_FIELD));
+        }
+
+        Document project = new Document();
+        Document notNull = new Document();
+        Document groupId = new Document();
+        List<Bson> unwinds = new ArrayList<>();
+        for (int i = 0; i < fields.size(); i++) {
+            String key = "field" + i;
+            project.append(key, "$" + groupByFields.get(i).getDocumentPath());
+            notNull.append(key, new Document("$ne", null));
+            groupId.append(fields.get(i), "$" + key);
+            if (groupByFields.get(i).isArray()) {
+                unwinds.add(new Document("$unwind", "$" + key));
+            }
+        }
+        if (!count) {
+            appendGroupByVariantFields(project);
+        }
+        operations.add(new Document("$project", project));
+        operations.addAll(unwinds);
+        operations.add(new Document("$match", notNull));
+        return aggregateGroupBy(operations, groupId, count, options);
+    }
+
+    private Document appendGroupByVariantFields(Document project) {
+        return project
+                //.append("_id._id", "$_id")
+                .append("_id.start", "$" + DocumentToVariantConverter.START_FIELD)
+                .append("_id.end", "$" + DocumentToVariantConverter.END_FIELD)
+                .append("_id.chromosome", "$" + DocumentToVariantConverter.CHROMOSOME_FIELD)
+                .append("_id.alternate", "$" + DocumentToVariantConverter.ALTERNATE_FIELD)
+                .append("_id.reference", "$" + DocumentToVariantConverter.REFERENCE_FIELD)
+                .append("_id.ids", "$" + DocumentToVariantConverter.IDS_FIELD);
+    }
+
+    private QueryResult<Document> aggregateGroupBy(List<Bson> operations, Object groupId, boolean count, QueryOptions options) {
+        int order = options.getInt("order", -1);
+
+        Document projectAndCount;
+        if (count) {
             projectAndCount = new Document("$project", new Document()
                     .append("id", "$_id")
                     .append("_id", 0)
                     .append("count", new Document("$size", "$values")));
         } else {
-            project = new Document("$project", new Document()
-                    .append("field", "$" + documentPath)
-                    //.append("_id._id", "$_id")
-                    .append("_id.start", "$" + DocumentToVariantConverter.START_FIELD)
-                    .append("_id.end", "$" + DocumentToVariantConverter.END_FIELD)
-                    .append("_id.chromosome", "$" + DocumentToVariantConverter.CHROMOSOME_FIELD)
-                    .append("_id.alternate", "$" + DocumentToVariantConverter.ALTERNATE_FIELD)
-                    .append("_id.reference", "$" + DocumentToVariantConverter.REFERENCE_FIELD)
-                    .append("_id.ids", "$" + DocumentToVariantConverter.IDS_FIELD));
             projectAndCount = new Document("$project", new Document()
                     .append("id", "$_id")
                     .append("_id", 0)
@@ -787,10 +1226,7 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
                     .append("count", new Document("$size", "$values")));
         }
 
-        Document match = new Document("$match", mongoQuery);
-        Document unwindField = new Document("$unwind", "$field");
-        Document notNull = new Document("$match", new Document("field", new Document("$ne", null)));
-        Document groupAndAddToSet = new Document("$group", new Document("_id", "$field")
+        Document groupAndAddToSet = new Document("$group", new Document("_id", groupId)
                 .append("values", new Document("$addToSet", "$_id"))); // sum, count, avg, ...?
         Document sort = new Document("$sort", new Document("count", order)); // 1 = ascending, -1 = descending
 
@@ -801,13 +1237,6 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
         options.remove(QueryOptions.LIMIT); // Remove limit or Datastore will add a new limit step
         Document limitStep = new Document("$limit", limit);
 
-        List<Bson> operations = new LinkedList<>();
-        operations.add(match);
-        operations.add(project);
-        for (int i = 0; i < numUnwinds; i++) {
-            operations.add(unwindField);
-        }
-        operations.add(notNull);
         operations.add(groupAndAddToSet);
         operations.add(projectAndCount);
         operations.add(sort);
@@ -816,22 +1245,59 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
         }
         operations.add(limitStep);
         logger.debug("db." + collectionName + ".aggregate( " + operations + " )");
-        QueryResult<Document> queryResult = variantsCollection.aggregate(operations, options);
+        return variantsCollection.aggregate(operations, options);
+    }
+
+    /**
+     * Fields accepted by the groupBy methods.
+     */
+    private static final class GroupByField {
+        private final String documentPath;
+        private final boolean consequenceType;
+        private final boolean array;
+
+        private GroupByField(String documentPath, boolean consequenceType, boolean array) {
+            this.documentPath = documentPath;
+            this.consequenceType = consequenceType;
+            this.array = array;
+        }
 
-//            List<Map<String, Object>> results = new ArrayList<>(queryResult.getResult().size());
-//            results.addAll(queryResult.getResult().stream().map(dbObject -> new ObjectMap("id", dbObject.get("_id")).append("count",
-// dbObject.get("count"))).collect(Collectors.toList()));
+        static GroupByField from(String field) {
+            switch (field) {
+                case "gene":
+                case "ensemblGene":
+                    return consequenceTypeField(DocumentToVariantAnnotationConverter.CT_ENSEMBL_GENE_ID_FIELD, false);
+                case "ct":
+                case "consequence_type":
+                    return consequenceTypeField(DocumentToVariantAnnotationConverter.CT_SO_ACCESSION_FIELD, true);
+                case "biotype":
+                    return consequenceTypeField(DocumentToVariantAnnotationConverter.CT_BIOTYPE_FIELD, false);
+                case "type":
+                    return new GroupByField(DocumentToVariantConverter.TYPE_FIELD, false, false);
+                case "chromosome":
+                    return new GroupByField(DocumentToVariantConverter.CHROMOSOME_FIELD, false, false);
+                default:
+                    return consequenceTypeField(DocumentToVariantAnnotationConverter.CT_GENE_NAME_FIELD, false);
+            }
+        }
 
-        return queryResult;
-    }
+        private static GroupByField consequenceTypeField(String field, boolean array) {
+            return new GroupByField(DocumentToVariantConverter.ANNOTATION_FIELD
+                    + '.' + DocumentToVariantAnnotationConverter.CONSEQUENCE_TYPE_FIELD
+                    + '.' + field, true, array);
+        }
 
-    @Override
-    public QueryResult groupBy(Query query, List<String> fields, QueryOptions options) {
-        String warningMsg = "Unimplemented VariantMongoDBAdaptor::groupBy list of fields. Using field[0] : '" + fields.get(0) + "'";
-        logger.warn(warningMsg);
-        QueryResult queryResult = groupBy(query, fields.get(0), options);
-        queryResult.setWarningMsg(warningMsg);
-        return queryResult;
+        String getDocumentPath() {
+            return documentPath;
+        }
+
+        boolean isConsequenceType() {
+            return consequenceType;
+        }
+
+        boolean isArray() {
+            return array;
+        }
     }
 
     @Override
@@ -857,6 +1323,7 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
 //        VariantSource variantSource = queryOptions.get(VariantStorageEngine.VARIANT_SOURCE, VariantSource.class);
         DocumentToVariantConverter variantConverter = getDocumentToVariantConverter(new Query(), options);
         boolean overwrite = options.getBoolean(VariantStorageEngine.Options.OVERWRITE_STATS.key(), false);
+        long timestamp = System.currentTimeMillis();
         //TODO: Use the StudyConfiguration to change names to ids
 
         // TODO make unset of 'st' if already present?
@@ -904,7 +1371,8 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
 
                 Document push = new Document("$push",
                         new Document(DocumentToVariantConverter.STATS_FIELD,
-                                new Document("$each", cohorts)));
+                                new Document("$each", cohorts)))
+                        .append("$set", new Document(DocumentToVariantConverter.LAST_MODIFIED_FIELD, timestamp));
                 pushQueriesBulkList.add(find);
                 pushUpdatesBulkList.add(push);
             }
@@ -942,7 +1410,7 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
                         new Document(DocumentToVariantStatsConverter.STUDY_ID, studyConfiguration.getStudyId())
                                 .append(DocumentToVariantStatsConverter.COHORT_ID, cohortId)
                 )
-        );
+        ).append("$set", new Document(DocumentToVariantConverter.LAST_MODIFIED_FIELD, System.currentTimeMillis()));
         logger.debug("deleteStats: query = {}", query);
         logger.debug("deleteStats: update = {}", update);
 
@@ -955,6 +1423,7 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
         List<Bson> updates = new LinkedList<>();
 
         StopWatch watch = StopWatch.createStarted();
+        long timestamp = System.currentTimeMillis();
         DocumentToVariantConverter variantConverter = getDocumentToVariantConverter(new Query(), queryOptions);
         for (VariantAnnotation variantAnnotation : variantAnnotations) {
             String id;
@@ -973,7 +1442,8 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
             DocumentToVariantAnnotationConverter converter = new DocumentToVariantAnnotationConverter();
             Document convertedVariantAnnotation = converter.convertToStorageType(variantAnnotation);
             Document update = new Document("$set", new Document(DocumentToVariantConverter.ANNOTATION_FIELD + ".0",
-                    convertedVariantAnnotation));
+                    convertedVariantAnnotation)
+                    .append(DocumentToVariantConverter.LAST_MODIFIED_FIELD, timestamp));
             queries.add(find);
             updates.add(update);
         }
@@ -987,7 +1457,8 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
         Document queryDocument = queryParser.parseQuery(query);
         Document updateDocument = DocumentToVariantAnnotationConverter.convertToStorageType(attribute);
         return variantsCollection.update(queryDocument,
-                set(DocumentToVariantConverter.CUSTOM_ANNOTATION_FIELD + '.' + name, updateDocument),
+                combine(set(DocumentToVariantConverter.CUSTOM_ANNOTATION_FIELD + '.' + name, updateDocument),
+                        set(DocumentToVariantConverter.LAST_MODIFIED_FIELD, System.currentTimeMillis())),
                 new QueryOptions(MULTI, true));
     }
 
@@ -995,7 +1466,8 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
         Document mongoQuery = queryParser.parseQuery(query);
         logger.debug("deleteAnnotation: query = {}", mongoQuery);
 
-        Document update = new Document("$set", new Document(DocumentToVariantConverter.ANNOTATION_FIELD + ".0", null));
+        Document update = new Document("$set", new Document(DocumentToVariantConverter.ANNOTATION_FIELD + ".0", null)
+                .append(DocumentToVariantConverter.LAST_MODIFIED_FIELD, System.currentTimeMillis()));
         logger.debug("deleteAnnotation: update = {}", update);
         return variantsCollection.update(mongoQuery, update, new QueryOptions(MULTI, true));
     }
@@ -1011,7 +1483,8 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
     }
 
     private DocumentToVariantConverter getDocumentToVariantConverter(Query query, QueryOptions options) {
-        return getDocumentToVariantConverter(query, VariantQueryUtils.parseSelectElements(query, options, studyConfigurationManager));
+        return getDocumentToVariantConverter(query,
+                VariantQuery.get(query, studyConfigurationManager).getSelectElements(options, studyConfigurationManager));
     }
 
     private DocumentToVariantConverter getDocumentToVariantConverter(Query query, SelectVariantElements selectVariantElements) {
@@ -1039,6 +1512,10 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
 
     public void createIndexes(QueryOptions options) {
         createIndexes(options, variantsCollection);
+        densitySummary.createIndexes();
+        phaseSetIndex.createIndexes();
+        getRemovedVariantsCollection().createIndex(new Document(DocumentToVariantConverter.LAST_MODIFIED_FIELD, 1),
+                new ObjectMap(MongoDBCollection.BACKGROUND, true));
     }
 
     /**
@@ -1047,6 +1524,7 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
      * - ChunkID
      * - Chromosome + start + end
      * - IDs
+     * - LastModified : SPARSE
      * <p>
      * Study indices
      * - StudyId + FileId
@@ -1093,6 +1571,7 @@ public class VariantMongoDBAdaptor implements VariantDBAdaptor {
                 .append(DocumentToVariantConverter.START_FIELD, 1)
                 .append(DocumentToVariantConverter.END_FIELD, 1), onBackground);
         variantsCollection.createIndex(new Document(DocumentToVariantConverter.IDS_FIELD, 1), onBackground);
+        variantsCollection.createIndex(new Document(DocumentToVariantConverter.LAST_MODIFIED_FIELD, 1), onBackgroundSparse);
 
         // Study indices
         ////////////////
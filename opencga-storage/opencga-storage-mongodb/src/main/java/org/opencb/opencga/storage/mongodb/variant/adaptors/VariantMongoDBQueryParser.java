@@ -21,8 +21,6 @@ import com.mongodb.DBObject;
 import com.mongodb.QueryBuilder;
 import htsjdk.variant.vcf.VCFConstants;
 import org.apache.commons.lang3.EnumUtils;
-import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.lang3.math.NumberUtils;
 import org.bson.Document;
 import org.bson.json.JsonMode;
 import org.bson.json.JsonWriterSettings;
@@ -37,6 +35,10 @@ import org.opencb.commons.datastore.core.QueryOptions;
 import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
 import org.opencb.opencga.storage.core.metadata.StudyConfigurationManager;
 import org.opencb.opencga.storage.core.variant.adaptors.*;
+import org.opencb.opencga.storage.core.variant.query.PopulationFrequencyFilter;
+import org.opencb.opencga.storage.core.variant.query.ScoreFilter;
+import org.opencb.opencga.storage.core.variant.query.ValuesFilter;
+import org.opencb.opencga.storage.core.variant.query.VariantQuery;
 import org.opencb.opencga.storage.mongodb.variant.converters.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -50,6 +52,7 @@ import java.util.stream.Collectors;
 import static org.opencb.opencga.storage.core.variant.adaptors.VariantQueryParam.*;
 import static org.opencb.opencga.storage.core.variant.adaptors.VariantQueryUtils.*;
 import static org.opencb.opencga.storage.mongodb.variant.MongoDBVariantStorageEngine.MongoDBVariantOptions.DEFAULT_GENOTYPE;
+import static org.opencb.opencga.storage.mongodb.variant.MongoDBVariantStorageEngine.MongoDBVariantOptions.GENOTYPES_BINARY;
 import static org.opencb.opencga.storage.mongodb.variant.MongoDBVariantStorageEngine.MongoDBVariantOptions.LOADED_GENOTYPES;
 
 /**
@@ -62,52 +65,72 @@ public class VariantMongoDBQueryParser {
     public static final VariantStringIdConverter STRING_ID_CONVERTER = new VariantStringIdConverter();
     protected static Logger logger = LoggerFactory.getLogger(VariantMongoDBQueryParser.class);
     private final StudyConfigurationManager studyConfigurationManager;
+    private final MongoDBRegionQueryPlanner regionQueryPlanner;
     //    private final CellBaseUtils cellBaseUtils;
 
     public VariantMongoDBQueryParser(StudyConfigurationManager studyConfigurationManager) {
-        this.studyConfigurationManager = studyConfigurationManager;
+        this(studyConfigurationManager, new MongoDBRegionQueryPlanner());
+    }
 
+    public VariantMongoDBQueryParser(StudyConfigurationManager studyConfigurationManager, MongoDBRegionQueryPlanner regionQueryPlanner) {
+        this.studyConfigurationManager = studyConfigurationManager;
+        this.regionQueryPlanner = regionQueryPlanner;
     }
 
     protected Document parseQuery(final Query originalQuery) {
+        return parseQuery(originalQuery, null);
+    }
+
+    /**
+     * Parse the query into a MongoDB query.
+     *
+     * Genotype filters over studies with binary genotypes can not be executed by MongoDB. These are returned as post filters,
+     * to be applied over the returned documents. If no list of post filters is given, these queries are rejected.
+     *
+     * @param originalQuery Query to parse
+     * @param postFilters   List to add the filters to apply over the returned documents. Null if not supported.
+     * @return MongoDB query
+     * @throws VariantQueryException if a post filter is required and not supported
+     */
+    protected Document parseQuery(final Query originalQuery, List<MongoDBGenotypeBinaryFilter> postFilters) {
         QueryBuilder builder = new QueryBuilder();
         if (originalQuery != null) {
             // Copy given query. It may be modified
             Query query = new Query(originalQuery);
+            // Filters parsed and validated only once. See VariantStorageEngine
+            VariantQuery variantQuery = VariantQuery.get(query, studyConfigurationManager);
             boolean nonGeneRegionFilter = false;
             /* VARIANT PARAMS */
 
             if (isValidParam(query, REGION)) {
                 nonGeneRegionFilter = true;
-                List<Region> regions = Region.parseRegions(query.getString(REGION.key()), true);
+                List<Region> regions = variantQuery.getRegions();
                 if (!regions.isEmpty()) {
                     getRegionFilter(regions, builder);
                 }
             }
 
-            // Object with all VariantIds, ids, genes and xrefs from ID, XREF, GENES, ... filters
-            VariantQueryXref variantQueryXref = VariantQueryUtils.parseXrefs(query);
-
-            if (!variantQueryXref.getIds().isEmpty()) {
+            // VariantIds, ids, genes and xrefs from ID, XREF, GENES, ... filters are already classified in the VariantQuery
+            if (!variantQuery.getIds().isEmpty()) {
                 addQueryStringFilter(DocumentToVariantConverter.ANNOTATION_FIELD
                         + '.' + DocumentToVariantAnnotationConverter.XREFS_FIELD
                         + '.' + DocumentToVariantAnnotationConverter.XREF_ID_FIELD,
-                        variantQueryXref.getIds(), builder, QueryOperation.OR);
-                addQueryStringFilter(DocumentToVariantConverter.IDS_FIELD, variantQueryXref.getIds(), builder, QueryOperation.OR);
+                        variantQuery.getIds(), builder, QueryOperation.OR);
+                addQueryStringFilter(DocumentToVariantConverter.IDS_FIELD, variantQuery.getIds(), builder, QueryOperation.OR);
             }
 
-            if (!variantQueryXref.getOtherXrefs().isEmpty()) {
+            if (!variantQuery.getOtherXrefs().isEmpty()) {
                 nonGeneRegionFilter = true;
                 addQueryStringFilter(DocumentToVariantConverter.ANNOTATION_FIELD
                                 + '.' + DocumentToVariantAnnotationConverter.XREFS_FIELD
                                 + '.' + DocumentToVariantAnnotationConverter.XREF_ID_FIELD,
-                        variantQueryXref.getOtherXrefs(), builder, QueryOperation.OR);
+                        variantQuery.getOtherXrefs(), builder, QueryOperation.OR);
             }
 
-            if (!variantQueryXref.getVariants().isEmpty()) {
+            if (!variantQuery.getVariants().isEmpty()) {
                 nonGeneRegionFilter = true;
-                List<String> mongoIds = new ArrayList<>(variantQueryXref.getVariants().size());
-                for (Variant variant : variantQueryXref.getVariants()) {
+                List<String> mongoIds = new ArrayList<>(variantQuery.getVariants().size());
+                for (Variant variant : variantQuery.getVariants()) {
                     mongoIds.add(STRING_ID_CONVERTER.buildId(variant));
                 }
                 if (mongoIds.size() == 1) {
@@ -117,11 +140,11 @@ public class VariantMongoDBQueryParser {
                 }
             }
 
-            if (!variantQueryXref.getGenes().isEmpty()) {
+            if (!variantQuery.getGenes().isEmpty()) {
                 if (isValidParam(query, ANNOT_CONSEQUENCE_TYPE)) {
-                    List<String> soList = query.getAsStringList(ANNOT_CONSEQUENCE_TYPE.key());
-                    Set<String> gnSo = new HashSet<>(variantQueryXref.getGenes().size() * soList.size());
-                    for (String gene : variantQueryXref.getGenes()) {
+                    List<String> soList = variantQuery.getConsequenceTypes().getValues();
+                    Set<String> gnSo = new HashSet<>(variantQuery.getGenes().size() * soList.size());
+                    for (String gene : variantQuery.getGenes()) {
                         for (String so : soList) {
                             int soNumber = parseConsequenceType(so);
                             gnSo.add(DocumentToVariantAnnotationConverter.buildGeneSO(gene, soNumber));
@@ -137,7 +160,7 @@ public class VariantMongoDBQueryParser {
                     addQueryStringFilter(DocumentToVariantConverter.ANNOTATION_FIELD
                                     + '.' + DocumentToVariantAnnotationConverter.XREFS_FIELD
                                     + '.' + DocumentToVariantAnnotationConverter.XREF_ID_FIELD,
-                            variantQueryXref.getGenes(), builder, QueryOperation.OR);
+                            variantQuery.getGenes(), builder, QueryOperation.OR);
                 }
             }
 
@@ -172,11 +195,21 @@ public class VariantMongoDBQueryParser {
                 builder.and(DocumentToVariantConverter.RELEASE_FIELD).lessThanEquals(release);
             }
 
+            if (isValidParam(query, MODIFIED_AFTER)) {
+                long timestamp = query.getLong(MODIFIED_AFTER.key(), -1);
+                if (timestamp < 0) {
+                    throw new VariantQueryException("Malformed \"" + MODIFIED_AFTER.key() + "\" query : \""
+                            + query.getString(MODIFIED_AFTER.key()) + "\". Expected a timestamp in milliseconds");
+                }
+
+                builder.and(DocumentToVariantConverter.LAST_MODIFIED_FIELD).greaterThanEquals(timestamp);
+            }
+
             /* ANNOTATION PARAMS */
-            parseAnnotationQueryParams(query, builder);
+            parseAnnotationQueryParams(query, variantQuery, builder);
 
             /* STUDIES */
-            final StudyConfiguration defaultStudyConfiguration = parseStudyQueryParams(query, builder);
+            final StudyConfiguration defaultStudyConfiguration = parseStudyQueryParams(query, variantQuery, builder, postFilters);
 
             /* STATS PARAMS */
             parseStatsQueryParams(query, builder, defaultStudyConfiguration);
@@ -189,7 +222,29 @@ public class VariantMongoDBQueryParser {
         return mongoQuery;
     }
 
-    private void parseAnnotationQueryParams(Query query, QueryBuilder builder) {
+    // Same semantics as the filters over the genotypes map
+    private void addGenotypeBinaryFilter(MongoDBGenotypeBinaryFilter.SampleFilter sampleFilter, List<String> genotypes,
+                                         List<String> defaultGenotypes) {
+        for (String genotype : genotypes) {
+            boolean negated = isNegated(genotype);
+            if (negated) {
+                genotype = removeNegation(genotype);
+            }
+            if (defaultGenotypes.contains(genotype)) {
+                if (negated) {
+                    sampleFilter.acceptNonDefault();
+                } else {
+                    sampleFilter.acceptDefault();
+                }
+            } else if (negated) {
+                sampleFilter.reject(DocumentToSamplesConverter.genotypeToStorageType(genotype));
+            } else {
+                sampleFilter.accept(DocumentToSamplesConverter.genotypeToStorageType(genotype));
+            }
+        }
+    }
+
+    private void parseAnnotationQueryParams(Query query, VariantQuery variantQuery, QueryBuilder builder) {
         if (query != null) {
             if (isValidParam(query, ANNOTATION_EXISTS)) {
                 boolean exists = query.getBoolean(ANNOTATION_EXISTS.key());
@@ -226,7 +281,8 @@ public class VariantMongoDBQueryParser {
 //                                + "." + DocumentToVariantAnnotationConverter.CT_PROTEIN_POLYPHEN_FIELD
 //                                + "." + DocumentToVariantAnnotationConverter.SCORE_SCORE_FIELD,
 //                        value, builder);
-                addScoreFilter(value, builder, ANNOT_POLYPHEN, DocumentToVariantAnnotationConverter.POLYPHEN, true);
+                addScoreFilter(value, variantQuery.getPolyphen(), builder, ANNOT_POLYPHEN, DocumentToVariantAnnotationConverter.POLYPHEN,
+                        true);
             }
 
             if (isValidParam(query, ANNOT_SIFT)) {
@@ -235,17 +291,17 @@ public class VariantMongoDBQueryParser {
 //                        + "." + DocumentToVariantAnnotationConverter.CONSEQUENCE_TYPE_FIELD
 //                        + "." + DocumentToVariantAnnotationConverter.CT_PROTEIN_SIFT_FIELD + "."
 //                        + DocumentToVariantAnnotationConverter.SCORE_SCORE_FIELD, value, builder);
-                addScoreFilter(value, builder, ANNOT_SIFT, DocumentToVariantAnnotationConverter.SIFT, true);
+                addScoreFilter(value, variantQuery.getSift(), builder, ANNOT_SIFT, DocumentToVariantAnnotationConverter.SIFT, true);
             }
 
             if (isValidParam(query, ANNOT_PROTEIN_SUBSTITUTION)) {
                 String value = query.getString(ANNOT_PROTEIN_SUBSTITUTION.key());
-                addScoreFilter(value, builder, ANNOT_PROTEIN_SUBSTITUTION, true);
+                addScoreFilter(value, variantQuery.getProteinSubstitution(), builder, ANNOT_PROTEIN_SUBSTITUTION, true);
             }
 
             if (isValidParam(query, ANNOT_CONSERVATION)) {
                 String value = query.getString(ANNOT_CONSERVATION.key());
-                addScoreFilter(value, builder, ANNOT_CONSERVATION, false);
+                addScoreFilter(value, variantQuery.getConservation(), builder, ANNOT_CONSERVATION, false);
             }
 
             if (isValidParam(query, ANNOT_TRANSCRIPTION_FLAG)) {
@@ -387,7 +443,7 @@ public class VariantMongoDBQueryParser {
 
             if (isValidParam(query, ANNOT_FUNCTIONAL_SCORE)) {
                 String value = query.getString(ANNOT_FUNCTIONAL_SCORE.key());
-                addScoreFilter(value, builder, ANNOT_FUNCTIONAL_SCORE, false);
+                addScoreFilter(value, variantQuery.getFunctionalScore(), builder, ANNOT_FUNCTIONAL_SCORE, false);
             }
 
             if (isValidParam(query, CUSTOM_ANNOTATION)) {
@@ -396,30 +452,27 @@ public class VariantMongoDBQueryParser {
             }
 
             if (isValidParam(query, ANNOT_POPULATION_ALTERNATE_FREQUENCY)) {
-                String value = query.getString(ANNOT_POPULATION_ALTERNATE_FREQUENCY.key());
                 addFrequencyFilter(DocumentToVariantConverter.ANNOTATION_FIELD
                                 + "." + DocumentToVariantAnnotationConverter.POPULATION_FREQUENCIES_FIELD,
-                        DocumentToVariantAnnotationConverter.POPULATION_FREQUENCY_ALTERNATE_FREQUENCY_FIELD, value, builder,
-                        ANNOT_POPULATION_ALTERNATE_FREQUENCY); // Same
+                        DocumentToVariantAnnotationConverter.POPULATION_FREQUENCY_ALTERNATE_FREQUENCY_FIELD,
+                        variantQuery.getPopulationAlternateFrequency(), builder); // Same
                 // method addFrequencyFilter is used for reference and allele frequencies. Need to provide the field
                 // (reference/alternate) where to check the frequency
             }
 
             if (isValidParam(query, ANNOT_POPULATION_REFERENCE_FREQUENCY)) {
-                String value = query.getString(ANNOT_POPULATION_REFERENCE_FREQUENCY.key());
                 addFrequencyFilter(DocumentToVariantConverter.ANNOTATION_FIELD
                                 + "." + DocumentToVariantAnnotationConverter.POPULATION_FREQUENCIES_FIELD,
-                        DocumentToVariantAnnotationConverter.POPULATION_FREQUENCY_REFERENCE_FREQUENCY_FIELD, value, builder,
-                        ANNOT_POPULATION_REFERENCE_FREQUENCY); // Same
+                        DocumentToVariantAnnotationConverter.POPULATION_FREQUENCY_REFERENCE_FREQUENCY_FIELD,
+                        variantQuery.getPopulationReferenceFrequency(), builder); // Same
                 // method addFrequencyFilter is used for reference and allele frequencies. Need to provide the field
                 // (reference/alternate) where to check the frequency
             }
 
             if (isValidParam(query, ANNOT_POPULATION_MINOR_ALLELE_FREQUENCY)) {
-                String value = query.getString(ANNOT_POPULATION_MINOR_ALLELE_FREQUENCY.key());
                 addFrequencyFilter(DocumentToVariantConverter.ANNOTATION_FIELD + "."
                                 + DocumentToVariantAnnotationConverter.POPULATION_FREQUENCIES_FIELD,
-                        value, builder, ANNOT_POPULATION_MINOR_ALLELE_FREQUENCY,
+                        variantQuery.getPopulationMinorAlleleFrequency(), builder,
                         (v, queryBuilder) -> {
                             String[] split = splitOperator(v);
                             String op = split[1];
@@ -461,7 +514,8 @@ public class VariantMongoDBQueryParser {
         }
     }
 
-    private StudyConfiguration parseStudyQueryParams(Query query, QueryBuilder builder) {
+    private StudyConfiguration parseStudyQueryParams(Query query, VariantQuery variantQuery, QueryBuilder builder,
+                                                     List<MongoDBGenotypeBinaryFilter> postFilters) {
 
         if (query != null) {
             Map<String, Integer> studies = studyConfigurationManager.getStudies(null);
@@ -598,9 +652,11 @@ public class VariantMongoDBQueryParser {
 
             Map<Object, List<String>> genotypesFilter = new HashMap<>();
             QueryOperation queryOperation = null;
-            if (isValidParam(query, GENOTYPE)) {
-                String sampleGenotypes = query.getString(GENOTYPE.key());
-                queryOperation = parseGenotypeFilter(sampleGenotypes, genotypesFilter);
+            if (!variantQuery.getGenotype().isEmpty()) {
+                // Samples are already resolved
+                Map<String, Integer> sampleIds = variantQuery.getGenotype().getSampleIds();
+                variantQuery.getGenotype().getGenotypes().forEach((sample, gts) -> genotypesFilter.put(sampleIds.get(sample), gts));
+                queryOperation = variantQuery.getGenotype().getOperation();
             }
 
             if (isValidParam(query, SAMPLE)) {
@@ -658,6 +714,15 @@ public class VariantMongoDBQueryParser {
                 }
 
                 List<DBObject> genotypeQueries = new ArrayList<>(genotypesFilter.size());
+                MongoDBGenotypeBinaryFilter binaryFilter = null;
+                if (defaultStudyConfiguration != null && defaultStudyConfiguration.getAttributes()
+                        .getBoolean(GENOTYPES_BINARY.key(), GENOTYPES_BINARY.defaultValue())) {
+                    if (postFilters == null) {
+                        throw new VariantQueryException("Unable to filter by genotype or sample in study \""
+                                + defaultStudyConfiguration.getStudyName() + "\" with binary genotypes in this operation");
+                    }
+                    binaryFilter = new MongoDBGenotypeBinaryFilter(defaultStudyConfiguration.getStudyId(), queryOperation);
+                }
 
                 for (Map.Entry<Object, List<String>> entry : genotypesFilter.entrySet()) {
                     Object sample = entry.getKey();
@@ -700,9 +765,12 @@ public class VariantMongoDBQueryParser {
                         }
                     }
 
+                    if (binaryFilter != null) {
+                        addGenotypeBinaryFilter(binaryFilter.addSample(sampleId), genotypes, defaultGenotypes);
+                        continue;
+                    }
                     QueryBuilder genotypesBuilder = QueryBuilder.start();
 
-
                     for (String genotype : genotypes) {
                         boolean negated = isNegated(genotype);
                         if (negated) {
@@ -751,7 +819,9 @@ public class VariantMongoDBQueryParser {
                     genotypeQueries.add(genotypesBuilder.get());
                 }
 
-                if (queryOperation == QueryOperation.OR) {
+                if (binaryFilter != null) {
+                    postFilters.add(binaryFilter);
+                } else if (queryOperation == QueryOperation.OR) {
                     studyBuilder.or(genotypeQueries.toArray(new DBObject[genotypeQueries.size()])).get();
                 } else {
                     studyBuilder.and(genotypeQueries.toArray(new DBObject[genotypeQueries.size()]));
@@ -910,7 +980,9 @@ public class VariantMongoDBQueryParser {
         //
         // > db.variants.find({}, {"studies.files":1, studies:{$elemMatch:{sid:1}}})
         // {  studies : [ { sid : 1, files : [ ... ] , gt : { ... } } ]  }
-        List<Integer> studiesIds = VariantQueryUtils.getIncludeStudies(query, options, studyConfigurationManager);
+        List<Integer> studiesIds = VariantQuery.get(query, studyConfigurationManager)
+                .getSelectElements(options, studyConfigurationManager)
+                .getStudies();
         // Use elemMatch only if there is one study to return.
         if (studiesIds.size() == 1) {
             projection.put(
@@ -938,6 +1010,8 @@ public class VariantMongoDBQueryParser {
                     if (format.equals(GT)) {
                         projection.put(DocumentToVariantConverter.STUDIES_FIELD + '.'
                                 + DocumentToStudyVariantEntryConverter.GENOTYPES_FIELD, 1);
+                        projection.put(DocumentToVariantConverter.STUDIES_FIELD + '.'
+                                + DocumentToStudyVariantEntryConverter.GENOTYPES_BINARY_FIELD, 1);
                     } else {
                         projection.put(DocumentToVariantConverter.STUDIES_FIELD + '.'
                                 + DocumentToStudyVariantEntryConverter.FILES_FIELD + '.'
@@ -1227,55 +1301,50 @@ public class VariantMongoDBQueryParser {
     /**
      * Accepts a list of filters separated with "," or ";" with the expression: {SCORE}{OPERATION}{VALUE}.
      *
-     * @param value        Value to parse
+     * @param value        Value to parse. Used for error messages
+     * @param scores       Parsed value
      * @param builder      QueryBuilder
      * @param scoreParam Score query param
      * @param allowDescriptionFilter Use string values as filters for the score description
      * @return QueryBuilder
      */
-    private QueryBuilder addScoreFilter(String value, QueryBuilder builder, VariantQueryParam scoreParam,
-                                        boolean allowDescriptionFilter) {
-        return addScoreFilter(value, builder, scoreParam, null, allowDescriptionFilter);
+    private QueryBuilder addScoreFilter(String value, ValuesFilter<ScoreFilter> scores, QueryBuilder builder,
+                                        VariantQueryParam scoreParam, boolean allowDescriptionFilter) {
+        return addScoreFilter(value, scores, builder, scoreParam, null, allowDescriptionFilter);
     }
 
     /**
      * Accepts a list of filters separated with "," or ";" with the expression: {SOURCE}{OPERATION}{VALUE}.
      *
-     * @param value         Value to parse
+     * @param value         Value to parse. Used for error messages
+     * @param scores        Parsed value
      * @param builder       QueryBuilder
      * @param scoreParam    Score VariantQueryParam
      * @param defaultSource Default source value. If null, must be present in the filter. If not, must not be present.
      * @param allowDescriptionFilter Use string values as filters for the score description
      * @return QueryBuilder
      */
-    private QueryBuilder addScoreFilter(String value, QueryBuilder builder, VariantQueryParam scoreParam, final String defaultSource,
-                                        boolean allowDescriptionFilter) {
-        final List<String> list;
-        QueryOperation operation = checkOperator(value);
-        list = splitValue(value, operation);
+    private QueryBuilder addScoreFilter(String value, ValuesFilter<ScoreFilter> scores, QueryBuilder builder,
+                                        VariantQueryParam scoreParam, final String defaultSource, boolean allowDescriptionFilter) {
+        QueryOperation operation = scores.getOperation();
         List<DBObject> dbObjects = new ArrayList<>();
-        for (String elem : list) {
-            String[] score = VariantQueryUtils.splitOperator(elem);
+        for (ScoreFilter score : scores.getValues()) {
             String source;
-            String op;
-            String scoreValue;
+            String op = score.getOperator();
+            String scoreValue = score.getValue();
             // No given score
-            if (StringUtils.isEmpty(score[0])) {
+            if (score.getSource().isEmpty()) {
                 if (defaultSource == null) {
-                    logger.error("Bad score filter: " + elem);
+                    logger.error("Bad score filter: " + score);
                     throw VariantQueryException.malformedParam(scoreParam, value);
                 }
                 source = defaultSource;
-                op = score[1];
-                scoreValue = score[2];
             } else {
                 if (defaultSource != null) {
-                    logger.error("Bad score filter: " + elem);
+                    logger.error("Bad score filter: " + score);
                     throw VariantQueryException.malformedParam(scoreParam, value);
                 }
-                source = score[0];
-                op = score[1];
-                scoreValue = score[2];
+                source = score.getSource();
             }
 
             String key = DocumentToVariantAnnotationConverter.SCORE_FIELD_MAP.get(source);
@@ -1285,7 +1354,7 @@ public class VariantMongoDBQueryParser {
             }
 
             QueryBuilder scoreBuilder = new QueryBuilder();
-            if (NumberUtils.isParsable(scoreValue)) {
+            if (score.isNumeric()) {
                 // Query by score
                 key += '.' + DocumentToVariantAnnotationConverter.SCORE_SCORE_FIELD;
                 addCompQueryFilter(key, scoreValue, scoreBuilder, op);
@@ -1315,52 +1384,41 @@ public class VariantMongoDBQueryParser {
      *
      * @param key                  PopulationFrequency schema field
      * @param alleleFrequencyField Allele frequency schema field
-     * @param value                Value to parse
+     * @param frequencies          Parsed filter
      * @param builder              QueryBuilder
-     * @param queryParam           QueryParam filter
      * @return QueryBuilder
      */
-    private QueryBuilder addFrequencyFilter(String key, String alleleFrequencyField, String value, QueryBuilder builder,
-                                            VariantQueryParam queryParam) {
-        return addFrequencyFilter(key, value, builder, queryParam, (v, qb) -> addCompQueryFilter(alleleFrequencyField, v, qb, false));
+    private QueryBuilder addFrequencyFilter(String key, String alleleFrequencyField, ValuesFilter<PopulationFrequencyFilter> frequencies,
+                                            QueryBuilder builder) {
+        return addFrequencyFilter(key, frequencies, builder, (v, qb) -> addCompQueryFilter(alleleFrequencyField, v, qb, false));
     }
 
     /**
      * Accepts a list of filters separated with "," or ";" with the expression:
      * {STUDY}:{POPULATION}{OPERATION}{VALUE}.
      *
-     * @param key       PopulationFrequency schema field
-     * @param value     Value to parse
-     * @param builder   QueryBuilder
-     * @param addFilter For complex filter
+     * @param key         PopulationFrequency schema field
+     * @param frequencies Parsed filter
+     * @param builder     QueryBuilder
+     * @param addFilter   For complex filter
      * @return QueryBuilder
      */
-    private QueryBuilder addFrequencyFilter(String key, String value, QueryBuilder builder, VariantQueryParam queryParam,
+    private QueryBuilder addFrequencyFilter(String key, ValuesFilter<PopulationFrequencyFilter> frequencies, QueryBuilder builder,
                                             BiConsumer<String, QueryBuilder> addFilter) {
-        final List<String> list;
-        QueryOperation operation = checkOperator(value);
-        list = splitValue(value, operation);
+        QueryOperation operation = frequencies.getOperation();
 
         List<BasicDBObject> dbObjects = new ArrayList<>();
-        for (String elem : list) {
-            String[] split = elem.split(IS);
-            if (split.length != 2) {
-                logger.error("Bad population frequency filter: " + elem);
-                throw VariantQueryException.malformedParam(queryParam, value);
-                //new IllegalArgumentException("Bad population frequency filter: " + elem);
-            }
-            String study = split[0];
-            String populationFrequency = split[1];
-            String[] populationFrequencySplit = splitOperator(populationFrequency);
-            String population = populationFrequencySplit[0];
-            String operator = populationFrequencySplit[1];
-            String numValue = populationFrequencySplit[2];
+        for (PopulationFrequencyFilter frequency : frequencies.getValues()) {
+            String study = frequency.getStudy();
+            String population = frequency.getPopulation();
+            String operator = frequency.getOperator();
+            String numValue = String.valueOf(frequency.getValue());
             if (operator.startsWith(">>") || operator.startsWith("<<")) {
                 // Remove first char
                 operator = operator.substring(1);
             }
 
-            logger.debug("populationFrequency = " + Arrays.toString(populationFrequencySplit));
+            logger.debug("populationFrequency = " + frequency);
 
             QueryBuilder frequencyBuilder = new QueryBuilder();
             frequencyBuilder.and(DocumentToVariantAnnotationConverter.POPULATION_FREQUENCY_STUDY_FIELD).is(study);
@@ -1464,65 +1522,54 @@ public class VariantMongoDBQueryParser {
         return builder;
     }
 
-    private QueryBuilder getRegionFilter(Region region, QueryBuilder builder) {
-        List<String> chunkIds = getChunkIds(region);
-        builder.and(DocumentToVariantConverter.AT_FIELD + '.' + DocumentToVariantConverter.CHUNK_IDS_FIELD).in(chunkIds);
-        builder.and(DocumentToVariantConverter.END_FIELD).greaterThanEquals(region.getStart());
-        builder.and(DocumentToVariantConverter.START_FIELD).lessThanEquals(region.getEnd());
-        return builder;
-    }
-
     private QueryBuilder getRegionFilter(List<Region> regions, QueryBuilder builder) {
         if (regions != null && !regions.isEmpty()) {
-            DBObject[] objects = new DBObject[regions.size()];
-            int i = 0;
-            for (Region region : regions) {
-                DBObject regionObject = new BasicDBObject();
-//                if (region.getEnd() - region.getStart() < 1000000) {
-//                    List<String> chunkIds = getChunkIds(region);
-//                    regionObject.put(DocumentToVariantConverter.AT_FIELD + '.' + DocumentToVariantConverter
-//                            .CHUNK_IDS_FIELD,
-//                            new Document("$in", chunkIds));
-//                } else {
-//                    regionObject.put(DocumentToVariantConverter.CHROMOSOME_FIELD, region.getChromosome());
-//                }
-
-                int end = region.getEnd();
-                if (end < Integer.MAX_VALUE) { // Avoid overflow
-                    end++;
-                }
-                regionObject.put("_id", new Document()
-                        .append("$gte", VariantStringIdConverter.buildId(region.getChromosome(), region.getStart()))
-                        .append("$lt", VariantStringIdConverter.buildId(region.getChromosome(), end)));
-
-                objects[i] = regionObject;
-                i++;
+            MongoDBRegionQueryPlanner.Plan plan = regionQueryPlanner.plan(regions);
+            logger.debug("Region plan = {}", plan);
+            List<Document> queries = plan.toQueries();
+            DBObject[] objects = new DBObject[queries.size()];
+            for (int i = 0; i < queries.size(); i++) {
+                objects[i] = new BasicDBObject(queries.get(i));
             }
             builder.or(objects);
         }
         return builder;
     }
 
-    /* *******************
-     * Auxiliary methods *
-     * *******************/
-    private List<String> getChunkIds(Region region) {
-        List<String> chunkIds = new LinkedList<>();
-
-        int chunkSize = (region.getEnd() - region.getStart() > VariantMongoDBAdaptor.CHUNK_SIZE_BIG)
-                ? VariantMongoDBAdaptor.CHUNK_SIZE_BIG
-                : VariantMongoDBAdaptor.CHUNK_SIZE_SMALL;
-        int ks = chunkSize / 1000;
-        int chunkStart = region.getStart() / chunkSize;
-        int chunkEnd = region.getEnd() / chunkSize;
-
-        for (int i = chunkStart; i <= chunkEnd; i++) {
-            String chunkId = region.getChromosome() + "_" + i + "_" + ks + "k";
-            chunkIds.add(chunkId);
+    /**
+     * Plan the region filter of the query, if any.
+     *
+     * @param query Query
+     * @return Region plan, or null if the query has no region filter
+     */
+    public MongoDBRegionQueryPlanner.Plan planRegions(Query query) {
+        if (query != null && isValidParam(query, REGION)) {
+            List<Region> regions = Region.parseRegions(query.getString(REGION.key()), true);
+            if (!regions.isEmpty()) {
+                return regionQueryPlanner.plan(regions);
+            }
         }
-        return chunkIds;
+        return null;
+    }
+
+    /**
+     * Check if the region filter is the only location filter of the query, so it can be split in sub-queries.
+     * Genes, ids and xrefs are combined with the regions using an OR, so each sub-query would return them again.
+     *
+     * @param query Query
+     * @return If the query can be split by regions
+     */
+    public boolean isRegionOnlyLocationFilter(Query query) {
+        VariantQuery variantQuery = VariantQuery.get(query);
+        return variantQuery.getGenes().isEmpty()
+                && variantQuery.getVariants().isEmpty()
+                && variantQuery.getIds().isEmpty()
+                && variantQuery.getOtherXrefs().isEmpty();
     }
 
+    /* *******************
+     * Auxiliary methods *
+     * *******************/
     protected int getChunkId(int position, int chunksize) {
         return position / chunksize;
     }
@@ -54,6 +54,7 @@ public class DocumentToSamplesConverter extends AbstractDocumentConverter {
     private final Map<Integer, BiMap<String, Integer>> __studySamplesId; //Inverse map from "sampleIds". Do not use directly, can be null
     // . Use "getIndexedIdSamplesMap()"
     private final Map<Integer, LinkedHashMap<String, Integer>> __samplesPosition;
+    private final Map<Integer, int[]> __sortedSampleIds;
     private final Map<Integer, Set<String>> studyDefaultGenotypeSet;
     private Map<Integer, LinkedHashSet<Integer>> includeSamples;
     private StudyConfigurationManager studyConfigurationManager;
@@ -111,6 +112,7 @@ public class DocumentToSamplesConverter extends AbstractDocumentConverter {
         studyConfigurations = new HashMap<>();
         __studySamplesId = new HashMap<>();
         __samplesPosition = new HashMap<>();
+        __sortedSampleIds = new HashMap<>();
         studyDefaultGenotypeSet = new HashMap<>();
         includeSamples = Collections.emptyMap();
         studyConfigurationManager = null;
@@ -203,6 +205,7 @@ public class DocumentToSamplesConverter extends AbstractDocumentConverter {
         final LinkedHashMap<String, Integer> samplesPositionToReturn = getSamplesPosition(studyConfiguration);
 
         boolean excludeGenotypes = !object.containsKey(DocumentToStudyVariantEntryConverter.GENOTYPES_FIELD)
+                && !object.containsKey(DocumentToStudyVariantEntryConverter.GENOTYPES_BINARY_FIELD)
                 || studyConfiguration.getAttributes().getBoolean(Options.EXCLUDE_GENOTYPES.key(), Options.EXCLUDE_GENOTYPES.defaultValue());
         boolean compressExtraParams = studyConfiguration.getAttributes()
                 .getBoolean(Options.EXTRA_GENOTYPE_FIELDS_COMPRESS.key(),
@@ -270,24 +273,31 @@ public class DocumentToSamplesConverter extends AbstractDocumentConverter {
         // genotypes[41], genotypes[311], etc, will be set to "0|1"
         Map<Integer, String> idSamples = getIndexedSamplesIdMap(studyId).inverse();
         if (!excludeGenotypes) {
-            Document mongoGenotypes = (Document) object.get(DocumentToStudyVariantEntryConverter.GENOTYPES_FIELD);
-            for (Map.Entry<String, Object> dbo : mongoGenotypes.entrySet()) {
-                final String genotype;
-                if (dbo.getKey().equals(UNKNOWN_GENOTYPE)) {
-                    if (unknownGenotype == null) {
-                        continue;
+            Object binaryGenotypes = object.get(DocumentToStudyVariantEntryConverter.GENOTYPES_BINARY_FIELD);
+            if (binaryGenotypes != null) {
+                // Compact genotypes. Decode only the returned samples
+                int[] sortedSampleIds = getSortedSampleIds(studyId);
+                byte[] data = binaryGenotypes instanceof Binary ? ((Binary) binaryGenotypes).getData() : (byte[]) binaryGenotypes;
+                String[] gts = GenotypeBinaryCodec.decode(data, sortedSampleIds);
+                for (int i = 0; i < sortedSampleIds.length; i++) {
+                    if (gts[i] != null) {
+                        String genotype = genotypeToDataModelType(gts[i], defaultGenotypes);
+                        if (genotype != null) {
+                            samplesData.get(samplesPositionToReturn.get(idSamples.get(sortedSampleIds[i]))).set(0, genotype);
+                        }
                     }
-                    if (defaultGenotypes.contains(unknownGenotype)) {
+                }
+            } else {
+                Document mongoGenotypes = (Document) object.get(DocumentToStudyVariantEntryConverter.GENOTYPES_FIELD);
+                for (Map.Entry<String, Object> dbo : mongoGenotypes.entrySet()) {
+                    final String genotype = genotypeToDataModelType(dbo.getKey(), defaultGenotypes);
+                    if (genotype == null) {
                         continue;
-                    } else {
-                        genotype = unknownGenotype;
                     }
-                } else {
-                    genotype = genotypeToDataModelType(dbo.getKey());
-                }
-                for (Integer sampleId : (List<Integer>) dbo.getValue()) {
-                    if (idSamples.containsKey(sampleId)) {
-                        samplesData.get(samplesPositionToReturn.get(idSamples.get(sampleId))).set(0, genotype);
+                    for (Integer sampleId : (List<Integer>) dbo.getValue()) {
+                        if (idSamples.containsKey(sampleId)) {
+                            samplesData.get(samplesPositionToReturn.get(idSamples.get(sampleId))).set(0, genotype);
+                        }
                     }
                 }
             }
@@ -631,11 +641,13 @@ public class DocumentToSamplesConverter extends AbstractDocumentConverter {
         }
         __studySamplesId.clear();
         __samplesPosition.clear();
+        __sortedSampleIds.clear();
     }
 
     public void addStudyConfiguration(StudyConfiguration studyConfiguration) {
         this.studyConfigurations.put(studyConfiguration.getStudyId(), studyConfiguration);
         this.__studySamplesId.put(studyConfiguration.getStudyId(), null);
+        this.__sortedSampleIds.remove(studyConfiguration.getStudyId());
 
         Set defGenotypeSet = studyConfiguration.getAttributes().get(DEFAULT_GENOTYPE.key(), Set.class);
         if (defGenotypeSet == null) {
@@ -692,6 +704,34 @@ public class DocumentToSamplesConverter extends AbstractDocumentConverter {
         return sampleIds;
     }
 
+    /**
+     * Lazy sorted array of the returned sampleIds, used to decode the binary genotypes.
+     **/
+    private int[] getSortedSampleIds(int studyId) {
+        int[] sortedSampleIds = __sortedSampleIds.get(studyId);
+        if (sortedSampleIds == null) {
+            sortedSampleIds = getIndexedSamplesIdMap(studyId).values().stream().mapToInt(Integer::intValue).sorted().toArray();
+            __sortedSampleIds.put(studyId, sortedSampleIds);
+        }
+        return sortedSampleIds;
+    }
+
+    /**
+     * Converts a genotype from the genotypes map into the data model.
+     * Returns null if the genotype should not be written, as it is already the default genotype.
+     **/
+    private String genotypeToDataModelType(String storageGenotype, Set<String> defaultGenotypes) {
+        if (storageGenotype.equals(UNKNOWN_GENOTYPE)) {
+            if (unknownGenotype == null || defaultGenotypes.contains(unknownGenotype)) {
+                return null;
+            } else {
+                return unknownGenotype;
+            }
+        } else {
+            return genotypeToDataModelType(storageGenotype);
+        }
+    }
+
     private LinkedHashMap<String, Integer> getSamplesPosition(StudyConfiguration studyConfiguration) {
         if (!__samplesPosition.containsKey(studyConfiguration.getStudyId())) {
             LinkedHashMap<String, Integer> samplesPosition;
@@ -39,6 +39,10 @@ public class DocumentToStudyVariantEntryConverter {
     public static final String STUDYID_FIELD = "sid";
     //    public static final String FORMAT_FIELD = "fm";
     public static final String GENOTYPES_FIELD = "gt";
+    /**
+     * Compact copy of the genotypes map. See {@link GenotypeBinaryCodec}.
+     */
+    public static final String GENOTYPES_BINARY_FIELD = "gtb";
 
     public static final String FILES_FIELD = "files";
     public static final String FILEID_FIELD = "fid";
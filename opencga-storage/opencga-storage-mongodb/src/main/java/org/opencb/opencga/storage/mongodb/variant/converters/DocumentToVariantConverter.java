@@ -72,6 +72,7 @@ public class DocumentToVariantConverter extends AbstractDocumentConverter implem
     public static final String AT_FIELD = "_at";
     public static final String CHUNK_IDS_FIELD = "chunkIds";
     public static final String RELEASE_FIELD = "_r";
+    public static final String LAST_MODIFIED_FIELD = "_lm";
 
 //    public static final String ID_FIELD = "id";
 //    public static final String FILES_FIELD = "files";
@@ -107,6 +108,7 @@ public class DocumentToVariantConverter extends AbstractDocumentConverter implem
         map.put(VariantField.STUDIES, Arrays.asList(STUDIES_FIELD, STATS_FIELD));
         map.put(VariantField.STUDIES_SAMPLES_DATA, Arrays.asList(
                 STUDIES_FIELD + '.' + GENOTYPES_FIELD,
+                STUDIES_FIELD + '.' + GENOTYPES_BINARY_FIELD,
                 STUDIES_FIELD + '.' + FILES_FIELD + '.' + FILEID_FIELD,
                 STUDIES_FIELD + '.' + FILES_FIELD + '.' + SAMPLE_DATA_FIELD
         ));
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.mongodb.variant.converters;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Compact binary representation of the genotypes map of a study.
+ *
+ * The genotypes map ({@link DocumentToStudyVariantEntryConverter#GENOTYPES_FIELD}) stores, for each non default genotype,
+ * the list of sample ids with that genotype. This codec stores the same information as a column of genotype codes
+ * indexed by sample id, where code 0 means "default genotype" (not present in the map).
+ *
+ * Format:
+ *   byte    version
+ *   varint  number of positions (max sample id + 1)
+ *   varint  dictionary size
+ *   [varint length, utf8 bytes] for each genotype in the dictionary
+ *   varint  runs, each one packing (runLength - 1) and the genotype code in the lower bits.
+ *
+ * Consecutive samples sharing genotype are run-length encoded, and the code of each run is bit-packed using only
+ * the bits required by the dictionary size.
+ */
+public final class GenotypeBinaryCodec {
+
+    public static final byte VERSION = 1;
+    private static final int DEFAULT_CODE = 0;
+
+    private GenotypeBinaryCodec() {
+    }
+
+    /**
+     * Encode a genotypes map.
+     *
+     * @param genotypes Genotypes map, from genotype (storage format) to list of sample ids
+     * @return Encoded genotypes
+     */
+    public static byte[] encode(Map<String, ? extends Collection<Integer>> genotypes) {
+        List<String> dictionary = new ArrayList<>(genotypes.size());
+        int maxSampleId = -1;
+        for (Map.Entry<String, ? extends Collection<Integer>> entry : genotypes.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                dictionary.add(entry.getKey());
+                for (Integer sampleId : entry.getValue()) {
+                    maxSampleId = Math.max(maxSampleId, sampleId);
+                }
+            }
+        }
+
+        int[] codes = new int[maxSampleId + 1];
+        for (int i = 0; i < dictionary.size(); i++) {
+            for (Integer sampleId : genotypes.get(dictionary.get(i))) {
+                codes[sampleId] = i + 1;
+            }
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16 + codes.length / 4);
+        out.write(VERSION);
+        writeVarInt(out, codes.length);
+        writeVarInt(out, dictionary.size());
+        for (String gt : dictionary) {
+            byte[] bytes = gt.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(out, bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+
+        int bits = bitsPerCode(dictionary.size());
+        int i = 0;
+        while (i < codes.length) {
+            int code = codes[i];
+            int runEnd = i + 1;
+            while (runEnd < codes.length && codes[runEnd] == code) {
+                runEnd++;
+            }
+            writeVarInt(out, ((runEnd - i - 1) << bits) | code);
+            i = runEnd;
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decode only the requested samples.
+     *
+     * @param data      Encoded genotypes
+     * @param sampleIds Sorted array of sample ids to decode
+     * @return Genotype (storage format) for each requested sample, or null if the sample has the default genotype.
+     */
+    public static String[] decode(byte[] data, int[] sampleIds) {
+        String[] result = new String[sampleIds.length];
+        Reader reader = new Reader(data);
+        if (reader.readByte() != VERSION) {
+            throw new IllegalArgumentException("Unknown genotype binary version " + data[0]);
+        }
+        int numPositions = reader.readVarInt();
+        String[] dictionary = readDictionary(reader);
+        int bits = bitsPerCode(dictionary.length - 1);
+        int mask = (1 << bits) - 1;
+
+        int runStart = 0;
+        int request = 0;
+        while (request < sampleIds.length && runStart < numPositions) {
+            int value = reader.readVarInt();
+            int code = value & mask;
+            int runEnd = runStart + (value >>> bits) + 1;
+            // Skip requested samples before this run. Should not happen with sorted input
+            while (request < sampleIds.length && sampleIds[request] < runStart) {
+                request++;
+            }
+            while (request < sampleIds.length && sampleIds[request] < runEnd) {
+                result[request] = dictionary[code];
+                request++;
+            }
+            runStart = runEnd;
+        }
+        // Samples after the last position have the default genotype
+        return result;
+    }
+
+    /**
+     * Decode the whole column into a genotypes map.
+     *
+     * @param data Encoded genotypes
+     * @return Genotypes map, from genotype (storage format) to list of sample ids
+     */
+    public static Map<String, List<Integer>> decodeAll(byte[] data) {
+        Reader reader = new Reader(data);
+        if (reader.readByte() != VERSION) {
+            throw new IllegalArgumentException("Unknown genotype binary version " + data[0]);
+        }
+        int numPositions = reader.readVarInt();
+        String[] dictionary = readDictionary(reader);
+        int bits = bitsPerCode(dictionary.length - 1);
+        int mask = (1 << bits) - 1;
+
+        Map<String, List<Integer>> genotypes = new LinkedHashMap<>(dictionary.length * 2);
+        int runStart = 0;
+        while (runStart < numPositions) {
+            int value = reader.readVarInt();
+            int code = value & mask;
+            int runEnd = runStart + (value >>> bits) + 1;
+            if (code != DEFAULT_CODE) {
+                List<Integer> samples = genotypes.computeIfAbsent(dictionary[code], k -> new ArrayList<>());
+                for (int sampleId = runStart; sampleId < runEnd; sampleId++) {
+                    samples.add(sampleId);
+                }
+            }
+            runStart = runEnd;
+        }
+        return genotypes;
+    }
+
+    /**
+     * Add new samples, or replace the genotype of existing samples.
+     *
+     * @param data      Encoded genotypes. May be null
+     * @param genotypes Genotypes to add, from genotype (storage format) to list of sample ids
+     * @return Encoded genotypes
+     */
+    public static byte[] merge(byte[] data, Map<String, ? extends Collection<Integer>> genotypes) {
+        if (data == null) {
+            return encode(genotypes);
+        }
+        Set<Integer> sampleIds = new HashSet<>();
+        for (Collection<Integer> samples : genotypes.values()) {
+            sampleIds.addAll(samples);
+        }
+        Map<String, List<Integer>> merged = decodeAll(data);
+        for (List<Integer> samples : merged.values()) {
+            samples.removeAll(sampleIds);
+        }
+        for (Map.Entry<String, ? extends Collection<Integer>> entry : genotypes.entrySet()) {
+            merged.computeIfAbsent(entry.getKey(), k -> new ArrayList<>()).addAll(entry.getValue());
+        }
+        return encode(merged);
+    }
+
+    /**
+     * Set the default genotype to the given samples.
+     *
+     * @param data      Encoded genotypes
+     * @param sampleIds Samples to remove
+     * @return Encoded genotypes
+     */
+    public static byte[] remove(byte[] data, Collection<Integer> sampleIds) {
+        Set<Integer> samplesSet = new HashSet<>(sampleIds);
+        Map<String, List<Integer>> genotypes = decodeAll(data);
+        for (List<Integer> samples : genotypes.values()) {
+            samples.removeAll(samplesSet);
+        }
+        return encode(genotypes);
+    }
+
+    private static String[] readDictionary(Reader reader) {
+        int size = reader.readVarInt();
+        // Position 0 is the default genotype
+        String[] dictionary = new String[size + 1];
+        for (int i = 1; i <= size; i++) {
+            int length = reader.readVarInt();
+            dictionary[i] = reader.readString(length);
+        }
+        return dictionary;
+    }
+
+    private static int bitsPerCode(int dictionarySize) {
+        return Math.max(1, 32 - Integer.numberOfLeadingZeros(dictionarySize));
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static final class Reader {
+        private final byte[] data;
+        private int offset;
+
+        private Reader(byte[] data) {
+            this.data = data;
+            this.offset = 0;
+        }
+
+        private byte readByte() {
+            return data[offset++];
+        }
+
+        private int readVarInt() {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[offset++];
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+
+        private String readString(int length) {
+            String s = new String(data, offset, length, StandardCharsets.UTF_8);
+            offset += length;
+            return s;
+        }
+    }
+}
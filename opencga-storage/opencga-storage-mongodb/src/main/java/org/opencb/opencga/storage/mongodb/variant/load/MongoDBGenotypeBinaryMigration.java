@@ -0,0 +1,122 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.mongodb.variant.load;
+
+import com.mongodb.client.MongoCursor;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.opencb.commons.datastore.core.QueryOptions;
+import org.opencb.commons.datastore.mongodb.MongoDBCollection;
+import org.opencb.opencga.storage.mongodb.variant.MongoDBVariantStorageEngine.MongoDBVariantOptions;
+import org.opencb.opencga.storage.mongodb.variant.converters.GenotypeBinaryCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import static com.mongodb.client.model.Filters.*;
+import static com.mongodb.client.model.Updates.*;
+import static org.opencb.opencga.storage.mongodb.variant.converters.DocumentToStudyVariantEntryConverter.*;
+import static org.opencb.opencga.storage.mongodb.variant.converters.DocumentToVariantConverter.STUDIES_FIELD;
+
+/**
+ * Replaces the genotypes map of the variants of a study with the compact binary genotypes ({@link GenotypeBinaryCodec}).
+ *
+ * Only the variants still with the genotypes map are read, so an interrupted migration continues where it stopped.
+ * The study must be flagged before running the migration, so the loads merge new genotypes into the binary genotypes.
+ *
+ * @see MongoDBVariantOptions#GENOTYPES_BINARY
+ */
+public class MongoDBGenotypeBinaryMigration {
+
+    private static final int BATCH_SIZE = 1000;
+
+    private final MongoDBCollection variantsCollection;
+    private final int studyId;
+
+    private final Logger logger = LoggerFactory.getLogger(MongoDBGenotypeBinaryMigration.class);
+
+    public MongoDBGenotypeBinaryMigration(MongoDBCollection variantsCollection, int studyId) {
+        this.variantsCollection = variantsCollection;
+        this.studyId = studyId;
+    }
+
+    /**
+     * Run the migration.
+     *
+     * @return Number of migrated variants
+     */
+    public long run() {
+        Bson query = elemMatch(STUDIES_FIELD, and(eq(STUDYID_FIELD, studyId), exists(GENOTYPES_FIELD)));
+        Document projection = new Document(STUDIES_FIELD + '.' + STUDYID_FIELD, 1)
+                .append(STUDIES_FIELD + '.' + GENOTYPES_FIELD, 1);
+
+        long numVariants = 0;
+        long rawSize = 0;
+        long binarySize = 0;
+        List<Bson> queries = new ArrayList<>(BATCH_SIZE);
+        List<Bson> updates = new ArrayList<>(BATCH_SIZE);
+        try (MongoCursor<Document> cursor = variantsCollection.nativeQuery().find(query, projection, new QueryOptions()).iterator()) {
+            while (cursor.hasNext()) {
+                Document variant = cursor.next();
+                Document gt = getGenotypes(variant);
+                if (gt == null) {
+                    continue;
+                }
+                byte[] data = GenotypeBinaryCodec.encode((Map<String, ? extends Collection<Integer>>) (Map) gt);
+                rawSize += gt.toJson().length();
+                binarySize += data.length;
+
+                // Do not overwrite if a load already replaced the genotypes map
+                queries.add(and(eq("_id", variant.get("_id")), query));
+                updates.add(combine(set(STUDIES_FIELD + ".$." + GENOTYPES_BINARY_FIELD, data),
+                        unset(STUDIES_FIELD + ".$." + GENOTYPES_FIELD)));
+                numVariants++;
+                if (queries.size() == BATCH_SIZE) {
+                    flush(queries, updates);
+                    logger.info("Migrated {} variants to binary genotypes", numVariants);
+                }
+            }
+        }
+        flush(queries, updates);
+        logger.info("Migrated {} variants to binary genotypes. Genotypes size from ~{}B to {}B", numVariants, rawSize, binarySize);
+        return numVariants;
+    }
+
+    private Document getGenotypes(Document variant) {
+        List<Document> studies = (List<Document>) variant.get(STUDIES_FIELD);
+        if (studies != null) {
+            for (Document study : studies) {
+                if (((Number) study.get(STUDYID_FIELD)).intValue() == studyId) {
+                    return study.get(GENOTYPES_FIELD, Document.class);
+                }
+            }
+        }
+        return null;
+    }
+
+    private void flush(List<Bson> queries, List<Bson> updates) {
+        if (!queries.isEmpty()) {
+            variantsCollection.update(queries, updates, new QueryOptions());
+            queries.clear();
+            updates.clear();
+        }
+    }
+}
@@ -98,6 +98,7 @@ public class MongoDBVariantDirectConverter implements Task<Variant, Pair<ListMul
                 stageDocument.append(studyIdStr, new Document(fileIdStr, Collections.singletonList(variant)));
                 processVariant(stageDocument, variant, mongoDBOps);
             }
+            completeBinaryGenotypes(mongoDBOps);
             return mongoDBOps;
         }
     }
@@ -7,6 +7,7 @@ import org.bson.types.Binary;
 import org.opencb.commons.datastore.mongodb.MongoDBCollection;
 import org.opencb.commons.io.DataWriter;
 import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
+import org.opencb.opencga.storage.mongodb.variant.adaptors.MongoDBVariantDensitySummary;
 import org.opencb.opencga.storage.mongodb.variant.adaptors.VariantMongoDBAdaptor;
 import org.opencb.opencga.storage.mongodb.variant.load.MongoDBVariantWriteResult;
 import org.opencb.opencga.storage.mongodb.variant.load.stage.MongoDBVariantStageLoader;
@@ -37,6 +38,11 @@ public class MongoDBVariantDirectLoader implements DataWriter<Pair<ListMultimap<
                 studyConfiguration, Collections.singletonList(fileId), resume, false, null);
     }
 
+    public MongoDBVariantDirectLoader setDensitySummary(MongoDBVariantDensitySummary densitySummary) {
+        variantsLoader.setDensitySummary(densitySummary);
+        return this;
+    }
+
     @Override
     public boolean open() {
         stageLoader.open();
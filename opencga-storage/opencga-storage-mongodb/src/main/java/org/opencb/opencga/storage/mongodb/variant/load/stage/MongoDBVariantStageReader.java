@@ -52,6 +52,7 @@ public class MongoDBVariantStageReader implements DataReader<Document> {
     private Collection<Integer> fileIds;
     private final Collection<String> chromosomes;
     private MongoPersistentCursor iterator;
+    private int cursorBatchSize = 20;
     private Document next = null;   // Pending variant
 
     private final Logger logger = LoggerFactory.getLogger(MongoDBVariantStageReader.class);
@@ -73,6 +74,18 @@ public class MongoDBVariantStageReader implements DataReader<Document> {
         return this;
     }
 
+    /**
+     * Number of documents fetched from the stage collection per request.
+     * Bigger values let the cursor prefetch more documents ahead of the merger.
+     *
+     * @param cursorBatchSize Cursor batch size
+     * @return this
+     */
+    public MongoDBVariantStageReader setCursorBatchSize(int cursorBatchSize) {
+        this.cursorBatchSize = cursorBatchSize;
+        return this;
+    }
+
     public long countNumVariants() {
         return stageCollection.nativeQuery().count(getQuery());
     }
@@ -93,7 +106,7 @@ public class MongoDBVariantStageReader implements DataReader<Document> {
         QueryOptions options = getQueryOptions();
         Bson query = getQuery();
         iterator = new MongoPersistentCursor(stageCollection, query, null, options)
-                .setBatchSize(20);
+                .setBatchSize(cursorBatchSize);
         return true;
     }
 
@@ -18,6 +18,7 @@ package org.opencb.opencga.storage.mongodb.variant.load.variants;
 
 import org.bson.Document;
 import org.bson.conversions.Bson;
+import org.opencb.opencga.storage.mongodb.variant.adaptors.MongoDBVariantDensitySummary;
 
 import java.util.*;
 
@@ -37,11 +38,15 @@ public class MongoDBOperations {
 
     private final Set<String> genotypes = new HashSet<>();
 
+    // Variants added to the study, for the density summary
+    private final MongoDBVariantDensitySummary.Counts newStudyDensity = new MongoDBVariantDensitySummary.Counts();
+
     // Stage documents to cleanup
 //    private List<Pair<Bson, Bson>> cleanFromStage = new ArrayList<>();
     private final List<String> documentsToCleanStudies = new ArrayList<>();
     private final List<String> documentsToCleanFiles = new ArrayList<>();
     private final StageSecondaryAlternates secondaryAlternates = new StageSecondaryAlternates();
+    private final ExistingStudyBinaryGenotypes existingStudyBinaryGenotypes = new ExistingStudyBinaryGenotypes();
 
     private int skipped = 0;
     private int nonInserted = 0;
@@ -64,6 +69,10 @@ public class MongoDBOperations {
         return existingStudy;
     }
 
+    MongoDBVariantDensitySummary.Counts getNewStudyDensity() {
+        return newStudyDensity;
+    }
+
     List<String> getDocumentsToCleanStudies() {
         return documentsToCleanStudies;
     }
@@ -125,6 +134,10 @@ public class MongoDBOperations {
         return secondaryAlternates;
     }
 
+    ExistingStudyBinaryGenotypes getExistingStudyBinaryGenotypes() {
+        return existingStudyBinaryGenotypes;
+    }
+
     // Document may exist, study does not exist
     class NewStudy {
         private final List<String> ids = new LinkedList<>();
@@ -170,6 +183,25 @@ public class MongoDBOperations {
         }
     }
 
+    // New genotypes for existing studies with binary genotypes. Completed before executing the existing study updates
+    class ExistingStudyBinaryGenotypes {
+        private final List<String> ids = new LinkedList<>();
+        private final List<Document> genotypes = new LinkedList<>();
+        private final List<List<Bson>> updates = new LinkedList<>();
+
+        List<String> getIds() {
+            return ids;
+        }
+
+        List<Document> getGenotypes() {
+            return genotypes;
+        }
+
+        List<List<Bson>> getUpdates() {
+            return updates;
+        }
+    }
+
     // Secondary alternates to be updated in the stage collection
     class StageSecondaryAlternates {
         private final List<String> ids = new LinkedList<>();
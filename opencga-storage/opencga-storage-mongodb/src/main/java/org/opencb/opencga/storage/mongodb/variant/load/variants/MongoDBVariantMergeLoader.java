@@ -29,6 +29,7 @@ import org.opencb.commons.datastore.core.QueryResult;
 import org.opencb.commons.datastore.mongodb.MongoDBCollection;
 import org.opencb.commons.io.DataWriter;
 import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
+import org.opencb.opencga.storage.mongodb.variant.adaptors.MongoDBVariantDensitySummary;
 import org.opencb.opencga.storage.mongodb.variant.adaptors.VariantMongoDBAdaptor;
 import org.opencb.opencga.storage.mongodb.variant.converters.stage.StageDocumentToVariantConverter;
 import org.opencb.opencga.storage.mongodb.variant.load.MongoDBVariantWriteResult;
@@ -36,6 +37,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static com.mongodb.client.model.Filters.*;
 import static com.mongodb.client.model.Updates.*;
@@ -86,6 +91,14 @@ public class MongoDBVariantMergeLoader implements DataWriter<MongoDBOperations>
     private final Bson cleanStageDuplicated;
     private final Bson cleanStage;
 
+    // Pipelined writes
+    private int maxInFlightWrites = 1;
+    private Semaphore inFlightWrites;
+    private ExecutorService writeExecutor;
+    private final AtomicReference<RuntimeException> asyncWriteError = new AtomicReference<>();
+
+    private MongoDBVariantDensitySummary densitySummary;
+
     public MongoDBVariantMergeLoader(MongoDBCollection variantsCollection, MongoDBCollection stageCollection,
                                      MongoDBCollection studiesCollection, StudyConfiguration studyConfiguration, List<Integer> fileIds,
                                      boolean resume, boolean cleanWhileLoading, ProgressLogger progressLogger) {
@@ -120,14 +133,99 @@ public class MongoDBVariantMergeLoader implements DataWriter<MongoDBOperations>
 
     }
 
+    /**
+     * Number of MongoDBOperations executed at the same time.
+     * With values bigger than 1, {@link #write} returns as soon as the operations are submitted, so the next batch can be
+     * merged while the previous one is being written.
+     *
+     * @param maxInFlightWrites Max number of concurrent writes
+     * @return this
+     */
+    public MongoDBVariantMergeLoader setMaxInFlightWrites(int maxInFlightWrites) {
+        this.maxInFlightWrites = Math.max(1, maxInFlightWrites);
+        return this;
+    }
+
+    /**
+     * Increment the density summary with the variants added to the study.
+     * Only valid if the summary of the study was complete before the load, and the load is not resumed.
+     *
+     * @param densitySummary Density summary to update, or null to skip
+     * @return this
+     */
+    public MongoDBVariantMergeLoader setDensitySummary(MongoDBVariantDensitySummary densitySummary) {
+        this.densitySummary = densitySummary;
+        return this;
+    }
+
     @Override
     public boolean write(List<MongoDBOperations> batch) {
-        for (MongoDBOperations mongoDBOperations : batch) {
-            executeMongoDBOperations(mongoDBOperations);
+        if (maxInFlightWrites == 1) {
+            for (MongoDBOperations mongoDBOperations : batch) {
+                executeMongoDBOperations(mongoDBOperations);
+            }
+        } else {
+            for (MongoDBOperations mongoDBOperations : batch) {
+                submitMongoDBOperations(mongoDBOperations);
+            }
         }
         return true;
     }
 
+    private void submitMongoDBOperations(MongoDBOperations mongoDBOperations) {
+        synchronized (asyncWriteError) {
+            if (writeExecutor == null) {
+                inFlightWrites = new Semaphore(maxInFlightWrites);
+                writeExecutor = Executors.newFixedThreadPool(maxInFlightWrites, r -> {
+                    Thread t = new Thread(r, "merge-writer");
+                    t.setDaemon(true);
+                    return t;
+                });
+            }
+        }
+        checkAsyncWriteError();
+        try {
+            inFlightWrites.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        writeExecutor.execute(() -> {
+            try {
+                if (asyncWriteError.get() == null) {
+                    executeMongoDBOperations(mongoDBOperations);
+                }
+            } catch (RuntimeException e) {
+                asyncWriteError.compareAndSet(null, e);
+            } finally {
+                inFlightWrites.release();
+            }
+        });
+    }
+
+    private void waitForInFlightWrites() {
+        if (writeExecutor != null) {
+            try {
+                inFlightWrites.acquire(maxInFlightWrites);
+                inFlightWrites.release(maxInFlightWrites);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            } finally {
+                writeExecutor.shutdown();
+                writeExecutor = null;
+            }
+        }
+        checkAsyncWriteError();
+    }
+
+    private void checkAsyncWriteError() {
+        RuntimeException e = asyncWriteError.get();
+        if (e != null) {
+            throw e;
+        }
+    }
+
     public MongoDBVariantWriteResult getResult() {
         return result;
     }
@@ -144,6 +242,9 @@ public class MongoDBVariantMergeLoader implements DataWriter<MongoDBOperations>
         long newVariants = 0;
         if (!mongoDBOps.getNewStudy().getQueries().isEmpty()) {
             newVariants = executeMongoDBOperationsNewStudy(mongoDBOps, true);
+            if (densitySummary != null) {
+                densitySummary.increment(studyId, mongoDBOps.getNewStudyDensity());
+            }
         }
         existingVariants.stop();
         StopWatch fillGapsVariants = StopWatch.createStarted();
@@ -348,6 +449,7 @@ public class MongoDBVariantMergeLoader implements DataWriter<MongoDBOperations>
 
     @Override
     public boolean post() {
+        waitForInFlightWrites();
         VariantMongoDBAdaptor.createIndexes(new QueryOptions(), variantsCollection);
         return true;
     }
@@ -17,6 +17,7 @@
 package org.opencb.opencga.storage.mongodb.variant.load.variants;
 
 import com.mongodb.MongoExecutionTimeoutException;
+import com.mongodb.client.MongoCursor;
 import org.apache.commons.lang3.StringUtils;
 import org.bson.BsonArray;
 import org.bson.Document;
@@ -32,6 +33,7 @@ import org.opencb.biodata.tools.variant.merge.VariantMerger;
 import org.opencb.commons.datastore.core.Query;
 import org.opencb.commons.datastore.core.QueryOptions;
 import org.opencb.commons.datastore.core.QueryResult;
+import org.opencb.commons.datastore.mongodb.MongoDBCollection;
 import org.opencb.commons.run.ParallelTaskRunner;
 import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
 import org.opencb.opencga.storage.core.variant.VariantStorageEngine;
@@ -39,9 +41,11 @@ import org.opencb.opencga.storage.core.variant.adaptors.GenotypeClass;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantDBAdaptor;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryParam;
 import org.opencb.opencga.storage.mongodb.variant.MongoDBVariantStoragePipeline;
+import org.opencb.opencga.storage.mongodb.variant.adaptors.VariantMongoDBAdaptor;
 import org.opencb.opencga.storage.mongodb.variant.converters.DocumentToSamplesConverter;
 import org.opencb.opencga.storage.mongodb.variant.converters.DocumentToStudyVariantEntryConverter;
 import org.opencb.opencga.storage.mongodb.variant.converters.DocumentToVariantConverter;
+import org.opencb.opencga.storage.mongodb.variant.converters.GenotypeBinaryCodec;
 import org.opencb.opencga.storage.mongodb.variant.converters.stage.StageDocumentToVariantConverter;
 import org.opencb.opencga.storage.mongodb.variant.load.stage.MongoDBVariantStageLoader;
 import org.slf4j.Logger;
@@ -53,9 +57,11 @@ import java.util.stream.Collectors;
 import static com.mongodb.client.model.Filters.*;
 import static com.mongodb.client.model.Updates.*;
 import static org.opencb.opencga.storage.mongodb.variant.MongoDBVariantStorageEngine.MongoDBVariantOptions.DEFAULT_GENOTYPE;
+import static org.opencb.opencga.storage.mongodb.variant.MongoDBVariantStorageEngine.MongoDBVariantOptions.GENOTYPES_BINARY;
 import static org.opencb.opencga.storage.core.variant.adaptors.GenotypeClass.UNKNOWN_GENOTYPE;
 import static org.opencb.opencga.storage.mongodb.variant.converters.DocumentToStudyVariantEntryConverter.*;
 import static org.opencb.opencga.storage.mongodb.variant.converters.DocumentToVariantConverter.IDS_FIELD;
+import static org.opencb.opencga.storage.mongodb.variant.converters.DocumentToVariantConverter.LAST_MODIFIED_FIELD;
 import static org.opencb.opencga.storage.mongodb.variant.converters.DocumentToVariantConverter.RELEASE_FIELD;
 import static org.opencb.opencga.storage.mongodb.variant.converters.DocumentToVariantConverter.STUDIES_FIELD;
 import static org.opencb.opencga.storage.mongodb.variant.converters.stage.StageDocumentToVariantConverter.ID_FIELD;
@@ -239,6 +245,7 @@ public class MongoDBVariantMerger implements ParallelTaskRunner.Task<Document, M
     private final DocumentToStudyVariantEntryConverter studyConverter;
     private final StudyConfiguration studyConfiguration;
     private final boolean excludeGenotypes;
+    private final boolean binaryGenotypes;
     private final boolean addUnknownGenotypes;
 
     // Variables that must be aware of concurrent modification
@@ -261,6 +268,8 @@ public class MongoDBVariantMerger implements ParallelTaskRunner.Task<Document, M
         this.indexedFiles = Objects.requireNonNull(indexedFiles);
 
         excludeGenotypes = getExcludeGenotypes(studyConfiguration);
+        binaryGenotypes = !excludeGenotypes && studyConfiguration.getAttributes()
+                .getBoolean(GENOTYPES_BINARY.key(), GENOTYPES_BINARY.defaultValue());
         format = buildFormat(studyConfiguration);
         indexedSamples = Collections.unmodifiableList(buildIndexedSamplesList(fileIds));
         studyId = studyConfiguration.getStudyId();
@@ -372,6 +381,7 @@ public class MongoDBVariantMerger implements ParallelTaskRunner.Task<Document, M
 
         // Process remaining variants
         processVariants(overlappedVariants, previousDocument, previousVariant, mongoDBOps);
+        completeBinaryGenotypes(mongoDBOps);
 
 //        // Execute MongoDB Operations
 //        return executeMongoDBOperations(mongoDBOps);
@@ -1066,7 +1076,9 @@ public class MongoDBVariantMerger implements ParallelTaskRunner.Task<Document, M
                 Document studyDocument = new Document(STUDYID_FIELD, studyId)
                         .append(FILES_FIELD, fileDocuments);
 
-                if (!excludeGenotypes) {
+                if (binaryGenotypes) {
+                    studyDocument.append(GENOTYPES_BINARY_FIELD, GenotypeBinaryCodec.encode(toGenotypesMap(gts)));
+                } else if (!excludeGenotypes) {
                     studyDocument.append(GENOTYPES_FIELD, gts);
                 }
 
@@ -1078,6 +1090,7 @@ public class MongoDBVariantMerger implements ParallelTaskRunner.Task<Document, M
                 updates.add(push(STUDIES_FIELD, studyDocument));
                 // Study is new. Add study
                 updates.add(addToSet(RELEASE_FIELD, release));
+                updates.add(set(LAST_MODIFIED_FIELD, System.currentTimeMillis()));
                 if (newVariant) {
                     Document variantDocument = variantConverter.convertToStorageType(emptyVar);
                     updates.add(addEachToSet(IDS_FIELD, ids));
@@ -1099,6 +1112,7 @@ public class MongoDBVariantMerger implements ParallelTaskRunner.Task<Document, M
                 mongoDBOps.getNewStudy().getIds().add(id);
                 mongoDBOps.getNewStudy().getQueries().add(eq("_id", id));
                 mongoDBOps.getNewStudy().getUpdates().add(combine(updates));
+                mongoDBOps.getNewStudyDensity().add(emptyVar);
             } else {
                 id = null;
             }
@@ -1109,7 +1123,9 @@ public class MongoDBVariantMerger implements ParallelTaskRunner.Task<Document, M
                 mergeUpdates.add(addEachToSet(IDS_FIELD, ids));
             }
 
-            if (!excludeGenotypes) {
+            // Binary genotypes are written once the current value is read. See completeBinaryGenotypes
+            boolean binaryUpdate = binaryGenotypes && !gts.isEmpty();
+            if (!excludeGenotypes && !binaryGenotypes) {
                 for (String gt : gts.keySet()) {
                     List sampleIds = getListFromDocument(gts, gt);
                     if (resume) {
@@ -1137,7 +1153,8 @@ public class MongoDBVariantMerger implements ParallelTaskRunner.Task<Document, M
 
                 // Add release only if there are files for this variant
                 mergeUpdates.add(addToSet(RELEASE_FIELD, release));
-            } else if (!mergeUpdates.isEmpty()) {
+                mergeUpdates.add(set(LAST_MODIFIED_FIELD, System.currentTimeMillis()));
+            } else if (!mergeUpdates.isEmpty() || binaryUpdate) {
                 // These files are not present in this variant. Increase the number of missing variants.
                 mongoDBOps.setMissingVariants(mongoDBOps.getMissingVariants() + 1);
                 mongoDBOps.getExistingStudy().getIds().add(id);
@@ -1146,6 +1163,12 @@ public class MongoDBVariantMerger implements ParallelTaskRunner.Task<Document, M
                 mongoDBOps.getExistingStudy().getUpdates().add(combine(mergeUpdates));
             } else {
                 mongoDBOps.setMissingVariantsNoFillGaps(mongoDBOps.getMissingVariantsNoFillGaps() + 1);
+                binaryUpdate = false;
+            }
+            if (binaryUpdate) {
+                mongoDBOps.getExistingStudyBinaryGenotypes().getIds().add(id);
+                mongoDBOps.getExistingStudyBinaryGenotypes().getGenotypes().add(gts);
+                mongoDBOps.getExistingStudyBinaryGenotypes().getUpdates().add(mergeUpdates);
             }
         }
 
@@ -1169,6 +1192,68 @@ public class MongoDBVariantMerger implements ParallelTaskRunner.Task<Document, M
         }
     }
 
+    /**
+     * Add the binary genotypes to the updates of the variants already in the study.
+     *
+     * The new genotypes are merged with the binary genotypes stored in the database, or with the genotypes map
+     * if the variant was not migrated yet. Merging the same genotypes twice is harmless, so the load can be resumed.
+     * Loads of the same study never run concurrently, and each variant is in one batch, so no other writer updates
+     * the genotypes of these variants between this read and the write.
+     *
+     * @param mongoDBOps MongoDB operations to complete
+     */
+    protected void completeBinaryGenotypes(MongoDBOperations mongoDBOps) {
+        MongoDBOperations.ExistingStudyBinaryGenotypes binary = mongoDBOps.getExistingStudyBinaryGenotypes();
+        if (binary.getIds().isEmpty()) {
+            return;
+        }
+        Map<String, byte[]> binaries = new HashMap<>();
+        Set<String> withGenotypesMap = new HashSet<>();
+        Document projection = new Document(STUDIES_FIELD + '.' + STUDYID_FIELD, 1)
+                .append(STUDIES_FIELD + '.' + GENOTYPES_FIELD, 1)
+                .append(STUDIES_FIELD + '.' + GENOTYPES_BINARY_FIELD, 1);
+        MongoDBCollection variantsCollection = ((VariantMongoDBAdaptor) dbAdaptor).getVariantsCollection();
+        try (MongoCursor<Document> cursor = variantsCollection.nativeQuery()
+                .find(in("_id", new HashSet<>(binary.getIds())), projection, new QueryOptions()).iterator()) {
+            while (cursor.hasNext()) {
+                Document variant = cursor.next();
+                for (Document study : this.<Document>getListFromDocument(variant, STUDIES_FIELD)) {
+                    if (((Number) study.get(STUDYID_FIELD)).intValue() == studyId) {
+                        String id = variant.getString("_id");
+                        Binary data = study.get(GENOTYPES_BINARY_FIELD, Binary.class);
+                        if (data != null) {
+                            binaries.put(id, data.getData());
+                        } else if (study.containsKey(GENOTYPES_FIELD)) {
+                            // Not migrated yet
+                            binaries.put(id, GenotypeBinaryCodec.encode(toGenotypesMap(study.get(GENOTYPES_FIELD, Document.class))));
+                            withGenotypesMap.add(id);
+                        }
+                    }
+                }
+            }
+        }
+
+        Iterator<String> ids = binary.getIds().iterator();
+        Iterator<Document> genotypes = binary.getGenotypes().iterator();
+        for (List<Bson> updates : binary.getUpdates()) {
+            String id = ids.next();
+            byte[] data = GenotypeBinaryCodec.merge(binaries.get(id), toGenotypesMap(genotypes.next()));
+            binaries.put(id, data);
+            updates.add(set(STUDIES_FIELD + ".$." + GENOTYPES_BINARY_FIELD, data));
+            if (withGenotypesMap.contains(id)) {
+                updates.add(unset(STUDIES_FIELD + ".$." + GENOTYPES_FIELD));
+            }
+        }
+    }
+
+    private Map<String, List<Integer>> toGenotypesMap(Document gts) {
+        Map<String, List<Integer>> genotypes = new LinkedHashMap<>(gts.size() * 2);
+        for (String gt : gts.keySet()) {
+            genotypes.put(gt, getListFromDocument(gts, gt));
+        }
+        return genotypes;
+    }
+
     private List<AlternateCoordinate> getAlternateCoordinatesFromStage(Document study) {
         List<AlternateCoordinate> alternates;
         if (study.containsKey(SECONDARY_ALTERNATES_FIELD)) {
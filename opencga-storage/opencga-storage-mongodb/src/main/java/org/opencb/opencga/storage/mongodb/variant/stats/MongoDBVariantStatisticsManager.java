@@ -1,7 +1,7 @@
 package org.opencb.opencga.storage.mongodb.variant.stats;
 
-import com.mongodb.client.MongoCursor;
 import org.bson.Document;
+import org.opencb.biodata.models.core.Region;
 import org.opencb.commons.ProgressLogger;
 import org.opencb.commons.datastore.core.Query;
 import org.opencb.commons.datastore.core.QueryOptions;
@@ -26,6 +26,8 @@ import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
 
 import static org.opencb.opencga.storage.core.metadata.StudyConfigurationManager.checkStudyConfiguration;
+import static org.opencb.opencga.storage.mongodb.variant.MongoDBVariantStorageEngine.MongoDBVariantOptions.STATS_PARTITION_PARALLEL;
+import static org.opencb.opencga.storage.mongodb.variant.MongoDBVariantStorageEngine.MongoDBVariantOptions.STATS_PARTITION_SIZE;
 
 /**
  * Created on 18/04/18.
@@ -83,57 +85,55 @@ public class MongoDBVariantStatisticsManager extends DefaultVariantStatisticsMan
         QueryOptions readerOptions = VariantStatisticsManager.buildIncludeExclude().append(QueryOptions.SORT, true);
         logger.info("ReaderQueryOptions: " + readerOptions.toJson());
 
-        try (MongoCursor<Document> cursor = ((VariantMongoDBAdaptor) variantDBAdaptor).nativeIterator(readerQuery, readerOptions, true)) {
-            // reader
-            DataReader<Document> reader = i -> {
-                List<Document> documents = new ArrayList<>(i);
-                while (cursor.hasNext() && i-- > 0) {
-                    documents.add(cursor.next());
-                }
-                return documents;
-            };
-
-            // tasks
-            List<Task<Document, String>> tasks = new ArrayList<>(numTasks);
-            ProgressLogger progressLogger = buildCreateStatsProgressLogger(variantDBAdaptor, readerQuery, options);
-            for (int i = 0; i < numTasks; i++) {
-                tasks.add(new MongoDBVariantStatsCalculator(studyConfiguration, cohortIds, "./.")
-                        .then((Task<VariantStatsWrapper, VariantStatsWrapper>) batch -> {
-                            progressLogger.increment(batch.size(), () -> ", up to position "
-                                    + batch.get(batch.size() - 1).getChromosome()
-                                    + ':'
-                                    + batch.get(batch.size() - 1).getStart());
-                            return batch;
-                        })
-                        .then(new JsonSerializerTask<>(VariantStatsWrapper.class)));
-            }
+        int partitionSize = options.getInt(STATS_PARTITION_SIZE.key(), STATS_PARTITION_SIZE.defaultValue());
+        int parallelPartitions = options.getInt(STATS_PARTITION_PARALLEL.key(), STATS_PARTITION_PARALLEL.defaultValue());
+        VariantMongoDBAdaptor dbAdaptor = (VariantMongoDBAdaptor) variantDBAdaptor;
+        List<Region> partitions = MongoDBVariantStatsPartitionReader.buildPartitions(dbAdaptor, readerQuery, partitionSize);
+
+        // reader
+        DataReader<Document> reader = new MongoDBVariantStatsPartitionReader(dbAdaptor, readerQuery, readerOptions, partitions,
+                parallelPartitions, batchSize);
+
+        // tasks
+        List<Task<Document, String>> tasks = new ArrayList<>(numTasks);
+        ProgressLogger progressLogger = buildCreateStatsProgressLogger(variantDBAdaptor, readerQuery, options);
+        for (int i = 0; i < numTasks; i++) {
+            tasks.add(new MongoDBVariantStatsCalculator(studyConfiguration, cohortIds, "./.")
+                    .then((Task<VariantStatsWrapper, VariantStatsWrapper>) batch -> {
+                        progressLogger.increment(batch.size(), () -> ", up to position "
+                                + batch.get(batch.size() - 1).getChromosome()
+                                + ':'
+                                + batch.get(batch.size() - 1).getStart());
+                        return batch;
+                    })
+                    .then(new JsonSerializerTask<>(VariantStatsWrapper.class)));
+        }
 
-            // writer
-            StringDataWriter writer = buildVariantStatsStringDataWriter(output);
-
-            // runner
-            ParallelTaskRunner.Config config = ParallelTaskRunner.Config.builder().setNumTasks(numTasks).setBatchSize(batchSize).build();
-            ParallelTaskRunner<Document, String> runner = new ParallelTaskRunner<>(reader, tasks, writer, config);
-            try {
-                logger.info("Starting stats creation for cohorts {}", cohorts.keySet());
-                long start = System.currentTimeMillis();
-                runner.run();
-                logger.info("Finishing stats creation, time: {}ms", System.currentTimeMillis() - start);
-            } catch (ExecutionException e) {
-                throw new StorageEngineException("Unable to calculate statistics.", e);
-            }
+        // writer
+        StringDataWriter writer = buildVariantStatsStringDataWriter(output);
+
+        // runner
+        ParallelTaskRunner.Config config = ParallelTaskRunner.Config.builder().setNumTasks(numTasks).setBatchSize(batchSize).build();
+        ParallelTaskRunner<Document, String> runner = new ParallelTaskRunner<>(reader, tasks, writer, config);
+        try {
+            logger.info("Starting stats creation for cohorts {} from {} partitions", cohorts.keySet(), partitions.size());
+            long start = System.currentTimeMillis();
+            runner.run();
+            logger.info("Finishing stats creation, time: {}ms", System.currentTimeMillis() - start);
+        } catch (ExecutionException e) {
+            throw new StorageEngineException("Unable to calculate statistics.", e);
+        }
 
-            // source stats
+        // source stats
 //            Path fileSourcePath = Paths.get(output.getPath() + SOURCE_STATS_SUFFIX);
 //            try (OutputStream outputSourceStream = getOutputStream(fileSourcePath, options)) {
 //                ObjectWriter sourceWriter = jsonObjectMapper.writerFor(VariantSourceStats.class);
 //                outputSourceStream.write(sourceWriter.writeValueAsBytes(variantSourceStats));
 //            }
 
-            variantDBAdaptor.getStudyConfigurationManager().updateStudyConfiguration(studyConfiguration, options);
+        variantDBAdaptor.getStudyConfigurationManager().updateStudyConfiguration(studyConfiguration, options);
 
-            return output;
-        }
+        return output;
 
     }
 
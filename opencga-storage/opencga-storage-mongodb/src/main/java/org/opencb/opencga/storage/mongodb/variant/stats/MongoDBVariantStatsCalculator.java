@@ -1,6 +1,7 @@
 package org.opencb.opencga.storage.mongodb.variant.stats;
 
 import org.bson.Document;
+import org.bson.types.Binary;
 import org.opencb.biodata.models.feature.Genotype;
 import org.opencb.biodata.models.variant.Variant;
 import org.opencb.biodata.models.variant.stats.VariantStats;
@@ -12,6 +13,7 @@ import org.opencb.opencga.storage.core.variant.stats.VariantStatsWrapper;
 import org.opencb.opencga.storage.mongodb.variant.converters.AbstractDocumentConverter;
 import org.opencb.opencga.storage.mongodb.variant.converters.DocumentToStudyVariantEntryConverter;
 import org.opencb.opencga.storage.mongodb.variant.converters.DocumentToVariantConverter;
+import org.opencb.opencga.storage.mongodb.variant.converters.GenotypeBinaryCodec;
 
 import java.util.*;
 
@@ -76,7 +78,11 @@ public class MongoDBVariantStatsCalculator extends AbstractDocumentConverter imp
         VariantStatsWrapper statsWrapper = new VariantStatsWrapper(variant.getChromosome(), variant.getStart(), variant.getEnd(),
                 new HashMap<>(cohortIds.size()), variant.getSv());
 
-        Document gt = study.get(DocumentToStudyVariantEntryConverter.GENOTYPES_FIELD, Document.class);
+        Map<String, Object> gt = study.get(DocumentToStudyVariantEntryConverter.GENOTYPES_FIELD, Document.class);
+        if (gt == null) {
+            Binary binary = study.get(DocumentToStudyVariantEntryConverter.GENOTYPES_BINARY_FIELD, Binary.class);
+            gt = binary == null ? Collections.emptyMap() : new HashMap<>(GenotypeBinaryCodec.decodeAll(binary.getData()));
+        }
 
         // Make a Set from the lists of genotypes for fast indexOf
         Map<String, Set<Integer>> gtsMap = new HashMap<>(gt.size());
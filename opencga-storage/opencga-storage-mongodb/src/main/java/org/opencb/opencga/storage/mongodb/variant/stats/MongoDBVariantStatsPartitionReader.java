@@ -0,0 +1,239 @@
+/*
+ * Copyright 2015-2017 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.opencga.storage.mongodb.variant.stats;
+
+import com.mongodb.client.MongoCursor;
+import org.bson.Document;
+import org.opencb.biodata.models.core.Region;
+import org.opencb.commons.datastore.core.Query;
+import org.opencb.commons.datastore.core.QueryOptions;
+import org.opencb.commons.io.DataReader;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryParam;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryUtils;
+import org.opencb.opencga.storage.mongodb.variant.adaptors.VariantMongoDBAdaptor;
+import org.opencb.opencga.storage.mongodb.variant.converters.DocumentToVariantConverter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * DataReader for the variants collection that splits the input in region partitions.
+ *
+ * Each partition is read with its own cursor. Up to "parallelism" partitions are read concurrently,
+ * feeding a shared queue of batches. Partitions are aligned to the {@link VariantMongoDBAdaptor#CHUNK_SIZE_BIG}
+ * chunks from "_at.chunkIds", so a chunk is never split between two cursors.
+ *
+ * Batches never mix variants from different partitions, but the order between partitions is not guaranteed.
+ */
+public class MongoDBVariantStatsPartitionReader implements DataReader<Document> {
+
+    private static final List<Document> END_OF_INPUT = Collections.unmodifiableList(new ArrayList<>());
+
+    private final VariantMongoDBAdaptor dbAdaptor;
+    private final Query query;
+    private final QueryOptions options;
+    private final List<Region> partitions;
+    private final int parallelism;
+    private final int batchSize;
+
+    private final BlockingQueue<List<Document>> queue;
+    private final Queue<Region> pendingPartitions;
+    private final AtomicInteger runningWorkers = new AtomicInteger();
+    private final AtomicInteger finishedPartitions = new AtomicInteger();
+    private volatile RuntimeException exception;
+    private volatile boolean closed;
+    private ExecutorService executor;
+
+    private final Logger logger = LoggerFactory.getLogger(MongoDBVariantStatsPartitionReader.class);
+
+    public MongoDBVariantStatsPartitionReader(VariantMongoDBAdaptor dbAdaptor, Query query, QueryOptions options, List<Region> partitions,
+                                              int parallelism, int batchSize) {
+        this.dbAdaptor = dbAdaptor;
+        this.query = query;
+        this.options = options;
+        this.partitions = partitions;
+        this.parallelism = Math.max(1, Math.min(parallelism, partitions.size()));
+        this.batchSize = batchSize;
+        queue = new ArrayBlockingQueue<>(this.parallelism * 2);
+        pendingPartitions = new ConcurrentLinkedQueue<>(partitions);
+    }
+
+    /**
+     * Split the genome in partitions aligned to the big chunk size.
+     * If the query contains a region filter, only those regions are split. Otherwise, uses all the chromosomes
+     * from the variants collection.
+     *
+     * @param dbAdaptor     VariantMongoDBAdaptor
+     * @param query         Reader query
+     * @param partitionSize Approximate size of each partition, in bases
+     * @return List of non overlapping regions
+     */
+    public static List<Region> buildPartitions(VariantMongoDBAdaptor dbAdaptor, Query query, int partitionSize) {
+        int size = Math.max(1, partitionSize / VariantMongoDBAdaptor.CHUNK_SIZE_BIG) * VariantMongoDBAdaptor.CHUNK_SIZE_BIG;
+
+        List<Region> regions;
+        if (VariantQueryUtils.isValidParam(query, VariantQueryParam.REGION)) {
+            regions = Region.parseRegions(query.getString(VariantQueryParam.REGION.key()), true);
+        } else {
+            regions = new ArrayList<>();
+            List<?> chromosomes = dbAdaptor.getVariantsCollection()
+                    .distinct(DocumentToVariantConverter.CHROMOSOME_FIELD, new Document()).getResult();
+            for (Object chromosome : chromosomes) {
+                regions.add(new Region(chromosome.toString(), 1, Integer.MAX_VALUE));
+            }
+        }
+
+        List<Region> partitions = new ArrayList<>();
+        for (Region region : regions) {
+            int end = Math.min(region.getEnd(), getMaxStart(dbAdaptor, region.getChromosome()));
+            int start = region.getStart();
+            while (start <= end) {
+                // Align the partition end with the chunk boundaries
+                int partitionEnd = (start / size + 1) * size - 1;
+                if (partitionEnd >= end) {
+                    // Last partition of the region keeps the original end
+                    partitions.add(new Region(region.getChromosome(), start, region.getEnd()));
+                    break;
+                }
+                partitions.add(new Region(region.getChromosome(), start, partitionEnd));
+                start = partitionEnd + 1;
+            }
+        }
+        return partitions;
+    }
+
+    private static int getMaxStart(VariantMongoDBAdaptor dbAdaptor, String chromosome) {
+        Document document = dbAdaptor.getVariantsCollection().nativeQuery()
+                .find(new Document(DocumentToVariantConverter.CHROMOSOME_FIELD, chromosome),
+                        new Document(DocumentToVariantConverter.START_FIELD, 1), new QueryOptions())
+                .sort(new Document(DocumentToVariantConverter.CHROMOSOME_FIELD, -1)
+                        .append(DocumentToVariantConverter.START_FIELD, -1))
+                .limit(1)
+                .first();
+        if (document == null) {
+            return 0;
+        } else {
+            return document.getInteger(DocumentToVariantConverter.START_FIELD);
+        }
+    }
+
+    @Override
+    public boolean pre() {
+        logger.info("Reading {} partitions with {} concurrent cursors", partitions.size(), parallelism);
+        executor = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "stats-partition-reader");
+            t.setDaemon(true);
+            return t;
+        });
+        if (partitions.isEmpty()) {
+            queue.offer(END_OF_INPUT);
+            return true;
+        }
+        runningWorkers.set(parallelism);
+        for (int i = 0; i < parallelism; i++) {
+            executor.submit(this::readPartitions);
+        }
+        return true;
+    }
+
+    private void readPartitions() {
+        try {
+            Region partition = pendingPartitions.poll();
+            while (!closed && exception == null && partition != null) {
+                readPartition(partition);
+                partition = pendingPartitions.poll();
+            }
+        } catch (RuntimeException e) {
+            exception = e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (runningWorkers.decrementAndGet() == 0) {
+                // Last worker. Signal end of input
+                try {
+                    queue.put(END_OF_INPUT);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    private void readPartition(Region partition) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        long numVariants = 0;
+        Query partitionQuery = new Query(query).append(VariantQueryParam.REGION.key(), partition.toString());
+        try (MongoCursor<Document> cursor = dbAdaptor.nativeIterator(partitionQuery, new QueryOptions(options), true)) {
+            List<Document> batch = new ArrayList<>(batchSize);
+            while (!closed && cursor.hasNext()) {
+                batch.add(cursor.next());
+                if (batch.size() == batchSize) {
+                    numVariants += batch.size();
+                    queue.put(batch);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+            if (!batch.isEmpty()) {
+                numVariants += batch.size();
+                queue.put(batch);
+            }
+        }
+        logger.info("Partition {} read. {} variants in {}s. Completed {}/{} partitions",
+                partition, numVariants, (System.currentTimeMillis() - start) / 1000.0,
+                finishedPartitions.incrementAndGet(), partitions.size());
+    }
+
+    @Override
+    public List<Document> read(int b) {
+        try {
+            List<Document> batch = queue.take();
+            if (batch == END_OF_INPUT) {
+                // Leave the mark for any other call
+                queue.put(END_OF_INPUT);
+                if (exception != null) {
+                    throw exception;
+                }
+            }
+            return batch;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public boolean close() {
+        closed = true;
+        if (executor != null) {
+            // Unblock any worker waiting on a full queue
+            queue.clear();
+            executor.shutdownNow();
+        }
+        return true;
+    }
+
+    public int getNumPartitions() {
+        return partitions.size();
+    }
+
+    public int getFinishedPartitions() {
+        return finishedPartitions.get();
+    }
+}
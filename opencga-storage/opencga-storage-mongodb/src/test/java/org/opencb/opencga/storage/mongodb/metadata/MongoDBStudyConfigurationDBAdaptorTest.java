@@ -0,0 +1,56 @@
+package org.opencb.opencga.storage.mongodb.metadata;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.opencb.commons.datastore.mongodb.MongoDataStoreManager;
+import org.opencb.opencga.storage.mongodb.variant.MongoDBVariantStorageTest;
+
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertNotEquals;
+import static org.opencb.opencga.storage.core.variant.VariantStorageBaseTest.DB_NAME;
+
+public class MongoDBStudyConfigurationDBAdaptorTest implements MongoDBVariantStorageTest {
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+    private MongoDBStudyConfigurationDBAdaptor dbAdaptor;
+
+    @Before
+    public void setUp() throws Exception {
+        clearDB(DB_NAME);
+        MongoDataStoreManager mongoDataStoreManager = getMongoDataStoreManager(DB_NAME);
+        dbAdaptor = new MongoDBStudyConfigurationDBAdaptor(mongoDataStoreManager.get(DB_NAME), "studies");
+    }
+
+    @Test
+    public void testRenewLockStudy() throws Exception {
+        long lock = dbAdaptor.lockStudy(1, 1000, 1000, null);
+        dbAdaptor.renewLockStudy(1, lock, 5000, null);
+        Thread.sleep(1500);
+
+        thrown.expect(TimeoutException.class);
+        dbAdaptor.lockStudy(1, 1000, 500, null);
+    }
+
+    @Test
+    public void testNamedLocks() throws Exception {
+        long lock = dbAdaptor.lockStudy(1, 10000, 1000, null);
+        // Named locks are independent from the default lock
+        long namedLock = dbAdaptor.lockStudy(1, 1000, 1000, "phaseSet");
+        dbAdaptor.renewLockStudy(1, namedLock, 5000, "phaseSet");
+        Thread.sleep(1500);
+
+        try {
+            dbAdaptor.lockStudy(1, 1000, 500, "phaseSet");
+            throw new AssertionError("Expected TimeoutException");
+        } catch (TimeoutException ignore) {
+            // Still locked after renewing
+        }
+        dbAdaptor.unLockStudy(1, namedLock, "phaseSet");
+        assertNotEquals(namedLock, dbAdaptor.lockStudy(1, 1000, 1000, "phaseSet"));
+        dbAdaptor.unLockStudy(1, lock, null);
+    }
+}
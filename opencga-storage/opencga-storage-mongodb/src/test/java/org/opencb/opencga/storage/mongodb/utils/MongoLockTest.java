@@ -150,6 +150,32 @@ public class MongoLockTest implements MongoDBVariantStorageTest {
 
     }
 
+    @Test
+    public void testRenew() throws Exception {
+        int lockId = 5;
+        insertDocument(lockId);
+        long lock = mongoLock.lock(lockId, 1000, 1000);
+
+        mongoLock.renew(lockId, lock, 5000);
+        Thread.sleep(1500);
+
+        // Still locked after the initial duration
+        thrown.expect(TimeoutException.class);
+        mongoLock.lock(lockId, 1000, 500);
+    }
+
+    @Test
+    public void testRenewExpiredLockTakenByOther() throws Exception {
+        int lockId = 6;
+        insertDocument(lockId);
+        long lock = mongoLock.lock(lockId, 500, 1000);
+        Thread.sleep(1000);
+        mongoLock.lock(lockId, 1000, 1000);
+
+        thrown.expect(IllegalStateException.class);
+        mongoLock.renew(lockId, lock, 1000);
+    }
+
     public void insertDocument(Object id) {
         collection.update(new Document("_id", id),
                 Updates.set("_id", id),
@@ -216,6 +216,72 @@ public class MongoVariantStorageEngineTest extends VariantStorageEngineTest impl
         return stageCount;
     }
 
+    @Test
+    public void stageResumeFromCheckpointTest() throws Exception {
+        StudyConfiguration studyConfiguration = createStudyConfiguration();
+
+        StoragePipelineResult storagePipelineResult = runDefaultETL(smallInputUri, variantStorageEngine, studyConfiguration, new ObjectMap()
+                .append(MongoDBVariantOptions.STAGE.key(), true)
+                .append(MongoDBVariantOptions.MERGE.key(), false));
+
+        MongoDBVariantStorageEngine variantStorageManager = getVariantStorageEngine();
+        VariantMongoDBAdaptor dbAdaptor = variantStorageManager.getDBAdaptor();
+        String studyIdStr = String.valueOf(studyConfiguration.getStudyId());
+        MongoDBCollection stage = dbAdaptor.getStageCollection(studyConfiguration.getStudyId());
+        Map<String, Object> expectedStage = new HashMap<>();
+        for (Document document : stage.find(new Document(), null).getResult()) {
+            expectedStage.put(document.getString("_id"), document.get(studyIdStr));
+        }
+        long stageCount = expectedStage.size();
+
+        // Simulate an interrupted stage load, with a checkpoint in the middle of the file.
+        // Every variant is in the stage collection, so the variants after the checkpoint will be written twice
+        long checkpointRecords = stageCount / 2;
+        StudyConfigurationManager scm = dbAdaptor.getStudyConfigurationManager();
+        studyConfiguration.copy(scm.getStudyConfiguration(studyConfiguration.getStudyId(), new QueryOptions()).first());
+        assertEquals(1, studyConfiguration.getBatches().size());
+        BatchFileOperation operation = studyConfiguration.getBatches().get(0);
+        operation.getStatus().remove(operation.getStatus().lastKey(), BatchFileOperation.Status.READY);
+        operation.addStatus(BatchFileOperation.Status.ERROR);
+        operation.setCheckpoint(new BatchFileOperation.Checkpoint(checkpointRecords, null, Calendar.getInstance().getTime()));
+        scm.updateStudyConfiguration(studyConfiguration, null);
+        MongoDataStore dataStore = getMongoDataStoreManager(DB_NAME).get(DB_NAME);
+        dataStore.getCollection(MongoDBVariantOptions.COLLECTION_FILES.defaultValue()).remove(new Document(), new QueryOptions());
+
+        // Resume stage
+        StoragePipelineResult resumeResult = runDefaultETL(storagePipelineResult.getTransformResult(), variantStorageManager,
+                studyConfiguration, new ObjectMap()
+                        .append(MongoDBVariantOptions.STAGE.key(), true)
+                        .append(MongoDBVariantOptions.MERGE.key(), false), false, true);
+        assertEquals(checkpointRecords, resumeResult.getLoadStats().getLong("stageSkippedRecords"));
+
+        // Same stage documents. No duplicated variants for the file
+        Map<String, Object> resumedStage = new HashMap<>();
+        for (Document document : stage.find(new Document(), null).getResult()) {
+            resumedStage.put(document.getString("_id"), document.get(studyIdStr));
+        }
+        assertEquals(expectedStage, resumedStage);
+
+        // Merge
+        runETL(variantStorageEngine, storagePipelineResult.getTransformResult(), outputUri, new ObjectMap()
+                .append(VariantStorageEngine.Options.ANNOTATE.key(), false)
+                .append(VariantStorageEngine.Options.CALCULATE_STATS.key(), false)
+                .append(MongoDBVariantOptions.STAGE.key(), false)
+                .append(MongoDBVariantOptions.MERGE.key(), true), false, false, true);
+
+        assertEquals(stageCount, dbAdaptor.count(null).first().longValue());
+        for (Document variant : dbAdaptor.getVariantsCollection().find(new Document(), null).getResult()) {
+            for (Document study : (List<Document>) variant.get(DocumentToVariantConverter.STUDIES_FIELD, List.class)) {
+                Set<Integer> samples = new HashSet<>();
+                for (Object sampleIds : study.get(GENOTYPES_FIELD, Document.class).values()) {
+                    for (Object sampleId : (List) sampleIds) {
+                        assertTrue("Duplicated sample " + sampleId + " in variant " + variant.get("_id"), samples.add((Integer) sampleId));
+                    }
+                }
+            }
+        }
+    }
+
     @Test
     public void mergeAlreadyStagedFileTest() throws Exception {
         StudyConfiguration studyConfiguration = createStudyConfiguration();
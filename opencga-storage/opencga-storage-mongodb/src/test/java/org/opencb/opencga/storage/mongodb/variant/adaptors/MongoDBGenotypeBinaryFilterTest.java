@@ -0,0 +1,103 @@
+package org.opencb.opencga.storage.mongodb.variant.adaptors;
+
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.junit.Test;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryUtils.QueryOperation;
+import org.opencb.opencga.storage.mongodb.variant.converters.GenotypeBinaryCodec;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.opencb.opencga.storage.mongodb.variant.converters.DocumentToStudyVariantEntryConverter.*;
+import static org.opencb.opencga.storage.mongodb.variant.converters.DocumentToVariantConverter.STUDIES_FIELD;
+
+public class MongoDBGenotypeBinaryFilterTest {
+
+    private static final int STUDY_ID = 1;
+
+    @Test
+    public void filterBinaryAndGenotypesMap() {
+        Map<String, List<Integer>> genotypes = new HashMap<>();
+        genotypes.put("0/1", Arrays.asList(1, 3));
+        genotypes.put("1/1", Collections.singletonList(2));
+        Document binary = variant(new Document(GENOTYPES_BINARY_FIELD, new Binary(GenotypeBinaryCodec.encode(genotypes))));
+        Document map = variant(new Document(GENOTYPES_FIELD, new Document(new HashMap<String, Object>(genotypes))));
+
+        for (Document variant : Arrays.asList(binary, map)) {
+            MongoDBGenotypeBinaryFilter filter = new MongoDBGenotypeBinaryFilter(STUDY_ID, QueryOperation.AND);
+            filter.addSample(1).accept("0/1");
+            filter.addSample(2).acceptNonDefault();
+            assertTrue(filter.test(variant));
+
+            filter = new MongoDBGenotypeBinaryFilter(STUDY_ID, QueryOperation.AND);
+            filter.addSample(1).accept("0/1");
+            filter.addSample(4).accept("1/1");
+            assertFalse(filter.test(variant));
+
+            filter = new MongoDBGenotypeBinaryFilter(STUDY_ID, QueryOperation.OR);
+            filter.addSample(1).accept("0/1");
+            filter.addSample(4).accept("1/1");
+            assertTrue(filter.test(variant));
+
+            filter = new MongoDBGenotypeBinaryFilter(STUDY_ID, QueryOperation.AND);
+            filter.addSample(4).acceptDefault();
+            filter.addSample(3).reject("1/1");
+            assertTrue(filter.test(variant));
+
+            filter = new MongoDBGenotypeBinaryFilter(STUDY_ID, QueryOperation.AND);
+            filter.addSample(3).reject("0/1");
+            assertFalse(filter.test(variant));
+        }
+    }
+
+    @Test
+    public void filterOtherStudy() {
+        MongoDBGenotypeBinaryFilter filter = new MongoDBGenotypeBinaryFilter(2, QueryOperation.AND);
+        filter.addSample(1).acceptDefault();
+        assertFalse(filter.test(variant(new Document())));
+    }
+
+    @Test
+    public void addRequiredFields() {
+        MongoDBGenotypeBinaryFilter filter = new MongoDBGenotypeBinaryFilter(STUDY_ID, QueryOperation.AND);
+        Document projection = filter.addRequiredFields(new Document("_id", 1)
+                .append(STUDIES_FIELD + '.' + GENOTYPES_FIELD, 1));
+        assertEquals(new HashSet<>(Arrays.asList("_id", STUDIES_FIELD + '.' + STUDYID_FIELD, STUDIES_FIELD + '.' + GENOTYPES_FIELD,
+                STUDIES_FIELD + '.' + GENOTYPES_BINARY_FIELD)), projection.keySet());
+
+        Document gt = new Document("0/1", Collections.singletonList(1));
+        Document variant = variant(new Document(GENOTYPES_FIELD, gt));
+        filter.addSample(1).accept("0/1");
+        List<Document> result = new ArrayList<>();
+        filter.filter(new MongoDBSplitQueryCursorTest.ListCursor(Collections.singletonList(variant), new AtomicInteger()), 0, -1)
+                .forEachRemaining(result::add);
+        assertEquals(1, result.size());
+        // Requested field is kept. Field added by the filter is removed
+        Document study = ((List<Document>) result.get(0).get(STUDIES_FIELD)).get(0);
+        assertEquals(gt, study.get(GENOTYPES_FIELD));
+        assertFalse(study.containsKey(GENOTYPES_BINARY_FIELD));
+    }
+
+    @Test
+    public void skipAndLimitFilteredDocuments() {
+        List<Document> variants = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            // Sample 1 is 0/1 in even variants
+            List<Integer> samples = i % 2 == 0 ? Collections.singletonList(1) : Collections.emptyList();
+            variants.add(variant(new Document(GENOTYPES_FIELD, new Document("0/1", samples))).append("i", i));
+        }
+        MongoDBGenotypeBinaryFilter filter = new MongoDBGenotypeBinaryFilter(STUDY_ID, QueryOperation.AND);
+        filter.addSample(1).accept("0/1");
+        List<Integer> result = new ArrayList<>();
+        filter.filter(new MongoDBSplitQueryCursorTest.ListCursor(variants, new AtomicInteger()), 1, 3)
+                .forEachRemaining(document -> result.add(document.getInteger("i")));
+        assertEquals(Arrays.asList(2, 4, 6), result);
+    }
+
+    private static Document variant(Document study) {
+        study.append(STUDYID_FIELD, STUDY_ID);
+        return new Document("_id", "1:100:A:C").append(STUDIES_FIELD, Collections.singletonList(study));
+    }
+}
@@ -0,0 +1,102 @@
+package org.opencb.opencga.storage.mongodb.variant.adaptors;
+
+import org.bson.Document;
+import org.junit.Test;
+import org.opencb.biodata.models.core.Region;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MongoDBRegionQueryPlannerTest {
+
+    private final MongoDBRegionQueryPlanner planner = new MongoDBRegionQueryPlanner(10);
+
+    @Test
+    public void mergeRegions() {
+        List<Region> merged = MongoDBRegionQueryPlanner.mergeRegions(Arrays.asList(
+                new Region("2", 100, 200),
+                new Region("1", 500, 600),
+                new Region("1", 100, 300),
+                new Region("1", 250, 400),
+                new Region("1", 401, 450),
+                new Region("1", 120, 130),
+                new Region("2", 300, 400)));
+
+        assertEquals(Arrays.asList(
+                new Region("1", 100, 450),
+                new Region("1", 500, 600),
+                new Region("2", 100, 200),
+                new Region("2", 300, 400)), merged);
+    }
+
+    @Test
+    public void mergeRegionsIdOrder() {
+        // Same order as the variant _id, where one digit chromosomes are padded
+        List<Region> merged = MongoDBRegionQueryPlanner.mergeRegions(Arrays.asList(
+                new Region("10", 1, 10),
+                new Region("X", 1, 10),
+                new Region("2", 1, 10)));
+
+        assertEquals(Arrays.asList(new Region("2", 1, 10), new Region("10", 1, 10), new Region("X", 1, 10)), merged);
+    }
+
+    @Test
+    public void chooseStrategy() {
+        MongoDBRegionQueryPlanner.Plan plan = planner.plan(Arrays.asList(
+                new Region("1", 1500, 2500),
+                new Region("1", 100000, 150000),
+                new Region("1", 1000000, 5000000)));
+
+        assertEquals(3, plan.size());
+        MongoDBRegionQueryPlanner.RegionFilter small = plan.getFilters().get(0);
+        assertEquals(MongoDBRegionQueryPlanner.Strategy.CHUNK_IDS, small.getStrategy());
+        assertEquals(Arrays.asList("1_1_1k", "1_2_1k"), small.getChunkIds());
+
+        MongoDBRegionQueryPlanner.RegionFilter medium = plan.getFilters().get(1);
+        assertEquals(MongoDBRegionQueryPlanner.Strategy.CHUNK_IDS, medium.getStrategy());
+        assertEquals(6, medium.getChunkIds().size());
+        assertTrue(medium.getChunkIds().stream().allMatch(chunkId -> chunkId.endsWith("_10k")));
+
+        MongoDBRegionQueryPlanner.RegionFilter large = plan.getFilters().get(2);
+        assertEquals(MongoDBRegionQueryPlanner.Strategy.RANGE, large.getStrategy());
+        assertEquals(new Document("chromosome", "1").append("start", new Document("$gte", 1000000).append("$lte", 5000000)),
+                large.toQuery());
+    }
+
+    @Test
+    public void split() {
+        List<Region> regions = new ArrayList<>();
+        for (int i = 0; i < 250; i++) {
+            regions.add(new Region("1", i * 1000 + 1, i * 1000 + 100));
+        }
+        MongoDBRegionQueryPlanner.Plan plan = planner.plan(regions);
+
+        List<List<Region>> partitions = plan.split(100);
+        assertEquals(3, partitions.size());
+        List<Region> all = new ArrayList<>();
+        partitions.forEach(all::addAll);
+        assertEquals(plan.getRegions(), all);
+        for (List<Region> partition : partitions) {
+            assertTrue(partition.size() <= 100);
+        }
+        assertEquals(1, plan.split(0).size());
+        assertEquals(1, plan.split(250).size());
+    }
+
+    @Test
+    public void explain() {
+        Document explain = planner.plan(Arrays.asList(
+                new Region("1", 100, 200),
+                new Region("1", 150, 300),
+                new Region("2", 1, 100000000))).toDocument();
+
+        assertEquals(3, explain.get("inputRegions"));
+        assertEquals(2, explain.get("mergedRegions"));
+        assertEquals(1, explain.get("chunkIdRegions"));
+        assertEquals(1, explain.get("rangeRegions"));
+    }
+}
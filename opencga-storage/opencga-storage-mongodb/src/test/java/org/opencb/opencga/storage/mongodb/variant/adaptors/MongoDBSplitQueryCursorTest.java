@@ -0,0 +1,130 @@
+package org.opencb.opencga.storage.mongodb.variant.adaptors;
+
+import com.mongodb.ServerAddress;
+import com.mongodb.ServerCursor;
+import com.mongodb.client.MongoCursor;
+import org.bson.Document;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+
+public class MongoDBSplitQueryCursorTest {
+
+    @Test
+    public void keepOrder() {
+        List<Supplier<MongoCursor<Document>>> cursors = new ArrayList<>();
+        List<Document> expected = new ArrayList<>();
+        AtomicInteger closed = new AtomicInteger();
+        for (int i = 0; i < 10; i++) {
+            List<Document> documents = new ArrayList<>();
+            // Some empty sub-queries
+            for (int j = 0; j < (i % 3) * 55; j++) {
+                documents.add(new Document("_id", String.format("%02d_%04d", i, j)));
+            }
+            expected.addAll(documents);
+            cursors.add(() -> new ListCursor(documents, closed));
+        }
+
+        List<Document> actual = new ArrayList<>();
+        try (MongoDBSplitQueryCursor cursor = new MongoDBSplitQueryCursor(cursors, 3, 10)) {
+            while (cursor.hasNext()) {
+                actual.add(cursor.next());
+            }
+        }
+        assertEquals(expected, actual);
+        assertEquals(10, closed.get());
+    }
+
+    @Test
+    public void propagateException() {
+        List<Supplier<MongoCursor<Document>>> cursors = new ArrayList<>();
+        AtomicInteger closed = new AtomicInteger();
+        List<Document> documents = new ArrayList<>();
+        documents.add(new Document("_id", "1"));
+        cursors.add(() -> new ListCursor(documents, closed));
+        cursors.add(() -> {
+            throw new IllegalStateException("Broken sub-query");
+        });
+
+        try (MongoDBSplitQueryCursor cursor = new MongoDBSplitQueryCursor(cursors, 2, 10)) {
+            assertEquals("1", cursor.next().getString("_id"));
+            cursor.hasNext();
+            fail("Expected exception");
+        } catch (IllegalStateException e) {
+            assertEquals("Broken sub-query", e.getMessage());
+        }
+    }
+
+    @Test
+    public void threadNamesAndFetchTime() throws Exception {
+        Set<String> threadNames = ConcurrentHashMap.newKeySet();
+        List<Supplier<MongoCursor<Document>>> cursors = new ArrayList<>();
+        AtomicInteger closed = new AtomicInteger();
+        for (int i = 0; i < 2; i++) {
+            cursors.add(() -> {
+                threadNames.add(Thread.currentThread().getName());
+                try {
+                    // Slow query
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return new ListCursor(Collections.singletonList(new Document("_id", "1")), closed);
+            });
+        }
+        for (int i = 0; i < 2; i++) {
+            try (MongoDBSplitQueryCursor cursor = new MongoDBSplitQueryCursor(cursors, 2, 10)) {
+                cursor.forEachRemaining(document -> { });
+                assertTrue(cursor.getTimeFetching() >= TimeUnit.MILLISECONDS.toNanos(40));
+            }
+        }
+        // Unique names across cursors
+        assertEquals(4, threadNames.size());
+    }
+
+    static class ListCursor implements MongoCursor<Document> {
+        private final Iterator<Document> iterator;
+        private final AtomicInteger closed;
+
+        ListCursor(List<Document> documents, AtomicInteger closed) {
+            this.iterator = documents.iterator();
+            this.closed = closed;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return iterator.hasNext();
+        }
+
+        @Override
+        public Document next() {
+            return iterator.next();
+        }
+
+        @Override
+        public Document tryNext() {
+            return iterator.hasNext() ? iterator.next() : null;
+        }
+
+        @Override
+        public void close() {
+            closed.incrementAndGet();
+        }
+
+        @Override
+        public ServerCursor getServerCursor() {
+            return null;
+        }
+
+        @Override
+        public ServerAddress getServerAddress() {
+            return null;
+        }
+    }
+}
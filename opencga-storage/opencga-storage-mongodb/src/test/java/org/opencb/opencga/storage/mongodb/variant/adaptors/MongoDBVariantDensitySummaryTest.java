@@ -0,0 +1,167 @@
+package org.opencb.opencga.storage.mongodb.variant.adaptors;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opencb.biodata.models.core.Region;
+import org.opencb.commons.datastore.core.ObjectMap;
+import org.opencb.commons.datastore.mongodb.MongoDataStoreManager;
+import org.opencb.opencga.storage.core.metadata.StudyConfiguration;
+import org.opencb.opencga.storage.mongodb.variant.MongoDBVariantStorageEngine.MongoDBVariantOptions;
+import org.opencb.opencga.storage.mongodb.variant.MongoDBVariantStorageTest;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+import static org.opencb.opencga.storage.core.variant.VariantStorageBaseTest.DB_NAME;
+import static org.opencb.opencga.storage.mongodb.variant.adaptors.MongoDBVariantDensitySummary.CHUNK_SIZE;
+
+public class MongoDBVariantDensitySummaryTest implements MongoDBVariantStorageTest {
+
+    private MongoDBVariantDensitySummary densitySummary;
+
+    @Before
+    public void setUp() throws Exception {
+        clearDB(DB_NAME);
+        MongoDataStoreManager mongoDataStoreManager = getMongoDataStoreManager(DB_NAME);
+        densitySummary = new MongoDBVariantDensitySummary(mongoDataStoreManager.get(DB_NAME).getCollection("density"));
+        densitySummary.createIndexes();
+    }
+
+    @Test
+    public void getChunk() {
+        assertEquals(0, MongoDBVariantDensitySummary.getChunk(1));
+        assertEquals(0, MongoDBVariantDensitySummary.getChunk(MongoDBVariantDensitySummary.CHUNK_SIZE - 1));
+        assertEquals(1, MongoDBVariantDensitySummary.getChunk(MongoDBVariantDensitySummary.CHUNK_SIZE));
+        assertEquals(25, MongoDBVariantDensitySummary.getChunk(MongoDBVariantDensitySummary.CHUNK_SIZE * 25 + 10));
+    }
+
+    @Test
+    public void counts() {
+        MongoDBVariantDensitySummary.Counts counts = new MongoDBVariantDensitySummary.Counts();
+        assertTrue(counts.isEmpty());
+        counts.add("1", 0, "SNV", 3)
+                .add("1", 0, "SNV", 2)
+                .add("1", 0, "INDEL", 1)
+                .add("2", 4, "SNV", 1);
+        assertFalse(counts.isEmpty());
+        assertEquals(7, counts.getCount());
+    }
+
+    @Test
+    public void isReady() {
+        StudyConfiguration sc = new StudyConfiguration(1, "s1");
+        assertFalse(MongoDBVariantDensitySummary.isReady(sc));
+        sc.getAttributes().put(MongoDBVariantOptions.DENSITY_SUMMARY_READY.key(), true);
+        assertTrue(MongoDBVariantDensitySummary.isReady(sc));
+        assertFalse(MongoDBVariantDensitySummary.isReady(null));
+    }
+
+    @Test
+    public void isEnabled() {
+        assertTrue(MongoDBVariantDensitySummary.isEnabled(new ObjectMap()));
+        assertFalse(MongoDBVariantDensitySummary.isEnabled(new ObjectMap(MongoDBVariantOptions.DENSITY_SUMMARY.key(), false)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void intervalNotMultipleOfChunk() {
+        densitySummary.getIntervalCounts(1, new Region("1", 1, 1000000), MongoDBVariantDensitySummary.CHUNK_SIZE + 1, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void intervalSmallerThanChunk() {
+        densitySummary.getIntervalCounts(1, new Region("1", 1, 1000000), MongoDBVariantDensitySummary.CHUNK_SIZE / 2, null);
+    }
+
+    @Test
+    public void partialRegions() {
+        // Aligned to the chunks. No partial regions
+        assertEquals(Collections.emptyList(), MongoDBVariantDensitySummary.getPartialRegions(new Region("1", 0, CHUNK_SIZE * 3 - 1)));
+        assertEquals(Collections.emptyList(),
+                MongoDBVariantDensitySummary.getPartialRegions(new Region("1", CHUNK_SIZE, CHUNK_SIZE * 2 - 1)));
+
+        // Partial chunks at both edges
+        assertEquals(Arrays.asList(new Region("1", 100, CHUNK_SIZE - 1), new Region("1", CHUNK_SIZE * 3, CHUNK_SIZE * 3 + 100)),
+                MongoDBVariantDensitySummary.getPartialRegions(new Region("1", 100, CHUNK_SIZE * 3 + 100)));
+
+        // Region ending one base before the end of a chunk
+        assertEquals(Collections.singletonList(new Region("1", CHUNK_SIZE, CHUNK_SIZE * 2 - 2)),
+                MongoDBVariantDensitySummary.getPartialRegions(new Region("1", 0, CHUNK_SIZE * 2 - 2)));
+
+        // Region within one chunk
+        assertEquals(Collections.singletonList(new Region("1", 100, 200)),
+                MongoDBVariantDensitySummary.getPartialRegions(new Region("1", 100, 200)));
+
+        // Region across two chunks, without full chunks
+        assertEquals(Arrays.asList(new Region("1", 100, CHUNK_SIZE - 1), new Region("1", CHUNK_SIZE, CHUNK_SIZE + 100)),
+                MongoDBVariantDensitySummary.getPartialRegions(new Region("1", 100, CHUNK_SIZE + 100)));
+    }
+
+    @Test
+    public void intervalCountsSkipPartialChunks() {
+        MongoDBVariantDensitySummary.Counts counts = new MongoDBVariantDensitySummary.Counts();
+        for (int chunk = 0; chunk < 10; chunk++) {
+            counts.add("1", chunk, "SNV", chunk + 1);
+            counts.add("1", chunk, "INDEL", 1);
+        }
+        densitySummary.increment(1, counts);
+
+        // Full region
+        Map<Integer, Long> intervals = densitySummary.getIntervalCounts(1, new Region("1", 0, CHUNK_SIZE * 10 - 1), CHUNK_SIZE * 2, null);
+        assertEquals(5, intervals.size());
+        assertEquals(Long.valueOf(1 + 2 + 2), intervals.get(0));
+        assertEquals(Long.valueOf(9 + 10 + 2), intervals.get(4));
+
+        // Chunks 0 and 9 are partially covered. Must not be counted.
+        intervals = densitySummary.getIntervalCounts(1, new Region("1", 100, CHUNK_SIZE * 9 + 100), CHUNK_SIZE * 2, null);
+        assertEquals(5, intervals.size());
+        assertEquals(Long.valueOf(2 + 1), intervals.get(0));
+        assertEquals(Long.valueOf(9 + 1), intervals.get(4));
+
+        // Filter by type
+        intervals = densitySummary.getIntervalCounts(1, new Region("1", 100, CHUNK_SIZE * 9 + 100), CHUNK_SIZE * 2,
+                Collections.singletonList("INDEL"));
+        assertEquals(Long.valueOf(1), intervals.get(0));
+        assertEquals(Long.valueOf(2), intervals.get(1));
+
+        // No full chunks
+        assertEquals(Collections.emptyMap(), densitySummary.getIntervalCounts(1, new Region("1", 100, 200), CHUNK_SIZE, null));
+    }
+
+    @Test
+    public void concurrentIncrement() throws Exception {
+        int numThreads = 8;
+        int numIncrements = 20;
+        int numChunks = 50;
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < numThreads; thread++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < numIncrements; i++) {
+                        MongoDBVariantDensitySummary.Counts counts = new MongoDBVariantDensitySummary.Counts();
+                        for (int chunk = 0; chunk < numChunks; chunk++) {
+                            counts.add("1", chunk, "SNV", 1);
+                        }
+                        densitySummary.increment(1, counts);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                // Fails if any upsert was not retried
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        Map<Integer, Long> intervals = densitySummary.getIntervalCounts(1, new Region("1", 0, CHUNK_SIZE * numChunks - 1),
+                CHUNK_SIZE, null);
+        assertEquals(numChunks, intervals.size());
+        for (Long count : intervals.values()) {
+            assertEquals(Long.valueOf(numThreads * numIncrements), count);
+        }
+    }
+}
@@ -33,6 +33,8 @@ import org.opencb.opencga.storage.core.variant.VariantStorageBaseTest;
 import org.opencb.opencga.storage.core.variant.VariantStorageEngine;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantDBAdaptor;
 import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryParam;
+import org.opencb.opencga.storage.core.variant.adaptors.VariantQueryUtils;
+import org.opencb.opencga.storage.core.variant.adaptors.iterators.VariantDBIterator;
 import org.opencb.opencga.storage.core.variant.annotation.VariantAnnotationManager;
 import org.opencb.opencga.storage.core.variant.annotation.annotators.CellBaseRestVariantAnnotator;
 import org.opencb.opencga.storage.core.variant.stats.DefaultVariantStatisticsManager;
@@ -153,6 +155,45 @@ public class VariantMongoDBAdaptorRemoveTest extends VariantStorageBaseTest impl
         assertEquals(0, allVariants.getNumTotalResults());
     }
 
+    @Test
+    public void removeAndPurgeStudyTrackChangesTest() throws Exception {
+        long timestamp = System.currentTimeMillis();
+        Set<String> expectedIds = new HashSet<>();
+        for (Variant variant : dbAdaptor) {
+            expectedIds.add(variant.toString());
+        }
+        ((VariantMongoDBAdaptor) dbAdaptor).removeStudy(studyConfiguration.getStudyName(), new QueryOptions("purge", true));
+
+        assertTrue(dbAdaptor.supportsChangeTracking());
+        Set<String> removedIds = new HashSet<>();
+        try (VariantDBIterator iterator = dbAdaptor.removedVariantsIterator(timestamp)) {
+            iterator.forEachRemaining(variant -> removedIds.add(variant.toString()));
+        }
+        assertEquals(expectedIds, removedIds);
+        try (VariantDBIterator iterator = dbAdaptor.removedVariantsIterator(System.currentTimeMillis() + 1000)) {
+            assertFalse(iterator.hasNext());
+        }
+
+        assertEquals(0, dbAdaptor.pruneRemovedVariants(timestamp));
+        assertEquals(expectedIds.size(), dbAdaptor.pruneRemovedVariants(System.currentTimeMillis() + 1000));
+        try (VariantDBIterator iterator = dbAdaptor.removedVariantsIterator(timestamp)) {
+            assertFalse(iterator.hasNext());
+        }
+    }
+
+    @Test
+    public void modifiedAfterTest() throws Exception {
+        long timestamp = System.currentTimeMillis();
+        assertEquals(0, dbAdaptor.count(new Query(VariantQueryUtils.MODIFIED_AFTER.key(), timestamp)).first().intValue());
+
+        Query query = new Query(VariantQueryParam.REGION.key(), "1");
+        long numVariantsChr1 = dbAdaptor.count(query).first();
+        ((VariantMongoDBAdaptor) dbAdaptor).removeAnnotation("", query, new QueryOptions());
+
+        long numModifiedVariants = dbAdaptor.count(new Query(VariantQueryUtils.MODIFIED_AFTER.key(), timestamp)).first();
+        assertEquals(numVariantsChr1, numModifiedVariants);
+    }
+
     @Test
     public void removeStatsTest() throws Exception {
         String deletedCohort = "cohort2";
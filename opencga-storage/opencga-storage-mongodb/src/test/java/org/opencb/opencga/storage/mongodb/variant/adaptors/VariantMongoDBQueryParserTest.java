@@ -18,6 +18,8 @@ import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.List;
 
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.opencb.opencga.storage.core.variant.adaptors.VariantQueryParam.*;
 import static org.opencb.opencga.storage.core.variant.adaptors.VariantQueryUtils.IS;
 import static org.opencb.opencga.storage.core.variant.adaptors.VariantQueryUtils.NOT;
@@ -74,6 +76,15 @@ public class VariantMongoDBQueryParserTest {
         return sc;
     }
 
+    @Test
+    public void testRegionOnlyLocationFilter() {
+        assertTrue(parser.isRegionOnlyLocationFilter(new Query(REGION.key(), "1:100-200,2:100-200")));
+        assertTrue(parser.isRegionOnlyLocationFilter(new Query(REGION.key(), "1:100-200,2:100-200").append(TYPE.key(), "SNV")));
+        assertFalse(parser.isRegionOnlyLocationFilter(new Query(REGION.key(), "1:100-200").append(GENE.key(), "BRCA2")));
+        assertFalse(parser.isRegionOnlyLocationFilter(new Query(REGION.key(), "1:100-200").append(ID.key(), "rs1234")));
+        assertFalse(parser.isRegionOnlyLocationFilter(new Query(REGION.key(), "1:100-200").append(ID.key(), "2:1000:A:C")));
+    }
+
     @Test
     public void testQuerySampleAddFile() {
         Document mongoQuery = parser.parseQuery(new Query().append(STUDY.key(), "study_1").append(SAMPLE.key(), "sample_10101"));
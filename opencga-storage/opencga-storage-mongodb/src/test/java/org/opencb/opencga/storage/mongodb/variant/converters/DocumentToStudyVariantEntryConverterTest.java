@@ -250,4 +250,28 @@ public class DocumentToStudyVariantEntryConverterTest {
 
     }
 
+    @Test
+    public void testConvertToDataTypeWithBinaryGenotypes() {
+        DocumentToSamplesConverter samplesConverter = new DocumentToSamplesConverter(studyConfiguration);
+        DocumentToStudyVariantEntryConverter converter = new DocumentToStudyVariantEntryConverter(true, studyId, fileId, samplesConverter);
+
+        // Binary genotypes are preferred over the genotypes map
+        Document mongoFileWithBinary = new Document(mongoFileWithIds);
+        Map<String, List<Integer>> genotypes = (Map) mongoFileWithIds.get(DocumentToStudyVariantEntryConverter.GENOTYPES_FIELD);
+        mongoFileWithBinary.put(DocumentToStudyVariantEntryConverter.GENOTYPES_BINARY_FIELD, GenotypeBinaryCodec.encode(genotypes));
+        mongoFileWithBinary.put(DocumentToStudyVariantEntryConverter.GENOTYPES_FIELD, new Document());
+
+        assertEquals(studyEntry, converter.convertToDataModelType(mongoFileWithBinary));
+        assertEquals(converter.convertToDataModelType(mongoFileWithIds), converter.convertToDataModelType(mongoFileWithBinary));
+
+        // Decode only the included samples
+        samplesConverter.setIncludeSamples(Collections.singletonMap(studyId, Arrays.asList(15, 35)));
+        StudyEntry fromMap = converter.convertToDataModelType(mongoFileWithIds);
+        StudyEntry fromBinary = converter.convertToDataModelType(mongoFileWithBinary);
+        assertEquals(2, fromBinary.getSamplesData().size());
+        assertEquals("0/0", fromBinary.getSampleData("NA001", "GT"));
+        assertEquals("1/1", fromBinary.getSampleData("NA003", "GT"));
+        assertEquals(fromMap, fromBinary);
+    }
+
 }
@@ -0,0 +1,94 @@
+package org.opencb.opencga.storage.mongodb.variant.converters;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class GenotypeBinaryCodecTest {
+
+    @Test
+    public void encodeDecodeAll() {
+        Map<String, List<Integer>> genotypes = new LinkedHashMap<>();
+        genotypes.put("0/1", Arrays.asList(1, 5, 6, 7, 20));
+        genotypes.put("1/1", Arrays.asList(2, 3));
+        genotypes.put("-1/-1", Collections.singletonList(30));
+
+        byte[] data = GenotypeBinaryCodec.encode(genotypes);
+        assertEquals(genotypes, GenotypeBinaryCodec.decodeAll(data));
+    }
+
+    @Test
+    public void decodeSubset() {
+        Map<String, List<Integer>> genotypes = new LinkedHashMap<>();
+        genotypes.put("0/1", Arrays.asList(1, 5, 6, 7, 20));
+        genotypes.put("1/1", Arrays.asList(2, 3));
+
+        byte[] data = GenotypeBinaryCodec.encode(genotypes);
+        String[] gts = GenotypeBinaryCodec.decode(data, new int[]{0, 3, 6, 8, 20, 100});
+        assertArrayEquals(new String[]{null, "1/1", "0/1", null, "0/1", null}, gts);
+    }
+
+    @Test
+    public void merge() {
+        Map<String, List<Integer>> genotypes = new LinkedHashMap<>();
+        genotypes.put("0/1", Arrays.asList(1, 5));
+        genotypes.put("1/1", Arrays.asList(2, 3));
+        byte[] data = GenotypeBinaryCodec.encode(genotypes);
+
+        Map<String, List<Integer>> newGenotypes = new LinkedHashMap<>();
+        newGenotypes.put("0/1", Arrays.asList(3, 10));
+        newGenotypes.put("./.", Collections.singletonList(11));
+        data = GenotypeBinaryCodec.merge(data, newGenotypes);
+
+        assertArrayEquals(new String[]{null, "0/1", "1/1", "0/1", "0/1", "0/1", "./."},
+                GenotypeBinaryCodec.decode(data, new int[]{0, 1, 2, 3, 5, 10, 11}));
+        assertArrayEquals(GenotypeBinaryCodec.encode(newGenotypes), GenotypeBinaryCodec.merge(null, newGenotypes));
+    }
+
+    @Test
+    public void remove() {
+        Map<String, List<Integer>> genotypes = new LinkedHashMap<>();
+        genotypes.put("0/1", Arrays.asList(1, 5, 6));
+        genotypes.put("1/1", Arrays.asList(2, 3));
+        byte[] data = GenotypeBinaryCodec.remove(GenotypeBinaryCodec.encode(genotypes), Arrays.asList(2, 3, 6));
+
+        Map<String, List<Integer>> expected = new LinkedHashMap<>();
+        expected.put("0/1", Arrays.asList(1, 5));
+        assertEquals(expected, GenotypeBinaryCodec.decodeAll(data));
+    }
+
+    @Test
+    public void empty() {
+        byte[] data = GenotypeBinaryCodec.encode(Collections.emptyMap());
+        assertEquals(Collections.emptyMap(), GenotypeBinaryCodec.decodeAll(data));
+        assertArrayEquals(new String[]{null, null}, GenotypeBinaryCodec.decode(data, new int[]{0, 10}));
+    }
+
+    @Test
+    public void manySamples() {
+        Random random = new Random(1);
+        String[] dictionary = {"0/1", "1/1", "./.", "0/2", "1/2", "2/2", "0|1", "1|0", "1|1"};
+        int numSamples = 20000;
+        String[] expected = new String[numSamples];
+        Map<String, List<Integer>> genotypes = new LinkedHashMap<>();
+        for (int sampleId = 0; sampleId < numSamples; sampleId++) {
+            // Mostly default genotypes
+            if (random.nextInt(10) == 0) {
+                String gt = dictionary[random.nextInt(dictionary.length)];
+                genotypes.computeIfAbsent(gt, k -> new ArrayList<>()).add(sampleId);
+                expected[sampleId] = gt;
+            }
+        }
+
+        byte[] data = GenotypeBinaryCodec.encode(genotypes);
+        assertEquals(genotypes, GenotypeBinaryCodec.decodeAll(data));
+
+        int[] sampleIds = new int[numSamples];
+        for (int i = 0; i < numSamples; i++) {
+            sampleIds[i] = i;
+        }
+        assertArrayEquals(expected, GenotypeBinaryCodec.decode(data, sampleIds));
+    }
+}